@@ -267,6 +267,27 @@ public class DTEDFrame
         return -32767; // Considered a null elevation value
     }
 
+    /**
+     * Look up the elevations of a set of points in this frame, for
+     * DTEDFrameCache.getElevations(). Points outside the frame get -32767.
+     *
+     * @param lats latitudes in decimal degrees.
+     * @param lons longitudes in decimal degrees.
+     * @param indexes the indexes of the points in lats and lons to look up.
+     * @param count the number of indexes to use.
+     * @param elevations where the elevations go, in meters, at the same
+     *        indexes as the points.
+     * @param interpolate use interpElevationAt() instead of elevationAt().
+     */
+    public void elevationsAt(double[] lats, double[] lons, int[] indexes, int count, int[] elevations, boolean interpolate) {
+        for (int i = 0; i < count; i++) {
+            int index = indexes[i];
+            float lat = (float) lats[index];
+            float lon = (float) lons[index];
+            elevations[index] = interpolate ? interpElevationAt(lat, lon) : elevationAt(lat, lon);
+        }
+    }
+
     /**
      * Return an index of ints representing the starting x, y and ending x, y of
      * elevation posts given a lat lon box. It does check to make sure that the
@@ -23,15 +23,27 @@
 package com.bbn.openmap.dataAccess.dted;
 
 import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.bbn.openmap.PropertyConsumer;
 import com.bbn.openmap.io.BinaryFile;
+import com.bbn.openmap.io.FormatException;
 import com.bbn.openmap.proj.EqualArc;
+import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.util.Debug;
 import com.bbn.openmap.util.PropUtils;
+import com.bbn.openmap.util.TaskService;
 import com.bbn.openmap.util.cacheHandler.CacheHandler;
 import com.bbn.openmap.util.cacheHandler.CacheObject;
 
@@ -56,6 +68,13 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  *         frameCache.dteddir1.path=/data/dted
  *         frameCache.dteddir2.translator=com.bbn.openmap.dataAccess.dted.StandardDTEDNameTranslator
  *         frameCache.dteddir2.path=/data/dted
+ *         # Optional, where the overview sidecar files go.  By default they go
+ *         # next to the frames, or in a temporary directory if that fails.
+ *         frameCache.overviewPath=/data/dtedOverviews
+ *         # Optional, set to false to keep overviews in memory only.
+ *         frameCache.writeOverviews=true
+ *         # Optional, memory used for overview levels, in bytes.
+ *         frameCache.overviewCacheBytes=16777216
  * 
  * 
  * </pre>
@@ -66,6 +85,19 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * that doesn't conform to the naming conventions specified in the Military
  * Standard, you can use a different DTEDNameTranslator instead for your
  * particular directory handler.
+ * <P>
+ * 
+ * For views of large areas, getRegion() returns elevations from the
+ * DTEDOverview pyramids of the frames instead of the frames themselves,
+ * picking the overview level that matches the spacing of the samples. The
+ * overviews are made from the frames the first time they are needed, and
+ * saved in sidecar files so the frames don't have to be read again.
+ * <P>
+ *
+ * For elevations of many scattered points, like along terrain profiles or
+ * line-of-sight paths, getElevations(lats, lons, ...) sorts the points by
+ * frame and looks them up in parallel, instead of finding the frame for each
+ * point.
  */
 public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
     /**
@@ -75,8 +107,37 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
 
     public static final String DTEDDirectoryHandlerProperty = "directoryHandlers";
     public static final String DTEDFrameCacheSizeProperty = "cacheSize";
+    public static final String OverviewPathProperty = "overviewPath";
+    public static final String WriteOverviewsProperty = "writeOverviews";
+    public static final String OverviewCacheBytesProperty = "overviewCacheBytes";
 
     public int DEFAULT_CACHE_SIZE = 20;
+    public final static long DEFAULT_OVERVIEW_CACHE_BYTES = 16L * 1024L * 1024L;
+    /** The most overview descriptions kept on hand. */
+    protected final static int MAX_OVERVIEWS = 1000;
+    /** The distance between posts for DTED levels 0, 1 and 2, in degrees. */
+    protected final static double[] POST_SPACING = {
+        30.0 / 3600.0,
+        3.0 / 3600.0,
+        1.0 / 3600.0
+    };
+
+    /** Where sidecar files go, or null for next to the frames. */
+    protected String overviewPath = null;
+    protected boolean writeOverviews = true;
+    protected long overviewCacheBytes = DEFAULT_OVERVIEW_CACHE_BYTES;
+    /** Overview descriptions, by frame path. */
+    protected final Map<String, DTEDOverview> overviews = new LinkedHashMap<String, DTEDOverview>(16, .75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<String, DTEDOverview> eldest) {
+            return size() > MAX_OVERVIEWS;
+        }
+    };
+    /** Overview levels with values in memory, least recently used first. */
+    protected final LinkedHashMap<DTEDOverview.Level, DTEDOverview> loadedLevels =
+            new LinkedHashMap<DTEDOverview.Level, DTEDOverview>(16, .75f, true);
+    protected long loadedLevelBytes = 0;
 
     protected String propertyPrefix = null;
 
@@ -200,6 +261,18 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
             super(id, obj);
         }
 
+        /**
+         * The weight of a frame is the size of all of its elevation posts,
+         * since they will all be read if the frame stays in use.
+         */
+        public long getWeight() {
+            DTEDFrame frame = (DTEDFrame) obj;
+            if (frame != null && frame.uhl != null) {
+                return Math.max(1L, 2L * frame.uhl.num_lon_lines * frame.uhl.num_lat_points);
+            }
+            return super.getWeight();
+        }
+
         /**
          * Calls dispose() on the contained frame, to make it eligible for
          * garbage collection.
@@ -339,6 +412,146 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
         return NO_DATA;
     }
 
+    /**
+     * Fill an array with the elevations of many lat/lon points at once, in
+     * meters, looking for frames from the highest resolution level down to
+     * level 0 like getElevation(lat, lon) does. Use this instead of calling
+     * getElevation() for each point when there are a lot of them, like for
+     * terrain profiles and line-of-sight calculations.
+     *
+     * @param lats the latitudes of the points, in decimal degrees.
+     * @param lons the longitudes of the points, in decimal degrees.
+     * @param elevations the array to fill, at least as long as lats. If null,
+     *        an array will be created.
+     * @param interpolate if true, the elevations are interpolated between
+     *        posts, otherwise the closest post is used.
+     * @return the elevations, NO_DATA for points without a frame.
+     */
+    public int[] getElevations(double[] lats, double[] lons, int[] elevations, boolean interpolate) {
+        return getElevations(lats, lons, elevations, highestResLevel, 0, interpolate);
+    }
+
+    /**
+     * Fill an array with the elevations of many lat/lon points at once, in
+     * meters, from frames of one DTED level.
+     *
+     * @param lats the latitudes of the points, in decimal degrees.
+     * @param lons the longitudes of the points, in decimal degrees.
+     * @param elevations the array to fill, at least as long as lats. If null,
+     *        an array will be created.
+     * @param level the dted level.
+     * @param interpolate if true, the elevations are interpolated between
+     *        posts, otherwise the closest post is used.
+     * @return the elevations, NO_DATA for points without a frame.
+     */
+    public int[] getElevations(double[] lats, double[] lons, int[] elevations, int level, boolean interpolate) {
+        return getElevations(lats, lons, elevations, level, level, interpolate);
+    }
+
+    /**
+     * The points are sorted into the frames that cover them, and each frame is
+     * found and loaded once. The frames are held until their points are done,
+     * so they can't be pushed out of the cache and loaded again partway
+     * through, and the points of different frames are looked up in parallel.
+     * No more frames than the cache holds are kept at one time.
+     *
+     * @param highLevel the first dted level to look for frames.
+     * @param lowLevel the last dted level to look for frames.
+     */
+    protected int[] getElevations(double[] lats, double[] lons, int[] elevations, int highLevel, int lowLevel,
+                                  final boolean interpolate) {
+        final int count = lats.length;
+        if (elevations == null) {
+            elevations = new int[count];
+        }
+        Arrays.fill(elevations, 0, count, NO_DATA);
+
+        Map<Long, FrameSamples> cells = new LinkedHashMap<Long, FrameSamples>();
+        FrameSamples last = null;
+        for (int i = 0; i < count; i++) {
+            double lat = lats[i];
+            double lon = lons[i];
+            if (Double.isNaN(lat) || Double.isNaN(lon)) {
+                continue;
+            }
+            int cellLat = (int) Math.floor(lat);
+            int cellLon = (int) Math.floor(lon);
+            // Points along a path usually stay in a frame for a while.
+            if (last == null || last.cellLat != cellLat || last.cellLon != cellLon) {
+                Long key = Long.valueOf(((long) cellLat << 32) | (cellLon & 0xffffffffL));
+                last = cells.get(key);
+                if (last == null) {
+                    last = new FrameSamples(cellLat, cellLon);
+                    cells.put(key, last);
+                }
+            }
+            last.add(i);
+        }
+
+        final List<FrameSamples> batch = new ArrayList<FrameSamples>();
+        int batchSize = Math.max(1, objs.length);
+        for (Iterator<FrameSamples> it = cells.values().iterator(); it.hasNext();) {
+            FrameSamples samples = it.next();
+            // The cache isn't thread safe, so the frames are found here.
+            for (int level = highLevel; level >= lowLevel && samples.frame == null; level--) {
+                String dtedFileName = findFileName(samples.cellLat + .5, samples.cellLon + .5, level);
+                if (dtedFileName != null) {
+                    samples.frame = (DTEDFrame) get(dtedFileName);
+                }
+            }
+            if (samples.frame != null) {
+                batch.add(samples);
+            }
+
+            if (batch.size() == batchSize || (!it.hasNext() && !batch.isEmpty())) {
+                final int[] results = elevations;
+                final double[] batchLats = lats;
+                final double[] batchLons = lons;
+                final AtomicInteger next = new AtomicInteger();
+                TaskService.singleton().runInParallel(new Runnable() {
+                    public void run() {
+                        int index;
+                        while ((index = next.getAndIncrement()) < batch.size()) {
+                            FrameSamples fs = batch.get(index);
+                            fs.frame.elevationsAt(batchLats, batchLons, fs.indexes, fs.count, results, interpolate);
+                        }
+                    }
+                }, batch.size());
+
+                // Let the cache decide what to keep from here on.
+                for (FrameSamples fs : batch) {
+                    fs.frame = null;
+                }
+                batch.clear();
+            }
+        }
+
+        return elevations;
+    }
+
+    /**
+     * The indexes of the points that fall in a frame, for getElevations().
+     */
+    protected static class FrameSamples {
+        final int cellLat;
+        final int cellLon;
+        int[] indexes = new int[16];
+        int count;
+        DTEDFrame frame;
+
+        FrameSamples(int cellLat, int cellLon) {
+            this.cellLat = cellLat;
+            this.cellLon = cellLon;
+        }
+
+        void add(int index) {
+            if (count == indexes.length) {
+                indexes = Arrays.copyOf(indexes, count * 2);
+            }
+            indexes[count++] = index;
+        }
+    }
+
     /**
      * Return the two-dimensional matrix of elevation posts (heights)
      * representing coverage of a given geographical rectangle. The matrix
@@ -576,6 +789,366 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
         return matrix;
     }
 
+    /**
+     * Set the directory for the overview sidecar files. If null, they are put
+     * next to the frames, or in a temporary directory if that doesn't work.
+     */
+    public void setOverviewPath(String path) {
+        overviewPath = path;
+    }
+
+    public String getOverviewPath() {
+        return overviewPath;
+    }
+
+    /**
+     * Set whether overviews are saved to sidecar files. If false, they are
+     * only kept in memory.
+     */
+    public void setWriteOverviews(boolean value) {
+        writeOverviews = value;
+    }
+
+    public boolean isWriteOverviews() {
+        return writeOverviews;
+    }
+
+    /**
+     * Set the memory, in bytes, used for overview levels read from sidecar
+     * files.
+     */
+    public void setOverviewCacheBytes(long bytes) {
+        overviewCacheBytes = bytes;
+        synchronized (loadedLevels) {
+            trimLevels(null);
+        }
+    }
+
+    public long getOverviewCacheBytes() {
+        return overviewCacheBytes;
+    }
+
+    /**
+     * @return the distance between posts for a DTED level, in degrees.
+     */
+    public static double getPostSpacing(int dtedLevel) {
+        return POST_SPACING[Math.max(0, Math.min(POST_SPACING.length - 1, dtedLevel))];
+    }
+
+    /**
+     * Figure out the sidecar file path for a frame.
+     * 
+     * @param framePath the path to the frame.
+     * @param dir the directory for the sidecar, or null for next to the frame.
+     */
+    protected String getSidecarPath(String framePath, String dir) {
+        if (dir == null) {
+            return framePath + DTEDOverview.SUFFIX;
+        }
+        // Frame names repeat in each longitude directory, so the directory
+        // name goes in the sidecar name.
+        File frameFile = new File(framePath);
+        File parent = frameFile.getParentFile();
+        String name = (parent != null ? parent.getName() + "_" : "") + frameFile.getName();
+        return new File(dir, name + DTEDOverview.SUFFIX).getPath();
+    }
+
+    /**
+     * Get the overview pyramid for a frame, reading it from its sidecar file,
+     * or creating it from the frame if there isn't one.
+     * 
+     * @param framePath the path to the frame.
+     * @return the overview, or null if the frame can't be read.
+     */
+    public DTEDOverview getOverview(String framePath) {
+        synchronized (overviews) {
+            DTEDOverview overview = overviews.get(framePath);
+            if (overview != null) {
+                return overview;
+            }
+        }
+
+        DTEDOverview overview = loadOverview(framePath);
+        if (overview != null) {
+            synchronized (overviews) {
+                DTEDOverview current = overviews.get(framePath);
+                if (current != null) {
+                    return current;
+                }
+                overviews.put(framePath, overview);
+            }
+        }
+        return overview;
+    }
+
+    protected DTEDOverview loadOverview(String framePath) {
+        String[] dirs = overviewPath != null ? new String[] {
+            overviewPath
+        } : new String[] {
+            null,
+            new File(System.getProperty("java.io.tmpdir"), "dtedOverviews").getPath()
+        };
+
+        long frameTime = new File(framePath).lastModified();
+        for (String dir : dirs) {
+            File sidecar = new File(getSidecarPath(framePath, dir));
+            if (sidecar.exists() && sidecar.lastModified() >= frameTime) {
+                try {
+                    return DTEDOverview.read(sidecar.getPath());
+                } catch (IOException ioe) {
+                    Debug.message("dted", "DTEDFrameCache: can't read overview " + sidecar + ": " + ioe.getMessage());
+                } catch (FormatException fe) {
+                    Debug.message("dted", "DTEDFrameCache: can't read overview " + sidecar + ": " + fe.getMessage());
+                }
+            }
+        }
+
+        DTEDFrame frame = new DTEDFrame(framePath, true);
+        if (!frame.frame_is_valid) {
+            return null;
+        }
+        DTEDOverview overview = DTEDOverview.create(frame);
+        frame.dispose();
+
+        if (writeOverviews) {
+            for (String dir : dirs) {
+                try {
+                    if (dir != null) {
+                        new File(dir).mkdirs();
+                    }
+                    overview.write(getSidecarPath(framePath, dir));
+                    // Loaded as needed from here on.
+                    for (int i = 0; i < overview.getNumLevels(); i++) {
+                        overview.unloadLevel(i);
+                    }
+                    break;
+                } catch (IOException ioe) {
+                    Debug.message("dted", "DTEDFrameCache: can't write overview for " + framePath + ": " + ioe.getMessage());
+                }
+            }
+        }
+        return overview;
+    }
+
+    /**
+     * Get an overview level with its values loaded, keeping the memory used by
+     * loaded levels under the overview cache limit.
+     */
+    protected DTEDOverview.Level getOverviewLevel(DTEDOverview overview, int index)
+            throws IOException {
+        DTEDOverview.Level level = overview.loadLevel(index);
+        if (overview.getPath() == null) {
+            // Can't be read again, so it isn't counted.
+            return level;
+        }
+
+        synchronized (loadedLevels) {
+            if (loadedLevels.put(level, overview) == null) {
+                loadedLevelBytes += level.getByteSize();
+                trimLevels(level);
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Unload the least recently used levels until the loaded levels fit in the
+     * overview cache. Call while synchronized on loadedLevels.
+     * 
+     * @param keep a level not to unload.
+     */
+    protected void trimLevels(DTEDOverview.Level keep) {
+        Iterator<DTEDOverview.Level> it = loadedLevels.keySet().iterator();
+        while (loadedLevelBytes > overviewCacheBytes && it.hasNext()) {
+            DTEDOverview.Level level = it.next();
+            if (level != keep) {
+                it.remove();
+                level.unload();
+                loadedLevelBytes -= level.getByteSize();
+            }
+        }
+    }
+
+    /**
+     * Get the elevations for the area covered by a projection, with about one
+     * sample per pixel, but no more than the posts of the DTED level. Frames
+     * are read only where the samples are as close as the frame posts,
+     * otherwise the overview level matching the sample spacing is used.
+     * Doesn't handle projections crossing the dateline.
+     * 
+     * @param proj the projection describing the area.
+     * @param dtedLevel the DTED level (0, 1, 2) of the frames to use.
+     * @return the mean elevations of the samples, or null if the projection
+     *         crosses the dateline.
+     */
+    public DTEDRegion getRegion(Projection proj, int dtedLevel) {
+        Point2D ul = proj.getUpperLeft();
+        Point2D lr = proj.getLowerRight();
+        double north = ul.getY();
+        double west = ul.getX();
+        double south = lr.getY();
+        double east = lr.getX();
+
+        if (west > east) {
+            Debug.error("DTEDFrameCache: getRegion: Stradling dateline not handled!");
+            return null;
+        }
+
+        double spacing = getPostSpacing(dtedLevel);
+        int width = (int) Math.max(1, Math.min(proj.getWidth(), Math.ceil((east - west) / spacing) + 1));
+        int height = (int) Math.max(1, Math.min(proj.getHeight(), Math.ceil((north - south) / spacing) + 1));
+        return getRegion(north, west, south, east, width, height, dtedLevel, DTEDOverview.MEAN);
+    }
+
+    /**
+     * Get the elevations for an area as one grid of evenly spaced samples,
+     * which can span many frames. For each frame, the coarsest overview level
+     * with blocks no bigger than the sample spacing is used, or the frame
+     * itself if the samples are closer than the overviews.
+     * 
+     * @param north the latitude of the first row, in decimal degrees.
+     * @param west the longitude of the first column, in decimal degrees.
+     * @param south the latitude of the last row, in decimal degrees.
+     * @param east the longitude of the last column, in decimal degrees.
+     * @param width the number of samples across.
+     * @param height the number of samples down.
+     * @param dtedLevel the DTED level (0, 1, 2) of the frames to use.
+     * @param statistic DTEDOverview.MIN, MAX or MEAN, used for samples taken
+     *        from the overviews.
+     * @return the samples.
+     */
+    public DTEDRegion getRegion(double north, double west, double south, double east, int width, int height, int dtedLevel,
+                                int statistic) {
+        double latSpacing = height > 1 ? (north - south) / (height - 1) : Math.abs(north - south);
+        double lonSpacing = width > 1 ? (east - west) / (width - 1) : Math.abs(east - west);
+        DTEDRegion region = new DTEDRegion(north, west, latSpacing, lonSpacing, width, height, statistic);
+
+        int[] colCells = new int[width];
+        for (int col = 0; col < width; col++) {
+            colCells[col] = (int) Math.floor(region.getLongitude(col));
+        }
+        int firstCellLon = colCells[0];
+        RegionSource[] sources = new RegionSource[colCells[width - 1] - firstCellLon + 1];
+        Map<Long, RegionSource> resolved = new HashMap<Long, RegionSource>();
+        int cellLat = Integer.MIN_VALUE;
+
+        for (int row = 0; row < height; row++) {
+            double lat = region.getLatitude(row);
+            int rowCell = (int) Math.floor(lat);
+            if (rowCell != cellLat) {
+                cellLat = rowCell;
+                Arrays.fill(sources, null);
+            }
+
+            for (int col = 0; col < width; col++) {
+                int c = colCells[col] - firstCellLon;
+                RegionSource source = sources[c];
+                if (source == null) {
+                    source = getRegionSource(cellLat, colCells[col], dtedLevel, latSpacing, lonSpacing, resolved);
+                    sources[c] = source;
+                }
+
+                double lon = region.getLongitude(col);
+                if (source == RegionSource.EMPTY) {
+                    // Samples on the south or west edge of a missing frame
+                    // are also on the edge of the frame next to it.
+                    boolean latEdge = lat == cellLat;
+                    boolean lonEdge = lon == colCells[col];
+                    if (latEdge) {
+                        source = getRegionSource(cellLat - 1, colCells[col], dtedLevel, latSpacing, lonSpacing, resolved);
+                    }
+                    if (source == RegionSource.EMPTY && lonEdge) {
+                        source = getRegionSource(cellLat, colCells[col] - 1, dtedLevel, latSpacing, lonSpacing, resolved);
+                    }
+                    if (source == RegionSource.EMPTY && latEdge && lonEdge) {
+                        source = getRegionSource(cellLat - 1, colCells[col] - 1, dtedLevel, latSpacing, lonSpacing, resolved);
+                    }
+                }
+
+                if (source != RegionSource.EMPTY) {
+                    region.values[row * width + col] = source.get(lat, lon, statistic);
+                }
+            }
+        }
+
+        return region;
+    }
+
+    /**
+     * Find where the samples for a frame come from, once for each frame.
+     */
+    protected RegionSource getRegionSource(int cellLat, int cellLon, int dtedLevel, double latSpacing, double lonSpacing,
+                                           Map<Long, RegionSource> resolved) {
+        Long key = Long.valueOf(((long) cellLat << 32) | (cellLon & 0xffffffffL));
+        RegionSource source = resolved.get(key);
+        if (source == null) {
+            source = getRegionSource(cellLat, cellLon, dtedLevel, latSpacing, lonSpacing);
+            resolved.put(key, source);
+        }
+        return source;
+    }
+
+    /**
+     * Find where the samples for a frame come from.
+     */
+    protected RegionSource getRegionSource(int cellLat, int cellLon, int dtedLevel, double latSpacing, double lonSpacing) {
+        String framePath = findFileName(cellLat + .5, cellLon + .5, dtedLevel);
+        if (framePath == null) {
+            return RegionSource.EMPTY;
+        }
+
+        DTEDOverview overview = getOverview(framePath);
+        if (overview != null) {
+            int index = overview.getLevelIndex(latSpacing, lonSpacing);
+            if (index >= 0) {
+                try {
+                    return new RegionSource(overview, getOverviewLevel(overview, index), null);
+                } catch (IOException ioe) {
+                    Debug.message("dted", "DTEDFrameCache: can't load overview for " + framePath + ": " + ioe.getMessage());
+                }
+            }
+        }
+
+        DTEDFrame frame = (DTEDFrame) get(framePath);
+        return frame != null ? new RegionSource(null, null, frame) : RegionSource.EMPTY;
+    }
+
+    /**
+     * The overview level or frame that samples for a frame come from.
+     */
+    protected static class RegionSource {
+        static final RegionSource EMPTY = new RegionSource(null, null, null);
+
+        final DTEDOverview overview;
+        final DTEDOverview.Level level;
+        final DTEDFrame frame;
+        int statistic = -1;
+        short[] statValues;
+
+        RegionSource(DTEDOverview overview, DTEDOverview.Level level, DTEDFrame frame) {
+            this.overview = overview;
+            this.level = level;
+            this.frame = frame;
+        }
+
+        short get(double lat, double lon, int statistic) {
+            if (frame != null) {
+                return (short) frame.elevationAt((float) lat, (float) lon);
+            }
+            if (statistic != this.statistic) {
+                // Held here, so the level can be unloaded while in use.
+                statValues = level.get(statistic);
+                this.statistic = statistic;
+            }
+            if (statValues == null) {
+                return NO_DATA;
+            }
+            int x = overview.getLonIndex(lon) / level.factor;
+            int y = overview.getLatIndex(lat) / level.factor;
+            return statValues[x * level.height + y];
+        }
+    }
+
     /**
      * PropertyConsumer method.
      */
@@ -619,6 +1192,13 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
 
         resetCache(PropUtils.intFromProperties(props, prefix
                 + DTEDFrameCacheSizeProperty, DEFAULT_CACHE_SIZE));
+        setCacheProperties(prefix, props);
+
+        overviewPath = props.getProperty(prefix + OverviewPathProperty, overviewPath);
+        writeOverviews = PropUtils.booleanFromProperties(props, prefix
+                + WriteOverviewsProperty, writeOverviews);
+        setOverviewCacheBytes(PropUtils.longFromProperties(props, prefix
+                + OverviewCacheBytesProperty, overviewCacheBytes));
     }
 
     /**
@@ -632,6 +1212,12 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
         String prefix = PropUtils.getScopedPropertyPrefix(this);
         props.put(prefix + DTEDFrameCacheSizeProperty,
                 Integer.toString(getCacheSize()));
+        getCacheProperties(prefix, props);
+        props.put(prefix + OverviewPathProperty, PropUtils.unnull(overviewPath));
+        props.put(prefix + WriteOverviewsProperty,
+                Boolean.toString(writeOverviews));
+        props.put(prefix + OverviewCacheBytesProperty,
+                Long.toString(overviewCacheBytes));
 
         // Directory handler properties...
         if (directories != null) {
@@ -665,6 +1251,10 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
         }
 
         props.put(DTEDFrameCacheSizeProperty, "Size of the frame cache");
+        props.put(CACHE_MAX_BYTES_PROPERTY, "Memory limit for the frame cache, in bytes (optional, replaces the size)");
+        props.put(OverviewPathProperty, "Directory for overview sidecar files (optional, next to the frames by default)");
+        props.put(WriteOverviewsProperty, "Save overviews to sidecar files");
+        props.put(OverviewCacheBytesProperty, "Memory limit for overview levels, in bytes");
 
         // Not sure how to handle setting up a DTEDDirectoryHandler
         // yet.
@@ -0,0 +1,469 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.dted;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.bbn.openmap.io.FormatException;
+
+/**
+ * A pyramid of reduced resolution versions of a DTED frame. Each level
+ * summarizes blocks of elevation posts from the frame, 2x2 posts for the first
+ * level, 4x4 for the second, and so on, holding the minimum, maximum and mean
+ * elevation of each block. Posts without data are left out of the summaries,
+ * and a block without any data gets DTEDFrameCache.NO_DATA.
+ * <P>
+ * The overview can be written to a sidecar file, and read back a level at a
+ * time, so a coarse view of a large area doesn't need the full resolution
+ * frames. The DTEDFrameCache creates the sidecars as frames are needed for
+ * region queries.
+ * <P>
+ * Like the DTEDFrame, the arrays are in longitude columns, with index 0 in the
+ * southwest corner, so block x, y is at index x * height + y.
+ */
+public class DTEDOverview {
+
+    public final static String MAGIC = "OMDTEDOV";
+    /** The file name suffix for the sidecar files. */
+    public final static String SUFFIX = ".ovr";
+
+    /** Statistic for the lowest elevation in each block. */
+    public final static int MIN = 0;
+    /** Statistic for the highest elevation in each block. */
+    public final static int MAX = 1;
+    /** Statistic for the average elevation in each block. */
+    public final static int MEAN = 2;
+
+    protected final static int HEADER_LENGTH = 8 + 4 * 4 + 4 * 4;
+    protected final static int LEVEL_HEADER_LENGTH = 3 * 4 + 8;
+
+    /** The number of posts in the frame, across and up. */
+    protected int numLonLines, numLatPoints;
+    /** The southwest post location, in decimal degrees. */
+    protected float swLat, swLon;
+    /** The post spacing in the frame, in decimal degrees. */
+    protected float latInterval, lonInterval;
+    protected Level[] levels;
+    /** The sidecar file the levels are read from, if there is one. */
+    protected String path;
+
+    /**
+     * One level of the pyramid.
+     */
+    public static class Level {
+        /** The number of frame posts in each direction of a block. */
+        public final int factor;
+        /** The number of blocks across and up. */
+        public final int width, height;
+        protected short[][] stats;
+        protected long offset;
+
+        protected Level(int factor, int width, int height) {
+            this.factor = factor;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * @return true if the values are in memory.
+         */
+        public synchronized boolean isLoaded() {
+            return stats != null;
+        }
+
+        /**
+         * Get the values for one of the statistics, MIN, MAX or MEAN. Make sure
+         * the level is loaded first.
+         */
+        public synchronized short[] get(int statistic) {
+            return stats != null ? stats[statistic] : null;
+        }
+
+        /**
+         * @return the value of a statistic for a block, or NO_DATA if the level
+         *         isn't loaded.
+         */
+        public short get(int statistic, int x, int y) {
+            short[] values = get(statistic);
+            return values != null ? values[x * height + y] : DTEDFrameCache.NO_DATA;
+        }
+
+        /**
+         * @return the number of bytes the values take up.
+         */
+        public long getByteSize() {
+            return 3L * 2L * width * height;
+        }
+
+        protected synchronized void unload() {
+            stats = null;
+        }
+
+        public String toString() {
+            return "DTEDOverview.Level[" + factor + "x" + factor + ", " + width + "x" + height + "]";
+        }
+    }
+
+    protected DTEDOverview() {
+    }
+
+    /**
+     * Create the overview for a DTED frame. All of the frame's posts are read.
+     */
+    public static DTEDOverview create(DTEDFrame frame) {
+        frame.readDataRecords();
+        return create(frame.elevations, frame.dsi.sw_lat, frame.dsi.sw_lon, frame.uhl.lat_post_interval / 36000f,
+                      frame.uhl.lon_post_interval / 36000f);
+    }
+
+    /**
+     * Create the overview for a grid of elevation posts.
+     *
+     * @param posts the posts, in longitude columns with 0, 0 in the southwest
+     *        corner, like a DTEDFrame.
+     * @param swLat the latitude of the southwest post.
+     * @param swLon the longitude of the southwest post.
+     * @param latInterval the degrees between posts going north.
+     * @param lonInterval the degrees between posts going east.
+     */
+    public static DTEDOverview create(short[][] posts, float swLat, float swLon, float latInterval, float lonInterval) {
+        DTEDOverview ret = new DTEDOverview();
+        ret.numLonLines = posts.length;
+        ret.numLatPoints = posts[0].length;
+        ret.swLat = swLat;
+        ret.swLon = swLon;
+        ret.latInterval = latInterval;
+        ret.lonInterval = lonInterval;
+
+        int numLevels = 0;
+        for (int factor = 2; Math.max(ret.numLonLines, ret.numLatPoints) > factor; factor *= 2) {
+            numLevels++;
+        }
+        ret.levels = new Level[numLevels];
+
+        // The first level comes from the posts, the rest from the level
+        // before, keeping track of how many posts went into each block so the
+        // means are right.
+        Level prev = null;
+        int[] prevCounts = null;
+        for (int l = 0; l < numLevels; l++) {
+            int factor = 2 << l;
+            Level level = new Level(factor, (ret.numLonLines + factor - 1) / factor, (ret.numLatPoints + factor - 1) / factor);
+            int size = level.width * level.height;
+            short[] min = new short[size];
+            short[] max = new short[size];
+            short[] mean = new short[size];
+            int[] counts = new int[size];
+
+            for (int x = 0; x < level.width; x++) {
+                for (int y = 0; y < level.height; y++) {
+                    int lo = Short.MAX_VALUE;
+                    int hi = Short.MIN_VALUE;
+                    long sum = 0;
+                    int count = 0;
+
+                    for (int cx = x * 2; cx < x * 2 + 2; cx++) {
+                        for (int cy = y * 2; cy < y * 2 + 2; cy++) {
+                            if (prev == null) {
+                                if (cx >= ret.numLonLines || cy >= ret.numLatPoints) {
+                                    continue;
+                                }
+                                short post = posts[cx][cy];
+                                if (post == DTEDFrameCache.NO_DATA) {
+                                    continue;
+                                }
+                                lo = Math.min(lo, post);
+                                hi = Math.max(hi, post);
+                                sum += post;
+                                count++;
+                            } else {
+                                if (cx >= prev.width || cy >= prev.height) {
+                                    continue;
+                                }
+                                int i = cx * prev.height + cy;
+                                int n = prevCounts[i];
+                                if (n == 0) {
+                                    continue;
+                                }
+                                lo = Math.min(lo, prev.stats[MIN][i]);
+                                hi = Math.max(hi, prev.stats[MAX][i]);
+                                sum += (long) prev.stats[MEAN][i] * n;
+                                count += n;
+                            }
+                        }
+                    }
+
+                    int i = x * level.height + y;
+                    counts[i] = count;
+                    if (count == 0) {
+                        min[i] = max[i] = mean[i] = DTEDFrameCache.NO_DATA;
+                    } else {
+                        min[i] = (short) lo;
+                        max[i] = (short) hi;
+                        mean[i] = (short) Math.round((double) sum / count);
+                    }
+                }
+            }
+
+            level.stats = new short[][] { min, max, mean };
+            ret.levels[l] = level;
+            prev = level;
+            prevCounts = counts;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Read the description of the levels from a sidecar file. The level values
+     * are read when they are loaded.
+     *
+     * @throws FormatException if the file isn't an overview file.
+     */
+    public static DTEDOverview read(String path)
+            throws IOException, FormatException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            byte[] magic = new byte[MAGIC.length()];
+            file.readFully(magic);
+            if (!MAGIC.equals(new String(magic, "US-ASCII"))) {
+                throw new FormatException("DTEDOverview: " + path + " isn't an overview file");
+            }
+
+            DTEDOverview ret = new DTEDOverview();
+            ret.path = path;
+            ret.numLonLines = file.readInt();
+            ret.numLatPoints = file.readInt();
+            ret.swLat = file.readFloat();
+            ret.swLon = file.readFloat();
+            ret.latInterval = file.readFloat();
+            ret.lonInterval = file.readFloat();
+            ret.levels = new Level[file.readInt()];
+            /* reserved */file.readInt();
+
+            for (int l = 0; l < ret.levels.length; l++) {
+                Level level = new Level(file.readInt(), file.readInt(), file.readInt());
+                level.offset = file.readLong();
+                if (level.offset + level.getByteSize() > file.length()) {
+                    throw new FormatException("DTEDOverview: " + path + " is truncated");
+                }
+                ret.levels[l] = level;
+            }
+            return ret;
+        } catch (EOFException eofe) {
+            throw new FormatException("DTEDOverview: " + path + " is truncated");
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Write the overview to a sidecar file. All of the levels have to be
+     * loaded. After this, levels can be unloaded and read back from the file.
+     */
+    public void write(String path)
+            throws IOException {
+        File tmp = new File(path + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.write(MAGIC.getBytes("US-ASCII"));
+            out.writeInt(numLonLines);
+            out.writeInt(numLatPoints);
+            out.writeFloat(swLat);
+            out.writeFloat(swLon);
+            out.writeFloat(latInterval);
+            out.writeFloat(lonInterval);
+            out.writeInt(levels.length);
+            out.writeInt(0);
+
+            long offset = HEADER_LENGTH + (long) LEVEL_HEADER_LENGTH * levels.length;
+            for (Level level : levels) {
+                out.writeInt(level.factor);
+                out.writeInt(level.width);
+                out.writeInt(level.height);
+                out.writeLong(offset);
+                offset += level.getByteSize();
+            }
+
+            for (Level level : levels) {
+                for (short[] values : level.stats) {
+                    for (short value : values) {
+                        out.writeShort(value);
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        File file = new File(path);
+        file.delete();
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("DTEDOverview: can't create " + path);
+        }
+
+        offsetLevels();
+        this.path = path;
+    }
+
+    protected void offsetLevels() {
+        long offset = HEADER_LENGTH + (long) LEVEL_HEADER_LENGTH * levels.length;
+        for (Level level : levels) {
+            level.offset = offset;
+            offset += level.getByteSize();
+        }
+    }
+
+    /**
+     * @return the sidecar file path, or null if the overview is only in
+     *         memory.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public int getNumLevels() {
+        return levels.length;
+    }
+
+    /**
+     * Get a level, which may not be loaded.
+     *
+     * @param index 0 for the 2x2 level, 1 for the 4x4 level, etc.
+     */
+    public Level getLevel(int index) {
+        return levels[index];
+    }
+
+    /**
+     * Get a level, reading its values from the sidecar file if needed.
+     */
+    public Level loadLevel(int index)
+            throws IOException {
+        Level level = levels[index];
+        synchronized (level) {
+            if (level.stats == null) {
+                if (path == null) {
+                    throw new IOException("DTEDOverview: level " + index + " isn't available");
+                }
+
+                int size = level.width * level.height;
+                ByteBuffer buffer = ByteBuffer.allocate((int) level.getByteSize());
+                RandomAccessFile file = new RandomAccessFile(path, "r");
+                try {
+                    FileChannel channel = file.getChannel();
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, level.offset + buffer.position()) < 0) {
+                            throw new EOFException("DTEDOverview: " + path + " is truncated");
+                        }
+                    }
+                } finally {
+                    file.close();
+                }
+
+                buffer.flip();
+                short[][] stats = new short[3][size];
+                for (short[] values : stats) {
+                    buffer.asShortBuffer().get(values);
+                    buffer.position(buffer.position() + size * 2);
+                }
+                level.stats = stats;
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Drop the values of a level from memory, if they can be read again from
+     * the sidecar file.
+     */
+    public void unloadLevel(int index) {
+        if (path != null) {
+            levels[index].unload();
+        }
+    }
+
+    /**
+     * Find the coarsest level with blocks no bigger than the given spacing.
+     *
+     * @param latSpacing the degrees between the wanted samples going north.
+     * @param lonSpacing the degrees between the wanted samples going east.
+     * @return the level index, or -1 if the frame posts should be used.
+     */
+    public int getLevelIndex(double latSpacing, double lonSpacing) {
+        // The intervals are floats, so a little slack for exact matches.
+        latSpacing *= 1.000001;
+        lonSpacing *= 1.000001;
+        int ret = -1;
+        for (int l = 0; l < levels.length; l++) {
+            int factor = levels[l].factor;
+            if (factor * latInterval <= latSpacing && factor * lonInterval <= lonSpacing) {
+                ret = l;
+            } else {
+                break;
+            }
+        }
+        return ret;
+    }
+
+    public float getSWLat() {
+        return swLat;
+    }
+
+    public float getSWLon() {
+        return swLon;
+    }
+
+    public float getLatInterval() {
+        return latInterval;
+    }
+
+    public float getLonInterval() {
+        return lonInterval;
+    }
+
+    public int getNumLonLines() {
+        return numLonLines;
+    }
+
+    public int getNumLatPoints() {
+        return numLatPoints;
+    }
+
+    /**
+     * @return the post column closest to a longitude, in the frame.
+     */
+    public int getLonIndex(double lon) {
+        int x = (int) Math.round((lon - swLon) / lonInterval);
+        return Math.max(0, Math.min(numLonLines - 1, x));
+    }
+
+    /**
+     * @return the post row closest to a latitude, in the frame.
+     */
+    public int getLatIndex(double lat) {
+        int y = (int) Math.round((lat - swLat) / latInterval);
+        return Math.max(0, Math.min(numLatPoints - 1, y));
+    }
+}
@@ -0,0 +1,70 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.dted;
+
+import java.util.Arrays;
+
+/**
+ * A grid of elevations covering an area, which may span many DTED frames,
+ * returned from DTEDFrameCache.getRegion(). The samples are evenly spaced in
+ * latitude and longitude, in rows starting at the northern edge of the area,
+ * so sample col, row is at index row * width + col. Samples without data are
+ * DTEDFrameCache.NO_DATA.
+ */
+public class DTEDRegion {
+
+    /** The number of samples across and down. */
+    public final int width, height;
+    /** The location of the northwest sample, in decimal degrees. */
+    public final double north, west;
+    /** The degrees between samples. */
+    public final double latSpacing, lonSpacing;
+    /** DTEDOverview.MIN, MAX or MEAN. */
+    public final int statistic;
+    /** The elevations, in meters. */
+    public final short[] values;
+
+    public DTEDRegion(double north, double west, double latSpacing, double lonSpacing, int width, int height, int statistic) {
+        this.north = north;
+        this.west = west;
+        this.latSpacing = latSpacing;
+        this.lonSpacing = lonSpacing;
+        this.width = width;
+        this.height = height;
+        this.statistic = statistic;
+        values = new short[width * height];
+        Arrays.fill(values, (short) DTEDFrameCache.NO_DATA);
+    }
+
+    /**
+     * @return the elevation of a sample, in meters.
+     */
+    public short get(int col, int row) {
+        return values[row * width + col];
+    }
+
+    public double getLatitude(int row) {
+        return north - row * latSpacing;
+    }
+
+    public double getLongitude(int col) {
+        return west + col * lonSpacing;
+    }
+
+    public String toString() {
+        return "DTEDRegion[" + width + "x" + height + " from " + north + ", " + west + ", spacing " + latSpacing + ", "
+                + lonSpacing + "]";
+    }
+}
@@ -0,0 +1,407 @@
+//**********************************************************************
+//
+//<copyright>
+//
+//BBN Technologies
+//10 Moulton Street
+//Cambridge, MA 02138
+//(617) 873-8000
+//
+//Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+//</copyright>
+//**********************************************************************
+package com.bbn.openmap.dataAccess.mapTile;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.util.TaskService;
+import com.bbn.openmap.util.cacheHandler.CacheObject;
+
+/**
+ * Loads map tiles into a StandardMapTileFactory's cache in the background, so
+ * they are ready before they are needed. The factory hands the prefetcher the
+ * tiles around the current view after it has loaded the visible ones, and the
+ * prefetcher loads them a few at a time on TaskService threads, nearest first.
+ * <p>
+ * When the view changes, the factory hands over a new set of tiles. Tiles
+ * from the old set that haven't been started are dropped, and tiles that are
+ * being loaded are allowed to finish and go into the cache. If the factory
+ * needs a tile that is being prefetched, claim() waits for that load instead
+ * of reading the tile twice.
+ * <p>
+ * The prefetcher keeps count of how many tiles it loaded and how many of
+ * those were later used by the map, so the prefetch settings can be tuned.
+ */
+public class MapTilePrefetcher {
+
+    protected final static Logger logger = Logger.getLogger("com.bbn.openmap.dataAccess.mapTile.MapTilePrefetcher");
+
+    /**
+     * A tile to prefetch.
+     */
+    public static class Request {
+        protected final String key;
+        protected final int x;
+        protected final int y;
+        protected final int zoomLevel;
+        protected final Projection proj;
+        protected final CountDownLatch done = new CountDownLatch(1);
+        /** Handed to the TaskService, which may not have run it yet. */
+        protected boolean spawned;
+        /** Being loaded. */
+        protected boolean started;
+        protected int epoch;
+        protected volatile CacheObject result;
+
+        /**
+         * @param key the cache key (image path) for the tile.
+         * @param x the uv x coordinate of the tile.
+         * @param y the uv y coordinate of the tile.
+         * @param zoomLevel the zoom level of the tile.
+         * @param proj the projection the tile is for, used to pick the type of
+         *        OMGraphic created.
+         */
+        public Request(String key, int x, int y, int zoomLevel, Projection proj) {
+            this.key = key;
+            this.x = x;
+            this.y = y;
+            this.zoomLevel = zoomLevel;
+            this.proj = proj;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String toString() {
+            return "Request[" + zoomLevel + "|" + x + "|" + y + "]";
+        }
+    }
+
+    protected final StandardMapTileFactory factory;
+    protected int maxInFlight = 2;
+    protected int priority = TaskService.MIN_PRIORITY;
+
+    /** Requests that haven't been started, in the order they should be. */
+    protected final LinkedList<Request> queue = new LinkedList<Request>();
+    /** Queued and running requests, by key. */
+    protected final Map<String, Request> requests = new LinkedHashMap<String, Request>();
+    protected int inFlight;
+    /** Bumped when results of running loads should be thrown away. */
+    protected int epoch;
+    /**
+     * Keys of tiles loaded by the prefetcher that haven't been used yet.
+     * Limited in size, since tiles can drop out of the cache unused.
+     */
+    protected final Map<String, Boolean> prefetched = new LinkedHashMap<String, Boolean>(64, .75f, false) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > maxPrefetchedTracked;
+        }
+    };
+    protected int maxPrefetchedTracked = 1024;
+
+    protected long requested;
+    protected long loaded;
+    protected long empty;
+    protected long cancelled;
+    protected long hits;
+    protected long waits;
+    protected long misses;
+
+    public MapTilePrefetcher(StandardMapTileFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Replace the tiles waiting to be prefetched. Tiles that were waiting and
+     * aren't in the new list are dropped.
+     *
+     * @param tiles the tiles to load, in the order they should be loaded.
+     */
+    public synchronized void prefetch(List<Request> tiles) {
+        LinkedHashMap<String, Request> wanted = new LinkedHashMap<String, Request>();
+        for (Request tile : tiles) {
+            wanted.put(tile.key, tile);
+        }
+
+        for (Iterator<Request> it = queue.iterator(); it.hasNext();) {
+            Request old = it.next();
+            if (!wanted.containsKey(old.key)) {
+                it.remove();
+                requests.remove(old.key);
+                old.done.countDown();
+                cancelled++;
+            }
+        }
+
+        queue.clear();
+        for (Request tile : wanted.values()) {
+            Request current = requests.get(tile.key);
+            if (current == null) {
+                requests.put(tile.key, tile);
+                requested++;
+                current = tile;
+            }
+            if (!current.spawned) {
+                queue.add(current);
+            }
+        }
+
+        startWaiting();
+    }
+
+    /**
+     * Drop all of the tiles waiting to be prefetched, letting the ones being
+     * loaded finish.
+     *
+     * @param discardRunning if true, the tiles being loaded won't be put in
+     *        the cache when they finish (because the cache was cleared, for
+     *        instance).
+     */
+    public synchronized void cancel(boolean discardRunning) {
+        for (Request tile : queue) {
+            requests.remove(tile.key);
+            tile.done.countDown();
+            cancelled++;
+        }
+        queue.clear();
+        if (discardRunning) {
+            epoch++;
+            prefetched.clear();
+        }
+    }
+
+    /**
+     * Called by the factory when it needs to load a tile that wasn't in the
+     * cache. If the tile is waiting to be prefetched, even if its task is
+     * waiting for a TaskService thread, it's dropped so the factory can load
+     * it. If the tile is being loaded, this waits for it.
+     *
+     * @param key the cache key of the tile.
+     * @return the prefetched tile, or null if the factory has to load it.
+     */
+    public CacheObject claim(String key) {
+        Request tile;
+        synchronized (this) {
+            misses++;
+            tile = requests.get(key);
+            if (tile == null) {
+                return null;
+            }
+            if (!tile.started) {
+                queue.remove(tile);
+                requests.remove(key);
+                tile.done.countDown();
+                return null;
+            }
+            waits++;
+        }
+
+        try {
+            tile.done.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        CacheObject ret = tile.result;
+        if (ret != null) {
+            synchronized (this) {
+                prefetched.remove(key);
+                // Partly a prefetch hit, the read had a head start.
+                hits++;
+                misses--;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Called by the factory when it finds a tile in the cache, to keep track of
+     * how many prefetched tiles get used.
+     *
+     * @param key the cache key of the tile.
+     */
+    public synchronized void found(String key) {
+        if (prefetched.remove(key) != null) {
+            hits++;
+        }
+    }
+
+    /**
+     * Start loading queued tiles, up to the in-flight limit.
+     */
+    protected synchronized void startWaiting() {
+        while (inFlight < maxInFlight && !queue.isEmpty()) {
+            final Request tile = queue.removeFirst();
+            tile.spawned = true;
+            tile.epoch = epoch;
+            inFlight++;
+            TaskService.singleton().spawn(new Runnable() {
+                public void run() {
+                    load(tile);
+                }
+            }, priority);
+        }
+    }
+
+    protected void load(Request tile) {
+        synchronized (this) {
+            if (requests.get(tile.key) != tile) {
+                // Claimed by the factory while waiting for a thread.
+                inFlight--;
+                startWaiting();
+                return;
+            }
+            tile.started = true;
+        }
+
+        CacheObject co = null;
+        try {
+            co = factory.load(tile.key, tile.x, tile.y, tile.zoomLevel, tile.proj);
+        } catch (RuntimeException re) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("problem prefetching " + tile.key + ": " + re.getMessage());
+            }
+        }
+
+        synchronized (this) {
+            if (co != null && tile.epoch == epoch) {
+                factory.replaceLeastUsed(co);
+                prefetched.put(tile.key, Boolean.TRUE);
+                tile.result = co;
+                loaded++;
+            } else if (co == null) {
+                // The factory will decide what to do about the missing tile
+                // if it ever needs it.
+                empty++;
+            }
+            requests.remove(tile.key);
+            inFlight--;
+            tile.done.countDown();
+            startWaiting();
+        }
+    }
+
+    /**
+     * @return the number of tiles that can be loaded at the same time.
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        startWaiting();
+    }
+
+    /**
+     * @return the TaskService priority of the prefetch loads.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return the number of tiles waiting to be loaded.
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of tiles being loaded.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the number of tiles that have been asked for.
+     */
+    public synchronized long getRequestedCount() {
+        return requested;
+    }
+
+    /**
+     * @return the number of tiles loaded into the cache.
+     */
+    public synchronized long getLoadedCount() {
+        return loaded;
+    }
+
+    /**
+     * @return the number of tiles that couldn't be loaded.
+     */
+    public synchronized long getEmptyCount() {
+        return empty;
+    }
+
+    /**
+     * @return the number of tiles dropped before they were loaded, because the
+     *         view moved on.
+     */
+    public synchronized long getCancelledCount() {
+        return cancelled;
+    }
+
+    /**
+     * @return the number of prefetched tiles the factory has used.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of times the factory waited for a tile that was being
+     *         prefetched.
+     */
+    public synchronized long getWaitCount() {
+        return waits;
+    }
+
+    /**
+     * @return the number of tiles the factory had to load itself.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the fraction of the prefetched tiles that were used, 0-1.
+     */
+    public synchronized double getHitRate() {
+        return loaded == 0 ? 0 : Math.min(1, hits / (double) loaded);
+    }
+
+    /**
+     * @return the fraction of tiles the factory needed that weren't already
+     *         cached and that were prefetched, 0-1.
+     */
+    public synchronized double getCoverage() {
+        long needed = hits + misses;
+        return needed == 0 ? 0 : hits / (double) needed;
+    }
+
+    public synchronized String toString() {
+        return "MapTilePrefetcher[queued=" + queue.size() + ", in flight=" + inFlight + ", requested=" + requested
+                + ", loaded=" + loaded + ", empty=" + empty + ", cancelled=" + cancelled + ", hits=" + hits
+                + ", waits=" + waits + ", misses=" + misses + ", hit rate=" + String.format("%.2f", getHitRate())
+                + ", coverage=" + String.format("%.2f", getCoverage()) + "]";
+    }
+}
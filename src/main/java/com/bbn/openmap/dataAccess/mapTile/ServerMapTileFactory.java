@@ -92,7 +92,7 @@ public class ServerMapTileFactory
         String localLoc = null;
 
         if (localCacheDir != null && zoomLevelInfo != null) {
-            localLoc = zoomLevelInfo.formatImageFilePath(localCacheDir, x, y) + fileExt;
+            localLoc = formatImageFilePath(localCacheDir, x, y, zoomLevel) + fileExt;
             /**
              * If a local cache is defined, then the cache will always use the
              * string for the local file as the key.
@@ -144,7 +144,7 @@ public class ServerMapTileFactory
 
             String localLoc = null;
             if (localCacheDir != null && zoomLevelInfo != null) {
-                localLoc = zoomLevelInfo.formatImageFilePath(localCacheDir, x, y) + fileExt;
+                localLoc = formatImageFilePath(localCacheDir, x, y, zoomLevel) + fileExt;
 
                 CacheObject localVersion = super.load(localLoc, x, y, zoomLevel, proj);
 
@@ -35,7 +35,9 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
 import java.util.jar.JarEntry;
@@ -78,6 +80,10 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * rootDir=the path to the parent directory of the tiles. The factory will construct specific file paths that are appended to this value.
  * fileExt=the file extension to append to the tile names
  * cacheSize=the number of mapTiles the factory should hold on to. The default is 100.
+ * # optional, hold tiles in a thread-safe cache limited by the bytes of tile images instead of cacheSize
+ * cacheMaxBytes=134217728
+ * # optional, 'lru' (default) or 'tinylfu' admission for the cacheMaxBytes cache
+ * cacheAdmission=tinylfu
  * # default is OSMMapTileCoordinateTransform, but it depends on the source of tiles.  GDAL is TSMMapTileCoordinateTransform
  * mapTileTransform=com.bbn.openmap.dataAccess.mapTile.OSMMapTileCoordinateTransform, or com.bbn.openmap.dataAccess.mapTile.TSMMapTileCoordinateTransform
  * # what to do about missing tiles?
@@ -86,6 +92,12 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * tileImagePreparer=com.bbn.openmap.dataAccess.mapTile.StandardImagePreparer
  * # or
  * tileImagePreparer=com.bbn.openmap.dataAccess.mapTile.GreyscaleImagePreparer
+ * # optional, load the tiles in this many rings around the map into the cache in the background (default 0)
+ * prefetchRing=1
+ * # optional, also load the tiles for the next zoom level in and out in the background (default false)
+ * prefetchZoomLevels=true
+ * # the number of tiles that can be prefetched at the same time (default 2)
+ * prefetchMaxInFlight=2
  * </pre>
  *
  * @author dietrick
@@ -104,6 +116,9 @@ public class StandardMapTileFactory
     public final static String ZOOM_LEVEL_INFO_PROPERTY = "zoomLevelInfo";
     public final static String ZOOM_LEVEL_TILE_SIZE_PROPERTY = "zoomLevelTileSize";
     public final static String TILE_IMAGE_PREPARER_PROPERTY = "tileImagePreparer";
+    public final static String PREFETCH_RING_PROPERTY = "prefetchRing";
+    public final static String PREFETCH_ZOOM_LEVELS_PROPERTY = "prefetchZoomLevels";
+    public final static String PREFETCH_MAX_IN_FLIGHT_PROPERTY = "prefetchMaxInFlight";
     /**
      * Inserted into properties loaded via tiles.omp, so that the
      * EmptyTileHandler can know where the tile set is located, in case it needs
@@ -134,10 +149,26 @@ public class StandardMapTileFactory
      */
     protected Component repaintCallback;
     /**
-     * Flag to tell the factory to create the extra tiles off-map. Tends to
-     * cause the layer to do more work than necessary, so it's not used.
+     * The number of rings of tiles around the map to load in the background.
      */
-    private boolean doExtraTiles = false;
+    protected int prefetchRing = 0;
+    /**
+     * Whether to load the tiles for the next zoom level in and out in the
+     * background.
+     */
+    protected boolean prefetchZoomLevels = false;
+    /**
+     * Created when prefetching is turned on, loads tiles in the background.
+     */
+    protected MapTilePrefetcher prefetcher;
+    /**
+     * Guards the cache, since prefetched tiles are added from other threads.
+     */
+    protected final Object cacheLock = new Object();
+    /**
+     * Empty tile handlers aren't expected to be thread-safe.
+     */
+    protected final Object emptyTileLock = new Object();
     /**
      * Coordinate transform for the uv coordinates of the tiles. Different
      * sources have different origins for tile coordinates.
@@ -169,6 +200,37 @@ public class StandardMapTileFactory
         clear();
     }
 
+    /**
+     * Clears the cache, and drops any tiles being prefetched for it.
+     */
+    public void clear() {
+        MapTilePrefetcher mtp = prefetcher;
+        if (mtp != null) {
+            mtp.cancel(true);
+        }
+        synchronized (cacheLock) {
+            super.clear();
+        }
+    }
+
+    public void resetCache(int max_size) {
+        synchronized (cacheLock) {
+            super.resetCache(max_size);
+        }
+    }
+
+    public CacheObject searchCache(Object key) {
+        synchronized (cacheLock) {
+            return super.searchCache(key);
+        }
+    }
+
+    protected void replaceLeastUsed(CacheObject newObj) {
+        synchronized (cacheLock) {
+            super.replaceLeastUsed(newObj);
+        }
+    }
+
     /**
      * Called to load cache object from data source, when not found in cache.
      *
@@ -380,12 +442,14 @@ public class StandardMapTileFactory
      */
     public CacheObject getEmptyTile(Object key, int x, int y, int zoomLevel, Projection proj) {
 
-        getTileImagePreparer().prepareForEmptyTile(this);
-
         EmptyTileHandler empTileHandler = getEmptyTileHandler();
         if (empTileHandler != null) {
 
-            BufferedImage bi = empTileHandler.getImageForEmptyTile((String) key, x, y, zoomLevel, mtcTransform, proj);
+            BufferedImage bi;
+            synchronized (emptyTileLock) {
+                getTileImagePreparer().prepareForEmptyTile(this);
+                bi = empTileHandler.getImageForEmptyTile((String) key, x, y, zoomLevel, mtcTransform, proj);
+            }
 
             OMGraphic raster;
             try {
@@ -466,6 +530,8 @@ public class StandardMapTileFactory
 
         lastProj = proj;
 
+        MapTilePrefetcher mtp = prefetcher;
+
         /**
          * Given a projection, a couple of things have to happen.
          *
@@ -519,17 +585,125 @@ public class StandardMapTileFactory
             logger.fine("Long(180) located at " + dlx);
 
             if (!dateline) {
-                getTiles(uvleft, uvright, uvup, uvbottom, zoomLevelInfo, proj, list);
+                getTiles(uvleft, uvright, uvup, uvbottom, zoomLevel, proj, list);
             } else {
                 logger.fine("handling DATELINE");
-                getTiles(uvleft, (int) Math.pow(2, zoomLevel), uvup, uvbottom, zoomLevelInfo, proj, list);
-                getTiles(0, uvright, uvup, uvbottom, zoomLevelInfo, proj, list);
+                getTiles(uvleft, (int) Math.pow(2, zoomLevel), uvup, uvbottom, zoomLevel, proj, list);
+                getTiles(0, uvright, uvup, uvbottom, zoomLevel, proj, list);
+            }
+
+            if (mtp != null && !Thread.currentThread().isInterrupted()) {
+                // The visible tiles are loaded, get the ones around them
+                // ready in the background.
+                int right = dateline ? uvright + (int) Math.pow(2, zoomLevel) : uvright;
+                mtp.prefetch(getPrefetchRequests(Math.min(uvleft, right), Math.max(uvleft, right),
+                    Math.min(uvup, uvbottom), Math.max(uvup, uvbottom), zoomLevel, proj, list.size()));
+                if (verbose) {
+                    logger.fine(mtp.toString());
+                }
             }
 
+        } else if (mtp != null) {
+            mtp.cancel(false);
         }
         return list;
     }
 
+    /**
+     * Figure out which tiles should be prefetched around the tiles covering
+     * the map, nearest first: the rings of tiles around the map at the current
+     * zoom level, then the tiles covering the map at the next zoom level out
+     * and in. Tiles already in the cache are skipped.
+     *
+     * @param uvleft the left uv coordinate of the map, inclusive.
+     * @param uvright the right uv coordinate of the map, exclusive. Can be
+     *        past the edge count if the map crosses the dateline, x
+     *        coordinates wrap around.
+     * @param uvup the top uv coordinate of the map, inclusive.
+     * @param uvbottom the bottom uv coordinate of the map, exclusive.
+     * @param zoomLevel the zoom level of the map.
+     * @param proj the current projection.
+     * @param numVisible the number of tiles on the map, so the array cache
+     *        isn't overfilled.
+     * @return List of tiles to prefetch.
+     */
+    protected List<MapTilePrefetcher.Request> getPrefetchRequests(int uvleft, int uvright, int uvup, int uvbottom,
+        int zoomLevel, Projection proj, int numVisible) {
+
+        LinkedHashMap<String, MapTilePrefetcher.Request> requests =
+            new LinkedHashMap<String, MapTilePrefetcher.Request>();
+
+        for (int ring = 1; ring <= prefetchRing; ring++) {
+            int left = uvleft - ring;
+            int right = uvright + ring - 1;
+            int top = uvup - ring;
+            int bottom = uvbottom + ring - 1;
+            for (int x = left; x <= right; x++) {
+                for (int y = top; y <= bottom; y++) {
+                    if (x == left || x == right || y == top || y == bottom) {
+                        addPrefetchRequest(requests, x, y, zoomLevel, proj);
+                    }
+                }
+            }
+        }
+
+        if (prefetchZoomLevels) {
+            if (zoomLevel > 1) {
+                for (int x = uvleft >> 1; x < (uvright + 1) >> 1; x++) {
+                    for (int y = uvup >> 1; y < (uvbottom + 1) >> 1; y++) {
+                        addPrefetchRequest(requests, x, y, zoomLevel - 1, proj);
+                    }
+                }
+            }
+            if (zoomLevel < 20) {
+                for (int x = uvleft << 1; x < uvright << 1; x++) {
+                    for (int y = uvup << 1; y < uvbottom << 1; y++) {
+                        addPrefetchRequest(requests, x, y, zoomLevel + 1, proj);
+                    }
+                }
+            }
+        }
+
+        List<MapTilePrefetcher.Request> ret = new ArrayList<MapTilePrefetcher.Request>(requests.values());
+        if (getConcurrentCache() == null) {
+            // Don't push the visible tiles out of the cache.
+            int room = Math.max(0, getCacheSize() - numVisible);
+            if (ret.size() > room) {
+                ret = ret.subList(0, room);
+            }
+        }
+        return ret;
+    }
+
+    private void addPrefetchRequest(Map<String, MapTilePrefetcher.Request> requests, int x, int y, int zoomLevel,
+        Projection proj) {
+        int edgeTileCount = 1 << zoomLevel;
+        if (y < 0 || y >= edgeTileCount) {
+            return;
+        }
+        x = ((x % edgeTileCount) + edgeTileCount) % edgeTileCount;
+
+        String imagePath = formatImageFilePath(rootDir, x, y, zoomLevel) + fileExt;
+        if (!requests.containsKey(imagePath) && getFromCache(imagePath, x, y, zoomLevel) == null) {
+            requests.put(imagePath, new MapTilePrefetcher.Request(imagePath, x, y, zoomLevel, proj));
+        }
+    }
+
+    /**
+     * Format the path to a tile. The zoom level is passed to the
+     * ZoomLevelInfo instead of being set on it, since paths for other zoom
+     * levels are made at the same time by the prefetch threads.
+     *
+     * @param root the root directory of the tiles.
+     * @param x the uv x coordinate of the tile.
+     * @param y the uv y coordinate of the tile.
+     * @param zoomLevel the zoom level of the tile.
+     * @return the path to the tile, without the file extension.
+     */
+    protected String formatImageFilePath(String root, int x, int y, int zoomLevel) {
+        return zoomLevelInfo.formatImageFilePath(root, x, y, zoomLevel);
+    }
+
     /**
      * A temporary object used to store information about map tiles that are not
      * found in the cache. The caching mechanism has been modified to search for
@@ -554,21 +728,19 @@ public class StandardMapTileFactory
         }
     }
 
-    protected void getTiles(int uvleft, int uvright, int uvup, int uvbottom, ZoomLevelInfo zoomLevelInfo,
-        Projection proj,
+    protected void getTiles(int uvleft, int uvright, int uvup, int uvbottom, int zoomLevel, Projection proj,
         OMGraphicList list) {
         if (verbose) {
-            logger.fine("for zoom level: " + zoomLevelInfo.getZoomLevel() + ", screen covers uv coords [t:" + uvup +
+            logger.fine("for zoom level: " + zoomLevel + ", screen covers uv coords [t:" + uvup +
                 ", l:" +
                 uvleft + ", b:" + uvbottom + ", r:" + uvright + "]");
         }
 
-        if (zoomLevelInfo.getZoomLevel() == 0) {
+        if (zoomLevel == 0) {
             logger.fine("got one tile, OM can't draw a single tile covering the earth. Sorry.");
         }
 
         List<LoadObj> reloads = new ArrayList<LoadObj>();
-        int zoomLevel = zoomLevelInfo.getZoomLevel();
 
         boolean isMercator = proj instanceof Mercator;
 
@@ -586,7 +758,7 @@ public class StandardMapTileFactory
                     return;
                 }
 
-                String imagePath = zoomLevelInfo.formatImageFilePath(rootDir, x, y) + fileExt;
+                String imagePath = formatImageFilePath(rootDir, x, y, zoomLevel) + fileExt;
 
                 /**
                  * Need to modify the action of the cache a little to make the
@@ -616,6 +788,10 @@ public class StandardMapTileFactory
 
                     tileGraphic.generate(proj);
                     list.add(tileGraphic);
+
+                    if (prefetcher != null) {
+                        prefetcher.found(imagePath);
+                    }
                 } else {
                     reloads.add(new LoadObj(imagePath, x, y, zoomLevel));
                 }
@@ -640,84 +816,7 @@ public class StandardMapTileFactory
         }
 
         if (verbose) {
-            logger.fine("finished loading " + reloads.size() + " frames from source for screen" +
-                (doExtraTiles ? ", moving to off-screen frames..." : ""));
-        }
-
-        if (!doExtraTiles) {
-            return;
-        }
-
-        // Just for giggles, lets go ahead and walk around the edge of the area
-        // and prefetch tiles to load them into memory...
-
-        // int uvleft, int uvright, int uvup, int uvbottom
-        int x1 = uvleft;
-        int y1 = uvup;
-        int x2 = uvright;
-        int y2 = uvbottom;
-        boolean top = false;
-        boolean left = false;
-        boolean right = false;
-        boolean bottom = false;
-        if (x1 > 0) {
-            x1--;
-            left = true;
-        }
-        if (y1 > 0) {
-            y1--;
-            top = true;
-        }
-        int edgeTileCount = zoomLevelInfo.getEdgeTileCount();
-        if (x2 < edgeTileCount - 1) {
-            x2++;
-            right = true;
-        }
-        if (y2 < edgeTileCount - 1) {
-            y2++;
-            bottom = true;
-        }
-
-        // Get the corners
-        if (top && left) {
-            handleLoad(x1, y1, zoomLevel, proj, list);
-        }
-        if (bottom && left) {
-            handleLoad(x1, y2, zoomLevel, proj, list);
-        }
-        if (bottom && right) {
-            handleLoad(x2, y2, zoomLevel, proj, list);
-        }
-        if (top && right) {
-            handleLoad(x2, y1, zoomLevel, proj, list);
-        }
-        // Now go along the sides
-        if (top) {
-            for (int x = uvleft; x < uvright; x++) {
-                handleLoad(x, y1, zoomLevel, proj, list);
-            }
-        }
-
-        if (bottom) {
-            for (int x = uvleft; x < uvright; x++) {
-                handleLoad(x, y2, zoomLevel, proj, list);
-            }
-        }
-
-        if (right) {
-            for (int y = uvup; y < uvbottom; y++) {
-                handleLoad(x2, y, zoomLevel, proj, list);
-            }
-        }
-
-        if (left) {
-            for (int y = uvup; y < uvbottom; y++) {
-                handleLoad(x1, y, zoomLevel, proj, list);
-            }
-        }
-
-        if (verbose) {
-            logger.fine("finished loading all tiles (" + list.size() + ")");
+            logger.fine("finished loading " + reloads.size() + " frames from source for screen");
         }
     }
 
@@ -741,15 +840,27 @@ public class StandardMapTileFactory
             return;
         }
 
-        CacheObject ret = load(imagePath, x, y, zoomLevel, proj);
+        CacheObject ret = null;
+        MapTilePrefetcher mtp = prefetcher;
+        if (mtp != null) {
+            // Already loaded into the cache if this isn't null.
+            ret = mtp.claim(imagePath);
+        }
+
         if (ret == null) {
+            ret = load(imagePath, x, y, zoomLevel, proj);
+            if (ret == null) {
 
-            // Check if the factory wants to do anything for empty tiles.
-            ret = getEmptyTile(imagePath, x, y, zoomLevel, proj);
+                // Check if the factory wants to do anything for empty tiles.
+                ret = getEmptyTile(imagePath, x, y, zoomLevel, proj);
+            }
+
+            if (ret != null) {
+                replaceLeastUsed(ret);
+            }
         }
 
         if (ret != null) {
-            replaceLeastUsed(ret);
             OMGraphic raster = (OMGraphic) ret.obj;
 
             if (raster != null) {
@@ -768,23 +879,6 @@ public class StandardMapTileFactory
         }
     }
 
-    /**
-     * Handles going to the cache, getting the cache to load the tile, and then
-     * manage the resulting OMRaster tile. Adds the tile to the list after
-     * generating it with the projection, and calls the repaintCallback if there
-     * is one. Handles creating the image file path given the other info.
-     *
-     * @param x the x uv coordinate of the tile
-     * @param y the y uv coordinate of the tile
-     * @param zoomLevel the zoomLevel of the tile
-     * @param proj the current projection.
-     * @param list the OMGraphicList to add the tile to.
-     * @throws InterruptedException
-     */
-    private void handleLoad(int x, int y, int zoomLevel, Projection proj, OMGraphicList list) {
-        String imagePath = zoomLevelInfo.formatImageFilePath(rootDir, x, y) + fileExt;
-        handleLoad(imagePath, x, y, zoomLevel, proj, list);
-    }
     /**
      * An array of scales for all of the possible zoom levels, from 1 to 20.
      * They get calculate the first time getZoomLevelForProj is called.
@@ -851,6 +945,7 @@ public class StandardMapTileFactory
         getList.put(prefix + ROOT_DIR_PROPERTY, PropUtils.unnull(rootDirProperty));
         getList.put(prefix + FILE_EXT_PROPERTY, PropUtils.unnull(fileExt));
         getList.put(prefix + CACHE_SIZE_PROPERTY, Integer.toString(getCacheSize()));
+        getCacheProperties(prefix, getList);
         getList.put(prefix + MTCTRANSFORM_PROPERTY, mtcTransform.getClass().toString());
         if (emptyTileHandler != null) {
             getList.put(prefix + EMPTY_TILE_HANDLER_PROPERTY, emptyTileHandler.getClass().toString());
@@ -865,6 +960,11 @@ public class StandardMapTileFactory
         }
 
         getList.put(prefix + ZOOM_LEVEL_TILE_SIZE_PROPERTY, Integer.toString(zoomLevelTileSize));
+        getList.put(prefix + PREFETCH_RING_PROPERTY, Integer.toString(prefetchRing));
+        getList.put(prefix + PREFETCH_ZOOM_LEVELS_PROPERTY, Boolean.toString(prefetchZoomLevels));
+        if (prefetcher != null) {
+            getList.put(prefix + PREFETCH_MAX_IN_FLIGHT_PROPERTY, Integer.toString(prefetcher.getMaxInFlight()));
+        }
         TileImagePreparer tip = getTileImagePreparer();
         if (!(tip instanceof StandardImagePreparer)) {
             getList.put(prefix + TILE_IMAGE_PREPARER_PROPERTY, tip.getClass().getName());
@@ -885,10 +985,23 @@ public class StandardMapTileFactory
             FILE_EXT_PROPERTY, "Image File Extension", "Extension of image files (.jpg, .png, etc)", null);
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class,
             CACHE_SIZE_PROPERTY, "Cache Size", "Number of tile images held in memory", null);
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class,
+            CACHE_MAX_BYTES_PROPERTY, "Cache Memory Limit",
+            "Bytes of tile images held in memory (optional, replaces Cache Size with a thread-safe cache)", null);
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class,
             ZOOM_LEVEL_TILE_SIZE_PROPERTY, "Zoom Level Tile Size",
             "The maximum pixel size of a tile before switching to a higher zoom level (350 is default)",
             null);
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class,
+            PREFETCH_RING_PROPERTY, "Prefetch Ring",
+            "The number of rings of tiles around the map to load in the background (0 is default, none)", null);
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class,
+            PREFETCH_ZOOM_LEVELS_PROPERTY, "Prefetch Zoom Levels",
+            "Load the tiles for the next zoom level in and out in the background",
+            "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class,
+            PREFETCH_MAX_IN_FLIGHT_PROPERTY, "Prefetch Limit",
+            "The number of tiles that can be loaded in the background at the same time (2 is default)", null);
         return list;
     }
 
@@ -952,9 +1065,75 @@ public class StandardMapTileFactory
         }
 
         super.resetCache(PropUtils.intFromProperties(setList, prefix + CACHE_SIZE_PROPERTY, getCacheSize()));
+        setCacheProperties(prefix, setList);
 
         zoomLevelTileSize = PropUtils.intFromProperties(setList, prefix + ZOOM_LEVEL_TILE_SIZE_PROPERTY,
             zoomLevelTileSize);
+
+        setPrefetchRing(PropUtils.intFromProperties(setList, prefix + PREFETCH_RING_PROPERTY, prefetchRing));
+        setPrefetchZoomLevels(PropUtils.booleanFromProperties(setList, prefix + PREFETCH_ZOOM_LEVELS_PROPERTY,
+            prefetchZoomLevels));
+        if (prefetcher != null) {
+            prefetcher.setMaxInFlight(PropUtils.intFromProperties(setList, prefix + PREFETCH_MAX_IN_FLIGHT_PROPERTY,
+                prefetcher.getMaxInFlight()));
+        }
+    }
+
+    /**
+     * @return the number of rings of tiles around the map that are loaded in
+     *         the background.
+     */
+    public int getPrefetchRing() {
+        return prefetchRing;
+    }
+
+    /**
+     * Set the number of rings of tiles around the map to load into the cache
+     * in the background, so they are ready when the map is panned. 0 turns
+     * that off.
+     *
+     * @param prefetchRing number of rings.
+     */
+    public void setPrefetchRing(int prefetchRing) {
+        this.prefetchRing = Math.max(0, prefetchRing);
+        updatePrefetcher();
+    }
+
+    /**
+     * @return whether the tiles for the next zoom level in and out are loaded
+     *         in the background.
+     */
+    public boolean isPrefetchZoomLevels() {
+        return prefetchZoomLevels;
+    }
+
+    /**
+     * Set whether the tiles covering the map at the next zoom level in and out
+     * should be loaded into the cache in the background.
+     *
+     * @param prefetchZoomLevels
+     */
+    public void setPrefetchZoomLevels(boolean prefetchZoomLevels) {
+        this.prefetchZoomLevels = prefetchZoomLevels;
+        updatePrefetcher();
+    }
+
+    /**
+     * @return the MapTilePrefetcher loading tiles in the background, which has
+     *         the prefetch statistics, or null if prefetching is off.
+     */
+    public MapTilePrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    protected void updatePrefetcher() {
+        boolean on = prefetchRing > 0 || prefetchZoomLevels;
+        if (on && prefetcher == null) {
+            prefetcher = new MapTilePrefetcher(this);
+        } else if (!on && prefetcher != null) {
+            prefetcher.cancel(false);
+            prefetcher = null;
+        }
     }
 
     public void setPropertyPrefix(String prefix) {
@@ -125,7 +125,22 @@ public class ZoomLevelInfo
     * @return path of parent directory of the file (no y coordinate).
     */
    public String formatParentDirectoryName(String rootDir, int uvx, int uvy) {
-      return rootDir + "/" + getZoomLevel() + "/" + uvx;
+      return formatParentDirectoryName(rootDir, uvx, uvy, getZoomLevel());
+   }
+
+   /**
+    * Creates the parent directory of the file for a zoom level, without
+    * changing the current zoom level.
+    * 
+    * @param rootDir path to root of dir structire, with no file separator at
+    *        the end.
+    * @param uvx uv x coordinate of map tile.
+    * @param uvy uv y coordinate of map tile.
+    * @param zoomLevel the zoom level of the map tile.
+    * @return path of parent directory of the file (no y coordinate).
+    */
+   public String formatParentDirectoryName(String rootDir, int uvx, int uvy, int zoomLevel) {
+      return rootDir + "/" + zoomLevel + "/" + uvx;
    }
 
    /**
@@ -139,6 +154,22 @@ public class ZoomLevelInfo
     * @return a file path, sans file extension.
     */
    public String formatImageFilePath(String rootDir, int uvx, int uvy) {
-      return rootDir + "/" + getZoomLevel() + "/" + uvx + "/" + uvy;
+      return formatImageFilePath(rootDir, uvx, uvy, getZoomLevel());
+   }
+
+   /**
+    * Creates file path given a root directory plus a zoom level, x, and y,
+    * without changing the current zoom level, so it can be used by more than
+    * one thread. Ready for file extension, which should have a period on it.
+    * 
+    * @param rootDir path to root of dir structure, with no file separator at
+    *        the end.
+    * @param uvx uv x coordinate of the map tile.
+    * @param uvy uv y coordinate of the map tile
+    * @param zoomLevel the zoom level of the map tile.
+    * @return a file path, sans file extension.
+    */
+   public String formatImageFilePath(String rootDir, int uvx, int uvy, int zoomLevel) {
+      return rootDir + "/" + zoomLevel + "/" + uvx + "/" + uvy;
    }
 }
\ No newline at end of file
@@ -0,0 +1,433 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.shape;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.logging.Logger;
+
+/**
+ * A sorted index of the values in one column of a dbf file, for finding the
+ * rows with a value, or a range of values, without looking at every row.
+ * Numeric columns are indexed by their double values, other columns by their
+ * String values. Rows with numeric cells that are blank or aren't numbers are
+ * kept in a separate list, since they don't have a value to sort by.
+ * <p>
+ * An index can be written to a sidecar file next to the dbf file and read
+ * back the next time, so it only has to be built once. The sidecar records
+ * the size and modification time of the dbf file it was built from, and isn't
+ * used if the dbf file changes.
+ *
+ * @see MappedDbfFile#createIndex(int, boolean)
+ */
+public class DbfColumnIndex {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.dataAccess.shape.DbfColumnIndex");
+
+    /** The extension for sidecar files, added after the column name. */
+    public final static String INDEX_FILE_EXTENSION = ".dbx";
+
+    protected final static int MAGIC = 0x44425849; // DBXI
+    protected final static int VERSION = 1;
+
+    protected String columnName;
+    protected boolean numeric;
+    /** Sorted values for numeric columns, null otherwise. */
+    protected double[] numbers;
+    /** Sorted values for other columns, null for numeric columns. */
+    protected String[] strings;
+    /** The row for each sorted value. */
+    protected int[] rows;
+    /** Rows with numeric cells that are blank or aren't numbers. */
+    protected int[] blankRows;
+
+    protected DbfColumnIndex(String columnName, boolean numeric) {
+        this.columnName = columnName;
+        this.numeric = numeric;
+    }
+
+    /**
+     * Build an index for a column by reading every row.
+     *
+     * @param dbf the dbf file.
+     * @param column the column index.
+     * @return DbfColumnIndex
+     */
+    public static DbfColumnIndex create(MappedDbfFile dbf, int column) {
+        int rowCount = dbf.getRowCount();
+        boolean numeric = DbfTableModel.isNumericalType(dbf.getType(column));
+        DbfColumnIndex index = new DbfColumnIndex(dbf.getColumnName(column), numeric);
+
+        if (numeric) {
+            double[] values = dbf.getDoubleColumn(column);
+            int count = 0;
+            for (int i = 0; i < rowCount; i++) {
+                if (!Double.isNaN(values[i])) {
+                    count++;
+                }
+            }
+            double[] numbers = new double[count];
+            int[] rows = new int[count];
+            int[] blankRows = new int[rowCount - count];
+            for (int i = 0, n = 0, b = 0; i < rowCount; i++) {
+                if (Double.isNaN(values[i])) {
+                    blankRows[b++] = i;
+                } else {
+                    numbers[n] = values[i];
+                    rows[n++] = i;
+                }
+            }
+            sort(numbers, rows, 0, count - 1);
+            index.numbers = numbers;
+            index.rows = rows;
+            index.blankRows = blankRows;
+        } else {
+            final String[] values = new String[rowCount];
+            Integer[] order = new Integer[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                values[i] = dbf.getObject(i, column).toString();
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return values[a].compareTo(values[b]);
+                }
+            });
+            String[] strings = new String[rowCount];
+            int[] rows = new int[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                rows[i] = order[i];
+                strings[i] = values[rows[i]];
+            }
+            index.strings = strings;
+            index.rows = rows;
+            index.blankRows = new int[0];
+        }
+        return index;
+    }
+
+    /**
+     * Sort the values, keeping the rows lined up with them.
+     */
+    protected static void sort(double[] values, int[] rows, int lo, int hi) {
+        while (hi - lo > 16) {
+            // median of three pivot
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < values[lo]) {
+                swap(values, rows, mid, lo);
+            }
+            if (values[hi] < values[lo]) {
+                swap(values, rows, hi, lo);
+            }
+            if (values[hi] < values[mid]) {
+                swap(values, rows, hi, mid);
+            }
+            double pivot = values[mid];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(values, rows, i++, j--);
+                }
+            }
+            // recurse into the smaller half, loop on the bigger one
+            if (j - lo < hi - i) {
+                sort(values, rows, lo, j);
+                lo = i;
+            } else {
+                sort(values, rows, i, hi);
+                hi = j;
+            }
+        }
+
+        for (int i = lo + 1; i <= hi; i++) {
+            double v = values[i];
+            int r = rows[i];
+            int j = i - 1;
+            while (j >= lo && values[j] > v) {
+                values[j + 1] = values[j];
+                rows[j + 1] = rows[j];
+                j--;
+            }
+            values[j + 1] = v;
+            rows[j + 1] = r;
+        }
+    }
+
+    private static void swap(double[] values, int[] rows, int a, int b) {
+        double v = values[a];
+        values[a] = values[b];
+        values[b] = v;
+        int r = rows[a];
+        rows[a] = rows[b];
+        rows[b] = r;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * @return true if the index is of numeric values.
+     */
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * @return the rows with numeric cells that are blank or aren't numbers,
+     *         which aren't in the sorted values.
+     */
+    public int[] getBlankRows() {
+        return blankRows;
+    }
+
+    /**
+     * Find the rows with a numeric value.
+     *
+     * @return the rows, in order.
+     */
+    public int[] equalTo(double value) {
+        return range(value, true, value, true);
+    }
+
+    /**
+     * Find the rows with a String value.
+     *
+     * @return the rows, in order.
+     */
+    public int[] equalTo(String value) {
+        return range(value, true, value, true);
+    }
+
+    /**
+     * Find the rows with numeric values in a range. Use infinity for an open
+     * end of the range.
+     *
+     * @param min the smallest value.
+     * @param minInclusive whether rows equal to min are included.
+     * @param max the largest value.
+     * @param maxInclusive whether rows equal to max are included.
+     * @return the rows, in order.
+     */
+    public int[] range(double min, boolean minInclusive, double max, boolean maxInclusive) {
+        if (!numeric) {
+            throw new IllegalStateException(columnName + " index isn't numeric");
+        }
+        int from = minInclusive ? lowerBound(min) : upperBound(min);
+        int to = maxInclusive ? upperBound(max) : lowerBound(max);
+        return rowsBetween(from, to);
+    }
+
+    /**
+     * Find the rows with String values in a range.
+     *
+     * @param min the smallest value, or null for no lower end.
+     * @param minInclusive whether rows equal to min are included.
+     * @param max the largest value, or null for no upper end.
+     * @param maxInclusive whether rows equal to max are included.
+     * @return the rows, in order.
+     */
+    public int[] range(String min, boolean minInclusive, String max, boolean maxInclusive) {
+        if (numeric) {
+            throw new IllegalStateException(columnName + " index is numeric");
+        }
+        int from = min == null ? 0 : (minInclusive ? lowerBound(min) : upperBound(min));
+        int to = max == null ? strings.length : (maxInclusive ? upperBound(max) : lowerBound(max));
+        return rowsBetween(from, to);
+    }
+
+    protected int[] rowsBetween(int from, int to) {
+        if (to <= from) {
+            return new int[0];
+        }
+        int[] ret = new int[to - from];
+        System.arraycopy(rows, from, ret, 0, ret.length);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    /** @return the first position with a value &gt;= value. */
+    protected int lowerBound(double value) {
+        int lo = 0, hi = numbers.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (numbers[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return the first position with a value &gt; value. */
+    protected int upperBound(double value) {
+        int lo = 0, hi = numbers.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (numbers[mid] <= value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    protected int lowerBound(String value) {
+        int lo = 0, hi = strings.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (strings[mid].compareTo(value) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    protected int upperBound(String value) {
+        int lo = 0, hi = strings.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (strings[mid].compareTo(value) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Write the index to a sidecar file.
+     *
+     * @param indexFile the file to write.
+     * @param dbfFile the dbf file the index was built from, its length and
+     *        modification time are written so a stale index can be detected.
+     * @throws IOException
+     */
+    public void write(File indexFile, File dbfFile)
+            throws IOException {
+        // Write to a temporary file first, so a reader never sees half of
+        // an index.
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(dbfFile.length());
+            dos.writeLong(dbfFile.lastModified());
+            dos.writeUTF(columnName);
+            dos.writeBoolean(numeric);
+            dos.writeInt(rows.length);
+            for (int i = 0; i < rows.length; i++) {
+                if (numeric) {
+                    dos.writeDouble(numbers[i]);
+                } else {
+                    dos.writeUTF(strings[i]);
+                }
+                dos.writeInt(rows[i]);
+            }
+            dos.writeInt(blankRows.length);
+            for (int row : blankRows) {
+                dos.writeInt(row);
+            }
+        } finally {
+            dos.close();
+        }
+
+        if (!tmp.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tmp.renameTo(indexFile)) {
+                tmp.delete();
+                throw new IOException("can't write " + indexFile);
+            }
+        }
+    }
+
+    /**
+     * Read an index from a sidecar file.
+     *
+     * @param indexFile the sidecar file.
+     * @param dbfFile the dbf file the index should have been built from.
+     * @param columnName the name of the column the index should be for.
+     * @return DbfColumnIndex, or null if the file isn't an index for that
+     *         column or the dbf file has changed since it was written.
+     * @throws IOException
+     */
+    public static DbfColumnIndex read(File indexFile, File dbfFile, String columnName)
+            throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                logger.fine(indexFile + " isn't a dbf column index");
+                return null;
+            }
+            if (dis.readLong() != dbfFile.length() || dis.readLong() != dbfFile.lastModified()) {
+                logger.fine(indexFile + " is out of date");
+                return null;
+            }
+            String name = dis.readUTF();
+            if (!name.equals(columnName)) {
+                return null;
+            }
+
+            DbfColumnIndex index = new DbfColumnIndex(name, dis.readBoolean());
+            int count = dis.readInt();
+            index.rows = new int[count];
+            if (index.numeric) {
+                index.numbers = new double[count];
+            } else {
+                index.strings = new String[count];
+            }
+            for (int i = 0; i < count; i++) {
+                if (index.numeric) {
+                    index.numbers[i] = dis.readDouble();
+                } else {
+                    index.strings[i] = dis.readUTF();
+                }
+                index.rows[i] = dis.readInt();
+            }
+            index.blankRows = new int[dis.readInt()];
+            for (int i = 0; i < index.blankRows.length; i++) {
+                index.blankRows[i] = dis.readInt();
+            }
+            return index;
+        } finally {
+            dis.close();
+        }
+    }
+
+    public String toString() {
+        return "DbfColumnIndex[" + columnName + (numeric ? ", numeric" : "") + ", " + rows.length + " values, "
+                + blankRows.length + " blank]";
+    }
+}
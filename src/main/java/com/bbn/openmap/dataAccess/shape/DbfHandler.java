@@ -26,6 +26,7 @@ package com.bbn.openmap.dataAccess.shape;
 
 import java.io.IOException;
 import java.text.DecimalFormatSymbols;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -33,6 +34,7 @@ import java.util.Properties;
 import java.util.Vector;
 
 import com.bbn.openmap.OMComponent;
+import com.bbn.openmap.io.BinaryBufferedFile;
 import com.bbn.openmap.io.BinaryFile;
 import com.bbn.openmap.io.FormatException;
 import com.bbn.openmap.omGraphics.DrawingAttributes;
@@ -98,6 +100,12 @@ import com.bbn.openmap.util.PropUtils;
  * neroads.rule1.lineWidth=3
  * neroads.rule1.mattingColor=55AAAAAA
  * 
+ * # Optional, space-separated list of dbf columns to index, so rules on those
+ * # columns don't have to look at every record. The indexes are saved in
+ * # sidecar files next to the dbf file. Only used when the dbf file is mapped
+ * # into memory (see BinaryFile.setMapFiles()).
+ * neroads.indexColumns=CLASS_RTE
+ * 
  * </pre>
  * 
  * @author dietrick
@@ -128,6 +136,7 @@ public class DbfHandler
     public final static String RuleActionLabel = "label";
     public final static String RuleActionMinScale = "minScale";
     public final static String RuleActionMaxScale = "maxScale";
+    public final static String IndexColumnsProperty = "indexColumns";
 
     protected DbfHandler() {
         defaultDA = new DrawingAttributes();
@@ -140,11 +149,38 @@ public class DbfHandler
 
     public DbfHandler(BinaryFile bf)
             throws IOException, FormatException {
+        this(new DbfFile(bf));
+    }
+
+    public DbfHandler(DbfFile dbfFile) {
         this();
-        dbf = new DbfFile(bf);
+        dbf = dbfFile;
         dbf.close();
     }
 
+    /**
+     * Create a DbfHandler for a dbf file. If BinaryFile.isMapFiles() is true
+     * and the file is a local file, the file is mapped into memory with a
+     * MappedDbfFile, so records are decoded straight from memory and rules can
+     * be evaluated against decoded columns and indexes. Otherwise, the file is
+     * read with a BinaryBufferedFile.
+     * 
+     * @param dbfFilePath path to the dbf file.
+     * @return DbfHandler
+     * @throws IOException
+     * @throws FormatException
+     */
+    public static DbfHandler create(String dbfFilePath)
+            throws IOException, FormatException {
+        if (BinaryFile.isMapFiles()) {
+            MappedDbfFile mdf = MappedDbfFile.create(dbfFilePath);
+            if (mdf != null) {
+                return new DbfHandler(mdf);
+            }
+        }
+        return new DbfHandler(new BinaryBufferedFile(dbfFilePath));
+    }
+
     public void setProperties(String prefix, Properties props) {
         super.setProperties(prefix, props);
         prefix = PropUtils.getScopedPropertyPrefix(prefix);
@@ -161,6 +197,19 @@ public class DbfHandler
             rule.setProperties(prefix + ruleMarker, props);
             rules.add(rule);
         }
+
+        String indexString = props.getProperty(prefix + IndexColumnsProperty);
+        if (indexString != null && dbf instanceof MappedDbfFile) {
+            MappedDbfFile mdf = (MappedDbfFile) dbf;
+            for (String columnName : PropUtils.parseSpacedMarkers(indexString)) {
+                int column = mdf.getColumnIndexForName(columnName);
+                if (column >= 0) {
+                    mdf.createIndex(column, true);
+                } else {
+                    Debug.output("DbfHandler: can't index " + columnName + ", not a column in dbf file");
+                }
+            }
+        }
     }
 
     public Properties getProperties(Properties props) {
@@ -314,12 +363,13 @@ public class DbfHandler
         }
 
         try {
-            List record = dbf.getRecordData(index);
+            // A mapped dbf file only decodes the cells that get looked at.
+            List record = dbf instanceof MappedDbfFile ? ((MappedDbfFile) dbf).getRecordView(index)
+                    : dbf.getRecordData(index);
             for (Iterator<Rule> it = getRuleIterator(); it.hasNext();) {
                 Rule rule = (Rule) it.next();
 
-                Object recVal = record.get(rule.keyIndex);
-                if (rule.evaluate(recVal)) {
+                if (rule.evaluate(index, record)) {
 
                     float scale = 0f;
 
@@ -390,6 +440,31 @@ public class DbfHandler
         return buf.toString().trim();
     }
 
+    /**
+     * Find all of the records that pass a rule's test.
+     * 
+     * @param rule the Rule to test.
+     * @return the indexes of the records that pass, in order.
+     * @throws IOException
+     * @throws FormatException
+     */
+    public int[] findRows(Rule rule)
+            throws IOException, FormatException {
+        if (dbf instanceof MappedDbfFile) {
+            return ((MappedDbfFile) dbf).select(rule.keyIndex, rule.op, rule.val);
+        }
+
+        int rowCount = dbf.getRowCount();
+        int[] rows = new int[rowCount];
+        int count = 0;
+        for (int i = 0; i < rowCount; i++) {
+            if (rule.evaluate(dbf.getRecordData(i).get(rule.keyIndex))) {
+                rows[count++] = i;
+            }
+        }
+        return MappedDbfFile.trim(rows, count);
+    }
+
     public class Rule
             extends OMComponent {
         protected DbfFile dbf;
@@ -415,6 +490,12 @@ public class DbfHandler
         protected float labelMinScale = Float.MIN_VALUE;
         protected float labelMaxScale = Float.MAX_VALUE;
 
+        /**
+         * The records that pass this rule, for MappedDbfFiles, figured out the
+         * first time the rule is evaluated.
+         */
+        protected BitSet matchingRows;
+
         public Rule(DbfFile dbfFile) {
             dbf = dbfFile;
         }
@@ -422,6 +503,7 @@ public class DbfHandler
         public void setProperties(String prefix, Properties props) {
             super.setProperties(prefix, props);
             prefix = PropUtils.getScopedPropertyPrefix(prefix);
+            matchingRows = null;
 
             String key = props.getProperty(prefix + RuleKeyColumnProperty);
             keyIndex = dbf.getColumnIndexForName(key);
@@ -521,6 +603,34 @@ public class DbfHandler
             return op.evaluate(this.val, val);
         }
 
+        /**
+         * Evaluate a record against the Rule. For a MappedDbfFile, all of the
+         * records that pass are found the first time this is called, using
+         * the column index if there is one, and later calls just look up the
+         * record.
+         * 
+         * @param index the index of the record.
+         * @param record the record's contents.
+         * @return true if the operation passed
+         */
+        public boolean evaluate(int index, List record) {
+            if (dbf instanceof MappedDbfFile && keyIndex >= 0) {
+                return getMatchingRows().get(index);
+            }
+            return evaluate(record.get(keyIndex));
+        }
+
+        protected synchronized BitSet getMatchingRows() {
+            if (matchingRows == null) {
+                BitSet rows = new BitSet(dbf.getRowCount());
+                for (int row : ((MappedDbfFile) dbf).select(keyIndex, op, val)) {
+                    rows.set(row);
+                }
+                matchingRows = rows;
+            }
+            return matchingRows;
+        }
+
         /**
          * Given a prefix + ActionProperty, get the column names listed as the
          * property value and figure out what the indexes of the columns are.
@@ -603,8 +713,9 @@ public class DbfHandler
             return keyIndex;
         }
 
-        public void setKeyIndex(int keyIndex) {
+        public synchronized void setKeyIndex(int keyIndex) {
             this.keyIndex = keyIndex;
+            matchingRows = null;
         }
 
         public int[] getLabelIndicies() {
@@ -635,8 +746,9 @@ public class DbfHandler
             return op;
         }
 
-        public void setOp(Op op) {
+        public synchronized void setOp(Op op) {
             this.op = op;
+            matchingRows = null;
         }
 
         public int[] getTooltipIndicies() {
@@ -651,8 +763,9 @@ public class DbfHandler
             return val;
         }
 
-        public void setVal(Object val) {
+        public synchronized void setVal(Object val) {
             this.val = val;
+            matchingRows = null;
         }
 
     }
@@ -40,6 +40,8 @@ public class EsriPolygon extends OMPoly implements Cloneable, EsriGraphic {
 
     public EsriPolygon(double[] points, int units, int lineType) {
         super(points, units, lineType);
+        // Shape layers project the same graphics over and over.
+        setReuseProjectedPoints(true);
     }
 
     /**
@@ -40,6 +40,8 @@ public class EsriPolyline extends OMPoly implements EsriGraphic, Cloneable {
 
     public EsriPolyline(double[] points, int units, int lineType) {
         super(points, units, lineType);
+        // Shape layers project the same graphics over and over.
+        setReuseProjectedPoints(true);
     }
 
     /**
@@ -0,0 +1,686 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.shape;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.io.BinaryFile;
+import com.bbn.openmap.io.FormatException;
+
+/**
+ * A DbfFile that maps the dbf file into memory and reads the fixed-width
+ * fields of a record straight out of the mapped buffer, instead of seeking and
+ * reading through a BinaryFile. Nothing is decoded until it's asked for:
+ * getRecordView() returns a List that decodes each cell when it's fetched,
+ * getDouble() and getString() decode a single cell without boxing, and
+ * getDoubleColumn() decodes a whole numeric column into a double[] the first
+ * time it's asked for and keeps it.
+ * <P>
+ * A column can also be indexed with a DbfColumnIndex, so select() can find the
+ * rows that pass an equality or range test without looking at every row. The
+ * indexes can be saved in sidecar files next to the dbf file, so they only
+ * have to be built once.
+ * <P>
+ * The buffer is only read with absolute gets, so one MappedDbfFile can be read
+ * from several threads at once. The column mask should be set before that
+ * starts.
+ */
+public class MappedDbfFile
+        extends DbfFile {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.dataAccess.shape.MappedDbfFile");
+
+    /**
+     * The largest number of digits that can be read into a long and turned
+     * into the same double Double.parseDouble would return.
+     */
+    protected final static int MAX_FAST_DIGITS = 15;
+    protected final static double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    protected File file;
+    protected ByteBuffer buffer;
+    /**
+     * The byte offset of each column from the start of a record, for the
+     * columns left after the column mask is applied.
+     */
+    protected int[] _offsets;
+    /** Decoded numeric columns, filled in as they are asked for. */
+    protected double[][] doubleColumns;
+    /** Column indexes, filled in as they are created. */
+    protected DbfColumnIndex[] columnIndexes;
+
+    /**
+     * Map a local dbf file.
+     *
+     * @param file the dbf file.
+     * @throws IOException if the file can't be mapped, or is too big to map.
+     * @throws FormatException if the header can't be read.
+     */
+    public MappedDbfFile(File file)
+            throws IOException, FormatException {
+        super();
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("MappedDbfFile: " + file + " is too large to map, " + length + " bytes");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            raf.close();
+        }
+        readHeader((BinaryFile) null);
+    }
+
+    /**
+     * Map a local dbf file.
+     *
+     * @param name the path to the dbf file.
+     * @throws IOException if the file isn't a local file, can't be mapped, or
+     *         is too big to map.
+     * @throws FormatException if the header can't be read.
+     */
+    public MappedDbfFile(String name)
+            throws IOException, FormatException {
+        this(checkFile(name));
+    }
+
+    private static File checkFile(String name)
+            throws IOException {
+        File file = new File(name);
+        if (!file.isFile()) {
+            throw new FileNotFoundException("MappedDbfFile can't find local file: " + name);
+        }
+        return file;
+    }
+
+    /**
+     * A simple factory method that lets you try to create something without
+     * having to really deal with failure. Returns a MappedDbfFile if
+     * successful, null if not (the file is in a jar or at a URL, for
+     * instance).
+     */
+    public static MappedDbfFile create(String name) {
+        try {
+            return new MappedDbfFile(name);
+        } catch (Exception e) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("can't map " + name + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the header out of the mapped buffer, the BinaryFile argument is
+     * ignored. Unlike DbfFile, the header and record lengths are read as
+     * unsigned, so records longer than 32767 bytes work.
+     */
+    public void readHeader(BinaryFile bf)
+            throws FormatException, IOException {
+        ByteBuffer buf = buffer.duplicate();
+        buf.order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        if (buf.limit() < 32) {
+            throw new FormatException("MappedDbfFile: " + file + " is too short for a dbf header");
+        }
+
+        _rowCount = buf.getInt(4);
+        _headerLength = buf.getShort(8) & 0xFFFF;
+        _recordLength = buf.getShort(10) & 0xFFFF;
+        _columnCount = (_headerLength - 32 - 1) / 32;
+
+        if (_headerLength > buf.limit() || _columnCount < 0) {
+            throw new FormatException("MappedDbfFile: bad header length in " + file);
+        }
+
+        _names = new String[_columnCount];
+        _types = new byte[_columnCount];
+        _lengths = new int[_columnCount];
+        _decimalCounts = new byte[_columnCount];
+        _offsets = new int[_columnCount];
+
+        // The first byte of each record is the delete flag.
+        int offset = 1;
+        for (int n = 0; n < _columnCount; n++) {
+            int pos = 32 + n * 32;
+            byte[] nameBytes = new byte[11];
+            for (int i = 0; i < nameBytes.length; i++) {
+                nameBytes[i] = buf.get(pos + i);
+            }
+            _names[n] = new String(nameBytes, 0, nameBytes.length);
+            // Some TIGER dbf files from ESRI have nulls in the column names.
+            // Delete them.
+            int ix = _names[n].indexOf((char) 0);
+            if (ix > 0) {
+                _names[n] = _names[n].substring(0, ix);
+            }
+            _types[n] = buf.get(pos + 11);
+            _lengths[n] = buf.get(pos + 16) & 0xFF;
+            _decimalCounts[n] = buf.get(pos + 17);
+            _offsets[n] = offset;
+            offset += _lengths[n];
+        }
+
+        long needed = (long) _headerLength + (long) _rowCount * _recordLength;
+        if (needed > buf.limit()) {
+            // Truncated file, only use the records that are all there.
+            logger.warning(file + " is shorter than its header says, reading the records that are there");
+            _rowCount = _recordLength == 0 ? 0 : (buf.limit() - _headerLength) / _recordLength;
+        }
+
+        _columnMask = null;
+        doubleColumns = new double[_columnCount][];
+        columnIndexes = new DbfColumnIndex[_columnCount];
+    }
+
+    protected void resolveColumns() {
+        if (_columnMask != null && _columnMask.length == _columnCount) {
+            int[] offsets = new int[_columnCount];
+            int newIndex = 0;
+            for (int i = 0; i < _columnMask.length; i++) {
+                if (_columnMask[i] == Boolean.TRUE) {
+                    offsets[newIndex++] = _offsets[i];
+                }
+            }
+            _offsets = new int[newIndex];
+            System.arraycopy(offsets, 0, _offsets, 0, newIndex);
+            doubleColumns = new double[newIndex][];
+            columnIndexes = new DbfColumnIndex[newIndex];
+        }
+        super.resolveColumns();
+    }
+
+    /**
+     * Nothing to close, the mapping is released when this object is garbage
+     * collected.
+     */
+    public void close() {
+    }
+
+    /**
+     * @return the dbf file that was mapped.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Fetches the record data for the given index, decoding every column.
+     *
+     * @param index the index of the data, starting at 0 for the first record.
+     * @return List containing Strings and Numbers for the dbf entry for the
+     *         record.
+     */
+    public List<Object> getRecordData(int index)
+            throws IOException, FormatException {
+        checkRow(index);
+        ArrayList<Object> record = new ArrayList<Object>(_columnCount);
+        for (int c = 0; c < _columnCount; c++) {
+            record.add(getObject(index, c));
+        }
+        return record;
+    }
+
+    /**
+     * Provides a read-only view of a record that decodes each cell when it's
+     * asked for, so only the columns that are looked at are decoded. The
+     * objects returned are the same as the ones in the getRecordData() List.
+     *
+     * @param index the index of the record, starting at 0 for the first
+     *        record.
+     * @return List view of the record.
+     * @throws IOException if the index isn't a record in the file.
+     */
+    public List<Object> getRecordView(final int index)
+            throws IOException {
+        checkRow(index);
+        return new AbstractList<Object>() {
+            public Object get(int column) {
+                return getObject(index, column);
+            }
+
+            public int size() {
+                return _columnCount;
+            }
+        };
+    }
+
+    protected void checkRow(int row)
+            throws IOException {
+        if (row < 0 || row >= _rowCount) {
+            throw new EOFException("MappedDbfFile: no record " + row + " in " + file);
+        }
+    }
+
+    /**
+     * @return the buffer position of a cell.
+     */
+    protected int position(int row, int column) {
+        if (column < 0 || column >= _columnCount) {
+            throw new IndexOutOfBoundsException("MappedDbfFile: no column " + column);
+        }
+        if (row < 0 || row >= _rowCount) {
+            throw new IndexOutOfBoundsException("MappedDbfFile: no record " + row);
+        }
+        return _headerLength + row * _recordLength + _offsets[column];
+    }
+
+    /**
+     * Decode a cell the same way DbfFile does: a Double for numeric columns,
+     * or a whitespace String if a numeric cell is blank, and a trimmed String
+     * for everything else.
+     *
+     * @param row the record index.
+     * @param column the column index.
+     * @return Object for the cell.
+     */
+    public Object getObject(int row, int column) {
+        int type = _types[column];
+        int length = _lengths[column];
+        if (isNumericalType((byte) type)) {
+            int pos = position(row, column);
+            double value = parseNumber(pos, length);
+            if (!Double.isNaN(value)) {
+                return Double.valueOf(value);
+            }
+            if (isBlank(pos, length)) {
+                return appendWhitespaceOrTrim(null, length);
+            }
+        }
+
+        String cell = getString(row, column);
+        try {
+            synchronized (df) {
+                df.setMaximumFractionDigits(_decimalCounts[column]);
+                return getObjectForType(cell, type, df, length);
+            }
+        } catch (ParseException pe) {
+            return cell;
+        }
+    }
+
+    /**
+     * @param row the record index.
+     * @param column the column index.
+     * @return the contents of a cell as a trimmed String.
+     */
+    public String getString(int row, int column) {
+        int pos = position(row, column);
+        int start = pos;
+        int end = pos + _lengths[column];
+        // Same as String.trim(), without making the untrimmed String.
+        while (start < end && (buffer.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param row the record index.
+     * @param column the column index, should be a numeric column.
+     * @return the number in a cell, or NaN if the cell is blank or isn't a
+     *         number.
+     */
+    public double getDouble(int row, int column) {
+        return parseNumber(position(row, column), _lengths[column]);
+    }
+
+    /**
+     * Get all of the values for a numeric column. The column is decoded the
+     * first time it's asked for, and the array is kept for later calls, so
+     * the caller shouldn't modify it.
+     *
+     * @param column the column index.
+     * @return double[] with an entry for every record, NaN for cells that are
+     *         blank or aren't numbers.
+     * @throws IllegalArgumentException if the column isn't numeric.
+     */
+    public synchronized double[] getDoubleColumn(int column) {
+        if (!isNumericalType(_types[column])) {
+            throw new IllegalArgumentException("MappedDbfFile: column " + _names[column] + " isn't numeric");
+        }
+        double[] values = doubleColumns[column];
+        if (values == null) {
+            int length = _lengths[column];
+            int pos = position(0, column);
+            values = new double[_rowCount];
+            for (int r = 0; r < _rowCount; r++, pos += _recordLength) {
+                values[r] = parseNumber(pos, length);
+            }
+            doubleColumns[column] = values;
+        }
+        return values;
+    }
+
+    protected boolean isBlank(int pos, int length) {
+        for (int i = pos, end = pos + length; i < end; i++) {
+            if ((buffer.get(i) & 0xFF) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse the number in a field. Plain decimal numbers with up to 15 digits
+     * are read right out of the buffer, anything else goes through
+     * Double.parseDouble. Either way, the result is the same as
+     * Double.parseDouble on the trimmed field.
+     *
+     * @param pos the buffer position of the field.
+     * @param length the length of the field.
+     * @return the number, or NaN if the field is blank or isn't a number.
+     */
+    protected double parseNumber(int pos, int length) {
+        int start = pos;
+        int end = pos + length;
+        while (start < end && (buffer.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return Double.NaN;
+        }
+
+        int i = start;
+        boolean negative = false;
+        byte b = buffer.get(i);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean decimal = false;
+        boolean fast = i < end;
+        for (; i < end && fast; i++) {
+            b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (decimal) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && !decimal) {
+                decimal = true;
+            } else {
+                fast = false;
+            }
+        }
+
+        if (fast && digits > 0 && digits <= MAX_FAST_DIGITS && fractionDigits < POW10.length) {
+            // Both numbers are exact doubles, so the division rounds the same
+            // way Double.parseDouble does.
+            double value = fractionDigits == 0 ? mantissa : mantissa / POW10[fractionDigits];
+            return negative ? -value : value;
+        }
+
+        byte[] bytes = new byte[end - start];
+        for (int j = 0; j < bytes.length; j++) {
+            bytes[j] = buffer.get(start + j);
+        }
+        try {
+            return Double.parseDouble(new String(bytes, 0, bytes.length));
+        } catch (NumberFormatException nfe) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Get the index for a column, building it if it hasn't been built yet. A
+     * sidecar index file for the column is used if there is one and it's
+     * newer than the dbf file.
+     *
+     * @param column the column index.
+     * @param writeSidecar if the index has to be built, whether to save it in
+     *        a sidecar file for next time.
+     * @return DbfColumnIndex for the column.
+     */
+    public synchronized DbfColumnIndex createIndex(int column, boolean writeSidecar) {
+        DbfColumnIndex index = columnIndexes[column];
+        if (index != null) {
+            return index;
+        }
+
+        File indexFile = getIndexFile(column);
+        if (indexFile.isFile()) {
+            try {
+                index = DbfColumnIndex.read(indexFile, file, _names[column]);
+            } catch (IOException ioe) {
+                logger.warning("problem reading " + indexFile + ": " + ioe.getMessage());
+            }
+        }
+
+        if (index == null) {
+            index = DbfColumnIndex.create(this, column);
+            if (writeSidecar) {
+                try {
+                    index.write(indexFile, file);
+                } catch (IOException ioe) {
+                    logger.warning("problem writing " + indexFile + ": " + ioe.getMessage());
+                }
+            }
+        }
+
+        columnIndexes[column] = index;
+        return index;
+    }
+
+    /**
+     * @param column the column index.
+     * @return the index for the column, or null if one hasn't been created.
+     */
+    public synchronized DbfColumnIndex getIndex(int column) {
+        return columnIndexes[column];
+    }
+
+    /**
+     * @param column the column index.
+     * @return the sidecar file for a column index, next to the dbf file with
+     *         the column name before the extension.
+     */
+    public File getIndexFile(int column) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        return new File(file.getParentFile(), name + "." + _names[column] + DbfColumnIndex.INDEX_FILE_EXTENSION);
+    }
+
+    /**
+     * Find the rows where the value in a column passes an operation, with the
+     * same results as DbfHandler.Op.evaluate(key, value) for each record. If
+     * the column has an index, it's used for the equals and less/greater than
+     * operations. Otherwise, numeric columns are tested against their decoded
+     * double[] and other columns are decoded row by row.
+     *
+     * @param column the column index.
+     * @param op the operation.
+     * @param key the value the operation compares against.
+     * @return the rows that pass, in order.
+     */
+    public int[] select(int column, DbfHandler.Op op, Object key) {
+        if (key == null || op == DbfHandler.Op.ALL) {
+            return range(0, _rowCount);
+        }
+        if (op == DbfHandler.Op.NONE) {
+            return new int[0];
+        }
+
+        boolean numeric = isNumericalType(_types[column]);
+        Double number = numeric ? toDouble(key) : null;
+        DbfColumnIndex index = getIndex(column);
+        boolean indexable = op == DbfHandler.Op.EQUALS || op == DbfHandler.Op.LESS_THAN
+                || op == DbfHandler.Op.LESS_THAN_EQUALS || op == DbfHandler.Op.GREATER_THAN
+                || op == DbfHandler.Op.GREATER_THAN_EQUALS;
+
+        if (index != null && indexable) {
+            int[] rows = null;
+            if (numeric && number != null) {
+                double k = number.doubleValue();
+                if (op == DbfHandler.Op.EQUALS) {
+                    rows = index.equalTo(k);
+                } else if (op == DbfHandler.Op.LESS_THAN) {
+                    rows = index.range(Double.NEGATIVE_INFINITY, true, k, false);
+                } else if (op == DbfHandler.Op.LESS_THAN_EQUALS) {
+                    rows = index.range(Double.NEGATIVE_INFINITY, true, k, true);
+                } else if (op == DbfHandler.Op.GREATER_THAN) {
+                    rows = index.range(k, false, Double.POSITIVE_INFINITY, true);
+                } else {
+                    rows = index.range(k, true, Double.POSITIVE_INFINITY, true);
+                }
+                // Cells that aren't numbers are compared as Strings.
+                return merge(rows, filter(index.getBlankRows(), column, op, key));
+            } else if (!numeric && key instanceof String) {
+                String k = (String) key;
+                if (op == DbfHandler.Op.EQUALS) {
+                    rows = index.equalTo(k);
+                } else if (op == DbfHandler.Op.LESS_THAN) {
+                    rows = index.range(null, true, k, false);
+                } else if (op == DbfHandler.Op.LESS_THAN_EQUALS) {
+                    rows = index.range(null, true, k, true);
+                } else if (op == DbfHandler.Op.GREATER_THAN) {
+                    rows = index.range(k, false, null, true);
+                } else {
+                    rows = index.range(k, true, null, true);
+                }
+                return rows;
+            }
+        }
+
+        if (numeric && number != null && op != DbfHandler.Op.STARTS_WITH && op != DbfHandler.Op.ENDS_WITH) {
+            double k = number.doubleValue();
+            double[] values = getDoubleColumn(column);
+            int[] rows = new int[_rowCount];
+            int count = 0;
+            for (int r = 0; r < _rowCount; r++) {
+                double v = values[r];
+                boolean pass = Double.isNaN(v) ? op.evaluate(key, getObject(r, column)) : op.compare(Double.compare(k, v));
+                if (pass) {
+                    rows[count++] = r;
+                }
+            }
+            return trim(rows, count);
+        }
+
+        int[] rows = new int[_rowCount];
+        int count = 0;
+        for (int r = 0; r < _rowCount; r++) {
+            if (op.evaluate(key, getObject(r, column))) {
+                rows[count++] = r;
+            }
+        }
+        return trim(rows, count);
+    }
+
+    /**
+     * Convert a key to a number the same way DbfHandler.Op does.
+     *
+     * @return Double, or null if the key isn't a number.
+     */
+    protected Double toDouble(Object key) {
+        if (key instanceof Double) {
+            return (Double) key;
+        }
+        if (key instanceof String) {
+            java.text.DecimalFormat format = new java.text.DecimalFormat();
+            format.setDecimalFormatSymbols(new java.text.DecimalFormatSymbols(java.util.Locale.ENGLISH));
+            try {
+                return Double.valueOf(format.parse((String) key).doubleValue());
+            } catch (ParseException pe) {
+            }
+        }
+        return null;
+    }
+
+    protected int[] filter(int[] rows, int column, DbfHandler.Op op, Object key) {
+        int[] ret = new int[rows.length];
+        int count = 0;
+        for (int row : rows) {
+            if (op.evaluate(key, getObject(row, column))) {
+                ret[count++] = row;
+            }
+        }
+        return trim(ret, count);
+    }
+
+    protected static int[] merge(int[] a, int[] b) {
+        if (b.length == 0) {
+            return a;
+        }
+        int[] ret = new int[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            ret[k++] = a[i] < b[j] ? a[i++] : b[j++];
+        }
+        while (i < a.length) {
+            ret[k++] = a[i++];
+        }
+        while (j < b.length) {
+            ret[k++] = b[j++];
+        }
+        return ret;
+    }
+
+    protected static int[] range(int from, int to) {
+        int[] ret = new int[Math.max(0, to - from)];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = from + i;
+        }
+        return ret;
+    }
+
+    protected static int[] trim(int[] rows, int count) {
+        if (count == rows.length) {
+            return rows;
+        }
+        int[] ret = new int[count];
+        System.arraycopy(rows, 0, ret, 0, count);
+        return ret;
+    }
+}
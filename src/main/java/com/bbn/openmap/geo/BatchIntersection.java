@@ -0,0 +1,512 @@
+//**********************************************************************
+//
+//<copyright>
+//
+//BBN Technologies
+//10 Moulton Street
+//Cambridge, MA 02138
+//(617) 873-8000
+//
+//Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+//</copyright>
+//**********************************************************************
+
+package com.bbn.openmap.geo;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Intersects many paths against the same set of regions at once, splitting
+ * the paths up over a ForkJoinPool. For each path, the results are the same
+ * as Intersection.consider(path, regions), but the segment math is done on
+ * arrays of x, y, z coordinates instead of Geo objects, and the coordinates
+ * of the regions are worked out once and kept, instead of for every segment
+ * that gets near them.
+ * <P>
+ * The regions can be an ExtentIndex, which is used to find the regions near
+ * each segment, or any other Collection, which is checked in full. The
+ * regions shouldn't change while a batch is running. If they change between
+ * batches, call clearCache() so their coordinates are worked out again.
+ * <P>
+ * Matches are passed to the MatchCollector as they are found, from the pool's
+ * threads, one at a time. For paths, the first object passed to the collector
+ * is a PathSegment, which knows the path and the index of the segment that
+ * matched. GeoRegions and GeoPoints in the batch are handled by the regular
+ * Intersection methods.
+ */
+public class BatchIntersection {
+
+    /**
+     * The default number of paths a task will do on its own before it splits
+     * up the work.
+     */
+    public static final int DEFAULT_THRESHOLD = 8;
+
+    protected final MatchFilter filter;
+    protected final MatchCollector collector;
+    protected ForkJoinPool pool;
+    protected int threshold = DEFAULT_THRESHOLD;
+
+    /** The coordinates of the regions that have been looked at. */
+    protected final ConcurrentHashMap<GeoPath, Coords> coords = new ConcurrentHashMap<GeoPath, Coords>();
+    /**
+     * Whether the GeoRegion classes that have been looked at use the
+     * GeoRegion.Impl version of isSegmentNear, which the coordinates can
+     * stand in for.
+     */
+    protected final ConcurrentHashMap<Class<?>, Boolean> plainRegions = new ConcurrentHashMap<Class<?>, Boolean>();
+
+    /**
+     * Create a BatchIntersection that will use the provided MatchFilter and
+     * MatchCollector, and the common ForkJoinPool.
+     *
+     * @param filter
+     * @param collector
+     */
+    public BatchIntersection(MatchFilter filter, MatchCollector collector) {
+        this(filter, collector, ForkJoinPool.commonPool());
+    }
+
+    public BatchIntersection(MatchFilter filter, MatchCollector collector, ForkJoinPool pool) {
+        this.filter = filter;
+        this.collector = collector;
+        this.pool = pool;
+    }
+
+    /**
+     * Create a BatchIntersection that will use the MatchFilter.MatchParameters
+     * class with provided settings, and a MatchCollector.SetMatchCollector.
+     */
+    public static BatchIntersection intersector(MatchParameters params) {
+        return new BatchIntersection(new MatchFilter.MatchParametersMF(params), new MatchCollector.SetMatchCollector());
+    }
+
+    public MatchCollector getCollector() {
+        return collector;
+    }
+
+    public MatchFilter getFilter() {
+        return filter;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Set the number of paths a task will do on its own before it splits up
+     * the work. Paths with a lot of segments can use a lower number.
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = Math.max(1, threshold);
+    }
+
+    /**
+     * Forget the coordinates kept for the regions.
+     */
+    public void clearCache() {
+        coords.clear();
+    }
+
+    /**
+     * Calculate the relationships between each of the paths and the regions,
+     * and wait for them all to be done. Consult the MatchCollector for the
+     * results.
+     *
+     * @param paths a Collection of GeoPaths, generally. GeoRegions and
+     *        GeoPoints are OK too.
+     * @param regions an ExtentIndex or any Collection of GeoExtents.
+     */
+    public void consider(Collection<?> paths, Collection<?> regions) {
+        Object[] queries = paths.toArray();
+        if (queries.length > 0) {
+            pool.invoke(new PathTask(queries, regions, 0, queries.length));
+        }
+    }
+
+    /**
+     * Simplified version of consider(paths, regions) that uses the default
+     * match parameters and the common pool, and returns the regions that
+     * intersect with any of the paths.
+     *
+     * @param paths
+     * @param regions
+     * @return an iterator over the intersecting regions.
+     */
+    public static Iterator<?> intersect(Collection<?> paths, Collection<?> regions) {
+        BatchIntersection bi = intersector(MatchParameters.STRICT);
+        bi.consider(paths, regions);
+        return bi.getCollector().iterator();
+    }
+
+    /**
+     * Pass a match on to the collector, which only gets called by one thread
+     * at a time.
+     */
+    protected void collect(Object a, Object b) {
+        synchronized (collector) {
+            collector.collect(a, b);
+        }
+    }
+
+    /**
+     * @return the coordinates of the path, worked out again if the path has
+     *         new points.
+     */
+    protected Coords getCoords(GeoPath path) {
+        GeoArray points = path.getPoints();
+        Coords c = coords.get(path);
+        if (c == null || c.points != points) {
+            c = new Coords(points);
+            coords.put(path, c);
+        }
+        return c;
+    }
+
+    /**
+     * @return true if the region's isSegmentNear and isPointInside methods are
+     *         the ones from GeoRegion.Impl.
+     */
+    protected boolean isPlainRegion(GeoRegion region) {
+        Class<?> c = region.getClass();
+        Boolean plain = plainRegions.get(c);
+        if (plain == null) {
+            try {
+                plain = Boolean.valueOf(c.getMethod("isSegmentNear", GeoSegment.class, double.class).getDeclaringClass() == GeoRegion.Impl.class
+                        && c.getMethod("isPointInside", Geo.class).getDeclaringClass() == GeoRegion.Impl.class);
+            } catch (NoSuchMethodException nsme) {
+                plain = Boolean.FALSE;
+            }
+            plainRegions.put(c, plain);
+        }
+        return plain.booleanValue();
+    }
+
+    /**
+     * Splits the paths in half until there are few enough for one thread.
+     */
+    protected class PathTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final Object[] paths;
+        final Collection<?> regions;
+        final int lo;
+        final int hi;
+
+        PathTask(Object[] paths, Collection<?> regions, int lo, int hi) {
+            this.paths = paths;
+            this.regions = regions;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= threshold) {
+                Worker worker = new Worker(regions);
+                for (int i = lo; i < hi; i++) {
+                    worker.consider(paths[i]);
+                }
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new PathTask(paths, regions, lo, mid), new PathTask(paths, regions, mid, hi));
+            }
+        }
+    }
+
+    /**
+     * Does the paths for one task, reusing its buffers from path to path.
+     */
+    protected class Worker {
+
+        final Collection<?> regions;
+        final ExtentIndex index;
+        /** The path's points, x, y, z. */
+        double[] xyz = new double[3 * 64];
+        /** The normal and length of the current segment. */
+        final double[] normal = new double[3];
+        /** Scratch space for the math. */
+        final double[] tmp = new double[9];
+        /** The current segment, for the index and the Geo based methods. */
+        final Geo[] seg = new Geo[] { new Geo(), new Geo() };
+        final GeoSegment.Impl query = new GeoSegment.Impl(seg);
+        final Geo scratch = new Geo();
+        Intersection intersection;
+
+        Worker(Collection<?> regions) {
+            this.regions = regions;
+            this.index = regions instanceof ExtentIndex ? (ExtentIndex) regions : null;
+        }
+
+        void consider(Object o) {
+            if (o instanceof GeoRegion || !(o instanceof GeoPath)) {
+                if (intersection == null) {
+                    intersection = new Intersection(filter, new MatchCollector() {
+                        public void collect(Object a, Object b) {
+                            BatchIntersection.this.collect(a, b);
+                        }
+
+                        public Iterator<?> iterator() {
+                            return collector.iterator();
+                        }
+                    });
+                }
+                intersection.consider(o, regions);
+                return;
+            }
+
+            GeoPath path = (GeoPath) o;
+            GeoArray points = path.getPoints();
+            int size = points == null ? 0 : points.getSize();
+            if (xyz.length < size * 3) {
+                xyz = new double[size * 3];
+            }
+            for (int i = 0; i < size; i++) {
+                points.get(i, scratch);
+                xyz[i * 3] = scratch.x();
+                xyz[i * 3 + 1] = scratch.y();
+                xyz[i * 3 + 2] = scratch.z();
+            }
+
+            double hrange = filter.getHRange();
+            for (int s = 0; s < size - 1; s++) {
+                int a = s * 3;
+                int b = a + 3;
+                seg[0].initialize(xyz[a], xyz[a + 1], xyz[a + 2]);
+                seg[1].initialize(xyz[b], xyz[b + 1], xyz[b + 2]);
+                crossNormalize(xyz, a, xyz, b, normal, 0);
+                double length = distance(xyz, a, xyz, b);
+
+                Iterator<?> rit = index != null ? index.iterator(query) : regions.iterator();
+                while (rit.hasNext()) {
+                    GeoExtent extent = (GeoExtent) rit.next();
+                    if (!filter.preConsider(path, extent)) {
+                        continue;
+                    }
+
+                    boolean hit;
+                    if (extent instanceof GeoRegion) {
+                        GeoRegion region = (GeoRegion) extent;
+                        if (isPlainRegion(region)) {
+                            Coords c = getCoords(region);
+                            hit = c.isSegmentNear(xyz, a, b, normal, length, hrange, tmp)
+                                    || c.isPointInside(xyz, a, tmp);
+                        } else {
+                            hit = region.isSegmentNear(query, hrange);
+                        }
+                    } else if (extent instanceof GeoPath) {
+                        hit = getCoords((GeoPath) extent).isSegmentNear(xyz, a, b, normal, length, hrange, tmp);
+                    } else {
+                        BoundingCircle bc = extent.getBoundingCircle();
+                        hit = Intersection.isSegmentNearRadialRegion(seg[0], seg[1], bc.getCenter(), bc.getRadius(), hrange);
+                    }
+
+                    if (hit) {
+                        collect(new PathSegment(path, s, new Geo[] { new Geo(seg[0]), new Geo(seg[1]) }), extent);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The coordinates of a path or region, with the normals and lengths of
+     * its edges, including the one from the last point back to the first.
+     */
+    protected static class Coords {
+        final GeoArray points;
+        final int size;
+        final double[] xyz;
+        /** The normal of each edge, the edge ending at each point. */
+        final double[] normals;
+        /** The length of each edge, the edge ending at each point. */
+        final double[] lengths;
+        /** The normalized sum of the points. */
+        final double[] center = new double[3];
+        final boolean closed;
+
+        Coords(GeoArray points) {
+            this.points = points;
+            size = points == null ? 0 : points.getSize();
+            xyz = new double[size * 3];
+            Geo g = new Geo();
+            for (int i = 0; i < size; i++) {
+                points.get(i, g);
+                xyz[i * 3] = g.x();
+                xyz[i * 3 + 1] = g.y();
+                xyz[i * 3 + 2] = g.z();
+            }
+
+            normals = new double[size * 3];
+            lengths = new double[size];
+            for (int j = 0; j < size; j++) {
+                int p0 = (j == 0 ? size - 1 : j - 1) * 3;
+                crossNormalize(xyz, p0, xyz, j * 3, normals, j * 3);
+                lengths[j] = distance(xyz, p0, xyz, j * 3);
+            }
+
+            if (size > 0) {
+                // Summed up in the same order as Intersection.center().
+                double x = xyz[0];
+                double y = xyz[1];
+                double z = xyz[2];
+                for (int i = 1; i < size; i++) {
+                    x = x + xyz[i * 3];
+                    y = y + xyz[i * 3 + 1];
+                    z = z + xyz[i * 3 + 2];
+                }
+                double s = 1.0 / Math.sqrt(x * x + y * y + z * z);
+                center[0] = x * s;
+                center[1] = y * s;
+                center[2] = z * s;
+                int last = (size - 1) * 3;
+                closed = xyz[0] == xyz[last] && xyz[1] == xyz[last + 1] && xyz[2] == xyz[last + 2];
+            } else {
+                closed = true;
+            }
+        }
+
+        /**
+         * Intersection.isSegmentNearPoly(), for the segment from a to b in
+         * s.
+         *
+         * @param s segment coordinates.
+         * @param a the offset of the first point.
+         * @param b the offset of the second point.
+         * @param an the normal of the segment.
+         * @param length the length of the segment.
+         * @param near the range, in radians.
+         * @param tmp at least 3 doubles of scratch space.
+         */
+        boolean isSegmentNear(double[] s, int a, int b, double[] an, double length, double near, double[] tmp) {
+            double aL = length + near;
+            for (int j = 0; j < size; j++) {
+                // i is one of the two points where the two great circles
+                // intersect.
+                crossNormalize(an, 0, normals, j * 3, tmp, 0);
+                if (!(distance(tmp, 0, s, a) <= aL && distance(tmp, 0, s, b) <= aL)) {
+                    tmp[0] = -tmp[0];
+                    tmp[1] = -tmp[1];
+                    tmp[2] = -tmp[2];
+                    if (!(distance(tmp, 0, s, a) <= aL && distance(tmp, 0, s, b) <= aL)) {
+                        continue;
+                    }
+                }
+
+                double bL = lengths[j] + near;
+                int p0 = (j == 0 ? size - 1 : j - 1) * 3;
+                if (distance(tmp, 0, xyz, p0) <= bL && distance(tmp, 0, xyz, j * 3) <= bL) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Intersection.isPointInPolygon(), for the point at p in s.
+         *
+         * @param tmp at least 6 doubles of scratch space.
+         */
+        boolean isPointInside(double[] s, int p, double[] tmp) {
+            if (size == 0 || distance(s, p, center, 0) >= (Math.PI / 2)) {
+                return false;
+            }
+
+            // ray is normal to the great circle from the center to the point,
+            // side is a point on the great circle between them.
+            crossNormalize(center, 0, s, p, tmp, 0);
+            crossNormalize(s, p, tmp, 0, tmp, 3);
+            double rx = tmp[0], ry = tmp[1], rz = tmp[2];
+            double sx = tmp[3], sy = tmp[4], sz = tmp[5];
+
+            boolean in = false;
+            int edges = closed ? size - 1 : size;
+            for (int j = 0; j < edges; j++) {
+                int p1 = j * 3;
+                int p2 = (j + 1 == size ? 0 : j + 1) * 3;
+                double a = xyz[p1] * rx + xyz[p1 + 1] * ry + xyz[p1 + 2] * rz;
+                double b = xyz[p2] * rx + xyz[p2 + 1] * ry + xyz[p2 + 2] * rz;
+                if ((a < 0.0) != (b < 0.0)) {
+                    // Where the edge crosses the ray, which side it's on
+                    // doesn't change when it's normalized.
+                    double x = -b / (a - b);
+                    double ix = xyz[p1] * x + xyz[p2] * (1.0 - x);
+                    double iy = xyz[p1 + 1] * x + xyz[p2 + 1] * (1.0 - x);
+                    double iz = xyz[p1 + 2] * x + xyz[p2 + 2] * (1.0 - x);
+                    if (ix * sx + iy * sy + iz * sz > 0.0) {
+                        in = !in;
+                    }
+                }
+            }
+            return in;
+        }
+    }
+
+    /**
+     * Geo.crossNormalize() on coordinate arrays, putting p cross q normalized
+     * into ret at r.
+     */
+    protected static void crossNormalize(double[] p, int i, double[] q, int j, double[] ret, int r) {
+        double x = p[i + 1] * q[j + 2] - p[i + 2] * q[j + 1];
+        double y = p[i + 2] * q[j] - p[i] * q[j + 2];
+        double z = p[i] * q[j + 1] - p[i + 1] * q[j];
+        double L = Math.sqrt(x * x + y * y + z * z);
+        ret[r] = x / L;
+        ret[r + 1] = y / L;
+        ret[r + 2] = z / L;
+    }
+
+    /**
+     * Geo.distance() on coordinate arrays, the angle in radians between the
+     * point at i in p and the point at j in q.
+     */
+    protected static double distance(double[] p, int i, double[] q, int j) {
+        double x = q[j + 1] * p[i + 2] - q[j + 2] * p[i + 1];
+        double y = q[j + 2] * p[i] - q[j] * p[i + 2];
+        double z = q[j] * p[i + 1] - q[j + 1] * p[i];
+        return Math.atan2(Math.sqrt(x * x + y * y + z * z), q[j] * p[i] + q[j + 1] * p[i + 1] + q[j + 2] * p[i + 2]);
+    }
+
+    /**
+     * The segment of a path that matched, passed to the collector.
+     */
+    public static class PathSegment extends GeoSegment.Impl {
+        protected final GeoPath path;
+        protected final int index;
+
+        public PathSegment(GeoPath path, int index, Geo[] segment) {
+            super(segment);
+            this.path = path;
+            this.index = index;
+            setID(Integer.valueOf(index));
+        }
+
+        /**
+         * @return the path the segment is from.
+         */
+        public GeoPath getPath() {
+            return path;
+        }
+
+        /**
+         * @return the index of the segment in the path, segment i goes from
+         *         point i to point i + 1.
+         */
+        public int getIndex() {
+            return index;
+        }
+    }
+}
@@ -0,0 +1,659 @@
+//**********************************************************************
+//
+//<copyright>
+//
+//BBN Technologies
+//10 Moulton Street
+//Cambridge, MA 02138
+//(617) 873-8000
+//
+//Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+//</copyright>
+//**********************************************************************
+
+package com.bbn.openmap.geo;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+/**
+ * An ExtentIndex that puts extents in the cells of a quadtree on a cube. The
+ * sphere is split into six faces, one for each side of a cube around it, and
+ * each face is split into quarters, and each quarter into quarters, down to
+ * MAX_LEVEL. An extent is added to the few cells that its bounding circle
+ * (plus the margin) touches, at the level where the cells are about as big as
+ * the circle. Since the cells are worked out in 3D, regions over the poles or
+ * the dateline aren't special.
+ * <p>
+ * The cells are kept in a sorted map, keyed so that all of the cells inside a
+ * cell are next to each other. A lookup finds the cells that the query's
+ * bounding circle touches at the level where the cells are about as big as
+ * the circle, and collects the extents from those cells, the cells above
+ * them, and the cells inside them. Segments, and the segments of paths, are
+ * looked up with the cells along the segment instead, so a long thin track
+ * doesn't pull in everything in its bounding circle. Unlike the
+ * AbstractExtentIndex, which only
+ * buckets by longitude, the number of extents looked at doesn't grow with the
+ * number of extents in the same longitude strip, which makes a big difference
+ * for dense data sets.
+ * <p>
+ * The iterators returned by iterator(GeoExtent) are a superset of the extents
+ * whose bounding circles are within the margin of the query.
+ * <p>
+ * This index costs more to build than an ExtentIndexImpl, about ten times as
+ * much, and a lookup has more overhead, so it's slower for sets of ten
+ * thousand extents or so. It pays off for large sets, a hundred thousand
+ * extents and up, that are built once and then queried many times, where
+ * lookups can be ten to twenty times faster. Nothing uses it by default; for
+ * small sets, or ones built for a single query, stick with ExtentIndexImpl.
+ */
+// ExtentIndex is a raw Collection, so the superclass has to be raw too.
+@SuppressWarnings("rawtypes")
+public class SphericalCellExtentIndex extends AbstractCollection implements ExtentIndex {
+
+    /** The deepest level of cells, about 10 meters across. */
+    public static final int MAX_LEVEL = 24;
+
+    /**
+     * Default value for #margin if not specified in the call to the
+     * constructor.
+     */
+    public static final double D_MARGIN = 0.0;
+
+    /**
+     * How many levels below the level for a segment's bounding circle the
+     * cells along a segment are found.
+     */
+    protected static final int SEGMENT_LEVELS = 3;
+
+    /**
+     * How much of a margin to put around extents for indexing purposes, in
+     * nautical miles. Should be at least the largest horizontal range used for
+     * queries.
+     */
+    public final double margin;
+
+    /** The margin in radians. */
+    protected final double marginAngle;
+
+    /** Buckets of extents, by cell id. */
+    protected final TreeMap<Long, Collection<GeoExtent>> cells = new TreeMap<Long, Collection<GeoExtent>>();
+
+    /** The number of extents added at each level. */
+    protected final int[] levelCounts = new int[MAX_LEVEL + 1];
+
+    /** Everything successfully indexed. */
+    protected final Collection<GeoExtent> all = new ArrayList<GeoExtent>();
+
+    /** Extents without a bounding circle. */
+    protected final Collection<GeoExtent> discarded = new ArrayList<GeoExtent>();
+
+    public SphericalCellExtentIndex() {
+        this(D_MARGIN);
+    }
+
+    public SphericalCellExtentIndex(double m) {
+        margin = m;
+        marginAngle = Geo.nmToAngle(m);
+    }
+
+    /**
+     * Add an object to the index.
+     *
+     * @return true if object is a GeoExtent and was added.
+     */
+    public boolean add(Object o) {
+        if (o instanceof GeoExtent) {
+            return addExtent((GeoExtent) o);
+        } else {
+            return false;
+        }
+    }
+
+    public boolean addExtent(GeoExtent extent) {
+        BoundingCircle bc = extent.getBoundingCircle();
+        if (bc == null) {
+            discarded.add(extent);
+            return false;
+        }
+
+        double radius = bc.getRadius() + marginAngle;
+        int level = levelFor(radius);
+        CellList cover = cover(bc.getCenter(), radius, level, null);
+        for (int c = 0; c < cover.size; c++) {
+            Long id = Long.valueOf(cover.ids[c]);
+            Collection<GeoExtent> bucket = cells.get(id);
+            if (bucket == null) {
+                bucket = new ArrayList<GeoExtent>(4);
+                cells.put(id, bucket);
+            }
+            bucket.add(extent);
+        }
+        levelCounts[level]++;
+        all.add(extent);
+        return true;
+    }
+
+    public boolean removeExtent(GeoExtent extent) {
+        BoundingCircle bc = extent.getBoundingCircle();
+        if (bc == null) {
+            return discarded.remove(extent);
+        }
+
+        if (!all.remove(extent)) {
+            return false;
+        }
+
+        double radius = bc.getRadius() + marginAngle;
+        int level = levelFor(radius);
+        CellList cover = cover(bc.getCenter(), radius, level, null);
+        for (int c = 0; c < cover.size; c++) {
+            Long id = Long.valueOf(cover.ids[c]);
+            Collection<GeoExtent> bucket = cells.get(id);
+            if (bucket != null) {
+                bucket.remove(extent);
+                if (bucket.isEmpty()) {
+                    cells.remove(id);
+                }
+            }
+        }
+        levelCounts[level]--;
+        return true;
+    }
+
+    public boolean remove(Object o) {
+        if (o instanceof GeoExtent) {
+            return removeExtent((GeoExtent) o);
+        } else {
+            return false;
+        }
+    }
+
+    public void clear() {
+        cells.clear();
+        all.clear();
+        discarded.clear();
+        for (int i = 0; i < levelCounts.length; i++) {
+            levelCounts[i] = 0;
+        }
+    }
+
+    /**
+     * @return horizontal range in nautical miles for matches.
+     */
+    public double indexHorizontalRange() {
+        return margin;
+    }
+
+    /**
+     * @return an Iterator over the extents in the index that may be related
+     *         to the GeoExtent.
+     */
+    public Iterator<GeoExtent> iterator(GeoExtent o) {
+        HashSet<GeoExtent> results = new HashSet<GeoExtent>();
+        if (o instanceof GeoSegment) {
+            lookup((GeoSegment) o, results);
+        } else if (o instanceof GeoRegion) {
+            // Test GeoRegion before GeoPath, the area inside the region
+            // counts.
+            lookup(o.getBoundingCircle(), results);
+        } else if (o instanceof GeoPath) {
+            GeoPath.SegmentIterator pit = ((GeoPath) o).segmentIterator();
+            while (pit.hasNext()) {
+                lookup(pit.nextSegment(), results);
+            }
+        } else if (o instanceof GeoPoint) {
+            lookup(new BoundingCircle.Impl(((GeoPoint) o).getPoint(), 0), results);
+        } else {
+            lookup(o.getBoundingCircle(), results);
+        }
+
+        if (results.isEmpty()) {
+            return Collections.<GeoExtent> emptySet().iterator();
+        }
+        return results.iterator();
+    }
+
+    /**
+     * Add the extents whose bounding circles may be within the margin of a
+     * bounding circle to the results.
+     */
+    protected void lookup(BoundingCircle bc, Collection<GeoExtent> results) {
+        if (bc == null || all.isEmpty()) {
+            return;
+        }
+
+        int level = Math.min(levelFor(bc.getRadius()), deepestLevel());
+        CellList cover = cover(bc.getCenter(), bc.getRadius() + marginAngle, level, null);
+        collect(cover, level, unit(bc.getCenter()), null, null, bc.getRadius(), results);
+    }
+
+    /**
+     * Add the extents whose bounding circles may be within the margin of a
+     * segment to the results. Looks at the cells along the segment, instead
+     * of all of the ones in its bounding circle.
+     */
+    protected void lookup(GeoSegment segment, Collection<GeoExtent> results) {
+        Geo[] seg = segment.getSeg();
+        if (seg == null || seg.length != 2) {
+            lookup(segment.getBoundingCircle(), results);
+            return;
+        }
+        if (all.isEmpty()) {
+            return;
+        }
+
+        // A few levels down from the segment's bounding circle, so the cells
+        // along the segment cover a strip about as wide as the margin, or a
+        // quarter of the segment.
+        double length = seg[0].distance(seg[1]);
+        int level = Math.min(Math.min(levelFor(length / 2) + SEGMENT_LEVELS, levelFor(marginAngle)), deepestLevel());
+        CellList cover = coverSegment(seg[0], seg[1], marginAngle, level, null);
+        double[] a = unit(seg[0]);
+        double[] b = unit(seg[1]);
+        collect(cover, level, a, b, segmentNormal(a, b), 0, results);
+    }
+
+    /**
+     * Collect the extents in the cells of the cover, the cells above them and
+     * the cells inside them, that are within the margin of the circle around
+     * a, or the segment from a to b if b isn't null.
+     */
+    protected void collect(CellList cover, int level, double[] a, double[] b, double[] normal, double radius,
+                           Collection<GeoExtent> results) {
+        HashSet<Long> ancestors = null;
+        for (int c = 0; c < cover.size; c++) {
+            long id = cover.ids[c];
+
+            // The cell, and everything inside it.
+            long lsb = id & -id;
+            for (Collection<GeoExtent> bucket : cells.subMap(Long.valueOf(id - lsb + 1), true, Long.valueOf(id + lsb - 1), true)
+                                          .values()) {
+                collect(bucket, a, b, normal, radius, results);
+            }
+
+            // The cells it's in.
+            for (int l = 0; l < level; l++) {
+                if (levelCounts[l] == 0) {
+                    continue;
+                }
+                Long parent = Long.valueOf(parentId(id, level, l));
+                if (ancestors == null) {
+                    ancestors = new HashSet<Long>();
+                }
+                if (ancestors.add(parent)) {
+                    Collection<GeoExtent> bucket = cells.get(parent);
+                    if (bucket != null) {
+                        collect(bucket, a, b, normal, radius, results);
+                    }
+                }
+            }
+        }
+    }
+
+    protected void collect(Collection<GeoExtent> bucket, double[] a, double[] b, double[] normal, double radius,
+                           Collection<GeoExtent> results) {
+        for (GeoExtent extent : bucket) {
+            if (results.contains(extent)) {
+                continue;
+            }
+            BoundingCircle ebc = extent.getBoundingCircle();
+            double[] center = unit(ebc.getCenter());
+            double distance = b == null ? angle(a, center) : segmentDistance(a, b, normal, center);
+            if (distance <= radius + ebc.getRadius() + marginAngle + 1e-9) {
+                results.add(extent);
+            }
+        }
+    }
+
+    /**
+     * @return the deepest level with extents in it.
+     */
+    protected int deepestLevel() {
+        for (int l = MAX_LEVEL; l > 0; l--) {
+            if (levelCounts[l] > 0) {
+                return l;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return Iterator over all entries in Collection.
+     */
+    public Iterator<GeoExtent> iterator() {
+        return all.iterator();
+    }
+
+    /**
+     * @return number of all entries in Collection.
+     */
+    public int size() {
+        return all.size();
+    }
+
+    public String toString() {
+        int entries = 0;
+        for (Collection<GeoExtent> bucket : cells.values()) {
+            entries += bucket.size();
+        }
+        return this.getClass().getName() + "[" + size() + " -" + discarded.size() + " C" + cells.size() + " E"
+                + (cells.isEmpty() ? 0 : entries / (float) cells.size()) + "]";
+    }
+
+    //
+    // Cells
+    //
+
+    /**
+     * The deepest level where the cells are at least as wide as a circle with
+     * the radius, in the middle of a face.
+     *
+     * @param radius in radians.
+     */
+    protected static int levelFor(double radius) {
+        int level = 0;
+        // The width of a level 0 cell, through the middle of the face.
+        double width = Math.PI / 2;
+        while (level < MAX_LEVEL && width / 2 >= 2 * radius) {
+            width /= 2;
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * The id of a cell. The face is in the top bits, and below it, the cell's
+     * position along a z-order curve through the cells of MAX_LEVEL, with a
+     * bit set after it to mark the level. All of the cells inside a cell have
+     * ids within (id - lsb, id + lsb), where lsb is the lowest bit set in the
+     * cell's id.
+     */
+    protected static long cellId(int face, int level, int i, int j) {
+        long pos = ((interleave(i, j) << 1) | 1L) << (2 * (MAX_LEVEL - level));
+        return ((long) face << (2 * MAX_LEVEL + 1)) | pos;
+    }
+
+    /**
+     * The id of the cell at a higher level that holds a cell.
+     */
+    protected static long parentId(long id, int level, int parentLevel) {
+        long lsb = 1L << (2 * (MAX_LEVEL - parentLevel));
+        // Clear the bits below the parent's marker bit, and set it.
+        return (id & -(lsb << 1)) | lsb;
+    }
+
+    protected static long interleave(int i, int j) {
+        return (spread(i) << 1) | spread(j);
+    }
+
+    protected static long spread(long x) {
+        x &= 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    /**
+     * Find the cells at a level that might touch a circle.
+     *
+     * @param center center of the circle.
+     * @param radius radius of the circle in radians.
+     * @param level the level of the cells to return.
+     * @param cells list to add cells to, may be null.
+     * @return the list of cells.
+     */
+    protected static CellList cover(Geo center, double radius, int level, CellList cells) {
+        if (cells == null) {
+            cells = new CellList();
+        }
+        double[] c = unit(center);
+        double[] circle = new double[4];
+        radius = Math.min(radius, Math.PI);
+
+        if (level >= 2 && radius <= maxRadius(level)) {
+            // The circle is smaller than any cell at the level, so it's
+            // inside the cells around the one its center is in, unless that's
+            // at the edge of a face.
+            double[] uv = new double[2];
+            int face = faceUV(c, uv);
+            int n = 1 << level;
+            int ci = Math.min(n - 1, (int) Math.floor((uv[0] + 1) / 2 * n));
+            int cj = Math.min(n - 1, (int) Math.floor((uv[1] + 1) / 2 * n));
+            if (ci > 0 && cj > 0 && ci < n - 1 && cj < n - 1) {
+                for (int i = ci - 1; i <= ci + 1; i++) {
+                    for (int j = cj - 1; j <= cj + 1; j++) {
+                        cellCircle(face, level, i, j, circle);
+                        if (touches(c, radius, circle)) {
+                            cells.add(cellId(face, level, i, j));
+                        }
+                    }
+                }
+                return cells;
+            }
+        }
+
+        for (int face = 0; face < 6; face++) {
+            cover(c, radius, null, null, face, 0, 0, 0, level, cells, circle);
+        }
+        return cells;
+    }
+
+    /**
+     * Find the cells at a level that might be within a distance of a great
+     * circle segment.
+     *
+     * @param a one end of the segment.
+     * @param b the other end of the segment.
+     * @param radius the distance in radians.
+     * @param level the level of the cells to return.
+     * @param cells list to add cells to, may be null.
+     * @return the list of cells.
+     */
+    protected static CellList coverSegment(Geo a, Geo b, double radius, int level, CellList cells) {
+        if (cells == null) {
+            cells = new CellList();
+        }
+        double[] ua = unit(a);
+        double[] ub = unit(b);
+        double[] circle = new double[4];
+        for (int face = 0; face < 6; face++) {
+            cover(ua, radius, ub, segmentNormal(ua, ub), face, 0, 0, 0, level, cells, circle);
+        }
+        return cells;
+    }
+
+    /**
+     * Work down from a cell, adding the cells at the level that might touch
+     * the circle around c, or the segment from c to b if b isn't null.
+     */
+    protected static void cover(double[] c, double radius, double[] b, double[] normal, int face, int l, int i, int j,
+                                int level, CellList cells, double[] circle) {
+        cellCircle(face, l, i, j, circle);
+        boolean touches;
+        if (b == null) {
+            touches = touches(c, radius, circle);
+        } else {
+            touches = segmentDistance(c, b, normal, circle) <= radius + Math.acos(circle[3]) + 1e-9;
+        }
+        if (!touches) {
+            return;
+        }
+        if (l == level) {
+            cells.add(cellId(face, l, i, j));
+            return;
+        }
+        for (int di = 0; di < 2; di++) {
+            for (int dj = 0; dj < 2; dj++) {
+                cover(c, radius, b, normal, face, l + 1, i * 2 + di, j * 2 + dj, level, cells, circle);
+            }
+        }
+    }
+
+    /**
+     * The largest circle that's sure to fit inside the cells around the cell
+     * its center is in. Cells are smallest in the corners of the faces, about
+     * half as wide as they are in the middle.
+     */
+    protected static double maxRadius(int level) {
+        return Math.PI / 2 / (1 << level) * .4;
+    }
+
+    /**
+     * Set circle to the unit vector for the center of a cell, and the cosine
+     * of the angle from there to its farthest corner. The cell is inside that
+     * circle. The edges of the cells are great circles, so the cell circles
+     * are never more than about 55 degrees across.
+     */
+    protected static void cellCircle(int face, int l, int i, int j, double[] circle) {
+        double n = 1 << l;
+        double u0 = -1 + 2 * i / n;
+        double v0 = -1 + 2 * j / n;
+        double u1 = -1 + 2 * (i + 1) / n;
+        double v1 = -1 + 2 * (j + 1) / n;
+
+        facePoint(face, (u0 + u1) / 2, (v0 + v1) / 2, circle);
+        double cx = circle[0];
+        double cy = circle[1];
+        double cz = circle[2];
+        circle[3] = Math.min(Math.min(cornerDot(face, u0, v0, cx, cy, cz, circle), cornerDot(face, u1, v0, cx, cy, cz, circle)),
+                Math.min(cornerDot(face, u0, v1, cx, cy, cz, circle), cornerDot(face, u1, v1, cx, cy, cz, circle)));
+        circle[0] = cx;
+        circle[1] = cy;
+        circle[2] = cz;
+    }
+
+    /**
+     * Check whether a circle might touch a cell circle from cellCircle().
+     */
+    protected static boolean touches(double[] c, double radius, double[] circle) {
+        if (radius >= Math.PI) {
+            return true;
+        }
+        double cosCell = circle[3];
+        double cosDist = c[0] * circle[0] + c[1] * circle[1] + c[2] * circle[2];
+        if (radius >= Math.PI / 2) {
+            // Compare the angles themselves for big circles.
+            return Math.acos(Math.max(-1, Math.min(1, cosDist))) <= radius + Math.acos(cosCell) + 1e-9;
+        }
+        // cos(radius + cell radius), both under 90 degrees.
+        double sinCell = Math.sqrt(Math.max(0, 1 - cosCell * cosCell));
+        double cosSum = Math.cos(radius) * cosCell - Math.sin(radius) * sinCell;
+        return cosDist >= cosSum - 1e-12;
+    }
+
+    protected static double cornerDot(int face, double u, double v, double cx, double cy, double cz, double[] p) {
+        facePoint(face, u, v, p);
+        return p[0] * cx + p[1] * cy + p[2] * cz;
+    }
+
+    /**
+     * The normal of the great circle through a and b, or null if they're the
+     * same point.
+     */
+    protected static double[] segmentNormal(double[] a, double[] b) {
+        double nx = a[1] * b[2] - a[2] * b[1];
+        double ny = a[2] * b[0] - a[0] * b[2];
+        double nz = a[0] * b[1] - a[1] * b[0];
+        double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (len < 1e-15) {
+            return null;
+        }
+        return new double[] { nx / len, ny / len, nz / len };
+    }
+
+    /**
+     * The angle in radians from p to the nearest point on the shorter great
+     * circle arc from a to b. All are unit vectors.
+     *
+     * @param normal from segmentNormal(a, b).
+     */
+    protected static double segmentDistance(double[] a, double[] b, double[] normal, double[] p) {
+        if (normal != null) {
+            double pn = p[0] * normal[0] + p[1] * normal[1] + p[2] * normal[2];
+            // p projected onto the plane of the great circle.
+            double qx = p[0] - pn * normal[0];
+            double qy = p[1] - pn * normal[1];
+            double qz = p[2] - pn * normal[2];
+            // q is between a and b if a x q and q x b both point along the
+            // normal.
+            double aq = (a[1] * qz - a[2] * qy) * normal[0] + (a[2] * qx - a[0] * qz) * normal[1]
+                    + (a[0] * qy - a[1] * qx) * normal[2];
+            double qb = (qy * b[2] - qz * b[1]) * normal[0] + (qz * b[0] - qx * b[2]) * normal[1]
+                    + (qx * b[1] - qy * b[0]) * normal[2];
+            if (aq >= 0 && qb >= 0) {
+                return Math.asin(Math.min(1, Math.abs(pn)));
+            }
+        }
+        return Math.min(angle(a, p), angle(b, p));
+    }
+
+    protected static double angle(double[] a, double[] b) {
+        double dot = a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+        return Math.acos(Math.max(-1, Math.min(1, dot)));
+    }
+
+    protected static double[] unit(Geo g) {
+        double len = Math.sqrt(g.x() * g.x() + g.y() * g.y() + g.z() * g.z());
+        return new double[] { g.x() / len, g.y() / len, g.z() / len };
+    }
+
+    /**
+     * Find the face a unit vector is on, and its u, v position there.
+     *
+     * @return the face.
+     */
+    protected static int faceUV(double[] p, double[] uv) {
+        int axis = 0;
+        if (Math.abs(p[1]) > Math.abs(p[axis])) {
+            axis = 1;
+        }
+        if (Math.abs(p[2]) > Math.abs(p[axis])) {
+            axis = 2;
+        }
+        double major = Math.abs(p[axis]);
+        uv[0] = p[(axis + 1) % 3] / major;
+        uv[1] = p[(axis + 2) % 3] / major;
+        return axis * 2 + (p[axis] < 0 ? 1 : 0);
+    }
+
+    /**
+     * Set p to the unit vector for a u, v position on a face. Faces 0 and 1
+     * are the +x and -x sides of the cube, 2 and 3 y, 4 and 5 z, and u and v
+     * follow the major axis in x, y, z order.
+     */
+    protected static void facePoint(int face, double u, double v, double[] p) {
+        int axis = face >> 1;
+        double major = (face & 1) == 0 ? 1 : -1;
+        double len = Math.sqrt(1 + u * u + v * v);
+        p[axis] = major / len;
+        p[(axis + 1) % 3] = u / len;
+        p[(axis + 2) % 3] = v / len;
+    }
+
+    /**
+     * A growable list of cell ids.
+     */
+    protected static class CellList {
+        long[] ids = new long[16];
+        int size = 0;
+
+        void add(long id) {
+            if (size == ids.length) {
+                long[] tmp = new long[size * 2];
+                System.arraycopy(ids, 0, tmp, 0, size);
+                ids = tmp;
+            }
+            ids[size++] = id;
+        }
+    }
+}
@@ -28,16 +28,25 @@ import java.awt.Graphics2D;
 import java.awt.Paint;
 import java.awt.RenderingHints;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -76,10 +85,17 @@ import com.bbn.openmap.util.PropUtils;
  * layer array contents and the request layer mask at the time the request
  * processing is started, not when it is submitted.
  * <P>
- * Right now, the ImageServer is single threaded - processing requests one after
- * another. The request setup was written to support multi-threaded processing,
- * though, where each image could be generated in it's own thread. That code is
- * not written - maybe someday.
+ * By default, the layers for an image are rendered one after another, so the
+ * time to make an image is the sum of the time each layer takes. If the
+ * parallelRendering property is set to true, each layer renders into its own
+ * ARGB buffer on a bounded pool of threads (renderThreads, the number of
+ * processors by default), and the buffers are drawn into the image in layer
+ * order when they are all done. The image takes about as long as the slowest
+ * layer, and looks the same, except that where translucent pixels from the
+ * same layer overlap (antialiased edges, for one) a color can be rounded one
+ * step differently. A layer that throws an exception fails the image either
+ * way. The layerRendered(...) method is called with the time each layer took,
+ * for request logging.
  * <P>
  * <code><pre>
  *                 
@@ -148,9 +164,29 @@ public class ImageServer
      */
     public static final String BackgroundProperty = "background";
 
+    /**
+     * Property to have the layers render concurrently, into separate buffers
+     * that are combined for the image.
+     */
+    public static final String ParallelRenderingProperty = "parallelRendering";
+
+    /**
+     * Property for the maximum number of threads used for parallel rendering.
+     */
+    public static final String RenderThreadsProperty = "renderThreads";
+
     /** Flag to do graphics and text anti-aliasing on the map image. */
     protected boolean doAntiAliasing = false;
 
+    /** Flag to render layers concurrently into their own buffers. */
+    protected boolean parallelRendering = false;
+
+    /** The number of threads used for parallel rendering. */
+    protected int renderThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The pool used for parallel rendering, created when needed. */
+    protected ExecutorService renderExecutor;
+
     /**
      * A place to hold on to a property prefix in case one is used. Useful for
      * ImageServer properties files where more than one image server is defined.
@@ -227,6 +263,60 @@ public class ImageServer
         return doAntiAliasing;
     }
 
+    /**
+     * Set whether the layers render at the same time, each into their own
+     * buffer.
+     */
+    public void setParallelRendering(boolean set) {
+        parallelRendering = set;
+    }
+
+    /**
+     * Find out whether the layers render at the same time.
+     */
+    public boolean getParallelRendering() {
+        return parallelRendering;
+    }
+
+    /**
+     * Set the maximum number of threads used for parallel rendering. Takes
+     * effect on the next image request.
+     */
+    public synchronized void setRenderThreads(int numThreads) {
+        numThreads = Math.max(1, numThreads);
+        if (numThreads != renderThreads && renderExecutor != null) {
+            // Running requests will finish with the old pool.
+            renderExecutor.shutdown();
+            renderExecutor = null;
+        }
+        renderThreads = numThreads;
+    }
+
+    /**
+     * Get the maximum number of threads used for parallel rendering.
+     */
+    public synchronized int getRenderThreads() {
+        return renderThreads;
+    }
+
+    /**
+     * Get the pool used for parallel rendering, creating it if needed. The
+     * threads are daemon threads, so the pool doesn't have to be shut down.
+     */
+    protected synchronized ExecutorService getRenderExecutor() {
+        if (renderExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            renderExecutor = Executors.newFixedThreadPool(renderThreads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ImageServer-render-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return renderExecutor;
+    }
+
     /**
      * Set the layers used on the NEXT request that is processed. Will not
      * affect any image currently being created.
@@ -362,6 +452,7 @@ public class ImageServer
         ((Proj) proj).drawBackground((Graphics2D) graphics, background);
 
         if (showLayers != null) {
+            List<Layer> renderLayers = new ArrayList<Layer>();
             int size = showLayers.size();
             for (int j = size - 1; j >= 0; j--) {
                 for (int i = layers.length - 1; i >= 0; i--) {
@@ -378,13 +469,14 @@ public class ImageServer
                     }
 
                     if (layerName.equals(prefix)) {
-                        layer.renderDataForProjection(proj, graphics);
+                        renderLayers.add(layer);
                         if (logger.isLoggable(Level.FINE)) {
                             logger.fine("image request adding layer graphics from : " + layer.getName());
                         }
                     }
                 }
             }
+            renderLayers(proj, graphics, renderLayers);
         } else if (logger.isLoggable(Level.FINE)) {
             logger.fine("no layers available for image");
         }
@@ -425,17 +517,19 @@ public class ImageServer
         ((Proj) proj).drawBackground((Graphics2D) graphics, background);
 
         if (layers != null && !layers.isEmpty()) {
+            List<Layer> renderLayers = new ArrayList<Layer>(layers.size());
             for (int i = layers.size() - 1; i >= 0; i--) {
                 Layer layer = layers.get(i);
 
                 if (layer != null) {
-                    layer.renderDataForProjection(proj, graphics);
+                    renderLayers.add(layer);
 
                     if (logger.isLoggable(Level.FINE)) {
                         logger.fine("image request adding layer graphics from : " + layer.getName());
                     }
                 }
             }
+            renderLayers(proj, graphics, renderLayers);
 
         } else if (logger.isLoggable(Level.FINE)) {
             logger.fine("no layers available for image");
@@ -527,19 +621,21 @@ public class ImageServer
         }
 
         if (layers != null) {
+            List<Layer> renderLayers = new ArrayList<Layer>(layers.length);
             for (int i = layers.length - 1; i >= 0; i--) {
                 if ((includedLayerMask & (0x00000001 << i)) != 0) {
                     if (logger.isLoggable(Level.FINE)) {
                         logger.fine("image request adding layer graphics from : " + layers[i].getName());
                     }
 
-                    layers[i].renderDataForProjection(proj, graphics);
+                    renderLayers.add(layers[i]);
                 } else {
                     if (logger.isLoggable(Level.FINE)) {
                         logger.fine("skipping layer graphics from : " + layers[i].getName());
                     }
                 }
             }
+            renderLayers(proj, graphics, renderLayers);
         } else {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("no layers available");
@@ -551,6 +647,122 @@ public class ImageServer
         return formattedImage;
     }
 
+    /**
+     * Render the layers into the image Graphics, bottom layer first. If
+     * parallel rendering is enabled, the layers are rendered concurrently into
+     * their own buffers, and the buffers are painted into the Graphics in the
+     * same order.
+     * 
+     * @param proj projection of map.
+     * @param graphics the Graphics for the image.
+     * @param renderLayers the layers to render, in painting order (bottom
+     *        layer first).
+     */
+    protected void renderLayers(Projection proj, Graphics graphics, List<Layer> renderLayers) {
+        if (parallelRendering && renderLayers.size() > 1) {
+            renderLayersConcurrently(proj, graphics, renderLayers);
+            return;
+        }
+
+        for (Layer layer : renderLayers) {
+            long start = System.nanoTime();
+            layer.renderDataForProjection(proj, graphics);
+            layerRendered(layer, (System.nanoTime() - start) / 1000000L);
+        }
+    }
+
+    /**
+     * Render each layer into its own ARGB buffer on the render pool, and then
+     * paint the buffers into the image Graphics in layer order. If a layer
+     * throws an exception, the layers that haven't finished are cancelled and
+     * the exception is thrown from here, as it would be if the layers were
+     * rendered one after another.
+     * 
+     * @param proj projection of map.
+     * @param graphics the Graphics for the image.
+     * @param renderLayers the layers to render, in painting order (bottom
+     *        layer first).
+     */
+    protected void renderLayersConcurrently(Projection proj, Graphics graphics, List<Layer> renderLayers) {
+        final int width = proj.getWidth();
+        final int height = proj.getHeight();
+        int size = renderLayers.size();
+        final long[] times = new long[size];
+        ExecutorService executor = getRenderExecutor();
+        List<Future<BufferedImage>> futures = new ArrayList<Future<BufferedImage>>(size);
+
+        for (int i = 0; i < size; i++) {
+            final Layer layer = renderLayers.get(i);
+            // Projections aren't shared between threads.
+            final Projection layerProj = proj.makeClone();
+            final int index = i;
+            futures.add(executor.submit(new Callable<BufferedImage>() {
+                public BufferedImage call() {
+                    long start = System.nanoTime();
+                    BufferedImage buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                    Graphics2D g2 = buffer.createGraphics();
+                    if (doAntiAliasing) {
+                        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                    }
+                    try {
+                        layer.renderDataForProjection(layerProj, g2);
+                    } finally {
+                        g2.dispose();
+                    }
+                    times[index] = (System.nanoTime() - start) / 1000000L;
+                    return buffer;
+                }
+            }));
+        }
+
+        for (int i = 0; i < size; i++) {
+            Layer layer = renderLayers.get(i);
+            try {
+                BufferedImage buffer = futures.get(i).get();
+                graphics.drawImage(buffer, 0, 0, null);
+                layerRendered(layer, times[i]);
+            } catch (ExecutionException ee) {
+                // Fail the image the same way rendering the layers one after
+                // another does, the layer's exception goes to the caller.
+                for (Future<BufferedImage> future : futures) {
+                    future.cancel(true);
+                }
+                Throwable cause = ee.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new RuntimeException("problem rendering " + layer.getName(), cause);
+            } catch (InterruptedException ie) {
+                // The request has been abandoned, stop the rest.
+                for (Future<BufferedImage> future : futures) {
+                    future.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called after each layer is rendered for an image, with the time it took.
+     * Called on the thread making the image, in layer painting order, so
+     * subclasses can override this to add layer timing to request logs.
+     * 
+     * @param layer the layer that was rendered.
+     * @param millis how long the layer took to render, in milliseconds. For
+     *        parallel rendering, this doesn't include time waiting for a
+     *        render thread.
+     */
+    protected void layerRendered(Layer layer, long millis) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(layer.getName() + " rendered in " + millis + " ms");
+        }
+    }
+
     /**
      * Create a java.awt.Graphics to use for an image. The Graphics will affect
      * the image contained within the ImageFormatter.
@@ -637,6 +849,8 @@ public class ImageServer
         layers = getLayers(props, instantiatedLayers);
         formatter = getFormatters(props);
         doAntiAliasing = PropUtils.booleanFromProperties(props, prefix + AntiAliasingProperty, false);
+        parallelRendering = PropUtils.booleanFromProperties(props, prefix + ParallelRenderingProperty, false);
+        setRenderThreads(PropUtils.intFromProperties(props, prefix + RenderThreadsProperty, renderThreads));
 
         background = getBackground(props, prefix + BackgroundProperty);
     }
@@ -724,6 +938,8 @@ public class ImageServer
         props.put(prefix + ImageFormattersProperty, buf.toString().trim());
 
         props.put(prefix + AntiAliasingProperty, Boolean.toString(doAntiAliasing));
+        props.put(prefix + ParallelRenderingProperty, Boolean.toString(parallelRendering));
+        props.put(prefix + RenderThreadsProperty, Integer.toString(getRenderThreads()));
 
         if (background instanceof Color) {
             String colorString = Integer.toHexString(((Color) background).getRGB());
@@ -744,6 +960,8 @@ public class ImageServer
         list.put(ImageServerLayersProperty, "A list of marker names (space-separated) for layer definitions");
         list.put(ImageFormattersProperty, "A list of marker names (space-separated) for ImageFormatter definitions");
         list.put(AntiAliasingProperty, "Whether to use anti-aliasing for the image");
+        list.put(ParallelRenderingProperty, "Whether to render the layers at the same time, in separate buffers");
+        list.put(RenderThreadsProperty, "Maximum number of threads used for parallel rendering");
         return list;
     }
 
@@ -41,12 +41,30 @@ import com.bbn.openmap.util.Debug;
  * The BinaryFile is the standard object used to access data files. It acts like
  * a RandomAccessFile, but will work on jar file contents and URLs, too. The
  * source of the data is isolated through the InputReader interface.
+ * <p>
+ * Local files are read with a FileInputReader by default. If the
+ * openmap.MapFiles environment property is set to true (i.e. with
+ * -Dopenmap.MapFiles=true), or setMapFiles(true) is called, local files are
+ * memory mapped with a MappedFileInputReader instead, and multi-byte values
+ * and arrays are decoded directly out of the mapping. Only do this for files
+ * that don't change while they are being read.
  */
 public class BinaryFile {
    private static int openCount = 0;
    private static int classCount = 0;
 
+   /**
+    * Environment property for memory mapping local files, true or false
+    * (default).
+    */
+   public final static String MapFilesProperty = "openmap.MapFiles";
+
+   /** Set programmatically to memory map local files. */
+   private static boolean mapFiles = false;
+
    private InputReader inputReader = null;
+   /** Set when the inputReader is a MappedFileInputReader. */
+   private MappedFileInputReader mappedReader = null;
 
    /**
     * The byte order of the underlying file. (<code>true</code>== MSB-First ==
@@ -66,9 +84,7 @@ public class BinaryFile {
     */
    public BinaryFile(File f)
          throws IOException {
-      inputReader = new FileInputReader(f);
-      classCount++;
-      openCount++;
+      this(createFileInputReader(f));
    }
 
    /**
@@ -76,8 +92,9 @@ public class BinaryFile {
     * 
     * @param inputReader the input reader to be opened for reading
     */
-   private BinaryFile(InputReader inputReader) {
+   protected BinaryFile(InputReader inputReader) {
       this.inputReader = inputReader;
+      setMappedReader(inputReader);
       classCount++;
       openCount++;
    }
@@ -118,7 +135,7 @@ public class BinaryFile {
          if (file != null && file.exists()) {
             // If the string represents a file, then we want to
             // use the RandomAccessFile aspect of the BinaryFile.
-            setInputReader(new FileInputReader(file));
+            setInputReader(createFileInputReader(file));
          } else {
             // see JNLP deploy tip here
             // http://java.sun.com/javase/6/docs/technotes/guides/jweb/deployment_advice.html#ClassLoader_and_Resources
@@ -163,7 +180,7 @@ public class BinaryFile {
                   if (file != null && file.exists()) {
                      // It's still a file, available directly.
                      // Access it with the RandomAccessFile
-                     setInputReader(new FileInputReader(file));
+                     setInputReader(createFileInputReader(file));
                   } else {
                      // Need to get it as a resource. Needs
                      // special handling if it's coming in a jar
@@ -223,6 +240,39 @@ public class BinaryFile {
       }
    }
 
+   /**
+    * Create the InputReader for a local file, a MappedFileInputReader if files
+    * are being memory mapped, a FileInputReader otherwise.
+    * 
+    * @param file the local file.
+    * @return InputReader for the file.
+    * @throws IOException
+    */
+   protected static InputReader createFileInputReader(File file)
+         throws IOException {
+      if (isMapFiles()) {
+         return new MappedFileInputReader(file);
+      }
+      return new FileInputReader(file);
+   }
+
+   /**
+    * Set whether local files should be memory mapped by BinaryFiles created
+    * from now on.
+    */
+   public static void setMapFiles(boolean map) {
+      mapFiles = map;
+   }
+
+   /**
+    * @return true if local files are being memory mapped, either because
+    *         setMapFiles(true) was called or the openmap.MapFiles environment
+    *         property is true.
+    */
+   public static boolean isMapFiles() {
+      return mapFiles || Environment.getBoolean(MapFilesProperty);
+   }
+
    /**
     * Takes a name of a file, and checks to see if it reflects an entry in a jar
     * file. (Check the filename and see if it looks like
@@ -393,6 +443,23 @@ public class BinaryFile {
          Debug.output("Setting inputReader");
       }
       inputReader = reader;
+      setMappedReader(reader);
+   }
+
+   /**
+    * Keep track of a mapped reader, so multi-byte reads can be decoded
+    * straight out of the mapping.
+    */
+   private void setMappedReader(InputReader reader) {
+      mappedReader = (reader instanceof MappedFileInputReader) ? (MappedFileInputReader) reader : null;
+   }
+
+   /**
+    * @return the MappedFileInputReader being used, or null if the input
+    *         reader isn't mapping a file.
+    */
+   protected MappedFileInputReader getMappedReader() {
+      return mappedReader;
    }
 
    /**
@@ -494,6 +561,7 @@ public class BinaryFile {
          throws IOException {
       close();
       inputReader = null;
+      mappedReader = null;
    }
 
    /**
@@ -603,6 +671,9 @@ public class BinaryFile {
    public short readShort()
          throws EOFException, FormatException {
       // MSBFirst must be set when we are called
+      if (mappedReader != null) {
+         return mappedReader.readShort(MSBFirst);
+      }
       return MoreMath.BuildShort(readBytes(2, false), MSBFirst);
    }
 
@@ -662,11 +733,18 @@ public class BinaryFile {
    public int readInteger()
          throws EOFException, FormatException {
       // MSBFirst must be set when we are called
+      if (mappedReader != null) {
+         return mappedReader.readInteger(MSBFirst);
+      }
       return MoreMath.BuildInteger(readBytes(4, false), MSBFirst);
    }
 
    public void readIntegerArray(int vec[], int offset, int len)
          throws EOFException, FormatException {
+      if (mappedReader != null) {
+         mappedReader.readIntegerArray(vec, offset, len, MSBFirst);
+         return;
+      }
       for (int i = 0; i < len; i++) {
          vec[offset++] = readInteger();
       }
@@ -684,6 +762,9 @@ public class BinaryFile {
     */
    public long readLong()
          throws EOFException, FormatException {
+      if (mappedReader != null) {
+         return mappedReader.readLong(MSBFirst);
+      }
       return MoreMath.BuildLong(readBytes(8, false), MSBFirst);
    }
 
@@ -704,6 +785,10 @@ public class BinaryFile {
 
    public void readFloatArray(float vec[], int offset, int len)
          throws EOFException, FormatException {
+      if (mappedReader != null) {
+         mappedReader.readFloatArray(vec, offset, len, MSBFirst);
+         return;
+      }
       for (int i = 0; i < len; i++) {
          vec[offset++] = readFloat();
       }
@@ -0,0 +1,122 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * A BinaryFile that always memory maps a local file, for read-only data
+ * products like RPF frames, DTED and VPF tables and shape files. Reads are
+ * decoded straight out of the mapping, through a MappedFileInputReader, with
+ * no private buffer to fill. Files larger than 2GB are supported.
+ * <p>
+ * Use this class directly when you know the file is local and won't change.
+ * To have every BinaryFile created for a local file mapped without changing
+ * any code, set the openmap.MapFiles environment property to true, or call
+ * BinaryFile.setMapFiles(true).
+ *
+ * @see com.bbn.openmap.io.MappedFileInputReader
+ * @see com.bbn.openmap.io.BinaryFile#setMapFiles(boolean)
+ */
+public class MappedBinaryFile extends BinaryFile {
+
+    /**
+     * Constructs a MappedBinaryFile for a local file.
+     *
+     * @param f the input file
+     * @exception IOException pass-through errors from mapping the file.
+     */
+    public MappedBinaryFile(File f) throws IOException {
+        this(new MappedFileInputReader(f));
+    }
+
+    /**
+     * Constructs a MappedBinaryFile for a local file.
+     *
+     * @param name the path of the input file
+     * @exception IOException pass-through errors from mapping the file,
+     *            FileNotFoundException if the name isn't a local file.
+     */
+    public MappedBinaryFile(String name) throws IOException {
+        this(checkFile(name));
+    }
+
+    /**
+     * Constructs a MappedBinaryFile using an existing reader.
+     *
+     * @param reader the mapped reader for the file.
+     */
+    protected MappedBinaryFile(MappedFileInputReader reader) {
+        super(reader);
+    }
+
+    private static MappedFileInputReader checkFile(String name)
+            throws IOException {
+        File file = new File(name);
+        if (!file.isFile()) {
+            throw new FileNotFoundException("MappedBinaryFile can't find local file: "
+                    + name);
+        }
+        return new MappedFileInputReader(file);
+    }
+
+    /**
+     * A simple factory method that lets you try to create something without
+     * having to really deal with failure. Returns a MappedBinaryFile if
+     * successful, null if not.
+     */
+    public static MappedBinaryFile create(String name) {
+        MappedBinaryFile bf = null;
+        try {
+            bf = new MappedBinaryFile(name);
+        } catch (IOException ioe) {
+        }
+        return bf;
+    }
+
+    /**
+     * Reads an array of shorts.
+     *
+     * @param vec the array to write the shorts into
+     * @param offset the first array index to write to
+     * @param len the number of shorts to read
+     * @exception EOFException there were fewer bytes than needed in the file
+     * @exception FormatException rethrow of IOExceptions encountered while
+     *            reading the bytes for the array
+     */
+    public void readShortArray(short vec[], int offset, int len)
+            throws EOFException, FormatException {
+        getMappedReader().readShortArray(vec, offset, len, byteOrder());
+    }
+
+    /**
+     * Reads an array of doubles.
+     *
+     * @param vec the array to write the doubles into
+     * @param offset the first array index to write to
+     * @param len the number of doubles to read
+     * @exception EOFException there were fewer bytes than needed in the file
+     * @exception FormatException rethrow of IOExceptions encountered while
+     *            reading the bytes for the array
+     */
+    public void readDoubleArray(double vec[], int offset, int len)
+            throws EOFException, FormatException {
+        getMappedReader().readDoubleArray(vec, offset, len, byteOrder());
+    }
+
+}
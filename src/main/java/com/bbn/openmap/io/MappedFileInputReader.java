@@ -0,0 +1,540 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.bbn.openmap.MoreMath;
+import com.bbn.openmap.util.Debug;
+
+/**
+ * An InputReader for local files that don't change while they are being read,
+ * like RPF, DTED, VPF and shape files. The file is memory mapped with
+ * FileChannel.map instead of being read through a RandomAccessFile, so reads
+ * come straight out of the page cache without a system call or a copy into a
+ * private buffer.
+ * <p>
+ * A single mapping can't be larger than 2GB, so the file is mapped in chunks
+ * and larger files are handled transparently. Multi-byte values and arrays
+ * are decoded with ByteBuffer views, in either byte order, which is what the
+ * BinaryFile uses when it finds this reader under it.
+ * <p>
+ * The file channel is closed as soon as the file is mapped, so this reader
+ * doesn't hold on to a file descriptor. Closing the reader drops the
+ * mappings, and they are recreated if the reader is used again.
+ *
+ * @see com.bbn.openmap.io.InputReader
+ * @see com.bbn.openmap.io.BinaryFile
+ * @see com.bbn.openmap.io.MappedBinaryFile
+ */
+public class MappedFileInputReader implements InputReader {
+
+    /** The default size of each mapped chunk of the file, 1GB. */
+    public final static int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+    /**
+     * Needed for input reader interface.
+     */
+    protected String name = null;
+    /**
+     * Needed for remapping files that have been closed.
+     */
+    protected String absolutePath = null;
+    /** The size of each mapped chunk, except maybe the last. */
+    protected final int chunkSize;
+    /** The length of the file, in bytes. */
+    protected long length;
+    /** The index of the next byte to be read. */
+    protected long position = 0;
+    /** The mapped chunks of the file, in big-endian order. */
+    protected ByteBuffer[] msbChunks = null;
+    /** Views of the mapped chunks, in little-endian order. */
+    protected ByteBuffer[] lsbChunks = null;
+
+    /**
+     * Constructs a new MappedFileInputReader for the specified file.
+     *
+     * @param f the file to be opened for reading
+     * @exception IOException pass-through errors from mapping the file.
+     */
+    public MappedFileInputReader(File f) throws IOException {
+        this(f, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a new MappedFileInputReader for the specified file.
+     *
+     * @param f the path to the file to be opened for reading.
+     * @exception IOException pass-through errors from mapping the file.
+     */
+    public MappedFileInputReader(String f) throws IOException {
+        this(new File(f), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a new MappedFileInputReader for the specified file, mapping
+     * the file in chunks of the given size.
+     *
+     * @param f the file to be opened for reading
+     * @param chunkSize the maximum number of bytes in each mapping.
+     * @exception IOException pass-through errors from mapping the file.
+     */
+    public MappedFileInputReader(File f, int chunkSize) throws IOException {
+        if (Debug.debugging("binaryfile")) {
+            Debug.output("MappedFileInputReader created from "
+                    + f.getAbsolutePath());
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: "
+                    + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        name = f.getName();
+        absolutePath = f.getAbsolutePath();
+        init(f);
+    }
+
+    /**
+     * Get the file name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the absolute path of the file.
+     */
+    public String getAbsolutePath() {
+        return absolutePath;
+    }
+
+    /**
+     * Map the file. If there are too many files open, it calls
+     * BinaryFile.closeClosable to try to get an open file pointer from the
+     * system, and then tries again.
+     *
+     * @param f a java.io.File
+     * @throws IOException
+     */
+    protected void init(File f) throws IOException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(f, "r");
+        } catch (IOException i) {
+            if (i instanceof FileNotFoundException) {
+                throw i;
+            }
+
+            if (f.canRead()) {
+                BinaryFile.closeClosable();
+                raf = new RandomAccessFile(f, "r");
+            } else {
+                throw i;
+            }
+        }
+
+        try {
+            FileChannel channel = raf.getChannel();
+            length = channel.size();
+            int numChunks = (int) ((length + chunkSize - 1) / chunkSize);
+            ByteBuffer[] msb = new ByteBuffer[numChunks];
+            ByteBuffer[] lsb = new ByteBuffer[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                long start = (long) i * chunkSize;
+                MappedByteBuffer mbb = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, length
+                        - start));
+                msb[i] = mbb;
+                lsb[i] = mbb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            }
+            msbChunks = msb;
+            lsbChunks = lsb;
+        } finally {
+            // The mappings stay valid after the channel is closed.
+            raf.close();
+        }
+    }
+
+    /**
+     * Make sure the file is mapped, remapping it if the reader has been
+     * closed.
+     */
+    protected void checkMapping() throws IOException {
+        if (msbChunks == null) {
+            init(new File(absolutePath));
+        }
+    }
+
+    /**
+     * Skip over n bytes in the input file
+     *
+     * @param n the number of bytes to skip
+     * @return the actual number of bytes skipped.
+     * @exception IOException Any IO errors that occur in skipping bytes in the
+     *            underlying file
+     */
+    public long skipBytes(long n) throws IOException {
+        checkMapping();
+        long skip = Math.max(0, Math.min(n, length - position));
+        position += skip;
+        return skip;
+    }
+
+    /**
+     * Get the index of the next character to be read
+     *
+     * @return the index
+     */
+    public long getFilePointer() throws IOException {
+        return position;
+    }
+
+    /**
+     * Set the index of the next character to be read. Like a
+     * RandomAccessFile, the position can be set past the end of the file, and
+     * reads will return EOF from there.
+     *
+     * @param pos the position to seek to.
+     * @exception IOException if the position is negative.
+     */
+    public void seek(long pos) throws IOException {
+        if (pos < 0) {
+            throw new IOException("MappedFileInputReader: negative seek offset "
+                    + pos);
+        }
+        position = pos;
+    }
+
+    /**
+     * @return the length of the file (counted in bytes)
+     */
+    public long length() throws IOException {
+        checkMapping();
+        return length;
+    }
+
+    /**
+     * Return how many bytes left to be read in the file.
+     *
+     * @return the number of bytes remaining to be read (counted in bytes)
+     */
+    public long available() throws IOException {
+        return Math.max(0, length() - position);
+    }
+
+    /**
+     * Drops the mappings of the file. They'll be recreated if the reader is
+     * used again. The position in the file is kept.
+     */
+    public void close() throws IOException {
+        if (Debug.debugging("binaryfile")) {
+            Debug.output("MappedFileInputReader.close()");
+        }
+        msbChunks = null;
+        lsbChunks = null;
+    }
+
+    /**
+     * Read from the file.
+     *
+     * @return one byte from the file. -1 for EOF
+     * @exception IOException Any IO errors encountered in reading from the file
+     */
+    public int read() throws IOException {
+        checkMapping();
+        if (position >= length) {
+            return -1;
+        }
+        int b = msbChunks[(int) (position / chunkSize)].get((int) (position % chunkSize)) & 0xff;
+        position++;
+        return b;
+    }
+
+    /**
+     * Read from the file
+     *
+     * @param b The byte array to read into
+     * @param off the first array position to read into
+     * @param len the number of bytes to read
+     * @return the number of bytes read, -1 for EOF
+     * @exception IOException Any IO errors encountered in reading from the file
+     */
+    public int read(byte b[], int off, int len) throws IOException {
+        checkMapping();
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+        len = (int) Math.min(len, length - position);
+        int done = 0;
+        while (done < len) {
+            ByteBuffer chunk = msbChunks[(int) (position / chunkSize)].duplicate();
+            int index = (int) (position % chunkSize);
+            int count = Math.min(len - done, chunk.limit() - index);
+            chunk.position(index);
+            chunk.get(b, off + done, count);
+            done += count;
+            position += count;
+        }
+        return done;
+    }
+
+    /**
+     * Read from the file.
+     *
+     * @param b the byte array to read into. Equivalent to
+     *        <code>read(b, 0, b.length)</code>
+     * @return the number of bytes read
+     * @exception IOException Any IO errors encountered in reading from the file
+     * @see java.io.RandomAccessFile#read(byte[])
+     */
+    public int read(byte b[]) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    /**
+     * Read from the file.
+     *
+     * @param howmany the number of bytes to read
+     * @param allowless if we can return fewer bytes than requested
+     * @return the array of bytes read.
+     * @exception FormatException Any IO Exceptions, plus an end-of-file
+     *            encountered after reading some, but now enough, bytes when
+     *            allowless was <code>false</code>
+     * @exception EOFException Encountered an end-of-file while allowless was
+     *            <code>false</code>, but NO bytes had been read.
+     */
+    public byte[] readBytes(int howmany, boolean allowless)
+            throws EOFException, FormatException {
+        try {
+            long left = available();
+            if (left < howmany) {
+                if (allowless) {
+                    howmany = (int) left;
+                } else if (left > 0) {
+                    throw new FormatException("EOF while reading data");
+                } else {
+                    throw new EOFException();
+                }
+            }
+            byte foo[] = new byte[howmany];
+            read(foo, 0, howmany);
+            return foo;
+        } catch (EOFException e) {
+            throw e;
+        } catch (FormatException e) {
+            throw e;
+        } catch (IOException i) {
+            throw new FormatException("MappedFileInputReader: readBytes IOException: "
+                    + i.getMessage());
+        }
+    }
+
+    /**
+     * Make sure there are at least <code>size</code> bytes left in the file.
+     *
+     * @exception FormatException if some, but not enough, bytes are left.
+     * @exception EOFException if no bytes are left.
+     */
+    protected void checkAvailable(long size) throws EOFException,
+            FormatException {
+        try {
+            long left = available();
+            if (left < size) {
+                if (left > 0) {
+                    throw new FormatException("EOF while reading data");
+                }
+                throw new EOFException();
+            }
+        } catch (EOFException e) {
+            throw e;
+        } catch (FormatException e) {
+            throw e;
+        } catch (IOException i) {
+            throw new FormatException("MappedFileInputReader IOException: "
+                    + i.getMessage());
+        }
+    }
+
+    /**
+     * Get the mapped chunk holding the next <code>size</code> bytes, in the
+     * requested byte order, or null if those bytes cross into the next chunk.
+     * Assumes checkAvailable has been called.
+     */
+    protected ByteBuffer chunkFor(int size, boolean msbFirst) {
+        int chunk = (int) (position / chunkSize);
+        if ((position % chunkSize) + size > msbChunks[chunk].limit()) {
+            return null;
+        }
+        return msbFirst ? msbChunks[chunk] : lsbChunks[chunk];
+    }
+
+    /**
+     * Read a short in the given byte order.
+     */
+    public short readShort(boolean msbFirst) throws EOFException,
+            FormatException {
+        checkAvailable(2);
+        ByteBuffer chunk = chunkFor(2, msbFirst);
+        if (chunk == null) {
+            return MoreMath.BuildShort(readBytes(2, false), msbFirst);
+        }
+        short s = chunk.getShort((int) (position % chunkSize));
+        position += 2;
+        return s;
+    }
+
+    /**
+     * Read an integer in the given byte order.
+     */
+    public int readInteger(boolean msbFirst) throws EOFException,
+            FormatException {
+        checkAvailable(4);
+        ByteBuffer chunk = chunkFor(4, msbFirst);
+        if (chunk == null) {
+            return MoreMath.BuildInteger(readBytes(4, false), msbFirst);
+        }
+        int i = chunk.getInt((int) (position % chunkSize));
+        position += 4;
+        return i;
+    }
+
+    /**
+     * Read a long in the given byte order.
+     */
+    public long readLong(boolean msbFirst) throws EOFException,
+            FormatException {
+        checkAvailable(8);
+        ByteBuffer chunk = chunkFor(8, msbFirst);
+        if (chunk == null) {
+            return MoreMath.BuildLong(readBytes(8, false), msbFirst);
+        }
+        long l = chunk.getLong((int) (position % chunkSize));
+        position += 8;
+        return l;
+    }
+
+    /**
+     * Read an array of shorts in the given byte order, through a ShortBuffer
+     * view of the mapping.
+     */
+    public void readShortArray(short vec[], int offset, int len,
+                               boolean msbFirst) throws EOFException,
+            FormatException {
+        checkAvailable((long) len * 2);
+        while (len > 0) {
+            ByteBuffer chunk = chunkFor(2, msbFirst);
+            if (chunk == null) {
+                vec[offset++] = readShort(msbFirst);
+                len--;
+                continue;
+            }
+            int n = Math.min(len, (chunk.limit() - (int) (position % chunkSize)) / 2);
+            view(chunk).asShortBuffer().get(vec, offset, n);
+            position += (long) n * 2;
+            offset += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Read an array of integers in the given byte order, through an IntBuffer
+     * view of the mapping.
+     */
+    public void readIntegerArray(int vec[], int offset, int len,
+                                 boolean msbFirst) throws EOFException,
+            FormatException {
+        checkAvailable((long) len * 4);
+        while (len > 0) {
+            ByteBuffer chunk = chunkFor(4, msbFirst);
+            if (chunk == null) {
+                vec[offset++] = readInteger(msbFirst);
+                len--;
+                continue;
+            }
+            int n = Math.min(len, (chunk.limit() - (int) (position % chunkSize)) / 4);
+            view(chunk).asIntBuffer().get(vec, offset, n);
+            position += (long) n * 4;
+            offset += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Read an array of floats in the given byte order, through a FloatBuffer
+     * view of the mapping.
+     */
+    public void readFloatArray(float vec[], int offset, int len,
+                               boolean msbFirst) throws EOFException,
+            FormatException {
+        checkAvailable((long) len * 4);
+        while (len > 0) {
+            ByteBuffer chunk = chunkFor(4, msbFirst);
+            if (chunk == null) {
+                vec[offset++] = Float.intBitsToFloat(readInteger(msbFirst));
+                len--;
+                continue;
+            }
+            int n = Math.min(len, (chunk.limit() - (int) (position % chunkSize)) / 4);
+            view(chunk).asFloatBuffer().get(vec, offset, n);
+            position += (long) n * 4;
+            offset += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Read an array of doubles in the given byte order, through a
+     * DoubleBuffer view of the mapping.
+     */
+    public void readDoubleArray(double vec[], int offset, int len,
+                                boolean msbFirst) throws EOFException,
+            FormatException {
+        checkAvailable((long) len * 8);
+        while (len > 0) {
+            ByteBuffer chunk = chunkFor(8, msbFirst);
+            if (chunk == null) {
+                vec[offset++] = Double.longBitsToDouble(readLong(msbFirst));
+                len--;
+                continue;
+            }
+            int n = Math.min(len, (chunk.limit() - (int) (position % chunkSize)) / 8);
+            view(chunk).asDoubleBuffer().get(vec, offset, n);
+            position += (long) n * 8;
+            offset += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Create a view of the chunk, with the same byte order, starting at the
+     * current position. The shared chunk buffers are never repositioned, so
+     * more than one reader can't trip over each other.
+     */
+    private ByteBuffer view(ByteBuffer chunk) {
+        ByteBuffer view = chunk.duplicate().order(chunk.order());
+        view.position((int) (position % chunkSize));
+        return view;
+    }
+}
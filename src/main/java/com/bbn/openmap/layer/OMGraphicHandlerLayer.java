@@ -66,6 +66,7 @@ import com.bbn.openmap.util.ISwingWorker;
 import com.bbn.openmap.util.PaletteHelper;
 import com.bbn.openmap.util.PooledSwingWorker;
 import com.bbn.openmap.util.PropUtils;
+import com.bbn.openmap.util.TaskService;
 
 /**
  * The OMGraphicHandlerLayer is a layer that provides OMGraphicHandler support.
@@ -158,6 +159,9 @@ import com.bbn.openmap.util.PropUtils;
  *    
  *     layer.mouseModes=Gestures
  *     layer.consumeEvents=true
+ *     # Index the OMGraphics on the screen for finding the one under the mouse
+ *     # when the list has at least this many, off (0) by default.
+ *     layer.indexThreshold=5000
  * 
  * 
  * </pre>
@@ -221,6 +225,19 @@ public class OMGraphicHandlerLayer
     * servers. The default setting is, however, true.
     */
    public final static String InterruptableProperty = "interruptable";
+   /**
+    * The property to set the priority of the layer's prepare() work, relative
+    * to other layers, when it's waiting for a TaskService thread. Higher
+    * numbers go first, between 1 and 10. The default is 5.
+    */
+   public final static String WorkerPriorityProperty = "workerPriority";
+   /**
+    * The property to set the number of OMGraphics the layer's list needs
+    * before the StandardMapMouseInterpreter indexes them on the screen to find
+    * the one under the mouse. Only layers that regenerate their list when they
+    * move OMGraphics should set this. The default, 0, never indexes the list.
+    */
+   public final static String IndexThresholdProperty = "indexThreshold";
 
    /**
     * Filter support that can be used to manage OMGraphics.
@@ -264,6 +281,12 @@ public class OMGraphicHandlerLayer
     */
    protected boolean consumeEvents = false;
 
+   /**
+    * The list size at which the StandardMapMouseInterpreter indexes the
+    * OMGraphics, 0 for never.
+    */
+   protected int indexThreshold = 0;
+
    /**
     * Flag used to avoid the SwingWorker to be interrupted. Useful for layers
     * that load an image from a server such as the WMSPlugin to avoid an ugly
@@ -271,6 +294,12 @@ public class OMGraphicHandlerLayer
     */
    protected boolean interruptable = true;
 
+   /**
+    * The TaskService priority for the LayerWorker, between
+    * TaskService.MIN_PRIORITY and TaskService.MAX_PRIORITY.
+    */
+   protected int workerPriority = TaskService.NORM_PRIORITY;
+
    /**
     * Sets the interruptible flag
     */
@@ -287,6 +316,19 @@ public class OMGraphicHandlerLayer
       return interruptable;
    }
 
+   /**
+    * Set the priority of the layer's prepare() work in the TaskService queue.
+    * Higher priority layers get a thread first when all of the TaskService
+    * threads are busy.
+    */
+   public void setWorkerPriority(int priority) {
+      workerPriority = Math.max(TaskService.MIN_PRIORITY, Math.min(TaskService.MAX_PRIORITY, priority));
+   }
+
+   public int getWorkerPriority() {
+      return workerPriority;
+   }
+
    // OMGraphicHandler methods, deferred to FilterSupport...
 
    /**
@@ -709,6 +751,7 @@ public class OMGraphicHandlerLayer
       /** Constructor used to create a worker thread. */
       public LayerWorker() {
          super();
+         setPriority(getWorkerPriority());
       }
 
       /**
@@ -904,9 +947,13 @@ public class OMGraphicHandlerLayer
 
       consumeEvents = PropUtils.booleanFromProperties(props, realPrefix + ConsumeEventsProperty, consumeEvents);
 
+      setIndexThreshold(PropUtils.intFromProperties(props, realPrefix + IndexThresholdProperty, getIndexThreshold()));
+
       setTransparency(PropUtils.floatFromProperties(props, realPrefix + TransparencyProperty, getTransparency()));
 
       setInterruptable(PropUtils.booleanFromProperties(props, realPrefix + InterruptableProperty, isInterruptable()));
+
+      setWorkerPriority(PropUtils.intFromProperties(props, realPrefix + WorkerPriorityProperty, getWorkerPriority()));
    }
 
    /**
@@ -962,6 +1009,8 @@ public class OMGraphicHandlerLayer
 
       props.put(prefix + ConsumeEventsProperty, new Boolean(consumeEvents).toString());
 
+      props.put(prefix + IndexThresholdProperty, Integer.toString(getIndexThreshold()));
+
       String[] mm = getMouseModeIDsForEvents();
       if (mm != null && mm.length > 0) {
          StringBuffer sb = new StringBuffer();
@@ -980,6 +1029,8 @@ public class OMGraphicHandlerLayer
 
       props.put(prefix + InterruptableProperty, Boolean.toString(isInterruptable()));
 
+      props.put(prefix + WorkerPriorityProperty, Integer.toString(getWorkerPriority()));
+
       return props;
    }
 
@@ -1039,6 +1090,9 @@ public class OMGraphicHandlerLayer
                                     "Flag that tells the layer to consume mouse events, or let other layers use them as well.",
                                     "com.bbn.openmap.util.propertyEditor.OnOffPropertyEditor");
 
+      PropUtils.setI18NPropertyInfo(i18n, list, OMGraphicHandlerLayer.class, IndexThresholdProperty, "Index threshold",
+                                    "Number of OMGraphics needed before they are indexed for finding the one under the mouse, 0 for never.", null);
+
       PropUtils.setI18NPropertyInfo(i18n, list, OMGraphicHandlerLayer.class, MouseModesProperty, "Mouse modes",
                                     "Space-separated list of MouseMode IDs to receive events from.", null);
 
@@ -1053,6 +1107,9 @@ public class OMGraphicHandlerLayer
                                     "Flat to set whether the layer should immediately stop performing current work when the projection changes.",
                                     "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
 
+      PropUtils.setI18NPropertyInfo(i18n, list, OMGraphicHandlerLayer.class, WorkerPriorityProperty, "Worker priority",
+                                    "Priority of the layer's work when waiting for a thread, 1 (low) to 10 (high).", null);
+
       return list;
    }
 
@@ -1073,6 +1130,7 @@ public class OMGraphicHandlerLayer
          String[] modeList = getMouseModeIDsForEvents();
          ((StandardMapMouseInterpreter) mmi).setMouseModeServiceList(modeList);
          ((StandardMapMouseInterpreter) mmi).setConsumeEvents(getConsumeEvents());
+         ((StandardMapMouseInterpreter) mmi).setIndexThreshold(getIndexThreshold());
       }
 
       if (mouseEventInterpreter != null) {
@@ -1144,6 +1202,25 @@ public class OMGraphicHandlerLayer
       return consumeEvents;
    }
 
+   /**
+    * Set the number of OMGraphics the list needs before the
+    * StandardMapMouseInterpreter indexes them on the screen to find the one
+    * under the mouse. The index is rebuilt when the list is generated or the
+    * projection changes, so layers that move OMGraphics without doing either
+    * should leave this at 0, which never indexes the list.
+    */
+   public void setIndexThreshold(int threshold) {
+      indexThreshold = threshold;
+
+      if (mouseEventInterpreter instanceof StandardMapMouseInterpreter) {
+         ((StandardMapMouseInterpreter) mouseEventInterpreter).setIndexThreshold(getIndexThreshold());
+      }
+   }
+
+   public int getIndexThreshold() {
+      return indexThreshold;
+   }
+
    /**
     * This is the important method call that determines what MapMouseModes the
     * interpreter for this layer responds to. The MapMouseInterpreter calls this
@@ -563,6 +563,7 @@ public class DTEDFrameCache
         setDtedDirPaths(paths);
 
         resetCache((int) PropUtils.intFromProperties(props, prefix + DTEDFrameCacheSizeProperty, DTEDCacheHandler.FRAME_CACHE_SIZE));
+        setCacheProperties(prefix, props);
 
     }
 
@@ -576,6 +577,7 @@ public class DTEDFrameCache
 
         String prefix = PropUtils.getScopedPropertyPrefix(this);
         props.put(prefix + DTEDFrameCacheSizeProperty, Integer.toString(getCacheSize()));
+        getCacheProperties(prefix, props);
 
         // find out paths...
         String[] p;
@@ -606,6 +608,7 @@ public class DTEDFrameCache
 
         props.put(DTEDPathsProperty, "Paths to the DTED directories");
         props.put(DTEDFrameCacheSizeProperty, "Size of the frame cache");
+        props.put(CACHE_MAX_BYTES_PROPERTY, "Memory limit for the frame cache, in bytes (optional, replaces the size)");
         return props;
     }
 
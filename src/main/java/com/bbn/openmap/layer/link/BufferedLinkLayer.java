@@ -113,11 +113,12 @@ public class BufferedLinkLayer extends LinkLayer {
         if (omGraphics == null || omGraphics.isEmpty()) {
 
             ////////////// Call getRectangle for server....
+            ClientLink l = null;
             try {
-                // We do want the link object here... If another
-                // thread is
-                // using the link, wait.
-                ClientLink l = linkManager.getLink(true);
+                // We wait for the response here, so use a link from
+                // the pool instead of the one the LinkListener reads.
+                // If all of them are being used, wait.
+                l = linkManager.borrowLink(true);
 
                 if (l == null) {
                     System.err.println("BufferedLinkLayer: unable to get link in prepare().");
@@ -128,7 +129,7 @@ public class BufferedLinkLayer extends LinkLayer {
                     omGraphics = getAllGraphics(l, projection);
                 }
 
-                linkManager.finLink();
+                linkManager.releaseLink(l);
 
             } catch (UnknownHostException uhe) {
                 System.err.println("BufferedLinkLayer: unknown host!");
@@ -137,7 +138,9 @@ public class BufferedLinkLayer extends LinkLayer {
                 System.err.println("BufferedLinkLayer: IOException contacting server for map request!");
                 System.err.println(ioe);
 
-                linkManager.resetLink();
+                if (l != null) {
+                    linkManager.discardLink(l);
+                }
 
                 if (!quiet) {
                     fireRequestMessage("Communication error between "
@@ -192,6 +195,12 @@ public class BufferedLinkLayer extends LinkLayer {
         boundingPolys[0] = new LinkBoundingPoly(-180.0f, -90f, 180f, 90);
 
         
+        // All the graphics are asked for every time, so deltas don't
+        // help.
+        args.setProperty(LPC_LINK_OPTIONS, LPC_COMPACT_OPTION + " "
+                + LPC_DEFLATE_OPTION);
+        args.remove(LPC_GRAPHICS_STATE);
+
         Point2D center = proj.getCenter();
         LinkMapRequest.write((float) center.getY(),
                 (float) center.getX(),
@@ -135,6 +135,20 @@ public class Link implements LinkConstants {
         this.dos = new LinkOutputStream(bos);
     }
 
+    /**
+     * Open up a link over a pair of streams, for servers that don't
+     * have a socket of their own to read from and write to, like the
+     * ones run by the LinkServerSelector. The streams are used as
+     * they are, without any buffering added.
+     * 
+     * @param in the stream requests are read from.
+     * @param out the stream responses are written to.
+     */
+    protected Link(InputStream in, OutputStream out) {
+        this.dis = new DataInputStream(in);
+        this.dos = new LinkOutputStream(out);
+    }
+
     /**
      * Should be called by the server and/or client to release
      * resources when the link is through being used.
@@ -85,6 +85,8 @@ public interface LinkConstants {
     public static final String ARC_HEADER = "<A>";
     /** Ellipse graphic object header. */
     public static final String ELLIPSE_HEADER = "<E>";
+    /** Header for graphics deleted from a graphics delta. */
+    public static final String DELETE_HEADER = "<DG>";
 
     /** Graphics action object header. */
     public static final String UPDATE_GRAPHICS = "<UG>";
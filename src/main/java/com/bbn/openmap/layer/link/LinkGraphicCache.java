@@ -0,0 +1,212 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.link;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+
+/**
+ * A LinkGraphicCache remembers the graphics a LinkServer has sent to its
+ * client, so that when the graphics are sent again, only the ones that have
+ * changed need to be. A server keeps one for each client, and calls
+ * write(request, graphics, ...) to answer each map request with the complete
+ * list of graphics it wants the client to have.
+ * <P>
+ *
+ * If the client asked for deltas, and says it has the graphics from the last
+ * response, the response only holds the graphics that are new or different,
+ * and the IDs of the graphics that are gone. Graphics are matched by their
+ * LPC_GRAPHICID property, so deltas are only sent if every graphic has an ID.
+ * Otherwise, and for older clients, the whole list is sent. Compact
+ * coordinates and deflating are used if the client asked for them, and for
+ * deflating, if it's turned on for the cache.
+ */
+public class LinkGraphicCache implements LinkPropertiesConstants {
+
+    /** The graphics state of the last response, 0 before the first. */
+    protected int state = 0;
+    /**
+     * True if every graphic in the last response had an ID, so the next
+     * response can be a delta.
+     */
+    protected boolean tracking = false;
+    /** A hash of what was written for each graphic in the last response. */
+    protected Map<String, Long> sent = new HashMap<String, Long>();
+    /** Whether to deflate graphics for clients that can take it. */
+    protected boolean deflate = false;
+
+    public LinkGraphicCache() {}
+
+    /**
+     * Set whether to deflate the graphics sections for clients that can
+     * handle it. Worth it on slow networks, but not on fast ones. False by
+     * default.
+     */
+    public void setDeflate(boolean value) {
+        deflate = value;
+    }
+
+    public boolean isDeflate() {
+        return deflate;
+    }
+
+    /**
+     * Forget what was sent, so the next response is a complete list.
+     */
+    public synchronized void reset() {
+        tracking = false;
+        sent.clear();
+    }
+
+    /**
+     * Write a graphics section answering a map request.
+     *
+     * @param request the request from the client.
+     * @param graphics all of the graphics the client should have.
+     * @param properties the properties for the graphics section. The
+     *        graphics state properties are added to it.
+     * @param link the link to write to.
+     * @param endType Link.END_TOTAL, or Link.END_SECTION if more sections
+     *        will follow.
+     * @return the number of graphics written.
+     * @throws IOException
+     */
+    public synchronized int write(LinkMapRequest request, OMGraphicList graphics,
+                                  LinkProperties properties, Link link,
+                                  String endType)
+            throws IOException {
+
+        boolean compact = request.acceptsOption(LPC_COMPACT_OPTION);
+        String clientState = request.getProperties().getProperty(LPC_GRAPHICS_STATE);
+        boolean delta = tracking && Integer.toString(state).equals(clientState)
+                && request.acceptsOption(LPC_DELTA_OPTION);
+
+        // Write each graphic on its own, so it can be checked against what
+        // was written last time.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Link graphicLink = new Link(new ByteArrayInputStream(new byte[0]), bytes);
+        graphicLink.dos.setCompactCoordinates(compact);
+
+        List<byte[]> changed = new ArrayList<byte[]>(graphics.size());
+        Map<String, Long> written = new HashMap<String, Long>(Math.max(16, graphics.size() * 2));
+        boolean allIds = true;
+        for (OMGraphic graphic : graphics) {
+            bytes.reset();
+            LinkGraphic.write(graphic, graphicLink);
+            byte[] graphicBytes = bytes.toByteArray();
+
+            String id = getId(graphic);
+            if (id == null) {
+                allIds = false;
+            } else {
+                Long hash = Long.valueOf(hash(graphicBytes));
+                written.put(id, hash);
+                if (delta && hash.equals(sent.get(id))) {
+                    continue;
+                }
+            }
+            changed.add(graphicBytes);
+        }
+
+        if (!allIds || written.size() != graphics.size()) {
+            // Can't keep track of these graphics, so this response and the
+            // next one have to be complete.
+            return writeAll(request, graphics, properties, link, endType, compact);
+        }
+
+        state++;
+        properties.setProperty(LPC_GRAPHICS_STATE, Integer.toString(state));
+        if (delta) {
+            properties.setProperty(LPC_GRAPHICS_BASE, Integer.toString(state - 1));
+        } else {
+            properties.remove(LPC_GRAPHICS_BASE);
+        }
+
+        LinkGraphicList lgl = new LinkGraphicList(link, properties, compact, deflate
+                && request.acceptsOption(LPC_DEFLATE_OPTION));
+
+        if (delta) {
+            List<String> deleted = new ArrayList<String>();
+            for (String id : sent.keySet()) {
+                if (!written.containsKey(id)) {
+                    deleted.add(id);
+                }
+            }
+            if (!deleted.isEmpty()) {
+                lgl.deleteGraphics(deleted);
+            }
+        }
+
+        for (byte[] graphicBytes : changed) {
+            link.dos.write(graphicBytes);
+        }
+        lgl.end(endType);
+
+        sent = written;
+        tracking = true;
+        return changed.size();
+    }
+
+    /**
+     * Write the whole list, without keeping track of the graphics.
+     */
+    protected int writeAll(LinkMapRequest request, OMGraphicList graphics,
+                           LinkProperties properties, Link link,
+                           String endType, boolean compact)
+            throws IOException {
+        state++;
+        properties.setProperty(LPC_GRAPHICS_STATE, Integer.toString(state));
+        properties.remove(LPC_GRAPHICS_BASE);
+
+        LinkGraphicList lgl = new LinkGraphicList(link, properties, compact, deflate
+                && request.acceptsOption(LPC_DEFLATE_OPTION));
+        for (OMGraphic graphic : graphics) {
+            LinkGraphic.write(graphic, link);
+        }
+        lgl.end(endType);
+
+        tracking = false;
+        sent.clear();
+        return graphics.size();
+    }
+
+    protected String getId(OMGraphic graphic) {
+        Object obj = graphic.getAppObject();
+        if (obj instanceof LinkProperties) {
+            return ((LinkProperties) obj).getProperty(LPC_GRAPHICID);
+        }
+        return null;
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the bytes written for a graphic.
+     */
+    protected static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < bytes.length; i++) {
+            hash ^= bytes[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
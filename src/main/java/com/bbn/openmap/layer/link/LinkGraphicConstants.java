@@ -104,6 +104,22 @@ public interface LinkGraphicConstants {
     public final static int GRAPHICTYPE_ARC = 10;
     /** An ellipse type. */
     public final static int GRAPHICTYPE_ELLIPSE = 11;
+    /**
+     * Not a graphic, but a list of IDs of graphics to delete, only sent in a
+     * graphics delta.
+     */
+    public final static int GRAPHICTYPE_DELETE = 12;
+
+    /**
+     * Added to the render type of a graphic when its coordinates are sent
+     * delta-encoded, and quantized if they are floating point. Only sent to
+     * clients that have the LPC_COMPACT_OPTION.
+     */
+    public final static int COMPACT_COORDINATES_MASK = 0x40;
+    /** The quantum used for compact coordinates in decimal degrees. */
+    public final static double DEGREES_QUANTUM = 1e-6;
+    /** The quantum used for compact coordinates in radians. */
+    public final static double RADIANS_QUANTUM = Math.toRadians(DEGREES_QUANTUM);
 
     /** The float coordinates are in decimal degrees. */
     public final static int DECIMAL_DEGREES = 0;
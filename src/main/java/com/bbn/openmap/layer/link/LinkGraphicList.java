@@ -24,8 +24,17 @@ package com.bbn.openmap.layer.link;
 
 import java.awt.Color;
 import java.awt.Image;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import javax.swing.ImageIcon;
 
@@ -50,8 +59,16 @@ import com.bbn.openmap.util.Debug;
  * To use it to read from a link, use the constructor that takes a link and a
  * LinkOMGraphicsList (and a projection, if you want to generate the graphics as
  * you read them). Call getGraphics() to get the updated list.
+ * <P>
+ * 
+ * If the client asked for them in the map request, the graphics can be written
+ * with compact coordinates, and the section can be deflated. A graphics
+ * section can also be a delta, holding only the graphics that have changed
+ * since an earlier response, and the IDs of graphics that have been deleted.
+ * The LinkGraphicCache takes care of writing deltas for a server.
  */
-public class LinkGraphicList implements LinkGraphicConstants {
+public class LinkGraphicList implements LinkGraphicConstants,
+        LinkPropertiesConstants {
 
     /** Link used for the transmission/reception of graphics. */
     protected Link link = null;
@@ -63,14 +80,51 @@ public class LinkGraphicList implements LinkGraphicConstants {
     protected static float version = Link.LINK_VERSION;
     /** The properties returned for this list. */
     protected LinkProperties properties;
+    /** The IDs of graphics deleted, if this list is a delta. */
+    protected List<String> deletedIds;
+    /**
+     * The stream the section is written to when the graphics are being
+     * collected to be deflated.
+     */
+    protected LinkOutputStream deflatedStream;
+    /** The buffer the graphics are collected in to be deflated. */
+    protected ByteArrayOutputStream deflateBuffer;
 
     /** Write a graphics section to the link. */
     public LinkGraphicList(Link link, LinkProperties properties)
             throws IOException {
+        this(link, properties, false, false);
+    }
+
+    /**
+     * Write a graphics section to the link, using the protocol options the
+     * client asked for in its LinkMapRequest.
+     * 
+     * @param link the link to write to.
+     * @param properties the properties for the section.
+     * @param compact if true, graphics are written with compact coordinates.
+     * @param deflate if true, the graphics are deflated when end() is called.
+     *        The LPC_DEFLATED property is added to the properties.
+     * @throws IOException
+     */
+    public LinkGraphicList(Link link, LinkProperties properties,
+            boolean compact, boolean deflate) throws IOException {
         this.link = link;
+        if (deflate) {
+            properties.setProperty(LPC_DEFLATED, "true");
+        }
+
         link.start(Link.GRAPHICS_HEADER);
         link.dos.writeFloat(version);
         properties.write(link);
+
+        if (deflate) {
+            // Collect the graphics until end() is called.
+            deflatedStream = link.dos;
+            deflateBuffer = new ByteArrayOutputStream(4096);
+            link.dos = new LinkOutputStream(deflateBuffer);
+        }
+        link.dos.setCompactCoordinates(compact);
     }
 
     /**
@@ -160,9 +214,89 @@ public class LinkGraphicList implements LinkGraphicConstants {
      * @throws IOException
      */
     public void end(String endType) throws IOException {
+        link.dos.setCompactCoordinates(false);
+
+        if (deflatedStream != null) {
+            link.end(Link.END_SECTION);
+            link.dos = deflatedStream;
+            deflatedStream = null;
+
+            byte[] bytes = deflateBuffer.toByteArray();
+            deflateBuffer = null;
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(bytes.length / 2 + 64);
+            try {
+                deflater.setInput(bytes);
+                deflater.finish();
+                byte[] buffer = new byte[4096];
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    deflated.write(buffer, 0, count);
+                }
+            } finally {
+                deflater.end();
+            }
+
+            link.dos.writeInt(bytes.length);
+            link.dos.writeInt(deflated.size());
+            deflated.writeTo(link.dos);
+        }
+
         link.end(endType);
     }
 
+    /**
+     * Tell the client to delete graphics it already has. Only makes sense in
+     * a graphics delta.
+     * 
+     * @param ids the graphic IDs of the graphics to delete.
+     * @throws IOException
+     */
+    public void deleteGraphics(Collection<String> ids) throws IOException {
+        link.dos.write(Link.DELETE_HEADER.getBytes());
+        link.dos.writeByte(GRAPHICTYPE_DELETE);
+        link.dos.writeInt(ids.size());
+        for (String id : ids) {
+            link.dos.writeInt(id.length());
+            link.dos.writeChars(id);
+        }
+    }
+
+    /**
+     * @return true if the graphics read are the changes since the graphics
+     *         state returned by getDeltaBase().
+     */
+    public boolean isDelta() {
+        return getDeltaBase() != null;
+    }
+
+    /**
+     * @return the graphics state the graphics read are the changes from, or
+     *         null if they aren't a delta.
+     */
+    public String getDeltaBase() {
+        return getProperties().getProperty(LPC_GRAPHICS_BASE);
+    }
+
+    /**
+     * @return the graphics state the server says the client has after this
+     *         response, to be sent back with the next map request. Null if the
+     *         server doesn't keep track.
+     */
+    public String getGraphicsState() {
+        return getProperties().getProperty(LPC_GRAPHICS_STATE);
+    }
+
+    /**
+     * @return the IDs of graphics deleted by a delta, never null.
+     */
+    public List<String> getDeletedIds() {
+        if (deletedIds == null) {
+            deletedIds = new ArrayList<String>(0);
+        }
+        return deletedIds;
+    }
+
     /**
      * If a GRAPHICS_RESPONSE_HEADER has been encountered coming off the link,
      * then this method should be called to read the string of graphics that
@@ -182,10 +316,8 @@ public class LinkGraphicList implements LinkGraphicConstants {
                                   OMGridGenerator generator)
             throws IOException, EOFException {
 
-        OMGraphic graphic;
         long startTime = System.currentTimeMillis();
         String header = null;
-        int graphicType;
 
         // This is important, it's checked by the LinkLayer to see if
         // it needs to generate the LinkOMGraphicList to see if the
@@ -213,6 +345,80 @@ public class LinkGraphicList implements LinkGraphicConstants {
 
         LinkProperties propertiesBuffer = new LinkProperties(properties);
 
+        if (properties.getProperty(LPC_DEFLATED) != null) {
+            DataInputStream stream = link.dis;
+            link.dis = inflate(stream);
+            try {
+                readGraphics(graphics, proj, generator, propertiesBuffer);
+            } finally {
+                link.dis = stream;
+            }
+            header = link.readDelimiter(false);
+        } else {
+            header = readGraphics(graphics, proj, generator, propertiesBuffer);
+        }
+
+        long endTime = System.currentTimeMillis();
+        Debug.message("link", "LinkGraphicList: received " + graphics.size()
+                + " graphics in " + (float) (endTime - startTime) / 1000.0f
+                + " seconds");
+
+        return header;
+    }
+
+    /**
+     * Read the deflated graphics, and return a stream for reading them
+     * uncompressed.
+     */
+    protected DataInputStream inflate(DataInputStream stream)
+            throws IOException {
+        int length = stream.readInt();
+        int deflatedLength = stream.readInt();
+        if (length < 0 || deflatedLength < 0) {
+            throw new IOException("LinkGraphicList: bad deflated graphics length.");
+        }
+
+        byte[] deflated = new byte[deflatedLength];
+        stream.readFully(deflated);
+        byte[] bytes = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated);
+            int count = 0;
+            while (count < length && !inflater.finished()) {
+                int inflated = inflater.inflate(bytes, count, length - count);
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+                count += inflated;
+            }
+            if (count != length) {
+                throw new IOException("LinkGraphicList: deflated graphics are short.");
+            }
+        } catch (DataFormatException dfe) {
+            throw new IOException("LinkGraphicList: bad deflated graphics: "
+                    + dfe.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Read graphics off the link until the end of the section.
+     * 
+     * @return the delimiter at the end of the section.
+     */
+    protected String readGraphics(LinkOMGraphicList graphics, Projection proj,
+                                  OMGridGenerator generator,
+                                  LinkProperties propertiesBuffer)
+            throws IOException, EOFException {
+
+        OMGraphic graphic;
+        String header = null;
+        int graphicType;
+
         while (true) {
             graphic = null;
             // Just consume the header, don't create a useless
@@ -220,12 +426,6 @@ public class LinkGraphicList implements LinkGraphicConstants {
             header = link.readDelimiter(false);
 
             if (header == Link.END_TOTAL || header == Link.END_SECTION) {
-
-                long endTime = System.currentTimeMillis();
-                Debug.message("link", "LinkGraphicList: received "
-                        + graphics.size() + " graphics in "
-                        + (float) (endTime - startTime) / 1000.0f + " seconds");
-
                 return header;
             }
 
@@ -262,6 +462,13 @@ public class LinkGraphicList implements LinkGraphicConstants {
             case GRAPHICTYPE_GRID:
                 graphic = LinkGrid.read(link.dis, propertiesBuffer);
                 break;
+            case GRAPHICTYPE_DELETE:
+                int count = link.dis.readInt();
+                for (int i = 0; i < count; i++) {
+                    getDeletedIds().add(LinkUtil.readString(link.dis,
+                            link.dis.readInt()));
+                }
+                break;
             default:
                 throw new IOException("LinkGraphicList: received unknown graphic type.");
             }
@@ -78,6 +78,10 @@ import com.bbn.openmap.util.PropUtils;
  *       # server.  How the server handles the property depends on the server,
  *       # but non-applicable properties are ignored.
  *       link.propertiesURL=http://location.of.properties.file.com
+ *      
+ *       # The most extra connections opened to the server for layers that
+ *       # wait for their own responses, like the BufferedLinkLayer (2).
+ *       link.maxLinks=2
  * 
  * 
  * 
@@ -166,6 +170,28 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
      */
     public final static String ExitOnCommandProperty = "exitOnCommand";
 
+    /**
+     * The property to set the most connections the LinkManager will open for
+     * requests that are waited on, instead of handled by the LinkListener.
+     * "maxLinks"
+     */
+    public final static String MaxLinksProperty = "maxLinks";
+
+    /**
+     * The protocol options the layer asks the server for with map requests.
+     * The layer can apply graphics deltas, and read compact coordinates and
+     * deflated graphics.
+     */
+    public final static String LINK_OPTIONS = LPC_DELTA_OPTION + " "
+            + LPC_COMPACT_OPTION + " " + LPC_DEFLATE_OPTION;
+
+    /**
+     * The graphics state from the server's last graphics response, sent back
+     * with map requests so the server can send a delta. Null if the server
+     * didn't send one, or the layer doesn't have the graphics it describes.
+     */
+    protected volatile String graphicsState = null;
+
     /**
      * The default constructor for the Layer. All of the attributes are set to
      * their default values.
@@ -302,6 +328,9 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
                 .booleanFromProperties(properties, realPrefix
                         + ExitOnCommandProperty, false));
 
+        linkManager.setMaxLinks(PropUtils.intFromProperties(properties,
+                realPrefix + MaxLinksProperty, LinkManager.DEFAULT_MAX_LINKS));
+
         String propertiesURL = properties
                 .getProperty(realPrefix + ArgsProperty);
 
@@ -561,6 +590,14 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
             boundingPolys[0] = new LinkBoundingPoly(ulLon, lrLat, lrLon, ulLat);
         }
 
+        args.setProperty(LPC_LINK_OPTIONS, LINK_OPTIONS);
+        String state = graphicsState;
+        if (state != null && getGraphicList() != null) {
+            args.setProperty(LPC_GRAPHICS_STATE, state);
+        } else {
+            args.remove(LPC_GRAPHICS_STATE);
+        }
+
         Point2D center = proj.getCenter();
         LinkMapRequest.write((float) center.getY(), (float) center.getX(), proj
                 .getScale(), proj.getHeight(), proj.getWidth(), boundingPolys,
@@ -590,6 +627,24 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
             // Deal with all the messaging....
             handleMessages(lgl.getProperties());
             LinkOMGraphicList lomgl = lgl.getGraphics();
+
+            if (lgl.isDelta()) {
+                LinkOMGraphicList current = getGraphicList();
+                if (current == null
+                        || !lgl.getDeltaBase().equals(graphicsState)) {
+                    // The changes are for graphics we don't have, so ask
+                    // for all of them again.
+                    Debug.message("link",
+                            "LinkLayer: graphics delta doesn't match, refetching");
+                    graphicsState = null;
+                    doPrepare();
+                    return;
+                }
+                current.update(lomgl, lgl.getDeletedIds());
+                lomgl = current;
+            }
+
+            graphicsState = lgl.getGraphicsState();
             setGraphicList(lomgl);
             // Do we need to regenerate?
             Projection proj = getProjection();
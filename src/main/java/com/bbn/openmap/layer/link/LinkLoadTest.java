@@ -0,0 +1,218 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.link;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.bbn.openmap.proj.Mercator;
+import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+/**
+ * A load test for a link server. A number of client threads share a
+ * LinkManager, and each one makes map requests on links borrowed from its
+ * pool, waiting for the graphics to come back before making the next one. If
+ * a host isn't given, a TestServerStarter is started on a free port, serving
+ * TestLinkServers with a LinkServerSelector, or with a thread per client if
+ * -threads is given.
+ *
+ * <pre>
+ * java com.bbn.openmap.layer.link.LinkLoadTest [-host host -port port] [-threads]
+ *      [-clients 16] [-links 4] [-requests 100]
+ * </pre>
+ */
+public class LinkLoadTest {
+
+    protected LinkManager linkManager;
+    protected int clients = 16;
+    protected int requests = 100;
+
+    protected AtomicInteger completed = new AtomicInteger();
+    protected AtomicInteger failed = new AtomicInteger();
+    protected AtomicInteger graphics = new AtomicInteger();
+    protected AtomicLong totalNanos = new AtomicLong();
+    protected AtomicLong maxNanos = new AtomicLong();
+
+    public LinkLoadTest(LinkManager linkManager, int clients, int requests) {
+        this.linkManager = linkManager;
+        this.clients = clients;
+        this.requests = requests;
+    }
+
+    /**
+     * Run the clients, and wait for them to finish.
+     *
+     * @return the elapsed time in milliseconds.
+     */
+    public long run()
+            throws InterruptedException {
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            threads[i] = new Thread("LinkLoadTest-" + i) {
+                public void run() {
+                    Projection proj = new Mercator(new LatLonPoint.Double(), 5.0E7f, 640, 480);
+                    for (int r = 0; r < requests; r++) {
+                        request(proj);
+                    }
+                }
+            };
+        }
+
+        long start = System.currentTimeMillis();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Make one map request, and read the response.
+     */
+    protected void request(Projection proj) {
+        long start = System.nanoTime();
+        ClientLink link = null;
+        try {
+            link = linkManager.borrowLink(true);
+            LinkBoundingPoly[] boundingPolys = new LinkBoundingPoly[] {
+                new LinkBoundingPoly(-180.0f, -90f, 180f, 90f)
+            };
+            LinkMapRequest.write(0f, 0f, proj.getScale(), proj.getHeight(), proj.getWidth(), boundingPolys,
+                                 new LinkProperties(), link);
+            link.readAndParse(proj, null);
+            LinkGraphicList lgl = link.getGraphicList();
+            if (lgl != null) {
+                graphics.addAndGet(lgl.getGraphics().size());
+            }
+            linkManager.releaseLink(link);
+            completed.incrementAndGet();
+        } catch (IOException ioe) {
+            System.err.println("LinkLoadTest: " + ioe);
+            if (link != null) {
+                linkManager.discardLink(link);
+            }
+            failed.incrementAndGet();
+            return;
+        }
+
+        long nanos = System.nanoTime() - start;
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getGraphicsCount() {
+        return graphics.get();
+    }
+
+    public void printResults(long millis) {
+        int count = completed.get();
+        System.out.println("LinkLoadTest: " + clients + " clients, " + linkManager.getMaxLinks() + " links");
+        System.out.println("  completed requests: " + count + ", failed: " + failed.get());
+        System.out.println("  graphics received: " + graphics.get());
+        System.out.println("  elapsed: " + millis + " ms, " + (millis > 0 ? count * 1000L / millis : count)
+                + " requests/s");
+        if (count > 0) {
+            System.out.println("  latency: mean " + (totalNanos.get() / count / 1000) + " us, max "
+                    + (maxNanos.get() / 1000) + " us");
+        }
+    }
+
+    public static void main(String[] argv)
+            throws Exception {
+        String host = null;
+        int port = -1;
+        boolean threads = false;
+        int clients = 16;
+        int links = 4;
+        int requests = 100;
+
+        try {
+            for (int i = 0; i < argv.length; i++) {
+                if (argv[i].equals("-host")) {
+                    host = argv[++i];
+                } else if (argv[i].equals("-port")) {
+                    port = Integer.parseInt(argv[++i]);
+                } else if (argv[i].equals("-threads")) {
+                    threads = true;
+                } else if (argv[i].equals("-clients")) {
+                    clients = Integer.parseInt(argv[++i]);
+                } else if (argv[i].equals("-links")) {
+                    links = Integer.parseInt(argv[++i]);
+                } else if (argv[i].equals("-requests")) {
+                    requests = Integer.parseInt(argv[++i]);
+                }
+            }
+        } catch (RuntimeException re) {
+            System.out.println("Usage: java com.bbn.openmap.layer.link.LinkLoadTest [-host host -port port] [-threads] [-clients 16] [-links 4] [-requests 100]");
+            System.exit(0);
+        }
+
+        LinkServerSelector selector = null;
+        if (host == null) {
+            host = "localhost";
+            final TestServerStarter starter = new TestServerStarter(0);
+            if (threads) {
+                final java.net.ServerSocket serverSocket = new java.net.ServerSocket(0);
+                port = serverSocket.getLocalPort();
+                Thread acceptor = new Thread("LinkLoadTest-server") {
+                    public void run() {
+                        try {
+                            while (true) {
+                                starter.startNewServer(serverSocket.accept()).start();
+                            }
+                        } catch (IOException ioe) {
+                        }
+                    }
+                };
+                acceptor.setDaemon(true);
+                acceptor.start();
+            } else {
+                selector = new LinkServerSelector(0, starter);
+                selector.open();
+                port = selector.getLocalPort();
+                Thread selectorThread = new Thread(selector, "LinkLoadTest-server");
+                selectorThread.setDaemon(true);
+                selectorThread.start();
+            }
+        }
+
+        LinkManager linkManager = new LinkManager(host, port);
+        linkManager.setMaxLinks(links);
+        LinkLoadTest test = new LinkLoadTest(linkManager, clients, requests);
+        long millis = test.run();
+        linkManager.resetLink();
+        test.printResults(millis);
+
+        if (selector != null) {
+            selector.close();
+        }
+        System.exit(0);
+    }
+}
@@ -24,11 +24,17 @@ package com.bbn.openmap.layer.link;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.util.LinkedList;
 
 import com.bbn.openmap.util.Debug;
 
 /**
- * The LinkManager..
+ * The LinkManager hands out the links to the server. There's one main link,
+ * which is shared by the layer, for sending requests, and the LinkListener,
+ * for reading the responses. Callers that want to wait for their own
+ * responses, without going through a LinkListener, can borrow a link from a
+ * pool of extra links with borrowLink() instead, so that several of those
+ * requests can be going on at the same time.
  */
 public class LinkManager {
 
@@ -42,6 +48,16 @@ public class LinkManager {
      */
     protected volatile ClientLink link;
 
+    /** The default maximum number of links in the pool. */
+    public final static int DEFAULT_MAX_LINKS = 2;
+
+    /** The most links that the pool will open at one time. */
+    protected int maxLinks = DEFAULT_MAX_LINKS;
+    /** Links in the pool that aren't being used. */
+    protected LinkedList<ClientLink> idleLinks = new LinkedList<ClientLink>();
+    /** How many pool links are open, including the idle ones. */
+    protected int openLinks = 0;
+
     /** Constructor. */
     protected LinkManager() {}
 
@@ -59,6 +75,19 @@ public class LinkManager {
         return obeyCommandToExit;
     }
 
+    /**
+     * Set the most links the pool used by borrowLink() will have open at one
+     * time. Doesn't include the main link.
+     */
+    public synchronized void setMaxLinks(int max) {
+        maxLinks = Math.max(1, max);
+        notifyAll();
+    }
+
+    public synchronized int getMaxLinks() {
+        return maxLinks;
+    }
+
     /**
      * This should be the only method a multi-threaded object uses to
      * gain use of the thread, i.e., on the client side where a GUI
@@ -88,8 +117,11 @@ public class LinkManager {
             }
         }
 
-        try {
-            while (!link.setLocked(true)) {
+        synchronized (this) {
+            ClientLink current = link;
+            // Catch a link == null in case the link was shut down
+            // in finLink() from another thread.
+            while (current != null && !current.setLocked(true)) {
 
                 // This handles the case where we don't want to wait
                 // for the link to become available.
@@ -97,23 +129,104 @@ public class LinkManager {
                     return null;
                 }
 
-                // We will wait here for the link to not be in use.
-                // Catch a link == null in case the link was shut down
-                // in finLink() from another thread. IF we didn't
-                // catch the lock, we stay in the loop.
+                // We will wait here for the link to not be in use,
+                // until finLink() or resetLink() lets us know it
+                // might be free.
                 try {
-                    Thread.sleep(300);
-                } catch (java.lang.InterruptedException ie) {
+                    wait();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return null;
                 }
+                current = link;
             }
-        } catch (NullPointerException npe) {
-            // since probably means link is null, so just return null
-            // in case some other thread tries to do something
-            // tricky..
-            return null;
+
+            return current;
         }
+    }
 
-        return link;
+    /**
+     * Borrow a link from the pool, for a caller that will write a request and
+     * read the response itself. The pool links are separate from the main
+     * link, and the LinkListener doesn't read from them. A link is opened if
+     * none are free and there are fewer than maxLinks open, otherwise the
+     * caller waits for one to be returned. The link must be given back with
+     * releaseLink(), or with discardLink() if something went wrong with it.
+     * 
+     * @param waitForLink if false, null is returned instead of waiting when
+     *        all the links are in use.
+     * @return a link for the caller's use, null if one isn't available.
+     */
+    public ClientLink borrowLink(boolean waitForLink) throws IOException {
+        synchronized (this) {
+            while (idleLinks.isEmpty() && openLinks >= maxLinks) {
+                if (!waitForLink) {
+                    return null;
+                }
+
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+
+            if (!idleLinks.isEmpty()) {
+                return idleLinks.removeFirst();
+            }
+            openLinks++;
+        }
+
+        // Connect without holding up the callers returning links.
+        ClientLink newLink = null;
+        try {
+            newLink = getLink();
+            newLink.setObeyCommandToExit(obeyCommandToExit);
+            return newLink;
+        } finally {
+            if (newLink == null) {
+                synchronized (this) {
+                    openLinks--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Give back a link from borrowLink(), so it can be used by someone else.
+     * The link is closed if the server asked for it to be.
+     */
+    public void releaseLink(ClientLink poolLink) throws IOException {
+        if (poolLink.isCloseLink()) {
+            Debug.message("link", "LinkManager.releaseLink: closing Link");
+            discardLink(poolLink);
+            return;
+        }
+
+        synchronized (this) {
+            idleLinks.addLast(poolLink);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Close a link from borrowLink() instead of giving it back, after an
+     * IOException or when the server asks for it to be closed.
+     */
+    public void discardLink(ClientLink poolLink) {
+        synchronized (this) {
+            openLinks--;
+            notifyAll();
+        }
+
+        try {
+            poolLink.cleanUp();
+            poolLink.close();
+        } catch (IOException ioe) {
+            // Nice try...
+        }
     }
 
     /**
@@ -171,18 +284,25 @@ public class LinkManager {
      * others. If it is not called, no one else will be able to use it.
      */
     public void finLink() throws IOException {
-        if (link.isCloseLink()) {
-            Debug.message("link", "LinkManager.finLink: closing Link");
-            link.close();
-            link = null;
-        } else {
-            Debug.message("link", "LinkManager.finLink: releasing lock on Link");
-            link.setLocked(false);
+        try {
+            if (link.isCloseLink()) {
+                Debug.message("link", "LinkManager.finLink: closing Link");
+                link.close();
+                link = null;
+            } else {
+                Debug.message("link", "LinkManager.finLink: releasing lock on Link");
+                link.setLocked(false);
+            }
+        } finally {
+            synchronized (this) {
+                notifyAll();
+            }
         }
     }
 
     /**
-     * Set the link to null.
+     * Set the link to null, and close the pool links that aren't being
+     * used.
      */
     public void resetLink() {
         if (link != null) {
@@ -194,5 +314,22 @@ public class LinkManager {
             }
         }
         link = null;
+
+        LinkedList<ClientLink> idle;
+        synchronized (this) {
+            idle = idleLinks;
+            idleLinks = new LinkedList<ClientLink>();
+            openLinks -= idle.size();
+            notifyAll();
+        }
+
+        for (ClientLink poolLink : idle) {
+            try {
+                poolLink.cleanUp();
+                poolLink.close();
+            } catch (IOException ioe) {
+                // Nice try...
+            }
+        }
     }
 }
\ No newline at end of file
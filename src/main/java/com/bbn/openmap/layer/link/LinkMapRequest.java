@@ -23,6 +23,7 @@
 package com.bbn.openmap.layer.link;
 
 import java.io.IOException;
+import java.util.StringTokenizer;
 
 import com.bbn.openmap.proj.coords.LatLonPoint;
 import com.bbn.openmap.util.Debug;
@@ -217,6 +218,30 @@ public class LinkMapRequest {
         return properties;
     }
 
+    /**
+     * Check whether the client can handle one of the protocol
+     * options, listed in the LPC_LINK_OPTIONS property of the request.
+     * 
+     * @param option LPC_DELTA_OPTION, LPC_COMPACT_OPTION or
+     *        LPC_DEFLATE_OPTION.
+     * @return true if the client asked for the option.
+     */
+    public boolean acceptsOption(String option) {
+        String options = properties == null ? null
+                : properties.getProperty(LinkPropertiesConstants.LPC_LINK_OPTIONS);
+        if (options == null) {
+            return false;
+        }
+
+        StringTokenizer tokens = new StringTokenizer(options);
+        while (tokens.hasMoreTokens()) {
+            if (tokens.nextToken().equals(option)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public String toString() {
         StringBuffer s = new StringBuffer();
         s.append("LinkMapRequest:\n");
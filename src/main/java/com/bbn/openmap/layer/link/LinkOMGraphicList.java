@@ -23,6 +23,7 @@
 package com.bbn.openmap.layer.link;
 
 import java.awt.Graphics;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.ListIterator;
 
@@ -204,6 +205,40 @@ public class LinkOMGraphicList extends OMGraphicList implements
         }
     }
 
+    /**
+     * Apply a graphics delta to this list. Graphics with the same graphic ID
+     * as a graphic in the list replace it, the others are added, and the
+     * graphics with the deleted IDs are removed.
+     * 
+     * @param changes the graphics read from the delta.
+     * @param deletedIds the IDs of the graphics deleted by the delta.
+     */
+    public synchronized void update(LinkOMGraphicList changes,
+                                    Collection<String> deletedIds) {
+        for (String id : deletedIds) {
+            OMGraphic graphic = getOMGraphicWithId(id);
+            if (graphic != null) {
+                _remove(graphic);
+            }
+        }
+
+        for (OMGraphic graphic : changes) {
+            Object obj = graphic.getAppObject();
+            String id = obj instanceof LinkProperties ? ((LinkProperties) obj).getProperty(LPC_GRAPHICID)
+                    : null;
+            int index = id == null ? Link.UNKNOWN : getOMGraphicIndexWithId(id);
+            if (index != Link.UNKNOWN) {
+                setOMGraphicAt(graphic, index);
+            } else {
+                add(graphic);
+            }
+        }
+
+        if (changes.getNeedToRegenerate()) {
+            setNeedToRegenerate(true);
+        }
+    }
+
     /**
      * Remove all elements from the graphic list.
      */
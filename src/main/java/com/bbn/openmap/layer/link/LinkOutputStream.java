@@ -31,6 +31,14 @@ import java.io.OutputStream;
  * @see java.io.DataOutputStream
  */
 public class LinkOutputStream extends DataOutputStream {
+
+    /**
+     * Whether graphics written to this stream should use compact
+     * coordinates. Set for a graphics section if the client asked
+     * for them.
+     */
+    protected boolean compactCoordinates = false;
+
     /**
      * Creates a new link output stream to write data to the specified
      * underlying output stream.
@@ -52,4 +60,25 @@ public class LinkOutputStream extends DataOutputStream {
         written = 0;
         return temp;
     }
-}
\ No newline at end of file
+
+    public void setCompactCoordinates(boolean value) {
+        compactCoordinates = value;
+    }
+
+    public boolean isCompactCoordinates() {
+        return compactCoordinates;
+    }
+
+    /**
+     * Check whether coordinates written to a stream should be
+     * compact.
+     * 
+     * @param dos the stream the graphic is being written to.
+     * @return true if it's a LinkOutputStream using compact
+     *         coordinates.
+     */
+    public static boolean isCompactCoordinates(DataOutputStream dos) {
+        return dos instanceof LinkOutputStream
+                && ((LinkOutputStream) dos).compactCoordinates;
+    }
+}
@@ -68,14 +68,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
 
         dos.write(Link.POLY_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_POLY);
-        dos.writeByte(RENDERTYPE_LATLON);
-        dos.writeByte(lType);
-        dos.writeInt(llpoints.length);
-
-        for (int i = 0; i < llpoints.length; i++) {
-            dos.writeFloat((float) llpoints[i]);
-        }
-
+        writeLatLons(llpoints, llpoints.length, units, lType, dos);
         dos.writeByte(units);
         dos.writeInt(nsegs);
 
@@ -100,8 +93,6 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
 
         dos.write(Link.POLY_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_POLY);
-        dos.writeByte(RENDERTYPE_LATLON);
-        dos.writeByte(lType);
 
         int length = latpoints.length;
         // We only want to write out the points that have equal
@@ -110,11 +101,22 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
             length = lonpoints.length;
         }
 
-        dos.writeInt(length);
-
-        for (int i = 0; i < length; i++) {
-            dos.writeFloat(latpoints[i]);
-            dos.writeFloat(lonpoints[i]);
+        if (LinkOutputStream.isCompactCoordinates(dos)) {
+            double[] llpoints = new double[length * 2];
+            for (int i = 0; i < length; i++) {
+                llpoints[i * 2] = latpoints[i];
+                llpoints[i * 2 + 1] = lonpoints[i];
+            }
+            writeLatLons(llpoints, llpoints.length, units, lType, dos);
+        } else {
+            dos.writeByte(RENDERTYPE_LATLON);
+            dos.writeByte(lType);
+            dos.writeInt(length);
+
+            for (int i = 0; i < length; i++) {
+                dos.writeFloat(latpoints[i]);
+                dos.writeFloat(lonpoints[i]);
+            }
         }
 
         dos.writeByte(units);
@@ -136,12 +138,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
 
         dos.write(Link.POLY_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_POLY);
-        dos.writeByte(RENDERTYPE_XY);
-        dos.writeInt(xypoints.length);
-
-        for (int i = 0; i < xypoints.length; i++) {
-            dos.writeInt(xypoints[i]);
-        }
+        writeXYs(RENDERTYPE_XY, xypoints, dos);
         properties.write(dos);
     }
 
@@ -160,15 +157,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
 
         dos.write(Link.POLY_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_POLY);
-        dos.writeByte(RENDERTYPE_XY);
-        int numPoints = xpoints.length + ypoints.length;
-        dos.writeInt(numPoints);
-
-        for (int i = 0; i < numPoints / 2; i++) {
-            dos.writeInt(xpoints[i]);
-            dos.writeInt(ypoints[i]);
-        }
-
+        writeXYs(RENDERTYPE_XY, interleave(xpoints, ypoints), dos);
         properties.write(dos);
     }
 
@@ -191,15 +180,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
 
         dos.write(Link.POLY_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_POLY);
-        dos.writeByte(RENDERTYPE_OFFSET);
-        dos.writeFloat(latPoint);
-        dos.writeFloat(lonPoint);
-        dos.writeInt(xypoints.length);
-
-        for (int i = 0; i < xypoints.length; i++) {
-            dos.writeInt(xypoints[i]);
-        }
-
+        writeXYs(RENDERTYPE_OFFSET, latPoint, lonPoint, xypoints, dos);
         dos.writeByte(cMode);
         properties.write(dos);
     }
@@ -225,20 +206,82 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
 
         dos.write(Link.POLY_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_POLY);
-        dos.writeByte(RENDERTYPE_OFFSET);
-        dos.writeFloat(latPoint);
-        dos.writeFloat(lonPoint);
-        int numPoints = xpoints.length + ypoints.length;
-        dos.writeInt(numPoints);
-
-        for (int i = 0; i < numPoints / 2; i++) {
-            dos.writeInt(xpoints[i]);
-            dos.writeInt(ypoints[i]);
-        }
+        writeXYs(RENDERTYPE_OFFSET, latPoint, lonPoint, interleave(xpoints, ypoints), dos);
         dos.writeByte(cMode);
         properties.write(dos);
     }
 
+    /**
+     * Write the render type, line type and lat/lon points of a lat/lon poly,
+     * compactly if the stream is set up for it.
+     */
+    protected static void writeLatLons(double[] llpoints, int length,
+                                       int units, int lType,
+                                       DataOutputStream dos)
+            throws IOException {
+        if (LinkOutputStream.isCompactCoordinates(dos)) {
+            dos.writeByte(RENDERTYPE_LATLON | COMPACT_COORDINATES_MASK);
+            dos.writeByte(lType);
+            LinkUtil.writeCompactCoordinates(llpoints,
+                    length,
+                    2,
+                    units == RADIANS ? RADIANS_QUANTUM : DEGREES_QUANTUM,
+                    dos);
+        } else {
+            dos.writeByte(RENDERTYPE_LATLON);
+            dos.writeByte(lType);
+            dos.writeInt(length);
+
+            for (int i = 0; i < length; i++) {
+                dos.writeFloat((float) llpoints[i]);
+            }
+        }
+    }
+
+    /**
+     * Write the render type and alternating x, y points of an xy poly.
+     */
+    protected static void writeXYs(int renderType, int[] xypoints,
+                                   DataOutputStream dos) throws IOException {
+        writeXYs(renderType, 0f, 0f, xypoints, dos);
+    }
+
+    /**
+     * Write the render type, the anchor point if it's an offset poly, and
+     * the alternating x, y points, compactly if the stream is set up for it.
+     */
+    protected static void writeXYs(int renderType, float latPoint,
+                                   float lonPoint, int[] xypoints,
+                                   DataOutputStream dos) throws IOException {
+        boolean compact = LinkOutputStream.isCompactCoordinates(dos);
+        dos.writeByte(compact ? renderType | COMPACT_COORDINATES_MASK
+                : renderType);
+        if (renderType == RENDERTYPE_OFFSET) {
+            dos.writeFloat(latPoint);
+            dos.writeFloat(lonPoint);
+        }
+
+        if (compact) {
+            LinkUtil.writeCompactCoordinates(xypoints, xypoints.length, 2, dos);
+        } else {
+            dos.writeInt(xypoints.length);
+
+            for (int i = 0; i < xypoints.length; i++) {
+                dos.writeInt(xypoints[i]);
+            }
+        }
+    }
+
+    protected static int[] interleave(int[] xpoints, int[] ypoints) {
+        int length = Math.min(xpoints.length, ypoints.length);
+        int[] xypoints = new int[length * 2];
+        for (int i = 0; i < length; i++) {
+            xypoints[i * 2] = xpoints[i];
+            xypoints[i * 2 + 1] = ypoints[i];
+        }
+        return xypoints;
+    }
+
     /**
      * Write a poly to the link.
      */
@@ -304,15 +347,23 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
         int[] xpoints, ypoints;
 
         int renderType = dis.readByte();
+        boolean compact = LinkUtil.isMask(renderType, COMPACT_COORDINATES_MASK);
+        renderType = LinkUtil.unsetMask(renderType, COMPACT_COORDINATES_MASK);
 
         switch (renderType) {
         case RENDERTYPE_LATLON:
             int lineType = dis.readByte();
-            numPoints = dis.readInt();
-
-            double[] llpoints = new double[numPoints];
-            for (int i = 0; i < numPoints; i++) {
-                llpoints[i] = dis.readFloat();
+            double[] llpoints;
+            if (compact) {
+                llpoints = LinkUtil.readCompactCoordinates(dis);
+                numPoints = llpoints.length;
+            } else {
+                numPoints = dis.readInt();
+
+                llpoints = new double[numPoints];
+                for (int i = 0; i < numPoints; i++) {
+                    llpoints[i] = dis.readFloat();
+                }
             }
             int units = dis.readByte();
             int nsegs = dis.readInt();
@@ -332,13 +383,21 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
             poly = new OMPoly(llpoints, units, lineType, nsegs);
             break;
         case RENDERTYPE_XY:
-            numPoints = dis.readInt();
-            xpoints = new int[numPoints / 2];
-            ypoints = new int[numPoints / 2];
-
-            for (int i = 0; i < numPoints / 2; i += 1) {
-                xpoints[i] = dis.readInt();
-                ypoints[i] = dis.readInt();
+            if (compact) {
+                int[] xypoints = LinkUtil.readCompactIntCoordinates(dis);
+                numPoints = xypoints.length;
+                xpoints = new int[numPoints / 2];
+                ypoints = new int[numPoints / 2];
+                split(xypoints, xpoints, ypoints);
+            } else {
+                numPoints = dis.readInt();
+                xpoints = new int[numPoints / 2];
+                ypoints = new int[numPoints / 2];
+
+                for (int i = 0; i < numPoints / 2; i += 1) {
+                    xpoints[i] = dis.readInt();
+                    ypoints[i] = dis.readInt();
+                }
             }
 
             if (Debug.debugging("linkdetail")) {
@@ -355,14 +414,22 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
         case RENDERTYPE_OFFSET:
             float lat_1 = dis.readFloat();
             float lon_1 = dis.readFloat();
-            numPoints = dis.readInt();
-
-            xpoints = new int[numPoints / 2];
-            ypoints = new int[numPoints / 2];
-
-            for (int i = 0; i < numPoints / 2; i += 1) {
-                xpoints[i] = dis.readInt();
-                ypoints[i] = dis.readInt();
+            if (compact) {
+                int[] xypoints = LinkUtil.readCompactIntCoordinates(dis);
+                numPoints = xypoints.length;
+                xpoints = new int[numPoints / 2];
+                ypoints = new int[numPoints / 2];
+                split(xypoints, xpoints, ypoints);
+            } else {
+                numPoints = dis.readInt();
+
+                xpoints = new int[numPoints / 2];
+                ypoints = new int[numPoints / 2];
+
+                for (int i = 0; i < numPoints / 2; i += 1) {
+                    xpoints[i] = dis.readInt();
+                    ypoints[i] = dis.readInt();
+                }
             }
             int cMode = dis.readByte();
 
@@ -389,4 +456,11 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
 
         return poly;
     }
-}
\ No newline at end of file
+
+    protected static void split(int[] xypoints, int[] xpoints, int[] ypoints) {
+        for (int i = 0; i < xpoints.length; i++) {
+            xpoints[i] = xypoints[i * 2];
+            ypoints[i] = xypoints[i * 2 + 1];
+        }
+    }
+}
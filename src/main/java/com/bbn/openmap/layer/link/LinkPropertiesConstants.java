@@ -120,6 +120,34 @@ public interface LinkPropertiesConstants {
     /** The time in milliseconds since 1/1/1970 00:00:00. */
     public final static String LPC_TIME = "time";
 
+    // Protocol extensions a client can ask for in a map request.
+
+    /**
+     * The space separated protocol options a client understands, sent with a
+     * map request. Servers that don't know about them ignore them, and the
+     * client gets the plain protocol back.
+     */
+    public final static String LPC_LINK_OPTIONS = "lopt";
+    /** The client can apply a graphics response that is a delta. */
+    public final static String LPC_DELTA_OPTION = "delta";
+    /** The client can read graphics with compact coordinates. */
+    public final static String LPC_COMPACT_OPTION = "compact";
+    /** The client can read deflated graphics sections. */
+    public final static String LPC_DEFLATE_OPTION = "deflate";
+    /**
+     * The graphics state, sent by the server with a graphics response and
+     * sent back by the client with the next map request, to say which
+     * graphics it has.
+     */
+    public final static String LPC_GRAPHICS_STATE = "gstate";
+    /**
+     * Set in a graphics response that only holds the changes since the
+     * graphics state given as the value.
+     */
+    public final static String LPC_GRAPHICS_BASE = "gbase";
+    /** Set in a graphics response whose graphics are deflated. */
+    public final static String LPC_DEFLATED = "dfl";
+
     /** Line styles */
     public final static String LPC_SOLID = "S";
     public final static String LPC_LONG_DASH = "LD";
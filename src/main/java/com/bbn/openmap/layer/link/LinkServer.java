@@ -57,6 +57,23 @@ public class LinkServer extends Thread implements LinkPropertiesConstants {
         }
     }
 
+    /**
+     * Create a server that talks to the client over a link that has
+     * already been set up. Used by the LinkServerSelector, which
+     * calls handleRequest() for each request instead of starting the
+     * thread.
+     * 
+     * @param link the link to the client.
+     */
+    public LinkServer(Link link) {
+        this.link = link;
+    }
+
+    /** Get the Link used to talk to the client. */
+    public Link getLink() {
+        return link;
+    }
+
     /** From the Runnable interface. The thread starts here... */
     public void run() {
         try {
@@ -79,30 +96,40 @@ public class LinkServer extends Thread implements LinkPropertiesConstants {
      * @throws IOException
      */
     public void handleClient() throws IOException {
-        boolean validQuery;
-
         while (true) {
             link.readAndParse();
-            validQuery = false;
-
-            // For instance, you could do something like this...
-
-            //          LinkMapRequest graphicsQuery = link.getMapRequest();
-            //          LinkActionRequest gestureQuery =
-            // link.getActionRequest();
-
-            //          if (graphicsQuery != null) {
-            //              getRectangle(graphicsQuery, link);
-            //              validQuery = true;
-            //          }
-            //          if (gestureQuery != null) {
-            //              handleGesture(gestureQuery, link);
-            //              validQuery = true;
-            //          }
+            handleRequest();
+        }
+    }
 
-            if (!validQuery) {
-                huh(link);
-            }
+    /**
+     * Respond to the request that was just read off the link with
+     * readAndParse(). A server run by the LinkServerSelector doesn't
+     * get its own thread, and only has this method called, so it
+     * shouldn't block waiting for the client.
+     * 
+     * @throws IOException
+     */
+    public void handleRequest() throws IOException {
+        boolean validQuery = false;
+
+        // For instance, you could do something like this...
+
+        //          LinkMapRequest graphicsQuery = link.getMapRequest();
+        //          LinkActionRequest gestureQuery =
+        // link.getActionRequest();
+
+        //          if (graphicsQuery != null) {
+        //              getRectangle(graphicsQuery, link);
+        //              validQuery = true;
+        //          }
+        //          if (gestureQuery != null) {
+        //              handleGesture(gestureQuery, link);
+        //              validQuery = true;
+        //          }
+
+        if (!validQuery) {
+            huh(link);
         }
     }
 
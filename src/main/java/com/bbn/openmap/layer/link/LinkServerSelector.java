@@ -0,0 +1,466 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.link;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.bbn.openmap.util.Debug;
+import com.bbn.openmap.util.TaskService;
+
+/**
+ * The LinkServerSelector serves many Link clients without giving each one a
+ * thread of its own. A single thread accepts the connections and reads what
+ * the clients send without blocking. When a connection has what might be a
+ * complete request, it's handed to the TaskService, where the LinkServer
+ * created for the connection by the LinkServerStarter parses the request and
+ * has its handleRequest() method called. The response is collected in memory
+ * and written back by the selector thread, so a slow client never holds up a
+ * TaskService thread.
+ * <p>
+ * The link protocol doesn't say how long a request is, so a request is parsed
+ * from the bytes that have arrived, and if they run out before the request is
+ * finished, the parse is dropped and tried again when more bytes come in.
+ * Requests from one client are always handled one at a time, in order.
+ */
+public class LinkServerSelector implements Runnable {
+
+    /** The size of the buffer used to read from the sockets. */
+    public static final int READ_BUFFER_SIZE = 16384;
+
+    protected int port;
+    protected LinkServerStarter starter;
+    protected Selector selector;
+    protected ServerSocketChannel serverChannel;
+    protected volatile boolean running = false;
+
+    /**
+     * Connections whose requests have been handled, waiting for the selector
+     * thread to write their responses and listen to them again.
+     */
+    protected ConcurrentLinkedQueue<Connection> handled = new ConcurrentLinkedQueue<Connection>();
+
+    /** Only used by the selector thread. */
+    protected ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /**
+     * Create a selector that will listen to a port.
+     *
+     * @param port the port to listen to, 0 for any free port.
+     * @param starter used to create a LinkServer for each connection.
+     */
+    public LinkServerSelector(int port, LinkServerStarter starter) {
+        this.port = port;
+        this.starter = starter;
+    }
+
+    /**
+     * Start listening to the port. Called by run() if it hasn't been called
+     * already.
+     *
+     * @throws IOException if the port can't be listened to.
+     */
+    public synchronized void open()
+            throws IOException {
+        if (selector != null) {
+            return;
+        }
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+    }
+
+    /**
+     * @return the port being listened to, or -1 if open() hasn't been called.
+     */
+    public synchronized int getLocalPort() {
+        return serverChannel == null ? -1 : serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Serve clients until close() is called.
+     */
+    public void run() {
+        try {
+            open();
+            System.out.println("LinkServerSelector: running on port " + getLocalPort());
+            select();
+        } catch (IOException ioe) {
+            System.err.println("LinkServerSelector: IOException while running:");
+            System.err.println(ioe);
+        } finally {
+            shutDown();
+        }
+    }
+
+    /**
+     * Stop serving clients, and close all the connections.
+     */
+    public void close() {
+        running = false;
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    protected void select()
+            throws IOException {
+        while (running) {
+            selector.select();
+
+            Connection connection;
+            while ((connection = handled.poll()) != null) {
+                connection.resume();
+            }
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+
+                if (!key.isValid()) {
+                    continue;
+                }
+
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+
+                connection = (Connection) key.attachment();
+                try {
+                    if (key.isWritable()) {
+                        connection.write();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                } catch (IOException ioe) {
+                    if (Debug.debugging("link")) {
+                        System.err.println(ioe);
+                    }
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    protected void accept()
+            throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+
+        Debug.message("link", "LinkServerSelector: fielding connection");
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    protected void shutDown() {
+        running = false;
+        try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    Object attachment = key.attachment();
+                    if (attachment instanceof Connection) {
+                        ((Connection) attachment).close();
+                    }
+                }
+                selector.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException ioe) {
+            // Nice try...
+        }
+    }
+
+    /**
+     * The state kept for a client. The selector thread only touches a
+     * connection that isn't busy, and a TaskService thread only touches a busy
+     * one, so the buffers don't need to be locked.
+     */
+    protected class Connection
+            implements Runnable {
+
+        protected SocketChannel channel;
+        protected SelectionKey key;
+        protected RequestInputStream input = new RequestInputStream();
+        protected ResponseOutputStream output = new ResponseOutputStream();
+        protected LinkServer server;
+        /** How much of output has been written to the channel. */
+        protected int written = 0;
+        protected boolean busy = false;
+        protected boolean closed = false;
+        protected IOException failure;
+
+        protected Connection(SocketChannel channel) {
+            this.channel = channel;
+            server = starter.createServer(new Link(input, output));
+        }
+
+        /**
+         * Read what the client has sent, and hand the connection off to be
+         * handled if a request may have been completed.
+         */
+        protected void read()
+                throws IOException {
+            boolean ended = false;
+            int count;
+            do {
+                readBuffer.clear();
+                count = channel.read(readBuffer);
+                if (count < 0) {
+                    Debug.message("link", "LinkServerSelector: client disconnected");
+                    close();
+                    return;
+                }
+                readBuffer.flip();
+                ended |= input.append(readBuffer);
+            } while (count == READ_BUFFER_SIZE);
+
+            // Every request finishes with END_TOTAL, so don't bother
+            // parsing until one comes along.
+            if (ended) {
+                busy = true;
+                key.interestOps(0);
+                TaskService.singleton().spawn(this);
+            }
+        }
+
+        /**
+         * Handle all of the complete requests that have been read, on a
+         * TaskService thread.
+         */
+        public void run() {
+            Link link = server.getLink();
+            try {
+                while (true) {
+                    input.mark(0);
+                    int size = output.size();
+                    try {
+                        link.readAndParse();
+                    } catch (EOFException eofe) {
+                        // Not all there yet, so forget anything written
+                        // while reading, like a ping response.
+                        input.reset();
+                        output.truncate(size);
+                        break;
+                    }
+                    server.handleRequest();
+                }
+                input.compact();
+            } catch (IOException ioe) {
+                failure = ioe;
+            } catch (RuntimeException re) {
+                failure = new IOException(re.toString());
+            }
+
+            handled.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Called on the selector thread after the requests have been handled.
+         */
+        protected void resume() {
+            busy = false;
+            if (closed) {
+                // Closed while the requests were being handled.
+                server.getLink().cleanUp();
+                return;
+            }
+            if (failure != null) {
+                if (Debug.debugging("link")) {
+                    System.err.println(failure);
+                }
+                close();
+                return;
+            }
+
+            try {
+                write();
+            } catch (IOException ioe) {
+                close();
+            }
+        }
+
+        /**
+         * Write as much of the responses as the channel will take. The client
+         * isn't listened to again until it has read all of the responses.
+         */
+        protected void write()
+                throws IOException {
+            if (written < output.size()) {
+                ByteBuffer buffer = output.toByteBuffer(written);
+                channel.write(buffer);
+                written = buffer.position();
+            }
+
+            if (written < output.size()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                output.reset();
+                written = 0;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        protected void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                // Nice try...
+            }
+            if (!busy) {
+                server.getLink().cleanUp();
+            }
+        }
+    }
+
+    /**
+     * The bytes read from a client that haven't been parsed yet. Runs out,
+     * with an EOFException from the Link, when a partial request has been
+     * read.
+     */
+    protected static class RequestInputStream
+            extends InputStream {
+
+        protected byte[] buf = new byte[1024];
+        protected int count = 0;
+        protected int pos = 0;
+        protected int markPos = 0;
+
+        /**
+         * Add bytes to the end of the stream.
+         *
+         * @return true if END_TOTAL was one of the bytes.
+         */
+        protected boolean append(ByteBuffer bytes) {
+            int length = bytes.remaining();
+            if (count + length > buf.length) {
+                byte[] tmp = new byte[Math.max(buf.length * 2, count + length)];
+                System.arraycopy(buf, 0, tmp, 0, count);
+                buf = tmp;
+            }
+            bytes.get(buf, count, length);
+
+            byte end = (byte) Link.END_TOTAL.charAt(0);
+            boolean ended = false;
+            for (int i = count; i < count + length && !ended; i++) {
+                ended = buf[i] == end;
+            }
+            count += length;
+            return ended;
+        }
+
+        /**
+         * Drop the bytes that have been read.
+         */
+        protected void compact() {
+            System.arraycopy(buf, pos, buf, 0, count - pos);
+            count -= pos;
+            pos = 0;
+            markPos = 0;
+        }
+
+        public int read() {
+            return pos < count ? buf[pos++] & 0xff : -1;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= count) {
+                return -1;
+            }
+            len = Math.min(len, count - pos);
+            System.arraycopy(buf, pos, b, off, len);
+            pos += len;
+            return len;
+        }
+
+        public long skip(long n) {
+            n = Math.max(0, Math.min(n, count - pos));
+            pos += n;
+            return n;
+        }
+
+        public int available() {
+            return count - pos;
+        }
+
+        public boolean markSupported() {
+            return true;
+        }
+
+        public void mark(int readlimit) {
+            markPos = pos;
+        }
+
+        public void reset() {
+            pos = markPos;
+        }
+    }
+
+    /**
+     * Holds the responses until they can be written to the client.
+     */
+    protected static class ResponseOutputStream
+            extends ByteArrayOutputStream {
+
+        protected ResponseOutputStream() {
+            super(1024);
+        }
+
+        /**
+         * Drop anything written after the first size bytes.
+         */
+        protected synchronized void truncate(int size) {
+            count = Math.min(count, size);
+        }
+
+        protected synchronized ByteBuffer toByteBuffer(int offset) {
+            return ByteBuffer.wrap(buf, offset, count - offset);
+        }
+    }
+}
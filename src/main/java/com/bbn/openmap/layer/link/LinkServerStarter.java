@@ -40,6 +40,11 @@ public class LinkServerStarter {
     public static final int DEFAULT_PORT = 3031;
     /** The port being listened to. */
     protected int serverPort;
+    /**
+     * If true, the clients are all served by a LinkServerSelector
+     * instead of a thread each.
+     */
+    protected boolean nonBlocking = false;
 
     /** Starts the LinkServerStarter listening to the default port. */
     public LinkServerStarter() {
@@ -61,12 +66,30 @@ public class LinkServerStarter {
         return serverPort;
     }
 
+    /**
+     * Set whether the clients should be multiplexed by a
+     * LinkServerSelector on the TaskService threads, instead of
+     * having a LinkServer thread started for each one.
+     */
+    public void setNonBlocking(boolean value) {
+        nonBlocking = value;
+    }
+
+    public boolean isNonBlocking() {
+        return nonBlocking;
+    }
+
     /**
      * The method of the parent server that is listening for clients.
      * When a contact is made, a child thread is spawned off to handle
      * the client.
      */
     public void run() {
+        if (nonBlocking) {
+            new LinkServerSelector(serverPort, this).run();
+            return;
+        }
+
         try {
             ServerSocket serverSocket = new ServerSocket(serverPort);
             Socket socket;
@@ -98,6 +121,21 @@ public class LinkServerStarter {
         return new LinkServer(sock);
     }
 
+    /**
+     * This method gets called by the LinkServerSelector to create a
+     * server for a new connection, when the starter is running
+     * non-blocking. The server's handleRequest() method is called for
+     * each request that comes over the link, and the thread is never
+     * started. This method should be overridden along with
+     * startNewServer().
+     * 
+     * @param link the link to the client.
+     * @return the server handling requests from the client.
+     */
+    public LinkServer createServer(Link link) {
+        return new LinkServer(link);
+    }
+
     /**
      * Start up the server. This is the method to change if you want
      * to customize how the LinkServer will handle clients - port,
@@ -106,9 +144,16 @@ public class LinkServerStarter {
     public static void main(String[] argv) {
 
         int pnumber = -1;
+        boolean nio = false;
 
         com.bbn.openmap.util.Debug.init();
 
+        for (int i = 0; i < argv.length; i++) {
+            if (argv[i].equals("-nio")) {
+                nio = true;
+            }
+        }
+
         for (int i = 0; i < argv.length; i++) {
             if (argv[i].equals("-port") && argv.length > i + 1) {
                 try {
@@ -122,13 +167,14 @@ public class LinkServerStarter {
 
         if (pnumber < 0) {
             System.out.println("Need to start the server with a port number.");
-            System.out.println("Usage: java com.bbn.openmap.layer.link.LinkServerStarter -port <port number>");
+            System.out.println("Usage: java com.bbn.openmap.layer.link.LinkServerStarter -port <port number> [-nio]");
             System.exit(0);
         }
 
         System.out.println("LinkServerStarter: Starting up on port " + pnumber
                 + ".");
         LinkServerStarter serverStarter = new LinkServerStarter(pnumber);
+        serverStarter.setNonBlocking(nio);
         while (true) {
             serverStarter.run();
         }
@@ -25,6 +25,7 @@
 package com.bbn.openmap.layer.link;
 
 import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 
 public class LinkUtil {
@@ -64,4 +65,125 @@ public class LinkUtil {
         }
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * Write floating point coordinates compactly. The values are
+     * rounded to a multiple of the quantum, and each one is written as
+     * a variable length difference from the value stride places
+     * before it, so for alternating lat/lon values use a stride of 2.
+     * 
+     * @param coords the values to write.
+     * @param length how many of the values to write.
+     * @param stride the number of interleaved dimensions.
+     * @param quantum the precision to keep.
+     * @param dos the output to write to.
+     */
+    public static void writeCompactCoordinates(double[] coords, int length,
+                                               int stride, double quantum,
+                                               DataOutput dos)
+            throws IOException {
+        dos.writeInt(length);
+        dos.writeByte(stride);
+        dos.writeDouble(quantum);
+
+        long[] last = new long[stride];
+        for (int i = 0; i < length; i++) {
+            long value = Math.round(coords[i] / quantum);
+            writeVarLong(value - last[i % stride], dos);
+            last[i % stride] = value;
+        }
+    }
+
+    /**
+     * Read coordinates written by writeCompactCoordinates.
+     * 
+     * @return the coordinates, to within the quantum they were written
+     *         with.
+     */
+    public static double[] readCompactCoordinates(DataInput dis)
+            throws IOException {
+        int length = dis.readInt();
+        int stride = dis.readByte();
+        double quantum = dis.readDouble();
+        if (length < 0 || stride < 1) {
+            throw new IOException("LinkUtil: bad compact coordinates.");
+        }
+
+        double[] coords = new double[length];
+        long[] last = new long[stride];
+        for (int i = 0; i < length; i++) {
+            last[i % stride] += readVarLong(dis);
+            coords[i] = last[i % stride] * quantum;
+        }
+        return coords;
+    }
+
+    /**
+     * Write integer coordinates compactly, as variable length
+     * differences from the value stride places before.
+     */
+    public static void writeCompactCoordinates(int[] coords, int length,
+                                               int stride, DataOutput dos)
+            throws IOException {
+        dos.writeInt(length);
+        dos.writeByte(stride);
+
+        int[] last = new int[stride];
+        for (int i = 0; i < length; i++) {
+            writeVarLong((long) coords[i] - last[i % stride], dos);
+            last[i % stride] = coords[i];
+        }
+    }
+
+    /**
+     * Read integer coordinates written by writeCompactCoordinates.
+     */
+    public static int[] readCompactIntCoordinates(DataInput dis)
+            throws IOException {
+        int length = dis.readInt();
+        int stride = dis.readByte();
+        if (length < 0 || stride < 1) {
+            throw new IOException("LinkUtil: bad compact coordinates.");
+        }
+
+        int[] coords = new int[length];
+        long[] last = new long[stride];
+        for (int i = 0; i < length; i++) {
+            last[i % stride] += readVarLong(dis);
+            coords[i] = (int) last[i % stride];
+        }
+        return coords;
+    }
+
+    /**
+     * Write a signed value in as few bytes as it needs, 7 bits at a
+     * time, with small negative values kept small by zigzag encoding.
+     */
+    public static void writeVarLong(long value, DataOutput dos)
+            throws IOException {
+        value = (value << 1) ^ (value >> 63);
+        while ((value & ~0x7FL) != 0) {
+            dos.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        dos.writeByte((int) value);
+    }
+
+    /**
+     * Read a value written with writeVarLong.
+     */
+    public static long readVarLong(DataInput dis) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 63) {
+                throw new IOException("LinkUtil: variable length value too long.");
+            }
+            b = dis.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -51,6 +51,16 @@ public class TestServerStarter extends LinkServerStarter {
         return (new TestLinkServer(socket));
     }
 
+    /**
+     * Creates a TestLinkServer for a client being handled by the
+     * LinkServerSelector.
+     * 
+     * @param link the link to the client.
+     */
+    public LinkServer createServer(Link link) {
+        return new TestLinkServer(link);
+    }
+
     /**
      * Start up the server. This is the method to change if you want
      * to customize how the LinkServer will handle clients - port,
@@ -58,6 +68,13 @@ public class TestServerStarter extends LinkServerStarter {
      */
     public static void main(String[] argv) {
         int pnumber = -1;
+        boolean nio = false;
+
+        for (int i = 0; i < argv.length; i++) {
+            if (argv[i].equals("-nio")) {
+                nio = true;
+            }
+        }
 
         for (int i = 0; i < argv.length; i++) {
             if (argv[i].equals("-port") && argv.length > i + 1) {
@@ -72,7 +89,7 @@ public class TestServerStarter extends LinkServerStarter {
 
         if (pnumber < 0) {
             System.out.println("Need to start the server with a port number.");
-            System.out.println("Usage: java com.bbn.openmap.layer.link.TestServerStarter -port <port number>");
+            System.out.println("Usage: java com.bbn.openmap.layer.link.TestServerStarter -port <port number> [-nio]");
             System.exit(0);
         }
 
@@ -80,6 +97,7 @@ public class TestServerStarter extends LinkServerStarter {
                 + ".");
 
         TestServerStarter serverStarter = new TestServerStarter(pnumber);
+        serverStarter.setNonBlocking(nio);
         while (true) {
             serverStarter.run();
         }
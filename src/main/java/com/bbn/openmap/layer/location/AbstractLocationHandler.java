@@ -211,6 +211,13 @@ public abstract class AbstractLocationHandler implements LocationHandler {
      */
     public void removed(java.awt.Container cont) {}
 
+    /**
+     * Called by the LocationLayer when the work it's doing is cancelled, so
+     * handlers that take a while to get their data, like database queries, can
+     * stop. Does nothing by default.
+     */
+    public void cancel() {}
+
     /**
      * Sets the properties for the handler. This particular method assumes that
      * the marker name is not needed, because all of the contents of this
@@ -186,6 +186,21 @@ public class LocationLayer
         return useDeclutterMatrix;
     }
 
+    /**
+     * Also tells the location handlers to stop what they're doing, when the
+     * layer's work is cancelled.
+     */
+    public void setCancelled(boolean set) {
+        super.setCancelled(set);
+        if (set && dataHandlers != null) {
+            for (int i = 0; i < dataHandlers.length; i++) {
+                if (dataHandlers[i] instanceof AbstractLocationHandler) {
+                    ((AbstractLocationHandler) dataHandlers[i]).cancel();
+                }
+            }
+        }
+    }
+
     /**
      * Tell the location handlers to reload their data from their sources. If
      * you want these changes to appear on the map, you should call doPrepare()
@@ -27,9 +27,14 @@ import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 import java.util.StringTokenizer;
@@ -83,6 +88,13 @@ import com.bbn.openmap.util.quadtree.QuadTree;
  * pretty easily.
  * 
  * <P>
+ * With the default TokenDecoder, the CSV file is read a line at a time into a
+ * packed CSVLocationIndex instead, and the Location objects are only created
+ * for the places that are displayed. If the indexFile property is set, the
+ * index is saved in that file and memory mapped the next time the layer
+ * starts, as long as the CSV file and the index settings haven't changed.
+ * 
+ * <P>
  * The locationFile property should contain a URL referring to the file. This
  * can take the form of file:/myfile.csv for a local file or
  * http://somehost.org/myfile.csv for a remote file.
@@ -115,6 +127,9 @@ import com.bbn.openmap.util.quadtree.QuadTree;
  *       csvlocationhandler.defaultIconURL=/data/symbols/default.gif
  *       # Optional property, if the eastern hemisphere longitudes are negative.  False by default.
  *       csvlocationhandler.eastIsNeg=false
+ *       # Optional property, a file to save the location index in, so the CSV
+ *       # file doesn't have to be read again the next time.
+ *       csvlocationhandler.indexFile=/data/worldpts/WorldLocs_point.idx
  *       
  *       # CSVLocationHandler has been updated to have regular DrawingAttribute properties for both name and location.
  *      csvlocationhandler.name.lineColor=FF008C54
@@ -138,6 +153,19 @@ public class CSVLocationHandler
     public final static String csvHeaderProperty = "csvFileHasHeader";
     /** The storage mechanism for the locations. */
     protected QuadTree quadtree = null;
+    /**
+     * The storage mechanism for the locations, when the default TokenDecoder
+     * is used.
+     */
+    protected CSVLocationIndex locationIndex = null;
+    /**
+     * The Locations created from the locationIndex so far, by packed position.
+     */
+    protected Location[] locations = null;
+    /** The property for the file to save the location index in. */
+    public static final String IndexFileProperty = "indexFile";
+    /** The file to save the location index in, may be null. */
+    protected String indexFile = null;
 
     /** The property describing whether East is a negative value. */
     public static final String eastIsNegProperty = "eastIsNeg";
@@ -214,6 +242,10 @@ public class CSVLocationHandler
         prefix = PropUtils.getScopedPropertyPrefix(prefix);
 
         locationFile = properties.getProperty(prefix + LocationFileProperty);
+        indexFile = properties.getProperty(prefix + IndexFileProperty);
+        if (indexFile != null && indexFile.trim().length() == 0) {
+            indexFile = null;
+        }
 
         latIndex = PropUtils.intFromProperties(properties, prefix + LatIndexProperty, -1);
         lonIndex = PropUtils.intFromProperties(properties, prefix + LonIndexProperty, -1);
@@ -255,6 +287,7 @@ public class CSVLocationHandler
 
         props.put(prefix + "class", this.getClass().getName());
         props.put(prefix + LocationFileProperty, PropUtils.unnull(locationFile));
+        props.put(prefix + IndexFileProperty, PropUtils.unnull(indexFile));
 
         props.put(prefix + eastIsNegProperty, new Boolean(eastIsNeg).toString());
         props.put(prefix + csvHeaderProperty, new Boolean(csvHasHeader).toString());
@@ -291,6 +324,8 @@ public class CSVLocationHandler
         list.put("class" + ScopedEditorProperty, "com.bbn.openmap.util.propertyEditor.NonEditablePropertyEditor");
         list.put(LocationFileProperty, "URL of file containing location information.");
         list.put(LocationFileProperty + ScopedEditorProperty, "com.bbn.openmap.util.propertyEditor.FUPropertyEditor");
+        list.put(IndexFileProperty, "File to save the location index in, so the location file doesn't have to be read every time (optional).");
+        list.put(IndexFileProperty + ScopedEditorProperty, "com.bbn.openmap.util.propertyEditor.FUPropertyEditor");
         list.put(eastIsNegProperty, "Flag to note that negative latitude are over the eastern hemisphere.");
         list.put(eastIsNegProperty + ScopedEditorProperty, "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
         list.put(NameIndexProperty, "The column index, in the location file, of the location label text.");
@@ -304,7 +339,25 @@ public class CSVLocationHandler
     }
 
     public void reloadData() {
-        quadtree = createData();
+        if (usePackedIndex()) {
+            setLocationIndex(createIndex());
+        } else {
+            quadtree = createData();
+        }
+    }
+
+    /**
+     * @return true if the locations are kept in a CSVLocationIndex, which is
+     *         the case when the default TokenDecoder is used. Other
+     *         TokenDecoders put their objects in a QuadTree.
+     */
+    protected boolean usePackedIndex() {
+        return getTokenDecoder().getClass() == DefaultLocationDecoder.class;
+    }
+
+    protected void setLocationIndex(CSVLocationIndex index) {
+        locationIndex = index;
+        locations = index != null ? new Location[index.size()] : null;
     }
 
     protected boolean checkIndexSettings() {
@@ -428,6 +481,210 @@ public class CSVLocationHandler
         return qt;
     }
 
+    /**
+     * Get the CSVLocationIndex for the CSV file, mapped from the index file if
+     * it's there and up to date, otherwise read from the CSV file and saved in
+     * the index file if there is one.
+     */
+    protected CSVLocationIndex createIndex() {
+        if (!checkIndexSettings()) {
+            return null;
+        }
+
+        try {
+            URL csvURL = PropUtils.getResourceOrFileOrURL(null, locationFile);
+            if (csvURL == null) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("couldn't figure out file: " + locationFile);
+                }
+                return null;
+            }
+
+            String sourceKey = getSourceKey(csvURL);
+            // Without a key, there's no telling if the index file is
+            // up to date, so it isn't used.
+            File sidecar = indexFile != null && sourceKey != null ? new File(indexFile) : null;
+            if (sidecar != null && sidecar.isFile()) {
+                try {
+                    CSVLocationIndex index = CSVLocationIndex.map(sidecar);
+                    if (sourceKey.equals(index.getSourceKey())) {
+                        if (logger.isLoggable(Level.FINE)) {
+                            logger.fine("CSVLocationHandler | Mapped " + index.size() + " locations from " + sidecar);
+                        }
+                        return index;
+                    }
+                    logger.fine("CSVLocationHandler | " + sidecar + " is out of date, reading " + locationFile);
+                } catch (IOException ioe) {
+                    logger.warning("CSVLocationHandler couldn't use index file " + sidecar + ": " + ioe.getMessage());
+                }
+            }
+
+            CSVLocationIndex index = readIndex(csvURL, sourceKey != null ? sourceKey : csvURL.toString());
+
+            if (sidecar != null) {
+                try {
+                    index.write(sidecar);
+                } catch (IOException ioe) {
+                    logger.warning("CSVLocationHandler couldn't write index file " + sidecar + ": " + ioe.getMessage());
+                }
+            }
+            return index;
+
+        } catch (java.io.IOException ioe) {
+            throw new com.bbn.openmap.util.HandleError(ioe);
+        } catch (java.security.AccessControlException ace) {
+            throw new com.bbn.openmap.util.HandleError(ace);
+        }
+    }
+
+    /**
+     * Describe the CSV file and the settings used to read it, so an index file
+     * made from something else isn't used. The size and modification time of
+     * the CSV file are part of it, so the index file is read again when the
+     * CSV file changes.
+     * 
+     * @return the key, or null if the modification time of the CSV file can't
+     *         be found.
+     */
+    protected String getSourceKey(URL csvURL) {
+        StringBuilder key = new StringBuilder(csvURL.toString());
+        key.append(" name=").append(nameIndex);
+        key.append(" lat=").append(latIndex);
+        key.append(" lon=").append(lonIndex);
+        key.append(" icon=").append(iconIndex);
+        key.append(" eastIsNeg=").append(eastIsNeg);
+        key.append(" header=").append(csvHasHeader);
+
+        if ("file".equals(csvURL.getProtocol())) {
+            File file;
+            try {
+                file = new File(csvURL.toURI());
+            } catch (Exception e) {
+                file = new File(csvURL.getPath());
+            }
+            key.append(" length=").append(file.length());
+            key.append(" modified=").append(file.lastModified());
+        } else {
+            // A resource in a jar, or on a server.
+            long length;
+            long modified;
+            try {
+                URLConnection connection = csvURL.openConnection();
+                if (connection instanceof HttpURLConnection) {
+                    ((HttpURLConnection) connection).setRequestMethod("HEAD");
+                }
+                try {
+                    length = connection.getContentLengthLong();
+                    modified = connection.getLastModified();
+                } finally {
+                    if (connection instanceof HttpURLConnection) {
+                        ((HttpURLConnection) connection).disconnect();
+                    }
+                }
+            } catch (IOException ioe) {
+                logger.fine("CSVLocationHandler couldn't check " + csvURL + ": " + ioe.getMessage());
+                return null;
+            }
+            if (modified <= 0) {
+                return null;
+            }
+            key.append(" length=").append(length);
+            key.append(" modified=").append(modified);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Read the CSV file into a CSVLocationIndex, a line at a time, looking
+     * only at the name, lat, lon and icon columns. Lines whose lat and lon
+     * can't be read are skipped. If the file isn't marked as having a header
+     * and the first line can't be read, it's taken to be a header.
+     */
+    protected CSVLocationIndex readIndex(URL csvURL, String sourceKey) throws IOException {
+        CSVLocationIndex.Builder builder = new CSVLocationIndex.Builder();
+        String[] fields = new String[Math.max(Math.max(latIndex, lonIndex), Math.max(nameIndex, iconIndex)) + 1];
+        int lineCount = 0;
+        int skipped = 0;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(csvURL.openStream()), 65536);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0) {
+                    continue;
+                }
+                if (lineCount++ == 0 && csvHasHeader) {
+                    continue;
+                }
+
+                splitCSVLine(line, fields);
+                try {
+                    float lat = (float) Double.parseDouble(fields[latIndex].trim());
+                    float lon = (float) Double.parseDouble(fields[lonIndex].trim());
+                    if (eastIsNeg) {
+                        lon *= -1;
+                    }
+                    builder.add(lat, lon, nameIndex >= 0 ? fields[nameIndex] : null, iconIndex >= 0 ? fields[iconIndex] : null);
+                } catch (NumberFormatException nfe) {
+                    skipped += lineCount == 1 ? 0 : 1;
+                } catch (NullPointerException npe) {
+                    skipped += lineCount == 1 ? 0 : 1;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (skipped > 0) {
+            logger.warning("CSVLocationHandler skipped " + skipped + " lines in " + locationFile
+                    + " without a readable lat/lon, check your index settings, first column = 0.");
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("CSVLocationHandler | Finished File:" + locationFile + ", read " + builder.size() + " locations");
+        }
+
+        return builder.build(sourceKey, PackedPointIndex.DEFAULT_NODE_SIZE);
+    }
+
+    /**
+     * Split a CSV line into fields. Fields may be quoted, with doubled quotes
+     * inside them.
+     *
+     * @param line the line.
+     * @param fields filled in with the first fields.length fields of the line,
+     *        null for the ones the line doesn't have.
+     */
+    protected static void splitCSVLine(String line, String[] fields) {
+        Arrays.fill(fields, null);
+        int length = line.length();
+        int pos = 0;
+        for (int i = 0; i < fields.length && pos <= length; i++) {
+            if (pos < length && line.charAt(pos) == '"') {
+                StringBuilder field = new StringBuilder();
+                pos++;
+                while (pos < length) {
+                    char c = line.charAt(pos++);
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (pos < length && line.charAt(pos) == '"') {
+                        field.append(c);
+                        pos++;
+                    } else {
+                        break;
+                    }
+                }
+                fields[i] = field.toString();
+                int comma = line.indexOf(',', pos);
+                pos = comma < 0 ? length + 1 : comma + 1;
+            } else {
+                int comma = line.indexOf(',', pos);
+                int end = comma < 0 ? length : comma;
+                fields[i] = line.substring(pos, end);
+                pos = end + 1;
+            }
+        }
+    }
+
     protected TokenDecoder getTokenDecoder() {
         return new DefaultLocationDecoder();
     }
@@ -515,6 +772,18 @@ public class CSVLocationHandler
             graphicList.setTraverseMode(OMGraphicList.FIRST_ADDED_ON_TOP);
         }
 
+        if (usePackedIndex()) {
+            if (locationIndex == null) {
+                logger.fine("CSVLocationHandler: Figuring out the locations and names! (This is a one-time operation!)");
+                setLocationIndex(createIndex());
+            }
+
+            if (locationIndex != null) {
+                getLocations(nwLat, nwLon, seLat, seLon, graphicList);
+            }
+            return graphicList;
+        }
+
         // IF the quadtree has not been set up yet, do it!
         if (quadtree == null) {
             logger.fine("CSVLocationHandler: Figuring out the locations and names! (This is a one-time operation!)");
@@ -536,6 +805,27 @@ public class CSVLocationHandler
         return graphicList;
     }
 
+    /**
+     * Add the Locations in the box from the locationIndex to the list,
+     * creating the ones that haven't been displayed before.
+     */
+    protected void getLocations(float nwLat, float nwLon, float seLat, float seLon, final OMGraphicList graphicList) {
+        final CSVLocationIndex index = locationIndex;
+        final Location[] locs = locations;
+        index.search(nwLat, nwLon, seLat, seLon, new PackedPointIndex.Visitor() {
+            public void visit(int position) {
+                Location loc = locs[position];
+                if (loc == null) {
+                    String iconURL = index.getIconURL(position);
+                    loc = createLocation(index.getLat(position), index.getLon(position), index.getName(position),
+                                         iconURL != null ? iconURL : defaultIconURL);
+                    locs[position] = loc;
+                }
+                graphicList.add(loc);
+            }
+        });
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -629,6 +919,7 @@ public class CSVLocationHandler
                 logger.fine("Re-reading Locations file");
             }
             quadtree = null;
+            setLocationIndex(null);
             getLayer().doPrepare();
         } else {
             logger.warning("Unknown action command \"" + cmd + "\" in LocationLayer.actionPerformed().");
@@ -0,0 +1,279 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.location.csv;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The locations read from a CSV file, as a PackedPointIndex of the points and
+ * a table of the names and icon URLs, both in packed order. Nothing is kept
+ * per location but a few numbers and bytes, and the Location objects are only
+ * made for the places that get displayed.
+ * <p>
+ * The index can be written to a sidecar file and memory mapped back with
+ * {@link #map(File)}, so the CSV file doesn't have to be parsed again. The
+ * sidecar carries a source key, describing the CSV file and the settings used
+ * to read it, that the handler checks to decide whether the sidecar is still
+ * good. The sidecar has to be smaller than 2 GB.
+ */
+public class CSVLocationIndex {
+
+    /** Marks the start of a sidecar file, "OMLI". */
+    public final static int MAGIC = 0x4F4D4C49;
+    public final static int VERSION = 1;
+
+    protected final static Charset UTF8 = Charset.forName("UTF-8");
+
+    protected final String sourceKey;
+    protected final PackedPointIndex points;
+    /**
+     * Where the strings for each position start, the name at 2 * position and
+     * the icon URL at 2 * position + 1, with one more for the end.
+     */
+    protected final IntBuffer stringOffsets;
+    protected final ByteBuffer strings;
+
+    protected CSVLocationIndex(String sourceKey, PackedPointIndex points, IntBuffer stringOffsets, ByteBuffer strings) {
+        this.sourceKey = sourceKey;
+        this.points = points;
+        this.stringOffsets = stringOffsets;
+        this.strings = strings;
+    }
+
+    /**
+     * Collects the locations as they are read, and packs them into an index.
+     */
+    public static class Builder {
+        protected float[] lats = new float[1024];
+        protected float[] lons = new float[1024];
+        protected int[] stringOffsets = new int[2049];
+        protected byte[] strings = new byte[16384];
+        protected int count = 0;
+
+        public void add(float lat, float lon, String name, String iconURL) {
+            if (count == lats.length) {
+                int length = count + (count >> 1);
+                lats = Arrays.copyOf(lats, length);
+                lons = Arrays.copyOf(lons, length);
+                stringOffsets = Arrays.copyOf(stringOffsets, 2 * length + 1);
+            }
+            lats[count] = lat;
+            lons[count] = lon;
+            addString(2 * count, name);
+            addString(2 * count + 1, iconURL);
+            count++;
+        }
+
+        protected void addString(int index, String string) {
+            int start = stringOffsets[index];
+            if (string != null && string.length() > 0) {
+                byte[] bytes = string.getBytes(UTF8);
+                if (start + bytes.length > strings.length) {
+                    strings = Arrays.copyOf(strings, Math.max(start + bytes.length, strings.length + (strings.length >> 1)));
+                }
+                System.arraycopy(bytes, 0, strings, start, bytes.length);
+                start += bytes.length;
+            }
+            stringOffsets[index + 1] = start;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Pack the locations.
+         *
+         * @param sourceKey describes the source of the locations, saved with
+         *        the index.
+         * @param nodeSize the number of entries in each node of the index.
+         */
+        public CSVLocationIndex build(String sourceKey, int nodeSize) {
+            PackedPointIndex points = PackedPointIndex.pack(lats, lons, count, nodeSize);
+
+            // Put the strings in packed order, too, so the ones for nearby
+            // places are near each other.
+            int[] offsets = new int[2 * count + 1];
+            byte[] packed = new byte[stringOffsets[2 * count]];
+            int length = 0;
+            for (int i = 0; i < count; i++) {
+                int item = points.getItem(i);
+                for (int j = 0; j < 2; j++) {
+                    int start = stringOffsets[2 * item + j];
+                    int end = stringOffsets[2 * item + j + 1];
+                    System.arraycopy(strings, start, packed, length, end - start);
+                    length += end - start;
+                    offsets[2 * i + j + 1] = length;
+                }
+            }
+            return new CSVLocationIndex(sourceKey, points, IntBuffer.wrap(offsets), ByteBuffer.wrap(packed));
+        }
+    }
+
+    /**
+     * Memory map a sidecar file written by {@link #write(File)}.
+     *
+     * @throws IOException if the file can't be read or isn't a sidecar.
+     */
+    public static CSVLocationIndex map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+                throw new IOException(file + " isn't a CSVLocationIndex file");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " is CSVLocationIndex version " + version + ", expected " + VERSION);
+            }
+            byte[] key = new byte[buffer.getInt()];
+            buffer.get(key);
+
+            PackedPointIndex points = PackedPointIndex.read(buffer);
+            int numStrings = buffer.getInt();
+            IntBuffer offsets = PackedPointIndex.view(buffer, (numStrings + 1) * 4).asIntBuffer();
+            ByteBuffer strings = PackedPointIndex.view(buffer, offsets.get(numStrings));
+            return new CSVLocationIndex(new String(key, UTF8), points, offsets, strings);
+        } catch (RuntimeException re) {
+            // A short or corrupted file shows up as a buffer problem.
+            throw new IOException(file + " isn't a good CSVLocationIndex file", re);
+        } finally {
+            // The mapping stays good after the file is closed.
+            raf.close();
+        }
+    }
+
+    /**
+     * Write the index to a sidecar file. The index is written to a temporary
+     * file first and then renamed, so a half written sidecar is never mapped.
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            byte[] key = sourceKey.getBytes(UTF8);
+            out.writeInt(key.length);
+            out.write(key);
+
+            points.write(out);
+
+            int numStrings = 2 * size();
+            out.writeInt(numStrings);
+            for (int i = 0; i <= numStrings; i++) {
+                out.writeInt(stringOffsets.get(i));
+            }
+            byte[] chunk = new byte[8192];
+            ByteBuffer source = strings.duplicate();
+            source.position(0);
+            while (source.hasRemaining()) {
+                int length = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            // Windows won't rename over an existing file.
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Couldn't rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * @return the description of the source given when the index was built.
+     */
+    public String getSourceKey() {
+        return sourceKey;
+    }
+
+    /**
+     * @return the number of locations.
+     */
+    public int size() {
+        return points.size();
+    }
+
+    /**
+     * Find the locations inside a box, as PackedPointIndex.search does.
+     */
+    public void search(float north, float west, float south, float east, PackedPointIndex.Visitor visitor) {
+        points.search(north, west, south, east, visitor);
+    }
+
+    public float getLat(int position) {
+        return points.getLat(position);
+    }
+
+    public float getLon(int position) {
+        return points.getLon(position);
+    }
+
+    /**
+     * @return the row of the location in the CSV file, counting the rows that
+     *         were read, starting at zero.
+     */
+    public int getRow(int position) {
+        return points.getItem(position);
+    }
+
+    /**
+     * @return the name of the location, or null if it didn't have one.
+     */
+    public String getName(int position) {
+        return getString(2 * position);
+    }
+
+    /**
+     * @return the icon URL of the location, or null if it didn't have one.
+     */
+    public String getIconURL(int position) {
+        return getString(2 * position + 1);
+    }
+
+    protected String getString(int index) {
+        int start = stringOffsets.get(index);
+        int end = stringOffsets.get(index + 1);
+        if (start == end) {
+            return null;
+        }
+        if (strings.hasArray()) {
+            return new String(strings.array(), strings.arrayOffset() + start, end - start, UTF8);
+        }
+        byte[] bytes = new byte[end - start];
+        ByteBuffer source = strings.duplicate();
+        source.position(start);
+        source.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
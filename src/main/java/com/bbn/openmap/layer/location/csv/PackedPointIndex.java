@@ -0,0 +1,400 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.location.csv;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * An immutable R-tree over lat/lon points, bulk loaded with Sort-Tile-Recursive
+ * packing and held in flat buffers. The points are sorted into vertical
+ * slices by longitude, and each slice by latitude, so runs of
+ * <code>nodeSize</code> points make the leaf nodes. The nodes of each level
+ * are packed the same way to make the level above, up to a single root.
+ * <p>
+ * The points, their item numbers, the node boxes and the node child pointers
+ * each live in one buffer. The buffers either wrap arrays, for an index built
+ * with {@link #pack(float[], float[], int, int)}, or are views into a
+ * ByteBuffer written by {@link #write(DataOutput)}, so an index saved to a file
+ * can be memory mapped and searched without reading it first.
+ */
+public class PackedPointIndex {
+
+    /** The default number of entries in each node. */
+    public final static int DEFAULT_NODE_SIZE = 16;
+
+    protected final int numItems;
+    protected final int nodeSize;
+    /** Latitude and longitude of each point, in packed order. */
+    protected final FloatBuffer points;
+    /** The item number of each point, in packed order. */
+    protected final IntBuffer items;
+    /** West, south, east, north of each node, leaf nodes first, root last. */
+    protected final FloatBuffer boxes;
+    /** The first child of each node, a point for leaf nodes. */
+    protected final IntBuffer children;
+    /** The end of each level of nodes, leaf nodes first. */
+    protected final int[] levelBounds;
+
+    /**
+     * A callback for the points found by a search.
+     */
+    public interface Visitor {
+        /**
+         * @param position the packed position of the point, for the get
+         *        methods of the index.
+         */
+        void visit(int position);
+    }
+
+    protected PackedPointIndex(int numItems, int nodeSize, FloatBuffer points, IntBuffer items, FloatBuffer boxes,
+            IntBuffer children) {
+        this.numItems = numItems;
+        this.nodeSize = nodeSize;
+        this.points = points;
+        this.items = items;
+        this.boxes = boxes;
+        this.children = children;
+        this.levelBounds = levelBounds(numItems, nodeSize);
+    }
+
+    /**
+     * Read an index from a buffer holding what {@link #write(DataOutput)}
+     * wrote, starting at the buffer position. The index keeps views into the
+     * buffer, so nothing is copied. The buffer position is left at the end of
+     * the index.
+     */
+    public static PackedPointIndex read(ByteBuffer buffer) {
+        int numItems = buffer.getInt();
+        int nodeSize = buffer.getInt();
+        if (numItems < 0 || nodeSize < 2) {
+            throw new IllegalArgumentException("Not a PackedPointIndex, " + numItems + " items, node size " + nodeSize);
+        }
+        int numNodes = numNodes(levelBounds(numItems, nodeSize));
+        FloatBuffer points = view(buffer, numItems * 8).asFloatBuffer();
+        IntBuffer items = view(buffer, numItems * 4).asIntBuffer();
+        FloatBuffer boxes = view(buffer, numNodes * 16).asFloatBuffer();
+        IntBuffer children = view(buffer, numNodes * 4).asIntBuffer();
+        return new PackedPointIndex(numItems, nodeSize, points, items, boxes, children);
+    }
+
+    /**
+     * @return the next length bytes of the buffer, moving the buffer position
+     *         past them.
+     */
+    protected static ByteBuffer view(ByteBuffer buffer, int length) {
+        ByteBuffer view = buffer.slice();
+        view.limit(length);
+        buffer.position(buffer.position() + length);
+        return view;
+    }
+
+    /**
+     * Build an index over the points.
+     *
+     * @param lats the latitudes of the items, decimal degrees.
+     * @param lons the longitudes of the items, decimal degrees.
+     * @param numItems the number of items in the arrays, which are numbered
+     *        by their place in the arrays.
+     * @param nodeSize the number of entries per node, at least 2.
+     */
+    public static PackedPointIndex pack(float[] lats, float[] lons, int numItems, int nodeSize) {
+        nodeSize = Math.max(2, nodeSize);
+        int[] levelBounds = levelBounds(numItems, nodeSize);
+        int numNodes = numNodes(levelBounds);
+
+        // Sort the points, then copy them in packed order.
+        int[] order = new int[numItems];
+        for (int i = 0; i < numItems; i++) {
+            order[i] = i;
+        }
+        long[] keys = new long[numItems];
+        strSort(order, numItems, lons, lats, nodeSize, keys);
+
+        float[] points = new float[numItems * 2];
+        for (int i = 0; i < numItems; i++) {
+            points[2 * i] = lats[order[i]];
+            points[2 * i + 1] = lons[order[i]];
+        }
+
+        float[] boxes = new float[numNodes * 4];
+        int[] children = new int[numNodes];
+        float[] x = new float[levelBounds.length > 0 ? levelBounds[0] : 0];
+        float[] y = new float[x.length];
+        int[] nodeOrder = new int[x.length];
+
+        int start = 0;
+        for (int level = 0; level < levelBounds.length; level++) {
+            int end = levelBounds[level];
+
+            // Make this level from runs of entries in the level below.
+            for (int node = start, child = 0; node < end; node++, child += nodeSize) {
+                float west = Float.POSITIVE_INFINITY;
+                float south = Float.POSITIVE_INFINITY;
+                float east = Float.NEGATIVE_INFINITY;
+                float north = Float.NEGATIVE_INFINITY;
+                if (level == 0) {
+                    int last = Math.min(child + nodeSize, numItems);
+                    for (int i = child; i < last; i++) {
+                        south = Math.min(south, points[2 * i]);
+                        north = Math.max(north, points[2 * i]);
+                        west = Math.min(west, points[2 * i + 1]);
+                        east = Math.max(east, points[2 * i + 1]);
+                    }
+                    children[node] = child;
+                } else {
+                    int below = levelBounds[level - 1];
+                    int first = (level == 1 ? 0 : levelBounds[level - 2]) + child;
+                    int last = Math.min(first + nodeSize, below);
+                    for (int i = first; i < last; i++) {
+                        west = Math.min(west, boxes[4 * i]);
+                        south = Math.min(south, boxes[4 * i + 1]);
+                        east = Math.max(east, boxes[4 * i + 2]);
+                        north = Math.max(north, boxes[4 * i + 3]);
+                    }
+                    children[node] = first;
+                }
+                boxes[4 * node] = west;
+                boxes[4 * node + 1] = south;
+                boxes[4 * node + 2] = east;
+                boxes[4 * node + 3] = north;
+            }
+
+            // Pack the nodes of this level for the level above. The nodes
+            // carry their child pointers, so they can be moved around.
+            int count = end - start;
+            if (count > nodeSize) {
+                for (int i = 0; i < count; i++) {
+                    int b = 4 * (start + i);
+                    x[i] = (boxes[b] + boxes[b + 2]) / 2;
+                    y[i] = (boxes[b + 1] + boxes[b + 3]) / 2;
+                    nodeOrder[i] = i;
+                }
+                strSort(nodeOrder, count, x, y, nodeSize, keys);
+
+                float[] levelBoxes = Arrays.copyOfRange(boxes, 4 * start, 4 * end);
+                int[] levelChildren = Arrays.copyOfRange(children, start, end);
+                for (int i = 0; i < count; i++) {
+                    int from = nodeOrder[i];
+                    System.arraycopy(levelBoxes, 4 * from, boxes, 4 * (start + i), 4);
+                    children[start + i] = levelChildren[from];
+                }
+            }
+            start = end;
+        }
+
+        return new PackedPointIndex(numItems, nodeSize, FloatBuffer.wrap(points), IntBuffer.wrap(order),
+                                    FloatBuffer.wrap(boxes), IntBuffer.wrap(children));
+    }
+
+    /**
+     * The number of nodes at the end of each level, leaf nodes first. There
+     * are no levels for an empty index.
+     */
+    protected static int[] levelBounds(int numItems, int nodeSize) {
+        int[] bounds = new int[32];
+        int numLevels = 0;
+        int total = 0;
+        int n = numItems;
+        while (n > 0) {
+            n = (n + nodeSize - 1) / nodeSize;
+            total += n;
+            bounds[numLevels++] = total;
+            if (n == 1) {
+                break;
+            }
+        }
+        return Arrays.copyOf(bounds, numLevels);
+    }
+
+    protected static int numNodes(int[] levelBounds) {
+        return levelBounds.length == 0 ? 0 : levelBounds[levelBounds.length - 1];
+    }
+
+    /**
+     * Sort-Tile-Recursive ordering of entries: sort by x, cut into vertical
+     * slices that hold about the square root of the number of nodes, and sort
+     * each slice by y.
+     *
+     * @param order the entry numbers, reordered in place.
+     * @param count the number of entries.
+     * @param x the x of each entry, by entry number.
+     * @param y the y of each entry, by entry number.
+     * @param nodeSize the number of entries that will go in a node.
+     * @param keys scratch space, at least count long.
+     */
+    protected static void strSort(int[] order, int count, float[] x, float[] y, int nodeSize, long[] keys) {
+        int numNodes = (count + nodeSize - 1) / nodeSize;
+        int slices = (int) Math.ceil(Math.sqrt(numNodes));
+        int sliceSize = slices * nodeSize;
+
+        sort(order, 0, count, x, keys);
+        for (int i = 0; i < count; i += sliceSize) {
+            sort(order, i, Math.min(count, i + sliceSize), y, keys);
+        }
+    }
+
+    /**
+     * Sort part of the order by the values, as longs with the value's bits on
+     * top and the entry number underneath.
+     */
+    protected static void sort(int[] order, int from, int to, float[] values, long[] keys) {
+        for (int i = from; i < to; i++) {
+            int bits = Float.floatToIntBits(values[order[i]]);
+            // Flip the bits of negative values, so the signed int order is
+            // the float order.
+            bits ^= (bits >> 31) & 0x7FFFFFFF;
+            keys[i] = ((long) bits << 32) | (order[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(keys, from, to);
+        for (int i = from; i < to; i++) {
+            order[i] = (int) keys[i];
+        }
+    }
+
+    /**
+     * Write the index, in the form {@link #read(ByteBuffer)} reads it.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(numItems);
+        out.writeInt(nodeSize);
+        for (int i = 0; i < numItems * 2; i++) {
+            out.writeFloat(points.get(i));
+        }
+        for (int i = 0; i < numItems; i++) {
+            out.writeInt(items.get(i));
+        }
+        int numNodes = numNodes(levelBounds);
+        for (int i = 0; i < numNodes * 4; i++) {
+            out.writeFloat(boxes.get(i));
+        }
+        for (int i = 0; i < numNodes; i++) {
+            out.writeInt(children.get(i));
+        }
+    }
+
+    /**
+     * Find the points inside a box. Like the QuadTree, a box with west east
+     * of east crosses the dateline, and a box with west and east about the
+     * same covers the whole earth.
+     *
+     * @param north top latitude of the box, decimal degrees.
+     * @param west left longitude of the box, decimal degrees.
+     * @param south bottom latitude of the box, decimal degrees.
+     * @param east right longitude of the box, decimal degrees.
+     * @param visitor told about each point inside the box, in no particular
+     *        order.
+     */
+    public void search(float north, float west, float south, float east, Visitor visitor) {
+        if (Math.abs(west - east) < .001) {
+            search(-180f, south, 180f, north, visitor, new int[16]);
+        } else if (west > east) {
+            search(north, west, south, 180f, visitor);
+            search(north, -180f, south, east, visitor);
+        } else {
+            search(west, south, east, north, visitor, new int[16]);
+        }
+    }
+
+    protected void search(float west, float south, float east, float north, Visitor visitor, int[] stack) {
+        if (numItems == 0) {
+            return;
+        }
+
+        int root = numNodes(levelBounds) - 1;
+        if (!intersects(root, west, south, east, north)) {
+            return;
+        }
+
+        int leafBound = levelBounds[0];
+        int stackSize = 0;
+        stack[stackSize++] = root;
+
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            int first = children.get(node);
+
+            if (node < leafBound) {
+                int last = Math.min(first + nodeSize, numItems);
+                for (int i = first; i < last; i++) {
+                    float lat = points.get(2 * i);
+                    float lon = points.get(2 * i + 1);
+                    if (lat >= south && lat <= north && lon >= west && lon <= east) {
+                        visitor.visit(i);
+                    }
+                }
+            } else {
+                int last = Math.min(first + nodeSize, levelEnd(first));
+                for (int child = first; child < last; child++) {
+                    if (intersects(child, west, south, east, north)) {
+                        if (stackSize == stack.length) {
+                            stack = Arrays.copyOf(stack, stackSize * 2);
+                        }
+                        stack[stackSize++] = child;
+                    }
+                }
+            }
+        }
+    }
+
+    protected boolean intersects(int node, float west, float south, float east, float north) {
+        int b = 4 * node;
+        return boxes.get(b) <= east && boxes.get(b + 1) <= north && boxes.get(b + 2) >= west && boxes.get(b + 3) >= south;
+    }
+
+    /**
+     * @return the end of the level that holds the node.
+     */
+    protected int levelEnd(int node) {
+        int i = 0;
+        while (levelBounds[i] <= node) {
+            i++;
+        }
+        return levelBounds[i];
+    }
+
+    /**
+     * @return the number of points in the index.
+     */
+    public int size() {
+        return numItems;
+    }
+
+    /**
+     * @return the latitude of the point at a packed position.
+     */
+    public float getLat(int position) {
+        return points.get(2 * position);
+    }
+
+    /**
+     * @return the longitude of the point at a packed position.
+     */
+    public float getLon(int position) {
+        return points.get(2 * position + 1);
+    }
+
+    /**
+     * @return the item number of the point at a packed position, its place
+     *         in the arrays the index was packed from.
+     */
+    public int getItem(int position) {
+        return items.get(position);
+    }
+}
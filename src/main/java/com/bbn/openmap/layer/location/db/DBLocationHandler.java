@@ -27,7 +27,6 @@ import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -47,7 +46,9 @@ import com.bbn.openmap.layer.location.LocationHandler;
 import com.bbn.openmap.layer.location.LocationMenuItem;
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.util.ConnectionPool;
 import com.bbn.openmap.util.PropUtils;
+import com.bbn.openmap.util.TaskService;
 import com.bbn.openmap.util.quadtree.QuadTree;
 
 /**
@@ -89,11 +90,31 @@ import com.bbn.openmap.util.quadtree.QuadTree;
  *  dblocationhandler.locationQueryString=select statement the data
  *   object needs.  See each Data object (like LocationData) to see what
  *   kind of select statement it needs.
+ *  # Optional, a select statement for the locations in the map view, with
+ *  # four ? parameters for the south, north, west and east edges of the view.
+ *  dblocationhandler.locationViewQueryString=select CITY, STATE, GRAPHIC,
+ *   LATITUDE, LONGITUDE from LOCATIONS where LATITUDE between ? and ?
+ *   and LONGITUDE between ? and ?
+ *  # Optional, the number of rows to fetch from the database at a time, 0
+ *  # for the driver's default. Drivers treat it differently: Oracle uses
+ *  # any positive value. PostgreSQL only uses it with autocommit off, so the
+ *  # handler turns autocommit off for its queries when the value is positive.
+ *  # MySQL Connector/J reads the whole result unless it's -2147483648
+ *  # (Integer.MIN_VALUE), which streams the rows one at a time, or the
+ *  # jdbcString has useCursorFetch=true.
+ *  dblocationhandler.fetchSize=500
  * 
  * </pre>
  * 
  * In addition, this particular location handler is using the LocationData
  * object to handle the results from the location.
+ * <P>
+ * Connections come from a ConnectionPool, and the queries are prepared
+ * statements whose results are read as they are fetched. Without a
+ * locationViewQueryString, all of the locations are read once into a QuadTree.
+ * With one, the database is asked for the locations in the view every time
+ * the map changes, and a query that's still running when the map changes
+ * again is cancelled.
  */
 public class DBLocationHandler
         extends AbstractLocationHandler
@@ -136,6 +157,30 @@ public class DBLocationHandler
      */
     protected String locationQueryString = null;
 
+    /**
+     * Property to specify the query for the locations in the map view, with ?
+     * parameters for the south, north, west and east edges of the view.
+     */
+    public static final String locationViewQueryStringProperty = "locationViewQueryString";
+    /**
+     * The string used to query the database for the locations in the view, may
+     * be null.
+     */
+    protected String locationViewQueryString = null;
+
+    /**
+     * Property for the number of rows fetched from the database at a time. It's
+     * a hint, see the class comment for how some drivers use it.
+     */
+    public static final String fetchSizeProperty = "fetchSize";
+    /** The number of rows fetched from the database at a time. */
+    protected int fetchSize = RecordSet.DEFAULT_FETCH_SIZE;
+
+    /** Looks up the images for the locations, and keeps them. */
+    protected RawDataRecordSet rawDataRecordSet = null;
+    /** The view query that's running, so it can be cancelled. */
+    protected volatile RecordSet activeQuery = null;
+
     /** A copy of properties used to construct this Layer */
     protected Properties props;
 
@@ -171,6 +216,12 @@ public class DBLocationHandler
         userPassword = properties.getProperty(prefix + userPasswordProperty);
 
         locationQueryString = properties.getProperty(prefix + locationQueryStringProperty);
+        locationViewQueryString = properties.getProperty(prefix + locationViewQueryStringProperty);
+        if (locationViewQueryString != null && locationViewQueryString.trim().length() == 0) {
+            locationViewQueryString = null;
+        }
+        fetchSize = PropUtils.intFromProperties(properties, prefix + fetchSizeProperty, RecordSet.DEFAULT_FETCH_SIZE);
+        rawDataRecordSet = null;
     }
 
     /**
@@ -201,6 +252,8 @@ public class DBLocationHandler
         props.put(prefix + userNameProperty, PropUtils.unnull(userName));
         props.put(prefix + userPasswordProperty, PropUtils.unnull(userPassword));
         props.put(prefix + locationQueryStringProperty, PropUtils.unnull(locationQueryString));
+        props.put(prefix + locationViewQueryStringProperty, PropUtils.unnull(locationViewQueryString));
+        props.put(prefix + fetchSizeProperty, Integer.toString(fetchSize));
 
         // Put the properties in here for the RawDataRecordSet, which
         // gets images that can be used for the locations.
@@ -241,6 +294,10 @@ public class DBLocationHandler
         list.put(userNameProperty, "User name");
         list.put(userPasswordProperty, "User password");
         list.put(locationQueryStringProperty, "Select statement that the data object needs.");
+        list.put(locationViewQueryStringProperty,
+                 "Select statement for the locations in the view, with ? for the south, north, west and east edges (optional).");
+        list.put(fetchSizeProperty,
+                 "Number of rows to fetch from the database at a time, 0 for the driver default (-2147483648 streams rows from MySQL).");
 
         list.put(RawDataRecordSet.tableNameProperty, "The name of the table in the database that holds the images.");
         list.put(RawDataRecordSet.rawDataColumnNameProperty,
@@ -261,66 +318,201 @@ public class DBLocationHandler
     protected QuadTree createData() {
 
         QuadTree qt = new QuadTree(90.0f, -180.0f, -90.0f, 180.0f, 100, 50f);
-        ByteRasterLocation loc;
-        byte bytearr[];
 
         if (locationQueryString == null) {
             return qt;
         }
 
         // Code for reading from DB and pushing it into QuadTree.
+        Connection connection = null;
+        RecordSet locationdataRS = null;
         try {
-            if (jdbcDriver != null) {
-                Class.forName(getJdbcDriver());
-            }
-
-            Connection connection = DriverManager.getConnection(getJdbcString(), getUserName(), getUserPassword());
+            connection = getConnectionPool().getConnection();
+            setUpForFetchSize(connection);
 
-            RawDataRecordSet gifdataRS = new RawDataRecordSet(connection, getPropertyPrefix(), props);
+            RawDataRecordSet gifdataRS = getRawDataRecordSet(connection);
 
-            RecordSet locationdataRS = new RecordSet(connection, locationQueryString);
+            locationdataRS = new RecordSet(connection, locationQueryString, null, fetchSize);
 
             while (locationdataRS.next()) {
 
                 LocationData ld = new LocationData(locationdataRS);
+                Location loc = createLocation(ld, gifdataRS);
+                qt.put(ld.getLatitude(), ld.getLongitude(), loc);
+            }
+
+        } catch (SQLException sqlE) {
+            logger.warning("DBLocationHandler:SQL Exception: " + sqlE.getMessage());
+            sqlE.printStackTrace();
+        } finally {
+            close(locationdataRS, connection);
+        }
 
-                if (logger.isLoggable(Level.FINE)) {
-                    logger.fine("DBLocationHandler:  location information:\n" + ld);
+        return qt;
+    }
+
+    /**
+     * Ask the database for the locations in the view, using the
+     * locationViewQueryString, and add them to the list as they come in. The
+     * query is cancelled if the layer's work is cancelled.
+     */
+    protected void getViewData(float north, float west, float south, float east, OMGraphicList graphicList) {
+        Connection connection = null;
+        RecordSet locationdataRS = null;
+        try {
+            connection = getConnectionPool().getConnection();
+            setUpForFetchSize(connection);
+            RawDataRecordSet gifdataRS = getRawDataRecordSet(connection);
+
+            // Across the dateline, ask for both sides.
+            float[] lons = west > east ? new float[] { west, 180f, -180f, east } : new float[] { west, east };
+            for (int i = 0; i < lons.length && !isCancelled(); i += 2) {
+                Object[] parameters = new Object[] { Float.valueOf(south), Float.valueOf(north), Float.valueOf(lons[i]),
+                        Float.valueOf(lons[i + 1]) };
+                // Published before the query runs, so a cancel can stop it
+                // while the database is still working on it.
+                locationdataRS = new RecordSet(connection);
+                locationdataRS.setQueryString(locationViewQueryString);
+                locationdataRS.setParameters(parameters);
+                locationdataRS.setFetchSize(fetchSize);
+                activeQuery = locationdataRS;
+                locationdataRS.getAllQuery();
+
+                while (locationdataRS.next() && !isCancelled()) {
+                    graphicList.add(createLocation(new LocationData(locationdataRS), gifdataRS));
                 }
 
-                bytearr = gifdataRS.getRawData(ld.getGraphicName());
+                activeQuery = null;
+                locationdataRS.close();
+                locationdataRS = null;
+            }
+        } catch (SQLException sqlE) {
+            if (isCancelled()) {
+                logger.fine("DBLocationHandler: query cancelled, " + sqlE.getMessage());
+            } else {
+                logger.warning("DBLocationHandler:SQL Exception: " + sqlE.getMessage());
+            }
+        } finally {
+            activeQuery = null;
+            close(locationdataRS, connection);
+        }
+    }
 
-                float lat = ld.getLatitude();
-                float lon = ld.getLongitude();
+    /**
+     * Turn autocommit off for the queries when the fetch size is positive.
+     * PostgreSQL ignores the fetch size and reads the whole result with
+     * autocommit on. The queries only read, and the pool rolls back and turns
+     * autocommit back on when the connection is given back.
+     */
+    protected void setUpForFetchSize(Connection connection)
+            throws SQLException {
+        if (fetchSize > 0 && connection.getAutoCommit()) {
+            connection.setAutoCommit(false);
+        }
+    }
 
-                loc = new ByteRasterLocation(lat, lon, ld.getCityName(), bytearr);
+    /**
+     * Create a Location for a record from the database.
+     * 
+     * @param ld the location record.
+     * @param gifdataRS looks up the image for the location.
+     */
+    protected Location createLocation(LocationData ld, RawDataRecordSet gifdataRS)
+            throws SQLException {
 
-                loc.setLocationHandler(this);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("DBLocationHandler:  location information:\n" + ld);
+        }
 
-                // let the layer handler default set these
-                // initially...
-                loc.setShowName(isShowNames());
-                loc.setShowLocation(isShowLocations());
+        byte bytearr[] = gifdataRS.getRawData(ld.getGraphicName());
 
-                loc.setLocationPaint(getLocationColor());
-                loc.getLabel().setLinePaint(getNameColor());
-                loc.setDetails(ld.getCityName() + " is at lat: " + lat + ", lon: " + lon);
+        float lat = ld.getLatitude();
+        float lon = ld.getLongitude();
 
-                qt.put(lat, lon, loc);
+        ByteRasterLocation loc = new ByteRasterLocation(lat, lon, ld.getCityName(), bytearr);
 
-            }
+        loc.setLocationHandler(this);
+
+        // let the layer handler default set these
+        // initially...
+        loc.setShowName(isShowNames());
+        loc.setShowLocation(isShowLocations());
 
-            locationdataRS.close();
-            connection.close();
+        loc.setLocationPaint(getLocationColor());
+        loc.getLabel().setLinePaint(getNameColor());
+        loc.setDetails(ld.getCityName() + " is at lat: " + lat + ", lon: " + lon);
+
+        return loc;
+    }
+
+    /**
+     * @return the RawDataRecordSet, set up to use the connection. It's kept
+     *         between queries so the images are only fetched once.
+     */
+    protected RawDataRecordSet getRawDataRecordSet(Connection connection) {
+        if (rawDataRecordSet == null) {
+            rawDataRecordSet = new RawDataRecordSet(connection, getPropertyPrefix(), props);
+        } else {
+            rawDataRecordSet.setConnection(connection);
+        }
+        return rawDataRecordSet;
+    }
 
+    /**
+     * Close the record set, and give the connection back to the pool.
+     */
+    protected void close(RecordSet recordSet, Connection connection) {
+        try {
+            if (recordSet != null) {
+                recordSet.close();
+            }
         } catch (SQLException sqlE) {
-            logger.warning("DBLocationHandler:SQL Exception: " + sqlE.getMessage());
-            sqlE.printStackTrace();
-        } catch (ClassNotFoundException cnfE) {
-            logger.warning("DBLocationHandler: Class not found Exception: " + cnfE);
+            logger.fine("DBLocationHandler: problem closing query: " + sqlE.getMessage());
+        }
+        if (connection != null) {
+            if (rawDataRecordSet != null) {
+                rawDataRecordSet.close();
+            }
+            try {
+                connection.close();
+            } catch (SQLException sqlE) {
+                logger.fine("DBLocationHandler: problem closing connection: " + sqlE.getMessage());
+            }
         }
+    }
 
-        return qt;
+    /**
+     * @return the pool of connections to the database.
+     */
+    protected ConnectionPool getConnectionPool()
+            throws SQLException {
+        return ConnectionPool.get(getJdbcDriver(), getJdbcString(), getUserName(), getUserPassword());
+    }
+
+    /**
+     * Stop the view query, if there is one running. The query is cancelled on
+     * another thread, since it can take a while for the database to answer.
+     */
+    public void cancel() {
+        final RecordSet query = activeQuery;
+        if (query != null) {
+            TaskService.singleton().spawn(new Runnable() {
+                public void run() {
+                    try {
+                        query.cancel();
+                    } catch (SQLException sqlE) {
+                        logger.fine("DBLocationHandler: problem cancelling query: " + sqlE.getMessage());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true if the layer has cancelled the work it asked for.
+     */
+    protected boolean isCancelled() {
+        return getLayer() != null && getLayer().isCancelled();
     }
 
     public String getJdbcString() {
@@ -360,6 +552,11 @@ public class DBLocationHandler
             graphicList.setTraverseMode(OMGraphicList.FIRST_ADDED_ON_TOP);
         }
 
+        if (locationViewQueryString != null) {
+            getViewData(nwLat, nwLon, seLat, seLon, graphicList);
+            return graphicList;
+        }
+
         // IF the quadtree has not been set up yet, do it!
         if (quadtree == null) {
             logger.fine("DBLocationHandler: Figuring out the locations and names! (This is a one-time operation!)");
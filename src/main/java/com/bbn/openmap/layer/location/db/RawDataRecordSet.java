@@ -22,12 +22,13 @@
 
 package com.bbn.openmap.layer.location.db;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Hashtable;
 import java.util.Properties;
 
@@ -53,12 +54,14 @@ public class RawDataRecordSet {
     protected String rawDataColumnName;
     /** Column name which has the key to lookup above data */
     protected String rawDataKeyColumnName;
+    /** The statement used to look up the data, made the first time. */
+    protected PreparedStatement statement;
 
     /**
      * A hashtable to keep track of the byte arrays, using the key.
      * This will reduce the calls to the database.
      */
-    protected Hashtable byteCache = new Hashtable();
+    protected Hashtable<String, byte[]> byteCache = new Hashtable<String, byte[]>();
 
     public static final String tableNameProperty = "rawDataTableName";
     public static final String rawDataColumnNameProperty = "rawDataColumnName";
@@ -90,43 +93,46 @@ public class RawDataRecordSet {
     /** Returns a byte[] array if successful, null otherwise */
     public byte[] getRawData(String lookUpKey) throws SQLException {
 
-        byte[] foundit = (byte[]) byteCache.get(lookUpKey.toLowerCase()
-                .intern());
+        if (lookUpKey == null || tableName == null || rawDataColumnName == null
+                || rawDataKeyColumnName == null) {
+            return null;
+        }
+
+        String key = lookUpKey.toLowerCase().intern();
+        byte[] foundit = byteCache.get(key);
 
         if (foundit != null) {
             return foundit;
         }
 
         String query = "Select " + rawDataColumnName + " from " + tableName
-                + " where " + rawDataKeyColumnName + " = '"
-                + lookUpKey.toLowerCase() + "' ";
+                + " where " + rawDataKeyColumnName + " = ?";
 
         try {
-            Statement stmt = connection.createStatement();
-            ResultSet rset = stmt.executeQuery(query);
-            rset.next();
-
-            // This is the only(first hence 1)
-            InputStream dbis = rset.getBinaryStream(1);
-            int chunksize = 4096;
-            byte barr[] = new byte[chunksize];
-            int imagelength = 0;
+            // The same statement is used for every key.
+            if (statement == null) {
+                statement = connection.prepareStatement(query);
+            }
+            statement.setString(1, key);
+            ResultSet rset = statement.executeQuery();
 
+            byte image[] = null;
             try {
-                imagelength = dbis.read(barr);
-            } catch (IOException ioE) {
-                System.err.println("ERROR - while reading raw data\n"
-                        + ioE.getMessage());
+                if (rset.next()) {
+                    // This is the only(first hence 1)
+                    InputStream dbis = rset.getBinaryStream(1);
+                    if (dbis != null) {
+                        image = readAll(dbis);
+                    }
+                }
+            } finally {
+                // close the resultSet
+                rset.close();
+            }
+
+            if (image != null) {
+                byteCache.put(key, image);
             }
-            //          System.out.println("image length = " + imagelength);
-            byte image[] = new byte[imagelength];
-            System.arraycopy(barr, 0, image, 0, imagelength);
-
-            // close the resultSet
-            rset.close();
-            // Close the statement
-            stmt.close();
-            byteCache.put(lookUpKey.toLowerCase().intern(), image);
             return image;
 
         } catch (SQLException sqlE) {
@@ -138,11 +144,49 @@ public class RawDataRecordSet {
         }
     }
 
+    /**
+     * Read all of the bytes from the raw data stream.
+     */
+    protected byte[] readAll(InputStream dbis) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte barr[] = new byte[4096];
+        try {
+            try {
+                int length;
+                while ((length = dbis.read(barr)) != -1) {
+                    bytes.write(barr, 0, length);
+                }
+            } finally {
+                dbis.close();
+            }
+        } catch (IOException ioE) {
+            System.err.println("ERROR - while reading raw data\n"
+                    + ioE.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Close the statement used to look up the raw data. The cached data is
+     * kept.
+     */
+    public void close() {
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException sqlE) {
+                // Going away anyway.
+            }
+            statement = null;
+        }
+    }
+
     public Connection getConnection() {
         return connection;
     }
 
     public void setConnection(Connection inConnection) {
+        close();
         connection = inConnection;
     }
 
@@ -151,6 +195,7 @@ public class RawDataRecordSet {
     }
 
     public void setTableName(String inTableName) {
+        close();
         tableName = inTableName;
     }
 
@@ -159,6 +204,7 @@ public class RawDataRecordSet {
     }
 
     public void setRawDataColumnName(String inrawDataColumnName) {
+        close();
         rawDataColumnName = inrawDataColumnName;
     }
 
@@ -167,6 +213,7 @@ public class RawDataRecordSet {
     }
 
     public void setRawDataKeyColumnName(String inrawDataKeyColumnName) {
+        close();
         rawDataKeyColumnName = inrawDataKeyColumnName;
     }
 }
\ No newline at end of file
@@ -23,9 +23,9 @@
 package com.bbn.openmap.layer.location.db;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,6 +41,11 @@ import java.util.logging.Logger;
  * record data. This can be done within the constructor of the data object you
  * are trying to create.
  * </UL>
+ * The query is run as a PreparedStatement, so it can have ? parameters that
+ * are bound to the values set with setParameters(). The results are read
+ * forward only, and the fetch size tells the driver how many rows to bring
+ * over at a time instead of pulling the whole result set into memory. A
+ * running query can be stopped from another thread with cancel().
  */
 public class RecordSet {
 
@@ -50,8 +55,19 @@ public class RecordSet {
     protected Connection connection = null;
     /** The query string that will be executed on the database. */
     protected String queryString = null;
+    /** The values for the ? parameters in the query, may be null. */
+    protected Object[] parameters = null;
 
-    private Statement stmt;
+    /** The default number of rows fetched from the database at a time. */
+    public static final int DEFAULT_FETCH_SIZE = 500;
+    /**
+     * The number of rows fetched from the database at a time, 0 for the
+     * driver's default.
+     */
+    protected int fetchSize = DEFAULT_FETCH_SIZE;
+
+    private volatile PreparedStatement stmt;
+    private volatile boolean cancelled = false;
     private ResultSet rset;
 
     /**
@@ -75,6 +91,24 @@ public class RecordSet {
         getAllQuery();
     }
 
+    /**
+     * Does everything, for a query with ? parameters.
+     * 
+     * @param inConnection the connection to use.
+     * @param query the query.
+     * @param inParameters the values for the parameters, in order.
+     * @param inFetchSize the number of rows to fetch at a time, 0 for the
+     *        driver default.
+     */
+    public RecordSet(Connection inConnection, String query, Object[] inParameters, int inFetchSize)
+            throws SQLException {
+        connection = inConnection;
+        queryString = query;
+        parameters = inParameters;
+        fetchSize = inFetchSize;
+        getAllQuery();
+    }
+
     /**
      * Executes "select * from 'tableName'", or whatever the queryString is set
      * to. If the connection is not null, and the queryString is not null, the
@@ -94,8 +128,28 @@ public class RecordSet {
                     logger.fine("RecordSet calling database with query => " + queryString);
                 }
 
-                stmt = connection.createStatement();
-                rset = stmt.executeQuery(queryString);
+                PreparedStatement statement = connection.prepareStatement(queryString, ResultSet.TYPE_FORWARD_ONLY,
+                                                                          ResultSet.CONCUR_READ_ONLY);
+                stmt = statement;
+                if (fetchSize != 0) {
+                    try {
+                        statement.setFetchSize(fetchSize);
+                    } catch (SQLException sqle) {
+                        // It's only a hint, and some drivers don't take some
+                        // values (MySQL streams with Integer.MIN_VALUE).
+                        logger.fine("RecordSet fetch size " + fetchSize + " not used: " + sqle.getMessage());
+                    }
+                }
+                if (parameters != null) {
+                    for (int i = 0; i < parameters.length; i++) {
+                        statement.setObject(i + 1, parameters[i]);
+                    }
+                }
+                // Most drivers ignore a cancel before the statement runs.
+                if (cancelled) {
+                    throw new SQLException("Query cancelled");
+                }
+                rset = statement.executeQuery();
             } catch (SQLException sqlE) {
                 throw new SQLException(queryString + " | " + sqlE.getMessage());
             }
@@ -130,10 +184,30 @@ public class RecordSet {
 
     public void close()
             throws SQLException {
-        if (rset != null)
-            rset.close();
-        if (stmt != null)
-            stmt.close();
+        try {
+            if (rset != null)
+                rset.close();
+        } finally {
+            if (stmt != null)
+                stmt.close();
+            rset = null;
+            stmt = null;
+        }
+    }
+
+    /**
+     * Stop the query, if it's still running. This can be called from any
+     * thread, and the thread running the query or reading the results will get
+     * an SQLException. If the query hasn't been run yet, getAllQuery() won't
+     * run it.
+     */
+    public void cancel()
+            throws SQLException {
+        cancelled = true;
+        PreparedStatement statement = stmt;
+        if (statement != null) {
+            statement.cancel();
+        }
     }
 
     public Connection getConnection() {
@@ -151,4 +225,28 @@ public class RecordSet {
     public void setQueryString(String inQueryString) {
         queryString = inQueryString;
     }
+
+    public Object[] getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Set the values for the ? parameters in the query, used the next time
+     * getAllQuery() is called.
+     */
+    public void setParameters(Object[] inParameters) {
+        parameters = inParameters;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Set the number of rows fetched from the database at a time, 0 for the
+     * driver default. Used the next time getAllQuery() is called.
+     */
+    public void setFetchSize(int inFetchSize) {
+        fetchSize = inFetchSize;
+    }
 }
\ No newline at end of file
@@ -24,10 +24,9 @@ package com.bbn.openmap.layer.mysql;
 /* Java Core */
 import java.awt.geom.Point2D;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Properties;
 import java.util.Vector;
 
@@ -40,8 +39,10 @@ import com.bbn.openmap.omGraphics.OMGraphicList;
 import com.bbn.openmap.omGraphics.OMPoly;
 import com.bbn.openmap.omGraphics.OMRaster;
 import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.util.ConnectionPool;
 import com.bbn.openmap.util.Debug;
 import com.bbn.openmap.util.PropUtils;
+import com.bbn.openmap.util.TaskService;
 
 /**
  * This layer is for the reading and display of any spatial data
@@ -64,6 +65,13 @@ import com.bbn.openmap.util.PropUtils;
  * pairs.
  * 
  * <p>
+ * The geometries in the view are fetched with a prepared statement, with the
+ * corners of the view bound as parameters, as Well Known Binary that the
+ * MysqlWKBGeometryFactory reads. Rows are turned into OMGraphics as they are
+ * streamed from the database, connections are kept in a ConnectionPool, and a
+ * query that's still running when the projection changes is cancelled.
+ * 
+ * <p>
  * Properties to be set:
  * 
  * <pre>
@@ -80,6 +88,7 @@ import com.bbn.openmap.util.PropUtils;
  *   mygeo.lineColor=&amp;ltColor for lines&amp;gtDefault is red
  *   mygeo.lineWidth=&amp;ltPixel width of lines&amp;gtDefault is 0
  *   mygeo.fillColor=&amp;ltColor of fill&amp;gtDefault is red
+ *   mygeo.fetchSize=&amp;ltRows fetched at a time&amp;gtDefault is Integer.MIN_VALUE, which makes the MySQL driver stream rows
  *  
  *   
  * </pre>
@@ -114,19 +123,20 @@ public class MysqlGeometryLayer extends OMGraphicHandlerLayer {
     public static final String dbClassProperty = "dbClass";
 
     /**
-     * Connection to server.
+     * The number of rows fetched from the database at a time. The MySQL driver
+     * reads the whole result into memory unless this is Integer.MIN_VALUE.
      */
-    protected Connection conn = null;
+    protected int fetchSize = Integer.MIN_VALUE;
 
     /**
-     * The result set object.
+     * The property to use for specifying the fetch size: <b>fetchSize </b>
      */
-    protected ResultSet rs = null;
+    public static final String fetchSizeProperty = "fetchSize";
 
     /**
-     * Statement to be executed for queries.
+     * The query that's running, so it can be cancelled.
      */
-    protected Statement stmt = null;
+    protected volatile PreparedStatement activeStatement = null;
 
     /** Table name which contains the geometry to be used. */
     protected String geomTable = null;
@@ -174,6 +184,7 @@ public class MysqlGeometryLayer extends OMGraphicHandlerLayer {
         geomTable = properties.getProperty(prefix + geomTableProperty);
         geomColumn = properties.getProperty(prefix + geomColumnProperty);
         pointSymbol = properties.getProperty(prefix + pointSymbolProperty);
+        fetchSize = PropUtils.intFromProperties(properties, prefix + fetchSizeProperty, Integer.MIN_VALUE);
 
         if (Debug.debugging("mysql")) {
             Debug.output("MysqlGeometryLayer (" + getName() + ") properties:");
@@ -197,62 +208,126 @@ public class MysqlGeometryLayer extends OMGraphicHandlerLayer {
 
         OMGraphicList graphics = new OMGraphicList();
 
+        Connection conn = null;
+        PreparedStatement stmt = null;
         try {
 
-            Class.forName(dbClass).newInstance();
+            conn = getConnectionPool().getConnection();
+
+            String q = getQueryString();
+            stmt = conn.prepareStatement(q, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
             try {
-                conn = DriverManager.getConnection(dbUrl);
-            } catch (Exception ex) {
-                ex.printStackTrace();
+                stmt.setFetchSize(fetchSize);
+            } catch (SQLException sqlE) {
+                // Only a hint, and other drivers don't like MIN_VALUE.
+                if (Debug.debugging("mysql")) {
+                    Debug.output("MysqlGeometryLayer fetch size not used: " + sqlE.getMessage());
+                }
             }
 
-            stmt = conn.createStatement();
-
-            Point2D ul = getProjection().getUpperLeft();
-            Point2D lr = getProjection().getLowerRight();
-
-            String q = "SELECT ID, AsText(" + geomColumn + ") FROM "
-                    + geomTable
-                    + " WHERE MBRIntersects(GEO, GeomFromText('Polygon(( "
-                    + ul.getX() + " " + ul.getY() + ", " + ul.getX() + " "
-                    + lr.getY() + ", " + lr.getX() + " " + lr.getY() + ", "
-                    + lr.getX() + " " + ul.getY() + ", " + ul.getX() + " "
-                    + ul.getY() + "))'))";
+            Point2D ul = proj.getUpperLeft();
+            Point2D lr = proj.getLowerRight();
+            stmt.setDouble(1, ul.getX());
+            stmt.setDouble(2, lr.getY());
+            stmt.setDouble(3, lr.getX());
+            stmt.setDouble(4, ul.getY());
 
             if (Debug.debugging("mysql")) {
-                Debug.output("MysqlGeometryLayer query: " + q);
+                Debug.output("MysqlGeometryLayer query: " + q + " for " + ul + ", " + lr);
             }
 
-            stmt.executeQuery(q);
-            rs = stmt.getResultSet();
-            graphics.clear();
+            activeStatement = stmt;
+            ResultSet rs = stmt.executeQuery();
 
-            while (rs.next()) {
-
-                String result = rs.getString(2);
+            try {
+                while (rs.next() && !isCancelled()) {
+
+                    MysqlGeometry mg;
+                    try {
+                        mg = MysqlWKBGeometryFactory.createGeometry(rs.getBytes(2));
+                    } catch (IllegalArgumentException iae) {
+                        Debug.error("MysqlGeometryLayer: skipping geometry " + rs.getString(1) + ", " + iae.getMessage());
+                        continue;
+                    }
 
-                if (Debug.debugging("mysql")) {
-                    Debug.output("MysqlGeometryLayer result: " + result);
+                    OMGraphic omg = createGraphic(mg);
+                    if (omg != null) {
+                        omg.generate(proj);
+                        graphics.add(omg);
+                    }
                 }
-
-                MysqlGeometry mg = MysqlWKTGeometryFactory.createGeometry(result);
-                OMGraphic omg = createGraphic(mg);
-                omg.generate(proj);
-                graphics.add(omg);
+            } finally {
+                rs.close();
             }
 
-            rs.close();
-            conn.close();
-
         } catch (SQLException sqlE) {
-            sqlE.printStackTrace();
-        } catch (Exception e) {
-            e.printStackTrace();
+            if (!isCancelled()) {
+                sqlE.printStackTrace();
+            } else if (Debug.debugging("mysql")) {
+                Debug.output("MysqlGeometryLayer query cancelled: " + sqlE.getMessage());
+            }
+        } finally {
+            activeStatement = null;
+            try {
+                if (stmt != null) {
+                    stmt.close();
+                }
+            } catch (SQLException sqlE) {
+                // Giving the connection back anyway.
+            }
+            try {
+                if (conn != null) {
+                    conn.close();
+                }
+            } catch (SQLException sqlE) {
+                sqlE.printStackTrace();
+            }
         }
 
         return graphics;
     }
 
+    /**
+     * The query for the geometries in the view. The four parameters are the
+     * west, south, east and north edges of the view, and the second column
+     * has to be the geometry as WKB.
+     */
+    protected String getQueryString() {
+        return "SELECT ID, AsBinary(" + geomColumn + ") FROM " + geomTable + " WHERE MBRIntersects(" + geomColumn
+                + ", Envelope(LineString(Point(?, ?), Point(?, ?))))";
+    }
+
+    /**
+     * @return the pool of connections to the database.
+     */
+    protected ConnectionPool getConnectionPool()
+            throws SQLException {
+        return ConnectionPool.get(dbClass, dbUrl, null, null);
+    }
+
+    /**
+     * Also cancels the query that's running, on another thread since the
+     * database can take a while to answer.
+     */
+    public void setCancelled(boolean set) {
+        super.setCancelled(set);
+
+        final PreparedStatement stmt = activeStatement;
+        if (set && stmt != null) {
+            TaskService.singleton().spawn(new Runnable() {
+                public void run() {
+                    try {
+                        stmt.cancel();
+                    } catch (SQLException sqlE) {
+                        if (Debug.debugging("mysql")) {
+                            Debug.output("MysqlGeometryLayer problem cancelling query: " + sqlE.getMessage());
+                        }
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * Method createPoint. Renders a Point.
      * 
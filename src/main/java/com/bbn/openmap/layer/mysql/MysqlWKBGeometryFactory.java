@@ -0,0 +1,143 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.mysql;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Vector;
+
+/**
+ * Creates the same Geometry objects as the MysqlWKTGeometryFactory, from the
+ * Well Known Binary (WKB) representation of the geometry returned by
+ * AsBinary(). The coordinates are read straight out of the bytes, instead of
+ * being printed as text by the database and parsed back again.
+ * <p>
+ * Only two dimensional geometries are handled, which is all MySQL has.
+ */
+public class MysqlWKBGeometryFactory {
+
+    public final static int WKB_POINT = 1;
+    public final static int WKB_LINESTRING = 2;
+    public final static int WKB_POLYGON = 3;
+    public final static int WKB_MULTIPOINT = 4;
+    public final static int WKB_MULTILINESTRING = 5;
+    public final static int WKB_MULTIPOLYGON = 6;
+    public final static int WKB_GEOMETRYCOLLECTION = 7;
+
+    /**
+     * Create a geometry from WKB bytes.
+     *
+     * @throws IllegalArgumentException if the bytes aren't a geometry this
+     *         factory handles.
+     */
+    public static MysqlGeometry createGeometry(byte[] wkb) {
+        if (wkb == null) {
+            return null;
+        }
+        try {
+            return createGeometry(ByteBuffer.wrap(wkb));
+        } catch (BufferUnderflowException bue) {
+            throw new IllegalArgumentException("WKB geometry is too short, " + wkb.length + " bytes");
+        }
+    }
+
+    /**
+     * Create a geometry from the WKB at the buffer position, leaving the
+     * position at the end of the geometry.
+     */
+    protected static MysqlGeometry createGeometry(ByteBuffer buffer) {
+        // Each geometry, even inside a collection, says which byte order it
+        // uses.
+        buffer.order(buffer.get() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        int type = buffer.getInt();
+
+        switch (type) {
+        case WKB_POINT:
+            return createPoint(buffer);
+        case WKB_LINESTRING:
+            return createLine(buffer);
+        case WKB_POLYGON:
+            return createPolygon(buffer);
+        case WKB_MULTIPOINT:
+            return fill(new MysqlMultiPoint(), buffer);
+        case WKB_MULTILINESTRING:
+            return fill(new MysqlMultiLineString(), buffer);
+        case WKB_MULTIPOLYGON:
+            return fill(new MysqlMultiPolygon(), buffer);
+        case WKB_GEOMETRYCOLLECTION:
+            return fill(new MysqlCollection(), buffer);
+        default:
+            throw new IllegalArgumentException("WKB geometry type " + type + " not handled");
+        }
+    }
+
+    protected static MysqlPoint createPoint(ByteBuffer buffer) {
+        MysqlPoint g = new MysqlPoint();
+        g.setEastings(buffer.getDouble());
+        g.setNorthings(buffer.getDouble());
+        return g;
+    }
+
+    protected static MysqlLine createLine(ByteBuffer buffer) {
+        MysqlLine g = new MysqlLine();
+        g.setCoordinateArray(readLatLonArray(buffer));
+        return g;
+    }
+
+    protected static MysqlPolygon createPolygon(ByteBuffer buffer) {
+        MysqlPolygon g = new MysqlPolygon();
+        int numRings = buffer.getInt();
+        // Each ring has at least its point count.
+        if (numRings < 0 || numRings > buffer.remaining() / 4) {
+            throw new IllegalArgumentException("WKB geometry has a bad ring count, " + numRings);
+        }
+        Vector<double[]> rings = new Vector<double[]>(numRings);
+        for (int i = 0; i < numRings; i++) {
+            rings.add(readLatLonArray(buffer));
+        }
+        g.setRings(rings);
+        return g;
+    }
+
+    protected static MysqlMulti fill(MysqlMulti g, ByteBuffer buffer) {
+        int numElements = buffer.getInt();
+        // Each element has at least a byte order, a type and a count.
+        if (numElements < 0 || numElements > buffer.remaining() / 9) {
+            throw new IllegalArgumentException("WKB geometry has a bad element count, " + numElements);
+        }
+        for (int i = 0; i < numElements; i++) {
+            g.addElement(createGeometry(buffer));
+        }
+        return g;
+    }
+
+    /**
+     * Read a count of points, and the points, into an array of lat/lon pairs
+     * like the WKT factory makes.
+     */
+    protected static double[] readLatLonArray(ByteBuffer buffer) {
+        int numPoints = buffer.getInt();
+        if (numPoints < 0 || numPoints > buffer.remaining() / 16) {
+            throw new IllegalArgumentException("WKB geometry has a bad point count, " + numPoints);
+        }
+        double[] coords = new double[numPoints * 2];
+        for (int i = 0; i < coords.length; i += 2) {
+            coords[i + 1] = buffer.getDouble();
+            coords[i] = buffer.getDouble();
+        }
+        return coords;
+    }
+}
@@ -171,6 +171,15 @@ public class BufferedImageRenderPolicy
         buffer = bi;
     }
 
+    /**
+     * Drop the image buffer, so it gets recreated from the layer's list the
+     * next time the layer is painted. Call this when OMGraphics have been added
+     * to the list after prepare() returned.
+     */
+    public void resetBuffer() {
+        setBuffer(null);
+    }
+
     /*
      * Used to keep the projection of the image with the image as an attribute.
      */
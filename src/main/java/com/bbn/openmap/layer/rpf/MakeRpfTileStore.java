@@ -0,0 +1,516 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.rpf;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.bbn.openmap.util.ArgParser;
+import com.bbn.openmap.util.Debug;
+
+/**
+ * Creates a RpfTileStore file from one or more RPF directories. Every subframe
+ * of every boundary rectangle in the A.TOC files is decompressed and written
+ * to the store with its colors, and then overview levels are made for each
+ * boundary rectangle by combining 2x2 blocks of subframes into one, until the
+ * boundary rectangle fits in one subframe or the maximum number of levels is
+ * reached. The RpfTileStoreFrameProvider serves the store to the RpfLayer, with
+ * the overviews showing up as boundary rectangles at smaller scales.
+ * <P>
+ *
+ * <pre>
+ *
+ *  java com.bbn.openmap.layer.rpf.MakeRpfTileStore -output rpf.tiles /data/RPF /data/more/RPF
+ *
+ * </pre>
+ */
+public class MakeRpfTileStore {
+
+    /** The most overview levels made for a boundary rectangle, by default. */
+    public final static int DEFAULT_MAX_LEVELS = 8;
+    /** The color used for parts of an overview without any data. */
+    public final static int CLEAR = 0x00000000;
+
+    protected RandomAccessFile file;
+    protected String path;
+    /** Where the next subframe goes. */
+    protected long end;
+    protected List<String> sources = new ArrayList<String>();
+    protected List<List<RpfTileStore.Entry>> tocs = new ArrayList<List<RpfTileStore.Entry>>();
+    protected int maxLevels = DEFAULT_MAX_LEVELS;
+
+    /**
+     * Start a new tile store, replacing any file at the path.
+     */
+    public MakeRpfTileStore(String path) throws IOException {
+        this.path = path;
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        file.write(RpfTileStore.MAGIC.getBytes("US-ASCII"));
+        // Filled in when the store is closed.
+        file.writeLong(0);
+        end = RpfTileStore.HEADER_LENGTH;
+    }
+
+    public void setMaxLevels(int levels) {
+        maxLevels = levels;
+    }
+
+    public int getMaxLevels() {
+        return maxLevels;
+    }
+
+    /**
+     * Add an A.TOC to the store.
+     *
+     * @param source the RPF directory path, kept as a description.
+     * @return the number of the A.TOC in the store.
+     */
+    public int addToc(String source) {
+        sources.add(source != null ? source : "");
+        tocs.add(new ArrayList<RpfTileStore.Entry>());
+        return tocs.size() - 1;
+    }
+
+    /**
+     * Add an entry to an A.TOC, setting its numbers.
+     */
+    public RpfTileStore.Entry addEntry(int tocNumber, RpfTileStore.Entry entry) {
+        List<RpfTileStore.Entry> entries = tocs.get(tocNumber);
+        entry.tocNumber = tocNumber;
+        entry.entryNumber = entries.size();
+        entry.offsets = new long[entry.width * entry.height];
+        entry.lengths = new int[entry.width * entry.height];
+        entries.add(entry);
+        return entry;
+    }
+
+    public List<RpfTileStore.Entry> getEntries(int tocNumber) {
+        return tocs.get(tocNumber);
+    }
+
+    /**
+     * Write a subframe for an entry.
+     */
+    public synchronized void writeTile(RpfTileStore.Entry entry, int x, int y, RpfTileStore.Tile tile)
+            throws IOException {
+        byte[] bytes = tile.encode();
+        file.seek(end);
+        file.write(bytes);
+        int i = y * entry.width + x;
+        entry.offsets[i] = end;
+        entry.lengths[i] = bytes.length;
+        end += bytes.length;
+    }
+
+    /**
+     * Read back a subframe written for an entry.
+     *
+     * @return the subframe, or null if there isn't one.
+     */
+    public synchronized RpfTileStore.Tile readTile(RpfTileStore.Entry entry, int x, int y)
+            throws IOException {
+        if (x < 0 || y < 0 || x >= entry.width || y >= entry.height) {
+            return null;
+        }
+        int i = y * entry.width + x;
+        if (entry.lengths[i] == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[entry.lengths[i]];
+        file.seek(entry.offsets[i]);
+        file.readFully(bytes);
+        return RpfTileStore.Tile.decode(bytes);
+    }
+
+    /**
+     * Add all of the subframes in a RPF directory, along with their overviews.
+     *
+     * @param rpfDir the RPF directory, holding the A.TOC file.
+     * @return the number of the A.TOC in the store, or -1 if the A.TOC couldn't
+     *         be read.
+     */
+    public int addRpfDirectory(String rpfDir)
+            throws IOException {
+        RpfTocHandler toc = new RpfTocHandler(rpfDir, sources.size());
+        if (!toc.isValid()) {
+            return -1;
+        }
+
+        int tocNumber = addToc(rpfDir);
+        boolean verbose = Debug.debugging("maketilestore");
+
+        RpfTocEntry[] tocEntries = toc.getEntries();
+        for (int i = 0; i < toc.numBoundaries; i++) {
+            RpfTocEntry tocEntry = tocEntries[i];
+            toc.loadFrameInformation(tocEntry);
+            RpfTileStore.Entry entry = addEntry(tocNumber, createEntry(tocEntry));
+
+            if (verbose) {
+                Debug.output("MakeRpfTileStore: reading " + entry);
+            }
+
+            for (int row = 0; row < tocEntry.vertFrames; row++) {
+                for (int col = 0; col < tocEntry.horizFrames; col++) {
+                    RpfFrameEntry frameEntry = tocEntry.getFrame(row, col);
+                    if (frameEntry == null || !frameEntry.exists) {
+                        continue;
+                    }
+
+                    RpfFrame frame = new RpfFrame(frameEntry);
+                    if (!frame.isValid()) {
+                        if (verbose) {
+                            Debug.output("MakeRpfTileStore: can't read " + frameEntry.framePath);
+                        }
+                        continue;
+                    }
+
+                    int[] colors = getColors(frame.getColortable());
+                    for (int sy = 0; sy < 6; sy++) {
+                        for (int sx = 0; sx < 6; sx++) {
+                            int x = col * 6 + sx;
+                            int y = row * 6 + sy;
+                            byte[] pixels = frame.decompressSubframe(x, y);
+                            if (pixels == null) {
+                                continue;
+                            }
+                            String attributes = frame.getReport(x, y, frameEntry, tocEntry.Cib);
+                            writeTile(entry, x, y, new RpfTileStore.Tile(colors, pixels, attributes));
+                        }
+                    }
+                }
+            }
+        }
+
+        addOverviews(tocNumber);
+        return tocNumber;
+    }
+
+    /**
+     * Describe an A.TOC boundary rectangle for the store.
+     */
+    protected RpfTileStore.Entry createEntry(RpfTocEntry tocEntry) {
+        RpfTileStore.Entry entry = new RpfTileStore.Entry();
+        RpfCoverageBox coverage = tocEntry.coverage;
+
+        if (tocEntry.info == null || tocEntry.info.scale == RpfConstants.Various) {
+            entry.scale = (float) RpfTocHandler.textScaleToLong(tocEntry.scale);
+        } else {
+            entry.scale = tocEntry.info.scale;
+        }
+        if (tocEntry.info != null && tocEntry.info.seriesCode != null) {
+            entry.seriesCode = tocEntry.info.seriesCode;
+        }
+
+        entry.scaleString = trim(tocEntry.scale);
+        entry.compressionRatio = trim(tocEntry.compressionRatio);
+        entry.producer = trim(tocEntry.producer);
+        entry.zone = tocEntry.zone;
+        entry.cib = tocEntry.Cib;
+        entry.nwLat = coverage.nw_lat;
+        entry.nwLon = coverage.nw_lon;
+        entry.seLat = coverage.se_lat;
+        entry.seLon = coverage.se_lon;
+        entry.vertResolution = tocEntry.vertResolution;
+        entry.horizResolution = tocEntry.horizResolution;
+        entry.vertInterval = tocEntry.vertInterval;
+        entry.horizInterval = tocEntry.horizInterval;
+        entry.width = tocEntry.horizFrames * 6;
+        entry.height = tocEntry.vertFrames * 6;
+        return entry;
+    }
+
+    protected static String trim(String s) {
+        return s != null ? s.trim() : "";
+    }
+
+    /**
+     * @return the ARGB values of the colortable.
+     */
+    protected int[] getColors(RpfColortable colortable) {
+        Color[] colors = colortable != null ? colortable.colors : null;
+        if (colors == null) {
+            return new int[0];
+        }
+        int[] ret = new int[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            ret[i] = colors[i] != null ? colors[i].getRGB() : CLEAR;
+        }
+        return ret;
+    }
+
+    /**
+     * Make the overview levels for the base entries of an A.TOC that are
+     * already in the store.
+     */
+    public void addOverviews(int tocNumber)
+            throws IOException {
+        List<RpfTileStore.Entry> entries = tocs.get(tocNumber);
+        int numBase = entries.size();
+
+        for (int i = 0; i < numBase; i++) {
+            RpfTileStore.Entry entry = entries.get(i);
+            if (entry.level != 0) {
+                continue;
+            }
+
+            for (int level = 1; level <= maxLevels && (entry.width > 1 || entry.height > 1); level++) {
+                RpfTileStore.Entry overview = addEntry(tocNumber, entry.createOverview());
+
+                if (Debug.debugging("maketilestore")) {
+                    Debug.output("MakeRpfTileStore: creating " + overview);
+                }
+
+                RpfTileStore.Tile[] children = new RpfTileStore.Tile[4];
+                for (int y = 0; y < overview.height; y++) {
+                    for (int x = 0; x < overview.width; x++) {
+                        boolean any = false;
+                        for (int c = 0; c < 4; c++) {
+                            children[c] = readTile(entry, x * 2 + (c & 1), y * 2 + (c >> 1));
+                            any |= children[c] != null;
+                        }
+                        if (any) {
+                            RpfTileStore.Tile tile = createOverviewTile(children);
+                            tile.attributes = "<html><body><b>Overview</b> level " + overview.level + " of " + entry.seriesCode
+                                    + " " + entries.get(overview.baseEntry).scaleString + "<br><b>Subframe</b> " + x + ", " + y
+                                    + "<br></body></html>";
+                            writeTile(overview, x, y, tile);
+                        }
+                    }
+                }
+
+                entry = overview;
+            }
+        }
+    }
+
+    /**
+     * Make a subframe at half the resolution of four others. Each output pixel
+     * gets the most common color of the 2x2 block of pixels it covers, and
+     * missing subframes are left clear.
+     *
+     * @param children the northwest, northeast, southwest and southeast
+     *        subframes, any of which may be null.
+     */
+    protected RpfTileStore.Tile createOverviewTile(RpfTileStore.Tile[] children) {
+        int edge = RpfSubframe.PIXEL_EDGE_SIZE;
+        int half = edge / 2;
+        byte[] pixels = new byte[RpfTileStore.SUBFRAME_PIXELS];
+        Palette palette = new Palette();
+        int[] block = new int[4];
+
+        for (int c = 0; c < 4; c++) {
+            RpfTileStore.Tile child = children[c];
+            int xOffset = (c & 1) * half;
+            int yOffset = (c >> 1) * half;
+
+            for (int py = 0; py < half; py++) {
+                for (int px = 0; px < half; px++) {
+                    int color = CLEAR;
+                    if (child != null) {
+                        int pixel = py * 2 * edge + px * 2;
+                        block[0] = child.getRGB(pixel);
+                        block[1] = child.getRGB(pixel + 1);
+                        block[2] = child.getRGB(pixel + edge);
+                        block[3] = child.getRGB(pixel + edge + 1);
+                        color = mode(block);
+                    }
+                    pixels[(py + yOffset) * edge + px + xOffset] = (byte) palette.indexOf(color);
+                }
+            }
+        }
+
+        return new RpfTileStore.Tile(palette.getColors(), pixels, "");
+    }
+
+    /**
+     * @return the value that shows up the most in the block, the first one
+     *         for a tie.
+     */
+    protected static int mode(int[] block) {
+        int best = block[0];
+        int bestCount = 0;
+        for (int i = 0; i < block.length; i++) {
+            int count = 0;
+            for (int j = i; j < block.length; j++) {
+                if (block[j] == block[i]) {
+                    count++;
+                }
+            }
+            if (count > bestCount) {
+                best = block[i];
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The colors of an overview subframe, up to 256 of them. After that, colors
+     * get the closest one already there.
+     */
+    protected static class Palette {
+        Map<Integer, Integer> indexes = new HashMap<Integer, Integer>();
+        int[] colors = new int[256];
+        int size = 0;
+
+        int indexOf(int argb) {
+            Integer index = indexes.get(argb);
+            if (index != null) {
+                return index;
+            }
+
+            int ret;
+            if (size < colors.length) {
+                ret = size++;
+                colors[ret] = argb;
+            } else {
+                ret = closest(argb);
+            }
+            indexes.put(argb, ret);
+            return ret;
+        }
+
+        int closest(int argb) {
+            int ret = 0;
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                long d = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int diff = ((argb >>> shift) & 0xff) - ((colors[i] >>> shift) & 0xff);
+                    d += diff * diff;
+                }
+                if (d < best) {
+                    best = d;
+                    ret = i;
+                }
+            }
+            return ret;
+        }
+
+        int[] getColors() {
+            int[] ret = new int[size];
+            System.arraycopy(colors, 0, ret, 0, size);
+            return ret;
+        }
+    }
+
+    /**
+     * Write the indexes and the directory, and close the file. The store can't
+     * be read until this is done.
+     */
+    public synchronized void close()
+            throws IOException {
+        file.seek(end);
+        for (List<RpfTileStore.Entry> entries : tocs) {
+            for (RpfTileStore.Entry entry : entries) {
+                entry.indexOffset = end;
+                ByteBuffer index = ByteBuffer.allocate(entry.offsets.length * RpfTileStore.INDEX_RECORD_LENGTH);
+                for (int i = 0; i < entry.offsets.length; i++) {
+                    index.putLong(entry.offsets[i]);
+                    index.putInt(entry.lengths[i]);
+                }
+                file.write(index.array());
+                end += index.capacity();
+            }
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(tocs.size());
+        for (int i = 0; i < tocs.size(); i++) {
+            out.writeUTF(sources.get(i));
+            List<RpfTileStore.Entry> entries = tocs.get(i);
+            out.writeInt(entries.size());
+            for (RpfTileStore.Entry entry : entries) {
+                entry.write(out);
+            }
+        }
+        out.close();
+        file.write(baos.toByteArray());
+
+        file.seek(RpfTileStore.MAGIC.length());
+        file.writeLong(end);
+        file.close();
+    }
+
+    public static void main(String[] argv) {
+        Debug.init();
+
+        ArgParser ap = new ArgParser("MakeRpfTileStore");
+        ap.add("output", "Path of the tile store file to create.", 1);
+        ap.add("levels", "Maximum number of overview levels for each boundary rectangle (Default " + DEFAULT_MAX_LEVELS
+                + ")", 1);
+        ap.add("verbose", "Print out progress");
+        ap.add("paths", "Space separated paths to RPF directories, each holding an A.TOC file.  Should be last.",
+               ArgParser.TO_END);
+
+        if (!ap.parse(argv)) {
+            ap.printUsage();
+            System.exit(0);
+        }
+
+        String[] arg = ap.getArgValues("output");
+        if (arg == null) {
+            Debug.output("MakeRpfTileStore: need an output file path.");
+            ap.printUsage();
+            System.exit(0);
+        }
+        String output = arg[0];
+
+        if (ap.getArgValues("verbose") != null) {
+            Debug.put("maketilestore");
+        }
+
+        String[] paths = ap.getArgValues("paths");
+        if (paths == null) {
+            paths = ap.getRest();
+        }
+
+        if (paths == null || paths.length == 0) {
+            Debug.output("MakeRpfTileStore: need a path to at least one RPF directory.");
+            System.exit(0);
+        }
+
+        try {
+            MakeRpfTileStore mrts = new MakeRpfTileStore(output);
+
+            arg = ap.getArgValues("levels");
+            if (arg != null) {
+                mrts.setMaxLevels(Integer.parseInt(arg[0]));
+            }
+
+            for (String path : paths) {
+                if (mrts.addRpfDirectory(path) < 0) {
+                    Debug.error("MakeRpfTileStore: no valid A.TOC in " + path + ", skipping");
+                }
+            }
+            mrts.close();
+            Debug.output("MakeRpfTileStore: created " + output);
+        } catch (NumberFormatException nfe) {
+            Debug.error("MakeRpfTileStore: levels needs to be a number");
+        } catch (IOException ioe) {
+            Debug.error("MakeRpfTileStore: problem writing " + output + ": " + ioe.getMessage());
+        }
+    }
+}
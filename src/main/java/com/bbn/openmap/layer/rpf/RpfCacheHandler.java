@@ -40,6 +40,17 @@ package com.bbn.openmap.layer.rpf;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import com.bbn.openmap.omGraphics.OMGraphic;
@@ -47,21 +58,45 @@ import com.bbn.openmap.omGraphics.OMGraphicList;
 import com.bbn.openmap.omGraphics.OMRasterObject;
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.util.Debug;
+import com.bbn.openmap.util.TaskService;
 
 /**
  * The RpfCacheHandler handles everything to do with the decompressed subframes,
  * which is what gets put up on the screen. It interfaces with the
  * RpfFrameProvider to get the information about the data. It also is usually
  * handled by the RpfCacheManager.
+ * <P>
+ * Subframes that aren't in the cache are decompressed on a limited number of
+ * TaskService threads. If a SubframeListener has been set, getSubframes()
+ * returns right away with the cached subframes, and the others are added to
+ * the OMGraphicList as they are decompressed, with the listener being told
+ * about each one. Without a listener, getSubframes() waits for all of them.
+ * When the map is panned, the subframes just past the edge of the map in that
+ * direction are decompressed into the cache ahead of time.
  */
 public class RpfCacheHandler {
-    /* Lowered from 128 - used too much memory */
+    /**
+     * The number of subframes the cache used to hold. Cache sizes given as a
+     * number of subframes are converted to a memory budget with
+     * SUBFRAME_BYTES.
+     */
     public final static int SUBFRAME_CACHE_SIZE = 20;
+    /**
+     * About how much memory a cached subframe with direct colors takes up,
+     * including its image.
+     */
+    public final static long SUBFRAME_BYTES = RpfSubframe.PIXEL_EDGE_SIZE * RpfSubframe.PIXEL_EDGE_SIZE * 8;
+    /** The default memory budget for the subframe cache, 64MB. */
+    public final static long DEFAULT_CACHE_BYTES = 64L * 1024L * 1024L;
     /* # CHUM descriptor string */
     public final static int MAX_NUM_DESC = 20;
     /* # CHUM descriptor string */
     public final static int MAX_DESC_LEN = 512;
-    public static final int DEFAULT_SUBFRAMEBUFFER = 5;
+    /**
+     * The default number of rows or columns of subframes past the edge of the
+     * map to decompress ahead of a pan.
+     */
+    public static final int DEFAULT_PREFETCH_DEPTH = 2;
 
     /* DKS fix chum description problem : */
     /** subframe status constant. */
@@ -73,23 +108,14 @@ public class RpfCacheHandler {
     protected int scalingHeight = RpfSubframe.PIXEL_EDGE_SIZE;
     /** Subframe scaling for map scales that don't match chart scale. */
     protected int scalingWidth = RpfSubframe.PIXEL_EDGE_SIZE;
-    /** The subframe cache. */
-    protected SubframeCache cache;
+    /** The subframe cache, null if there isn't one. */
+    protected volatile SubframeCache cache;
     /**
      * The current description of the TOC entry that currently applies.
      */
     protected Vector<RpfCoverageBox> coverageBoxes;
-    /**
-     * The array of indexes for subframes contained in the RpfTocEntry.
-     */
-    protected byte[][] subframeIndex;
-    /**
-     * The array of version markers for subframes contained in the RpfTocEntry.
-     */
-    protected byte[][] subframeVersion;
-
-    /** The size of the subframe cache. */
-    protected int subframeCacheSize = SUBFRAME_CACHE_SIZE;
+    /** The memory budget of the subframe cache, in bytes. */
+    protected long cacheBytes = DEFAULT_CACHE_BYTES;
     /**
      * Description of how the frames should be constructed and displayed.
      */
@@ -105,15 +131,53 @@ public class RpfCacheHandler {
      * map make sense.
      */
     protected boolean goodData = false;
+
+    /**
+     * The subframe indexes and coverage box of the last map, used to figure
+     * out which way the map is being panned.
+     */
+    protected Point lastStart;
+    protected Point lastEnd;
+    protected String lastBoxID;
+    /**
+     * Which way the map moved since the last call to setCache(), -1, 0 or 1 in
+     * each direction, in subframe index space.
+     */
+    protected Point panDirection = new Point();
+    /**
+     * The number of rows or columns of subframes to prefetch past the edge of
+     * the map in the direction it's being panned. 0 turns prefetching off.
+     */
+    protected int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+    /**
+     * The most TaskService threads used to decompress subframes at the same
+     * time. A caller waiting in getSubframes() decompresses its own subframes
+     * too.
+     */
+    protected int maxDecodeThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
     /**
-     * The subframe cache is mapped by a 2D matrix based on the number of
-     * subframes that will fit in the RpfCoverageBox area. The subframeBuffer is
-     * used to put additional subframe entries in the matrix, so that subframes
-     * retrieved outside of the RpfCoverageBox area can still be cached. The
-     * subframeBuffer refers to the number of subframes added on each side of
-     * the matrix.
+     * Told about subframes added to a list after getSubframes() returns. If
+     * null, getSubframes() waits for all of the subframes.
      */
-    protected int subframeBuffer = DEFAULT_SUBFRAMEBUFFER;
+    protected SubframeListener listener;
+
+    /** Guards the load queues, the loads and inFlight. */
+    protected final Object loadLock = new Object();
+    /** Subframes waiting to be decompressed for the map. */
+    protected final LinkedList<Load> visibleQueue = new LinkedList<Load>();
+    /** Subframes waiting to be decompressed into the cache ahead of a pan. */
+    protected final LinkedList<Load> prefetchQueue = new LinkedList<Load>();
+    /** The queued and running loads, by cache key. */
+    protected final Map<Long, Load> loads = new HashMap<Long, Load>();
+    /** The number of decode tasks spawned, queued or running. */
+    protected int inFlight = 0;
+    /** The number of decode tasks spawned that haven't started yet. */
+    protected int idleDecoders = 0;
+    /**
+     * Changed when the cache is cleared, so loads running at the time don't
+     * put their subframes in it.
+     */
+    protected volatile int cacheEpoch = 0;
 
     /**
      * Used in setCache to see if new coverage is needed with a projection
@@ -124,13 +188,208 @@ public class RpfCacheHandler {
     protected boolean DEBUG_RPF = false;
     protected boolean DEBUG_RPFDETAIL = false;
 
-    /** The entire subframe cache */
+    /**
+     * Told when a subframe image has been added to the OMGraphicList given to
+     * getSubframes(), after getSubframes() has returned. Called on the thread
+     * that decompressed the subframe.
+     */
+    public interface SubframeListener {
+        /**
+         * @param list the OMGraphicList given to getSubframes().
+         * @param image the subframe image added to the list.
+         */
+        void subframeAdded(OMGraphicList list, OMGraphic image);
+    }
+
+    /**
+     * The subframe cache, holding the most recently used subframes up to a
+     * memory budget. It also remembers the subframes the frame provider doesn't
+     * have, so they aren't asked for again. Safe to use from several threads.
+     */
     static public class SubframeCache {
-        RpfSubframe[] subframe;
-        int LRU_head, LRU_tail;
+        /** The number of missing subframes remembered before starting over. */
+        public final static int MAX_MISSING = 100000;
+
+        protected final LinkedHashMap<Long, Entry> subframes = new LinkedHashMap<Long, Entry>(64, .75f, true);
+        protected final Set<Long> missing = new HashSet<Long>();
+        protected long maxBytes;
+        protected long bytes = 0;
+
+        protected static class Entry {
+            final RpfSubframe subframe;
+            final int size;
+
+            Entry(RpfSubframe subframe) {
+                this.subframe = subframe;
+                this.size = subframe.getByteSize();
+            }
+        }
+
+        public SubframeCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * Get a subframe, marking it as recently used.
+         * 
+         * @return the subframe, or null if it isn't cached.
+         */
+        public synchronized RpfSubframe get(long key) {
+            Entry entry = subframes.get(key);
+            return entry != null ? entry.subframe : null;
+        }
+
+        /**
+         * @return true if the subframe is cached, without marking it as used.
+         */
+        public synchronized boolean contains(long key) {
+            return subframes.containsKey(key);
+        }
+
+        /**
+         * Add a subframe, dropping the least recently used ones until the
+         * cache is back under its budget. The new subframe is always kept.
+         */
+        public synchronized void put(long key, RpfSubframe subframe) {
+            Entry entry = new Entry(subframe);
+            Entry old = subframes.put(key, entry);
+            if (old != null) {
+                bytes -= old.size;
+            }
+            bytes += entry.size;
+            missing.remove(key);
+            trim();
+        }
+
+        protected void trim() {
+            Iterator<Entry> it = subframes.values().iterator();
+            while (bytes > maxBytes && subframes.size() > 1 && it.hasNext()) {
+                bytes -= it.next().size;
+                it.remove();
+            }
+        }
+
+        /**
+         * @return true if the frame provider didn't have the subframe.
+         */
+        public synchronized boolean isMissing(long key) {
+            return missing.contains(key);
+        }
+
+        /**
+         * Remember that the frame provider doesn't have the subframe.
+         */
+        public synchronized void setMissing(long key) {
+            if (missing.size() >= MAX_MISSING) {
+                missing.clear();
+            }
+            missing.add(key);
+        }
+
+        public synchronized void clear() {
+            subframes.clear();
+            missing.clear();
+            bytes = 0;
+        }
+
+        /**
+         * @return the number of cached subframes.
+         */
+        public synchronized int size() {
+            return subframes.size();
+        }
+
+        /**
+         * @return about how much memory the cached subframes are using.
+         */
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        public synchronized long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public synchronized void setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            trim();
+        }
+    }
+
+    /**
+     * The subframes being loaded for one call to getSubframes(). The coverage
+     * boxes and their start indexes are copied, so later calls to setCache()
+     * don't change them while the subframes are loading.
+     */
+    protected static class Request {
+        final OMGraphicList list;
+        final Projection proj;
+        final Vector<RpfCoverageBox> boxes;
+        final Point[] starts;
+        final boolean showInfo;
+        final SubframeListener listener;
+        int pending = 0;
+
+        Request(OMGraphicList list, Projection proj, Vector<RpfCoverageBox> boxes, boolean showInfo,
+                SubframeListener listener) {
+            this.list = list;
+            this.proj = proj;
+            this.boxes = new Vector<RpfCoverageBox>(boxes);
+            this.starts = getStarts(boxes);
+            this.showInfo = showInfo;
+            this.listener = listener;
+        }
+
+        /**
+         * @return true if getSubframes() is waiting for this request.
+         */
+        boolean isWaiting() {
+            return listener == null;
+        }
+
+        synchronized void setPending(int pending) {
+            this.pending = pending;
+            notifyAll();
+        }
+
+        synchronized void loadDone() {
+            pending--;
+            if (pending <= 0) {
+                notifyAll();
+            }
+        }
+
+        synchronized void await() {
+            try {
+                while (pending > 0) {
+                    wait();
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
-        public SubframeCache(int numSubframes) {
-            subframe = new RpfSubframe[numSubframes];
+    /**
+     * A subframe from the first coverage box that needs to be decompressed,
+     * along with the requests waiting for it.
+     */
+    protected static class Load {
+        final long key;
+        final RpfCoverageBox box;
+        final int x;
+        final int y;
+        final List<Request> requests = new ArrayList<Request>(1);
+        boolean prefetch;
+        boolean started = false;
+        int epoch;
+
+        Load(RpfCoverageBox box, int x, int y, boolean prefetch) {
+            this.key = getKey(box, x, y);
+            this.box = box;
+            this.x = x;
+            this.y = y;
+            this.prefetch = prefetch;
         }
     }
 
@@ -138,13 +397,27 @@ public class RpfCacheHandler {
      * Constructor for a main cache, with the full size cache.
      */
     public RpfCacheHandler(RpfFrameProvider provider, RpfViewAttributes rva) {
-        this(provider, rva, SUBFRAME_CACHE_SIZE);
+        this(provider, rva, DEFAULT_CACHE_BYTES);
     }
 
     /**
      * Constructor for an auxiliary cache, with a settable cache size.
+     * 
+     * @param subframe_cache_size the number of subframes to make room for,
+     *        turned into a memory budget with SUBFRAME_BYTES. If negative, the
+     *        default budget is used.
      */
     public RpfCacheHandler(RpfFrameProvider provider, RpfViewAttributes rva, int subframe_cache_size) {
+        this(provider, rva, subframe_cache_size >= 0 ? subframe_cache_size * SUBFRAME_BYTES : DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Constructor with a memory budget for the subframe cache.
+     * 
+     * @param cacheBytes about how much memory the cached subframes can use. 0
+     *        means no caching.
+     */
+    public RpfCacheHandler(RpfFrameProvider provider, RpfViewAttributes rva, long cacheBytes) {
         DEBUG_RPF = Debug.debugging("rpf");
         DEBUG_RPFDETAIL = Debug.debugging("rpfdetail");
 
@@ -152,18 +425,11 @@ public class RpfCacheHandler {
         viewAttributes = rva;
         updateViewAttributes();
 
-        if (subframe_cache_size > Byte.MAX_VALUE) {
-            subframeCacheSize = Byte.MAX_VALUE;
-        } else if (subframe_cache_size >= 0) {
-            subframeCacheSize = subframe_cache_size;
-        }
-
-        initCache(true); // subframe cache, and it's new
+        setCacheBytes(cacheBytes);
 
         if (DEBUG_RPF) {
-            Debug.output("RpfCacheHandler: Created with cache size of " + subframeCacheSize);
+            Debug.output("RpfCacheHandler: Created with cache size of " + this.cacheBytes + " bytes");
         }
-
     }
 
     // public void finalize() {
@@ -237,11 +503,70 @@ public class RpfCacheHandler {
         return coverageBoxes;
     }
 
+    /**
+     * Set the listener told about subframes added to a list after
+     * getSubframes() returns. If null, getSubframes() waits until all the
+     * subframes are on the list.
+     */
+    public void setSubframeListener(SubframeListener listener) {
+        this.listener = listener;
+    }
+
+    public SubframeListener getSubframeListener() {
+        return listener;
+    }
+
+    /**
+     * Set the most subframes that get decompressed at the same time.
+     */
+    public void setMaxDecodeThreads(int maxDecodeThreads) {
+        synchronized (loadLock) {
+            this.maxDecodeThreads = Math.max(1, maxDecodeThreads);
+            startWaiting();
+        }
+    }
+
+    public int getMaxDecodeThreads() {
+        return maxDecodeThreads;
+    }
+
+    /**
+     * Set the number of rows or columns of subframes to decompress past the
+     * edge of the map in the direction it's being panned. 0 turns prefetching
+     * off.
+     */
+    public void setPrefetchDepth(int prefetchDepth) {
+        this.prefetchDepth = Math.max(0, prefetchDepth);
+    }
+
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Set about how much memory the cached subframes can use. The least
+     * recently used subframes are dropped if they use more than that now. 0
+     * means no caching.
+     */
+    public synchronized void setCacheBytes(long bytes) {
+        cacheBytes = Math.max(0, bytes);
+        if (cacheBytes == 0) {
+            cache = null;
+        } else if (cache == null) {
+            cache = new SubframeCache(cacheBytes);
+        } else {
+            cache.setMaxBytes(cacheBytes);
+        }
+    }
+
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
     /**
      * Called to prepare the cache for subframes that will fit into the next
-     * request. The subframe entry from the TOC is known and tracked, and if it
-     * changes, the frame cache gets tossed and recreated via
-     * setScreenSubframes.
+     * request. Cached subframes are kept by TOC entry, so they are still good
+     * when the coverage changes.
      * 
      * @param ullat NW latitude.
      * @param ullon NW longitude.
@@ -252,7 +577,6 @@ public class RpfCacheHandler {
     public synchronized void setCache(float ullat, float ullon, float lrlat, float lrlon, Projection proj) {
 
         boolean needNewCoverage = true;
-        String oldID = null;
         RpfCoverageBox currentBox = null;
         int i;
 
@@ -308,6 +632,7 @@ public class RpfCacheHandler {
             if (coverageBoxes == null || coverageBoxes.isEmpty()) {
                 // Guess not.
                 goodData = false;
+                lastStart = null;
                 return;
             }
 
@@ -318,14 +643,10 @@ public class RpfCacheHandler {
             // supposed to have the best coverage.
             currentBox = coverageBoxes.elementAt(0);
 
-            if (!currentBox.getID().equals(oldID)) {
-                resetSubframeIndex(currentBox.verticalSubframes(), currentBox.horizontalSubframes());
-                initCache(false);
-            }
-
             start = currentBox.startIndexes;
             end = currentBox.endIndexes;
             goodData = true;
+            updatePanDirection(currentBox);
         }
 
         // Set the backup indexes, just in case.
@@ -338,6 +659,7 @@ public class RpfCacheHandler {
             Debug.output("" + currentBox);
             Debug.output(" Starting point " + start);
             Debug.output(" Ending point " + end);
+            Debug.output(" Pan direction " + panDirection);
         }
 
         // Figure out how much to scale the cached images. This would
@@ -364,235 +686,458 @@ public class RpfCacheHandler {
 
     }
 
+    /**
+     * Figure out which way the map moved since the last call, if it's still
+     * showing the same coverage box. Each side of the map has to move the same
+     * way, so zooming doesn't count.
+     */
+    protected void updatePanDirection(RpfCoverageBox currentBox) {
+        panDirection.setLocation(0, 0);
+        if (lastStart != null && currentBox.getID().equals(lastBoxID)) {
+            int dsx = start.x - lastStart.x;
+            int dex = end.x - lastEnd.x;
+            int dsy = start.y - lastStart.y;
+            int dey = end.y - lastEnd.y;
+            if (dsx * dex >= 0) {
+                panDirection.x = Integer.signum(dsx + dex);
+            }
+            if (dsy * dey >= 0) {
+                panDirection.y = Integer.signum(dsy + dey);
+            }
+        }
+        lastStart = new Point(start);
+        lastEnd = new Point(end);
+        lastBoxID = currentBox.getID();
+    }
+
+    /**
+     * Add the subframe images for an area to a list. Cached subframes are
+     * added right away, the others are decompressed on other threads. If there
+     * is a SubframeListener, this returns without waiting for them, and they
+     * are added to the list as they are ready. Otherwise the calling thread
+     * decompresses the subframes no other thread has started, and then waits
+     * for the rest. Subframes off the edge of the
+     * map in the direction it's being panned are decompressed into the cache
+     * after the ones on the map.
+     */
     protected OMGraphicList getSubframes(float ullat, float ullon, float lrlat, float lrlon, Projection proj,
                                          OMGraphicList omGraphics) {
-        setCache(ullat, ullon, lrlat, lrlon, proj);
-
-        int subframeRunningCount = 0;
-
         if (omGraphics == null) {
             omGraphics = new OMGraphicList();
         }
 
-        for (int subx = start.x; subx <= end.x; subx++) {
-            for (int suby = start.y; suby <= end.y; suby++) {
+        Request request;
+        Point first;
+        Point last;
+        Point direction;
+        synchronized (this) {
+            setCache(ullat, ullon, lrlat, lrlon, proj);
+
+            if (!goodData || coverageBoxes == null || coverageBoxes.isEmpty()) {
+                schedule(null, Collections.<Load> emptyList(), Collections.<Load> emptyList());
+                return omGraphics;
+            }
 
-                // /////
-                RpfSubframe subframe = getCached(subx, suby, subframeRunningCount);
-                // /////
+            request = new Request(omGraphics, proj, coverageBoxes, getViewAttributes().showInfo, listener);
+            first = new Point(start);
+            last = new Point(end);
+            direction = new Point(panDirection);
+        }
 
-                if (subframe == null) {
-                    if (Debug.debugging("rpf")) {
-                        Debug.output("RpfCacheManager: checking other TOCs for subframe.");
-                    }
-                    subframe = getSubframeFromOtherTOC(subx, suby, subframeRunningCount);
-                }
+        RpfCoverageBox box = request.boxes.elementAt(0);
+        List<Load> needed = new ArrayList<Load>();
 
+        for (int subx = first.x; subx <= last.x; subx++) {
+            for (int suby = first.y; suby <= last.y; suby++) {
+                RpfSubframe subframe = getCachedSubframe(box, subx, suby);
                 if (subframe != null) {
-                    OMGraphic image = subframe.getImage(proj);
-                    if (image != null) {
-                        image.setSelected(viewAttributes.showInfo);
-                        omGraphics.add(image);
-
-                        if (Debug.debugging("rpf")) {
-                            Debug.output("RpfCacheManager: Adding subframe " + subx + ", " + suby);
-                        }
+                    addImage(request, subframe);
+                    if (DEBUG_RPF) {
+                        Debug.output("RpfCacheHandler: Adding cached subframe " + subx + ", " + suby);
                     }
                 } else {
-                    if (Debug.debugging("rpf")) {
-                        Debug.output("RpfCacheManager: subframe " + subx + ", " + suby + " empty");
-                    }
+                    needed.add(new Load(box, subx, suby, false));
+                }
+            }
+        }
+
+        // Each frame file holds 6x6 subframes, and the frame cache only holds
+        // a few frames, so do them frame by frame.
+        Collections.sort(needed, new Comparator<Load>() {
+            public int compare(Load l1, Load l2) {
+                int c = compareInts(l1.x / 6, l2.x / 6);
+                if (c == 0) {
+                    c = compareInts(l1.y / 6, l2.y / 6);
                 }
+                if (c == 0) {
+                    c = compareInts(l1.x, l2.x);
+                }
+                return c != 0 ? c : compareInts(l1.y, l2.y);
+            }
+        });
+
+        schedule(request, needed, getPrefetchLoads(box, first, last, direction));
 
-                subframeRunningCount++;
+        if (request.isWaiting()) {
+            // The caller is usually a layer worker on a TaskService thread, so
+            // it can't wait for decode tasks that may be queued behind it.
+            while (true) {
+                Load load;
+                synchronized (loadLock) {
+                    load = takeLoad(request);
+                }
+                if (load == null) {
+                    break;
+                }
+                runLoad(load);
             }
+            request.await();
         }
 
         return omGraphics;
     }
 
+    protected static int compareInts(int i1, int i2) {
+        return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+    }
+
     /**
-     * Resets the indicators in the subframe cache, so that none of the current
-     * contents will be used - they'll have to be loaded with data first. The
-     * cache management is also set for the current main RpfCoverageBox.
+     * Create the cache key for a subframe, from the TOC and entry numbers of
+     * its coverage box and its indexes in the box.
      */
-    protected void resetSubframeIndex(int vertFrames, int horizFrames) {
-
-        if (subframeCacheSize > 0) {
-            /* Allocate the indices into the subframe cache */
-            int matrixheight = (vertFrames * 6) + (subframeBuffer * 2);
-            int matrixwidth = (horizFrames * 6) + (subframeBuffer * 2);
-
-            subframeIndex = new byte[matrixheight][matrixwidth];
-            subframeVersion = new byte[matrixheight][matrixwidth];
-            clearCache();
-        } else {
-            subframeIndex = null;
-            subframeVersion = null;
-        }
+    protected static long getKey(RpfCoverageBox box, int x, int y) {
+        return ((long) (box.tocNumber & 0xFF) << 56) | ((long) (box.entryNumber & 0xFFFF) << 40)
+                | ((long) (y & 0xFFFFF) << 20) | (x & 0xFFFFF);
     }
 
     /**
-     * Clear the subframes in the cache, marking them as NOT_CACHED.
+     * Copy the start indexes of the coverage boxes.
      */
-    public void clearCache() {
-        if (subframeIndex != null && subframeVersion != null) {
-            /* Initialize the subframe indices */
-            for (int i = 0; i < subframeIndex.length; i++) {
-                for (int j = 0; j < subframeIndex[0].length; j++) {
-                    subframeIndex[i][j] = NOT_CACHED;
-                    subframeVersion[i][j] = -1;
-                }
-            }
+    protected static Point[] getStarts(Vector<RpfCoverageBox> boxes) {
+        Point[] starts = new Point[boxes.size()];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = new Point(boxes.elementAt(i).startIndexes);
         }
-
-        // TODO see if this makes a difference
-        initCache(false);
+        return starts;
     }
 
     /**
-     * Return true if the cache handler knows about good data in the current
-     * situation.
+     * Add a subframe image to the list of a request.
+     * 
+     * @return the image, or null if the subframe didn't have one.
      */
-    public boolean getGoodData() {
-        return goodData;
+    protected OMGraphic addImage(Request request, RpfSubframe subframe) {
+        OMGraphic image = subframe.getImage(request.proj);
+        if (image != null) {
+            image.setSelected(request.showInfo);
+            request.list.add(image);
+        }
+        return image;
     }
 
-    // /////////////////////////////////////////////////////////
-    // SUBFRAME CACHE HANDLING
-    // /////////////////////////////////////////////////////////
-
-    protected void initCache(boolean newCache) {
-        int i;
-
-        // Don't have a cache.
-        if (subframeCacheSize <= 0) {
-            cache = null;
-            return;
+    /**
+     * Get the subframes off the edge of the map in the direction it's being
+     * panned that aren't cached yet, closest first. No more are asked for than
+     * will fit in the cache along with the subframes on the map.
+     */
+    protected List<Load> getPrefetchLoads(RpfCoverageBox box, Point first, Point last, Point direction) {
+        List<Load> ret = new ArrayList<Load>();
+        SubframeCache c = cache;
+        if (c == null || prefetchDepth <= 0 || (direction.x == 0 && direction.y == 0)) {
+            return ret;
         }
 
-        if (newCache || cache == null) {
-            cache = new SubframeCache(subframeCacheSize);
+        long room = c.getMaxBytes() / SUBFRAME_BYTES - (long) (last.x - first.x + 1) * (last.y - first.y + 1);
+        if (room <= 0) {
+            return ret;
         }
 
-        cache.LRU_head = 0;
-        cache.LRU_tail = subframeCacheSize - 1;
+        int minX = first.x - (direction.x < 0 ? prefetchDepth : 0);
+        int maxX = last.x + (direction.x > 0 ? prefetchDepth : 0);
+        int minY = first.y - (direction.y < 0 ? prefetchDepth : 0);
+        int maxY = last.y + (direction.y > 0 ? prefetchDepth : 0);
+        minX = Math.max(0, minX);
+        minY = Math.max(0, minY);
+        maxX = Math.min(box.horizontalSubframes() - 1, maxX);
+        maxY = Math.min(box.verticalSubframes() - 1, maxY);
+
+        final Map<Load, Integer> distances = new HashMap<Load, Integer>();
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                int dx = Math.max(0, Math.max(first.x - x, x - last.x));
+                int dy = Math.max(0, Math.max(first.y - y, y - last.y));
+                if (dx == 0 && dy == 0) {
+                    continue;
+                }
+                Load load = new Load(box, x, y, true);
+                if (!c.contains(load.key) && !c.isMissing(load.key)) {
+                    distances.put(load, Math.max(dx, dy));
+                    ret.add(load);
+                }
+            }
+        }
 
-        for (i = 0; i < subframeCacheSize; i++) {
-            if (newCache) {
-                try {
-                    cache.subframe[i] = new RpfSubframe();
-                } catch (java.lang.OutOfMemoryError oome) {
-                    Debug.error("RpfCacheHandler: \n\tRan out of memory allocating the image cache.\tConsider increasing the java memory heap using the -Xmx option.");
+        Collections.sort(ret, new Comparator<Load>() {
+            public int compare(Load l1, Load l2) {
+                return compareInts(distances.get(l1), distances.get(l2));
+            }
+        });
 
-                    cache = null;
+        while (ret.size() > room) {
+            ret.remove(ret.size() - 1);
+        }
+        return ret;
+    }
 
-                    subframeCacheSize = i;
-                    if (DEBUG_RPF) {
-                        Debug.output("RpfCacheHandler: resetting cache size to " + subframeCacheSize);
+    /**
+     * Queue up the loads for a request and the prefetch loads, replacing the
+     * queued loads of earlier requests that aren't waited on. Loads already
+     * running for a subframe are shared.
+     * 
+     * @param request the request, may be null if only the queue should be
+     *        cleaned out.
+     */
+    protected void schedule(Request request, List<Load> needed, List<Load> prefetch) {
+        synchronized (loadLock) {
+            dropQueued(visibleQueue);
+            dropQueued(prefetchQueue);
+
+            for (Load load : needed) {
+                Load existing = loads.get(load.key);
+                if (existing == null) {
+                    loads.put(load.key, load);
+                    visibleQueue.add(load);
+                    existing = load;
+                } else if (!existing.started) {
+                    if (existing.prefetch) {
+                        prefetchQueue.remove(existing);
+                        visibleQueue.add(existing);
                     }
-                    initCache(true);
-                    return;
+                    existing.prefetch = false;
                 }
+                existing.requests.add(request);
             }
 
-            RpfSubframe subframe = cache.subframe[i];
-            subframe.version = 0;
+            if (request != null) {
+                request.setPending(needed.size());
+            }
 
-            // Here's where I messed up - forgot to hook up the ends
-            // of the chain...
-            if (i < subframeCacheSize - 1) {
-                subframe.nextSubframe = i + 1;
-            } else {
-                subframe.nextSubframe = 0;
+            for (Load load : prefetch) {
+                if (!loads.containsKey(load.key)) {
+                    loads.put(load.key, load);
+                    prefetchQueue.add(load);
+                }
             }
-            if (i > 0) {
-                subframe.prevSubframe = i - 1;
-            } else {
-                subframe.prevSubframe = subframeCacheSize - 1;
+
+            startWaiting();
+        }
+    }
+
+    /**
+     * Drop the queued loads nobody is waiting on. Called with the loadLock.
+     */
+    protected void dropQueued(LinkedList<Load> queue) {
+        for (Iterator<Load> it = queue.iterator(); it.hasNext();) {
+            Load load = it.next();
+            boolean waited = false;
+            for (Request request : load.requests) {
+                waited |= request.isWaiting();
+            }
+            if (!waited) {
+                it.remove();
+                loads.remove(load.key);
+                for (Request request : load.requests) {
+                    request.loadDone();
+                }
             }
         }
     }
 
     /**
-     * Get the index of the least recently used entry from the subframe cache.
+     * Spawn decode tasks for the queued loads, while there are decode threads
+     * free. Each task takes loads off the queues when it runs, so a load that
+     * hasn't started is always in a queue, where a waiting caller can take it.
+     * Called with the loadLock.
      */
-    protected int getLRU() {
-        if (cache != null) {
-            return cache.LRU_tail;
-        } else {
-            return NOT_CACHED;
+    protected void startWaiting() {
+        int queued = visibleQueue.size() + prefetchQueue.size();
+        while (inFlight < maxDecodeThreads && idleDecoders < queued) {
+            inFlight++;
+            idleDecoders++;
+            TaskService.singleton().spawn(new Runnable() {
+                public void run() {
+                    decode();
+                }
+            }, !visibleQueue.isEmpty() ? TaskService.NORM_PRIORITY : TaskService.MIN_PRIORITY);
         }
     }
 
-    protected void freeCache(int index) {
+    /**
+     * Take the next load off the queues, the ones for the map first. Called
+     * with the loadLock.
+     * 
+     * @param request if not null, only a load for the map this request is
+     *        waiting for is taken.
+     * @return the load, marked as started, or null if there isn't one.
+     */
+    protected Load takeLoad(Request request) {
+        Load load = null;
+        if (request == null) {
+            load = !visibleQueue.isEmpty() ? visibleQueue.removeFirst() : prefetchQueue.pollFirst();
+        } else {
+            for (Iterator<Load> it = visibleQueue.iterator(); it.hasNext();) {
+                Load l = it.next();
+                if (l.requests.contains(request)) {
+                    it.remove();
+                    load = l;
+                    break;
+                }
+            }
+        }
+
+        if (load != null) {
+            load.started = true;
+            load.epoch = cacheEpoch;
+        }
+        return load;
+    }
 
-        if (cache == null) {
-            return;
+    /**
+     * Run queued loads until there aren't any left. Runs on a TaskService
+     * thread.
+     */
+    protected void decode() {
+        synchronized (loadLock) {
+            idleDecoders--;
+        }
+        while (true) {
+            Load load;
+            synchronized (loadLock) {
+                load = takeLoad(null);
+                if (load == null) {
+                    inFlight--;
+                    return;
+                }
+            }
+            runLoad(load);
         }
+    }
 
-        if (index == cache.LRU_tail) {
-            return;
-        } else if (index == cache.LRU_head) {
-            cache.LRU_head = cache.subframe[cache.LRU_head].nextSubframe;
-        } else {
-            int next = cache.subframe[index].nextSubframe;
-            int prev = cache.subframe[index].prevSubframe;
+    /**
+     * Decompress a subframe and hand it to the requests waiting for it. If the
+     * first coverage box doesn't have it, each request checks its other
+     * coverage boxes.
+     */
+    protected void runLoad(Load load) {
+        RpfSubframe subframe = null;
+        try {
+            subframe = loadSubframe(load);
+        } catch (RuntimeException re) {
+            Debug.error("RpfCacheHandler: problem loading subframe " + load.x + ", " + load.y + ": " + re.getMessage());
+        } catch (OutOfMemoryError oome) {
+            Debug.error("RpfCacheHandler: Out of memory!  No subframe for you!  Next up!");
+        }
 
-            cache.subframe[next].prevSubframe = prev;
-            cache.subframe[prev].nextSubframe = next;
+        List<Request> requests;
+        synchronized (loadLock) {
+            if (loads.get(load.key) == load) {
+                loads.remove(load.key);
+            }
+            requests = new ArrayList<Request>(load.requests);
         }
 
-        cache.subframe[cache.LRU_tail].nextSubframe = index;
-        cache.subframe[index].prevSubframe = cache.LRU_tail;
-        cache.LRU_tail = index;
+        for (Request request : requests) {
+            try {
+                RpfSubframe sf = subframe;
+                if (sf == null) {
+                    if (DEBUG_RPF) {
+                        Debug.output("RpfCacheHandler: checking other TOCs for subframe.");
+                    }
+                    sf = getSubframeFromOtherTOC(request.boxes, request.starts, load.x, load.y);
+                }
+                if (sf != null) {
+                    OMGraphic image = addImage(request, sf);
+                    if (image != null && request.listener != null) {
+                        request.listener.subframeAdded(request.list, image);
+                    }
+                } else if (DEBUG_RPF) {
+                    Debug.output("RpfCacheHandler: subframe " + load.x + ", " + load.y + " empty");
+                }
+            } catch (RuntimeException re) {
+                Debug.error("RpfCacheHandler: problem adding subframe " + load.x + ", " + load.y + ": "
+                        + re.getMessage());
+            } catch (OutOfMemoryError oome) {
+                Debug.error("RpfCacheHandler: Out of memory!  No subframe for you!  Next up!");
+            } finally {
+                request.loadDone();
+            }
+        }
     }
 
     /**
-     * Mark a cache entry as being recently used.
+     * Decompress a subframe from the first coverage box, caching it.
+     * 
+     * @return the subframe, or null if the frame provider doesn't have it.
      */
-    protected void referenceCache(int index) {
-        if (cache == null) {
-            return;
+    protected RpfSubframe loadSubframe(Load load) {
+        SubframeCache c = cache;
+        if (c != null && c.isMissing(load.key)) {
+            return null;
         }
 
-        /* First unlink the cache entry from the list */
-        if (index == cache.LRU_head) {
-            return;
-        } else if (index == cache.LRU_tail) {
-            cache.LRU_tail = cache.subframe[cache.LRU_tail].prevSubframe;
-        } else {
-            int next = cache.subframe[index].nextSubframe;
-            int prev = cache.subframe[index].prevSubframe;
+        RpfSubframe subframe = new RpfSubframe();
+        if (loadSubframe(subframe, load.box, load.x, load.y)) {
+            if (c != null && load.epoch == cacheEpoch) {
+                c.put(load.key, subframe);
+            }
+            return subframe;
+        }
 
-            cache.subframe[next].prevSubframe = prev;
-            cache.subframe[prev].nextSubframe = next;
+        if (c != null && load.epoch == cacheEpoch) {
+            c.setMissing(load.key);
         }
+        return null;
+    }
+
+    /**
+     * Clear the subframes in the cache. Subframes being decompressed right now
+     * won't be added to it.
+     */
+    public void clearCache() {
+        cacheEpoch++;
+        SubframeCache c = cache;
+        if (c != null) {
+            c.clear();
+        }
+    }
 
-        /* Now add the entry as the most recently referenced */
-        cache.subframe[cache.LRU_head].prevSubframe = index;
-        cache.subframe[index].nextSubframe = cache.LRU_head;
-        cache.LRU_head = index;
+    /**
+     * Return true if the cache handler knows about good data in the current
+     * situation.
+     */
+    public boolean getGoodData() {
+        return goodData;
     }
 
     /**
-     * Find out the size of the subframe cache. From the start and end indexes,
-     * you can figure out the number of subframes the map needs. If that number
-     * is bigger than this cache size, you'll need to use the getCached that
-     * lets you supply the subframe number that you are requesting, so that the
-     * RpfCacheHandler knows when to stop caching subframes during a retrival..
-     * Otherwise, the cache will overwrite data and subframes will not show up
-     * on the map.
+     * Find out about how many subframes fit in the subframe cache.
      */
     public int getCacheSize() {
-        return subframeCacheSize;
+        return (int) Math.min(Integer.MAX_VALUE, cacheBytes / SUBFRAME_BYTES);
     }
 
     /**
-     * Get a subframe from one of the other RpfCoverageBoxes. Keep going through
-     * them until there is a subframe returned, or if there's nothing. Use this
-     * method when you are sure that the subframe cache is big enough to handle
-     * all the subframes on the map.
+     * @return the number of subframes being decompressed or waiting to be.
+     */
+    public int getPendingLoads() {
+        synchronized (loadLock) {
+            return loads.size();
+        }
+    }
+
+    /**
+     * Get a subframe from one of the other RpfCoverageBoxes of the last
+     * setCache() call.
      * 
      * @param x the x index of subframe in the FIRST RpfCoverageBox space -
      *        translation needed.
@@ -600,249 +1145,133 @@ public class RpfCacheHandler {
      *        translation needed.
      */
     protected RpfSubframe getSubframeFromOtherTOC(int x, int y) {
-        return getSubframeFromOtherTOC(x, y, -1);
+        Vector<RpfCoverageBox> boxes = coverageBoxes;
+        if (boxes == null) {
+            return null;
+        }
+        return getSubframeFromOtherTOC(boxes, getStarts(boxes), x, y);
+    }
+
+    /**
+     * Get a subframe from one of the other RpfCoverageBoxes. The subframe count
+     * isn't needed anymore, since subframes handed out stay good after they
+     * are pushed out of the cache.
+     */
+    protected RpfSubframe getSubframeFromOtherTOC(int x, int y, int subframeCount) {
+        return getSubframeFromOtherTOC(x, y);
     }
 
     /**
      * Get a subframe from one of the other RpfCoverageBoxes. Keep going through
-     * them until there is a subframe returned, or if there nothing. If you are
-     * not sure that the number of subframes that go on the map is less than or
-     * equal to the size of the subframe cache, then use this method to provide
-     * a running count of how many subframes you've already called for to use in
-     * the current map. If this number gets bigger than the cache size, then the
-     * RpfCacheHandler will keep fetching data without storing the extra
-     * subframes in the cache. Otherwise, the previous images in the cache would
-     * be replaced before they were painted, and they would not appear on the
-     * map. If subframeCount is less than subframe size, then the latest
-     * retrieved subframe will be stored in the cache.
+     * them until there is a subframe returned, or if there's nothing.
      * 
+     * @param boxes the coverage boxes, the first one is skipped.
+     * @param starts the start indexes of the coverage boxes for the map.
      * @param x the x index of subframe in the FIRST RpfCoverageBox space -
      *        translation needed.
      * @param y the y index of subframe in the FIRST RpfCoverageBox space -
      *        translation needed.
-     * @param subframeCount a running count of the number of subframes retrieved
-     *        so far for the current map. Should be used it there is concern
-     *        that the number of subframes needed for the map is greater than
-     *        the size of the subframe.
      */
-    protected RpfSubframe getSubframeFromOtherTOC(int x, int y, int subframeCount) {
-        int size = coverageBoxes.size();
-        RpfCoverageBox currentBox = null;
-
+    protected RpfSubframe getSubframeFromOtherTOC(Vector<RpfCoverageBox> boxes, Point[] starts, int x, int y) {
         // Decision to never cache if it's coming from another TOC.
         // Problems arose in areas that had 3 coverage boxes
         // converging.
         // They kept writing over each others' cache.
-        boolean cacheIt = false;
-
-        RpfSubframe ret = null;
-        int index = 0;
-
-        // There isn't anything else to check.
-        if (size < 2) {
-            return null;
-        } else {
-
-            /* If beyond the cache boundary, don't cache it. */
-            if (subframeIndex == null || y < 0 || x < 0 || y >= subframeIndex.length || x >= subframeIndex[0].length
-                    || subframeCount >= subframeCacheSize) {
-                cacheIt = false;
+        for (int i = 1; i < boxes.size() && i < starts.length; i++) {
+            RpfCoverageBox currentBox = boxes.elementAt(i);
+            // Changed offsets because they were
+            // incorrect, and this was preventing other RCBs from
+            // finding the box
+            int offsetX = x - starts[0].x;
+            int offsetY = y - starts[0].y;
+            // previous values were:
+            // int offsetX = start.x - x;
+            // int offsetY = start.y - y;
+
+            int newX = starts[i].x + offsetX;
+            int newY = starts[i].y + offsetY;
+
+            RpfSubframe ret;
+            try {
+                ret = new RpfSubframe();
+            } catch (java.lang.OutOfMemoryError oome) {
+                Debug.error("RpfCacheHandler: Out of memory!  No subframe for you!  Next up!");
+                return null;
             }
-
-            for (int i = 1; i < size; i++) {
-
-                try {
-                    currentBox = (RpfCoverageBox) coverageBoxes.elementAt(i);
-                } catch (ArrayIndexOutOfBoundsException aioobe) {
-                    return null;
-                }
-                // Changed offsets because they were
-                // incorrect, and this was preventing other RCBs from
-                // finding the box
-                int offsetX = x - start.x;
-                int offsetY = y - start.y;
-                // previous values were:
-                // int offsetX = start.x - x;
-                // int offsetY = start.y - y;
-
-                int newX = currentBox.startIndexes.x + offsetX;
-                int newY = currentBox.startIndexes.y + offsetY;
-
-                if (cacheIt) {
-                    /*
-                     * Subframe isn't cached; allocate new entry and decompress
-                     * it
-                     */
-                    index = getLRU();
-                    if (index < 0 || index >= subframeCacheSize || subframeCount >= subframeCacheSize) {
-                        ret = null;
-                    } else {
-                        referenceCache(index);
-                        RpfSubframe subframe = cache.subframe[index];
-                        // DFD - not sure we need to do this. It seems like it's
-                        // more important to make sure the version changes to
-                        // some other value that matches what's in the subframe,
-                        // rather than keep it stuck on MAX_VALUE.
-                        // if (subframe.version < Byte.MAX_VALUE) {
-                        // subframe.version++;
-                        // }
-                        subframeIndex[y][x] = (byte) index;
-                        subframeVersion[y][x] = subframe.version;
-                        ret = cache.subframe[index];
-                    }
-                }
-
-                if (ret == null) {
-                    try {
-                        ret = new RpfSubframe();
-                    } catch (java.lang.OutOfMemoryError oome) {
-                        Debug.error("RpfCacheHandler: Out of memory!  No subframe for you!  Next up!");
-                        return null;
-                    }
-                }
-                if (loadSubframe(ret, currentBox, newX, newY)) {
-                    return ret;
-                } else if (cacheIt) {
-                    freeCache(index);
-                    subframeIndex[y][x] = NOT_PRESENT;
-                }
-
+            if (loadSubframe(ret, currentBox, newX, newY)) {
+                return ret;
             }
         }
         return null;
     }
 
     /**
-     * Get a subframe from the cache if possible, otherwise allocate a new cache
-     * entry and decompress it. Each cache entry has a version number that is
-     * incremented whenever it is replaced by a new subframe. This ensures the
-     * replacement is detected. Use this method when you are sure that the
-     * subframe cache is big enough to handle all the subframes on the map.
+     * Get a subframe from the cache if possible, otherwise decompress it on
+     * this thread and cache it.
      * 
      * @param cbx the x index of subframe in the rcbIndex A.TOC space.
      * @param cby the y index of subframe in the rcbIndex A.TOC space.
      */
     protected RpfSubframe getCached(int cbx, int cby) {
-        return getCached(cbx, cby, -1);
-    }
-
-    /**
-     * Get a subframe from the cache if possible, otherwise allocate a new cache
-     * entry and decompress it. Each cache entry has a version number that is
-     * incremented whenever it is replaced by a new subframe. This ensures the
-     * replacement is detected. If you are not sure that the number of subframes
-     * that go on the map is less than or equal to the size of the subframe
-     * cache, then use this method to provide a running count of how many
-     * subframes you've already called for to use in the current map. If this
-     * number gets bigger than the cache size, then the RpfCacheHandler will
-     * keep fetching data without storing the extra subframes in the cache.
-     * Otherwise, the previous images in the cache would be replaced before they
-     * were painted, and they would not appear on the map. If subframeCount is
-     * less than subframe size, then the latest retrieved subframe will be
-     * stored in the cache.
-     * 
-     * @param cbx the x index of subframe in the rcbIndex A.TOC space.
-     * @param cby the y index of subframe in the rcbIndex A.TOC space.
-     * @param subframeCount a running count of the number of subframes retrieved
-     *        so far for the current map. Should be used if there is concern
-     *        that the number of subframes needed for the map is greater than
-     *        the size of the cache.
-     */
-    protected RpfSubframe getCached(int cbx, int cby, int subframeCount) {
-
-        RpfSubframe ret;
-        RpfCoverageBox currentBox = null;
-        RpfViewAttributes viewAttributes = getViewAttributes();
-        // x, y are the subframe indexes in the cache matrix
-        int x = cbx + subframeBuffer;
-        int y = cby + subframeBuffer;
-
-        /* If beyond the image boundary, forget it */
-        if (subframeIndex != null
-                && (coverageBoxes == null || coverageBoxes.isEmpty() || y < 0 || x < 0 || y >= subframeIndex.length || x >= subframeIndex[0].length)) {
+        Vector<RpfCoverageBox> boxes = coverageBoxes;
+        if (boxes == null || boxes.isEmpty()) {
             return null;
         }
 
-        try {
-            currentBox = (RpfCoverageBox) coverageBoxes.elementAt(0);
-        } catch (ArrayIndexOutOfBoundsException aioobe) {
-            return null;
+        RpfCoverageBox currentBox = boxes.elementAt(0);
+        RpfSubframe ret = getCachedSubframe(currentBox, cbx, cby);
+        if (ret == null) {
+            Load load = new Load(currentBox, cbx, cby, false);
+            load.epoch = cacheEpoch;
+            try {
+                ret = loadSubframe(load);
+            } catch (java.lang.OutOfMemoryError oome) {
+                Debug.error("RpfCacheHandler: Out of memory!  No subframe for you!  Next up!");
+            }
         }
+        return ret;
+    }
 
-        int index = NOT_CACHED;
-
-        if (subframeIndex != null) {
-            index = subframeIndex[y][x];
-        }
+    /**
+     * Get a subframe from the cache if possible, otherwise decompress it. The
+     * subframe count isn't needed anymore, since subframes handed out stay good
+     * after they are pushed out of the cache.
+     */
+    protected RpfSubframe getCached(int cbx, int cby, int subframeCount) {
+        return getCached(cbx, cby);
+    }
 
-        if (index == NOT_PRESENT) {
+    /**
+     * Get a subframe from the cache, updating its transparency and attribute
+     * text for the current view attributes.
+     * 
+     * @return the subframe, or null if it isn't cached.
+     */
+    protected RpfSubframe getCachedSubframe(RpfCoverageBox currentBox, int x, int y) {
+        SubframeCache c = cache;
+        RpfSubframe ret = c != null ? c.get(getKey(currentBox, x, y)) : null;
+        if (ret == null) {
             return null;
+        }
 
-        } else if (index != NOT_CACHED && cache != null && cache.subframe[index].version == subframeVersion[y][x]
-                && subframeCount < subframeCacheSize) {
-            /* We found it and it's ours; return the cached image */
-            referenceCache(index);
-            ret = cache.subframe[index];
-
-            if (DEBUG_RPF) {
-                Debug.output("RpfCacheHandler: found subframe " + x + ", " + y + " in cache.");
-            }
-
-            ret.setTransparent(viewAttributes.opaqueness);
-
-            // Check to see if the attribute text has even been
-            // retrieved from the RpfFrameProvider. If it hasn't, and
-            // needs to be, get it.
-            if (frameProvider != null && viewAttributes.showInfo
-                    && (ret.getAttributeText() == null || ret.getAttributeText().length() == 0)) {
-
-                // It's needed but not here.
-                ret.setAttributeText(frameProvider.getSubframeAttributes(currentBox.tocNumber, currentBox.entryNumber, x, y));
-            }
+        if (DEBUG_RPF) {
+            Debug.output("RpfCacheHandler: found subframe " + x + ", " + y + " in cache.");
+        }
 
-            return ret;
+        RpfViewAttributes viewAttributes = getViewAttributes();
+        ret.setTransparent(viewAttributes.opaqueness);
 
-        } else {
+        // Check to see if the attribute text has even been
+        // retrieved from the RpfFrameProvider. If it hasn't, and
+        // needs to be, get it.
+        if (frameProvider != null && viewAttributes.showInfo
+                && (ret.getAttributeText() == null || ret.getAttributeText().length() == 0)) {
 
-            /*
-             * Subframe isn't cached; allocate new entry and decompress it
-             */
-            index = getLRU();
-            // Meet the requirements for not caching...
-            if (index < 0 || index >= subframeCacheSize || subframeCount >= subframeCacheSize) {
-                try {
-                    ret = new RpfSubframe();
-                    if (DEBUG_RPF) {
-                        Debug.output("RpfCacheHandler: using uncached subframe.");
-                    }
-                } catch (java.lang.OutOfMemoryError oome) {
-                    Debug.error("RpfCacheHandler: Out of memory!  No subframe for you!  Next up!");
-                    return null;
-                }
-            } else { // or set the cache for the new subframe
-                referenceCache(index);
-                // DFD - I'm not sure it ever gets to the point where version
-                // gets bigger than a byte can hold, and we don't
-                // want the byte overrunning, do we? Then again, does it matter,
-                // if the frame version number matches the array setting for it,
-                // even
-                // if it's negative?
-                cache.subframe[index].version++;
-                subframeIndex[y][x] = (byte) index;
-                subframeVersion[y][x] = cache.subframe[index].version;
-                ret = cache.subframe[index];
-            }
-
-            if (loadSubframe(ret, currentBox, cbx, cby)) {
-                return ret;
-            } else {
-                freeCache(index);
-                if (subframeIndex != null) {
-                    subframeIndex[y][x] = NOT_PRESENT;
-                }
-            }
+            // It's needed but not here.
+            ret.setAttributeText(frameProvider.getSubframeAttributes(currentBox.tocNumber, currentBox.entryNumber, x, y));
         }
-        return null;
+
+        return ret;
     }
 
     /**
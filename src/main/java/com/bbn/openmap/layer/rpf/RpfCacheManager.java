@@ -90,6 +90,13 @@ public class RpfCacheManager
      * equator or dateline.
      */
     protected int auxCacheSize;
+    /**
+     * Told about subframes added to the list after getRectangle() returns. If
+     * null, getRectangle() waits for all of the subframes.
+     */
+    protected RpfCacheHandler.SubframeListener subframeListener;
+    /** The most subframes each cache handler decompresses at the same time. */
+    protected int maxDecodeThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
 
     public RpfCacheManager() {
     }
@@ -111,7 +118,7 @@ public class RpfCacheManager
      * @param rva the view attributes for the images.
      */
     public RpfCacheManager(RpfFrameProvider rfp, RpfViewAttributes rva) {
-        this(rfp, rva, RpfCacheHandler.SUBFRAME_CACHE_SIZE, SMALL_CACHE_SIZE);
+        this(rfp, rva, RpfCacheHandler.DEFAULT_CACHE_BYTES, SMALL_CACHE_SIZE);
     }
 
     /**
@@ -126,12 +133,84 @@ public class RpfCacheManager
      *        caches.
      */
     public RpfCacheManager(RpfFrameProvider rfp, RpfViewAttributes rva, int mainCacheSize, int auxSubframeCacheSize) {
+        this(rfp, rva, mainCacheSize * RpfCacheHandler.SUBFRAME_BYTES, auxSubframeCacheSize);
+    }
+
+    /**
+     * Constructor that lets you set the RPF frame provider, the view attributes
+     * and the memory budget of the main cache.
+     * 
+     * @param rfp the object supplying the data.
+     * @param rva the view attributes for the images.
+     * @param mainCacheBytes about how much memory the subframes in the main
+     *        cache can use.
+     * @param auxSubframeCacheSize the number of subframes held in the aux
+     *        caches.
+     */
+    public RpfCacheManager(RpfFrameProvider rfp, RpfViewAttributes rva, long mainCacheBytes, int auxSubframeCacheSize) {
         frameProvider = rfp;
         viewAttributes = rva;
-        caches[0] = new RpfCacheHandler(rfp, rva, mainCacheSize);
+        caches[0] = new RpfCacheHandler(rfp, rva, mainCacheBytes);
         auxCacheSize = auxSubframeCacheSize;
     }
 
+    /**
+     * Create an aux cache handler, for when the map crosses the equator or
+     * dateline.
+     */
+    protected RpfCacheHandler createAuxCache() {
+        RpfCacheHandler rch = new RpfCacheHandler(frameProvider, viewAttributes, auxCacheSize);
+        rch.setSubframeListener(subframeListener);
+        rch.setMaxDecodeThreads(maxDecodeThreads);
+        return rch;
+    }
+
+    /**
+     * Set the listener told about subframes added to the list after
+     * getRectangle() returns. With a listener, getRectangle() returns with the
+     * cached subframes, and the others are added to the list as they are
+     * decompressed. If null, getRectangle() waits for all of the subframes.
+     */
+    public void setSubframeListener(RpfCacheHandler.SubframeListener listener) {
+        subframeListener = listener;
+        for (int i = 0; i < caches.length; i++) {
+            if (caches[i] != null) {
+                caches[i].setSubframeListener(listener);
+            }
+        }
+    }
+
+    public RpfCacheHandler.SubframeListener getSubframeListener() {
+        return subframeListener;
+    }
+
+    /**
+     * Set the most subframes each cache handler decompresses at the same time.
+     */
+    public void setMaxDecodeThreads(int numThreads) {
+        maxDecodeThreads = Math.max(1, numThreads);
+        for (int i = 0; i < caches.length; i++) {
+            if (caches[i] != null) {
+                caches[i].setMaxDecodeThreads(maxDecodeThreads);
+            }
+        }
+    }
+
+    public int getMaxDecodeThreads() {
+        return maxDecodeThreads;
+    }
+
+    /**
+     * Set about how much memory the subframes in the main cache can use.
+     */
+    public void setCacheBytes(long cacheBytes) {
+        caches[0].setCacheBytes(cacheBytes);
+    }
+
+    public long getCacheBytes() {
+        return caches[0].getCacheBytes();
+    }
+
     // public void finalize() {
     // Debug.message("gc", "RpfCacheManager: getting GC'd");
     // }
@@ -216,7 +295,20 @@ public class RpfCacheManager
      * 
      * @param proj the projection of the screen.
      */
-    public synchronized OMGraphicList getRectangle(Projection proj) {
+    public OMGraphicList getRectangle(Projection proj) {
+        return getRectangle(proj, new OMGraphicList());
+    }
+
+    /**
+     * Add the subframes covering the projection to a list. If a
+     * SubframeListener is set, this returns before the subframes that aren't
+     * cached have been added to the list.
+     * 
+     * @param proj the projection of the screen.
+     * @param list the list to add the subframe images to.
+     * @return the list.
+     */
+    public synchronized OMGraphicList getRectangle(Projection proj, OMGraphicList list) {
 
         float[] lat = new float[3];
         float[] lon = new float[3];
@@ -300,8 +392,6 @@ public class RpfCacheManager
          * path gets checked until the required boxes are filled.
          */
 
-        OMGraphicList list = new OMGraphicList();
-
         // Normal (maybe) box[0] gets filled every time - bottom right
         // box.
         caches[0].getSubframes(lat[ya - lat_minus], lon[xa - lon_minus], lat[ya], lon[xa], proj, list);
@@ -312,7 +402,7 @@ public class RpfCacheManager
         // Dateline split
         if (lon_minus == 1) {
             if (caches[1] == null) {
-                caches[1] = new RpfCacheHandler(frameProvider, viewAttributes, auxCacheSize);
+                caches[1] = createAuxCache();
             }
             caches[1].getSubframes(lat[ya - lat_minus], lon[0], lat[ya], -1f * lon[1], proj, list); // -1
             // to
@@ -329,7 +419,7 @@ public class RpfCacheManager
         // Equator Split
         if (lat_minus == 1) {
             if (caches[2] == null) {
-                caches[2] = new RpfCacheHandler(frameProvider, viewAttributes, auxCacheSize);
+                caches[2] = createAuxCache();
             }
             caches[2].getSubframes(lat[0], lon[xa - lon_minus], -1f * lat[1], // flip
                                    // breather
@@ -344,7 +434,7 @@ public class RpfCacheManager
         // Both!!
         if (lon_minus == 1 && lat_minus == 1) {
             if (caches[3] == null) {
-                caches[3] = new RpfCacheHandler(frameProvider, viewAttributes, auxCacheSize);
+                caches[3] = createAuxCache();
             }
             // Flip breather to make it 180, not -180.
             caches[3].getSubframes(lat[0], lon[0], -1f * lat[1], -1f * lon[1], proj, list);
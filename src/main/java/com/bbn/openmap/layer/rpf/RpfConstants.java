@@ -71,6 +71,21 @@ public interface RpfConstants {
      * "auxSubframeCacheSize"
      */
     public static final String AuxCacheSizeProperty = "auxSubframeCacheSize";
+    /**
+     * Tell the RpfLayer about how much memory the subframe cache can use, in
+     * bytes. Overrides subframeCacheSize. "subframeCacheBytes"
+     */
+    public static final String CacheBytesProperty = "subframeCacheBytes";
+    /**
+     * Tell the RpfLayer how many subframes to decompress at the same time.
+     * "decodeThreads"
+     */
+    public static final String DecodeThreadsProperty = "decodeThreads";
+    /**
+     * Tell the RpfLayer to get its images from a tile store file made by
+     * MakeRpfTileStore, instead of the RPF directories. "tileStore"
+     */
+    public static final String TileStoreProperty = "tileStore";
     /**
      * Tell the RpfLayer to get the detailed subframe attributes for
      * each subframe.
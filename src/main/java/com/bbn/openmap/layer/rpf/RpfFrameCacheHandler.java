@@ -265,7 +265,7 @@ public class RpfFrameCacheHandler
     * @param proj CADRG projection to use for zone decisions.
     * @return Vector of RpfCoverageBoxes.
     */
-   public Vector<RpfCoverageBox> getCoverage(float ullat, float ullon, float lrlat, float lrlon, Projection proj) {
+   public synchronized Vector<RpfCoverageBox> getCoverage(float ullat, float ullon, float lrlat, float lrlon, Projection proj) {
 
       Debug.message("rpf", "RpfFrameCacheHandler: getCoverage()");
 
@@ -460,7 +460,7 @@ public class RpfFrameCacheHandler
     * @see #getCoverage
     * @return string.
     */
-   public String getSubframeAttributes(int tocNumber, int entryNumber, int x, int y) {
+   public synchronized String getSubframeAttributes(int tocNumber, int entryNumber, int x, int y) {
 
       if (!tocs[tocNumber].isValid())
          return null;
@@ -508,39 +508,42 @@ public class RpfFrameCacheHandler
     * @return integer pixel data.
     */
    public int[] getSubframeData(int tocNumber, int entryNumber, int x, int y) {
-
-      if (!tocs[tocNumber].isValid()) {
-         return null;
-      }
-
-      RpfTocEntry entry = tocs[tocNumber].entries[entryNumber];
-
-      /* If beyond the image boundary, forget it */
-      if (y < 0 || x < 0 || entry == null || y >= entry.vertFrames * 6 || x >= entry.horizFrames * 6) {
-         return null;
-      }
-
-      if (!entry.isFramesLoaded()) {
-         tocs[tocNumber].loadFrameInformation(entry);
-      }
-      RpfFrameEntry frameEntry = entry.getFrame(y / 6, x / 6);
-
-      /* Get the right frame from the frame cache */
-      RpfFrame frame = (RpfFrame) get(frameEntry);
-
+      RpfColortable ct = new RpfColortable();
+      RpfFrame frame = getFrameForSubframe(tocNumber, entryNumber, x, y, ct);
       if (frame == null) {
          return null;
       }
 
-      checkColortable(frame, frameEntry, entry, tocNumber, entryNumber);
-
       /*
        * This should never fail, since all subframes should be present
        */
-      return frame.decompressSubframe(x, y, colortable);
+      return frame.decompressSubframe(x, y, ct);
    }
 
    public RpfIndexedImageData getRawSubframeData(int tocNumber, int entryNumber, int x, int y) {
+      RpfColortable ct = new RpfColortable();
+      RpfFrame frame = getFrameForSubframe(tocNumber, entryNumber, x, y, ct);
+      if (frame == null) {
+         return null;
+      }
+
+      RpfIndexedImageData riid = new RpfIndexedImageData();
+      riid.imageData = frame.decompressSubframe(x, y);
+      riid.colortable = ct.colors;
+      return riid;
+   }
+
+   /**
+    * Find the frame holding a subframe, reading it into the frame cache if
+    * needed, and set up the colortable for it. The frame cache and colortable
+    * are shared, so this is synchronized, but the subframe decompression
+    * after it isn't, so several subframes can be decompressed at the same
+    * time.
+    * 
+    * @param ct a colortable to copy the colors for the subframe into.
+    * @return the frame, or null if the subframe isn't available.
+    */
+   protected synchronized RpfFrame getFrameForSubframe(int tocNumber, int entryNumber, int x, int y, RpfColortable ct) {
       if (!tocs[tocNumber].isValid()) {
          return null;
       }
@@ -549,9 +552,9 @@ public class RpfFrameCacheHandler
 
       /* If beyond the image boundary, forget it */
       if (y < 0 || x < 0 || entry == null || y >= entry.vertFrames * 6 || x >= entry.horizFrames * 6) {
-
          return null;
       }
+
       if (!entry.isFramesLoaded()) {
          tocs[tocNumber].loadFrameInformation(entry);
       }
@@ -560,15 +563,13 @@ public class RpfFrameCacheHandler
       /* Get the right frame from the frame cache */
       RpfFrame frame = (RpfFrame) get(frameEntry);
 
-      if (frame == null)
+      if (frame == null) {
          return null;
+      }
 
       checkColortable(frame, frameEntry, entry, tocNumber, entryNumber);
-
-      RpfIndexedImageData riid = new RpfIndexedImageData();
-      riid.imageData = frame.decompressSubframe(x, y);
-      riid.colortable = colortable.colors;
-      return riid;
+      ct.colors = colortable.colors;
+      return frame;
    }
 
    /**
@@ -25,6 +25,7 @@ package com.bbn.openmap.layer.rpf;
 /*  Java Core  */
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Properties;
 import java.util.Vector;
@@ -39,6 +40,7 @@ import javax.swing.JSlider;
 
 import com.bbn.openmap.I18n;
 import com.bbn.openmap.event.SelectMouseMode;
+import com.bbn.openmap.io.FormatException;
 import com.bbn.openmap.layer.OMGraphicHandlerLayer;
 import com.bbn.openmap.layer.policy.BufferedImageRenderPolicy;
 import com.bbn.openmap.omGraphics.OMGraphic;
@@ -116,8 +118,16 @@ import com.bbn.openmap.util.cacheHandler.CacheHandler;
  *           rpf.autofetchAttributes=false
  *           # Set to true if you want the coverage tool available.
  *           rpf.coverage=true
- *           # Set the subframe cache size. (Number of subframes to hold on to, 256x256 pixels)
- *           rpf.subframeCacheSize=128
+ *           # Set the subframe cache size, in bytes. Default is 64MB.
+ *           rpf.subframeCacheBytes=67108864
+ *           # Or, the number of subframes to make room for (256x256 pixels each).
+ *           #rpf.subframeCacheSize=128
+ *           # The number of subframes to decompress at the same time.  Default is the number of processors.
+ *           rpf.decodeThreads=4
+ *           # Limit the frame cache by memory instead of number of frames (optional).
+ *           #rpf.cacheMaxBytes=33554432
+ *           # A tile store made by MakeRpfTileStore, used instead of the paths if set.
+ *           #rpf.tileStore=/usr/local/matt/data/rpf.tiles
  *           # Then also include coverage properties, which are available in the RpfConstants.
  *           #------------------------------------
  *           # End of properties for RpfLayer
@@ -144,6 +154,8 @@ public class RpfLayer
     protected transient RpfCacheManager cache = null;
     /** The paths to the RPF directories, telling where the data is. */
     protected String[] paths;
+    /** The path to a RpfTileStore file, used instead of the paths if set. */
+    protected String tileStore;
     /**
      * The display attributes for the maps. This object should not be replaced,
      * because the caches all look at it, too. Just adjust the parameters within
@@ -158,8 +170,28 @@ public class RpfLayer
     protected RpfFrameProvider frameProvider;
     /** The coverage tool for the layer. */
     protected RpfCoverage coverage;
-    /** Subframe cache size. Default is 40. */
-    protected int subframeCacheSize = RpfCacheHandler.SUBFRAME_CACHE_SIZE;
+    /** About how much memory the subframe cache can use. Default is 64MB. */
+    protected long subframeCacheBytes = RpfCacheHandler.DEFAULT_CACHE_BYTES;
+    /** The number of subframes decompressed at the same time. */
+    protected int decodeThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    /**
+     * The last list the cache added a subframe to after prepare() returned,
+     * checked when the list is set on the layer.
+     */
+    protected transient volatile OMGraphicList lastUpdatedList;
+    /**
+     * Repaints the layer when subframes are added to the current list after
+     * prepare() has returned.
+     */
+    protected transient RpfCacheHandler.SubframeListener subframeListener = new RpfCacheHandler.SubframeListener() {
+        public void subframeAdded(OMGraphicList list, OMGraphic image) {
+            lastUpdatedList = list;
+            if (list == getList()) {
+                resetBuffer();
+                repaint();
+            }
+        }
+    };
     /** Auxiliary subframe cache size. Default is 10. */
     protected int auxSubframeCacheSize = RpfCacheManager.SMALL_CACHE_SIZE;
 
@@ -205,12 +237,13 @@ public class RpfLayer
                 same = same && paths[i].equals(pathsToRPFDirs[i]);
             }
 
-            if (same && frameProvider != null) {
+            if (same && frameProvider != null && tileStore == null) {
                 return;
             }
         }
 
         if (pathsToRPFDirs != null) {
+            setTileStore(null);
             setFrameProvider(new RpfFrameCacheHandler(pathsToRPFDirs));
         } else {
             logger.warning("Need RPF directory paths.");
@@ -223,6 +256,45 @@ public class RpfLayer
         this.cache = null;
     }
 
+    /**
+     * Set the path to a tile store file made by MakeRpfTileStore, and use it
+     * for the images instead of the RPF directories. Creates the
+     * RpfFrameProvider.
+     * 
+     * @param path the tile store file path.
+     */
+    public void setTileStore(String path) {
+        if (path != null && path.equals(tileStore) && frameProvider instanceof RpfTileStoreFrameProvider) {
+            return;
+        }
+
+        if (frameProvider instanceof RpfTileStoreFrameProvider) {
+            ((RpfTileStoreFrameProvider) frameProvider).close();
+        }
+
+        tileStore = path;
+        if (path == null) {
+            return;
+        }
+
+        try {
+            setFrameProvider(new RpfTileStoreFrameProvider(path));
+        } catch (IOException ioe) {
+            logger.warning("Can't read RPF tile store " + path + ": " + ioe.getMessage());
+            frameProvider = null;
+        } catch (FormatException fe) {
+            logger.warning("Can't read RPF tile store " + path + ": " + fe.getMessage());
+            frameProvider = null;
+        }
+
+        setCoverage(new RpfCoverage(this));
+        this.cache = null;
+    }
+
+    public String getTileStore() {
+        return tileStore;
+    }
+
     /**
      * Get the paths to the RPF directories.
      * 
@@ -262,14 +334,37 @@ public class RpfLayer
 
         prefix = PropUtils.getScopedPropertyPrefix(prefix);
 
-        setPaths(PropUtils.initPathsFromProperties(properties, prefix + RpfPathsProperty, paths));
+        String tileStorePath = properties.getProperty(prefix + TileStoreProperty);
+        if (tileStorePath != null && tileStorePath.trim().length() > 0) {
+            setTileStore(tileStorePath.trim());
+        } else {
+            setPaths(PropUtils.initPathsFromProperties(properties, prefix + RpfPathsProperty, paths));
+        }
+
+        // The frame cache can be switched to a ConcurrentCache limited by
+        // memory with the cacheMaxBytes property.
+        if (frameProvider instanceof CacheHandler) {
+            ((CacheHandler) frameProvider).setCacheProperties(prefix, properties);
+        }
 
         viewAttributes.setProperties(prefix, properties);
         showSubframes(viewAttributes.showInfo);
 
-        subframeCacheSize = PropUtils.intFromProperties(properties, prefix + CacheSizeProperty, subframeCacheSize);
+        if (properties.getProperty(prefix + CacheSizeProperty) != null) {
+            subframeCacheBytes =
+                    PropUtils.intFromProperties(properties, prefix + CacheSizeProperty, RpfCacheHandler.SUBFRAME_CACHE_SIZE)
+                            * RpfCacheHandler.SUBFRAME_BYTES;
+        }
+        subframeCacheBytes = PropUtils.longFromProperties(properties, prefix + CacheBytesProperty, subframeCacheBytes);
+
+        auxSubframeCacheSize = PropUtils.intFromProperties(properties, prefix + AuxCacheSizeProperty, auxSubframeCacheSize);
 
-        auxSubframeCacheSize = PropUtils.intFromProperties(properties, prefix + CacheSizeProperty, auxSubframeCacheSize);
+        decodeThreads = PropUtils.intFromProperties(properties, prefix + DecodeThreadsProperty, decodeThreads);
+
+        if (this.cache != null) {
+            this.cache.setCacheBytes(subframeCacheBytes);
+            this.cache.setMaxDecodeThreads(decodeThreads);
+        }
 
         if (viewAttributes.chartSeries == null)
             viewAttributes.chartSeries = RpfViewAttributes.ANY;
@@ -318,9 +413,14 @@ public class RpfLayer
             props.put(prefix + RpfPathsProperty, "");
         }
 
+        props.put(prefix + TileStoreProperty, PropUtils.unnull(tileStore));
         props.put(prefix + KillCacheProperty, new Boolean(killCache).toString());
-        props.put(prefix + CacheSizeProperty, Integer.toString(subframeCacheSize));
+        props.put(prefix + CacheBytesProperty, Long.toString(subframeCacheBytes));
+        props.put(prefix + DecodeThreadsProperty, Integer.toString(decodeThreads));
         props.put(prefix + AuxCacheSizeProperty, Integer.toString(auxSubframeCacheSize));
+        if (frameProvider instanceof CacheHandler) {
+            ((CacheHandler) frameProvider).getCacheProperties(prefix, props);
+        }
 
         viewAttributes.setPropertyPrefix(prefix);
         viewAttributes.getProperties(props);
@@ -363,6 +463,13 @@ public class RpfLayer
         interString = i18n.get(RpfLayer.class, RpfPathsProperty, "Data Path");
         list.put(RpfPathsProperty + LabelEditorProperty, interString);
 
+        interString =
+                i18n.get(RpfLayer.class, TileStoreProperty, I18n.TOOLTIP, "Tile store file made by MakeRpfTileStore, used instead of the paths.");
+        list.put(TileStoreProperty, interString);
+        list.put(TileStoreProperty + ScopedEditorProperty, "com.bbn.openmap.util.propertyEditor.FUPropertyEditor");
+        interString = i18n.get(RpfLayer.class, TileStoreProperty, "Tile Store");
+        list.put(TileStoreProperty + LabelEditorProperty, interString);
+
         interString =
                 i18n.get(RpfLayer.class, KillCacheProperty, I18n.TOOLTIP,
                          "Flag to trigger the cache to be cleared when layer is removed from the map.");
@@ -371,10 +478,17 @@ public class RpfLayer
         interString = i18n.get(RpfLayer.class, KillCacheProperty, "Clear Cache");
         list.put(KillCacheProperty + LabelEditorProperty, interString);
 
-        interString = i18n.get(RpfLayer.class, CacheSizeProperty, I18n.TOOLTIP, "Number of frames to hold in the frame cache.");
-        list.put(CacheSizeProperty, interString);
-        interString = i18n.get(RpfLayer.class, CacheSizeProperty, "Frame Cache Size");
-        list.put(CacheSizeProperty + LabelEditorProperty, interString);
+        interString =
+                i18n.get(RpfLayer.class, CacheBytesProperty, I18n.TOOLTIP, "Bytes of memory the subframe cache can use.");
+        list.put(CacheBytesProperty, interString);
+        interString = i18n.get(RpfLayer.class, CacheBytesProperty, "Subframe Cache Bytes");
+        list.put(CacheBytesProperty + LabelEditorProperty, interString);
+
+        interString =
+                i18n.get(RpfLayer.class, DecodeThreadsProperty, I18n.TOOLTIP, "Number of subframes to decompress at the same time.");
+        list.put(DecodeThreadsProperty, interString);
+        interString = i18n.get(RpfLayer.class, DecodeThreadsProperty, "Decode Threads");
+        list.put(DecodeThreadsProperty + LabelEditorProperty, interString);
 
         interString =
                 i18n.get(RpfLayer.class, AuxCacheSizeProperty, I18n.TOOLTIP, "Number of frames to hold in aux. frame caches.");
@@ -382,6 +496,13 @@ public class RpfLayer
         interString = i18n.get(RpfLayer.class, AuxCacheSizeProperty, "Aux Frame Cache Size");
         list.put(AuxCacheSizeProperty + LabelEditorProperty, interString);
 
+        interString =
+                i18n.get(RpfLayer.class, CacheHandler.CACHE_MAX_BYTES_PROPERTY, I18n.TOOLTIP,
+                         "Memory limit for the RPF frame cache, in bytes (optional, replaces the fixed number of frames).");
+        list.put(CacheHandler.CACHE_MAX_BYTES_PROPERTY, interString);
+        interString = i18n.get(RpfLayer.class, CacheHandler.CACHE_MAX_BYTES_PROPERTY, "Frame Cache Bytes");
+        list.put(CacheHandler.CACHE_MAX_BYTES_PROPERTY + LabelEditorProperty, interString);
+
         viewAttributes.getPropertyInfo(list);
 
         RpfCoverage tmpCov = coverage;
@@ -392,7 +513,8 @@ public class RpfLayer
         tmpCov.getPropertyInfo(list);
 
         list.put(initPropertiesProperty,
-                 RpfPathsProperty + " " + KillCacheProperty + " " + CacheSizeProperty + " " + AuxCacheSizeProperty + " "
+                 RpfPathsProperty + " " + TileStoreProperty + " " + KillCacheProperty + " " + CacheBytesProperty + " " + AuxCacheSizeProperty + " "
+                         + DecodeThreadsProperty + " " + CacheHandler.CACHE_MAX_BYTES_PROPERTY + " "
                          + viewAttributes.getInitPropertiesOrder() + " " + AddToBeanContextProperty + " " + AddAsBackgroundProperty
                          + " " + RemovableProperty + " " + CoverageProperty + " " + tmpCov.getInitPropertiesOrder());
 
@@ -424,6 +546,27 @@ public class RpfLayer
         return getList();
     }
 
+    /**
+     * Set the list, recreating the image buffer if subframes were added to the
+     * list between the time the buffer was made and now.
+     */
+    public void setList(OMGraphicList omgl) {
+        super.setList(omgl);
+        if (omgl != null && omgl == lastUpdatedList) {
+            resetBuffer();
+        }
+    }
+
+    /**
+     * Drop the image buffer of the render policy, if it has one, so the list is
+     * painted into a new one.
+     */
+    protected void resetBuffer() {
+        if (getRenderPolicy() instanceof BufferedImageRenderPolicy) {
+            ((BufferedImageRenderPolicy) getRenderPolicy()).resetBuffer();
+        }
+    }
+
     /**
      * Clear the frame cache.
      */
@@ -551,7 +694,11 @@ public class RpfLayer
             // Assuming running locally - otherwise the
             // frameProvider should be set before we get here,
             // like in setProperties or in the constructor.
-            setPaths(paths);
+            if (tileStore != null) {
+                setTileStore(tileStore);
+            } else {
+                setPaths(paths);
+            }
             if (frameProvider == null) {
                 // Doh! no paths were set!
                 logger.warning(getName()
@@ -573,9 +720,15 @@ public class RpfLayer
 
         if (this.cache == null) {
             rpfLogger.fine(getName() + ": Creating cache!");
-            this.cache = new RpfCacheManager(frameProvider, viewAttributes, subframeCacheSize, auxSubframeCacheSize);
+            this.cache = new RpfCacheManager(frameProvider, viewAttributes, subframeCacheBytes, auxSubframeCacheSize);
+            this.cache.setMaxDecodeThreads(decodeThreads);
         }
 
+        // When the layer is on the screen, subframes that aren't cached are
+        // painted as they are decompressed. Otherwise (like in the
+        // ImageServer), wait for all of them.
+        this.cache.setSubframeListener(isShowing() ? subframeListener : null);
+
         // Check to make sure the projection is CADRG
         if (!(projection instanceof EqualArc) && (viewAttributes.showMaps || viewAttributes.showInfo)) {
             //fireRequestInfoLine("RpfLayer runs faster with an Equal Arc projection (CADRG/LLXY).");
@@ -601,7 +754,7 @@ public class RpfLayer
         try {
 
             // OMGraphics are generated by the RpfCacheHandlers when fetched
-            retList.addAll(this.cache.getRectangle(projection));
+            this.cache.getRectangle(projection, retList);
 
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine(getName() + ": finished with " + retList.size() + " graphics");
@@ -46,13 +46,6 @@ import com.bbn.openmap.util.DataBounds;
  * The RpfSubframe is a holder for images and attributes within the cache.
  */
 public class RpfSubframe {
-    /**
-     * The version of the subframe, used by the cache for marking how recently
-     * used the subframe was.
-     */
-    public byte version;
-    /** The pointers to the surrounding subframes in the cache. */
-    public int nextSubframe, prevSubframe;
     /** The original pixel size of RPF Subframes. */
     public final static int PIXEL_EDGE_SIZE = 256;
     /** The actual attribute information. */
@@ -118,13 +111,26 @@ public class RpfSubframe {
         // setNeedToRegenerate(true);
     }
 
-    public OMGraphic getImage(Projection proj) {
+    /**
+     * Get the image for the subframe, projected for the given projection.
+     * Synchronized, the image is reused for each call.
+     */
+    public synchronized OMGraphic getImage(Projection proj) {
         if (imageCreator != null) {
             return imageCreator.getImage(proj);
         }
         return null;
     }
 
+    /**
+     * @return the approximate number of bytes held by the image data, used by
+     *         the cache to keep track of memory.
+     */
+    public int getByteSize() {
+        ImageCreator ic = imageCreator;
+        return 64 + (data != null ? data.length() * 2 : 0) + (ic != null ? ic.getByteSize() : 0);
+    }
+
     public abstract class ImageCreator {
         /**
          * The OMGraphic holding the image.
@@ -147,6 +153,11 @@ public class RpfSubframe {
          */
         protected abstract void setTransparent(int opaqueness);
 
+        /**
+         * @return the number of bytes held for the image data.
+         */
+        protected abstract int getByteSize();
+
     }
 
     /**
@@ -163,6 +174,11 @@ public class RpfSubframe {
             this.pixels = pixels;
         }
 
+        protected int getByteSize() {
+            // The OMRaster makes an image from the pixels.
+            return pixels != null ? pixels.length * 8 : 0;
+        }
+
         protected void setTransparent(int opaqueness) {
             if (pixels != null) {
                 for (int i = 0; i < pixels.length; i++) {
@@ -229,6 +245,11 @@ public class RpfSubframe {
             this.colors = colors;
         }
 
+        protected int getByteSize() {
+            // The OMRaster makes an ARGB image from the bits.
+            return bits != null ? bits.length * 5 : 0;
+        }
+
         protected void setTransparent(int opaqueness) {
             // setTransparent has to be set on the resulting OMScalingRaster and
             // regenerated
@@ -0,0 +1,404 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.rpf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.bbn.openmap.io.FormatException;
+
+/**
+ * A single file holding the subframes of one or more RPF directories, already
+ * decompressed, along with lower resolution overview levels of each A.TOC
+ * boundary rectangle. The file is made by MakeRpfTileStore, and read by the
+ * RpfTileStoreFrameProvider.
+ * <P>
+ * The file starts with the magic string and the position of the directory.
+ * The directory lists the A.TOCs and their entries. Each entry (a boundary
+ * rectangle at one level) has an index with a fixed length record for every
+ * subframe position, holding the location and length of the subframe in the
+ * file, so finding a subframe is just a lookup. The index is memory mapped.
+ * Each subframe is stored as a deflated palette and a byte of palette index
+ * for each pixel.
+ */
+public class RpfTileStore {
+
+    /** The first bytes of the file. */
+    public final static String MAGIC = "OMRPFTS1";
+    /** The magic string and the directory position. */
+    public final static int HEADER_LENGTH = 16;
+    /** The long position and int length of each subframe in an index. */
+    public final static int INDEX_RECORD_LENGTH = 12;
+    /** The number of pixels in a subframe. */
+    public final static int SUBFRAME_PIXELS = RpfSubframe.PIXEL_EDGE_SIZE * RpfSubframe.PIXEL_EDGE_SIZE;
+
+    protected RandomAccessFile file;
+    protected volatile FileChannel channel;
+    protected String path;
+    /** The paths of the RPF directories that went into the store. */
+    protected String[] sources;
+    /** The entries for each A.TOC, base entries first, then the overviews. */
+    protected Entry[][] entries;
+
+    /**
+     * A description of an A.TOC boundary rectangle at one level of detail. The
+     * level 0 entries hold the subframes from the frame files, each level after
+     * that has half the resolution of the one before it.
+     */
+    public static class Entry {
+        public int tocNumber;
+        public int entryNumber;
+        /** 0 for the subframes from the frames, more for overviews. */
+        public int level;
+        /** The entry number of the level 0 entry for an overview. */
+        public int baseEntry;
+        public String scaleString = "";
+        /** The chart scale at this level. */
+        public float scale;
+        public String compressionRatio = "";
+        public String producer = "";
+        public String seriesCode = "";
+        public char zone;
+        public boolean cib;
+        public double nwLat, nwLon, seLat, seLon;
+        /** meters/pixel. */
+        public double vertResolution, horizResolution;
+        /** Degrees/pixel. */
+        public double vertInterval, horizInterval;
+        /** The number of subframes across and down. */
+        public int width, height;
+
+        /** Where the index starts in the file. */
+        protected long indexOffset;
+        /** The index, when reading. */
+        protected ByteBuffer index;
+        /** The subframe positions and lengths, when writing. */
+        protected long[] offsets;
+        protected int[] lengths;
+
+        /**
+         * Create the description of the next overview level, with half the
+         * resolution and half the subframes in each direction. The northwest
+         * corner stays put.
+         */
+        public Entry createOverview() {
+            Entry ret = new Entry();
+            ret.tocNumber = tocNumber;
+            ret.level = level + 1;
+            ret.baseEntry = level == 0 ? entryNumber : baseEntry;
+            ret.scale = scale * 2;
+            ret.scaleString = "1:" + Math.round(ret.scale);
+            ret.compressionRatio = compressionRatio;
+            ret.producer = producer;
+            ret.seriesCode = seriesCode;
+            ret.zone = zone;
+            ret.cib = cib;
+            ret.vertResolution = vertResolution * 2;
+            ret.horizResolution = horizResolution * 2;
+            ret.vertInterval = vertInterval * 2;
+            ret.horizInterval = horizInterval * 2;
+            ret.width = (width + 1) / 2;
+            ret.height = (height + 1) / 2;
+            ret.nwLat = nwLat;
+            ret.nwLon = nwLon;
+            ret.seLat = nwLat - ret.height * ret.getSubframeLatInterval();
+            ret.seLon = nwLon + ret.width * ret.getSubframeLonInterval();
+            return ret;
+        }
+
+        public double getSubframeLatInterval() {
+            return vertInterval * RpfSubframe.PIXEL_EDGE_SIZE;
+        }
+
+        public double getSubframeLonInterval() {
+            return horizInterval * RpfSubframe.PIXEL_EDGE_SIZE;
+        }
+
+        protected void write(DataOutput out)
+                throws IOException {
+            out.writeInt(level);
+            out.writeInt(baseEntry);
+            out.writeUTF(scaleString);
+            out.writeFloat(scale);
+            out.writeUTF(compressionRatio);
+            out.writeUTF(producer);
+            out.writeUTF(seriesCode);
+            out.writeChar(zone);
+            out.writeBoolean(cib);
+            out.writeDouble(nwLat);
+            out.writeDouble(nwLon);
+            out.writeDouble(seLat);
+            out.writeDouble(seLon);
+            out.writeDouble(vertResolution);
+            out.writeDouble(horizResolution);
+            out.writeDouble(vertInterval);
+            out.writeDouble(horizInterval);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeLong(indexOffset);
+        }
+
+        protected static Entry read(DataInput in, int tocNumber, int entryNumber)
+                throws IOException {
+            Entry ret = new Entry();
+            ret.tocNumber = tocNumber;
+            ret.entryNumber = entryNumber;
+            ret.level = in.readInt();
+            ret.baseEntry = in.readInt();
+            ret.scaleString = in.readUTF();
+            ret.scale = in.readFloat();
+            ret.compressionRatio = in.readUTF();
+            ret.producer = in.readUTF();
+            ret.seriesCode = in.readUTF();
+            ret.zone = in.readChar();
+            ret.cib = in.readBoolean();
+            ret.nwLat = in.readDouble();
+            ret.nwLon = in.readDouble();
+            ret.seLat = in.readDouble();
+            ret.seLon = in.readDouble();
+            ret.vertResolution = in.readDouble();
+            ret.horizResolution = in.readDouble();
+            ret.vertInterval = in.readDouble();
+            ret.horizInterval = in.readDouble();
+            ret.width = in.readInt();
+            ret.height = in.readInt();
+            ret.indexOffset = in.readLong();
+            return ret;
+        }
+
+        public String toString() {
+            return "RpfTileStore.Entry[" + tocNumber + ":" + entryNumber + " " + seriesCode + " " + scaleString + " level "
+                    + level + ", " + width + "x" + height + " subframes]";
+        }
+    }
+
+    /**
+     * A decompressed subframe, with its colors.
+     */
+    public static class Tile {
+        /** The ARGB colors the pixels refer to. */
+        public int[] colors;
+        /** An index into the colors for each pixel, row by row. */
+        public byte[] pixels;
+        /** The attribute text for the subframe. */
+        public String attributes = "";
+
+        public Tile() {
+        }
+
+        public Tile(int[] colors, byte[] pixels, String attributes) {
+            this.colors = colors;
+            this.pixels = pixels;
+            this.attributes = attributes != null ? attributes : "";
+        }
+
+        /**
+         * @return the ARGB color of a pixel.
+         */
+        public int getRGB(int pixel) {
+            int index = pixels[pixel] & 0xff;
+            return index < colors.length ? colors[index] : 0;
+        }
+
+        /**
+         * @return the bytes stored in the file for the subframe.
+         */
+        public byte[] encode()
+                throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(SUBFRAME_PIXELS / 4);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(baos, deflater));
+            out.writeShort(colors.length);
+            for (int color : colors) {
+                out.writeInt(color);
+            }
+            out.write(pixels, 0, SUBFRAME_PIXELS);
+            out.writeUTF(attributes);
+            out.close();
+            deflater.end();
+            return baos.toByteArray();
+        }
+
+        public static Tile decode(byte[] bytes)
+                throws IOException {
+            DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes)));
+            try {
+                Tile ret = new Tile();
+                ret.colors = new int[in.readUnsignedShort()];
+                for (int i = 0; i < ret.colors.length; i++) {
+                    ret.colors[i] = in.readInt();
+                }
+                ret.pixels = new byte[SUBFRAME_PIXELS];
+                in.readFully(ret.pixels);
+                ret.attributes = in.readUTF();
+                return ret;
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Open a tile store.
+     *
+     * @param path the path to the file.
+     * @throws IOException if the file can't be read.
+     * @throws FormatException if it isn't a tile store.
+     */
+    public RpfTileStore(String path) throws IOException, FormatException {
+        this.path = path;
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+
+        try {
+            byte[] magic = new byte[MAGIC.length()];
+            file.readFully(magic);
+            if (!MAGIC.equals(new String(magic, "US-ASCII"))) {
+                throw new FormatException("RpfTileStore: " + path + " isn't a tile store");
+            }
+            long directoryOffset = file.readLong();
+            if (directoryOffset < HEADER_LENGTH || directoryOffset >= file.length()) {
+                throw new FormatException("RpfTileStore: " + path + " wasn't finished");
+            }
+
+            file.seek(directoryOffset);
+            int numTocs = file.readInt();
+            sources = new String[numTocs];
+            entries = new Entry[numTocs][];
+            for (int i = 0; i < numTocs; i++) {
+                sources[i] = file.readUTF();
+                entries[i] = new Entry[file.readInt()];
+                for (int j = 0; j < entries[i].length; j++) {
+                    entries[i][j] = Entry.read(file, i, j);
+                }
+            }
+
+            for (Entry[] tocEntries : entries) {
+                for (Entry entry : tocEntries) {
+                    long length = (long) entry.width * entry.height * INDEX_RECORD_LENGTH;
+                    MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, entry.indexOffset, length);
+                    entry.index = index;
+                }
+            }
+        } catch (EOFException eofe) {
+            close();
+            throw new FormatException("RpfTileStore: " + path + " is truncated");
+        } catch (IOException ioe) {
+            close();
+            throw ioe;
+        } catch (FormatException fe) {
+            close();
+            throw fe;
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the number of A.TOCs in the store.
+     */
+    public int getNumTocs() {
+        return entries.length;
+    }
+
+    /**
+     * @return the path of the RPF directory an A.TOC came from.
+     */
+    public String getSource(int tocNumber) {
+        return sources[tocNumber];
+    }
+
+    /**
+     * @return the entries for an A.TOC, the ones from the A.TOC first, in the
+     *         same order, and then the overviews.
+     */
+    public Entry[] getEntries(int tocNumber) {
+        return entries[tocNumber];
+    }
+
+    /**
+     * @return the entry, or null if the numbers are out of range.
+     */
+    public Entry getEntry(int tocNumber, int entryNumber) {
+        if (tocNumber < 0 || tocNumber >= entries.length || entryNumber < 0 || entryNumber >= entries[tocNumber].length) {
+            return null;
+        }
+        return entries[tocNumber][entryNumber];
+    }
+
+    /**
+     * Get a subframe. Safe to call from several threads at once.
+     *
+     * @param tocNumber the A.TOC number.
+     * @param entryNumber the entry number in the A.TOC.
+     * @param x the horizontal subframe index, from the left side of the entry.
+     * @param y the vertical subframe index, from the top side of the entry.
+     * @return the subframe, or null if there isn't one there.
+     * @throws IOException if the read fails or the store has been closed.
+     */
+    public Tile getTile(int tocNumber, int entryNumber, int x, int y)
+            throws IOException {
+        FileChannel fc = channel;
+        if (fc == null) {
+            throw new IOException("RpfTileStore: " + path + " is closed");
+        }
+        Entry entry = getEntry(tocNumber, entryNumber);
+        if (entry == null || x < 0 || y < 0 || x >= entry.width || y >= entry.height) {
+            return null;
+        }
+
+        int position = (y * entry.width + x) * INDEX_RECORD_LENGTH;
+        long offset = entry.index.getLong(position);
+        int length = entry.index.getInt(position + 8);
+        if (length <= 0) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (fc.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("RpfTileStore: subframe past the end of " + path);
+            }
+        }
+        return Tile.decode(buffer.array());
+    }
+
+    public void close() {
+        try {
+            if (file != null) {
+                file.close();
+            }
+        } catch (IOException ioe) {
+            // Nothing to do about it.
+        }
+        file = null;
+        channel = null;
+    }
+}
@@ -0,0 +1,173 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.rpf;
+
+import java.awt.Color;
+import java.io.IOException;
+
+import com.bbn.openmap.io.FormatException;
+import com.bbn.openmap.util.Debug;
+
+/**
+ * A RpfFrameProvider that gets its subframes from a RpfTileStore instead of
+ * the RPF frame files. The subframes in the store are already decompressed, so
+ * getting one is a lookup and a read. The overview levels in the store are
+ * handed out as boundary rectangles at smaller scales, so the coverage
+ * searches pick them when the map is zoomed out past the native scale of the
+ * data.
+ */
+public class RpfTileStoreFrameProvider extends RpfFrameCacheHandler {
+
+    protected RpfTileStore store;
+
+    /**
+     * @param path the path to a file created by MakeRpfTileStore.
+     */
+    public RpfTileStoreFrameProvider(String path) throws IOException, FormatException {
+        this(new RpfTileStore(path));
+    }
+
+    public RpfTileStoreFrameProvider(RpfTileStore store) {
+        super(createTocHandlers(store));
+        this.store = store;
+    }
+
+    /**
+     * Create a RpfTocHandler for each A.TOC in the store, with entries for the
+     * base and overview levels.
+     */
+    public static RpfTocHandler[] createTocHandlers(RpfTileStore store) {
+        RpfTocHandler[] tocs = new RpfTocHandler[store.getNumTocs()];
+        for (int i = 0; i < tocs.length; i++) {
+            RpfTileStore.Entry[] entries = store.getEntries(i);
+            RpfTocEntry[] tocEntries = new RpfTocEntry[entries.length];
+            for (int j = 0; j < entries.length; j++) {
+                tocEntries[j] = createTocEntry(entries[j]);
+            }
+            tocs[i] = new RpfTocHandler(tocEntries, i);
+        }
+        return tocs;
+    }
+
+    protected static RpfTocEntry createTocEntry(RpfTileStore.Entry entry) {
+        RpfTocEntry tocEntry = new RpfTocEntry(entry.tocNumber, entry.entryNumber);
+        tocEntry.vertInterval = entry.vertInterval;
+        tocEntry.horizInterval = entry.horizInterval;
+        tocEntry.vertResolution = entry.vertResolution;
+        tocEntry.horizResolution = entry.horizResolution;
+        // Not really frames, but the frame provider checks subframe indexes
+        // against these.
+        tocEntry.horizFrames = (entry.width + 5) / 6;
+        tocEntry.vertFrames = (entry.height + 5) / 6;
+        tocEntry.zone = entry.zone;
+        tocEntry.Cib = entry.cib;
+        tocEntry.compressionRatio = entry.compressionRatio;
+        tocEntry.producer = entry.producer;
+        tocEntry.scale = entry.scaleString;
+
+        RpfCoverageBox coverage = tocEntry.coverage;
+        coverage.nw_lat = entry.nwLat;
+        coverage.nw_lon = entry.nwLon;
+        coverage.se_lat = entry.seLat;
+        coverage.se_lon = entry.seLon;
+        coverage.subframeLatInterval = entry.getSubframeLatInterval();
+        coverage.subframeLonInterval = entry.getSubframeLonInterval();
+        coverage.scale = entry.scale;
+        coverage.zone = com.bbn.openmap.proj.CADRG.getProjZone(entry.zone);
+
+        // The overviews need their own scale, so the catalog entry is copied.
+        RpfProductInfo catalog = RpfProductInfo.get(entry.seriesCode);
+        if (catalog == null) {
+            catalog = RpfConstants.UK;
+        }
+        tocEntry.info = new RpfProductInfo(catalog.seriesCode, catalog.abbr, entry.scaleString, entry.scale, catalog.name, catalog.dataType);
+        coverage.chartCode = tocEntry.info.seriesCode;
+        return tocEntry;
+    }
+
+    public RpfTileStore getStore() {
+        return store;
+    }
+
+    protected RpfTileStore.Tile getTile(int tocNumber, int entryNumber, int x, int y) {
+        try {
+            return store.getTile(tocNumber, entryNumber, x, y);
+        } catch (IOException ioe) {
+            if (Debug.debugging("rpf")) {
+                Debug.error("RpfTileStoreFrameProvider: problem reading subframe " + x + ", " + y + " from "
+                        + store.getPath() + ": " + ioe.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the colors of a subframe, with the opaqueness from the view
+     *         attributes applied.
+     */
+    protected int[] getColors(RpfTileStore.Tile tile) {
+        int opaqueness = viewAttributes != null ? viewAttributes.opaqueness : RpfColortable.DEFAULT_OPAQUENESS;
+        int[] colors = new int[tile.colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            int argb = tile.colors[i];
+            int alpha = (argb >>> 24) * opaqueness / 255;
+            colors[i] = (alpha << 24) | (argb & 0x00ffffff);
+        }
+        return colors;
+    }
+
+    public String getSubframeAttributes(int tocNumber, int entryNumber, int x, int y) {
+        RpfTileStore.Tile tile = getTile(tocNumber, entryNumber, x, y);
+        return tile != null ? tile.attributes : null;
+    }
+
+    public int[] getSubframeData(int tocNumber, int entryNumber, int x, int y) {
+        RpfTileStore.Tile tile = getTile(tocNumber, entryNumber, x, y);
+        if (tile == null) {
+            return null;
+        }
+
+        int[] colors = getColors(tile);
+        int[] pixels = new int[RpfTileStore.SUBFRAME_PIXELS];
+        for (int i = 0; i < pixels.length; i++) {
+            int index = tile.pixels[i] & 0xff;
+            pixels[i] = index < colors.length ? colors[index] : 0;
+        }
+        return pixels;
+    }
+
+    public RpfIndexedImageData getRawSubframeData(int tocNumber, int entryNumber, int x, int y) {
+        RpfTileStore.Tile tile = getTile(tocNumber, entryNumber, x, y);
+        if (tile == null) {
+            return null;
+        }
+
+        int[] colors = getColors(tile);
+        RpfIndexedImageData riid = new RpfIndexedImageData();
+        riid.imageData = tile.pixels;
+        riid.colortable = new Color[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            riid.colortable[i] = new Color(colors[i], true);
+        }
+        return riid;
+    }
+
+    /**
+     * Closes the store.
+     */
+    public void close() {
+        store.close();
+    }
+}
@@ -65,15 +65,24 @@ public class RpfTocEntry {
 
     public RpfTocEntry(BinaryFile binFile, int TOCNumber, int entryNumber)
             throws java.io.EOFException, FormatException {
-        coverage = new RpfCoverageBox();
-        coverage.tocNumber = TOCNumber;
-        coverage.entryNumber = entryNumber;
+        this(TOCNumber, entryNumber);
         read(binFile);
 
         // Figure out the CADRG projection zone for the coverage.
         coverage.zone = com.bbn.openmap.proj.CADRG.getProjZone(zone);
     }
 
+    /**
+     * Create an entry that isn't read from an A.TOC file. The caller fills in
+     * the coverage box and the other fields, and should set the coverage zone
+     * after the zone is set.
+     */
+    public RpfTocEntry(int TOCNumber, int entryNumber) {
+        coverage = new RpfCoverageBox();
+        coverage.tocNumber = TOCNumber;
+        coverage.entryNumber = entryNumber;
+    }
+
     public void setInfo(String seriesCode) {
         info = (RpfProductInfo) RpfProductInfo.getCatalog().get(seriesCode);
         if (info != null) {
@@ -167,6 +167,23 @@ public class RpfTocHandler {
         }
     }
 
+    /**
+     * Create a handler for entries that didn't come from an A.TOC file, like
+     * the ones in a RpfTileStore. The RpfFrameProvider using it has to know
+     * how to get the subframes for the entries, since there isn't any frame
+     * information to load.
+     * 
+     * @param entries the boundary rectangles.
+     * @param TOCNumber a unique number to identify this TOC for a
+     *        RpfFrameProvider.
+     */
+    public RpfTocHandler(RpfTocEntry[] entries, int TOCNumber) {
+        this.entries = entries;
+        tocNumber = TOCNumber;
+        numBoundaries = entries.length;
+        valid = true;
+    }
+
     /**
      * Given a parent RPF directory, find the a.toc file directly inside it, as
      * dictated by the specification. Not called anymore - the BinaryFile does
@@ -0,0 +1,378 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.shape;
+
+import java.util.Arrays;
+
+/**
+ * A static, packed Hilbert R-tree held in flat primitive arrays. Items are
+ * added once with {@link #add(double, double, double, double)}, the tree is
+ * packed with {@link #finish()}, and then {@link #search} can be called any
+ * number of times, from any number of threads. Queries cost O(log n + k)
+ * instead of the O(n) scan through every spatial index record.
+ * <p>
+ * The item boxes are sorted along a Hilbert curve through their centers and
+ * grouped into nodes of <code>nodeSize</code> entries, bottom up, so the tree
+ * is fully packed and needs no per-node objects. All of the boxes for every
+ * level live in one <code>double[]</code>, and the child pointers/item indexes
+ * live in one <code>int[]</code>, so a tree over 2 million shapes costs about
+ * 70 MB and no garbage per query.
+ * <p>
+ * The intersection test matches {@link SpatialIndex#intersects}, so a tree
+ * query returns the same set of items as a linear scan of the index.
+ */
+public class PackedRTree {
+
+    /** The default number of entries in each node of the tree. */
+    public final static int DEFAULT_NODE_SIZE = 16;
+
+    /** Resolution of the Hilbert curve used to order the items. */
+    protected final static int HILBERT_MAX = (1 << 16) - 1;
+
+    protected final int numItems;
+    protected final int nodeSize;
+    /** Boxes for items and nodes, xmin, ymin, xmax, ymax for each. */
+    protected final double[] boxes;
+    /** Item index for leaves, box array position for nodes. */
+    protected final int[] indices;
+    /** The end position, in the boxes array, of each level of the tree. */
+    protected final int[] levelBounds;
+
+    protected int pos = 0;
+    protected boolean finished = false;
+
+    protected double minX = Double.POSITIVE_INFINITY;
+    protected double minY = Double.POSITIVE_INFINITY;
+    protected double maxX = Double.NEGATIVE_INFINITY;
+    protected double maxY = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Create a tree with the default node size.
+     *
+     * @param numItems the exact number of items that will be added.
+     */
+    public PackedRTree(int numItems) {
+        this(numItems, DEFAULT_NODE_SIZE);
+    }
+
+    /**
+     * Create a tree.
+     *
+     * @param numItems the exact number of items that will be added.
+     * @param nodeSize the number of entries per node, at least 2.
+     */
+    public PackedRTree(int numItems, int nodeSize) {
+        if (numItems < 0) {
+            throw new IllegalArgumentException("numItems can't be negative: " + numItems);
+        }
+        this.numItems = numItems;
+        this.nodeSize = Math.max(2, nodeSize);
+
+        // Figure out how many nodes there will be, level by level.
+        int n = numItems;
+        int numNodes = n;
+        int[] bounds = new int[32];
+        int numLevels = 0;
+        bounds[numLevels++] = n * 4;
+        do {
+            n = (n + this.nodeSize - 1) / this.nodeSize;
+            numNodes += n;
+            bounds[numLevels++] = numNodes * 4;
+        } while (n > 1);
+
+        levelBounds = Arrays.copyOf(bounds, numLevels);
+        boxes = new double[numNodes * 4];
+        indices = new int[numNodes];
+    }
+
+    /**
+     * Add an item box to the tree. The items are numbered in the order they
+     * are added, starting at zero, and those numbers are what
+     * {@link #search} reports.
+     *
+     * @return the index of the item.
+     */
+    public int add(double xmin, double ymin, double xmax, double ymax) {
+        if (finished) {
+            throw new IllegalStateException("PackedRTree already finished");
+        }
+        int index = pos >> 2;
+        if (index >= numItems) {
+            throw new IllegalStateException("PackedRTree sized for " + numItems + " items");
+        }
+        indices[index] = index;
+        boxes[pos++] = xmin;
+        boxes[pos++] = ymin;
+        boxes[pos++] = xmax;
+        boxes[pos++] = ymax;
+
+        if (xmin < minX)
+            minX = xmin;
+        if (ymin < minY)
+            minY = ymin;
+        if (xmax > maxX)
+            maxX = xmax;
+        if (ymax > maxY)
+            maxY = ymax;
+
+        return index;
+    }
+
+    /**
+     * Sort the items along the Hilbert curve and build the node levels of the
+     * tree. Must be called after all items are added, before searching.
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        if ((pos >> 2) != numItems) {
+            throw new IllegalStateException("Added " + (pos >> 2) + " items, expected " + numItems);
+        }
+        finished = true;
+
+        if (numItems == 0) {
+            return;
+        }
+
+        if (numItems > nodeSize) {
+            double width = maxX - minX;
+            double height = maxY - minY;
+            int[] hilbertValues = new int[numItems];
+            for (int i = 0, p = 0; i < numItems; i++, p += 4) {
+                int x = width == 0 ? 0 : (int) Math.floor(HILBERT_MAX * ((boxes[p] + boxes[p + 2]) / 2 - minX) / width);
+                int y = height == 0 ? 0 : (int) Math.floor(HILBERT_MAX * ((boxes[p + 1] + boxes[p + 3]) / 2 - minY) / height);
+                // Flip the sign bit so the signed sort keeps the unsigned
+                // curve order.
+                hilbertValues[i] = hilbert(x, y) ^ Integer.MIN_VALUE;
+            }
+            sort(hilbertValues, 0, numItems - 1);
+        }
+
+        // Generate the nodes, one level at a time.
+        for (int i = 0, p = 0; i < levelBounds.length - 1; i++) {
+            int end = levelBounds[i];
+
+            while (p < end) {
+                int nodeIndex = p;
+
+                double nodeMinX = Double.POSITIVE_INFINITY;
+                double nodeMinY = Double.POSITIVE_INFINITY;
+                double nodeMaxX = Double.NEGATIVE_INFINITY;
+                double nodeMaxY = Double.NEGATIVE_INFINITY;
+                for (int j = 0; j < nodeSize && p < end; j++) {
+                    nodeMinX = Math.min(nodeMinX, boxes[p++]);
+                    nodeMinY = Math.min(nodeMinY, boxes[p++]);
+                    nodeMaxX = Math.max(nodeMaxX, boxes[p++]);
+                    nodeMaxY = Math.max(nodeMaxY, boxes[p++]);
+                }
+
+                indices[pos >> 2] = nodeIndex;
+                boxes[pos++] = nodeMinX;
+                boxes[pos++] = nodeMinY;
+                boxes[pos++] = nodeMaxX;
+                boxes[pos++] = nodeMaxY;
+            }
+        }
+    }
+
+    /**
+     * Find the items whose boxes intersect the query box.
+     *
+     * @param xmin the smaller of the x coordinates
+     * @param ymin the smaller of the y coordinates
+     * @param xmax the larger of the x coordinates
+     * @param ymax the larger of the y coordinates
+     * @return the indexes of the matching items, in no particular order.
+     */
+    public int[] search(double xmin, double ymin, double xmax, double ymax) {
+        if (!finished) {
+            throw new IllegalStateException("PackedRTree must be finished before searching");
+        }
+
+        if (numItems == 0) {
+            return new int[0];
+        }
+
+        int[] results = new int[16];
+        int numResults = 0;
+        int[] queue = new int[16];
+        int queueSize = 0;
+        int nodeIndex = boxes.length - 4;
+        int leafBound = numItems * 4;
+
+        while (true) {
+            int end = Math.min(nodeIndex + nodeSize * 4, upperBound(nodeIndex));
+
+            for (int p = nodeIndex; p < end; p += 4) {
+                if (!SpatialIndex.intersects(xmin, ymin, xmax, ymax, boxes[p], boxes[p + 1], boxes[p + 2], boxes[p + 3])) {
+                    continue;
+                }
+
+                int index = indices[p >> 2];
+                if (nodeIndex < leafBound) {
+                    if (numResults == results.length) {
+                        results = Arrays.copyOf(results, numResults * 2);
+                    }
+                    results[numResults++] = index;
+                } else {
+                    if (queueSize == queue.length) {
+                        queue = Arrays.copyOf(queue, queueSize * 2);
+                    }
+                    queue[queueSize++] = index;
+                }
+            }
+
+            if (queueSize == 0) {
+                break;
+            }
+            nodeIndex = queue[--queueSize];
+        }
+
+        return Arrays.copyOf(results, numResults);
+    }
+
+    /**
+     * @return the number of items in the tree.
+     */
+    public int size() {
+        return numItems;
+    }
+
+    /**
+     * @return the end position of the level that contains the box position.
+     */
+    protected int upperBound(int nodeIndex) {
+        int i = 0;
+        while (levelBounds[i] <= nodeIndex) {
+            i++;
+        }
+        return levelBounds[i];
+    }
+
+    /**
+     * Quicksort the items by Hilbert value, swapping the item boxes and
+     * indices along with the values.
+     */
+    protected void sort(int[] values, int left, int right) {
+        while (left < right) {
+            int pivot = values[(left + right) >> 1];
+            int i = left - 1;
+            int j = right + 1;
+
+            while (true) {
+                do
+                    i++;
+                while (values[i] < pivot);
+                do
+                    j--;
+                while (values[j] > pivot);
+                if (i >= j)
+                    break;
+                swap(values, i, j);
+            }
+
+            // Recurse on the smaller side to bound the stack depth.
+            if (j - left < right - j) {
+                sort(values, left, j);
+                left = j + 1;
+            } else {
+                sort(values, j + 1, right);
+                right = j;
+            }
+        }
+    }
+
+    protected void swap(int[] values, int i, int j) {
+        int tmp = values[i];
+        values[i] = values[j];
+        values[j] = tmp;
+
+        int k = 4 * i;
+        int m = 4 * j;
+        for (int n = 0; n < 4; n++) {
+            double b = boxes[k + n];
+            boxes[k + n] = boxes[m + n];
+            boxes[m + n] = b;
+        }
+
+        int index = indices[i];
+        indices[i] = indices[j];
+        indices[j] = index;
+    }
+
+    /**
+     * Compute the position of a point along a 16 bit Hilbert curve, without
+     * branching or looping over the curve levels.
+     *
+     * @param x 0 - 65535
+     * @param y 0 - 65535
+     * @return Hilbert value, as an unsigned 32 bit int.
+     */
+    protected static int hilbert(int x, int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int A = a | (b >>> 1);
+        int B = (a >>> 1) ^ a;
+        int C = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+        int D = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = ((a & (a >>> 2)) ^ (b & (b >>> 2)));
+        B = ((a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2)));
+        C ^= ((a & (c >>> 2)) ^ (b & (d >>> 2)));
+        D ^= ((b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2)));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = ((a & (a >>> 4)) ^ (b & (b >>> 4)));
+        B = ((a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4)));
+        C ^= ((a & (c >>> 4)) ^ (b & (d >>> 4)));
+        D ^= ((b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4)));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        C ^= ((a & (c >>> 8)) ^ (b & (d >>> 8)));
+        D ^= ((b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8)));
+
+        a = C ^ (C >>> 1);
+        b = D ^ (D >>> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+
+        i0 = (i0 | (i0 << 8)) & 0x00FF00FF;
+        i0 = (i0 | (i0 << 4)) & 0x0F0F0F0F;
+        i0 = (i0 | (i0 << 2)) & 0x33333333;
+        i0 = (i0 | (i0 << 1)) & 0x55555555;
+
+        i1 = (i1 | (i1 << 8)) & 0x00FF00FF;
+        i1 = (i1 | (i1 << 4)) & 0x0F0F0F0F;
+        i1 = (i1 | (i1 << 2)) & 0x33333333;
+        i1 = (i1 | (i1 << 1)) & 0x55555555;
+
+        return (i1 << 1) | i0;
+    }
+}
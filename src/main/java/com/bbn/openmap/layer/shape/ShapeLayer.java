@@ -42,7 +42,6 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 import com.bbn.openmap.dataAccess.shape.DbfHandler;
-import com.bbn.openmap.io.BinaryBufferedFile;
 import com.bbn.openmap.io.BinaryFile;
 import com.bbn.openmap.io.FormatException;
 import com.bbn.openmap.layer.OMGraphicHandlerLayer;
@@ -75,8 +74,17 @@ import com.bbn.openmap.util.PropUtils;
  * shapeLayer.fillColor=ff000000
  * # plus any other properties used by the DrawingAttributes object.
  * shapeLayer.pointImageURL=&amp;ltURL for image to use for point objects&amp;gt
+ * # Optional, build an in-memory R-tree of the spatial index (false by default)
+ * shapeLayer.indexTree=true
  *        
  *        
+ * # Optional, draw the shapes straight from the shape file into the layer's
+ * # image buffer without creating OMGraphics, for very large shape files (false by default).
+ * # Lines are drawn straight between projected points, so shapes that cross the
+ * # dateline are drawn across the whole map instead of wrapping, and shapes that are
+ * # only partly visible on azimuthal projections are drawn without their fill.
+ * shapeLayer.streaming=true
+ *        
  * # Optionally, Rule marker names specified in space-separated list
  * shapeLayer.rules=rule0 rule1
  * # global scale settings can be used so work is only performed within scale range of minScale/maxScale
@@ -133,6 +141,20 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
     /** The URL of an image to use for point objects. */
     public final static String pointImageURLProperty = "pointImageURL";
 
+    /**
+     * The name of the property that turns on the in-memory R-tree for the
+     * spatial index, for large shape files.
+     */
+    public final static String indexTreeProperty = "indexTree";
+
+    /**
+     * The name of the property that has the shapes drawn straight from the
+     * shape file, without creating OMGraphics for them. Shapes that cross the
+     * dateline aren't wrapped, they're drawn across the map, so this is meant
+     * for data that doesn't cross it.
+     */
+    public final static String streamingProperty = "streaming";
+
     // Note that shadows are really in the eye of the beholder
     // The X,Y shadow offset just pushes the resulting picture in the
     // direction of the offset and draws it there. By setting the
@@ -159,6 +181,8 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
     // For writing out to properties file later.
     String shapeFileName = null;
     String imageURLString = null;
+    boolean useIndexTree = false;
+    boolean streaming = false;
 
     /**
      * Initializes an empty shape layer.
@@ -183,7 +207,8 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
 
     /**
      * A call-back method to override in case you want to change the BinaryFile
-     * used to in the DbfHandler.
+     * used to in the DbfHandler. By default, the dbf file is memory mapped if
+     * BinaryFile.isMapFiles() is true (see DbfHandler.create()).
      * 
      * @param dbfFileName
      *            path to DBF file.
@@ -193,8 +218,7 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
      */
     protected DbfHandler createDbfHandler(String dbfFileName) throws FormatException,
             IOException {
-        BinaryBufferedFile bbf = new BinaryBufferedFile(dbfFileName);
-        return new DbfHandler(bbf);
+        return DbfHandler.create(dbfFileName);
     }
 
     /**
@@ -217,6 +241,11 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
             spatialIndex = SpatialIndex.locateAndSetShapeData(shapeFileName);
             String dbfFileName = SpatialIndex.dbf(shapeFileName);
 
+            useIndexTree = PropUtils.booleanFromProperties(props, realPrefix + indexTreeProperty, useIndexTree);
+            if (spatialIndex != null) {
+                spatialIndex.setUseTree(useIndexTree);
+            }
+
             try {
                 if (BinaryFile.exists(dbfFileName)) {
                     DbfHandler dbfh = createDbfHandler(dbfFileName);
@@ -275,6 +304,7 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
         
         shadowX = PropUtils.intFromProperties(props, realPrefix + shadowXProperty, 0);
         shadowY = PropUtils.intFromProperties(props, realPrefix + shadowYProperty, 0);
+        setStreaming(PropUtils.booleanFromProperties(props, realPrefix + streamingProperty, streaming));
     }
 
     /**
@@ -291,6 +321,8 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
 
         props.put(prefix + shadowXProperty, Integer.toString(shadowX));
         props.put(prefix + shadowYProperty, Integer.toString(shadowY));
+        props.put(prefix + indexTreeProperty, Boolean.toString(useIndexTree));
+        props.put(prefix + streamingProperty, Boolean.toString(streaming));
 
         if (drawingAttributes != null) {
             drawingAttributes.setPropertyPrefix(getPropertyPrefix());
@@ -344,7 +376,7 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
 
         list.put(initPropertiesProperty, shapeFileProperty + " " + " "
                 + pointImageURLProperty + " " + shadowXProperty + " " + shadowYProperty
-                + " " + dummyMarker + " " + AddToBeanContextProperty + " "
+                + " " + indexTreeProperty + " " + streamingProperty + " " + dummyMarker + " " + AddToBeanContextProperty + " "
                 + MinScaleProperty + " " + MaxScaleProperty);
 
         PropUtils.setI18NPropertyInfo(
@@ -383,6 +415,24 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
                                       "Vertical pixel offset for shadow image for shapes.",
                                       null);
 
+        PropUtils.setI18NPropertyInfo(
+                                      i18n,
+                                      list,
+                                      ShapeLayer.class,
+                                      indexTreeProperty,
+                                      indexTreeProperty,
+                                      "Build an in-memory R-tree of the spatial index, faster for large shape files.",
+                                      "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
+
+        PropUtils.setI18NPropertyInfo(
+                                      i18n,
+                                      list,
+                                      ShapeLayer.class,
+                                      streamingProperty,
+                                      streamingProperty,
+                                      "Draw shapes straight from the shape file without creating OMGraphics, for very large shape files.",
+                                      "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
+
         return list;
     }
 
@@ -394,6 +444,28 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
         return drawingAttributes;
     }
 
+    /**
+     * Set whether the shapes should be drawn straight from the shape file into
+     * the layer's image buffer, instead of creating OMGraphics for them. The
+     * memory used doesn't grow with the shape file, but DBF rules are only
+     * applied to the shapes picked with the mouse. See StreamingShapeList.
+     * <P>
+     * A streaming layer always uses a BufferedImageRenderPolicy, even if
+     * another one was set in the properties, so the shape file is read once
+     * when the layer is prepared instead of on every repaint.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+        if (streaming && !(getRenderPolicy() instanceof BufferedImageRenderPolicy)) {
+            logger.fine("streaming, using a BufferedImageRenderPolicy");
+            setRenderPolicy(new BufferedImageRenderPolicy(this));
+        }
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
     public String getInfoText(OMGraphic omg) {
         return (String) omg.getAttribute(OMGraphic.INFOLINE);
     }
@@ -457,6 +529,10 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
             list = new OMGraphicList();
         }
 
+        if (streaming) {
+            return prepareStreaming(ulLat, ulLon, lrLat, lrLon, projection);
+        }
+
         // check for date line anomaly on the screen. we check for
         // ulLon >= lrLon, but we need to be careful of the check for
         // equality because of floating point arguments...
@@ -515,6 +591,28 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
         return list;
     }
 
+    /**
+     * Create the StreamingShapeList that draws the shapes on the map when it's
+     * rendered.
+     */
+    protected OMGraphicList prepareStreaming(double ulLat, double ulLon, double lrLat, double lrLon,
+                                             Projection projection) {
+        double ymin = Math.min(ulLat, lrLat);
+        double ymax = Math.max(ulLat, lrLat);
+        StreamingShapeList list;
+
+        if (ProjMath.isCrossingDateline(ulLon, lrLon, projection.getScale())) {
+            list = new StreamingShapeList(spatialIndex, drawingAttributes, coordTransform, ulLon, ymin, 180.0d, ymax);
+            list.addArea(-180.0d, ymin, lrLon, ymax);
+        } else {
+            list = new StreamingShapeList(spatialIndex, drawingAttributes, coordTransform, Math.min(ulLon, lrLon), ymin,
+                    Math.max(ulLon, lrLon), ymax);
+        }
+
+        list.generate(projection);
+        return list;
+    }
+
     /**
      * Renders the layer on the map.
      * 
@@ -525,6 +623,13 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
         if (shadowX == 0 && shadowY == 0) {
             // Enabling buffer...
             super.paint(g);
+        } else if (streaming) {
+            // Render the image buffer offset, rendering the list would read
+            // the shape file again.
+            Graphics shadowG = g.create();
+            shadowG.translate(shadowX, shadowY);
+            super.paint(shadowG);
+            shadowG.dispose();
         } else {
             // grab local for thread safety
             OMGraphicList omg = getList();
@@ -33,8 +33,12 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -192,6 +196,34 @@ public class SpatialIndex
      */
     protected List<Entry> entries;
 
+    /**
+     * The GeoCoordTransformation the entries were read with.
+     */
+    protected GeoCoordTransformation entriesTransform;
+
+    /**
+     * The entries and R-trees for the other GeoCoordTransformations that have
+     * been used, keyed by the transformation. locateRecords() works in shape
+     * file coordinates and getOMGraphics() in transformed ones, so going back
+     * and forth between them swaps these in instead of reading the ssx file
+     * and building the tree again.
+     */
+    protected Map<GeoCoordTransformation, EntrySet> otherEntries = new IdentityHashMap<GeoCoordTransformation, EntrySet>();
+
+    /**
+     * Flag to use a packed R-tree built from the entries to find the records
+     * that intersect an area, instead of looking at every entry. The tree is
+     * built once, the first time it's needed, and is worth it for large shape
+     * files that are queried over and over again.
+     */
+    protected boolean useTree = false;
+
+    /**
+     * The packed R-tree over the entries, if useTree is true. Item indexes in
+     * the tree are indexes into the entries list.
+     */
+    protected PackedRTree tree;
+
     /**
      * A factory object to use to create OMGraphics from the shp file.
      */
@@ -349,6 +381,11 @@ public class SpatialIndex
     public ESRIRecord[] locateRecords(double xmin, double ymin, double xmax, double ymax)
             throws IOException, FormatException {
 
+        if (useTree && shpFileName != null) {
+            // The bounds are gathered when the tree is built.
+            return locateTreeRecords(xmin, ymin, xmax, ymax);
+        }
+
         boolean gatherBounds = false;
 
         if (bounds == null) {
@@ -467,6 +504,79 @@ public class SpatialIndex
 
     }
 
+    /**
+     * The locateRecords implementation used when the R-tree is enabled. The
+     * tree provides the shp offsets of the intersecting records, and the
+     * record sizes are read from the shp record headers. Like locateRecords,
+     * the area is in the coordinates of the shape file, so the tree is built
+     * from untransformed entries.
+     */
+    protected ESRIRecord[] locateTreeRecords(double xmin, double ymin, double xmax, double ymax)
+            throws IOException, FormatException {
+
+        Iterator<Entry> it = entryIterator(xmin, ymin, xmax, ymax, null);
+
+        if (shp == null) {
+            shp = new BinaryBufferedFile(shpFileName);
+        }
+
+        shp.seek(32);
+        shp.byteOrder(false);
+        int shapeType = shp.readInteger();
+
+        Vector<ESRIRecord> v = new Vector<ESRIRecord>();
+        int sRecordSize = DEFAULT_SHAPE_RECORD_SIZE;
+        byte sRecord[] = new byte[sRecordSize];
+
+        try {
+            while (it.hasNext()) {
+                int byteOffset = it.next().getByteOffset();
+                shp.seek(byteOffset);
+                if (shp.read(sRecord, 0, SHAPE_RECORD_HEADER_LENGTH) < SHAPE_RECORD_HEADER_LENGTH) {
+                    logger.warning("SpatialIndex: couldn't read record header at " + byteOffset);
+                    break;
+                }
+
+                int contentLength = readBEInt(sRecord, 4);
+                int recordSize = (contentLength * 2) + 8;
+
+                if (recordSize < 0) {
+                    logger.warning("SpatialIndex: supposed to read record size of " + recordSize);
+                    break;
+                }
+
+                if (recordSize > sRecordSize) {
+                    sRecordSize = recordSize;
+                    byte[] tmp = new byte[sRecordSize];
+                    System.arraycopy(sRecord, 0, tmp, 0, SHAPE_RECORD_HEADER_LENGTH);
+                    sRecord = tmp;
+                }
+
+                int contentBytes = recordSize - SHAPE_RECORD_HEADER_LENGTH;
+                int nBytes = shp.read(sRecord, SHAPE_RECORD_HEADER_LENGTH, contentBytes);
+                if (nBytes < contentBytes) {
+                    logger.warning("Shapefile SpatialIndex expected " + contentBytes + " bytes, but got " + nBytes
+                            + " bytes instead.");
+                }
+
+                v.addElement(makeESRIRecord(shapeType, sRecord, 0));
+            }
+        } catch (IOException ioe) {
+            logger.warning("SpatialIndex.locateRecords: IOException. ");
+            ioe.printStackTrace();
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Selected " + v.size() + " records from R-tree");
+        }
+
+        shp.close();
+        shp = null;
+        ESRIRecord result[] = new ESRIRecord[v.size()];
+        v.copyInto(result);
+        return result;
+    }
+
     /**
      * The factory is used to filter and create OMGraphics from a shape file.
      * This accessor is provided in order to allow you to modify the data
@@ -535,39 +645,36 @@ public class SpatialIndex
         OMGraphicList labels = new OMGraphicList();
         list.add(labels);
 
-        for (Iterator<?> it = entryIterator(dataProj); it.hasNext();) {
-            Entry entry = (Entry) it.next();
-
-            if (entry.intersects(xmin, ymin, xmax, ymax)) {
-
-                try {
+        for (Iterator<Entry> it = entryIterator(xmin, ymin, xmax, ymax, dataProj); it.hasNext();) {
+            Entry entry = it.next();
 
-                    OMGraphic omg =
-                            (OMGraphic) factory.makeEsriGraphicFromRecord(entry.getByteOffset(), shp, drawingAttributes, pointIcon,
-                                                                          byteTracker);
+            try {
 
-                    if (omg != null) {
+                OMGraphic omg =
+                        (OMGraphic) factory.makeEsriGraphicFromRecord(entry.getByteOffset(), shp, drawingAttributes, pointIcon,
+                                                                      byteTracker);
 
-                        if (dbf != null) {
-                            omg = dbf.evaluate(omg, labels, mapProj);
+                if (omg != null) {
 
-                            if (omg == null) {
-                                // Failed dbf test, should be ignored.
-                                continue;
-                            }
-                        }
+                    if (dbf != null) {
+                        omg = dbf.evaluate(omg, labels, mapProj);
 
-                        if (mapProj != null) {
-                            omg.generate(mapProj);
+                        if (omg == null) {
+                            // Failed dbf test, should be ignored.
+                            continue;
                         }
-                        list.add(omg);
                     }
 
-                } catch (IOException ioe) {
-                    logger.warning("IOException message: " + ioe.getMessage());
-                    ioe.printStackTrace();
-                    break;
+                    if (mapProj != null) {
+                        omg.generate(mapProj);
+                    }
+                    list.add(omg);
                 }
+
+            } catch (IOException ioe) {
+                logger.warning("IOException message: " + ioe.getMessage());
+                ioe.printStackTrace();
+                break;
             }
         }
 
@@ -710,7 +817,8 @@ public class SpatialIndex
     }
 
     /**
-     * Provides an iterator over the SpatialIndex entries.
+     * Provides an iterator over the SpatialIndex entries. The entries are read
+     * once and kept, and read again if a different dataTransform is used.
      * 
      * @param dataTransform GeoCoordTransform for pre-projected data.
      * @return iterator over entries, data transformed.
@@ -719,7 +827,34 @@ public class SpatialIndex
      */
     public Iterator<Entry> entryIterator(GeoCoordTransformation dataTransform)
             throws IOException, FormatException {
-        if (entries == null) {
+        return getEntries(dataTransform).iterator();
+    }
+
+    /**
+     * Make the entries for a GeoCoordTransformation the current ones. Entries
+     * already read with the transformation are swapped back in, with their
+     * R-tree, otherwise the ssx file is read.
+     * 
+     * @param dataTransform GeoCoordTransform for pre-projected data.
+     * @return the entries, data transformed.
+     * @throws IOException
+     * @throws FormatException
+     */
+    protected synchronized List<Entry> getEntries(GeoCoordTransformation dataTransform)
+            throws IOException, FormatException {
+        if (entries != null && dataTransform == entriesTransform) {
+            return entries;
+        }
+
+        if (entries != null) {
+            otherEntries.put(entriesTransform, new EntrySet(entries, tree));
+        }
+
+        EntrySet entrySet = otherEntries.remove(dataTransform);
+        if (entrySet != null) {
+            entries = entrySet.entries;
+            tree = entrySet.tree;
+        } else {
             boolean gatherBounds = false;
             if (bounds == null) {
                 bounds = new ESRIBoundingBox();
@@ -728,8 +863,148 @@ public class SpatialIndex
 
             entries = readIndexFile(gatherBounds ? bounds : null, dataTransform);
         }
+        entriesTransform = dataTransform;
 
-        return entries.iterator();
+        return entries;
+    }
+
+    /**
+     * Provides an iterator over the SpatialIndex entries that intersect the
+     * given rectangle, in shape file order. If the R-tree is enabled, the tree
+     * is built the first time this is called and used to find the entries,
+     * otherwise every entry is checked.
+     * 
+     * @param xmin the smaller of the x coordinates
+     * @param ymin the smaller of the y coordinates
+     * @param xmax the larger of the x coordinates
+     * @param ymax the larger of the y coordinates
+     * @param dataTransform GeoCoordTransform for pre-projected data.
+     * @return iterator over intersecting entries, data transformed.
+     * @throws IOException
+     * @throws FormatException
+     */
+    public Iterator<Entry> entryIterator(final double xmin, final double ymin, final double xmax, final double ymax,
+                                         GeoCoordTransformation dataTransform)
+            throws IOException, FormatException {
+
+        final List<Entry> entryList;
+        PackedRTree rtree = null;
+        synchronized (this) {
+            entryList = getEntries(dataTransform);
+            if (useTree) {
+                rtree = getTree();
+            }
+        }
+
+        if (rtree != null) {
+            final int[] hits = rtree.search(xmin, ymin, xmax, ymax);
+            // Keep the shape file order, so shapes are drawn as before.
+            Arrays.sort(hits);
+
+            return new Iterator<Entry>() {
+                int i = 0;
+
+                public boolean hasNext() {
+                    return i < hits.length;
+                }
+
+                public Entry next() {
+                    if (i >= hits.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return entryList.get(hits[i++]);
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        final Iterator<Entry> it = entryList.iterator();
+        return new Iterator<Entry>() {
+            Entry nextEntry = findNext();
+
+            private Entry findNext() {
+                while (it.hasNext()) {
+                    Entry entry = it.next();
+                    if (entry.intersects(xmin, ymin, xmax, ymax)) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return nextEntry != null;
+            }
+
+            public Entry next() {
+                if (nextEntry == null) {
+                    throw new NoSuchElementException();
+                }
+                Entry ret = nextEntry;
+                nextEntry = findNext();
+                return ret;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns the packed R-tree over the current entries, building it if
+     * needed. The entries should be read before this is called. If the bounds
+     * haven't been set, they are gathered from the entries.
+     * 
+     * @return PackedRTree, item indexes are indexes into the entries list.
+     */
+    protected synchronized PackedRTree getTree() {
+        List<Entry> entryList = entries;
+        if (tree == null || entryList == null || tree.size() != entryList.size()) {
+            int size = entryList == null ? 0 : entryList.size();
+            PackedRTree rtree = new PackedRTree(size);
+            ESRIBoundingBox gathered = bounds == null && size > 0 ? new ESRIBoundingBox() : null;
+            for (int i = 0; i < size; i++) {
+                Entry entry = entryList.get(i);
+                rtree.add(entry.xMin, entry.yMin, entry.xMax, entry.yMax);
+                if (gathered != null) {
+                    entry.addToBounds(gathered);
+                }
+            }
+            if (gathered != null) {
+                bounds = gathered;
+            }
+            rtree.finish();
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("built R-tree for " + size + " entries");
+            }
+
+            tree = rtree;
+        }
+        return tree;
+    }
+
+    /**
+     * Set whether a packed R-tree should be used to find the entries that
+     * intersect a query area. Good for large files, the tree is built in
+     * memory the first time it's needed.
+     */
+    public synchronized void setUseTree(boolean useTree) {
+        this.useTree = useTree;
+        if (!useTree) {
+            tree = null;
+            for (EntrySet entrySet : otherEntries.values()) {
+                entrySet.tree = null;
+            }
+        }
+    }
+
+    public boolean isUseTree() {
+        return useTree;
     }
 
     /**
@@ -755,6 +1030,7 @@ public class SpatialIndex
     protected List<Entry> readIndexFile(ESRIBoundingBox bounds, GeoCoordTransformation dataTransform)
             throws IOException, FormatException {
         entries = new ArrayList<Entry>();
+        tree = null;
 
         byte ixRecord[] = new byte[SPATIAL_INDEX_RECORD_LENGTH];
 
@@ -1063,6 +1339,13 @@ public class SpatialIndex
             if (done && entries != null) {
                 entries.clear();
                 entries = null;
+                tree = null;
+            }
+
+            if (done) {
+                synchronized (this) {
+                    otherEntries.clear();
+                }
             }
 
             return true;
@@ -1109,6 +1392,28 @@ public class SpatialIndex
 
     }
 
+    /**
+     * The entries read with one GeoCoordTransformation, and the R-tree built
+     * from them, if there is one.
+     */
+    protected static class EntrySet {
+
+        final List<Entry> entries;
+        PackedRTree tree;
+
+        protected EntrySet(List<Entry> entries, PackedRTree tree) {
+            this.entries = entries;
+            this.tree = tree;
+        }
+    }
+
+    /**
+     * @return the path to the shape file this index is for.
+     */
+    public String getShpFileName() {
+        return shpFileName;
+    }
+
     public DbfHandler getDbf() {
         return dbf;
     }
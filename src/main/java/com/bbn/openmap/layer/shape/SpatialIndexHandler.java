@@ -42,7 +42,6 @@ import com.bbn.openmap.I18n;
 import com.bbn.openmap.Layer;
 import com.bbn.openmap.PropertyConsumer;
 import com.bbn.openmap.dataAccess.shape.DbfHandler;
-import com.bbn.openmap.io.BinaryBufferedFile;
 import com.bbn.openmap.io.BinaryFile;
 import com.bbn.openmap.io.FormatException;
 import com.bbn.openmap.layer.shape.SpatialIndex.Entry;
@@ -178,8 +177,7 @@ public class SpatialIndexHandler implements PropertyConsumer {
 
             try {
                 if (BinaryFile.exists(dbfFileName)) {
-                    BinaryBufferedFile bbf = new BinaryBufferedFile(dbfFileName);
-                    DbfHandler dbfh = new DbfHandler(bbf);
+                    DbfHandler dbfh = DbfHandler.create(dbfFileName);
                     dbfh.setProperties(realPrefix, props);
                     spatialIndex.setDbf(dbfh);
                 }
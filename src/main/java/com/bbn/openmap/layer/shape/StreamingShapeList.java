@@ -0,0 +1,648 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.shape;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Stroke;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.ImageIcon;
+
+import com.bbn.openmap.dataAccess.shape.DbfHandler;
+import com.bbn.openmap.dataAccess.shape.EsriGraphicFactory;
+import com.bbn.openmap.dataAccess.shape.ShapeConstants;
+import com.bbn.openmap.io.BinaryBufferedFile;
+import com.bbn.openmap.io.BinaryFile;
+import com.bbn.openmap.io.FormatException;
+import com.bbn.openmap.omGraphics.DrawingAttributes;
+import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.proj.GeoProj;
+import com.bbn.openmap.proj.ProjMath;
+import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.proj.coords.GeoCoordTransformation;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+/**
+ * A StreamingShapeList stands in for the OMGraphics of a shape file without
+ * creating them. When it's rendered, the records in the query areas are read
+ * from the shape file one at a time, projected straight into screen
+ * coordinates, and drawn in batches into the Graphics - with the
+ * BufferedImageRenderPolicy, that's the layer's image buffer. No OMGraphics
+ * or DBF attributes are kept, so the memory used doesn't depend on the size of
+ * the shape file.
+ * <P>
+ *
+ * For picking, the list remembers the shp file offset and screen bounds of
+ * each record it drew, five ints a record. findClosest() creates OMGraphics
+ * for the records under the mouse from those offsets, and runs them through
+ * the DbfHandler so they get their tooltip and info line attributes.
+ * <P>
+ *
+ * All records are drawn with the same DrawingAttributes, DBF rules only apply
+ * to the picked OMGraphics, and lines are drawn straight between the projected
+ * points, so a ShapeLayer only uses this list when asked to. Records that cross
+ * the dateline aren't wrapped the way OMPoly wraps them, they're drawn across
+ * the map, and polygons that are only partly visible aren't clipped, only their
+ * edges are drawn.
+ */
+public class StreamingShapeList extends OMGraphicList {
+
+    private static final long serialVersionUID = 1L;
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.layer.shape.StreamingShapeList");
+
+    /** The number of records drawn with each fill and draw call. */
+    public final static int DEFAULT_BATCH_SIZE = 256;
+
+    /** The number of picked OMGraphics kept around for repeated mouse events. */
+    protected final static int PICK_CACHE_SIZE = 16;
+
+    /** The ints held in the pick index for each drawn record. */
+    protected final static int PICK_STRIDE = 5;
+
+    protected final static BasicStroke BASIC_STROKE = new BasicStroke();
+
+    protected SpatialIndex spatialIndex;
+    protected DrawingAttributes drawingAttributes;
+    protected GeoCoordTransformation dataTransform;
+    /** The query areas, xmin, ymin, xmax, ymax for each one. */
+    protected double[] areas;
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+
+    protected transient Projection projection;
+
+    /**
+     * The shp file offset and screen bounds of every record drawn by the last
+     * render, in drawing order.
+     */
+    protected transient volatile int[] picks = new int[0];
+    protected transient volatile int pickCount = 0;
+    protected transient volatile Projection pickProjection;
+
+    /** Picked OMGraphics, by shp file offset. */
+    protected transient Map<Integer, OMGraphic> pickCache = new LinkedHashMap<Integer, OMGraphic>(PICK_CACHE_SIZE * 2, .75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<Integer, OMGraphic> eldest) {
+            return size() > PICK_CACHE_SIZE;
+        }
+    };
+
+    // Reused buffers, only touched while rendering.
+    protected transient byte[] recordBytes = new byte[1024];
+    protected transient double[] llpts = new double[256];
+    protected transient float[] xpts = new float[128];
+    protected transient float[] ypts = new float[128];
+    protected transient long[] visibleBits = new long[2];
+    protected transient int[] parts = new int[16];
+
+    /**
+     * Create a list for the records that intersect one area.
+     *
+     * @param si the SpatialIndex for the shape file.
+     * @param da how the records are drawn.
+     * @param dataTransform for pre-projected data, may be null.
+     * @param xmin the smaller of the x coordinates
+     * @param ymin the smaller of the y coordinates
+     * @param xmax the larger of the x coordinates
+     * @param ymax the larger of the y coordinates
+     */
+    public StreamingShapeList(SpatialIndex si, DrawingAttributes da, GeoCoordTransformation dataTransform, double xmin,
+            double ymin, double xmax, double ymax) {
+        this.spatialIndex = si;
+        this.drawingAttributes = da;
+        this.dataTransform = dataTransform;
+        this.areas = new double[] { xmin, ymin, xmax, ymax };
+    }
+
+    /**
+     * Add another query area, for when the dateline is on the map.
+     */
+    public void addArea(double xmin, double ymin, double xmax, double ymax) {
+        double[] tmp = new double[areas.length + 4];
+        System.arraycopy(areas, 0, tmp, 0, areas.length);
+        tmp[areas.length] = xmin;
+        tmp[areas.length + 1] = ymin;
+        tmp[areas.length + 2] = xmax;
+        tmp[areas.length + 3] = ymax;
+        areas = tmp;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the number of records drawn by the last render.
+     */
+    public int getRenderedCount() {
+        return pickCount;
+    }
+
+    /**
+     * Just remembers the projection, the records are projected as they're
+     * rendered.
+     */
+    public boolean generate(Projection p, boolean forceProjectAll) {
+        projection = p;
+        return super.generate(p, forceProjectAll);
+    }
+
+    /**
+     * The list has its own visibility, it isn't taken from the OMGraphics on
+     * it since the records don't have any.
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Read, project and draw the records, and then anything else that's been
+     * added to the list.
+     */
+    public void render(Graphics g) {
+        Projection proj = projection;
+        if (proj != null && isVisible()) {
+            try {
+                stream((Graphics2D) g, proj);
+            } catch (IOException ioe) {
+                logger.warning("problem reading " + spatialIndex.getShpFileName() + ": " + ioe.getMessage());
+            } catch (FormatException fe) {
+                logger.warning("problem reading " + spatialIndex.getShpFileName() + ": " + fe.getMessage());
+            }
+        }
+        super.render(g);
+    }
+
+    /**
+     * Does the work for render().
+     */
+    protected synchronized void stream(Graphics2D g, Projection proj)
+            throws IOException, FormatException {
+
+        DrawingAttributes da = drawingAttributes;
+        if (da == null) {
+            da = DrawingAttributes.getDefaultClone();
+        }
+        Paint linePaint = da.getLinePaint();
+        Paint fillPaint = da.getFillPaint();
+        Stroke stroke = da.getStroke();
+        boolean fill = fillPaint != null && !DrawingAttributes.isClear(fillPaint);
+        boolean edge = linePaint != null && !DrawingAttributes.isClear(linePaint);
+        ImageIcon pointIcon = spatialIndex.getPointIcon();
+        Image pointImage = pointIcon == null ? null : pointIcon.getImage();
+        int pointRadius = da.getPointRadius();
+
+        int[] newPicks = new int[Math.max(PICK_STRIDE * 64, picks.length)];
+        int count = 0;
+
+        // Polygons are batched with polygons, everything else with lines.
+        Path2D.Float polygons = new Path2D.Float(Path2D.WIND_NON_ZERO);
+        Path2D.Float lines = new Path2D.Float(Path2D.WIND_NON_ZERO);
+        int batched = 0;
+
+        BinaryFile shp = new BinaryBufferedFile(spatialIndex.getShpFileName());
+        try {
+            for (int a = 0; a < areas.length; a += 4) {
+                Iterator<SpatialIndex.Entry> it =
+                        spatialIndex.entryIterator(areas[a], areas[a + 1], areas[a + 2], areas[a + 3], dataTransform);
+                while (it.hasNext()) {
+                    SpatialIndex.Entry entry = it.next();
+                    ByteBuffer record = readRecord(shp, entry.getByteOffset());
+                    if (record == null) {
+                        continue;
+                    }
+
+                    int shapeType = record.getInt();
+                    float[] bounds;
+                    if (isPoly(shapeType)) {
+                        bounds = appendPoly(record, shapeType, proj, polygons, lines);
+                    } else if (isPoint(shapeType)) {
+                        bounds = drawPoints(record, shapeType, proj, g, da, pointImage, pointRadius);
+                    } else {
+                        continue;
+                    }
+
+                    if (bounds == null) {
+                        continue;
+                    }
+
+                    if (newPicks.length < (count + 1) * PICK_STRIDE) {
+                        int[] tmp = new int[newPicks.length * 2];
+                        System.arraycopy(newPicks, 0, tmp, 0, count * PICK_STRIDE);
+                        newPicks = tmp;
+                    }
+                    int p = count++ * PICK_STRIDE;
+                    newPicks[p] = entry.getByteOffset();
+                    newPicks[p + 1] = (int) Math.floor(bounds[0]);
+                    newPicks[p + 2] = (int) Math.floor(bounds[1]);
+                    newPicks[p + 3] = (int) Math.ceil(bounds[2]);
+                    newPicks[p + 4] = (int) Math.ceil(bounds[3]);
+
+                    if (++batched >= batchSize) {
+                        flush(g, polygons, lines, fill, fillPaint, edge, linePaint, stroke);
+                        batched = 0;
+
+                        if (Thread.currentThread().isInterrupted()) {
+                            // Projection changed, the next render will do it
+                            // all again.
+                            logger.fine("interrupted");
+                            return;
+                        }
+                    }
+                }
+            }
+            flush(g, polygons, lines, fill, fillPaint, edge, linePaint, stroke);
+        } finally {
+            shp.close();
+            picks = newPicks;
+            pickCount = count;
+            pickProjection = proj;
+            synchronized (pickCache) {
+                pickCache.clear();
+            }
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("streamed " + count + " records from " + spatialIndex.getShpFileName());
+        }
+    }
+
+    /**
+     * Draw and empty the batched paths.
+     */
+    protected void flush(Graphics2D g, Path2D.Float polygons, Path2D.Float lines, boolean fill, Paint fillPaint,
+                         boolean edge, Paint linePaint, Stroke stroke) {
+        if (fill && polygons.getCurrentPoint() != null) {
+            g.setStroke(BASIC_STROKE);
+            g.setPaint(fillPaint);
+            g.fill(polygons);
+        }
+        if (edge) {
+            g.setStroke(stroke);
+            g.setPaint(linePaint);
+            if (polygons.getCurrentPoint() != null) {
+                g.draw(polygons);
+            }
+            if (lines.getCurrentPoint() != null) {
+                g.draw(lines);
+            }
+        }
+        polygons.reset();
+        lines.reset();
+    }
+
+    /**
+     * Read a record's contents.
+     *
+     * @return a little endian buffer positioned at the shape type, or null for
+     *         an empty record.
+     */
+    protected ByteBuffer readRecord(BinaryFile shp, int byteOffset)
+            throws IOException, FormatException {
+        shp.seek(byteOffset);
+        shp.byteOrder(true);
+        shp.readInteger(); // record number
+        int contentLength = shp.readInteger() * 2;
+        if (contentLength < 4) {
+            return null;
+        }
+        if (recordBytes.length < contentLength) {
+            recordBytes = new byte[Math.max(contentLength, recordBytes.length * 2)];
+        }
+        for (int read = 0; read < contentLength;) {
+            int count = shp.read(recordBytes, read, contentLength - read);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+        ByteBuffer record = ByteBuffer.wrap(recordBytes, 0, contentLength);
+        record.order(ByteOrder.LITTLE_ENDIAN);
+        return record;
+    }
+
+    /**
+     * Add the parts of a polyline or polygon record to a path. Polygons with
+     * every point visible go on the polygons path, everything else on the
+     * lines path. A polygon that's only partly visible, on an azimuthal
+     * projection, is broken into open pieces that would be filled with chords
+     * across it, so only its edges are drawn.
+     *
+     * @return the screen bounds of the record, or null if none of it is
+     *         visible.
+     */
+    protected float[] appendPoly(ByteBuffer record, int shapeType, Projection proj, Path2D.Float polygons,
+                                 Path2D.Float lines) {
+        record.position(record.position() + 32); // bounding box
+        int numParts = record.getInt();
+        int numPoints = record.getInt();
+        if (numParts <= 0 || numPoints <= 0) {
+            return null;
+        }
+        if (parts.length < numParts) {
+            parts = new int[numParts];
+        }
+        for (int i = 0; i < numParts; i++) {
+            parts[i] = record.getInt();
+        }
+
+        project(record, numPoints, proj);
+
+        boolean closed = isPolygon(shapeType);
+        for (int j = 0; closed && j < numPoints; j++) {
+            if (!GeoProj.isVisible(visibleBits, j)) {
+                closed = false;
+            }
+        }
+        Path2D.Float path = closed ? polygons : lines;
+
+        float[] bounds = null;
+        for (int i = 0; i < numParts; i++) {
+            int start = parts[i];
+            int end = i + 1 < numParts ? parts[i + 1] : numPoints;
+            boolean penDown = false;
+            for (int j = start; j < end && j < numPoints; j++) {
+                if (!GeoProj.isVisible(visibleBits, j)) {
+                    penDown = false;
+                    continue;
+                }
+                float x = xpts[j];
+                float y = ypts[j];
+                if (penDown) {
+                    path.lineTo(x, y);
+                } else {
+                    path.moveTo(x, y);
+                    penDown = true;
+                }
+                bounds = addToBounds(bounds, x, y);
+            }
+            if (closed && penDown) {
+                path.closePath();
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Draw the points of a point or multipoint record right away, they aren't
+     * batched.
+     *
+     * @return the screen bounds of the record, or null if none of it is
+     *         visible.
+     */
+    protected float[] drawPoints(ByteBuffer record, int shapeType, Projection proj, Graphics2D g, DrawingAttributes da,
+                                 Image pointImage, int radius) {
+        int numPoints = 1;
+        if (isMultiPoint(shapeType)) {
+            record.position(record.position() + 32); // bounding box
+            numPoints = record.getInt();
+        }
+        if (numPoints <= 0) {
+            return null;
+        }
+
+        project(record, numPoints, proj);
+
+        float[] bounds = null;
+        for (int j = 0; j < numPoints; j++) {
+            if (!GeoProj.isVisible(visibleBits, j)) {
+                continue;
+            }
+            int x = (int) xpts[j];
+            int y = (int) ypts[j];
+            if (pointImage != null) {
+                int w = pointImage.getWidth(null);
+                int h = pointImage.getHeight(null);
+                g.drawImage(pointImage, x - w / 2, y - h / 2, null);
+                bounds = addToBounds(bounds, x - w / 2, y - h / 2);
+                bounds = addToBounds(bounds, x + w / 2, y + h / 2);
+            } else {
+                Paint fillPaint = da.getFillPaint();
+                if (fillPaint != null && !DrawingAttributes.isClear(fillPaint)) {
+                    g.setPaint(fillPaint);
+                    if (da.isPointOval()) {
+                        g.fillOval(x - radius, y - radius, radius * 2, radius * 2);
+                    } else {
+                        g.fillRect(x - radius, y - radius, radius * 2, radius * 2);
+                    }
+                }
+                g.setPaint(da.getLinePaint());
+                g.setStroke(da.getStroke());
+                if (da.isPointOval()) {
+                    g.drawOval(x - radius, y - radius, radius * 2, radius * 2);
+                } else {
+                    g.drawRect(x - radius, y - radius, radius * 2, radius * 2);
+                }
+                bounds = addToBounds(bounds, x - radius, y - radius);
+                bounds = addToBounds(bounds, x + radius, y + radius);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Read numPoints x, y pairs from the record and project them into xpts and
+     * ypts, setting the visible bits.
+     */
+    protected void project(ByteBuffer record, int numPoints, Projection proj) {
+        if (xpts.length < numPoints) {
+            int size = Math.max(numPoints, xpts.length * 2);
+            xpts = new float[size];
+            ypts = new float[size];
+            llpts = new double[size * 2];
+            visibleBits = new long[(size >> 6) + 1];
+        }
+
+        if (proj instanceof GeoProj) {
+            LatLonPoint llp = dataTransform == null ? null : new LatLonPoint.Double();
+            for (int j = 0; j < numPoints; j++) {
+                double x = record.getDouble();
+                double y = record.getDouble();
+                if (dataTransform != null) {
+                    llp = dataTransform.inverse(x, y, llp);
+                    llpts[j * 2] = llp.getRadLat();
+                    llpts[j * 2 + 1] = llp.getRadLon();
+                } else {
+                    llpts[j * 2] = ProjMath.degToRad(y);
+                    llpts[j * 2 + 1] = ProjMath.degToRad(x);
+                }
+            }
+            ((GeoProj) proj).forwardBatch(llpts, 0, xpts, ypts, visibleBits, 0, numPoints);
+        } else {
+            Point2D pnt = new Point2D.Double();
+            for (int j = 0; j < numPoints; j++) {
+                double x = record.getDouble();
+                double y = record.getDouble();
+                pnt = proj.forward(y, x, pnt);
+                xpts[j] = (float) pnt.getX();
+                ypts[j] = (float) pnt.getY();
+                visibleBits[j >> 6] |= 1L << j;
+            }
+        }
+    }
+
+    protected static float[] addToBounds(float[] bounds, float x, float y) {
+        if (bounds == null) {
+            return new float[] { x, y, x, y };
+        }
+        bounds[0] = Math.min(bounds[0], x);
+        bounds[1] = Math.min(bounds[1], y);
+        bounds[2] = Math.max(bounds[2], x);
+        bounds[3] = Math.max(bounds[3], y);
+        return bounds;
+    }
+
+    /**
+     * Find the record closest to the point, among the ones drawn by the last
+     * render whose screen bounds are within the limit. The OMGraphics for the
+     * candidates are created from the shape file, topmost first. A record's
+     * OMGraphic isn't in the list, so its OMDist index is NONE.
+     */
+    public OMDist<OMGraphic> findClosest(double x, double y, float limit, boolean resetSelect) {
+        OMDist<OMGraphic> omd = super.findClosest(x, y, limit, resetSelect);
+
+        int[] pickIndex = picks;
+        int count = Math.min(pickCount, pickIndex.length / PICK_STRIDE);
+        Projection proj = pickProjection;
+        if (proj == null || count == 0 || omd.d == 0) {
+            return omd;
+        }
+
+        BinaryFile shp = null;
+        try {
+            for (int i = count - 1; i >= 0; i--) {
+                int p = i * PICK_STRIDE;
+                if (x < pickIndex[p + 1] - limit || y < pickIndex[p + 2] - limit || x > pickIndex[p + 3] + limit
+                        || y > pickIndex[p + 4] + limit) {
+                    continue;
+                }
+
+                Integer offset = Integer.valueOf(pickIndex[p]);
+                OMGraphic omg;
+                synchronized (pickCache) {
+                    omg = pickCache.get(offset);
+                }
+                if (omg == null) {
+                    if (shp == null) {
+                        shp = new BinaryBufferedFile(spatialIndex.getShpFileName());
+                    }
+                    omg = createGraphic(shp, offset.intValue(), proj);
+                    if (omg == null) {
+                        continue;
+                    }
+                    synchronized (pickCache) {
+                        pickCache.put(offset, omg);
+                    }
+                }
+
+                float d = omg.distance(x, y);
+                if (d < limit && d < omd.d) {
+                    omd.omg = omg;
+                    omd.d = d;
+                    omd.index = NONE;
+                    if (d == 0) {
+                        break;
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            logger.warning("problem reading " + spatialIndex.getShpFileName() + ": " + ioe.getMessage());
+        } catch (FormatException fe) {
+            logger.warning("problem reading " + spatialIndex.getShpFileName() + ": " + fe.getMessage());
+        } finally {
+            if (shp != null) {
+                try {
+                    shp.close();
+                } catch (IOException ioe) {
+                }
+            }
+            DbfHandler dbf = spatialIndex.getDbf();
+            if (dbf != null) {
+                dbf.close();
+            }
+        }
+
+        return omd;
+    }
+
+    /**
+     * Create the OMGraphic for a record, with its DBF attributes.
+     */
+    protected OMGraphic createGraphic(BinaryFile shp, int byteOffset, Projection proj)
+            throws IOException, FormatException {
+        OMGraphic omg =
+                spatialIndex.getFactory().makeEsriGraphicFromRecord(byteOffset, shp, drawingAttributes,
+                                                                    spatialIndex.getPointIcon(),
+                                                                    new EsriGraphicFactory.ReadByteTracker());
+        if (omg == null) {
+            return null;
+        }
+        OMGraphic evaluated = spatialIndex.evaluate(omg, new OMGraphicList(), proj);
+        if (evaluated != null) {
+            omg = evaluated;
+        }
+        omg.generate(proj);
+        return omg;
+    }
+
+    protected static boolean isPoly(int shapeType) {
+        switch (shapeType) {
+            case ShapeConstants.SHAPE_TYPE_POLYLINE:
+            case ShapeConstants.SHAPE_TYPE_POLYGON:
+            case ShapeConstants.SHAPE_TYPE_POLYLINEZ:
+            case ShapeConstants.SHAPE_TYPE_POLYGONZ:
+            case ShapeConstants.SHAPE_TYPE_POLYLINEM:
+            case ShapeConstants.SHAPE_TYPE_POLYGONM:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    protected static boolean isPolygon(int shapeType) {
+        return shapeType == ShapeConstants.SHAPE_TYPE_POLYGON || shapeType == ShapeConstants.SHAPE_TYPE_POLYGONZ
+                || shapeType == ShapeConstants.SHAPE_TYPE_POLYGONM;
+    }
+
+    protected static boolean isPoint(int shapeType) {
+        return shapeType == ShapeConstants.SHAPE_TYPE_POINT || shapeType == ShapeConstants.SHAPE_TYPE_POINTZ
+                || shapeType == ShapeConstants.SHAPE_TYPE_POINTM || isMultiPoint(shapeType);
+    }
+
+    protected static boolean isMultiPoint(int shapeType) {
+        return shapeType == ShapeConstants.SHAPE_TYPE_MULTIPOINT || shapeType == ShapeConstants.SHAPE_TYPE_MULTIPOINTZ
+                || shapeType == ShapeConstants.SHAPE_TYPE_MULTIPOINTM;
+    }
+}
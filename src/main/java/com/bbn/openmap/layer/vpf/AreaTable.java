@@ -17,7 +17,6 @@
 
 package com.bbn.openmap.layer.vpf;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import com.bbn.openmap.io.FormatException;
@@ -52,6 +51,9 @@ public class AreaTable
    /** TilingAdapters used to retrieve edge table information */
    final private TilingAdapter edgeRightFaceAdapter, edgeLeftFaceAdapter, edgeRightEdgeAdapter, edgeLeftEdgeAdapter;
 
+   /** cursors used by computeEdgePoints, opened when first needed */
+   private DcwRecordCursor ringCursor, edgeCursor;
+
    /**
     * Construct an AreaTable for a tile.
     * 
@@ -112,14 +114,20 @@ public class AreaTable
     * @return the total number of points that define the polygon
     * @exception FormatException may throw FormatExceptions
     */
-   public int computeEdgePoints(List<Object> facevec, List<CoordFloatString> allLLPoints)
+   public synchronized int computeEdgePoints(List<Object> facevec, List<CoordFloatString> allLLPoints)
          throws FormatException {
-      int ring_ptr = ((Number)facevec.get(ringIDColumn)).intValue();
-      List<Object> ring1 = new ArrayList<Object>(rings.getColumnCount());
-      rings.getRow(ring1, ring_ptr);
-      int fac_id = ((Number) ring1.get(faceIDColumn)).intValue();
+      if (ringCursor == null) {
+         ringCursor = rings.openCursor();
+         edgeCursor = edges.openCursor();
+      }
 
-      int startedgeid = ((Number) ring1.get(ringStartColumn)).intValue();
+      int ring_ptr = ((Number) facevec.get(ringIDColumn)).intValue();
+      if (!ringCursor.seek(ring_ptr)) {
+         throw new FormatException("AreaTable: no ring " + ring_ptr + " in " + rings.filename);
+      }
+      int fac_id = ringCursor.getInt(faceIDColumn);
+
+      int startedgeid = ringCursor.getInt(ringStartColumn);
       if (startedgeid <= 0) {
          return 0;
       }
@@ -128,10 +136,12 @@ public class AreaTable
       allLLPoints.clear();
       int polySize = 0;
       int prev_node = -1;
-      final List<Object> edge = new ArrayList<Object>(edges.getColumnCount());
+      final DcwRecordCursor edge = edgeCursor;
 
       do {
-         edges.getRow(edge, nextedgeid);
+         if (!edge.seek(nextedgeid)) {
+            throw new FormatException("AreaTable: no edge " + nextedgeid + " in " + edges.filename);
+         }
          int start_node = edges.getStartNode(edge);
          int end_node = edges.getEndNode(edge);
          int rht_face = edgeRightFaceAdapter.getPrimId(edge);
@@ -146,9 +156,10 @@ public class AreaTable
          // Debug.message("dcwSpecialist",
          // "edge: " + nextedgeid + " start->end: "
          // + start_node + "->" + end_node);
-         CoordFloatString cfs = edges.getCoordinates(edge);
 
          if ((fac_id == rht_face) && (fac_id == lft_face)) {
+            // Edges inside the face don't add any points, so their
+            // coordinates aren't read.
             if (start_node == prev_node) {
                nextedgeid = right_edge;
                prev_node = end_node;
@@ -159,11 +170,13 @@ public class AreaTable
                throw new FormatException(" node matching assertion failed ");
             }
          } else if (fac_id == rht_face) {
+            CoordFloatString cfs = edges.getCoordinates(edge);
             nextedgeid = right_edge;
             prev_node = end_node;
             polySize += cfs.tcount;
             allLLPoints.add(cfs);
          } else if (fac_id == lft_face) { // reverse direction
+            CoordFloatString cfs = edges.getCoordinates(edge);
             nextedgeid = left_edge;
             prev_node = start_node;
             polySize += cfs.tcount;
@@ -190,7 +203,9 @@ public class AreaTable
     */
    public void drawTile(VPFGraphicWarehouse warehouse, double dpplat, double dpplon, LatLonPoint ll1, LatLonPoint ll2) {
       try {
-         for (List<Object> area = new ArrayList<Object>(getColumnCount()); parseRow(area);) {
+         DcwRecordCursor cursor = openCursor();
+         List<Object> area = cursor.getRow();
+         while (cursor.next()) {
             warehouse.createArea(covtable, this, area, ll1, ll2, dpplat, dpplon);
          }
       } catch (FormatException f) {
@@ -58,6 +58,15 @@ public class CoordDoubleString implements CoordTupleString {
         }
     }
 
+    /**
+     * Construct a CoordDoubleString from values already read.
+     * 
+     * @param values the tuples, used as is.
+     */
+    public CoordDoubleString(double[][] values) {
+        vals = values;
+    }
+
     /**
      * The maximum indexable tuple value
      * 
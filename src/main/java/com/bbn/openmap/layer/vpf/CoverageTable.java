@@ -22,9 +22,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,6 +38,7 @@ import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
 import com.bbn.openmap.proj.coords.LatLonPoint;
 import com.bbn.openmap.util.Debug;
+import com.bbn.openmap.util.TaskService;
 
 /**
  * Encapsulate a VPF coverage directory. This class handles requests that happen
@@ -54,12 +58,12 @@ public class CoverageTable {
    /** a table to cache char.vdt information */
    final private Map<CoverageCharVdt, String> charvdtrec = new HashMap<CoverageCharVdt, String>();
 
-   /** hack - used by EdgeTable */
-   public int cachedLineSchema[] = null;
+   /** hack - used by EdgeTable, volatile since tiles can load in parallel */
+   public volatile int cachedLineSchema[] = null;
    /** hack - used by AreaTable */
-   public int cachedAreaSchema[] = null;
+   public volatile int cachedAreaSchema[] = null;
    /** hack - used by TextTable */
-   public int cachedTextSchema[] = null;
+   public volatile int cachedTextSchema[] = null;
    /** hack - used by nodetable */
    public int cachedEPointSchema[] = null;
    /** hack - used by nodetable */
@@ -497,6 +501,15 @@ public class CoverageTable {
          // the
          // whole file
 
+         if (warehouse instanceof VPFConcurrentFeatureWarehouse) {
+            if (drawFeaturesByTile(fci, (VPFConcurrentFeatureWarehouse) warehouse, ll1, ll2, dpplat, dpplon, currentFeature,
+                                   featureType)) {
+               didSomething = true;
+            }
+            fci.close();
+            continue;
+         }
+
          boolean needToFindOurselves = true;
 
          TilingAdapter fciTilingAdapter = fci.getTilingAdapter();
@@ -647,6 +660,38 @@ public class CoverageTable {
 
          fci.reopen(1);
 
+         if (warehouse instanceof VPFConcurrentFeatureWarehouse) {
+            VPFConcurrentFeatureWarehouse cfw = (VPFConcurrentFeatureWarehouse) warehouse;
+            List<TileJob> jobs = new ArrayList<TileJob>();
+            boolean loading = false;
+            try {
+               for (int i = 0; i < indexes.length; i++) {
+                  TileJob job = createTileJob(VPFUtil.objectToInt(indexes[i]), cfw, fci, ll1, ll2, currentFeature);
+                  if (job == null) {
+                     continue;
+                  }
+                  jobs.add(job);
+
+                  int[] featureID = thematicIndex.get(indexes[i]);
+                  for (int j = 0; j < featureID.length; j++) {
+                     if (fci.getRow(v, featureID[j])) {
+                        job.add(VPFUtil.objectToInt(v.get(primitiveIdColIndex)));
+                     }
+                  }
+               }
+               loading = true;
+               // Like the serial version, the thematic index did its job
+               // even if none of the features were on the map, so the
+               // whole table isn't scanned.
+               loadTiles(jobs, fci, cfw, ll1, ll2, dpplat, dpplon, currentFeature, featureType);
+               return true;
+            } finally {
+               if (!loading) {
+                  releaseTileLists(jobs, cfw);
+               }
+            }
+         }
+
          // We just know that these values are tile IDs.
          for (int i = 0; i < indexes.length; i++) {
             int tileID = VPFUtil.objectToInt(indexes[i]);
@@ -711,6 +756,228 @@ public class CoverageTable {
       }
    }
 
+   /**
+    * The drawFeatures() pass through the whole feature table for warehouses
+    * that can load tiles in parallel. The primitive IDs of the features are
+    * gathered by tile, and then the tiles are loaded.
+    * 
+    * @return true if any features were created.
+    */
+   protected boolean drawFeaturesByTile(FeatureClassInfo fci, VPFConcurrentFeatureWarehouse warehouse, LatLonPoint ll1,
+                                        LatLonPoint ll2, float dpplat, float dpplon, String currentFeature, char featureType) {
+
+      TilingAdapter fciTilingAdapter = fci.getTilingAdapter();
+      if (fciTilingAdapter == null) {
+         // no way to find primitives
+         return false;
+      }
+
+      // Tiles that aren't needed map to null. Unlike the serial version,
+      // features from tiles that are laid out in jumbled order in the FCI
+      // are all gathered.
+      Map<Integer, TileJob> tiles = new LinkedHashMap<Integer, TileJob>();
+      List<TileJob> jobs = new ArrayList<TileJob>();
+      boolean loading = false;
+      try {
+         try {
+            fci.checkInit();
+            DcwRecordCursor fcirow = fci.openCursor();
+            int oldTileID = -2; // -1 is "untiled" tile_id
+            TileJob job = null;
+            while (fcirow.next()) {
+               int tileID = fciTilingAdapter.getTileId(fcirow);
+               if (tileID != oldTileID) {
+                  oldTileID = tileID;
+                  if (tiles.containsKey(tileID)) {
+                     job = tiles.get(tileID);
+                  } else {
+                     job = createTileJob(tileID, warehouse, fci, ll1, ll2, currentFeature);
+                     tiles.put(tileID, job);
+                     if (job != null) {
+                        jobs.add(job);
+                     }
+                  }
+               }
+
+               if (job != null) {
+                  job.add(fciTilingAdapter.getPrimId(fcirow));
+               }
+            }
+         } catch (FormatException f) {
+            if (Debug.debugging("vpf.FormatException")) {
+               Debug.output("CoverageTable: Creating table: " + f.getClass() + " " + f.getMessage());
+            }
+         }
+
+         loading = true;
+         return loadTiles(jobs, fci, warehouse, ll1, ll2, dpplat, dpplon, currentFeature, featureType);
+      } finally {
+         if (!loading) {
+            releaseTileLists(jobs, warehouse);
+         }
+      }
+   }
+
+   /**
+    * Tell the warehouse that the lists of tile jobs that never made it to
+    * loadTiles() are done, so other threads waiting on them don't block.
+    */
+   protected void releaseTileLists(List<TileJob> jobs, VPFConcurrentFeatureWarehouse warehouse) {
+      for (TileJob job : jobs) {
+         warehouse.tileListLoaded(job.list);
+      }
+   }
+
+   /**
+    * Figure out if a tile needs to be loaded, and get the list for its
+    * features from the warehouse if it does.
+    * 
+    * @return a TileJob to add the primitive IDs of the features to, or null
+    *         if the tile doesn't exist, isn't on the map or is cached.
+    */
+   protected TileJob createTileJob(int tileID, VPFConcurrentFeatureWarehouse warehouse, FeatureClassInfo fci,
+                                   LatLonPoint ll1, LatLonPoint ll2, String currentFeature) {
+      TileDirectory currentTile = (tileID == -1) ? new TileDirectory() : cat.getTileWithID(tileID);
+
+      if (currentTile == null) {
+         Debug.error("VPFLayer|CoverageTable.drawFeatures: null tile from bogus ID (" + tileID + ") from " + fci.filename
+               + ", skipping...");
+         return null;
+      }
+
+      if ((tileID != -1)
+            && !currentTile.inRegion(ll1.getLatitude(), ll2.getLatitude(), ll2.getLongitude(), ll1.getLongitude())) {
+         if (Debug.debugging("vpf.tile")) {
+            Debug.output("Skipping " + currentFeature + " features for " + tileID + ", not on map");
+         }
+         return null;
+      }
+
+      String libraryname = "";
+      if (cat != null) {
+         libraryname = cat.libraryname;
+      }
+
+      FeatureCacheGraphicList list = warehouse.fetchTileList(libraryname, currentFeature, currentTile);
+      if (list == null) {
+         if (Debug.debugging("vpf")) {
+            Debug.output("CoverageTable: Loaded Cached List for " + currentFeature + " and " + currentTile.getPath());
+         }
+         return null;
+      }
+
+      return new TileJob(currentTile, list);
+   }
+
+   /**
+    * Create the features for a set of tiles. Each tile has its own primitive
+    * tables, so the tiles are loaded in parallel on the TaskService, with the
+    * calling thread helping out. The warehouse is told when each tile list is
+    * done, even if loading fails.
+    * 
+    * @return true if any features were created.
+    */
+   protected boolean loadTiles(final List<TileJob> jobs, final FeatureClassInfo fci,
+                               final VPFConcurrentFeatureWarehouse warehouse, final LatLonPoint ll1, final LatLonPoint ll2,
+                               final double dpplat, final double dpplon, final String currentFeature, final char featureType) {
+      if (jobs.isEmpty()) {
+         return false;
+      }
+
+      final AtomicInteger next = new AtomicInteger();
+      final AtomicBoolean didSomething = new AtomicBoolean();
+      try {
+         // Every tile of the coverage has the same columns, so fci is set
+         // up from the first one here, before the threads share it.
+         TableHolder tables = new TableHolder(this);
+         try {
+            tables.setTables(featureType, jobs.get(0).tile);
+            tables.findYourself(fci);
+         } catch (FormatException f) {
+            if (Debug.debugging("vpf.FormatException")) {
+               Debug.output("CoverageTable: loading " + jobs.get(0).tile + ": " + f.getClass() + " " + f.getMessage());
+            }
+         } finally {
+            tables.close();
+         }
+
+         TaskService taskService = TaskService.singleton();
+         taskService.runInParallel(new Runnable() {
+            public void run() {
+               int i;
+               while ((i = next.getAndIncrement()) < jobs.size()) {
+                  if (loadTile(jobs.get(i), fci, warehouse, ll1, ll2, dpplat, dpplon, currentFeature, featureType)) {
+                     didSomething.set(true);
+                  }
+               }
+            }
+         }, Math.min(jobs.size(), taskService.getMaxThreads()));
+      } finally {
+         releaseTileLists(jobs, warehouse);
+      }
+
+      return didSomething.get();
+   }
+
+   /**
+    * Create the features for one tile, with its own set of tables. fci has
+    * already been set up by loadTiles(), it's only read here.
+    * 
+    * @return true if any features were created.
+    */
+   protected boolean loadTile(TileJob job, FeatureClassInfo fci, VPFConcurrentFeatureWarehouse warehouse, LatLonPoint ll1,
+                              LatLonPoint ll2, double dpplat, double dpplon, String currentFeature, char featureType) {
+      if (Debug.debugging("vpf.tile")) {
+         Debug.output("CoverageTable: Drawing " + job.count + " " + featureType + " features for " + job.tile);
+      }
+
+      boolean didSomething = false;
+      TableHolder tables = new TableHolder(this);
+      warehouse.setTileList(job.list);
+      try {
+         tables.setTables(featureType, job.tile);
+
+         for (int i = 0; i < job.count; i++) {
+            if (tables.drawFeature(job.primitiveIDs[i], warehouse, ll1, ll2, dpplat, dpplon, currentFeature) != null) {
+               didSomething = true;
+            }
+         }
+      } catch (FormatException f) {
+         if (Debug.debugging("vpf.FormatException")) {
+            Debug.output("CoverageTable: loading " + job.tile + ": " + f.getClass() + " " + f.getMessage());
+         }
+      } finally {
+         warehouse.setTileList(null);
+         tables.close();
+      }
+      return didSomething;
+   }
+
+   /**
+    * The features of one feature type to create from a tile, and the list
+    * they go into.
+    */
+   protected static class TileJob {
+      final TileDirectory tile;
+      final FeatureCacheGraphicList list;
+      int[] primitiveIDs = new int[16];
+      int count = 0;
+
+      protected TileJob(TileDirectory tile, FeatureCacheGraphicList list) {
+         this.tile = tile;
+         this.list = list;
+      }
+
+      protected void add(int primitiveID) {
+         if (count == primitiveIDs.length) {
+            int[] tmp = new int[count * 2];
+            System.arraycopy(primitiveIDs, 0, tmp, 0, count);
+            primitiveIDs = tmp;
+         }
+         primitiveIDs[count++] = primitiveID;
+      }
+   }
+
    /**
     * This is a method specifically designed for the
     * VPFAutoFeatureGraphicWarehouse, and the CoverageTable knows to check with
@@ -0,0 +1,485 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.vpf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+
+import com.bbn.openmap.io.FormatException;
+
+/**
+ * Reads the rows of a VPF table straight out of a buffer holding the table
+ * file, without making objects for the column values. The cursor moves from
+ * row to row with next() or seek(), and the columns of the current row are
+ * read with the typed accessors, like getInt() and getCoordinates(). Only the
+ * columns that are asked for are read. For tables with fixed length records
+ * the columns are found directly, and for variable length records the
+ * columns before the one asked for are skipped over without being decoded,
+ * and the columns after it aren't looked at.
+ * <p>
+ * A cursor isn't thread safe, but different cursors on the same table can be
+ * used by different threads.
+ *
+ * @see DcwRecordFile#openCursor()
+ */
+public class DcwRecordCursor {
+
+    /** the table being read */
+    final protected DcwRecordFile table;
+    /** the columns of the table */
+    final protected DcwColumnInfo[] columns;
+    /** the contents of the table file */
+    final protected ByteBuffer buffer;
+    /** the number of rows in the table */
+    final protected int recordCount;
+    /**
+     * the offset of each column in a record, or null for variable length
+     * records
+     */
+    final protected int[] fixedOffsets;
+    /** the start of the columns of the current row that have been found */
+    final protected int[] starts;
+    /** the number of columns of the current row that have been found */
+    protected int found = 0;
+    /** the current row, 0 before the first row */
+    protected int row = 0;
+    /** a List view of the current row */
+    final protected Row rowView = new Row();
+
+    /**
+     * Construct a cursor for a table.
+     *
+     * @param table the table to read
+     * @param buffer the contents of the table file, in the byte order of the
+     *        table
+     * @exception FormatException the table description is bad
+     */
+    protected DcwRecordCursor(DcwRecordFile table, ByteBuffer buffer) throws FormatException {
+        this.table = table;
+        this.buffer = buffer;
+        columns = table.getColumnInfo();
+        starts = new int[columns.length + 1];
+
+        if (table.getRecordLength() != -1) {
+            fixedOffsets = new int[columns.length];
+            int offset = 0;
+            for (int i = 0; i < columns.length; i++) {
+                fixedOffsets[i] = offset;
+                offset += columns[i].fieldLength();
+            }
+            recordCount = (buffer.limit() - table.headerLength) / table.getRecordLength();
+        } else {
+            fixedOffsets = null;
+            recordCount = table.getRecordCount();
+        }
+    }
+
+    /**
+     * Get the table this cursor reads.
+     */
+    public DcwRecordFile getTable() {
+        return table;
+    }
+
+    /**
+     * Get the number of rows in the table.
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Get the number of the current row, [1..recordCount].
+     */
+    public int getRowNumber() {
+        return row;
+    }
+
+    /**
+     * Move to the next row.
+     *
+     * @return false if there are no more rows.
+     * @exception FormatException the row couldn't be found
+     */
+    public boolean next() throws FormatException {
+        return seek(row + 1);
+    }
+
+    /**
+     * Move to a row.
+     *
+     * @param rowNumber the number of the row [1..recordCount]
+     * @return false if there isn't a row with that number.
+     * @exception FormatException the row couldn't be found
+     * @exception IllegalArgumentException rowNumber less than 1
+     */
+    public boolean seek(int rowNumber) throws FormatException {
+        if (rowNumber <= 0) {
+            throw new IllegalArgumentException("DcwRecordCursor: seek(" + rowNumber + ") in " + table.filename);
+        }
+        found = 0;
+        if (rowNumber > recordCount) {
+            row = recordCount + 1;
+            return false;
+        }
+        row = rowNumber;
+
+        if (fixedOffsets != null || rowNumber == 1) {
+            starts[0] = table.headerLength + Math.max(table.getRecordLength(), 0) * (rowNumber - 1);
+        } else {
+            try {
+                starts[0] = table.vli().recordOffset(rowNumber);
+            } catch (IOException ioe) {
+                throw new FormatException("DcwRecordCursor: can't read index for " + table.filename + ": "
+                        + ioe.getMessage());
+            }
+        }
+        found = 1;
+        return true;
+    }
+
+    /**
+     * Find the start of a column in the current row.
+     */
+    protected int position(int col) {
+        if (found == 0) {
+            throw new IllegalStateException("DcwRecordCursor: no current row in " + table.filename);
+        }
+        if (fixedOffsets != null) {
+            return starts[0] + fixedOffsets[col];
+        }
+        while (found <= col) {
+            int start = starts[found - 1];
+            starts[found] = start + fieldSize(columns[found - 1], start);
+            found++;
+        }
+        return starts[col];
+    }
+
+    /**
+     * The number of bytes a field takes up in the file.
+     *
+     * @param column the column of the field
+     * @param pos the start of the field
+     */
+    protected int fieldSize(DcwColumnInfo column, int pos) {
+        int count = column.getNumberOfElements();
+        int countSize = 0;
+        if (count == -1) {
+            count = buffer.getInt(pos);
+            countSize = 4;
+        }
+
+        switch (column.getFieldType()) {
+        case DcwColumnInfo.VPF_COLUMN_TEXT:
+        case DcwColumnInfo.VPF_COLUMN_TEXTL1:
+        case DcwColumnInfo.VPF_COLUMN_TEXTL2:
+        case DcwColumnInfo.VPF_COLUMN_TEXTL3:
+            return countSize + count;
+        case DcwColumnInfo.VPF_COLUMN_FLOAT:
+            return 4;
+        case DcwColumnInfo.VPF_COLUMN_DOUBLE:
+            return 8;
+        case DcwColumnInfo.VPF_COLUMN_SHORT:
+            return 2;
+        case DcwColumnInfo.VPF_COLUMN_INT:
+            return 4;
+        case DcwColumnInfo.VPF_COLUMN_FLOAT_2COORD:
+            return countSize + count * 8;
+        case DcwColumnInfo.VPF_COLUMN_DOUBLE_2COORD:
+            return countSize + count * 16;
+        case DcwColumnInfo.VPF_COLUMN_FLOAT_3COORD:
+            return countSize + count * 12;
+        case DcwColumnInfo.VPF_COLUMN_DOUBLE_3COORD:
+            return countSize + count * 24;
+        case DcwColumnInfo.VPF_COLUMN_DATE:
+            return 20;
+        case DcwColumnInfo.VPF_COLUMN_NULL:
+            return 0;
+        case DcwColumnInfo.VPF_COLUMN_TRIPLET: {
+            int format = buffer.get(pos) & 0xff;
+            return 1 + keySize(format >> 6) + keySize(format >> 4) + keySize(format >> 2) + keySize(format);
+        }
+        default:
+            throw new IllegalStateException("Unknown field type: " + column.getFieldType());
+        }
+    }
+
+    /**
+     * The size of a cross tile identifier key, see DcwCrossTileID.
+     */
+    private static int keySize(int key) {
+        switch (key & 0x3) {
+        case 1:
+            return 1;
+        case 2:
+            return 2;
+        case 3:
+            return 4;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Read a cross tile identifier key, see DcwCrossTileID.
+     *
+     * @param part 0 for the current tile key, 1 for the next tile id, 2 for
+     *        the next tile key
+     */
+    private int crossTileValue(int col, int part) {
+        checkType(col, DcwColumnInfo.VPF_COLUMN_TRIPLET);
+        int pos = position(col);
+        int format = buffer.get(pos++) & 0xff;
+        for (int i = 0; i < part; i++) {
+            pos += keySize(format >> (6 - 2 * i));
+        }
+        switch ((format >> (6 - 2 * part)) & 0x3) {
+        case 1:
+            return buffer.get(pos) & 0xff;
+        case 2:
+            return buffer.getShort(pos) & 0xffff;
+        case 3:
+            return buffer.getInt(pos);
+        default:
+            return -1;
+        }
+    }
+
+    private void checkType(int col, char type) {
+        if (columns[col].getFieldType() != type) {
+            throw new IllegalArgumentException("DcwRecordCursor: column " + columns[col].getColumnName() + " of "
+                    + table.filename + " is type " + columns[col].getFieldType() + ", not " + type);
+        }
+    }
+
+    /**
+     * Get the value of an int or short column.
+     */
+    public int getInt(int col) {
+        switch (columns[col].getFieldType()) {
+        case DcwColumnInfo.VPF_COLUMN_INT:
+            return buffer.getInt(position(col));
+        case DcwColumnInfo.VPF_COLUMN_SHORT:
+            return buffer.getShort(position(col));
+        default:
+            checkType(col, DcwColumnInfo.VPF_COLUMN_INT);
+            return 0;
+        }
+    }
+
+    /**
+     * Get the value of a numeric column.
+     */
+    public double getDouble(int col) {
+        switch (columns[col].getFieldType()) {
+        case DcwColumnInfo.VPF_COLUMN_FLOAT:
+            return buffer.getFloat(position(col));
+        case DcwColumnInfo.VPF_COLUMN_DOUBLE:
+            return buffer.getDouble(position(col));
+        default:
+            return getInt(col);
+        }
+    }
+
+    /**
+     * Get the value of a text column. Fixed length text has the trailing
+     * whitespace trimmed off.
+     */
+    public String getString(int col) {
+        char type = columns[col].getFieldType();
+        if (type != DcwColumnInfo.VPF_COLUMN_TEXT && type != DcwColumnInfo.VPF_COLUMN_TEXTL1) {
+            checkType(col, DcwColumnInfo.VPF_COLUMN_TEXT);
+        }
+        int pos = position(col);
+        int count = columns[col].getNumberOfElements();
+        boolean fixed = count != -1;
+        if (!fixed) {
+            count = buffer.getInt(pos);
+            pos += 4;
+        }
+        char[] chars = new char[count];
+        for (int i = 0; i < count; i++) {
+            chars[i] = (char) (buffer.get(pos + i) & 0xff);
+        }
+        String s = new String(chars);
+        return fixed ? s.trim() : s;
+    }
+
+    /**
+     * Get the number of coordinate tuples in a coordinate column.
+     */
+    public int getTupleCount(int col) {
+        getTupleSize(col);
+        int count = columns[col].getNumberOfElements();
+        return count != -1 ? count : buffer.getInt(position(col));
+    }
+
+    /**
+     * Get the number of values in each tuple of a coordinate column, 2 or 3.
+     */
+    public int getTupleSize(int col) {
+        switch (columns[col].getFieldType()) {
+        case DcwColumnInfo.VPF_COLUMN_FLOAT_2COORD:
+        case DcwColumnInfo.VPF_COLUMN_DOUBLE_2COORD:
+            return 2;
+        case DcwColumnInfo.VPF_COLUMN_FLOAT_3COORD:
+        case DcwColumnInfo.VPF_COLUMN_DOUBLE_3COORD:
+            return 3;
+        default:
+            checkType(col, DcwColumnInfo.VPF_COLUMN_FLOAT_2COORD);
+            return 0;
+        }
+    }
+
+    /**
+     * Read the values of a coordinate column, as x1,y1,(z1),x2,y2,(z2)...
+     *
+     * @param col the column
+     * @param into the array to put the values in. If it's null or too
+     *        small, a new array is made.
+     * @return the array with the values, which may be longer than the
+     *         getTupleCount(col) * getTupleSize(col) values read.
+     */
+    public double[] getCoordinates(int col, double[] into) {
+        int size = getTupleSize(col);
+        int total = getTupleCount(col) * size;
+        if (into == null || into.length < total) {
+            into = new double[total];
+        }
+
+        int pos = position(col);
+        if (columns[col].getNumberOfElements() == -1) {
+            pos += 4;
+        }
+        char type = columns[col].getFieldType();
+        if (type == DcwColumnInfo.VPF_COLUMN_FLOAT_2COORD || type == DcwColumnInfo.VPF_COLUMN_FLOAT_3COORD) {
+            for (int i = 0; i < total; i++, pos += 4) {
+                into[i] = buffer.getFloat(pos);
+            }
+        } else {
+            for (int i = 0; i < total; i++, pos += 8) {
+                into[i] = buffer.getDouble(pos);
+            }
+        }
+        return into;
+    }
+
+    /**
+     * Get the key in the current tile from a cross tile identifier column.
+     */
+    public int getCurrentTileKey(int col) {
+        return crossTileValue(col, 0);
+    }
+
+    /**
+     * Get the id of the next tile from a cross tile identifier column.
+     */
+    public int getNextTileID(int col) {
+        return crossTileValue(col, 1);
+    }
+
+    /**
+     * Get the key in the next tile from a cross tile identifier column.
+     */
+    public int getNextTileKey(int col) {
+        return crossTileValue(col, 2);
+    }
+
+    /**
+     * Get the value of a column as the same kind of object
+     * DcwRecordFile.parseRow() makes for it.
+     */
+    public Object getObject(int col) {
+        DcwColumnInfo column = columns[col];
+        switch (column.getFieldType()) {
+        case DcwColumnInfo.VPF_COLUMN_TEXT:
+        case DcwColumnInfo.VPF_COLUMN_TEXTL1:
+            return getString(col);
+        case DcwColumnInfo.VPF_COLUMN_TEXTL2:
+        case DcwColumnInfo.VPF_COLUMN_TEXTL3: {
+            int pos = position(col);
+            int count = column.getNumberOfElements();
+            if (count == -1) {
+                count = buffer.getInt(pos);
+                pos += 4;
+            }
+            byte[] bytes = new byte[count];
+            for (int i = 0; i < count; i++) {
+                bytes[i] = buffer.get(pos + i);
+            }
+            return bytes;
+        }
+        case DcwColumnInfo.VPF_COLUMN_FLOAT:
+            return Float.valueOf(buffer.getFloat(position(col)));
+        case DcwColumnInfo.VPF_COLUMN_DOUBLE:
+            return Double.valueOf(buffer.getDouble(position(col)));
+        case DcwColumnInfo.VPF_COLUMN_SHORT:
+            return Short.valueOf(buffer.getShort(position(col)));
+        case DcwColumnInfo.VPF_COLUMN_INT:
+            return Integer.valueOf(buffer.getInt(position(col)));
+        case DcwColumnInfo.VPF_COLUMN_FLOAT_2COORD:
+        case DcwColumnInfo.VPF_COLUMN_FLOAT_3COORD:
+            return new CoordFloatString(getTupleCount(col), getTupleSize(col), getCoordinates(col, null));
+        case DcwColumnInfo.VPF_COLUMN_DOUBLE_2COORD:
+        case DcwColumnInfo.VPF_COLUMN_DOUBLE_3COORD: {
+            int count = getTupleCount(col);
+            int size = getTupleSize(col);
+            double[] values = getCoordinates(col, null);
+            double[][] tuples = new double[count][size];
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(values, i * size, tuples[i], 0, size);
+            }
+            return new CoordDoubleString(tuples);
+        }
+        case DcwColumnInfo.VPF_COLUMN_DATE:
+            return "[skipped date]";
+        case DcwColumnInfo.VPF_COLUMN_NULL:
+            return "[Null Field Type]";
+        case DcwColumnInfo.VPF_COLUMN_TRIPLET:
+            return new DcwCrossTileID(getCurrentTileKey(col), getNextTileID(col), getNextTileKey(col));
+        default:
+            throw new IllegalStateException("Unknown field type: " + column.getFieldType());
+        }
+    }
+
+    /**
+     * Get the current row as a List, for code that works with the rows from
+     * DcwRecordFile.parseRow(). The values are read from the table as they
+     * are asked for. The List is a view of the cursor, so it changes when
+     * the cursor moves.
+     */
+    public List<Object> getRow() {
+        return rowView;
+    }
+
+    /**
+     * A read-only List view of the current row.
+     */
+    protected class Row extends AbstractList<Object> {
+        public Object get(int index) {
+            if (index < 0 || index >= columns.length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + columns.length);
+            }
+            return getObject(index);
+        }
+
+        public int size() {
+            return columns.length;
+        }
+    }
+}
@@ -18,7 +18,12 @@
 package com.bbn.openmap.layer.vpf;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -39,7 +44,7 @@ public class DcwRecordFile {
     /** the name of another table that describes what this one is for */
     protected String documentationFileName = null;
     /** number of bytes consumed by the table header */
-    private int headerLength = 4; //for the 4 bytes of the
+    protected int headerLength = 4; //for the 4 bytes of the
     // headerlength field
     /**
      * big-endian (<code>true</code>) or little-endian (
@@ -69,6 +74,8 @@ public class DcwRecordFile {
     protected boolean byteorder = true;
     /** the record number that a call to parseRow() will return */
     int cursorRow = -1;
+    /** the contents of the file, for DcwRecordCursors */
+    private ByteBuffer tableBuffer = null;
 
     /** the name of the row identifier column "id" */
     public static final String ID_COLUMN_NAME = "id";
@@ -419,6 +426,60 @@ public class DcwRecordFile {
         }
     }
 
+    /**
+     * Open a cursor on the table, for reading rows without making objects
+     * for all of their columns. The cursor starts before the first row, and
+     * has its own position in the table, separate from parseRow() and from
+     * other cursors.
+     * 
+     * @return a new DcwRecordCursor
+     * @exception FormatException the table couldn't be read
+     * @see DcwRecordCursor
+     */
+    public DcwRecordCursor openCursor() throws FormatException {
+        if (columnInfo == null) {
+            throw new FormatException("DcwRecordFile: " + filename + " isn't initialized");
+        }
+        return new DcwRecordCursor(this, getTableBuffer());
+    }
+
+    /**
+     * Get the contents of the table file for cursors. Local files are
+     * memory mapped, and anything else (like files in jars) is read into
+     * memory. The buffer is kept for later cursors, even if the table is
+     * closed, since a mapping doesn't hold the file open.
+     * 
+     * @return a read-only buffer in the byte order of the table, positioned
+     *         at the start of the file.
+     * @exception FormatException the table couldn't be read
+     */
+    protected synchronized ByteBuffer getTableBuffer() throws FormatException {
+        if (tableBuffer == null) {
+            try {
+                File file = new File(filename);
+                if (file.isFile()) {
+                    RandomAccessFile raf = new RandomAccessFile(file, "r");
+                    try {
+                        tableBuffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                    } finally {
+                        raf.close();
+                    }
+                } else {
+                    BinaryFile bf = new BinaryBufferedFile(filename);
+                    try {
+                        byte[] bytes = bf.readBytes((int) bf.length(), false);
+                        tableBuffer = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+                    } finally {
+                        bf.close();
+                    }
+                }
+            } catch (IOException ioe) {
+                throw new FormatException("DcwRecordFile: can't read " + filename + ": " + ioe.getMessage());
+            }
+        }
+        return tableBuffer.duplicate().order(byteorder ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    }
+
     /**
      * Returns the documentation file associated with this table.
      * 
@@ -467,7 +528,7 @@ public class DcwRecordFile {
         return -1;
     }
 
-    final private DcwVariableLengthIndexFile vli() throws FormatException,
+    final protected DcwVariableLengthIndexFile vli() throws FormatException,
             IOException {
         if (vli == null) {
             openVLI();
@@ -17,7 +17,6 @@
 
 package com.bbn.openmap.layer.vpf;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import com.bbn.openmap.io.FormatException;
@@ -89,6 +88,33 @@ public class EdgeTable
       return ((Number) l.get(covtable.cachedLineSchema[2])).intValue();
    }
 
+   /**
+    * Get the value of the ID column
+    * 
+    * @param c the cursor to retrieve the value from
+    */
+   public final int getId(DcwRecordCursor c) {
+      return c.getInt(covtable.cachedLineSchema[0]);
+   }
+
+   /**
+    * Get the value of the start_node column
+    * 
+    * @param c the cursor to retrieve the value from
+    */
+   public final int getStartNode(DcwRecordCursor c) {
+      return c.getInt(covtable.cachedLineSchema[1]);
+   }
+
+   /**
+    * Get the value of the end_node column
+    * 
+    * @param c the cursor to retrieve the value from
+    */
+   public final int getEndNode(DcwRecordCursor c) {
+      return c.getInt(covtable.cachedLineSchema[2]);
+   }
+
    /**
     * Get the TilingAdapter for the right_face column
     */
@@ -126,6 +152,16 @@ public class EdgeTable
       return (CoordFloatString) l.get(covtable.cachedLineSchema[7]);
    }
 
+   /**
+    * Get the value of the coordinates column
+    * 
+    * @param c the cursor to retrieve the value from
+    */
+   public final CoordFloatString getCoordinates(DcwRecordCursor c) {
+      int column = covtable.cachedLineSchema[7];
+      return new CoordFloatString(c.getTupleCount(column), c.getTupleSize(column), c.getCoordinates(column, null));
+   }
+
    /**
     * get the topology level of the edge table
     * 
@@ -169,9 +205,10 @@ public class EdgeTable
       }
 
       try {
-         seekToRow(1);
-         for (List<Object> edge = new ArrayList<Object>(); parseRow(edge);) {
-            warehouse.createEdge(covtable, this, edge, ll1, ll2, dpplat, dpplon, getCoordinates(edge));
+         DcwRecordCursor cursor = openCursor();
+         List<Object> edge = cursor.getRow();
+         while (cursor.next()) {
+            warehouse.createEdge(covtable, this, edge, ll1, ll2, dpplat, dpplon, getCoordinates(cursor));
          }
       } catch (FormatException f) {
          System.out.println("Exception: " + f.getClass() + " " + f.getMessage());
@@ -17,7 +17,6 @@
 
 package com.bbn.openmap.layer.vpf;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import com.bbn.openmap.io.FormatException;
@@ -83,14 +82,20 @@ public class TextTable
       double ll2lon = ll2.getX();
 
       try {
-         for (List<Object> text = new ArrayList<Object>(); parseRow(text);) {
-            String textval = (String) text.get(textColumn);
-            CoordFloatString coords = (CoordFloatString) text.get(coordColumn);
-            double lat = coords.getYasFloat(0);
-            double lon = coords.getXasFloat(0);
+         DcwRecordCursor cursor = openCursor();
+         List<Object> text = cursor.getRow();
+         double[] coords = new double[3];
+         while (cursor.next()) {
+            // Only the location is read for text outside the region.
+            if (cursor.getTupleCount(coordColumn) == 0) {
+               continue;
+            }
+            coords = cursor.getCoordinates(coordColumn, coords);
+            double lat = coords[1];
+            double lon = coords[0];
 
             if ((lat > ll2lat) && (lat < ll1lat) && (lon > ll1lon) && (lon < ll2lon)) {
-               warehouse.createText(covtable, this, text, lat, lon, textval);
+               warehouse.createText(covtable, this, text, lat, lon, cursor.getString(textColumn));
             }
          }
       } catch (FormatException f) {
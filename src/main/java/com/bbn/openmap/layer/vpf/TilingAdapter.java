@@ -59,6 +59,30 @@ public interface TilingAdapter {
      */
     public DcwCrossTileID getPrim(List<Object> l);
 
+    /**
+     * Get the tile identifier for the alternate tile
+     * 
+     * @param c a cursor on the table this adapter was created for
+     * @return the tile id of the alternate tile
+     */
+    public int getTileId(DcwRecordCursor c);
+
+    /**
+     * Get the primitive identifier in the current tile
+     * 
+     * @param c a cursor on the table this adapter was created for
+     * @return the primitive id in the current tile
+     */
+    public int getPrimId(DcwRecordCursor c);
+
+    /**
+     * Get the primitive identifier in the alternate tile
+     * 
+     * @param c a cursor on the table this adapter was created for
+     * @return the primitive id in the alternate tile
+     */
+    public int getTilePrimId(DcwRecordCursor c);
+
     /**
      * A TilingAdapter for untiled data. (The tile_id column doesn't
      * exist, and the primitive column is not a cross-tile
@@ -87,6 +111,18 @@ public interface TilingAdapter {
         public DcwCrossTileID getPrim(List<Object> l) {
             return new DcwCrossTileID(getPrimId(l), -1, getTilePrimId(l));
         }
+
+        public int getTileId(DcwRecordCursor c) {
+            return -1;
+        }
+
+        public int getPrimId(DcwRecordCursor c) {
+            return c.getInt(column);
+        }
+
+        public int getTilePrimId(DcwRecordCursor c) {
+            return c.getInt(column);
+        }
     }
 
     /**
@@ -116,6 +152,18 @@ public interface TilingAdapter {
         public DcwCrossTileID getPrim(List<Object> l) {
             return (DcwCrossTileID) l.get(column);
         }
+
+        public int getTileId(DcwRecordCursor c) {
+            return c.getNextTileID(column);
+        }
+
+        public int getPrimId(DcwRecordCursor c) {
+            return c.getCurrentTileKey(column);
+        }
+
+        public int getTilePrimId(DcwRecordCursor c) {
+            return c.getNextTileKey(column);
+        }
     }
 
     /**
@@ -149,5 +197,17 @@ public interface TilingAdapter {
         public DcwCrossTileID getPrim(List<Object> l) {
             return new DcwCrossTileID(getPrimId(l), getTileId(l), getTilePrimId(l));
         }
+
+        public int getTileId(DcwRecordCursor c) {
+            return c.getInt(tilecolumn);
+        }
+
+        public int getPrimId(DcwRecordCursor c) {
+            return getTilePrimId(c);
+        }
+
+        public int getTilePrimId(DcwRecordCursor c) {
+            return c.getInt(primcolumn);
+        }
     }
 }
\ No newline at end of file
@@ -42,10 +42,17 @@ import com.bbn.openmap.util.Debug;
  * the clones are set based on the warehouse settings.
  */
 public class VPFCachedFeatureGraphicWarehouse
-      extends VPFFeatureGraphicWarehouse {
+      extends VPFFeatureGraphicWarehouse
+      implements VPFConcurrentFeatureWarehouse {
 
    protected VPFFeatureCache featureCache = null;
 
+   /**
+    * The list that features created on each thread get added to, set when
+    * tiles are being loaded in parallel.
+    */
+   protected final ThreadLocal<FeatureCacheGraphicList> tileList = new ThreadLocal<FeatureCacheGraphicList>();
+
    /**
      */
    public VPFCachedFeatureGraphicWarehouse() {
@@ -144,33 +151,42 @@ public class VPFCachedFeatureGraphicWarehouse
    protected FeatureCacheGraphicList cacheList;
 
    /**
-    * Calls addToCachedList on the feature cache if it's available.
+    * Calls addToCachedList on the feature cache if it's available. Graphics
+    * created on a thread loading a tile go into the list for that tile.
     */
-   protected synchronized void addToCachedList(OMGraphic omg, String featureType, PrimitiveTable pt, String type) {
-      if (featureCache != null && cacheList != null) {
+   protected void addToCachedList(OMGraphic omg, String featureType, PrimitiveTable pt, String type) {
+      FeatureCacheGraphicList list = tileList.get();
+      if (list != null) {
+         list.add(omg);
+         return;
+      }
 
-         // this might be causing problems in the cache, if the list has
-         // already be replaced by another library or layer. We're going to
-         // keep track of the list returned from the cache from before and
-         // add it to the list here if it exists.
-         cacheList.add(omg);
+      synchronized (this) {
+         if (featureCache != null && cacheList != null) {
+
+            // this might be causing problems in the cache, if the list has
+            // already be replaced by another library or layer. We're going to
+            // keep track of the list returned from the cache from before and
+            // add it to the list here if it exists.
+            cacheList.add(omg);
+
+            // We don't do this anymore...
+            // featureCache.addToCachedList(omg, featureType, pt, type);
+         } else {
+            // Main OMGraphicList stored in super class
+
+            if (type == VPFUtil.Area)
+               addArea(omg);
+            else if (type == VPFUtil.Edge)
+               addEdge(omg);
+            else if (type == VPFUtil.Text)
+               addText(omg);
+            else
+               addPoint(omg);
 
-         // We don't do this anymore...
-         // featureCache.addToCachedList(omg, featureType, pt, type);
-      } else {
-         // Main OMGraphicList stored in super class
-
-         if (type == VPFUtil.Area)
-            addArea(omg);
-         else if (type == VPFUtil.Edge)
-            addEdge(omg);
-         else if (type == VPFUtil.Text)
-            addText(omg);
-         else
-            addPoint(omg);
-
-         // Sorting by type, now.
-         // graphics.add(omg);
+            // Sorting by type, now.
+            // graphics.add(omg);
+         }
       }
    }
 
@@ -194,6 +210,45 @@ public class VPFCachedFeatureGraphicWarehouse
       }
    }
 
+   /**
+    * Gets the list for a tile from the VPFFeatureCache, which holds off other
+    * warehouses that want the same list until tileListLoaded() is called.
+    * Without a cache, a new list is made for the tile and added with the
+    * other graphics of its type.
+    */
+   public synchronized FeatureCacheGraphicList fetchTileList(String libraryName, String currentFeature, TileDirectory currentTile) {
+      if (featureCache != null) {
+         return featureCache.fetchTileContents(libraryName, currentFeature, currentTile, graphics);
+      }
+
+      String type = VPFUtil.getTypeForFeatureCode(currentFeature);
+      FeatureCacheGraphicList list = FeatureCacheGraphicList.createForType(type);
+      list.setFeatureName(currentFeature);
+      if (type == VPFUtil.Area)
+         addArea(list);
+      else if (type == VPFUtil.Edge)
+         addEdge(list);
+      else if (type == VPFUtil.Text)
+         addText(list);
+      else
+         addPoint(list);
+      return list;
+   }
+
+   public void setTileList(FeatureCacheGraphicList list) {
+      if (list != null) {
+         tileList.set(list);
+      } else {
+         tileList.remove();
+      }
+   }
+
+   public void tileListLoaded(FeatureCacheGraphicList list) {
+      if (featureCache != null) {
+         featureCache.listLoaded(list);
+      }
+   }
+
    /**
     * Overridden method of VPFFeatureGraphicWarehouse, clones cached
     * OMGraphicLst and sets the proper DrawingAttributes settings for the
@@ -215,6 +270,17 @@ public class VPFCachedFeatureGraphicWarehouse
          OMGraphicList ret = new OMGraphicList();
          ret.setTraverseMode(OMGraphicList.LAST_ADDED_ON_TOP);
 
+         // Another warehouse may still be loading some of the lists. If
+         // we're interrupted waiting for them, nothing is added, so a
+         // partly filled list doesn't get cloned and drawn.
+         for (OMGraphic omg : graphics) {
+            if (omg instanceof FeatureCacheGraphicList
+                  && !featureCache.waitUntilLoaded((FeatureCacheGraphicList) omg)) {
+               logger.fine("interrupted waiting for cached lists");
+               return ret;
+            }
+         }
+
          logger.fine("checking for cached lists");
          for (OMGraphic omg :graphics) {
             if (omg instanceof FeatureCacheGraphicList) {
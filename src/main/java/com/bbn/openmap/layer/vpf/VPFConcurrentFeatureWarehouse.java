@@ -0,0 +1,50 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.vpf;
+
+/**
+ * A VPFFeatureWarehouse that can have the features for different tiles created
+ * at the same time, on different threads. The CoverageTable asks the warehouse
+ * for a list for each tile it needs, in tile order, on the thread drawing the
+ * coverage. The tiles are then loaded in parallel, and each thread loading a
+ * tile tells the warehouse which list the features it creates should go into.
+ */
+public interface VPFConcurrentFeatureWarehouse
+      extends VPFFeatureWarehouse {
+
+   /**
+    * Like needToFetchTileContents, but returns the list the features for the
+    * tile should be added to. The list is added to the warehouse graphics
+    * right away, so the tiles stay in order no matter when they get loaded.
+    *
+    * @return the list to fill, or null if the features for the tile are
+    *         already available.
+    */
+   public FeatureCacheGraphicList fetchTileList(String libraryName, String currentFeature, TileDirectory currentTile);
+
+   /**
+    * Set the list that features created on the calling thread are added to.
+    *
+    * @param list a list from fetchTileList, or null when the thread is done
+    *        with it.
+    */
+   public void setTileList(FeatureCacheGraphicList list);
+
+   /**
+    * Called when a list from fetchTileList has been filled, or when loading it
+    * has failed.
+    */
+   public void tileListLoaded(FeatureCacheGraphicList list);
+}
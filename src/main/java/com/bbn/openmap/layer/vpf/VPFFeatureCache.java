@@ -22,6 +22,8 @@
 
 package com.bbn.openmap.layer.vpf;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 
 import com.bbn.openmap.omGraphics.OMGraphic;
@@ -34,9 +36,17 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * representing a specific feature contained in a CoverageTile. It's used by the
  * VPFCachedFeatureGraphicWarehouse, which in turn is used by the LibraryBean as
  * a central warehouse.
+ * <p>
+ * Lists handed out by fetchTileContents() are marked as loading until
+ * listLoaded() is called for them, so the tiles can be filled outside of the
+ * cache lock, and in parallel. Other requestors that get one of those lists
+ * should call waitUntilLoaded() before using its contents.
  */
 public class VPFFeatureCache extends CacheHandler {
 
+    /** The lists being filled, and the threads that asked for them. */
+    protected final Map<FeatureCacheGraphicList, Thread> loading = new IdentityHashMap<FeatureCacheGraphicList, Thread>();
+
     /**
      * Create a VPFFeatureCache of the default maximum size.
      */
@@ -59,13 +69,18 @@ public class VPFFeatureCache extends CacheHandler {
      * @param featureType the feature code of the OMGraphic
      * @param pt the PrimitiveTable containing the path to the CoverageTile.
      */
-    protected synchronized void addToCachedList(String libraryName, OMGraphic omg,
-                                                String featureType,
-                                                PrimitiveTable pt, String type) {
+    protected void addToCachedList(String libraryName, OMGraphic omg,
+                                   String featureType,
+                                   PrimitiveTable pt, String type) {
         String key = createTableCacheKey(libraryName, featureType, pt.getTileDirectory()
                 .getPath());
-        FeatureCacheGraphicList omgl = (FeatureCacheGraphicList) get(key);
-        omgl.add(omg);
+        FeatureCacheGraphicList omgl;
+        synchronized (this) {
+            omgl = (FeatureCacheGraphicList) get(key);
+        }
+        synchronized (omgl) {
+            omgl.add(omg);
+        }
     }
 
     /**
@@ -160,6 +175,56 @@ public class VPFFeatureCache extends CacheHandler {
         return listThatNeedsToBeLoaded;
     }
 
+    /**
+     * Like needToFetchTileContents, but the returned list is marked as loading
+     * until listLoaded() is called with it, and other requestors can use
+     * waitUntilLoaded() to wait for it to be filled. listLoaded() must be
+     * called for every list returned, even if loading it fails.
+     * 
+     * @return the list to fill, or null if it's cached.
+     */
+    public synchronized FeatureCacheGraphicList fetchTileContents(String libraryName,
+                                                                  String currentFeature,
+                                                                  TileDirectory currentTile,
+                                                                  OMGraphicList requestor) {
+        FeatureCacheGraphicList list = needToFetchTileContents(libraryName, currentFeature, currentTile, requestor);
+        if (list != null) {
+            loading.put(list, Thread.currentThread());
+        }
+        return list;
+    }
+
+    /**
+     * Mark a list from fetchTileContents as filled.
+     */
+    public synchronized void listLoaded(FeatureCacheGraphicList list) {
+        if (loading.remove(list) != null) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait for a list to be filled, if it's being loaded by another thread.
+     * Returns right away for lists that aren't loading, or that are being
+     * loaded for the calling thread.
+     * 
+     * @return true if the list is filled, false if the calling thread was
+     *         interrupted while the list was still loading, in which case the
+     *         list shouldn't be used.
+     */
+    public synchronized boolean waitUntilLoaded(FeatureCacheGraphicList list) {
+        Thread loader;
+        while ((loader = loading.get(list)) != null && loader != Thread.currentThread()) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Additional get method that will call a load() method that takes into
      * account the featureType. The regular get() method will not be used,
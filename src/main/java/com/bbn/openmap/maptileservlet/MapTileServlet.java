@@ -1,190 +1,343 @@
-package com.bbn.openmap.maptileservlet;
-
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Properties;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-import javax.servlet.ServletConfig;
-import javax.servlet.ServletContext;
-import javax.servlet.ServletException;
-import javax.servlet.http.HttpServlet;
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
-
-import com.bbn.openmap.util.ComponentFactory;
-import com.bbn.openmap.util.PropUtils;
-import com.bbn.openmap.util.http.HttpConnection;
-
-/**
- * MapTileServlet is a servlet class that fields requests for map tiles.
- * 
- * @author dietrick
- */
-public class MapTileServlet
-      extends HttpServlet {
-   public final static String TILE_SET_DESCRIPTION_ATTRIBUTE = "TileSetDefinitions";
-   protected Map<String, MapTileSet> mapTileSets;
-
-   /**
-    * A do-nothing constructor - init does all the work.
-    */
-   public MapTileServlet() {
-      super();
-
-      mapTileSets = Collections.synchronizedMap(new HashMap<String, MapTileSet>());
-   }
-
-   public void init(ServletConfig config)
-         throws ServletException {
-      super.init(config);
-      ServletContext context = config.getServletContext();
-
-      String descriptions = context.getInitParameter(TILE_SET_DESCRIPTION_ATTRIBUTE);
-      Logger logger = getLogger();
-      logger.info("descriptions: " + descriptions);
-      if (descriptions != null) {
-         Collection<String> descriptionV = PropUtils.parseMarkers(descriptions, ";");
-         logger.info("got " + descriptionV.toString());
-         for (String desc : descriptionV) {
-            logger.info("looking for " + desc);
-            try {
-               URL descURL = PropUtils.getResourceOrFileOrURL(desc);
-               if (descURL != null) {
-                  logger.info("found url for " + descURL);
-
-                  Properties descProps = new Properties();
-                  logger.info("going to read props");
-                  descProps.load(descURL.openStream());
-
-                  logger.info("loaded " + desc + " " + descProps.toString());
-
-                  MapTileSet mts = create(descProps);
-
-                  if (mts != null && mts.allGood()) {
-                     String mtsName = mts.getName();
-                     mapTileSets.put(mts.getName(), mts);
-                     logger.info("Adding " + mtsName + " dataset");
-                  }
-               }
-            } catch (MalformedURLException murle) {
-               logger.warning("MalformedURLException reading " + desc);
-            } catch (IOException ioe) {
-               logger.warning("IOException reading " + desc);
-            }
-         }
-      }
-
-   }
-
-   public MapTileSet create(Properties props) {
-      String className = props.getProperty(MapTileSet.CLASS_ATTRIBUTE);
-      if (className == null) {
-         MapTileSet mts = new StandardMapTileSet();
-         mts.setProperties(props);
-         return mts;
-      } else {
-         getLogger().info("Creating special map tile set: " + className);
-         try {
-            Object obj = ComponentFactory.create(className, null, props);
-
-            if (obj instanceof MapTileSet) {
-               return (MapTileSet) obj;
-            } else {
-               getLogger().info("Had trouble creating " + (obj == null ? className : obj.getClass().getName())
-                                      + ", not a MapTileSet");
-            }
-
-         } catch (Exception e) {
-            getLogger().severe("Problem creating " + className + ", " + e.getMessage());
-         }
-      }
-
-      return null;
-   }
-
-   /**
-    * Handles
-    */
-   public void doGet(HttpServletRequest req, HttpServletResponse resp)
-         throws ServletException, IOException {
-
-      OutputStream out = resp.getOutputStream();
-
-      String pathInfo = req.getPathInfo();
-      Logger logger = getLogger();
-      if (logger.isLoggable(Level.FINE)) {
-         getLogger().fine("received: " + pathInfo);
-      }
-
-      MapTileSet mts = getMapTileSetForRequest(pathInfo);
-
-      if (mts != null) {
-
-         try {
-            byte[] imageData = mts.getImageData(pathInfo);
-            OutputStreamWriter osw = new OutputStreamWriter(out);
-            out.write(imageData, 0, imageData.length);
-            osw.flush();
-         } catch (Exception e) {
-            if (logger.isLoggable(Level.FINE)) {
-               getLogger().fine("Tile not found: " + pathInfo);
-            }
-            HttpConnection.writeHttpResponse(out, HttpConnection.CONTENT_PLAIN, "Problem loading " + pathInfo);
-         }
-      } else {
-         HttpConnection.writeHttpResponse(out, HttpConnection.CONTENT_PLAIN, "Map Tile Set not found for " + pathInfo);
-      }
-   }
-
-   protected MapTileSet getMapTileSetForRequest(String pathInfo) {
-      if (pathInfo.startsWith("/")) {
-         pathInfo = pathInfo.substring(1);
-      }
-
-      String key = pathInfo;
-
-      // That first part of the path is the MapTileSet name.
-      int slash = pathInfo.indexOf('/');
-      if (slash > 0) {
-         key = pathInfo.substring(0, slash);
-      }
-
-      return mapTileSets.get(key);
-   }
-
-   /**
-    * Holder for this class's Logger. This allows for lazy initialization of the
-    * logger.
-    */
-   private static final class LoggerHolder {
-      /**
-       * The logger for this class
-       */
-      private static final Logger LOGGER = Logger.getLogger(MapTileServlet.class.getName());
-
-      /**
-       * Prevent instantiation
-       */
-      private LoggerHolder() {
-         throw new AssertionError("This should never be instantiated");
-      }
-   }
-
-   /**
-    * Get the logger for this class.
-    * 
-    * @return logger for this class
-    */
-   private static Logger getLogger() {
-      return LoggerHolder.LOGGER;
-   }
-}
+package com.bbn.openmap.maptileservlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.bbn.openmap.io.FormatException;
+import com.bbn.openmap.util.ComponentFactory;
+import com.bbn.openmap.util.PropUtils;
+import com.bbn.openmap.util.http.HttpConnection;
+
+/**
+ * MapTileServlet is a servlet class that fields requests for map tiles.
+ * <p>
+ * Tiles are cached in memory as encoded bytes, keyed by tile set, zoom level,
+ * x and y, so repeated requests don't have to read or render the tile again.
+ * Responses carry ETag and Last-Modified headers, and requests with a matching
+ * If-None-Match or If-Modified-Since header get a 304 Not Modified response.
+ * The cache is configured with context parameters:
+ * 
+ * <pre>
+ * TileCacheSize - bytes of tiles to keep in memory, 64MB by default, 0 to turn off caching.
+ * TileCacheDir - optional directory for tiles pushed out of memory.
+ * TileCacheDiskSize - bytes of tiles to write to the TileCacheDir, 1GB by default.
+ * </pre>
+ * 
+ * @author dietrick
+ */
+public class MapTileServlet
+      extends HttpServlet {
+   public final static String TILE_SET_DESCRIPTION_ATTRIBUTE = "TileSetDefinitions";
+   public final static String TILE_CACHE_SIZE_ATTRIBUTE = "TileCacheSize";
+   public final static String TILE_CACHE_DIR_ATTRIBUTE = "TileCacheDir";
+   public final static String TILE_CACHE_DISK_SIZE_ATTRIBUTE = "TileCacheDiskSize";
+
+   protected Map<String, MapTileSet> mapTileSets;
+   /** The tile cache, null if caching is turned off. */
+   protected TileCache tileCache;
+
+   /**
+    * A do-nothing constructor - init does all the work.
+    */
+   public MapTileServlet() {
+      super();
+
+      mapTileSets = new ConcurrentHashMap<String, MapTileSet>();
+   }
+
+   public void init(ServletConfig config)
+         throws ServletException {
+      super.init(config);
+      ServletContext context = config.getServletContext();
+
+      String descriptions = context.getInitParameter(TILE_SET_DESCRIPTION_ATTRIBUTE);
+      Logger logger = getLogger();
+      logger.info("descriptions: " + descriptions);
+      if (descriptions != null) {
+         Collection<String> descriptionV = PropUtils.parseMarkers(descriptions, ";");
+         logger.info("got " + descriptionV.toString());
+         for (String desc : descriptionV) {
+            logger.info("looking for " + desc);
+            try {
+               URL descURL = PropUtils.getResourceOrFileOrURL(desc);
+               if (descURL != null) {
+                  logger.info("found url for " + descURL);
+
+                  Properties descProps = new Properties();
+                  logger.info("going to read props");
+                  descProps.load(descURL.openStream());
+
+                  logger.info("loaded " + desc + " " + descProps.toString());
+
+                  MapTileSet mts = create(descProps);
+
+                  if (mts != null && mts.allGood()) {
+                     String mtsName = mts.getName();
+                     mapTileSets.put(mts.getName(), mts);
+                     logger.info("Adding " + mtsName + " dataset");
+                  }
+               }
+            } catch (MalformedURLException murle) {
+               logger.warning("MalformedURLException reading " + desc);
+            } catch (IOException ioe) {
+               logger.warning("IOException reading " + desc);
+            }
+         }
+      }
+
+      tileCache = createTileCache(context);
+   }
+
+   /**
+    * Closes the tile cache, which deletes the tiles it spilled to disk.
+    */
+   public void destroy() {
+      TileCache cache = tileCache;
+      tileCache = null;
+      if (cache != null) {
+         cache.close();
+      }
+      super.destroy();
+   }
+
+   /**
+    * Create the TileCache from the servlet context parameters.
+    * 
+    * @return TileCache, or null if caching has been turned off.
+    */
+   protected TileCache createTileCache(ServletContext context) {
+      long size = parseSize(context.getInitParameter(TILE_CACHE_SIZE_ATTRIBUTE), TileCache.DEFAULT_MEMORY_SIZE);
+      if (size <= 0) {
+         getLogger().info("tile caching turned off");
+         return null;
+      }
+
+      String dir = context.getInitParameter(TILE_CACHE_DIR_ATTRIBUTE);
+      long diskSize = parseSize(context.getInitParameter(TILE_CACHE_DISK_SIZE_ATTRIBUTE), TileCache.DEFAULT_DISK_SIZE);
+      return new TileCache(size, (dir == null || dir.trim().length() == 0) ? null : new File(dir.trim()), diskSize);
+   }
+
+   private long parseSize(String value, long defaultSize) {
+      if (value != null) {
+         try {
+            return Long.parseLong(value.trim());
+         } catch (NumberFormatException nfe) {
+            getLogger().warning("can't parse " + value + " as a number of bytes, using " + defaultSize);
+         }
+      }
+      return defaultSize;
+   }
+
+   public MapTileSet create(Properties props) {
+      String className = props.getProperty(MapTileSet.CLASS_ATTRIBUTE);
+      if (className == null) {
+         MapTileSet mts = new StandardMapTileSet();
+         mts.setProperties(props);
+         return mts;
+      } else {
+         getLogger().info("Creating special map tile set: " + className);
+         try {
+            Object obj = ComponentFactory.create(className, null, props);
+
+            if (obj instanceof MapTileSet) {
+               return (MapTileSet) obj;
+            } else {
+               getLogger().info("Had trouble creating " + (obj == null ? className : obj.getClass().getName())
+                                      + ", not a MapTileSet");
+            }
+
+         } catch (Exception e) {
+            getLogger().severe("Problem creating " + className + ", " + e.getMessage());
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Handles tile requests, name/z/x/y.format.
+    */
+   public void doGet(HttpServletRequest req, HttpServletResponse resp)
+         throws ServletException, IOException {
+
+      OutputStream out = resp.getOutputStream();
+
+      String pathInfo = req.getPathInfo();
+      Logger logger = getLogger();
+      if (logger.isLoggable(Level.FINE)) {
+         getLogger().fine("received: " + pathInfo);
+      }
+
+      MapTileSet mts = pathInfo == null ? null : getMapTileSetForRequest(pathInfo);
+
+      if (mts != null) {
+
+         try {
+            TileCache.Tile tile = getTile(mts, pathInfo);
+
+            resp.setHeader("ETag", tile.getETag());
+            resp.setDateHeader("Last-Modified", tile.getLastModified());
+
+            if (isNotModified(req, tile)) {
+               resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+               return;
+            }
+
+            byte[] imageData = tile.getData();
+            out.write(imageData, 0, imageData.length);
+            out.flush();
+         } catch (Exception e) {
+            if (logger.isLoggable(Level.FINE)) {
+               getLogger().fine("Tile not found: " + pathInfo);
+            }
+            HttpConnection.writeHttpResponse(out, HttpConnection.CONTENT_PLAIN, "Problem loading " + pathInfo);
+         }
+      } else {
+         HttpConnection.writeHttpResponse(out, HttpConnection.CONTENT_PLAIN, "Map Tile Set not found for " + pathInfo);
+      }
+   }
+
+   /**
+    * Get the tile for a request, from the cache if it's there, otherwise from
+    * the MapTileSet.
+    * 
+    * @param mts the MapTileSet for the request.
+    * @param pathInfo the request path.
+    * @return the Tile, never null.
+    * @throws IOException if the MapTileSet couldn't provide the tile.
+    * @throws FormatException
+    */
+   protected TileCache.Tile getTile(MapTileSet mts, String pathInfo)
+         throws IOException, FormatException {
+      TileCache cache = tileCache;
+      String key = cache == null ? null : TileCache.keyFor(mts.getName(), pathInfo);
+
+      long lastModified = -1;
+      if (mts instanceof StandardMapTileSet) {
+         lastModified = ((StandardMapTileSet) mts).getLastModified(pathInfo);
+      }
+
+      if (key != null) {
+         // A tile file changed since it was cached is a miss.
+         TileCache.Tile tile = cache.get(key, lastModified);
+         if (tile != null) {
+            return tile;
+         }
+      }
+
+      byte[] imageData = mts.getImageData(pathInfo);
+      if (imageData == null) {
+         throw new IOException("no image data for " + pathInfo);
+      }
+
+      if (lastModified < 0) {
+         lastModified = System.currentTimeMillis();
+      }
+
+      if (key != null) {
+         return cache.put(key, imageData, lastModified);
+      }
+      return new TileCache.Tile(pathInfo, imageData, lastModified);
+   }
+
+   /**
+    * Check the request's conditional headers against the tile. If-None-Match
+    * is checked first, and If-Modified-Since is only used if there is no
+    * If-None-Match header.
+    * 
+    * @return true if the client already has this version of the tile.
+    */
+   protected boolean isNotModified(HttpServletRequest req, TileCache.Tile tile) {
+      String ifNoneMatch = req.getHeader("If-None-Match");
+      if (ifNoneMatch != null) {
+         for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+               tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(tile.getETag())) {
+               return true;
+            }
+         }
+         return false;
+      }
+
+      try {
+         long ifModifiedSince = req.getDateHeader("If-Modified-Since");
+         return ifModifiedSince >= 0 && tile.getLastModified() <= ifModifiedSince;
+      } catch (IllegalArgumentException iae) {
+         // Bad date, ignore it.
+         return false;
+      }
+   }
+
+   /**
+    * @return the TileCache, null if caching is turned off.
+    */
+   public TileCache getTileCache() {
+      return tileCache;
+   }
+
+   public void setTileCache(TileCache tileCache) {
+      this.tileCache = tileCache;
+   }
+
+   protected MapTileSet getMapTileSetForRequest(String pathInfo) {
+      if (pathInfo.startsWith("/")) {
+         pathInfo = pathInfo.substring(1);
+      }
+
+      String key = pathInfo;
+
+      // That first part of the path is the MapTileSet name.
+      int slash = pathInfo.indexOf('/');
+      if (slash > 0) {
+         key = pathInfo.substring(0, slash);
+      }
+
+      return mapTileSets.get(key);
+   }
+
+   /**
+    * Holder for this class's Logger. This allows for lazy initialization of the
+    * logger.
+    */
+   private static final class LoggerHolder {
+      /**
+       * The logger for this class
+       */
+      private static final Logger LOGGER = Logger.getLogger(MapTileServlet.class.getName());
+
+      /**
+       * Prevent instantiation
+       */
+      private LoggerHolder() {
+         throw new AssertionError("This should never be instantiated");
+      }
+   }
+
+   /**
+    * Get the logger for this class.
+    * 
+    * @return logger for this class
+    */
+   private static Logger getLogger() {
+      return LoggerHolder.LOGGER;
+   }
+}
@@ -14,6 +14,7 @@
 package com.bbn.openmap.maptileservlet;
 
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.util.Properties;
 import java.util.logging.Level;
@@ -66,14 +67,7 @@ public class StandardMapTileSet
          throws IOException, FormatException {
       byte[] imageData = null;
 
-      // We're assuming that all queries are coming in with the name in front,
-      // along with a slash
-      if (name != null) {
-         int index = pathInfo.indexOf(name, 1);
-         pathInfo = pathInfo.substring(index + name.length());
-      }
-
-      String filePath = rootDir + pathInfo;
+      String filePath = getFilePath(pathInfo);
       if (logger.isLoggable(Level.FINE)) {
          logger.fine("looking for " + filePath);
       }
@@ -99,6 +93,36 @@ public class StandardMapTileSet
       return imageData;
    }
 
+   /**
+    * Get the path to the tile file for a request.
+    * 
+    * @param pathInfo the request path, name/z/x/y.format
+    * @return the file path under the root directory.
+    */
+   protected String getFilePath(String pathInfo) {
+      // We're assuming that all queries are coming in with the name in front,
+      // along with a slash
+      if (name != null) {
+         int index = pathInfo.indexOf(name, 1);
+         pathInfo = pathInfo.substring(index + name.length());
+      }
+
+      return rootDir + pathInfo;
+   }
+
+   /**
+    * Get the time the tile file for a request was last modified, for HTTP
+    * caching.
+    * 
+    * @param pathInfo the request path, name/z/x/y.format
+    * @return time in milliseconds, or -1 if there isn't a local file for the
+    *         tile.
+    */
+   public long getLastModified(String pathInfo) {
+      File file = new File(getFilePath(pathInfo));
+      return file.isFile() ? file.lastModified() : -1;
+   }
+
    public String getName() {
       return name;
    }
@@ -0,0 +1,429 @@
+package com.bbn.openmap.maptileservlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import com.bbn.openmap.io.BinaryFile;
+import com.bbn.openmap.io.FormatException;
+import com.bbn.openmap.util.cacheHandler.CacheObject;
+import com.bbn.openmap.util.cacheHandler.ConcurrentCache;
+
+/**
+ * A cache of encoded tile image bytes for the MapTileServlet, keyed by tile
+ * set name, zoom level, x and y. Tiles are held in memory in a weight-bounded
+ * ConcurrentCache. If a spill directory is set, tiles pushed out of memory are
+ * written there (up to a disk limit) and read back on the next request for
+ * them, which saves re-rendering empty tiles and tiles from generated tile
+ * sets.
+ * <p>
+ * Each cached tile carries an ETag, computed from its bytes, and a
+ * Last-Modified time, so the servlet can answer conditional requests without
+ * sending the tile again. The Last-Modified time is also checked against the
+ * source on a hit, when the source has one, so changed tiles get reloaded.
+ * <p>
+ * Each TileCache spills into its own new subdirectory of the spill directory,
+ * so tiles from an earlier run, possibly of different data, are never served.
+ * The subdirectory is deleted when the cache is closed.
+ */
+public class TileCache {
+
+   /** Default memory limit, 64MB. */
+   public final static long DEFAULT_MEMORY_SIZE = 64L * 1024L * 1024L;
+   /** Default disk limit, 1GB. */
+   public final static long DEFAULT_DISK_SIZE = 1024L * 1024L * 1024L;
+
+   /** set/z/x/y.format, with an optional leading slash. */
+   protected final static Pattern TILE_PATH = Pattern.compile("^/?([^/]+)/(\\d+)/(\\d+)/(\\d+)\\.(\\w+)$");
+
+   protected final ConcurrentCache memory;
+   protected final File spillDir;
+   protected final long maxDiskSize;
+   protected final AtomicLong diskSize = new AtomicLong();
+   protected final AtomicLong diskHits = new AtomicLong();
+   protected volatile boolean closed = false;
+
+   /**
+    * Create a memory-only tile cache.
+    *
+    * @param maxMemorySize the number of bytes of tiles to keep in memory.
+    */
+   public TileCache(long maxMemorySize) {
+      this(maxMemorySize, null, 0);
+   }
+
+   /**
+    * Create a tile cache that spills to disk.
+    *
+    * @param maxMemorySize the number of bytes of tiles to keep in memory.
+    * @param spillDir the directory to write tiles pushed out of memory, null
+    *        for none.
+    * @param maxDiskSize the number of bytes of tiles to write to the spill
+    *        directory. When it's full, evicted tiles are dropped.
+    */
+   public TileCache(long maxMemorySize, File spillDir, long maxDiskSize) {
+      this.spillDir = createSpillDir(spillDir);
+      this.maxDiskSize = maxDiskSize;
+      memory = new ConcurrentCache(maxMemorySize, ConcurrentCache.DEFAULT_CONCURRENCY_LEVEL, true) {
+         protected void evicted(CacheObject co) {
+            spill((Tile) co.obj);
+         }
+      };
+   }
+
+   /**
+    * Create a new directory for this cache inside the spill directory.
+    *
+    * @return the new directory, or null if it couldn't be created.
+    */
+   protected static File createSpillDir(File parent) {
+      if (parent == null) {
+         return null;
+      }
+      try {
+         if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("can't create " + parent);
+         }
+         File dir = File.createTempFile("tiles", "", parent);
+         if (dir.delete() && dir.mkdir()) {
+            getLogger().info("spilling tiles to " + dir);
+            return dir;
+         }
+         throw new IOException("can't create directory in " + parent);
+      } catch (IOException ioe) {
+         getLogger().warning("tiles won't be spilled to disk: " + ioe.getMessage());
+         return null;
+      }
+   }
+
+   /**
+    * Create the cache key for a tile request.
+    *
+    * @param setName the name of the MapTileSet handling the request.
+    * @param pathInfo the request path, set/z/x/y.format.
+    * @return the key, or null if the path isn't a tile path that can be
+    *         cached.
+    */
+   public static String keyFor(String setName, String pathInfo) {
+      if (setName == null || pathInfo == null) {
+         return null;
+      }
+      Matcher m = TILE_PATH.matcher(pathInfo);
+      if (!m.matches() || !setName.equals(m.group(1))) {
+         return null;
+      }
+      // Normalize the numbers, and keep the set name safe to use as a
+      // directory name.
+      try {
+         return encodeName(setName) + "/" + Integer.parseInt(m.group(2)) + "/" + Integer.parseInt(m.group(3)) + "/"
+               + Integer.parseInt(m.group(4)) + "." + m.group(5);
+      } catch (NumberFormatException nfe) {
+         return null;
+      }
+   }
+
+   /**
+    * Encode a tile set name for a cache key and directory name. Every name
+    * gets a different encoding, URL encoded with the dots and stars escaped
+    * too, so names like "." and ".." are safe as directory names.
+    */
+   protected static String encodeName(String name) {
+      try {
+         return URLEncoder.encode(name, "UTF-8").replace(".", "%2E").replace("*", "%2A");
+      } catch (UnsupportedEncodingException uee) {
+         // UTF-8 is always supported.
+         throw new IllegalStateException(uee);
+      }
+   }
+
+   /**
+    * Get a tile, from memory or from the spill directory.
+    *
+    * @param key from keyFor().
+    * @return Tile, or null if it's not cached.
+    */
+   public Tile get(String key) {
+      CacheObject co = memory.get(key);
+      if (co != null) {
+         return (Tile) co.obj;
+      }
+
+      Tile tile = unspill(key);
+      if (tile != null) {
+         diskHits.incrementAndGet();
+         tile = (Tile) memory.put(new TileCacheObject(tile)).obj;
+      }
+      return tile;
+   }
+
+   /**
+    * Get a tile, unless the cached copy is older than the source it came from.
+    * A stale tile is dropped from memory and the spill directory.
+    *
+    * @param key from keyFor().
+    * @param lastModified the time the source was last changed, in
+    *        milliseconds, or a negative number if it isn't known.
+    * @return Tile, or null if it's not cached or it's stale.
+    */
+   public Tile get(String key, long lastModified) {
+      Tile tile = get(key);
+      if (tile == null || lastModified < 0 || tile.lastModified == (lastModified / 1000L) * 1000L) {
+         return tile;
+      }
+
+      memory.remove(key);
+      if (spillDir != null) {
+         File file = spillFile(key);
+         long length = file.length();
+         if (file.delete()) {
+            diskSize.addAndGet(-length);
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Add a tile to the cache.
+    *
+    * @param key from keyFor().
+    * @param data the encoded image.
+    * @param lastModified the time the image was last changed, in
+    *        milliseconds.
+    * @return the Tile in the cache, which may have been put there by another
+    *         thread first.
+    */
+   public Tile put(String key, byte[] data, long lastModified) {
+      Tile tile = new Tile(key, data, lastModified);
+      return (Tile) memory.put(new TileCacheObject(tile)).obj;
+   }
+
+   /**
+    * Remove everything from memory, and delete the spilled tiles.
+    */
+   public void clear() {
+      memory.clear();
+      if (spillDir != null) {
+         delete(spillDir, false);
+         diskSize.set(0);
+      }
+   }
+
+   /**
+    * Remove everything from memory, and delete the spill directory. Tiles
+    * aren't spilled after this, call it when the cache is no longer needed.
+    */
+   public void close() {
+      closed = true;
+      memory.clear();
+      if (spillDir != null) {
+         delete(spillDir, true);
+         diskSize.set(0);
+      }
+   }
+
+   protected void delete(File file, boolean deleteThis) {
+      File[] children = file.listFiles();
+      if (children != null) {
+         for (File child : children) {
+            delete(child, true);
+         }
+      }
+      if (deleteThis) {
+         file.delete();
+      }
+   }
+
+   protected File spillFile(String key) {
+      return new File(spillDir, key.replace('/', File.separatorChar));
+   }
+
+   /**
+    * Write an evicted tile to the spill directory, if there's room.
+    */
+   protected void spill(Tile tile) {
+      if (spillDir == null || closed) {
+         return;
+      }
+      File file = spillFile(tile.key);
+      if (file.exists()) {
+         return;
+      }
+      if (diskSize.addAndGet(tile.data.length) > maxDiskSize) {
+         diskSize.addAndGet(-tile.data.length);
+         return;
+      }
+
+      File parent = file.getParentFile();
+      File tmp = null;
+      FileOutputStream fos = null;
+      try {
+         parent.mkdirs();
+         // Write to a temporary file and rename, so a reader never sees a
+         // partial tile.
+         tmp = File.createTempFile("tile", ".tmp", parent);
+         fos = new FileOutputStream(tmp);
+         fos.write(tile.data);
+         fos.close();
+         fos = null;
+         tmp.setLastModified(tile.lastModified);
+         if (closed || !tmp.renameTo(file)) {
+            tmp.delete();
+            diskSize.addAndGet(-tile.data.length);
+         }
+      } catch (IOException ioe) {
+         getLogger().fine("couldn't spill " + tile.key + ": " + ioe.getMessage());
+         diskSize.addAndGet(-tile.data.length);
+         if (tmp != null) {
+            tmp.delete();
+         }
+      } finally {
+         if (fos != null) {
+            try {
+               fos.close();
+            } catch (IOException e) {
+            }
+         }
+      }
+   }
+
+   /**
+    * Read a tile back from the spill directory.
+    *
+    * @return Tile, or null if it's not there.
+    */
+   protected Tile unspill(String key) {
+      if (spillDir == null) {
+         return null;
+      }
+      File file = spillFile(key);
+      if (!file.isFile()) {
+         return null;
+      }
+
+      try {
+         BinaryFile bf = new BinaryFile(file);
+         byte[] data = bf.readBytes((int) file.length(), false);
+         bf.close();
+         if (getLogger().isLoggable(Level.FINER)) {
+            getLogger().finer("read " + key + " from " + file);
+         }
+         return new Tile(key, data, file.lastModified());
+      } catch (IOException ioe) {
+         getLogger().fine("couldn't read spilled tile " + key + ": " + ioe.getMessage());
+      } catch (FormatException fe) {
+         getLogger().fine("couldn't read spilled tile " + key + ": " + fe.getMessage());
+      }
+      return null;
+   }
+
+   /**
+    * @return the in-memory cache, for its statistics.
+    */
+   public ConcurrentCache getMemoryCache() {
+      return memory;
+   }
+
+   /**
+    * @return the number of tiles found in the spill directory.
+    */
+   public long getDiskHitCount() {
+      return diskHits.get();
+   }
+
+   /**
+    * @return the number of bytes of tiles written to the spill directory.
+    */
+   public long getDiskSize() {
+      return diskSize.get();
+   }
+
+   public String toString() {
+      return "TileCache[" + memory + ", disk hits=" + getDiskHitCount() + ", disk bytes=" + getDiskSize() + "]";
+   }
+
+   /**
+    * An encoded tile, with its HTTP validators.
+    */
+   public static class Tile {
+      protected final String key;
+      protected final byte[] data;
+      protected final long lastModified;
+      protected final String etag;
+
+      public Tile(String key, byte[] data, long lastModified) {
+         this.key = key;
+         this.data = data;
+         // HTTP dates only have one second resolution.
+         this.lastModified = (lastModified / 1000L) * 1000L;
+
+         CRC32 crc = new CRC32();
+         crc.update(data, 0, data.length);
+         etag = "\"" + Integer.toHexString(data.length) + "-" + Long.toHexString(crc.getValue()) + "\"";
+      }
+
+      public String getKey() {
+         return key;
+      }
+
+      public byte[] getData() {
+         return data;
+      }
+
+      public long getLastModified() {
+         return lastModified;
+      }
+
+      public String getETag() {
+         return etag;
+      }
+   }
+
+   /**
+    * CacheObject weighted by the tile bytes.
+    */
+   protected static class TileCacheObject
+         extends CacheObject {
+      public TileCacheObject(Tile tile) {
+         super(tile.key, tile);
+      }
+
+      public long getWeight() {
+         return ((Tile) obj).data.length + 64;
+      }
+   }
+
+   /**
+    * Holder for this class's Logger. This allows for lazy initialization of the
+    * logger.
+    */
+   private static final class LoggerHolder {
+      /**
+       * The logger for this class
+       */
+      private static final Logger LOGGER = Logger.getLogger(TileCache.class.getName());
+
+      /**
+       * Prevent instantiation
+       */
+      private LoggerHolder() {
+         throw new AssertionError("This should never be instantiated");
+      }
+   }
+
+   /**
+    * Get the logger for this class.
+    *
+    * @return logger for this class
+    */
+   private static Logger getLogger() {
+      return LoggerHolder.LOGGER;
+   }
+}
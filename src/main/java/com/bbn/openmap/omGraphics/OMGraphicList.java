@@ -134,6 +134,7 @@ public class OMGraphicList extends OMList<OMGraphic> implements Serializable {
      * @exception ArrayIndexOutOfBoundsException if index is out-of-bounds
      */
     public synchronized void setOMGraphicAt(OMGraphic graphic, int index) {
+        invalidateIndex();
         graphics.set(index, graphic);
     }
 
@@ -397,6 +398,172 @@ public class OMGraphicList extends OMList<OMGraphic> implements Serializable {
         objectstream.close();
     }
 
+    /**
+     * Whether findClosest() and getContains() use a screen-space index.
+     */
+    protected boolean indexed = false;
+
+    /**
+     * The screen-space index, built when first needed after the list has
+     * been generated.
+     */
+    protected transient OMGraphicListIndex index = null;
+
+    /**
+     * Set whether findClosest() and getContains() should use a screen-space
+     * grid of the generated OMGraphics to find the few OMGraphics near the
+     * pixel location before testing them, instead of testing every OMGraphic
+     * on the list. Worth it for lists with thousands of OMGraphics that are
+     * searched on every mouse movement. The index is built the first time
+     * it's needed after the list is generated or changed. If the OMGraphics
+     * are generated one at a time instead of through the list, call
+     * invalidateIndex() afterward.
+     *
+     * @param value true to use the index.
+     */
+    public void setIndexed(boolean value) {
+        synchronized (graphics) {
+            indexed = value;
+            index = null;
+        }
+    }
+
+    /**
+     * @return true if findClosest() and getContains() use a screen-space
+     *         index.
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Drop the screen-space index so it will be rebuilt the next time it's
+     * needed. Call this after generating OMGraphics on an indexed list
+     * without calling generate() on the list.
+     */
+    public void invalidateIndex() {
+        synchronized (graphics) {
+            index = null;
+        }
+    }
+
+    /**
+     * Get the positions of the OMGraphics that could be near a pixel location
+     * from the screen-space index, building the index if needed. The caller
+     * should hold the graphics lock.
+     *
+     * @return the positions in increasing order, or null if every OMGraphic
+     *         should be checked.
+     */
+    protected int[] getIndexCandidates(double x, double y, float limit, boolean forContains) {
+        if (!indexed) {
+            return null;
+        }
+        if (index == null || !index.isValid(graphics, null)) {
+            index = new OMGraphicListIndex(graphics);
+        }
+        int[] candidates = index.getCandidates(x, y, limit, forContains);
+        if (candidates != null && !index.isValid(graphics, candidates)) {
+            // Some OMGraphics were regenerated or replaced.
+            index = new OMGraphicListIndex(graphics);
+            candidates = index.getCandidates(x, y, limit, forContains);
+        }
+        return candidates;
+    }
+
+    /**
+     * Generates the OMGraphics on the list, and marks the screen-space index,
+     * if used, to be rebuilt.
+     */
+    public boolean generate(Projection p, boolean forceProjectAll) {
+        boolean ret = super.generate(p, forceProjectAll);
+        if (indexed) {
+            invalidateIndex();
+        }
+        return ret;
+    }
+
+    /**
+     * Find the closest OMGraphic and its distance, using the screen-space
+     * index to skip OMGraphics that can't be within the limit if the list is
+     * indexed. Calls that deselect the OMGraphics touched check every
+     * OMGraphic, as do searches with limits that cover most of the map.
+     */
+    public OMDist<OMGraphic> findClosest(double x, double y, float limit, boolean resetSelect) {
+        if (!indexed || resetSelect) {
+            return super.findClosest(x, y, limit, resetSelect);
+        }
+
+        OMDist<OMGraphic> omd = null;
+        synchronized (graphics) {
+            int[] candidates = getIndexCandidates(x, y, limit, false);
+            if (candidates != null) {
+                omd = new OMDist<OMGraphic>();
+                int count = candidates.length;
+                boolean firstOnTop = traverseMode == FIRST_ADDED_ON_TOP;
+                for (int c = 0; c < count; c++) {
+                    int pos = firstOnTop ? candidates[c] : candidates[count - 1 - c];
+                    // Same index values the full search reports.
+                    OMDist<OMGraphic> tomd = findClosestTest(omd, firstOnTop ? pos : pos + 1, graphics.get(pos), x, y,
+                            limit, false);
+                    if (tomd == null)
+                        continue;
+                    omd = tomd;
+                    if (omd.d == 0)
+                        break;
+                }
+            }
+        }
+
+        if (omd == null) {
+            return super.findClosest(x, y, limit, resetSelect);
+        }
+        return omd;
+    }
+
+    /**
+     * Find the top OMGraphic that contains the pixel location, using the
+     * screen-space index if the list is indexed.
+     */
+    public OMGraphic getContains(int x, int y) {
+        if (!indexed) {
+            return super.getContains(x, y);
+        }
+
+        OMGraphic ret = null;
+        synchronized (graphics) {
+            int[] candidates = getIndexCandidates(x, y, 0, true);
+            if (candidates == null) {
+                return super.getContains(x, y);
+            }
+
+            int count = candidates.length;
+            boolean firstOnTop = traverseMode == FIRST_ADDED_ON_TOP;
+            for (int c = 0; c < count && ret == null; c++) {
+                OMGraphic graphic = graphics.get(firstOnTop ? candidates[c] : candidates[count - 1 - c]);
+
+                // cannot select a graphic which isn't visible
+                if (!shouldProcess(graphic))
+                    continue;
+
+                if (graphic instanceof OMList<?>) {
+                    OMList<? extends OMGeometry> tomgl = (OMList<? extends OMGeometry>) graphic;
+                    ret = (OMGraphic) tomgl.getContains(x, y);
+                    if (ret != null && tomgl.isVague()) {
+                        ret = graphic;
+                    }
+                } else if (graphic.contains(x, y)) {
+                    ret = graphic;
+                }
+            }
+        }
+
+        if (ret != null && isVague()) {
+            ret = this;
+        }
+        return ret;
+    }
+
     /**
      * This sort method is a place-holder for OMGraphicList extensions to
      * implement their own particular criteria for sorting an OMGraphicList.
@@ -463,6 +630,7 @@ public class OMGraphicList extends OMList<OMGraphic> implements Serializable {
 
     public OMGraphic set(int index, OMGraphic element) {
         setNeedToRegenerate(true);
+        invalidateIndex();
         return graphics.set(index, element);
     }
 
@@ -0,0 +1,434 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.omGraphics;
+
+import java.awt.BasicStroke;
+import java.awt.Stroke;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.bbn.openmap.omGraphics.geom.BasicGeometry;
+
+/**
+ * A screen-space grid over the projected shapes of the OMGraphics on an
+ * OMGraphicList, used to find the few OMGraphics that could be near a pixel
+ * location without asking every OMGraphic on the list for its distance. The
+ * OMGraphicList builds one of these the first time it's asked for the closest
+ * OMGraphic after the list has been generated.
+ * <p>
+ * Each OMGraphic is put in the grid cells covered by the bounds of its
+ * projected shape (and label), padded for the line width. The bounds are a
+ * safe test because the distance to a shape is never less than the distance
+ * to its bounds. OMGraphics that can't be bounded that way are always handed
+ * back as candidates: OMGraphicLists, OMGraphics without a shape, OMGraphics
+ * that figure out distance() or contains() with their own code, and
+ * OMGraphics that cover a large part of the grid.
+ * <p>
+ * The index remembers the OMGraphics and the shapes it was built from, and
+ * isValid() checks that the candidates for a search are still on the list with
+ * the same shapes. Checking every OMGraphic on each search would cost as much
+ * as the search the index is saving, so the OMGraphicList also drops the index
+ * when it is generated or changed.
+ */
+public class OMGraphicListIndex {
+
+    /** Flag for OMGraphics that use the shape for distance(). */
+    protected final static byte DISTANCE = 1;
+    /** Flag for OMGraphics that use the shape for contains(). */
+    protected final static byte CONTAINS = 2;
+
+    /**
+     * The largest number of cells on a side of the grid.
+     */
+    public final static int MAX_CELLS_PER_SIDE = 1024;
+
+    /**
+     * The methods that are known to stay inside the bounds of the shape, by
+     * class.
+     */
+    protected final static Map<Class<?>, Byte> boundedMethods = new ConcurrentHashMap<Class<?>, Byte>();
+
+    /** The OMGraphics on the list when the index was built. */
+    protected final OMGraphic[] graphics;
+    /** The shapes of the OMGraphics, null for the ones not in the grid. */
+    protected final Object[] shapes;
+    /** The strokes of the OMGraphics in the grid, for the line width padding. */
+    protected final Object[] strokes;
+    /** DISTANCE and CONTAINS flags for the OMGraphics in the grid. */
+    protected final byte[] flags;
+    /** The padded bounds of the OMGraphics in the grid. */
+    protected final double[] minX;
+    protected final double[] minY;
+    protected final double[] maxX;
+    protected final double[] maxY;
+
+    /** List positions always handed back for distance queries, sorted. */
+    protected int[] alwaysDistance;
+    /** List positions always handed back for contains queries, sorted. */
+    protected int[] alwaysContains;
+
+    protected double gridX;
+    protected double gridY;
+    protected double cellSize;
+    protected int columns;
+    protected int rows;
+    /** Start of each cell's positions in cellEntries, CSR style. */
+    protected int[] cellStart;
+    protected int[] cellEntries;
+
+    /**
+     * Build an index for the OMGraphics on a list. The caller should hold the
+     * lock for the list.
+     *
+     * @param list the OMGraphics, which should have been generated.
+     */
+    public OMGraphicListIndex(List<OMGraphic> list) {
+        int count = list.size();
+        graphics = list.toArray(new OMGraphic[count]);
+        shapes = new Object[count];
+        strokes = new Object[count];
+        flags = new byte[count];
+        minX = new double[count];
+        minY = new double[count];
+        maxX = new double[count];
+        maxY = new double[count];
+
+        double left = Double.POSITIVE_INFINITY;
+        double top = Double.POSITIVE_INFINITY;
+        double right = Double.NEGATIVE_INFINITY;
+        double bottom = Double.NEGATIVE_INFINITY;
+        int gridded = 0;
+
+        for (int pos = 0; pos < count; pos++) {
+            if (setBounds(pos, graphics[pos])) {
+                left = Math.min(left, minX[pos]);
+                top = Math.min(top, minY[pos]);
+                right = Math.max(right, maxX[pos]);
+                bottom = Math.max(bottom, maxY[pos]);
+                gridded++;
+            }
+        }
+
+        layoutGrid(left, top, right, bottom, gridded);
+        fillGrid();
+    }
+
+    /**
+     * Figure out the padded bounds of an OMGraphic, and whether it can go in
+     * the grid at all.
+     *
+     * @return true if the OMGraphic goes in the grid.
+     */
+    protected boolean setBounds(int pos, OMGraphic graphic) {
+        if (graphic == null || graphic instanceof OMList<?>) {
+            return false;
+        }
+
+        byte methods = getBoundedMethods(graphic.getClass());
+        if (methods == 0) {
+            return false;
+        }
+
+        GeneralPath shape = graphic.getShape();
+        if (shape == null) {
+            return false;
+        }
+
+        Rectangle2D bounds = shape.getBounds2D();
+        Object label = graphic.getAttribute(OMGraphicConstants.LABEL);
+        if (label instanceof OMText) {
+            GeneralPath labelShape = ((OMText) label).getShape();
+            if (labelShape == null) {
+                // Can't tell where the label will show up.
+                methods &= ~DISTANCE;
+            } else {
+                bounds.add(labelShape.getBounds2D());
+            }
+        } else if (label != null) {
+            methods &= ~DISTANCE;
+        }
+
+        double pad = 1;
+        Stroke stroke = graphic.getStroke();
+        if (stroke instanceof BasicStroke) {
+            pad += ((BasicStroke) stroke).getLineWidth() / 2;
+        }
+
+        double x1 = bounds.getMinX() - pad;
+        double y1 = bounds.getMinY() - pad;
+        double x2 = bounds.getMaxX() + pad;
+        double y2 = bounds.getMaxY() + pad;
+        if (methods == 0 || Double.isNaN(x1 + y1 + x2 + y2) || Double.isInfinite(x1 + y1 + x2 + y2)) {
+            return false;
+        }
+
+        shapes[pos] = shape;
+        strokes[pos] = stroke;
+        flags[pos] = methods;
+        minX[pos] = x1;
+        minY[pos] = y1;
+        maxX[pos] = x2;
+        maxY[pos] = y2;
+        return true;
+    }
+
+    /**
+     * Pick a cell size so there are a couple of OMGraphics per cell, within
+     * the maximum grid size.
+     */
+    protected void layoutGrid(double left, double top, double right, double bottom, int gridded) {
+        if (gridded == 0) {
+            gridX = gridY = 0;
+            cellSize = 1;
+            columns = rows = 1;
+            return;
+        }
+
+        double width = Math.max(1, right - left);
+        double height = Math.max(1, bottom - top);
+        cellSize = Math.max(4, Math.sqrt(width * height / Math.max(1, gridded / 2)));
+        cellSize = Math.max(cellSize, Math.max(width, height) / MAX_CELLS_PER_SIDE);
+
+        gridX = left;
+        gridY = top;
+        columns = Math.max(1, Math.min(MAX_CELLS_PER_SIDE, (int) Math.ceil(width / cellSize)));
+        rows = Math.max(1, Math.min(MAX_CELLS_PER_SIDE, (int) Math.ceil(height / cellSize)));
+    }
+
+    /**
+     * Put the bounded OMGraphics in the cells, and the rest in the always
+     * lists. Large OMGraphics go in the always lists too, they'd be handed
+     * back for most queries anyway.
+     */
+    protected void fillGrid() {
+        int count = graphics.length;
+        int cellCount = columns * rows;
+        int maxCellsPerGraphic = Math.max(64, cellCount / 16);
+        int[] counts = new int[cellCount + 1];
+        int[] distance = new int[count];
+        int[] contains = new int[count];
+        int numDistance = 0;
+        int numContains = 0;
+
+        for (int pos = 0; pos < count; pos++) {
+            if (shapes[pos] != null) {
+                int c1 = column(minX[pos]);
+                int c2 = column(maxX[pos]);
+                int r1 = row(minY[pos]);
+                int r2 = row(maxY[pos]);
+                if ((c2 - c1 + 1) * (r2 - r1 + 1) > maxCellsPerGraphic) {
+                    shapes[pos] = null;
+                    flags[pos] = 0;
+                } else {
+                    for (int r = r1; r <= r2; r++) {
+                        for (int c = c1; c <= c2; c++) {
+                            counts[r * columns + c + 1]++;
+                        }
+                    }
+                }
+            }
+
+            if ((flags[pos] & DISTANCE) == 0) {
+                distance[numDistance++] = pos;
+            }
+            if ((flags[pos] & CONTAINS) == 0) {
+                contains[numContains++] = pos;
+            }
+        }
+
+        alwaysDistance = Arrays.copyOf(distance, numDistance);
+        alwaysContains = Arrays.copyOf(contains, numContains);
+
+        for (int i = 1; i <= cellCount; i++) {
+            counts[i] += counts[i - 1];
+        }
+        cellStart = counts;
+        cellEntries = new int[counts[cellCount]];
+        int[] next = Arrays.copyOf(counts, cellCount);
+
+        for (int pos = 0; pos < count; pos++) {
+            if (shapes[pos] != null) {
+                int c1 = column(minX[pos]);
+                int c2 = column(maxX[pos]);
+                int r1 = row(minY[pos]);
+                int r2 = row(maxY[pos]);
+                for (int r = r1; r <= r2; r++) {
+                    for (int c = c1; c <= c2; c++) {
+                        cellEntries[next[r * columns + c]++] = pos;
+                    }
+                }
+            }
+        }
+    }
+
+    protected int column(double x) {
+        int c = (int) Math.floor((x - gridX) / cellSize);
+        return c < 0 ? 0 : (c >= columns ? columns - 1 : c);
+    }
+
+    protected int row(double y) {
+        int r = (int) Math.floor((y - gridY) / cellSize);
+        return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+    }
+
+    /**
+     * Check whether the list still holds the same number of OMGraphics as
+     * when the index was built, and the same OMGraphics, with the same shapes
+     * and strokes, at the given positions. The caller should hold the lock for
+     * the list.
+     *
+     * @param list the list the index was built for.
+     * @param positions the positions to check, usually the candidates for a
+     *        search. May be null.
+     * @return true if the index can still be used.
+     */
+    public boolean isValid(List<OMGraphic> list, int[] positions) {
+        if (list.size() != graphics.length) {
+            return false;
+        }
+
+        if (positions != null) {
+            for (int pos : positions) {
+                OMGraphic graphic = list.get(pos);
+                if (graphic != graphics[pos]) {
+                    return false;
+                }
+                Object shape = shapes[pos];
+                if (shape != null && (shape != graphic.getShape() || strokes[pos] != graphic.getStroke())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the list positions of the OMGraphics that could be within limit
+     * pixels of a location.
+     *
+     * @param x the horizontal pixel location.
+     * @param y the vertical pixel location.
+     * @param limit the distance limit, in pixels. Use 0 with forContains.
+     * @param forContains true if the candidates are going to be asked
+     *        contains(), false for distance().
+     * @return the positions in increasing order, or null if the search area
+     *         covers so much of the grid that checking every OMGraphic would
+     *         be as quick.
+     */
+    public int[] getCandidates(double x, double y, float limit, boolean forContains) {
+        if (!(limit >= 0) || Float.isInfinite(limit) || limit > cellSize * 32) {
+            return null;
+        }
+
+        int[] always = forContains ? alwaysContains : alwaysDistance;
+        byte flag = forContains ? CONTAINS : DISTANCE;
+
+        double x1 = x - limit;
+        double y1 = y - limit;
+        double x2 = x + limit;
+        double y2 = y + limit;
+
+        if (x2 < gridX || y2 < gridY || x1 > gridX + columns * cellSize || y1 > gridY + rows * cellSize
+                || cellEntries.length == 0) {
+            return always;
+        }
+
+        int c1 = column(x1);
+        int c2 = column(x2);
+        int r1 = row(y1);
+        int r2 = row(y2);
+        if ((c2 - c1 + 1) * (r2 - r1 + 1) > columns * rows / 4 && graphics.length > 64) {
+            return null;
+        }
+
+        int[] found = new int[16];
+        int numFound = 0;
+        for (int r = r1; r <= r2; r++) {
+            for (int c = c1; c <= c2; c++) {
+                int cell = r * columns + c;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    int pos = cellEntries[i];
+                    if ((flags[pos] & flag) == 0 || x2 < minX[pos] || x1 > maxX[pos] || y2 < minY[pos]
+                            || y1 > maxY[pos]) {
+                        continue;
+                    }
+                    // Only report the OMGraphic from the first cell it shares
+                    // with the search area.
+                    if (c != Math.max(c1, column(minX[pos])) || r != Math.max(r1, row(minY[pos]))) {
+                        continue;
+                    }
+                    if (numFound == found.length) {
+                        found = Arrays.copyOf(found, numFound * 2);
+                    }
+                    found[numFound++] = pos;
+                }
+            }
+        }
+
+        if (numFound == 0) {
+            return always;
+        }
+
+        int[] ret = Arrays.copyOf(found, numFound + always.length);
+        System.arraycopy(always, 0, ret, numFound, always.length);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    /**
+     * @return the number of OMGraphics the index was built for.
+     */
+    public int size() {
+        return graphics.length;
+    }
+
+    /**
+     * @return the number of OMGraphics tested for every distance query.
+     */
+    public int getAlwaysTestedCount() {
+        return alwaysDistance.length;
+    }
+
+    /**
+     * Figure out whether the distance() and contains() methods of an OMGraphic
+     * class are the ones that just look at the shape.
+     *
+     * @return DISTANCE and/or CONTAINS flags.
+     */
+    protected static byte getBoundedMethods(Class<?> c) {
+        Byte methods = boundedMethods.get(c);
+        if (methods == null) {
+            byte m = 0;
+            try {
+                Class<?> d = c.getMethod("distance", double.class, double.class).getDeclaringClass();
+                if (d == OMGraphicAdapter.class || d == BasicGeometry.class || d == OMPoly.class || d == OMText.class) {
+                    m |= DISTANCE;
+                }
+                if (c.getMethod("contains", double.class, double.class).getDeclaringClass() == BasicGeometry.class) {
+                    m |= CONTAINS;
+                }
+            } catch (NoSuchMethodException nsme) {
+            } catch (SecurityException se) {
+            }
+            methods = Byte.valueOf(m);
+            boundedMethods.put(c, methods);
+        }
+        return methods.byteValue();
+    }
+}
@@ -36,6 +36,7 @@ import com.bbn.openmap.geo.Geo;
 import com.bbn.openmap.geo.Intersection;
 import com.bbn.openmap.proj.DrawUtil;
 import com.bbn.openmap.proj.GeoProj;
+import com.bbn.openmap.proj.PolyBuffer;
 import com.bbn.openmap.proj.ProjMath;
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.util.Debug;
@@ -157,6 +158,13 @@ public class OMPoly
      */
     protected boolean doShapes = false;
 
+    /**
+     * Scratch space for the projected coordinates, so the same arrays can be
+     * filled in each time the poly is generated. Null unless the projected
+     * points are being reused.
+     */
+    protected transient PolyBuffer projectedBuffer = null;
+
     /**
      * Construct a default OMPoly.
      */
@@ -578,6 +586,42 @@ public class OMPoly
         return doShapes;
     }
 
+    /**
+     * Set whether the poly should reuse its projected coordinate arrays. If
+     * true, generate() fills in the x and y arrays from the last projection
+     * when it can, instead of creating new ones, which saves a lot of garbage
+     * for layers that project the same large polys over and over. The
+     * projected coordinates are then overwritten by the next call to
+     * generate(), so subclasses shouldn't hold onto them. False by default.
+     * 
+     * @param set true to reuse the projected coordinate arrays.
+     */
+    public void setReuseProjectedPoints(boolean set) {
+        if (!set) {
+            projectedBuffer = null;
+        } else if (projectedBuffer == null) {
+            projectedBuffer = new PolyBuffer();
+        }
+    }
+
+    public boolean getReuseProjectedPoints() {
+        return projectedBuffer != null;
+    }
+
+    /**
+     * Make sure xpoints and ypoints can hold count arrays, reusing the current
+     * ones if the projected points are being reused.
+     * 
+     * @param count the number of x and y arrays.
+     */
+    protected void checkProjectedArrays(int count) {
+        if (projectedBuffer == null || xpoints == null || ypoints == null || xpoints.length != count
+                || ypoints.length != count) {
+            xpoints = new float[count][0];
+            ypoints = new float[count][0];
+        }
+    }
+
     /**
      * Prepare the poly for rendering.
      * 
@@ -609,12 +653,11 @@ public class OMPoly
                 }
 
                 // Need to keep these around for the LabeledOMPoly
-                xpoints = new float[1][0];
-                ypoints = new float[1][0];
+                checkProjectedArrays(1);
                 // Need to convert the int[] to float[] and assign them to
                 // xpoints/ypoints.
-                float[] xfs = new float[xs.length];
-                float[] yfs = new float[ys.length];
+                float[] xfs = PolyBuffer.getFloats(projectedBuffer, 0, xs.length);
+                float[] yfs = PolyBuffer.getFloats(projectedBuffer, 1, ys.length);
                 for (i = 0; i < xs.length; i++) {
                     xfs[i] = xs[i];
                     yfs[i] = ys[i];
@@ -632,8 +675,8 @@ public class OMPoly
                 }
 
                 npts = xs.length;
-                float[] _x = new float[npts];
-                float[] _y = new float[npts];
+                float[] _x = PolyBuffer.getFloats(projectedBuffer, 0, npts);
+                float[] _y = PolyBuffer.getFloats(projectedBuffer, 1, npts);
 
                 // forward project the radian point
                 Point origin = new Point();
@@ -658,9 +701,8 @@ public class OMPoly
                     }
                 }
                 // Need to keep these around for the LabeledOMPoly
-                xpoints = new float[1][0];
+                checkProjectedArrays(1);
                 xpoints[0] = _x;
-                ypoints = new float[1][0];
                 ypoints[0] = _y;
 
                 break;
@@ -674,7 +716,7 @@ public class OMPoly
                         ProjMath.arrayDegToRad(rawllpts);
                         units = RADIANS;
                     }
-                    vector = ((GeoProj) proj).forwardPoly(rawllpts, lineType, nsegs, isPolygon);
+                    vector = ((GeoProj) proj).forwardPoly(rawllpts, lineType, nsegs, isPolygon, projectedBuffer);
                 } else {
                     if (units == RADIANS) {
                         ProjMath.arrayRadToDeg(rawllpts);
@@ -685,8 +727,7 @@ public class OMPoly
 
                 int size = vector.size();
 
-                xpoints = new float[(int) (size / 2)][0];
-                ypoints = new float[xpoints.length][0];
+                checkProjectedArrays(size / 2);
 
                 for (i = 0, j = 0; i < size; i += 2, j++) {
                     xpoints[j] = vector.get(i);
@@ -1285,6 +1326,24 @@ public class OMPoly
             this.isPolygon = polySource.isPolygon;
             this.rawllpts = DeepCopyUtil.deepCopy(polySource.getLatLonArray());
             this.doShapes = polySource.doShapes;
+            setReuseProjectedPoints(polySource.getReuseProjectedPoints());
+        }
+    }
+
+    /**
+     * Clones share the point arrays, but if the projected points are being
+     * reused each clone gets its own scratch space for them.
+     */
+    public Object clone() {
+        Object clone = super.clone();
+        if (clone instanceof OMPoly && projectedBuffer != null) {
+            OMPoly polyClone = (OMPoly) clone;
+            polyClone.projectedBuffer = new PolyBuffer();
+            if (xpoints != null && ypoints != null) {
+                polyClone.xpoints = xpoints.clone();
+                polyClone.ypoints = ypoints.clone();
+            }
         }
+        return clone;
     }
 }
@@ -38,6 +38,7 @@ import com.bbn.openmap.event.MapMouseEvent;
 import com.bbn.openmap.layer.OMGraphicHandlerLayer;
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.util.Debug;
 
 /**
@@ -99,6 +100,17 @@ public class StandardMapMouseInterpreter
 
     protected boolean active = true;
 
+    /**
+     * OMGraphicLists with at least this many OMGraphics are told to use a
+     * screen-space index for finding the OMGraphic under the mouse. 0 or less,
+     * the default, turns it off.
+     */
+    protected int indexThreshold = 0;
+    /**
+     * The layer projection the last time an indexed list was searched.
+     */
+    protected Projection indexProjection = null;
+
     /**
      * The OMGraphicLayer should be set at some point before use.
      */
@@ -290,6 +302,26 @@ public class StandardMapMouseInterpreter
         return movementInterest;
     }
 
+    /**
+     * Set the size of the layer's OMGraphicList at which the list is told to
+     * index its OMGraphics on the screen, so the OMGraphic under the mouse can
+     * be found without measuring the distance to every OMGraphic. The index is
+     * rebuilt when the list is generated or the layer's projection changes.
+     * Layers that move OMGraphics around between projection changes without
+     * generating the list should set this to 0, or call invalidateIndex() on
+     * the list when they do. Off by default.
+     *
+     * @param threshold the list size, 0 or less to never index the list.
+     * @see OMGraphicList#setIndexed(boolean)
+     */
+    public void setIndexThreshold(int threshold) {
+        indexThreshold = threshold;
+    }
+
+    public int getIndexThreshold() {
+        return indexThreshold;
+    }
+
     /**
      * Return the OMGraphic object that is under a mouse event occurrence on the
      * map, null if nothing applies.
@@ -308,6 +340,18 @@ public class StandardMapMouseInterpreter
                     y = (int) pnt.getY();
                 }
 
+                if (indexThreshold > 0 && list.size() >= indexThreshold) {
+                    Projection proj = layer.getProjection();
+                    if (!list.isIndexed()) {
+                        list.setIndexed(true);
+                    } else if (proj != null && !proj.equals(indexProjection)) {
+                        // The layer may have generated the OMGraphics
+                        // without going through the list.
+                        list.invalidateIndex();
+                    }
+                    indexProjection = proj;
+                }
+
                 omg = list.findClosest(x, y, 4);
             } else {
                 if (DEBUG) {
@@ -699,6 +699,24 @@ public abstract class Azimuth
      * @return ArrayList<float[]> of x[], y[], x[], y[], ... projected poly
      */
     protected ArrayList<float[]> _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled) {
+        return _forwardPoly(rawllpts, ltype, nsegs, isFilled, null);
+    }
+
+    /**
+     * Forward project a poly, as above, with the x and y coordinate arrays
+     * coming from a PolyBuffer if one is provided. The buffer's arrays are
+     * returned when the whole poly is inside the visible hemisphere, otherwise
+     * the visible pieces are copied out of them.
+     * 
+     * @param rawllpts double[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segments between vertices (or if &lt; 0, generate
+     *        this value internally)
+     * @param isFilled filled poly?
+     * @param buffer PolyBuffer for the projected coordinates, may be null.
+     * @return ArrayList of x[], y[], x[], y[], ... the projected poly
+     */
+    protected ArrayList<float[]> _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled, PolyBuffer buffer) {
         boolean DEBUG = Debug.debugging("proj");
 
         int len = rawllpts.length >>> 1;
@@ -716,8 +734,8 @@ public abstract class Azimuth
         Point temp = new Point();
         AzimuthVar az_first = null, az_save = null, azVar = new AzimuthVar();
         ArrayList<AzimuthVar> sections = new ArrayList<AzimuthVar>(128);
-        float[] x_, xs = new float[len];
-        float[] y_, ys = new float[len];
+        float[] x_, xs = PolyBuffer.getFloats(buffer, 0, len);
+        float[] y_, ys = PolyBuffer.getFloats(buffer, 1, len);
 
         // handle first point
         _forward(rawllpts[0], rawllpts[1], temp, azVar);
@@ -1203,6 +1221,7 @@ public abstract class Azimuth
         boolean ok = true;
         int end = copylen + copyoff;
         for (int i = copyoff, j = rawoff; i < end; i++, j += 2) {
+            azVar.invalid_forward = false;
             _forward(rawllpts[j], rawllpts[j + 1], temp, azVar);
             xcoords[i] = temp.x;
             ycoords[i] = temp.y;
@@ -1239,6 +1258,7 @@ public abstract class Azimuth
         boolean ok = true;
         int end = copylen + copyoff;
         for (int i = copyoff, j = rawoff; i < end; i++, j += 2) {
+            azVar.invalid_forward = false;
             _forward(rawllpts[j], rawllpts[j + 1], temp, azVar);
             xcoords[i] = temp.x;
             ycoords[i] = temp.y;
@@ -419,6 +419,42 @@ public class CADRG
         return ret_val;
     }
 
+    /**
+     * Forward project an array of radian points, with the math from forward()
+     * in one loop. Every point is visible. The coordinates are rounded to
+     * whole pixels, like forward() does, so they line up with the RPF frames.
+     * 
+     * @see GeoProj#forwardBatch(double[], int, float[], float[], long[], int,
+     *      int)
+     */
+    public int forwardBatch(double[] rawllpts, int rawoff, float[] xcoords, float[] ycoords, long[] visible, int copyoff,
+                            int copylen) {
+        double sx = spps_x;
+        double sy = -spps_y;
+        double ctrLon = centerX;
+        int x0 = ul.x;
+        int y0 = ul.y + oy;
+        double north = NORTH_LIMIT;
+        double south = SOUTH_LIMIT;
+
+        int end = copyoff + copylen;
+        for (int i = copyoff, j = rawoff; i < end; i++, j += 2) {
+            double lat = rawllpts[j];
+            lat = lat > north ? north : (lat < south ? south : lat);
+            double lon = rawllpts[j + 1] - ctrLon;
+            if (lon < -Math.PI || lon > Math.PI) {
+                lon = ProjMath.wrapLongitude(lon);
+            }
+            // Same rounding as ProjMath.roundAdjust()
+            double x = sx * lon;
+            double y = sy * lat;
+            xcoords[i] = (int) ((((int) x) < 0) ? (x - 0.5) : (x + 0.5)) - x0;
+            ycoords[i] = (int) ((((int) y) < 0) ? (y - 0.5) : (y + 0.5)) + y0;
+        }
+        setVisible(visible, copyoff, copylen);
+        return copylen;
+    }
+
     /**
      * Inverse project x,y coordinates into a LatLonPoint.
      * <p>
@@ -406,6 +406,23 @@ public abstract class Cylindrical
      * @return ArrayList of x[], y[], x[], y[], ... the projected poly
      */
     protected ArrayList<float[]> _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled) {
+        return _forwardPoly(rawllpts, ltype, nsegs, isFilled, null);
+    }
+
+    /**
+     * Forward project a poly, as above, with the x and y coordinate arrays
+     * coming from a PolyBuffer if one is provided.
+     * 
+     * @param rawllpts double[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segments between vertices (or if &lt; 0, generate
+     *        this value internally)
+     * @param isFilled filled poly? this is currently ignored for cylindrical
+     *        projections.
+     * @param buffer PolyBuffer for the projected coordinates, may be null.
+     * @return ArrayList of x[], y[], x[], y[], ... the projected poly
+     */
+    protected ArrayList<float[]> _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled, PolyBuffer buffer) {
         int n, k, flag = 0, min = 0, max = 0;
         float xp, xadj = 0;
 
@@ -421,8 +438,8 @@ public abstract class Cylindrical
 
         // determine when to stop
         Point2D temp = new Point2D.Float(0, 0);
-        float[] xs = new float[len];
-        float[] ys = new float[len];
+        float[] xs = PolyBuffer.getFloats(buffer, 0, len);
+        float[] ys = PolyBuffer.getFloats(buffer, 1, len);
 
         // forward project the first point
         forward(rawllpts[0], rawllpts[1], temp, true);
@@ -462,8 +479,9 @@ public abstract class Cylindrical
          */
 
         // add the extra left-wrap polys
+        int slot = 2;
         for (int i = 1; i <= min; i++) {
-            altx = new float[xs.length];
+            altx = PolyBuffer.getFloats(buffer, slot++, xs.length);
             xadj = i * world.x;// shift opposite
             for (int j = 0; j < altx.length; j++) {
                 altx[j] = xs[j] + xadj;
@@ -477,7 +495,7 @@ public abstract class Cylindrical
 
         // add the extra right-wrap polys
         for (int i = 1; i <= max; i++) {
-            altx = new float[xs.length];
+            altx = PolyBuffer.getFloats(buffer, slot++, xs.length);
             xadj = -i * world.x;// shift opposite
             for (int j = 0; j < altx.length; j++) {
                 altx[j] = xs[j] + xadj;
@@ -1023,6 +1023,112 @@ public abstract class GeoProj
      */
     abstract public Point2D forward(double lat, double lon, Point2D pt, boolean isRadian);
 
+    /**
+     * Forward project an array of radian lat/lon points in one call. This is
+     * the fast way to project a lot of points that aren't connected, like the
+     * vertices of a large layer or a grid. Unlike forwardRaw(), the
+     * visibility of the points is returned as a bitmap, with the bit for
+     * coordinate index i at <code>(visible[i >> 6] >> i) &amp; 1</code>. See
+     * isVisible(). A point is visible if it's on the part of the world the
+     * projection can show (for instance, the visible hemisphere of an
+     * Orthographic projection), not if it's inside the map window. The x,y
+     * coordinates of points that aren't visible are where forward() would put
+     * them.
+     * <p>
+     * This version calls forwardRaw() for chunks of points, projections that
+     * can do better override it with loops that don't go through forward().
+     * 
+     * @param rawllpts array of lat,lon,... in radians
+     * @param rawoff offset into rawllpts
+     * @param xcoords x coordinates
+     * @param ycoords y coordinates
+     * @param visible bitmap of visible coordinates, should have room for
+     *        copyoff + copylen bits. May be null if the visibility isn't
+     *        needed.
+     * @param copyoff offset into x,y arrays, and bit offset into visible
+     * @param copylen number of coordinates (coordinate arrays should be at
+     *        least this long, rawllpts should be at least twice as long).
+     * @return the number of visible points.
+     */
+    public int forwardBatch(double[] rawllpts, int rawoff, float[] xcoords, float[] ycoords, long[] visible, int copyoff,
+                            int copylen) {
+        int chunk = Math.min(copylen, 1024);
+        boolean[] vis = new boolean[chunk];
+        float[] xs = new float[chunk];
+        float[] ys = new float[chunk];
+        int count = 0;
+        for (int done = 0; done < copylen; done += chunk) {
+            int len = Math.min(chunk, copylen - done);
+            int off = copyoff + done;
+            forwardRaw(rawllpts, rawoff + done * 2, xs, ys, vis, 0, len);
+            System.arraycopy(xs, 0, xcoords, off, len);
+            System.arraycopy(ys, 0, ycoords, off, len);
+            for (int i = 0; i < len; i++) {
+                if (vis[i]) {
+                    count++;
+                }
+                setVisible(visible, off + i, vis[i]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check the visibility bitmap filled in by forwardBatch().
+     * 
+     * @param visible bitmap
+     * @param index coordinate index
+     * @return true if the point was visible.
+     */
+    public static boolean isVisible(long[] visible, int index) {
+        return ((visible[index >> 6] >>> index) & 1L) != 0;
+    }
+
+    /**
+     * Set or clear one bit in a forwardBatch() visibility bitmap.
+     * 
+     * @param visible bitmap, may be null.
+     * @param index coordinate index
+     * @param isVisible true to set the bit
+     */
+    protected static void setVisible(long[] visible, int index, boolean isVisible) {
+        if (visible != null) {
+            if (isVisible) {
+                visible[index >> 6] |= 1L << index;
+            } else {
+                visible[index >> 6] &= ~(1L << index);
+            }
+        }
+    }
+
+    /**
+     * Set a run of bits in a forwardBatch() visibility bitmap, for projections
+     * that can show every point.
+     * 
+     * @param visible bitmap, may be null.
+     * @param from first coordinate index
+     * @param len number of coordinates
+     */
+    protected static void setVisible(long[] visible, int from, int len) {
+        if (visible == null || len <= 0) {
+            return;
+        }
+        int to = from + len; // exclusive
+        int first = from >> 6;
+        int last = (to - 1) >> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            visible[first] |= firstMask & lastMask;
+        } else {
+            visible[first] |= firstMask;
+            for (int i = first + 1; i < last; i++) {
+                visible[i] = -1L;
+            }
+            visible[last] |= lastMask;
+        }
+    }
+
     /**
      * Inverse project a Point from x,y space to LatLon space.
      * 
@@ -1417,7 +1523,26 @@ public abstract class GeoProj
      * @see LineType#GreatCircle
      */
     public ArrayList<float[]> forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled) {
-        ArrayList<float[]> stuff = _forwardPoly(rawllpts, ltype, nsegs, isFilled);
+        return forwardPoly(rawllpts, ltype, nsegs, isFilled, null);
+    }
+
+    /**
+     * Forward project a lat/lon Poly, putting the projected coordinates into
+     * arrays from a PolyBuffer where the projection can. A graphic that keeps
+     * its own PolyBuffer gets its old arrays back each time it's projected,
+     * instead of new ones. Remember to specify vertices in radians!
+     * 
+     * @param rawllpts double[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segment points (only for greatcircle or rhumbline
+     *        line types, and if &lt; 1, this value is generated internally)
+     * @param isFilled filled poly?
+     * @param buffer PolyBuffer for the projected coordinates, may be null.
+     * @return ArrayList of x[], y[], x[], y[], ... projected poly
+     * @see PolyBuffer
+     */
+    public ArrayList<float[]> forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled, PolyBuffer buffer) {
+        ArrayList<float[]> stuff = _forwardPoly(rawllpts, ltype, nsegs, isFilled, buffer);
         // @HACK: workaround XWindows bug. clip to a boundary.
         if (Environment.doingXWindowsWorkaround && (scale <= XSCALE_THRESHOLD)) {
             GeometryFactory gf = new GeometryFactory();
@@ -1477,6 +1602,23 @@ public abstract class GeoProj
      */
     protected abstract ArrayList<float[]> _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled);
 
+    /**
+     * Forward project a lat/lon Poly into arrays from a PolyBuffer. This
+     * version ignores the buffer and calls _forwardPoly() without it,
+     * projections that can reuse arrays override it.
+     * 
+     * @param rawllpts double[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type
+     * @param nsegs number of segments between vertices (if &lt; 0, generate
+     *        this value internally)
+     * @param isFilled filled poly?
+     * @param buffer PolyBuffer for the projected coordinates, may be null.
+     * @return ArrayList of x[], y[], x[], y[], ... projected poly
+     */
+    protected ArrayList<float[]> _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled, PolyBuffer buffer) {
+        return _forwardPoly(rawllpts, ltype, nsegs, isFilled);
+    }
+
     /**
      * Get the unprojected coordinates units of measure.
      * 
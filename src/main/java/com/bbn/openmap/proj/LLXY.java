@@ -184,6 +184,38 @@ public class LLXY
       return p;
    }
 
+   /**
+    * Forward project an array of radian points, with the math from forward()
+    * in one loop. Every point is visible.
+    * 
+    * @see GeoProj#forwardBatch(double[], int, float[], float[], long[], int,
+    *      int)
+    */
+   public int forwardBatch(double[] rawllpts, int rawoff, float[] xcoords, float[] ycoords, long[] visible, int copyoff,
+                           int copylen) {
+      // pixels per radian
+      double ppr = Math.toDegrees(ppd);
+      double ctrLon = cLonRad;
+      double x0 = wx;
+      double y0 = hy + cLat * ppd;
+      double north = NORTH_POLE;
+      double south = SOUTH_POLE;
+
+      int end = copyoff + copylen;
+      for (int i = copyoff, j = rawoff; i < end; i++, j += 2) {
+         double lat = rawllpts[j];
+         lat = lat > north ? north : (lat < south ? south : lat);
+         double lon = rawllpts[j + 1] - ctrLon;
+         if (lon < -Math.PI || lon > Math.PI) {
+            lon = ProjMath.wrapLongitude(lon);
+         }
+         xcoords[i] = (float) (x0 + lon * ppr);
+         ycoords[i] = (float) (y0 - lat * ppr);
+      }
+      setVisible(visible, copyoff, copylen);
+      return copylen;
+   }
+
    /**
     * Inverse project x,y coordinates into a LatLonPoint.
     * 
@@ -560,6 +560,45 @@ public class LambertConformal
         }
     }
 
+    /**
+     * Forward project an array of radian points, with the math from
+     * LLToWorld() and the world to pixel conversion in one loop, without the
+     * Point2D objects. Every point is visible.
+     * 
+     * @see GeoProj#forwardBatch(double[], int, float[], float[], long[], int,
+     *      int)
+     */
+    public int forwardBatch(double[] rawllpts, int rawoff, float[] xcoords, float[] ycoords, long[] visible, int copyoff,
+                            int copylen) {
+        double e = ellps.ecc;
+        double radiusF = ellps.radius * F;
+        double ppl = locationPixelsPerLambert;
+        double x0 = locationCenterXPixel + (falseEasting - locationCenterXLambert) * ppl;
+        double y0 = locationCenterYPixel - (falseNorthing + rf - locationCenterYLambert) * ppl;
+
+        int end = copyoff + copylen;
+        for (int i = copyoff, j = rawoff; i < end; i++, j += 2) {
+            double phi = rawllpts[j];
+            double dlamda = rawllpts[j + 1] - lamdaf;
+            if (dlamda > Math.PI) {
+                dlamda -= MoreMath.TWO_PI_D;
+            } else if (dlamda < -Math.PI) {
+                dlamda += MoreMath.TWO_PI_D;
+            }
+
+            double r = 0.0d;
+            if (!MoreMath.approximately_equal(Math.abs(phi), MoreMath.HALF_PI, EPS10)) {
+                r = radiusF * Math.pow(lambTsfn(phi, Math.sin(phi), e), n);
+            }
+            double theta = n * dlamda - alpha;
+
+            xcoords[i] = (float) (x0 + r * Math.sin(theta) * ppl);
+            ycoords[i] = (float) (y0 + r * Math.cos(theta) * ppl);
+        }
+        setVisible(visible, copyoff, copylen);
+        return copylen;
+    }
+
     /**
      * Inverse project x,y coordinates into a LatLonPoint.
      * <p>
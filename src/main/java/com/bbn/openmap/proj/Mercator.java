@@ -174,6 +174,34 @@ public class Mercator extends Cylindrical {
         return p;
     }
 
+    /**
+     * Forward project an array of radian points, with the math from forward()
+     * in one loop. Every point is visible.
+     * 
+     * @see GeoProj#forwardBatch(double[], int, float[], float[], long[], int,
+     *      int)
+     */
+    public int forwardBatch(double[] rawllpts, int rawoff, float[] xcoords, float[] ycoords, long[] visible, int copyoff,
+                            int copylen) {
+        double north = NORTH_POLE - epsilon;
+        double south = SOUTH_POLE + epsilon;
+        double radius = scaled_radius;
+        double ctrLon = centerX;
+        double x0 = wx;
+        double y0 = hy + scaled_radius * asinh_of_tanCtrLat;
+
+        int end = copyoff + copylen;
+        for (int i = copyoff, j = rawoff; i < end; i++, j += 2) {
+            double lat = rawllpts[j];
+            lat = lat > north ? north : (lat < south ? south : lat);
+            double lon = wrapLongitude(rawllpts[j + 1] - ctrLon);
+            xcoords[i] = (float) (radius * lon + x0);
+            ycoords[i] = (float) (y0 - radius * MoreMath.asinh(Math.tan(lat)));
+        }
+        setVisible(visible, copyoff, copylen);
+        return copylen;
+    }
+
     /**
      * Inverse project x,y coordinates into a LatLonPoint.
      * 
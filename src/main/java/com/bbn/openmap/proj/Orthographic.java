@@ -213,6 +213,54 @@ public class Orthographic extends Azimuth {
         return p;
     }
 
+    /**
+     * Forward project an array of radian points. The points on the visible
+     * hemisphere are projected in one loop, and the cosine of their distance
+     * from the center is used to find the ones on the far side, which are
+     * moved to the edge of the hemisphere the way forward() does it.
+     * 
+     * @see GeoProj#forwardBatch(double[], int, float[], float[], long[], int,
+     *      int)
+     */
+    public int forwardBatch(double[] rawllpts, int rawoff, float[] xcoords, float[] ycoords, long[] visible, int copyoff,
+                            int copylen) {
+        double radius = scaled_radius;
+        double ctrLon = centerX;
+        double cosCtr = cosCtrLat;
+        double sinCtr = sinCtrLat;
+        double x0 = wx;
+        double y0 = hy;
+        Point2D edge = null;
+        int count = 0;
+
+        int end = copyoff + copylen;
+        for (int i = copyoff, j = rawoff; i < end; i++, j += 2) {
+            double phi = normalizeLatitude(rawllpts[j]);
+            double dlon = rawllpts[j + 1] - ctrLon;
+            double sinPhi = Math.sin(phi);
+            double cosPhi = Math.cos(phi);
+            double cosDlon = Math.cos(dlon);
+
+            // cosine of the great circle distance from the center, which is
+            // negative on the far hemisphere.
+            boolean vis = sinCtr * sinPhi + cosCtr * cosPhi * cosDlon >= 0;
+            if (vis) {
+                xcoords[i] = (float) (radius * cosPhi * Math.sin(dlon) + x0);
+                ycoords[i] = (float) (y0 - radius * (cosCtr * sinPhi - sinCtr * cosPhi * cosDlon));
+                count++;
+            } else {
+                if (edge == null) {
+                    edge = new Point2D.Double();
+                }
+                _forward(phi, wrapLongitude(rawllpts[j + 1]), edge, null);
+                xcoords[i] = (float) edge.getX();
+                ycoords[i] = (float) edge.getY();
+            }
+            setVisible(visible, i, vis);
+        }
+        return count;
+    }
+
     /**
      * Inverse project x,y coordinates into a LatLonPoint.
      * 
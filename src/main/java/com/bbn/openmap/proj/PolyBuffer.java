@@ -0,0 +1,95 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.proj;
+
+/**
+ * Scratch space for projected poly coordinates. A graphic that is projected
+ * over and over, like a polygon in a shape layer, can hand a PolyBuffer to
+ * GeoProj.forwardPoly(), and the projection will put the x and y coordinates
+ * into the arrays it handed out the last time, instead of allocating new
+ * ones. An array is reused when the same slot is asked for with the same
+ * length, which is what happens when a poly with straight line segments is
+ * projected again at a different scale or center.
+ * <p>
+ * The arrays handed out by a PolyBuffer are overwritten the next time it's
+ * used, so a PolyBuffer should belong to one graphic, and the coordinates
+ * shouldn't be held onto past the next projection. This class is not thread
+ * safe.
+ */
+public class PolyBuffer {
+
+    protected float[][] slots = new float[4][];
+    protected int allocated = 0;
+    protected int reused = 0;
+
+    /**
+     * Get a float array for a slot.
+     *
+     * @param slot the index of the array, counting from zero for each
+     *        projected poly.
+     * @param length the number of coordinates needed.
+     * @return float[] of exactly length, holding whatever was last put in it.
+     */
+    public float[] getFloats(int slot, int length) {
+        if (slot >= slots.length) {
+            float[][] tmp = new float[Math.max(slot + 1, slots.length * 2)][];
+            System.arraycopy(slots, 0, tmp, 0, slots.length);
+            slots = tmp;
+        }
+
+        float[] floats = slots[slot];
+        if (floats == null || floats.length != length) {
+            floats = new float[length];
+            slots[slot] = floats;
+            allocated++;
+        } else {
+            reused++;
+        }
+        return floats;
+    }
+
+    /**
+     * Get a float array from a buffer that may be null.
+     *
+     * @param buffer the PolyBuffer, or null to allocate a new array.
+     * @param slot the index of the array.
+     * @param length the number of coordinates needed.
+     * @return float[] of exactly length.
+     */
+    public static float[] getFloats(PolyBuffer buffer, int slot, int length) {
+        return buffer == null ? new float[length] : buffer.getFloats(slot, length);
+    }
+
+    /**
+     * Let go of all of the arrays.
+     */
+    public void clear() {
+        slots = new float[4][];
+    }
+
+    /**
+     * @return the number of arrays that had to be created.
+     */
+    public int getAllocatedCount() {
+        return allocated;
+    }
+
+    /**
+     * @return the number of times an array was handed out again.
+     */
+    public int getReusedCount() {
+        return reused;
+    }
+}
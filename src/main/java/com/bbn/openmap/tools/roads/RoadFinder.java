@@ -74,6 +74,12 @@ public class RoadFinder
 
    protected RoadVector roads = new RoadVector();
 
+   /**
+    * The routing graph for the roads, built when the first route is asked
+    * for, and thrown away when the roads change.
+    */
+   protected RoadGraph roadGraph;
+
    protected Vector removedRoads = new Vector();
 
    /**
@@ -135,6 +141,7 @@ public class RoadFinder
       intersections.clear();
       removedRoads.setSize(0);
       roads.clear();
+      roadsChanged();
       toDraw.clear();
       getRoads();
       checkIntegrity();
@@ -575,6 +582,7 @@ public class RoadFinder
       from.addRoad(road);
       to.addRoad(road);
       roads.add(road);
+      roadsChanged();
       return road;
    }
 
@@ -593,6 +601,7 @@ public class RoadFinder
          joinRoads(intersection2);
       removedRoads.addElement(road);
       roads.remove(road);
+      roadsChanged();
    }
 
    /**
@@ -613,6 +622,7 @@ public class RoadFinder
       newIntersection.addRoad(road);
       Road newRoad = createRoad(-1, null, newIntersection, secondIntersection, road.getRoadClass());
       newRoad.setRoadPoints(pointsAfter);
+      roadsChanged();
       return newIntersection;
    }
 
@@ -634,6 +644,7 @@ public class RoadFinder
          throw new IllegalArgumentException("Illegal intersection conversion");
       Road road0 = intersection.getRoad(0);
       Road road1 = intersection.getRoad(1);
+      roadsChanged();
       if (road0 == road1) {
          roads.remove(road1);
          intersections.remove(intersection);
@@ -673,6 +684,23 @@ public class RoadFinder
       road0.setName(mergeRoadNames(road0.getName(), road1.getName()));
    }
 
+   /**
+    * Throw away the routing graph, so it gets built again for the next route.
+    */
+   protected synchronized void roadsChanged() {
+      roadGraph = null;
+   }
+
+   /**
+    * Get the routing graph for the roads, building it if needed.
+    */
+   public synchronized RoadGraph getRoadGraph() {
+      if (roadGraph == null) {
+         roadGraph = new RoadGraph(roads.elements());
+      }
+      return roadGraph;
+   }
+
    protected String mergeRoadNames(String name0, String name1) {
       return name0 + "+" + name1;
    }
@@ -838,7 +866,7 @@ public class RoadFinder
          if (roadClasses == null)
             logger.warning("huh? road classes is null???");
 
-         bestRoute = Route.getBestRoute(startTemp, endTemp, roadClasses.getBestConvoySpeed(), roadClasses.getWorstConvoySpeed());
+         bestRoute = getRoadGraph().getBestRoute(startTemp, endTemp);
       }
 
       if (bestRoute == null) {
@@ -0,0 +1,477 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.tools.roads;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+/**
+ * A RoadGraph is a routing engine for a set of Roads. The Intersections are
+ * numbered, and the roads leaving each one are kept in flat arrays, so a
+ * search doesn't have to go through the Vectors and Hashtables of the roads
+ * themselves. Routes are found with A*, using the distance to the destination
+ * at the best convoy speed as the estimate of the time left, which gives the
+ * fastest route, like Route.getBestRoute(), without its repeated passes.
+ * <P>
+ * For networks that don't change, contract() works out a RoadHierarchy of
+ * shortcuts ahead of time, and routes are found with a bidirectional search
+ * over the shortcuts after that, which is much faster on large networks.
+ * <P>
+ * The graph is a snapshot of the roads it was built from. Blocked roads are
+ * checked when routes are found, but roads that are added, removed, or
+ * changed need a new graph. Any number of threads can find routes at the
+ * same time.
+ */
+public class RoadGraph {
+
+    static Logger logger = Logger.getLogger("com.bbn.openmap.tools.roads.RoadGraph");
+
+    /**
+     * Keeps the estimate of the time left a little on the low side, so that
+     * float rounding in the road times can't make it too high.
+     */
+    protected static final double HEURISTIC_SLACK = 0.9999;
+
+    /** The intersection for each node. */
+    protected final Intersection[] intersections;
+    protected final HashMap<Intersection, Integer> nodes;
+    /**
+     * The edges leaving node n are firstEdge[n] to firstEdge[n + 1] - 1. Each
+     * road is an edge in both directions.
+     */
+    protected final int[] firstEdge;
+    /** The node at the other end of each edge. */
+    protected final int[] edgeTarget;
+    /** The hours it takes to drive each edge. */
+    protected final float[] edgeHours;
+    protected final Road[] edgeRoads;
+    /** The unit vector for each node, for the estimates. */
+    protected final double[] xyz;
+    /** The fastest convoy speed of the roads. */
+    protected final float bestSpeed;
+
+    protected volatile RoadHierarchy hierarchy;
+
+    private final ThreadLocal<Search> searches = new ThreadLocal<Search>();
+
+    /**
+     * Build a graph for the roads.
+     *
+     * @param roads an Enumeration of Roads.
+     */
+    public RoadGraph(Enumeration<?> roads) {
+        List<Road> roadList = new ArrayList<Road>();
+        nodes = new HashMap<Intersection, Integer>();
+        List<Intersection> nodeList = new ArrayList<Intersection>();
+        float speed = 0f;
+        while (roads.hasMoreElements()) {
+            Road road = (Road) roads.nextElement();
+            Intersection from = road.getFirstIntersection();
+            Intersection to = road.getSecondIntersection();
+            if (from == null || to == null || from.equals(to)) {
+                continue;
+            }
+            roadList.add(road);
+            addNode(from, nodeList);
+            addNode(to, nodeList);
+            speed = Math.max(speed, road.getRoadClass().getConvoySpeed());
+        }
+        bestSpeed = speed;
+
+        int nodeCount = nodeList.size();
+        intersections = nodeList.toArray(new Intersection[nodeCount]);
+
+        firstEdge = new int[nodeCount + 1];
+        int[] from = new int[roadList.size()];
+        int[] to = new int[roadList.size()];
+        for (int i = 0; i < from.length; i++) {
+            Road road = roadList.get(i);
+            from[i] = nodes.get(road.getFirstIntersection()).intValue();
+            to[i] = nodes.get(road.getSecondIntersection()).intValue();
+            firstEdge[from[i] + 1]++;
+            firstEdge[to[i] + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            firstEdge[n + 1] += firstEdge[n];
+        }
+
+        int edgeCount = firstEdge[nodeCount];
+        edgeTarget = new int[edgeCount];
+        edgeHours = new float[edgeCount];
+        edgeRoads = new Road[edgeCount];
+        int[] fill = new int[nodeCount];
+        System.arraycopy(firstEdge, 0, fill, 0, nodeCount);
+        for (int i = 0; i < from.length; i++) {
+            Road road = roadList.get(i);
+            // Not getTraverseHours(), blocked roads are checked when routes
+            // are found.
+            float hours = road.getLengthInKilometers() / road.getRoadClass().getConvoySpeed();
+            int e = fill[from[i]]++;
+            edgeTarget[e] = to[i];
+            edgeHours[e] = hours;
+            edgeRoads[e] = road;
+            e = fill[to[i]]++;
+            edgeTarget[e] = from[i];
+            edgeHours[e] = hours;
+            edgeRoads[e] = road;
+        }
+
+        // Road lengths are measured with GreatCircle.sphericalDistance() on
+        // the latitudes and longitudes of the waypoints as they are given, so
+        // the estimates are measured the same way.
+        xyz = new double[nodeCount * 3];
+        for (int n = 0; n < nodeCount; n++) {
+            LatLonPoint loc = intersections[n].getLocation();
+            double lat = loc.getLatitude();
+            double lon = loc.getLongitude();
+            xyz[n * 3] = Math.cos(lat) * Math.cos(lon);
+            xyz[n * 3 + 1] = Math.cos(lat) * Math.sin(lon);
+            xyz[n * 3 + 2] = Math.sin(lat);
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("road graph has " + nodeCount + " intersections and " + roadList.size() + " roads");
+        }
+    }
+
+    private void addNode(Intersection intersection, List<Intersection> nodeList) {
+        if (!nodes.containsKey(intersection)) {
+            nodes.put(intersection, Integer.valueOf(nodeList.size()));
+            nodeList.add(intersection);
+        }
+    }
+
+    /**
+     * Work out the shortcuts for the graph, so routes can be found faster.
+     * Takes a while for a big network, and is only worth it if many routes
+     * will be found before the roads change.
+     */
+    public void contract() {
+        hierarchy = new RoadHierarchy(this);
+    }
+
+    /**
+     * @return true if contract() has been called.
+     */
+    public boolean isContracted() {
+        return hierarchy != null;
+    }
+
+    public RoadHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    public int getIntersectionCount() {
+        return intersections.length;
+    }
+
+    /**
+     * @return the number of edges, two for each road.
+     */
+    public int getEdgeCount() {
+        return edgeTarget.length;
+    }
+
+    /**
+     * @return the node number of the intersection, or -1 if the intersection
+     *         isn't on any of the roads.
+     */
+    public int getNode(Intersection intersection) {
+        Integer n = nodes.get(intersection);
+        return n == null ? -1 : n.intValue();
+    }
+
+    public Intersection getIntersection(int node) {
+        return intersections[node];
+    }
+
+    /**
+     * Find the fastest route between two intersections, using the shortcuts
+     * if the graph has been contracted.
+     *
+     * @return the Route, or null if there isn't one.
+     */
+    public Route getBestRoute(Intersection from, Intersection to) {
+        int s = getNode(from);
+        int t = getNode(to);
+        if (s < 0 || t < 0 || s == t) {
+            return null;
+        }
+
+        RoadHierarchy h = hierarchy;
+        if (h != null) {
+            Road[] roads = h.getBestRoads(s, t, getSearch());
+            if (roads == null) {
+                return null;
+            }
+            if (!isBlocked(roads)) {
+                return createRoute(s, roads);
+            }
+            // A road was blocked since the graph was contracted.
+        }
+
+        return getBestRouteAStar(from, to);
+    }
+
+    /**
+     * Find the fastest route between two intersections with A*, without the
+     * shortcuts.
+     *
+     * @return the Route, or null if there isn't one.
+     */
+    public Route getBestRouteAStar(Intersection from, Intersection to) {
+        int s = getNode(from);
+        int t = getNode(to);
+        if (s < 0 || t < 0 || s == t) {
+            return null;
+        }
+
+        Search search = getSearch();
+        Search.Side q = search.forward;
+        q.reset();
+        q.set(s, 0, -1);
+        q.push(s, estimate(s, t));
+        while (!q.isEmpty()) {
+            int u = q.pop();
+            if (q.isSettled(u)) {
+                continue;
+            }
+            q.settle(u);
+            if (u == t) {
+                break;
+            }
+            double time = q.get(u);
+            for (int e = firstEdge[u]; e < firstEdge[u + 1]; e++) {
+                int v = edgeTarget[e];
+                if (q.isSettled(v) || edgeRoads[e].isBlocked()) {
+                    continue;
+                }
+                double newTime = time + edgeHours[e];
+                if (newTime < q.get(v)) {
+                    q.set(v, newTime, e);
+                    q.push(v, newTime + estimate(v, t));
+                }
+            }
+        }
+
+        if (!q.isSettled(t)) {
+            return null;
+        }
+
+        int count = 0;
+        for (int n = t; n != s; n = source(q.parent(n))) {
+            count++;
+        }
+        Road[] roads = new Road[count];
+        for (int n = t; n != s; n = source(q.parent(n))) {
+            roads[--count] = edgeRoads[q.parent(n)];
+        }
+        return createRoute(s, roads);
+    }
+
+    /**
+     * @return the node edge e leaves from.
+     */
+    protected int source(int e) {
+        // Every node has an edge, so the first edges all differ.
+        int lo = 0;
+        int hi = intersections.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstEdge[mid] <= e) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return an estimate of the hours from node n to node t, which is never
+     *         more than it really takes.
+     */
+    protected double estimate(int n, int t) {
+        double dx = xyz[n * 3] - xyz[t * 3];
+        double dy = xyz[n * 3 + 1] - xyz[t * 3 + 1];
+        double dz = xyz[n * 3 + 2] - xyz[t * 3 + 2];
+        double chord = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        return 2.0 * Math.asin(Math.min(1.0, chord / 2.0)) / bestSpeed * HEURISTIC_SLACK;
+    }
+
+    protected boolean isBlocked(Road[] roads) {
+        for (int i = 0; i < roads.length; i++) {
+            if (roads[i].isBlocked()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected Route createRoute(int s, Road[] roads) {
+        return new Route(null, roads, roads[0].getFirstIntersection() == intersections[s]);
+    }
+
+    /**
+     * @return the search state for this thread.
+     */
+    protected Search getSearch() {
+        Search search = searches.get();
+        if (search == null) {
+            search = new Search(intersections.length);
+            searches.set(search);
+        }
+        return search;
+    }
+
+    /**
+     * The state of a search, kept for each thread and reused. Numbers are
+     * only good for the current round, so nothing has to be cleared between
+     * searches.
+     */
+    static class Search {
+        final Side forward;
+        final Side backward;
+
+        Search(int nodeCount) {
+            forward = new Side(nodeCount);
+            backward = new Side(nodeCount);
+        }
+
+        /**
+         * One direction of a search: the best time to each node, the edge it
+         * was reached by, and a heap of nodes to look at.
+         */
+        static class Side {
+            final double[] time;
+            final int[] parent;
+            final int[] round;
+            final int[] settled;
+            int currentRound = 0;
+
+            double[] heapKeys = new double[64];
+            int[] heapNodes = new int[64];
+            int heapSize = 0;
+            double lastKey;
+
+            Side(int nodeCount) {
+                time = new double[nodeCount];
+                parent = new int[nodeCount];
+                round = new int[nodeCount];
+                settled = new int[nodeCount];
+            }
+
+            void reset() {
+                currentRound++;
+                heapSize = 0;
+            }
+
+            double get(int n) {
+                return round[n] == currentRound ? time[n] : Double.POSITIVE_INFINITY;
+            }
+
+            void set(int n, double t, int edge) {
+                round[n] = currentRound;
+                time[n] = t;
+                parent[n] = edge;
+            }
+
+            int parent(int n) {
+                return parent[n];
+            }
+
+            boolean isSettled(int n) {
+                return settled[n] == currentRound;
+            }
+
+            void settle(int n) {
+                settled[n] = currentRound;
+            }
+
+            boolean isEmpty() {
+                return heapSize == 0;
+            }
+
+            /**
+             * @return the smallest key on the heap, infinity if it's empty.
+             */
+            double peekKey() {
+                return heapSize == 0 ? Double.POSITIVE_INFINITY : heapKeys[0];
+            }
+
+            void push(int n, double key) {
+                if (heapSize == heapKeys.length) {
+                    double[] keys = new double[heapSize * 2];
+                    System.arraycopy(heapKeys, 0, keys, 0, heapSize);
+                    heapKeys = keys;
+                    int[] ns = new int[heapSize * 2];
+                    System.arraycopy(heapNodes, 0, ns, 0, heapSize);
+                    heapNodes = ns;
+                }
+                int i = heapSize++;
+                while (i > 0) {
+                    int p = (i - 1) >>> 1;
+                    if (heapKeys[p] <= key) {
+                        break;
+                    }
+                    heapKeys[i] = heapKeys[p];
+                    heapNodes[i] = heapNodes[p];
+                    i = p;
+                }
+                heapKeys[i] = key;
+                heapNodes[i] = n;
+            }
+
+            /**
+             * Take the node with the smallest key off the heap. The key is
+             * left in lastKey.
+             */
+            int pop() {
+                int n = heapNodes[0];
+                lastKey = heapKeys[0];
+                heapSize--;
+                if (heapSize > 0) {
+                    double key = heapKeys[heapSize];
+                    int node = heapNodes[heapSize];
+                    int i = 0;
+                    while (true) {
+                        int c = i * 2 + 1;
+                        if (c >= heapSize) {
+                            break;
+                        }
+                        if (c + 1 < heapSize && heapKeys[c + 1] < heapKeys[c]) {
+                            c++;
+                        }
+                        if (key <= heapKeys[c]) {
+                            break;
+                        }
+                        heapKeys[i] = heapKeys[c];
+                        heapNodes[i] = heapNodes[c];
+                        i = c;
+                    }
+                    heapKeys[i] = key;
+                    heapNodes[i] = node;
+                }
+                return n;
+            }
+        }
+    }
+}
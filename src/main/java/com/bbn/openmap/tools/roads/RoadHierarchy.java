@@ -0,0 +1,462 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.tools.roads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The shortcuts for a RoadGraph, worked out by contracting the intersections
+ * one at a time. When an intersection is contracted, a shortcut is added
+ * between each pair of its neighbors that are best connected through it, so
+ * the route between them doesn't need it anymore. Intersections that need the
+ * fewest shortcuts go first, so the minor roads go before the major ones.
+ * <P>
+ * Routes are found by searching from both ends at the same time, only going
+ * towards intersections contracted later, and the shortcuts on the best route
+ * are unpacked into the roads they stand for. Blocked roads are left out, so
+ * the RoadGraph checks routes for roads that have been blocked since.
+ */
+public class RoadHierarchy {
+
+    static Logger logger = Logger.getLogger("com.bbn.openmap.tools.roads.RoadHierarchy");
+
+    /**
+     * How many intersections a search for another way around an intersection
+     * looks at before giving up and adding the shortcut anyway.
+     */
+    protected static final int WITNESS_LIMIT = 128;
+
+    protected final RoadGraph graph;
+
+    /** The order each intersection was contracted in. */
+    protected final int[] rank;
+
+    /*
+     * Edges, for the roads and the shortcuts. For a road, child1 is -1 and
+     * child2 is the edge in the RoadGraph. For a shortcut from a to b, child1
+     * is the edge from a to the intersection it skips, and child2 is the edge
+     * from there to b.
+     */
+    protected int[] edgeA;
+    protected int[] edgeB;
+    protected double[] edgeHours;
+    protected int[] edgeChild1;
+    protected int[] edgeChild2;
+    protected int edgeCount = 0;
+    protected int shortcutCount = 0;
+
+    /**
+     * The edges to intersections contracted later, for each intersection,
+     * upEdge[firstUp[n]] to upEdge[firstUp[n + 1] - 1].
+     */
+    protected final int[] firstUp;
+    protected final int[] upTarget;
+    protected final int[] upEdge;
+
+    // Used while contracting.
+    private int[][] adj;
+    private int[] adjSize;
+    private boolean[] contracted;
+    private RoadGraph.Search.Side witness;
+    /** The edges for the shortcuts found by the last call to simulate(). */
+    private int[] pending = new int[64];
+    private int pendingSize;
+
+    public RoadHierarchy(RoadGraph graph) {
+        this.graph = graph;
+        long start = System.currentTimeMillis();
+        int n = graph.intersections.length;
+
+        int capacity = Math.max(16, graph.edgeTarget.length);
+        edgeA = new int[capacity];
+        edgeB = new int[capacity];
+        edgeHours = new double[capacity];
+        edgeChild1 = new int[capacity];
+        edgeChild2 = new int[capacity];
+
+        // One edge between each pair of neighbors, for the fastest road.
+        int[] seen = new int[n];
+        int[] seenEdge = new int[n];
+        for (int u = 0; u < n; u++) {
+            for (int e = graph.firstEdge[u]; e < graph.firstEdge[u + 1]; e++) {
+                int v = graph.edgeTarget[e];
+                if (v <= u || graph.edgeRoads[e].isBlocked()) {
+                    continue;
+                }
+                if (seen[v] == u + 1) {
+                    int edge = seenEdge[v];
+                    if (graph.edgeHours[e] < edgeHours[edge]) {
+                        edgeHours[edge] = graph.edgeHours[e];
+                        edgeChild2[edge] = e;
+                    }
+                } else {
+                    seen[v] = u + 1;
+                    seenEdge[v] = addEdge(u, v, graph.edgeHours[e], -1, e);
+                }
+            }
+        }
+
+        adj = new int[n][];
+        adjSize = new int[n];
+        for (int u = 0; u < n; u++) {
+            adj[u] = new int[graph.firstEdge[u + 1] - graph.firstEdge[u] + 1];
+        }
+        for (int e = 0; e < edgeCount; e++) {
+            addAdjacent(edgeA[e], e);
+            addAdjacent(edgeB[e], e);
+        }
+
+        contracted = new boolean[n];
+        witness = new RoadGraph.Search.Side(n);
+        rank = new int[n];
+        int[] deletedNeighbors = new int[n];
+        RoadGraph.Search.Side order = new RoadGraph.Search.Side(n);
+        for (int v = 0; v < n; v++) {
+            order.push(v, simulate(v));
+        }
+
+        int next = 0;
+        while (!order.isEmpty()) {
+            int v = order.pop();
+            // Lazy updates, the priority may have gone up since it was
+            // pushed.
+            double priority = simulate(v) + deletedNeighbors[v];
+            if (priority > order.peekKey()) {
+                order.push(v, priority);
+                continue;
+            }
+
+            for (int i = 0; i < pendingSize; i += 2) {
+                int e1 = pending[i];
+                int e2 = pending[i + 1];
+                addShortcut(other(e1, v), other(e2, v), edgeHours[e1] + edgeHours[e2], e1, e2);
+            }
+            contracted[v] = true;
+            rank[v] = next++;
+            for (int i = 0; i < adjSize[v]; i++) {
+                deletedNeighbors[other(adj[v][i], v)]++;
+            }
+        }
+
+        // Only the edges going up are needed for finding routes.
+        firstUp = new int[n + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            firstUp[lower(e) + 1]++;
+        }
+        for (int u = 0; u < n; u++) {
+            firstUp[u + 1] += firstUp[u];
+        }
+        upTarget = new int[edgeCount];
+        upEdge = new int[edgeCount];
+        int[] fill = new int[n];
+        System.arraycopy(firstUp, 0, fill, 0, n);
+        for (int e = 0; e < edgeCount; e++) {
+            int low = lower(e);
+            int i = fill[low]++;
+            upTarget[i] = other(e, low);
+            upEdge[i] = e;
+        }
+
+        adj = null;
+        adjSize = null;
+        contracted = null;
+        witness = null;
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("contracted " + n + " intersections with " + shortcutCount + " shortcuts in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * @return the number of shortcuts added.
+     */
+    public int getShortcutCount() {
+        return shortcutCount;
+    }
+
+    protected int addEdge(int a, int b, double hours, int child1, int child2) {
+        if (edgeCount == edgeA.length) {
+            int capacity = edgeCount * 2;
+            edgeA = grow(edgeA, capacity);
+            edgeB = grow(edgeB, capacity);
+            edgeChild1 = grow(edgeChild1, capacity);
+            edgeChild2 = grow(edgeChild2, capacity);
+            double[] hrs = new double[capacity];
+            System.arraycopy(edgeHours, 0, hrs, 0, edgeCount);
+            edgeHours = hrs;
+        }
+        edgeA[edgeCount] = a;
+        edgeB[edgeCount] = b;
+        edgeHours[edgeCount] = hours;
+        edgeChild1[edgeCount] = child1;
+        edgeChild2[edgeCount] = child2;
+        return edgeCount++;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] bigger = new int[capacity];
+        System.arraycopy(array, 0, bigger, 0, Math.min(array.length, capacity));
+        return bigger;
+    }
+
+    private void addAdjacent(int node, int edge) {
+        if (adjSize[node] == adj[node].length) {
+            adj[node] = grow(adj[node], adjSize[node] * 2 + 2);
+        }
+        adj[node][adjSize[node]++] = edge;
+    }
+
+    /**
+     * @return the intersection at the other end of edge e from n.
+     */
+    protected int other(int e, int n) {
+        return edgeA[e] == n ? edgeB[e] : edgeA[e];
+    }
+
+    /**
+     * @return the end of edge e that was contracted first.
+     */
+    protected int lower(int e) {
+        return rank[edgeA[e]] < rank[edgeB[e]] ? edgeA[e] : edgeB[e];
+    }
+
+    /**
+     * Work out the shortcuts it would take to contract intersection v, and
+     * leave them in pending.
+     *
+     * @return twice the number of shortcuts, less the number of edges that go
+     *         away.
+     */
+    protected int simulate(int v) {
+        // Drop the edges to contracted neighbors.
+        int[] edges = adj[v];
+        int degree = 0;
+        for (int i = 0; i < adjSize[v]; i++) {
+            if (!contracted[other(edges[i], v)]) {
+                edges[degree++] = edges[i];
+            }
+        }
+        adjSize[v] = degree;
+
+        pendingSize = 0;
+        for (int i = 0; i < degree - 1; i++) {
+            int ei = edges[i];
+            int u = other(ei, v);
+            double maxHours = 0;
+            for (int j = i + 1; j < degree; j++) {
+                maxHours = Math.max(maxHours, edgeHours[edges[j]]);
+            }
+            double limit = edgeHours[ei] + maxHours;
+            findWitnesses(u, v, limit);
+
+            for (int j = i + 1; j < degree; j++) {
+                int ej = edges[j];
+                int w = other(ej, v);
+                double hours = edgeHours[ei] + edgeHours[ej];
+                if (witness.get(w) > hours) {
+                    if (pendingSize + 2 > pending.length) {
+                        pending = grow(pending, pending.length * 2);
+                    }
+                    pending[pendingSize++] = ei;
+                    pending[pendingSize++] = ej;
+                }
+            }
+        }
+        return pendingSize - degree;
+    }
+
+    /**
+     * Search from u for the other ways to v's neighbors, without going
+     * through v, up to limit hours.
+     */
+    protected void findWitnesses(int u, int v, double limit) {
+        RoadGraph.Search.Side q = witness;
+        q.reset();
+        q.set(u, 0, -1);
+        q.push(u, 0);
+        int settled = 0;
+        while (!q.isEmpty()) {
+            int x = q.pop();
+            if (q.isSettled(x)) {
+                continue;
+            }
+            q.settle(x);
+            if (q.lastKey > limit || ++settled > WITNESS_LIMIT) {
+                break;
+            }
+            int[] edges = adj[x];
+            for (int i = 0; i < adjSize[x]; i++) {
+                int e = edges[i];
+                int y = other(e, x);
+                if (y == v || contracted[y]) {
+                    continue;
+                }
+                double hours = q.get(x) + edgeHours[e];
+                if (hours < q.get(y)) {
+                    q.set(y, hours, e);
+                    q.push(y, hours);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a shortcut from u to w, unless there's already an edge between them
+     * that's as fast.
+     */
+    protected void addShortcut(int u, int w, double hours, int child1, int child2) {
+        int[] edges = adj[u];
+        for (int i = 0; i < adjSize[u]; i++) {
+            int e = edges[i];
+            if (other(e, u) == w) {
+                if (edgeHours[e] <= hours) {
+                    return;
+                }
+                int shortcut = addEdge(u, w, hours, child1, child2);
+                shortcutCount++;
+                edges[i] = shortcut;
+                int[] wEdges = adj[w];
+                for (int j = 0; j < adjSize[w]; j++) {
+                    if (wEdges[j] == e) {
+                        wEdges[j] = shortcut;
+                    }
+                }
+                return;
+            }
+        }
+        int shortcut = addEdge(u, w, hours, child1, child2);
+        shortcutCount++;
+        addAdjacent(u, shortcut);
+        addAdjacent(w, shortcut);
+    }
+
+    /**
+     * Find the roads on the fastest route from node s to node t, leaving out
+     * the roads that were blocked when the graph was contracted.
+     *
+     * @return the roads, or null if there's no route.
+     */
+    protected Road[] getBestRoads(int s, int t, RoadGraph.Search search) {
+        RoadGraph.Search.Side forward = search.forward;
+        RoadGraph.Search.Side backward = search.backward;
+        forward.reset();
+        backward.reset();
+        forward.set(s, 0, -1);
+        forward.push(s, 0);
+        backward.set(t, 0, -1);
+        backward.push(t, 0);
+
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        while (true) {
+            double forwardKey = forward.peekKey();
+            double backwardKey = backward.peekKey();
+            if (Math.min(forwardKey, backwardKey) >= best) {
+                break;
+            }
+            RoadGraph.Search.Side side = forwardKey <= backwardKey ? forward : backward;
+            RoadGraph.Search.Side otherSide = side == forward ? backward : forward;
+
+            int u = side.pop();
+            if (side.isSettled(u)) {
+                continue;
+            }
+            side.settle(u);
+            double hours = side.get(u);
+            double total = hours + otherSide.get(u);
+            if (total < best) {
+                best = total;
+                meet = u;
+            }
+
+            for (int i = firstUp[u]; i < firstUp[u + 1]; i++) {
+                int v = upTarget[i];
+                double newHours = hours + edgeHours[upEdge[i]];
+                if (newHours < side.get(v)) {
+                    side.set(v, newHours, upEdge[i]);
+                    side.push(v, newHours);
+                }
+            }
+        }
+
+        if (meet < 0) {
+            return null;
+        }
+
+        // The edges from s to the meeting point, then from there to t, and
+        // which end each one is driven from.
+        List<int[]> path = new ArrayList<int[]>();
+        for (int n = meet; n != s;) {
+            int e = forward.parent(n);
+            n = other(e, n);
+            path.add(0, new int[] { e, n });
+        }
+        for (int n = meet; n != t;) {
+            int e = backward.parent(n);
+            path.add(new int[] { e, n });
+            n = other(e, n);
+        }
+
+        List<Road> roads = new ArrayList<Road>();
+        int[] stack = new int[64];
+        for (int[] step : path) {
+            stack = unpack(step[0], step[1], roads, stack);
+        }
+        return roads.toArray(new Road[roads.size()]);
+    }
+
+    /**
+     * Add the roads for edge e, driven from node from, to the list.
+     *
+     * @return the stack, which may have grown.
+     */
+    protected int[] unpack(int e, int from, List<Road> roads, int[] stack) {
+        int top = 0;
+        stack[top++] = e;
+        stack[top++] = from;
+        while (top > 0) {
+            int x = stack[--top];
+            int edge = stack[--top];
+            if (edgeChild1[edge] < 0) {
+                roads.add(graph.edgeRoads[edgeChild2[edge]]);
+                continue;
+            }
+
+            if (top + 4 > stack.length) {
+                stack = grow(stack, stack.length * 2);
+            }
+            int child1 = edgeChild1[edge];
+            int child2 = edgeChild2[edge];
+            int mid = other(child1, edgeA[edge]);
+            // Push the second half first, so the first half comes off first.
+            if (x == edgeA[edge]) {
+                stack[top++] = child2;
+                stack[top++] = mid;
+                stack[top++] = child1;
+                stack[top++] = x;
+            } else {
+                stack[top++] = child1;
+                stack[top++] = mid;
+                stack[top++] = child2;
+                stack[top++] = x;
+            }
+        }
+        return stack;
+    }
+}
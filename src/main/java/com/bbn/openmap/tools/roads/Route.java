@@ -61,7 +61,13 @@ public class Route implements Cloneable, Serializable {
         }
     }
 
-    public synchronized static Route getBestRoute(Intersection from,
+    /**
+     * Find the fastest route between two intersections by searching out from
+     * the start, in passes that go further each time. RoadGraph finds the
+     * same routes much faster, and should be used for large networks or many
+     * routes.
+     */
+    public static Route getBestRoute(Intersection from,
                                                   Intersection to,
                                                   float bestConvoySpeed,
                                                   float worstConvoySpeed) {
@@ -112,32 +112,44 @@ public class LOSGenerator {
             return ret;
         }
 
-        int startTotalHeight = startObjHeight
-                + dtedCache.getElevation((float)startLLP.getLatitude(),
-                        (float)startLLP.getLongitude());
-
-        double[] llpoints = GreatCircle.greatCircle(startLLP.getY(),
-                startLLP.getX(),
-                endLLP.getY(),
-                endLLP.getX(),
+        double[] llpoints = GreatCircle.greatCircle(startLLP.getRadLat(),
+                startLLP.getRadLon(),
+                endLLP.getRadLat(),
+                endLLP.getRadLon(),
                 numPoints,
                 true);
-        LatLonPoint llp = new LatLonPoint.Double();
-        int size = llpoints.length;
+        int size = llpoints.length / 2;
+
+        // Get all the elevations at once, with the start point at the
+        // end.
+        double[] lats = new double[size + 1];
+        double[] lons = new double[size + 1];
+        for (int i = 0; i < size; i++) {
+            lats[i] = Math.toDegrees(llpoints[i * 2]);
+            lons[i] = Math.toDegrees(llpoints[i * 2 + 1]);
+        }
+        lats[size] = startLLP.getLatitude();
+        lons[size] = startLLP.getLongitude();
+        int[] elevations = dtedCache.getElevations(lats, lons, null, false);
+
+        int startTotalHeight = startObjHeight + elevations[size];
+
         double losSlope = -MoreMath.HALF_PI;
-        for (int i = 0; i < size; i += 2) {
-            llp.setLatLon(llpoints[i], llpoints[i + 1], true);
+        for (int i = 0; i < size; i++) {
             int height = 0;
-            if (i >= size - 2) {
+            if (i == size - 1) {
                 height = endObjHeight;
             }
-            double slope = calculateLOSSlope(startLLP,
-                    startTotalHeight,
-                    llp,
-                    height);
+            double arc_dist = GreatCircle.sphericalDistance(startLLP.getRadLat(),
+                    startLLP.getRadLon(),
+                    llpoints[i * 2],
+                    llpoints[i * 2 + 1]);
+            double slope = calculateLOSSlope(startTotalHeight,
+                    height + elevations[i],
+                    (float) arc_dist);
 
             if (Debug.debugging("losdetail")) {
-                Debug.output("   LOS:" + (i / 2) + " - slope = " + slope
+                Debug.output("   LOS:" + i + " - slope = " + slope
                         + " at height of point: " + height);
             }
 
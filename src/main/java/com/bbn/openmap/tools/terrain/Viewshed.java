@@ -0,0 +1,93 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.tools.terrain;
+
+/**
+ * The area that can be seen from a point, created by the ViewshedGenerator.
+ * The area is a grid of samples evenly spaced in latitude and longitude, in
+ * rows starting at the northern edge, so sample col, row is at index row *
+ * width + col. The observer is at the center sample.
+ */
+public class Viewshed {
+
+    /** Samples farther away than the radius of the viewshed. */
+    public final static byte OUT_OF_RANGE = 0;
+    /** Samples that are blocked by the terrain. */
+    public final static byte INVISIBLE = 1;
+    /** Samples that can be seen from the center. */
+    public final static byte VISIBLE = 2;
+
+    /** The number of samples across and down. */
+    public final int width, height;
+    /** The location of the northwest sample, in decimal degrees. */
+    public final double north, west;
+    /** The degrees between samples. */
+    public final double latSpacing, lonSpacing;
+    /** OUT_OF_RANGE, INVISIBLE or VISIBLE for each sample. */
+    public final byte[] values;
+    /**
+     * The elevations of the samples, in meters, DTEDFrameCache.NO_DATA where
+     * there wasn't any.
+     */
+    public final int[] elevations;
+
+    public Viewshed(double north, double west, double latSpacing, double lonSpacing, int width, int height) {
+        this.north = north;
+        this.west = west;
+        this.latSpacing = latSpacing;
+        this.lonSpacing = lonSpacing;
+        this.width = width;
+        this.height = height;
+        values = new byte[width * height];
+        elevations = new int[width * height];
+    }
+
+    /**
+     * @return OUT_OF_RANGE, INVISIBLE or VISIBLE.
+     */
+    public byte get(int col, int row) {
+        return values[row * width + col];
+    }
+
+    public boolean isVisible(int col, int row) {
+        return get(col, row) == VISIBLE;
+    }
+
+    public double getLatitude(int row) {
+        return north - row * latSpacing;
+    }
+
+    public double getLongitude(int col) {
+        return west + col * lonSpacing;
+    }
+
+    /**
+     * @return the number of VISIBLE samples.
+     */
+    public int getVisibleCount() {
+        int count = 0;
+        for (byte value : values) {
+            if (value == VISIBLE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public String toString() {
+        return "Viewshed[" + width + "x" + height + " from " + north + ", " + west + ", spacing " + latSpacing + ", "
+                + lonSpacing + "]";
+    }
+}
@@ -0,0 +1,199 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.tools.terrain;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.bbn.openmap.dataAccess.dted.DTEDFrameCache;
+import com.bbn.openmap.proj.GreatCircle;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+import com.bbn.openmap.util.Debug;
+import com.bbn.openmap.util.TaskService;
+
+/**
+ * Figures out everything that can be seen from a point, out to a distance.
+ * The elevations of a grid of samples around the point are fetched from the
+ * DTEDFrameCache in one batch, and then lines of sight are traced from the
+ * center out to each sample on the edge of the grid, marking the samples that
+ * can be seen along the way. The lines are traced in parallel.
+ */
+public class ViewshedGenerator extends LOSGenerator {
+
+    /** The number of lines handed to a thread at a time. */
+    protected final static int LINES_PER_TASK = 32;
+
+    public ViewshedGenerator() {}
+
+    public ViewshedGenerator(DTEDFrameCache cache) {
+        super(cache);
+    }
+
+    /**
+     * Create the viewshed around a point.
+     *
+     * @param center the location of the observer.
+     * @param observerHeight the height of the observer above the surface, in
+     *        meters.
+     * @param targetHeight the height above the surface of the things being
+     *        looked for, in meters.
+     * @param radius how far to look, in radians.
+     * @param samples the number of samples from the center to the edge of the
+     *        grid. The grid is 2 * samples + 1 across.
+     * @return Viewshed, or null if there isn't a DTEDFrameCache.
+     */
+    public Viewshed createViewshed(LatLonPoint center, int observerHeight, int targetHeight, double radius, int samples) {
+        if (dtedCache == null || samples < 1) {
+            return null;
+        }
+
+        double centerLat = center.getLatitude();
+        double centerLon = center.getLongitude();
+        int edge = 2 * samples + 1;
+        double latSpacing = Math.toDegrees(radius) / samples;
+        // Keep the samples about as far apart east-west as north-south.
+        double lonSpacing = Math.min(latSpacing / Math.max(Math.cos(Math.toRadians(centerLat)), .01), 360.0 / edge);
+        Viewshed viewshed = new Viewshed(centerLat + samples * latSpacing, centerLon - samples * lonSpacing, latSpacing,
+                                         lonSpacing, edge, edge);
+
+        double[] lats = new double[edge * edge];
+        double[] lons = new double[edge * edge];
+        final float[] arcs = new float[edge * edge];
+        double centerPhi = center.getRadLat();
+        double centerLambda = center.getRadLon();
+        for (int row = 0; row < edge; row++) {
+            double lat = viewshed.getLatitude(row);
+            for (int col = 0; col < edge; col++) {
+                int index = row * edge + col;
+                double lon = viewshed.getLongitude(col);
+                if (lat > 90 || lat < -90) {
+                    lats[index] = Double.NaN;
+                    arcs[index] = Float.POSITIVE_INFINITY;
+                    continue;
+                }
+                arcs[index] = (float) GreatCircle.sphericalDistance(centerPhi, centerLambda, Math.toRadians(lat),
+                                                                    Math.toRadians(lon));
+                if (arcs[index] > radius) {
+                    // No need to look up elevations that won't be used.
+                    lats[index] = Double.NaN;
+                    continue;
+                }
+                lats[index] = lat;
+                lons[index] = wrapLongitude(lon);
+                viewshed.values[index] = Viewshed.INVISIBLE;
+            }
+        }
+
+        final int[] elevations = dtedCache.getElevations(lats, lons, viewshed.elevations, false);
+
+        final int middle = samples;
+        final int centerIndex = middle * edge + middle;
+        final int startTotalHeight = observerHeight + groundHeight(elevations[centerIndex]);
+        viewshed.values[centerIndex] = Viewshed.VISIBLE;
+
+        final Viewshed vs = viewshed;
+        final float maxArc = (float) radius;
+        final int numLines = 8 * samples;
+        final AtomicInteger next = new AtomicInteger();
+        final int objHeight = targetHeight;
+        TaskService.singleton().runInParallel(new Runnable() {
+            public void run() {
+                int first;
+                while ((first = next.getAndAdd(LINES_PER_TASK)) < numLines) {
+                    int last = Math.min(first + LINES_PER_TASK, numLines);
+                    for (int line = first; line < last; line++) {
+                        traceLine(vs, line, middle, startTotalHeight, objHeight, elevations, arcs, maxArc);
+                    }
+                }
+            }
+        }, Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), numLines / LINES_PER_TASK)));
+
+        if (Debug.debugging("los")) {
+            Debug.output("ViewshedGenerator: " + viewshed + " has " + viewshed.getVisibleCount() + " visible samples");
+        }
+
+        return viewshed;
+    }
+
+    /**
+     * Trace one line of sight from the center of the grid out to a sample on
+     * its edge, marking the samples along it that can be seen. Lines only ever
+     * mark samples VISIBLE, so lines that cross the same samples can be traced
+     * at the same time.
+     *
+     * @param line which edge sample the line goes to, going clockwise from
+     *        the northwest corner.
+     * @param middle the column and row of the center sample.
+     */
+    protected void traceLine(Viewshed viewshed, int line, int middle, int startTotalHeight, int targetHeight,
+                             int[] elevations, float[] arcs, float maxArc) {
+        int side = 2 * middle;
+        int dx, dy;
+        if (line < side) {
+            dx = line - middle;
+            dy = -middle;
+        } else if (line < 2 * side) {
+            dx = middle;
+            dy = line - side - middle;
+        } else if (line < 3 * side) {
+            dx = middle - (line - 2 * side);
+            dy = middle;
+        } else {
+            dx = -middle;
+            dy = middle - (line - 3 * side);
+        }
+
+        int edge = viewshed.width;
+        double losSlope = Double.NEGATIVE_INFINITY;
+        for (int step = 1; step <= middle; step++) {
+            int col = middle + (int) Math.round((double) dx * step / middle);
+            int row = middle + (int) Math.round((double) dy * step / middle);
+            int index = row * edge + col;
+            float arc = arcs[index];
+            if (arc > maxArc) {
+                break;
+            }
+
+            int ground = groundHeight(elevations[index]);
+            double slope = calculateLOSSlope(startTotalHeight, ground + targetHeight, arc);
+            if (slope > losSlope) {
+                viewshed.values[index] = Viewshed.VISIBLE;
+            }
+
+            if (targetHeight != 0) {
+                slope = calculateLOSSlope(startTotalHeight, ground, arc);
+            }
+            if (slope > losSlope) {
+                losSlope = slope;
+            }
+        }
+    }
+
+    /**
+     * @return the elevation, or 0 for samples without data.
+     */
+    protected static int groundHeight(int elevation) {
+        return elevation == DTEDFrameCache.NO_DATA ? 0 : elevation;
+    }
+
+    protected static double wrapLongitude(double lon) {
+        while (lon >= 180) {
+            lon -= 360;
+        }
+        while (lon < -180) {
+            lon += 360;
+        }
+        return lon;
+    }
+}
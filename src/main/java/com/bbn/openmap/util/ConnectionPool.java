@@ -0,0 +1,260 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A simple pool of JDBC connections to one database, so layers that query a
+ * database every time the projection changes don't have to log in every time.
+ * The connections handed out are wrappers; closing one puts the real
+ * connection back in the pool instead of closing it. Idle connections are
+ * checked before they are handed out again, and broken ones are dropped.
+ * <p>
+ * There is one pool for each driver, URL and user, from
+ * {@link #get(String, String, String, String)}.
+ */
+public class ConnectionPool {
+
+    protected static Logger logger = Logger.getLogger("com.bbn.openmap.util.ConnectionPool");
+
+    /** The default number of idle connections kept around. */
+    public final static int DEFAULT_MAX_IDLE = 4;
+    /** Seconds to wait for an idle connection to say it's still good. */
+    protected final static int VALIDATION_TIMEOUT = 2;
+
+    protected static final Map<String, ConnectionPool> pools = new HashMap<String, ConnectionPool>();
+
+    protected final String url;
+    protected final String user;
+    protected final String password;
+    protected int maxIdle = DEFAULT_MAX_IDLE;
+    protected final LinkedList<Connection> idle = new LinkedList<Connection>();
+
+    /**
+     * Create a pool. Most callers should use
+     * {@link #get(String, String, String, String)} to share pools.
+     *
+     * @param url the JDBC URL of the database.
+     * @param user the user name, or null if the URL has it.
+     * @param password the password, or null if the URL has it.
+     */
+    public ConnectionPool(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    /**
+     * Get the shared pool for a database, loading the driver the first time.
+     *
+     * @param driver the JDBC driver class, or null if DriverManager can find
+     *        it on its own.
+     * @param url the JDBC URL of the database.
+     * @param user the user name, or null if the URL has it.
+     * @param password the password, or null if the URL has it.
+     * @throws SQLException if the driver can't be loaded.
+     */
+    public static ConnectionPool get(String driver, String url, String user, String password) throws SQLException {
+        String key = driver + "|" + url + "|" + user + "|" + password;
+        synchronized (pools) {
+            ConnectionPool pool = pools.get(key);
+            if (pool == null) {
+                if (driver != null) {
+                    try {
+                        Class.forName(driver);
+                    } catch (ClassNotFoundException cnfe) {
+                        throw new SQLException("JDBC driver " + driver + " not found");
+                    }
+                }
+                pool = new ConnectionPool(url, user, password);
+                pools.put(key, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Get a connection, an idle one if there is one that still works, or a new
+     * one. Close it when done to give it back.
+     */
+    public Connection getConnection() throws SQLException {
+        while (true) {
+            Connection connection;
+            synchronized (idle) {
+                connection = idle.poll();
+            }
+            if (connection == null) {
+                break;
+            }
+            if (isValid(connection)) {
+                return wrap(connection);
+            }
+            close(connection);
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("ConnectionPool connecting to " + url);
+        }
+        Connection connection = user == null && password == null ? DriverManager.getConnection(url)
+                : DriverManager.getConnection(url, user, password);
+        return wrap(connection);
+    }
+
+    protected boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT);
+        } catch (AbstractMethodError ame) {
+            // A pre-JDBC 4 driver.
+            try {
+                return !connection.isClosed();
+            } catch (SQLException sqle) {
+                return false;
+            }
+        } catch (SQLException sqle) {
+            return false;
+        }
+    }
+
+    /**
+     * Take a connection back. It's closed if it's broken or there are already
+     * enough idle connections.
+     */
+    protected void release(Connection connection) {
+        try {
+            if (connection.isClosed()) {
+                return;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException sqle) {
+            close(connection);
+            return;
+        }
+
+        synchronized (idle) {
+            if (idle.size() < maxIdle) {
+                idle.addFirst(connection);
+                return;
+            }
+        }
+        close(connection);
+    }
+
+    protected void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException sqle) {
+            logger.fine("ConnectionPool problem closing a connection: " + sqle.getMessage());
+        }
+    }
+
+    /**
+     * Close the idle connections.
+     */
+    public void clear() {
+        synchronized (idle) {
+            while (!idle.isEmpty()) {
+                close(idle.removeFirst());
+            }
+        }
+    }
+
+    /**
+     * @return the number of connections waiting to be reused.
+     */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Wrap a connection so closing it gives it back to the pool.
+     */
+    protected Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                                                   new PooledConnection(connection));
+    }
+
+    /**
+     * Passes calls through to the real connection, except close(), which
+     * gives it back to the pool. The wrapper can't be used after that.
+     */
+    protected class PooledConnection
+            implements InvocationHandler {
+        protected Connection connection;
+
+        protected PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close") && method.getParameterTypes().length == 0) {
+                Connection released;
+                synchronized (this) {
+                    released = connection;
+                    connection = null;
+                }
+                if (released != null) {
+                    release(released);
+                }
+                return null;
+            }
+            if (name.equals("isClosed") && method.getParameterTypes().length == 0) {
+                Connection current = connection;
+                return current == null || current.isClosed();
+            }
+            if (name.equals("equals") && args != null && args.length == 1) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode") && args == null) {
+                return System.identityHashCode(proxy);
+            }
+
+            Connection current = connection;
+            if (current == null) {
+                throw new SQLException("Connection has been closed");
+            }
+            try {
+                return method.invoke(current, args);
+            } catch (InvocationTargetException ite) {
+                throw ite.getCause();
+            }
+        }
+    }
+}
@@ -1,80 +1,72 @@
 package com.bbn.openmap.util;
 
 import java.util.concurrent.Callable;
-import java.util.concurrent.CancellationException;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @param <T> The type of value computed by the task.
  * 
- *        Use thread pool to run tasks that compute a value.
+ *        Use thread pool to run tasks that compute a value. The construct()
+ *        and finished() methods are called on the same TaskService thread, in
+ *        the order set by the worker priority. If the worker is interrupted
+ *        before it starts, it's taken off the TaskService queue and finished()
+ *        is called right away. If it's already running, the thread is
+ *        interrupted.
  * 
  */
 public abstract class PooledSwingWorker<T>
       implements ISwingWorker<T> {
    private T value;
-   private boolean interrupted;
-   private boolean completed;
+   private volatile boolean interrupted;
+   private volatile boolean completed;
+   private volatile boolean started;
    private Exception executionException;
-   private final Runnable task;
+   private final Callable<T> task;
    private final Object lock = new Object();
-   private Future<T> futureList = null;
+   private final AtomicBoolean finishCalled = new AtomicBoolean(false);
+   private Future<T> future = null;
+   private int priority = TaskService.NORM_PRIORITY;
 
    /**
-    * Start a thread that will call the <code>construct</code> method and then
-    * exit.
+    * Create a worker that will call the <code>construct</code> method and then
+    * the <code>finished</code> method in a TaskService thread, when started.
     */
    public PooledSwingWorker() {
-      final Callable<T> doWork = new Callable<T>() {
+      task = new Callable<T>() {
          public T call() {
-            return construct();
-         }
-      };
-      synchronized (lock) {
-         task = new Runnable() {
-            public void run() {
-               completed = false;
-
+            started = true;
+            try {
                if (!interrupted) {
-
-                  futureList = TaskService.singleton().spawn(doWork);
-                  try {
-
-//                     while (!futureList.isDone()) {
-//                        synchronized (lock) {
-//                           if (interrupted) {
-//                              /*
-//                               * Calling cancel on futureList seems to really mess up the whole
-//                               * thread handling - it causes finished to be
-//                               * called earlier and often, and many threads get
-//                               * created. Seems better to just let the Callable
-//                               * return and move on.
-//                               */
-//                              // future.cancel(true);
-//                           }
-//                        }
-//                     }
-                     value = futureList.get();
+                  T result = construct();
+                  synchronized (lock) {
+                     value = result;
                      completed = !interrupted;
-                  } catch (ExecutionException ee) {
-                     interrupted = true;
-                  } catch (InterruptedException e) {
-                     interrupted = true;
-                  } catch (CancellationException ce) {
-                     interrupted = true;
-            }
+                  }
+               }
+            } catch (Throwable t) {
+               if (t instanceof Exception) {
+                  executionException = (Exception) t;
                }
-               finished();
+               interrupted = true;
+            } finally {
+               finish();
             }
-         };
-
-         /*
-          * task.run() should use doFinished, which is a callable, to do
-          * construct(). When passed to the TaskService, it will return a
-          * Future<T>, which can be a member variable of the PooledSwingWorker.
-          * When interrupt is called below, Future.cancel(true) can be called.
-          */
+            return value;
+         }
+      };
+   }
+
+   /**
+    * Calls finished() once, whether the worker completed, failed or was
+    * cancelled before it ran.
+    */
+   private void finish() {
+      if (finishCalled.compareAndSet(false, true)) {
+         synchronized (lock) {
+            lock.notifyAll();
+         }
+         finished();
       }
    }
 
@@ -95,12 +87,25 @@ public abstract class PooledSwingWorker<T>
     */
    public void start() {
       synchronized (lock) {
-         if (!interrupted) {
-            TaskService.singleton().spawn(task);
+         if (!interrupted && future == null) {
+            future = TaskService.singleton().spawn(task, priority);
          }
       }
    }
 
+   /**
+    * Set the TaskService priority for this worker, between
+    * TaskService.MIN_PRIORITY and TaskService.MAX_PRIORITY. Only has an effect
+    * before start() is called.
+    */
+   public void setPriority(int priority) {
+      this.priority = priority;
+   }
+
+   public int getPriority() {
+      return priority;
+   }
+
    public Exception getExecutionException() {
       return executionException;
    }
@@ -130,13 +135,17 @@ public abstract class PooledSwingWorker<T>
     * the worker to stop what it's doing.
     */
    public void interrupt() {
+      Future<T> f;
       synchronized (lock) {
          interrupted = true;
-         // if (future != null) {
-         // future.cancel(true);
-         // }
+         f = future;
          lock.notifyAll();
       }
+
+      if (f != null && f.cancel(true) && !started) {
+         // Taken off the queue, it's never going to run.
+         finish();
+      }
    }
 
    public boolean isInterrupted() {
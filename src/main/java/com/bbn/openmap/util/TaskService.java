@@ -1,41 +1,350 @@
-/* 
+/*
  * <copyright>
  *  Copyright 2010 BBN Technologies
  * </copyright>
  */
 package com.bbn.openmap.util;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.Environment;
 
 /**
- * Reuse threads instead of making new ones over and over.
+ * Reuse threads instead of making new ones over and over. Tasks are run by a
+ * bounded set of worker threads, taking tasks off a queue in priority order.
+ * Tasks with the same priority run in the order they were submitted.
+ * <p>
+ * The number of workers defaults to twice the number of processors (at least
+ * 4), and can be set with the openmap.TaskService.threads environment
+ * property, or with setMaxThreads(). If the openmap.TaskService.virtualThreads
+ * environment property is true and the JVM supports virtual threads (Java 21
+ * and later), the workers will be virtual threads.
+ * <p>
+ * Tasks that are cancelled before they start are taken off the queue and never
+ * run. The service keeps track of how long tasks wait in the queue and how
+ * long they take to run, so the queue depth and latency can be monitored.
  */
 public final class TaskService {
-    public static TaskService singleton() {
-        return SingletonHolder.instance;
-    }
 
-    private static class SingletonHolder {
-        private static final TaskService instance = new TaskService();
-    }
+   public final static String ThreadsProperty = "openmap.TaskService.threads";
+   public final static String VirtualThreadsProperty = "openmap.TaskService.virtualThreads";
+
+   /** The lowest priority for a task. */
+   public final static int MIN_PRIORITY = 1;
+   /** The default priority for a task. */
+   public final static int NORM_PRIORITY = 5;
+   /** The highest priority for a task. */
+   public final static int MAX_PRIORITY = 10;
 
-   private final ExecutorService executor;
+   public static TaskService singleton() {
+      return SingletonHolder.instance;
+   }
 
-   private TaskService() {
-      executor = Executors.newCachedThreadPool();
+   private static class SingletonHolder {
+      private static final TaskService instance = new TaskService();
+   }
+
+   private static Logger logger = Logger.getLogger("com.bbn.openmap.util.TaskService");
+
+   private final ThreadPoolExecutor executor;
+   private final boolean virtualThreads;
+   private final AtomicLong sequence = new AtomicLong();
+   private final AtomicLong tasksRun = new AtomicLong();
+   private final AtomicLong tasksCancelled = new AtomicLong();
+   private final AtomicLong totalWaitNanos = new AtomicLong();
+   private final AtomicLong totalRunNanos = new AtomicLong();
+   private final AtomicLong maxWaitNanos = new AtomicLong();
+
+   /**
+    * Use singleton() to get the shared service. Package access so tests can
+    * use a service of their own that nothing else puts work on.
+    */
+   TaskService() {
+      int threads = Environment.getInteger(ThreadsProperty, Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+      threads = Math.max(1, threads);
+
+      ThreadFactory factory = null;
+      if (Environment.getBoolean(VirtualThreadsProperty)) {
+         factory = createVirtualThreadFactory();
+      }
+      virtualThreads = factory != null;
+      if (factory == null) {
+         factory = new ThreadFactory() {
+            final AtomicInteger count = new AtomicInteger();
+            final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+            public Thread newThread(Runnable r) {
+               Thread t = defaultFactory.newThread(r);
+               t.setName("OpenMap-TaskService-" + count.incrementAndGet());
+               return t;
+            }
+         };
+      }
+
+      executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), factory) {
+         protected void beforeExecute(Thread t, Runnable r) {
+            super.beforeExecute(t, r);
+            ((Task<?>) r).started();
+         }
+
+         protected void afterExecute(Runnable r, Throwable t) {
+            super.afterExecute(r, t);
+            ((Task<?>) r).ended();
+         }
+      };
+      executor.allowCoreThreadTimeOut(true);
+   }
+
+   /**
+    * Use reflection to get a virtual thread factory, so this class still
+    * compiles and runs on older JVMs.
+    *
+    * @return ThreadFactory for virtual threads, or null if they aren't
+    *         available.
+    */
+   private static ThreadFactory createVirtualThreadFactory() {
+      try {
+         Method ofVirtual = Thread.class.getMethod("ofVirtual");
+         Object builder = ofVirtual.invoke(null);
+         Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+         builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "OpenMap-TaskService-", 1L);
+         return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+      } catch (Exception e) {
+         logger.fine("virtual threads not available, using platform threads: " + e.getMessage());
+         return null;
+      }
    }
 
    /**
     * Run a task in a thread.
     */
    public void spawn(Runnable task) {
-      executor.execute(task);
+      spawn(task, NORM_PRIORITY);
+   }
+
+   /**
+    * Run a task in a thread, ahead of waiting tasks with a lower priority.
+    */
+   public Future<?> spawn(Runnable task, int priority) {
+      Task<Object> t = new Task<Object>(Executors.callable(task), priority);
+      executor.execute(t);
+      return t;
    }
 
    public <T> Future<T> spawn(Callable<T> task) {
-      return executor.submit(task);
+      return spawn(task, NORM_PRIORITY);
+   }
+
+   /**
+    * Compute a value in a thread, ahead of waiting tasks with a lower
+    * priority. If the returned Future is cancelled before the task starts, the
+    * task is taken off the queue.
+    */
+   public <T> Future<T> spawn(Callable<T> task, int priority) {
+      Task<T> t = new Task<T>(task, priority);
+      executor.execute(t);
+      return t;
+   }
+
+   /**
+    * Run a task in the calling thread and in up to copies - 1 service threads
+    * at the same time, returning when they are all done. The task should take
+    * its work from something shared, like an AtomicInteger index, and return
+    * when there's none left. The calling thread does all of the work if no
+    * service threads are free, and the copies that haven't started when it's
+    * done are cancelled, so this can be called from a service thread without
+    * waiting on the queue.
+    *
+    * @param task the work to share.
+    * @param copies the most threads to use, including the calling thread.
+    * @throws RuntimeException if a copy of the task threw one.
+    */
+   public void runInParallel(Runnable task, int copies) {
+      copies = Math.min(copies, getMaxThreads() + 1);
+      Future<?>[] futures = new Future<?>[Math.max(0, copies - 1)];
+      for (int i = 0; i < futures.length; i++) {
+         futures[i] = spawn(task, NORM_PRIORITY);
+      }
+
+      RuntimeException problem = null;
+      try {
+         task.run();
+      } catch (RuntimeException re) {
+         problem = re;
+      }
+
+      for (Future<?> future : futures) {
+         if (future.cancel(false)) {
+            continue;
+         }
+         try {
+            future.get();
+         } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+         } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (problem == null) {
+               problem = cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+            }
+         } catch (CancellationException ce) {
+         }
+      }
+
+      if (problem != null) {
+         throw problem;
+      }
+   }
+
+   /**
+    * Set the maximum number of tasks that can be run at the same time.
+    */
+   public void setMaxThreads(int threads) {
+      threads = Math.max(1, threads);
+      synchronized (executor) {
+         if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+         } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+         }
+      }
+   }
+
+   public int getMaxThreads() {
+      return executor.getMaximumPoolSize();
+   }
+
+   /**
+    * @return true if the tasks are being run on virtual threads.
+    */
+   public boolean isUsingVirtualThreads() {
+      return virtualThreads;
+   }
+
+   /**
+    * @return the number of tasks waiting to be run.
+    */
+   public int getQueueDepth() {
+      return executor.getQueue().size();
+   }
+
+   /**
+    * @return the number of tasks being run right now.
+    */
+   public int getActiveCount() {
+      return executor.getActiveCount();
+   }
+
+   /**
+    * @return the number of tasks that have been run.
+    */
+   public long getCompletedCount() {
+      return tasksRun.get();
+   }
+
+   /**
+    * @return the number of tasks that were cancelled before they started.
+    */
+   public long getCancelledCount() {
+      return tasksCancelled.get();
+   }
+
+   /**
+    * @return the average time, in milliseconds, that tasks waited in the
+    *         queue before they started.
+    */
+   public double getAverageQueueLatency() {
+      long count = tasksRun.get();
+      return count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+   }
+
+   /**
+    * @return the longest time, in milliseconds, that a task waited in the
+    *         queue before it started.
+    */
+   public double getMaxQueueLatency() {
+      return maxWaitNanos.get() / 1e6;
+   }
+
+   /**
+    * @return the average time, in milliseconds, that tasks took to run.
+    */
+   public double getAverageRunTime() {
+      long count = tasksRun.get();
+      return count == 0 ? 0 : totalRunNanos.get() / 1e6 / count;
+   }
+
+   public String toString() {
+      return "TaskService[threads=" + getMaxThreads() + (virtualThreads ? " (virtual)" : "") + ", active=" + getActiveCount()
+            + ", queued=" + getQueueDepth() + ", completed=" + getCompletedCount() + ", cancelled=" + getCancelledCount()
+            + ", avg wait=" + String.format("%.2f", getAverageQueueLatency()) + "ms, avg run="
+            + String.format("%.2f", getAverageRunTime()) + "ms]";
+   }
+
+   /**
+    * The queued form of a task, ordered by priority and then submission order.
+    */
+   private final class Task<T>
+         extends FutureTask<T>
+         implements Comparable<Task<?>> {
+      private final int priority;
+      private final long seq;
+      private final long submitted;
+      private long start;
+
+      Task(Callable<T> callable, int priority) {
+         super(callable);
+         this.priority = priority;
+         this.seq = sequence.getAndIncrement();
+         this.submitted = System.nanoTime();
+      }
+
+      void started() {
+         start = System.nanoTime();
+         long wait = start - submitted;
+         totalWaitNanos.addAndGet(wait);
+         long max;
+         while (wait > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, wait)) {
+         }
+      }
+
+      void ended() {
+         totalRunNanos.addAndGet(System.nanoTime() - start);
+         tasksRun.incrementAndGet();
+      }
+
+      public boolean cancel(boolean mayInterruptIfRunning) {
+         boolean cancelled = super.cancel(mayInterruptIfRunning);
+         if (cancelled && executor.remove(this)) {
+            tasksCancelled.incrementAndGet();
+            if (logger.isLoggable(Level.FINER)) {
+               logger.finer("removed cancelled task from queue, " + getQueueDepth() + " left");
+            }
+         }
+         return cancelled;
+      }
+
+      public int compareTo(Task<?> other) {
+         if (priority != other.priority) {
+            return priority > other.priority ? -1 : 1;
+         }
+         return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+      }
    }
 }
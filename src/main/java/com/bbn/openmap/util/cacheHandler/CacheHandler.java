@@ -24,13 +24,32 @@
 
 package com.bbn.openmap.util.cacheHandler;
 
+import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.bbn.openmap.util.PropUtils;
+
 /**
  * A base cache support object. Based on the
  * com.bbn.openmap.layer.util.cacheHandler package components, this CacheHandler
  * uses Objects instead of Strings and will be replacing the earlier version.
+ * <p>
+ * By default, the cache holds a fixed number of objects and is searched
+ * linearly, which is fine for small caches used by one thread. A subclass can
+ * opt in to a {@link ConcurrentCache} instead, with setConcurrentCache() or
+ * the cacheMaxBytes property (see setCacheProperties), to get hashed,
+ * thread-safe lookups and a cache bounded by the memory used by the cached
+ * objects:
+ * 
+ * <pre>
+ * # Limit the cache to 256 MB of decoded images, turns on the ConcurrentCache
+ * prefix.cacheMaxBytes=268435456
+ * # Optional, 'lru' (default) or 'tinylfu'
+ * prefix.cacheAdmission=tinylfu
+ * # Optional, number of lock stripes, 16 by default
+ * prefix.cacheConcurrency=16
+ * </pre>
  * 
  * @author dietrick
  */
@@ -42,6 +61,30 @@ public abstract class CacheHandler {
 
     public static int DEFAULT_MAX_CACHE_SIZE = 25;
 
+    /**
+     * Property for the weight limit in bytes. Setting it to a value greater
+     * than zero switches the CacheHandler to a ConcurrentCache.
+     */
+    public final static String CACHE_MAX_BYTES_PROPERTY = "cacheMaxBytes";
+
+    /**
+     * Property for the ConcurrentCache admission policy, 'lru' or 'tinylfu'.
+     */
+    public final static String CACHE_ADMISSION_PROPERTY = "cacheAdmission";
+
+    /**
+     * Property for the number of ConcurrentCache lock stripes.
+     */
+    public final static String CACHE_CONCURRENCY_PROPERTY = "cacheConcurrency";
+
+    public final static String LRU_ADMISSION = "lru";
+    public final static String TINYLFU_ADMISSION = "tinylfu";
+
+    /**
+     * If not null, the cache used instead of the objs array.
+     */
+    protected ConcurrentCache concurrentCache;
+
     /**
      * Standard default constructor
      */
@@ -68,10 +111,68 @@ public abstract class CacheHandler {
         logicalClock = 0;
     }
 
+    /**
+     * Use a ConcurrentCache instead of the fixed size array for this
+     * CacheHandler. Anything in the current cache is dropped.
+     * 
+     * @param cache the ConcurrentCache, or null to go back to the fixed size
+     *        array.
+     */
+    public void setConcurrentCache(ConcurrentCache cache) {
+        clear();
+        concurrentCache = cache;
+    }
+
+    /**
+     * @return the ConcurrentCache being used, null if the fixed size array is
+     *         being used.
+     */
+    public ConcurrentCache getConcurrentCache() {
+        return concurrentCache;
+    }
+
+    /**
+     * Set up a ConcurrentCache if the cacheMaxBytes property is set, meant to
+     * be called from the setProperties method of subclasses that are
+     * PropertyConsumers. If the property isn't set, nothing changes.
+     * 
+     * @param prefix the scoped property prefix, with the period.
+     * @param props the Properties to check.
+     */
+    public void setCacheProperties(String prefix, Properties props) {
+        long maxBytes = PropUtils.longFromProperties(props, prefix + CACHE_MAX_BYTES_PROPERTY, -1);
+        if (maxBytes > 0) {
+            boolean tinyLfu = TINYLFU_ADMISSION.equalsIgnoreCase(props.getProperty(prefix + CACHE_ADMISSION_PROPERTY,
+                                                                                   LRU_ADMISSION).trim());
+            int concurrency = PropUtils.intFromProperties(props, prefix + CACHE_CONCURRENCY_PROPERTY,
+                                                          ConcurrentCache.DEFAULT_CONCURRENCY_LEVEL);
+            setConcurrentCache(new ConcurrentCache(maxBytes, concurrency, tinyLfu));
+        }
+    }
+
+    /**
+     * Add the ConcurrentCache settings to the properties, if one is being
+     * used.
+     * 
+     * @param prefix the scoped property prefix, with the period.
+     * @param props the Properties to add to.
+     */
+    public void getCacheProperties(String prefix, Properties props) {
+        ConcurrentCache cache = concurrentCache;
+        if (cache != null) {
+            props.put(prefix + CACHE_MAX_BYTES_PROPERTY, Long.toString(cache.getMaxWeight()));
+            props.put(prefix + CACHE_ADMISSION_PROPERTY, cache.isAdmissionFilter() ? TINYLFU_ADMISSION : LRU_ADMISSION);
+            props.put(prefix + CACHE_CONCURRENCY_PROPERTY, Integer.toString(cache.segments.length));
+        }
+    }
+
     /**
      * Remove all the objects from the cache.
      */
     public void clear() {
+        if (concurrentCache != null) {
+            concurrentCache.clear();
+        }
         if (objs != null) {
             for (int i = 0; i < objs.length; i++) {
                 objs[i] = null;
@@ -107,6 +208,11 @@ public abstract class CacheHandler {
      * The main call to retrieve something from the cache
      */
     public Object get(Object key) {
+        ConcurrentCache cache = concurrentCache;
+        if (cache != null) {
+            return cache.get(key, this);
+        }
+
         CacheObject ret = searchCache(key);
         if (ret != null)
             return ret.obj;
@@ -131,6 +237,11 @@ public abstract class CacheHandler {
      * case insensitive.
      */
     public CacheObject searchCache(Object key) {
+        ConcurrentCache cache = concurrentCache;
+        if (cache != null) {
+            return cache.get(key);
+        }
+
         for (int i = 0; i < objs.length; i++) {
             CacheObject co = objs[i];
             if (co == null) {
@@ -150,6 +261,12 @@ public abstract class CacheHandler {
      */
     protected void replaceLeastUsed(CacheObject newObj) {
 
+        ConcurrentCache cache = concurrentCache;
+        if (cache != null) {
+            cache.put(newObj);
+            return;
+        }
+
         // If the cache has room...
         int i;
         for (i = objs.length - 1; i >= 0; i--) {
@@ -209,6 +326,10 @@ public abstract class CacheHandler {
      * Return a ListIterator of the cache objects.
      */
     public java.util.ListIterator<CacheObject> listIterator() {
+        ConcurrentCache cache = concurrentCache;
+        if (cache != null) {
+            return cache.values().listIterator();
+        }
         return java.util.Arrays.asList(objs).listIterator();
     }
 }
\ No newline at end of file
@@ -29,6 +29,15 @@ public class CacheObject {
     public Object obj = null;
     public int cachedTime = 0;
     public Object id = null;
+    /**
+     * The weight of the object when it was added to a ConcurrentCache.
+     */
+    public long cachedWeight = 0;
+    /**
+     * When the object was last used in a ConcurrentCache, by the cache's
+     * clock.
+     */
+    public long lastUsed = 0;
 
     /**
      * New object, set the local clock to zero
@@ -45,5 +54,14 @@ public class CacheObject {
     public boolean older(int time) {
         return (cachedTime < time);
     }
+
+    /**
+     * The weight of this object for a ConcurrentCache, an estimate of the
+     * bytes of memory it uses. Override to provide a better estimate for the
+     * cached object.
+     */
+    public long getWeight() {
+        return ConcurrentCache.estimateWeight(obj);
+    }
 }
 
@@ -0,0 +1,663 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.util.cacheHandler;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.omGraphics.OMRasterObject;
+
+/**
+ * A thread-safe cache of CacheObjects, bounded by the total weight of the
+ * cached objects instead of the number of them. The weight of each object
+ * comes from {@link CacheObject#getWeight()}, which estimates the bytes of
+ * memory used by decoded images and rasters.
+ * <p>
+ * Keys are spread across a number of segments, each with its own lock and
+ * hash map, so lookups are O(1) and threads working on different keys don't
+ * block each other. Each segment keeps its entries in least recently used
+ * order. The weight limit is for the whole cache, not each segment, so one
+ * object can use up to all of it. When the limit is exceeded, the least
+ * recently used entry of all the segments is evicted, until the cache fits
+ * again. An object heavier than the whole limit is never cached.
+ * <p>
+ * Optionally, a W-TinyLFU admission policy can be used. New entries go into a
+ * small LRU window (1% of the weight), and entries pushed out of the window
+ * only get into the main cache if they have been asked for more often,
+ * recently, than the entry they would push out. That keeps one-time requests
+ * (like a single pan across a large area) from flushing tiles that keep
+ * getting used.
+ * <p>
+ * The cache keeps hit, miss, load and eviction counts.
+ */
+public class ConcurrentCache {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.util.cacheHandler.ConcurrentCache");
+
+    /** The weight used for objects without a better estimate, 1 KB. */
+    public final static long DEFAULT_OBJECT_WEIGHT = 1024;
+
+    /** Default weight limit, 64 MB. */
+    public final static long DEFAULT_MAX_WEIGHT = 64L * 1024L * 1024L;
+
+    /** Default number of segments. */
+    public final static int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    /** The percentage of the weight used for the admission window. */
+    protected final static int WINDOW_PERCENT = 1;
+
+    protected final Segment[] segments;
+    protected final int segmentMask;
+    protected final long maxWeight;
+    protected final boolean admissionFilter;
+
+    protected final AtomicLong hitCount = new AtomicLong();
+    protected final AtomicLong missCount = new AtomicLong();
+    protected final AtomicLong loadCount = new AtomicLong();
+    protected final AtomicLong evictionCount = new AtomicLong();
+    protected final AtomicLong rejectionCount = new AtomicLong();
+    /** The weight of everything in all of the segments. */
+    protected final AtomicLong totalWeight = new AtomicLong();
+    /** Ticks on every use, to order entries across segments. */
+    protected final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Create an LRU cache with the default weight limit and concurrency.
+     */
+    public ConcurrentCache() {
+        this(DEFAULT_MAX_WEIGHT, DEFAULT_CONCURRENCY_LEVEL, false);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param maxWeight the total weight (bytes) the cache can hold.
+     * @param concurrencyLevel the number of segments, rounded up to a power
+     *        of two.
+     * @param admissionFilter true for the W-TinyLFU admission policy, false
+     *        for plain LRU.
+     */
+    public ConcurrentCache(long maxWeight, int concurrencyLevel, boolean admissionFilter) {
+        int numSegments = 1;
+        while (numSegments < concurrencyLevel && numSegments < (1 << 16)) {
+            numSegments <<= 1;
+        }
+
+        this.maxWeight = Math.max(1, maxWeight);
+        this.admissionFilter = admissionFilter;
+        segmentMask = numSegments - 1;
+        segments = new Segment[numSegments];
+        long windowWeight = Math.max(1, this.maxWeight * WINDOW_PERCENT / 100 / numSegments);
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = new Segment(windowWeight);
+        }
+    }
+
+    /**
+     * Look for an object in the cache, counting a hit or miss.
+     *
+     * @param key the cache key.
+     * @return CacheObject, or null if not in the cache.
+     */
+    public CacheObject get(Object key) {
+        CacheObject co = segmentFor(key).get(key);
+        if (co != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return co;
+    }
+
+    /**
+     * Look for an object in the cache, loading it from the CacheHandler if
+     * it's not there. Two threads asking for the same missing key at the same
+     * time may both load it, but only one copy is kept.
+     *
+     * @param key the cache key.
+     * @param loader the CacheHandler that loads missing objects.
+     * @return the cached object, or null if it couldn't be loaded.
+     */
+    public Object get(Object key, CacheHandler loader) {
+        CacheObject co = get(key);
+        if (co == null) {
+            co = loader.load(key);
+            if (co == null) {
+                return null;
+            }
+            loadCount.incrementAndGet();
+            co = put(co);
+        }
+        return co.obj;
+    }
+
+    /**
+     * Add an object to the cache. If there's already an object with the same
+     * id, that one is kept and returned, so threads that load the same object
+     * at the same time all end up using the first one cached. Call remove()
+     * first to replace an object.
+     *
+     * @param co the CacheObject to add.
+     * @return the CacheObject now in the cache for that key, which will be
+     *         the one passed in unless another thread added one first.
+     */
+    public CacheObject put(CacheObject co) {
+        if (co == null || co.id == null) {
+            return co;
+        }
+        co.cachedWeight = co.getWeight();
+        if (co.cachedWeight > maxWeight) {
+            // It would push everything else out and still not fit.
+            evictionCount.incrementAndGet();
+            evicted(co);
+            return co;
+        }
+
+        Segment segment = segmentFor(co.id);
+        CacheObject ret = segment.put(co);
+
+        List<CacheObject> victims = segment.takeEvicted();
+        victims = evictOverweight(ret.id, victims);
+        if (victims != null) {
+            for (CacheObject victim : victims) {
+                evicted(victim);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Evict the least recently used entries, from whichever segments have
+     * them, until the total weight is under the limit. Only one segment is
+     * locked at a time.
+     *
+     * @param keep the key of the entry just added, which isn't evicted.
+     * @param victims the list to add the evicted entries to, may be null.
+     * @return the list of evicted entries, null if there aren't any.
+     */
+    protected List<CacheObject> evictOverweight(Object keep, List<CacheObject> victims) {
+        while (totalWeight.get() > maxWeight) {
+            Segment oldest = null;
+            long oldestUse = Long.MAX_VALUE;
+            for (Segment segment : segments) {
+                long use = segment.getEldestUse(keep);
+                if (use < oldestUse) {
+                    oldestUse = use;
+                    oldest = segment;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+
+            CacheObject victim = oldest.evictEldest(keep);
+            if (victim != null) {
+                if (victims == null) {
+                    victims = new ArrayList<CacheObject>(4);
+                }
+                victims.add(victim);
+            }
+        }
+        return victims;
+    }
+
+    /**
+     * A call-back method to override, called with each object pushed out of
+     * the cache to make room for new ones, after the cache lock has been
+     * released. Objects that are removed or cleared are not passed here. Does
+     * nothing by default.
+     *
+     * @param co the CacheObject that was evicted.
+     */
+    protected void evicted(CacheObject co) {
+    }
+
+    /**
+     * Remove an object from the cache.
+     *
+     * @return the CacheObject removed, or null if it wasn't there.
+     */
+    public CacheObject remove(Object key) {
+        return segmentFor(key).remove(key);
+    }
+
+    /**
+     * Remove everything from the cache. The counts are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return a snapshot of the CacheObjects in the cache.
+     */
+    public List<CacheObject> values() {
+        List<CacheObject> ret = new ArrayList<CacheObject>();
+        for (Segment segment : segments) {
+            segment.addValues(ret);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the number of objects in the cache.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the current total weight of the objects in the cache.
+     */
+    public long getWeight() {
+        return totalWeight.get();
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public boolean isAdmissionFilter() {
+        return admissionFilter;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * @return the number of objects evicted from the cache to make room.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return the number of new objects the admission policy didn't let into
+     *         the cache.
+     */
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+
+    /**
+     * @return hits / (hits + misses), 0 if nothing has been asked for.
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / (double) total;
+    }
+
+    public String toString() {
+        return "ConcurrentCache[size=" + size() + ", weight=" + getWeight() + "/" + maxWeight + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + ", rejections=" + getRejectionCount()
+                + "]";
+    }
+
+    protected Segment segmentFor(Object key) {
+        int h = key.hashCode();
+        // Spread the hash bits, so keys that differ in the high bits don't
+        // land in the same segment.
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return segments[h & segmentMask];
+    }
+
+    /**
+     * Estimate the bytes of memory used by a cached object. Images, rasters
+     * and primitive arrays are measured, everything else gets
+     * DEFAULT_OBJECT_WEIGHT.
+     *
+     * @param obj the cached object.
+     * @return weight in bytes, at least 1.
+     */
+    public static long estimateWeight(Object obj) {
+        long weight = DEFAULT_OBJECT_WEIGHT;
+
+        if (obj instanceof OMRasterObject) {
+            OMRasterObject raster = (OMRasterObject) obj;
+            int[] pixels = raster.getPixels();
+            Image image = raster.getImage();
+            if (image != null) {
+                weight = estimateWeight(image);
+            } else if (pixels != null) {
+                weight = pixels.length * 4L;
+            }
+        } else if (obj instanceof BufferedImage) {
+            BufferedImage bi = (BufferedImage) obj;
+            weight = (long) bi.getWidth() * bi.getHeight() * Math.max(1, bi.getColorModel().getPixelSize() / 8);
+        } else if (obj instanceof Image) {
+            Image image = (Image) obj;
+            weight = Math.max(1L, (long) image.getWidth(null) * image.getHeight(null) * 4L);
+        } else if (obj instanceof byte[]) {
+            weight = ((byte[]) obj).length;
+        } else if (obj instanceof short[]) {
+            weight = ((short[]) obj).length * 2L;
+        } else if (obj instanceof int[]) {
+            weight = ((int[]) obj).length * 4L;
+        } else if (obj instanceof float[]) {
+            weight = ((float[]) obj).length * 4L;
+        } else if (obj instanceof double[]) {
+            weight = ((double[]) obj).length * 8L;
+        } else if (obj instanceof short[][]) {
+            weight = 0;
+            for (short[] row : (short[][]) obj) {
+                weight += (row == null ? 0 : row.length * 2L);
+            }
+        }
+
+        return Math.max(1L, weight);
+    }
+
+    /**
+     * A part of the cache, with its own lock. The weight of its entries is
+     * added to the cache's total weight.
+     */
+    protected class Segment {
+
+        protected final long windowMaxWeight;
+        /** Main LRU region, eldest first. */
+        protected final LinkedHashMap<Object, CacheObject> main;
+        /** Admission window, only used with the admission filter. */
+        protected final LinkedHashMap<Object, CacheObject> window;
+        protected final FrequencySketch sketch;
+        protected long mainWeight = 0;
+        protected long windowWeight = 0;
+        /** Objects evicted since the last takeEvicted() call. */
+        protected List<CacheObject> evicted = null;
+
+        protected Segment(long windowLimit) {
+            main = new LinkedHashMap<Object, CacheObject>(16, 0.75f, true);
+            if (admissionFilter) {
+                windowMaxWeight = windowLimit;
+                window = new LinkedHashMap<Object, CacheObject>(16, 0.75f, true);
+                sketch = new FrequencySketch();
+            } else {
+                windowMaxWeight = 0;
+                window = null;
+                sketch = null;
+            }
+        }
+
+        protected synchronized CacheObject get(Object key) {
+            if (sketch != null) {
+                sketch.increment(key);
+            }
+            CacheObject co = main.get(key);
+            if (co == null && window != null) {
+                co = window.get(key);
+            }
+            if (co != null) {
+                co.lastUsed = clock.incrementAndGet();
+            }
+            return co;
+        }
+
+        protected synchronized CacheObject put(CacheObject co) {
+            Object key = co.id;
+            CacheObject existing = main.get(key);
+            if (existing == null && window != null) {
+                existing = window.get(key);
+            }
+            if (existing != null) {
+                // Somebody else loaded it, keep theirs.
+                return existing;
+            }
+
+            co.lastUsed = clock.incrementAndGet();
+            totalWeight.addAndGet(co.cachedWeight);
+
+            if (window == null) {
+                main.put(key, co);
+                mainWeight += co.cachedWeight;
+            } else {
+                sketch.increment(key);
+                window.put(key, co);
+                windowWeight += co.cachedWeight;
+                drainWindow();
+            }
+            return co;
+        }
+
+        protected synchronized CacheObject remove(Object key) {
+            CacheObject co = main.remove(key);
+            if (co != null) {
+                mainWeight -= co.cachedWeight;
+            } else if (window != null) {
+                co = window.remove(key);
+                if (co != null) {
+                    windowWeight -= co.cachedWeight;
+                }
+            }
+            if (co != null) {
+                totalWeight.addAndGet(-co.cachedWeight);
+            }
+            return co;
+        }
+
+        protected synchronized void clear() {
+            totalWeight.addAndGet(-(mainWeight + windowWeight));
+            main.clear();
+            mainWeight = 0;
+            if (window != null) {
+                window.clear();
+                windowWeight = 0;
+            }
+        }
+
+        protected synchronized void addValues(List<CacheObject> list) {
+            list.addAll(main.values());
+            if (window != null) {
+                list.addAll(window.values());
+            }
+        }
+
+        protected synchronized int size() {
+            return main.size() + (window == null ? 0 : window.size());
+        }
+
+        protected synchronized long getWeight() {
+            return mainWeight + windowWeight;
+        }
+
+        /**
+         * @param keep a key to skip.
+         * @return when the least recently used entry of the main region was
+         *         last used, Long.MAX_VALUE if there isn't one to evict.
+         */
+        protected synchronized long getEldestUse(Object keep) {
+            for (CacheObject co : main.values()) {
+                if (!co.id.equals(keep)) {
+                    return co.lastUsed;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * Evict the least recently used entry of the main region.
+         *
+         * @param keep a key to skip.
+         * @return the evicted entry, null if there wasn't one.
+         */
+        protected synchronized CacheObject evictEldest(Object keep) {
+            Iterator<Map.Entry<Object, CacheObject>> it = main.entrySet().iterator();
+            while (it.hasNext()) {
+                CacheObject victim = it.next().getValue();
+                if (!victim.id.equals(keep)) {
+                    it.remove();
+                    evict(victim);
+                    return victim;
+                }
+            }
+            return null;
+        }
+
+        protected void evict(CacheObject victim) {
+            mainWeight -= victim.cachedWeight;
+            totalWeight.addAndGet(-victim.cachedWeight);
+            evictionCount.incrementAndGet();
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer("evicted " + victim.id);
+            }
+        }
+
+        protected void addEvicted(CacheObject co) {
+            if (evicted == null) {
+                evicted = new ArrayList<CacheObject>(4);
+            }
+            evicted.add(co);
+        }
+
+        /**
+         * @return the objects evicted since the last call, or null if there
+         *         weren't any.
+         */
+        protected synchronized List<CacheObject> takeEvicted() {
+            List<CacheObject> ret = evicted;
+            evicted = null;
+            return ret;
+        }
+
+        /**
+         * Move entries out of an overfull window, into the main region if
+         * there's room or if they are used more often than the main region
+         * entries of this segment that would have to go. If this segment
+         * doesn't have enough to free, the rest comes out of the other
+         * segments, least recently used first.
+         */
+        protected void drainWindow() {
+            Iterator<Map.Entry<Object, CacheObject>> wit = window.entrySet().iterator();
+            while (windowWeight > windowMaxWeight && wit.hasNext()) {
+                CacheObject candidate = wit.next().getValue();
+                wit.remove();
+                windowWeight -= candidate.cachedWeight;
+
+                long overweight = totalWeight.get() - maxWeight;
+                if (overweight <= 0) {
+                    main.put(candidate.id, candidate);
+                    mainWeight += candidate.cachedWeight;
+                    continue;
+                }
+
+                // Find out who would have to go to make room, and let the
+                // candidate in only if it's more popular than all of them.
+                int candidateFreq = sketch.frequency(candidate.id);
+                long freed = 0;
+                int count = 0;
+                boolean admit = true;
+                for (CacheObject victim : main.values()) {
+                    if (freed >= overweight) {
+                        break;
+                    }
+                    if (sketch.frequency(victim.id) >= candidateFreq) {
+                        admit = false;
+                        break;
+                    }
+                    freed += victim.cachedWeight;
+                    count++;
+                }
+
+                if (admit) {
+                    Iterator<Map.Entry<Object, CacheObject>> it = main.entrySet().iterator();
+                    for (int i = 0; i < count; i++) {
+                        CacheObject victim = it.next().getValue();
+                        it.remove();
+                        evict(victim);
+                        addEvicted(victim);
+                    }
+                    main.put(candidate.id, candidate);
+                    mainWeight += candidate.cachedWeight;
+                } else {
+                    totalWeight.addAndGet(-candidate.cachedWeight);
+                    rejectionCount.incrementAndGet();
+                    evictionCount.incrementAndGet();
+                    addEvicted(candidate);
+                }
+            }
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, estimating how often each key has
+     * been asked for recently. All of the counts are halved after a number of
+     * increments, so old popularity fades away.
+     */
+    protected static class FrequencySketch {
+        protected final static int WIDTH = 512;
+        protected final static int DEPTH = 4;
+        protected final static int SAMPLE_SIZE = WIDTH * 10;
+        protected final static int[] SEEDS = new int[] { 0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f };
+
+        protected final byte[] table = new byte[WIDTH * DEPTH];
+        protected int additions = 0;
+
+        protected int index(Object key, int row) {
+            int h = key.hashCode() * SEEDS[row];
+            h ^= (h >>> 17);
+            return row * WIDTH + (h & (WIDTH - 1));
+        }
+
+        protected void increment(Object key) {
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int i = index(key, row);
+                if (table[i] < 15) {
+                    table[i]++;
+                    added = true;
+                }
+            }
+
+            if (added && ++additions >= SAMPLE_SIZE) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (byte) (table[i] >>> 1);
+                }
+                additions /= 2;
+            }
+        }
+
+        protected int frequency(Object key) {
+            int freq = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                freq = Math.min(freq, table[index(key, row)]);
+            }
+            return freq;
+        }
+    }
+}
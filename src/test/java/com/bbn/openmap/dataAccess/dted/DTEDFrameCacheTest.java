@@ -0,0 +1,171 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.dataAccess.dted;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class DTEDFrameCacheTest extends TestCase {
+
+    static void field(StringBuilder sb, String value, int length) {
+        sb.append(value);
+        for (int i = value.length(); i < length; i++) {
+            sb.append(' ');
+        }
+    }
+
+    static String lat(int lat, boolean seconds) {
+        return String.format("%02d0000%s%s", Math.abs(lat), seconds ? ".0" : "", lat < 0 ? "S" : "N");
+    }
+
+    static String lon(int lon, boolean seconds) {
+        return String.format("%03d0000%s%s", Math.abs(lon), seconds ? ".0" : "", lon < 0 ? "W" : "E");
+    }
+
+    /**
+     * Write a DTED frame file with just enough of the headers filled in for
+     * DTEDFrame to read it.
+     *
+     * @param interval the post spacing, in tenths of arc seconds.
+     * @param posts the elevations, [lon][lat].
+     */
+    public static void writeFrame(File file, int lat, int lon, int interval, short[][] posts)
+            throws IOException {
+        String num = String.format("%04d", posts.length);
+        String inter = String.format("%04d", interval);
+
+        StringBuilder header = new StringBuilder();
+        field(header, "UHL1" + lon(lon, false) + "0" + lat(lat, false) + inter + inter + "NA  U  " + "            " + num
+                + num, DTEDFrame.UHL_SIZE);
+
+        StringBuilder dsi = new StringBuilder("DSIU");
+        field(dsi, "", 185 - dsi.length());
+        dsi.append(lat(lat, true)).append(lon(lon, true));
+        dsi.append(lat(lat, false)).append(lon(lon, false));
+        dsi.append(lat(lat + 1, false)).append(lon(lon, false));
+        dsi.append(lat(lat + 1, false)).append(lon(lon + 1, false));
+        dsi.append(lat(lat, false)).append(lon(lon + 1, false));
+        dsi.append("0000000.0").append(inter).append(inter).append(num).append(num).append("00");
+        field(header, dsi.toString(), DTEDFrame.DSI_SIZE);
+        field(header, "ACCNA  NA  NA  NA  ", DTEDFrame.ACC_SIZE);
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeBytes(header.toString());
+            for (int x = 0; x < posts.length; x++) {
+                out.writeByte(0xaa);
+                out.writeByte(0);
+                out.writeShort(x);
+                out.writeShort(x);
+                out.writeShort(0);
+                for (short post : posts[x]) {
+                    // Signed magnitude.
+                    out.writeShort(post < 0 ? 0x8000 | -post : post);
+                }
+                out.writeInt(0);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * A frame cache with level 0 frames written to temporary files.
+     */
+    public static class TestFrameCache extends DTEDFrameCache {
+        Map<String, File> frames = new HashMap<String, File>();
+
+        public TestFrameCache(int size) {
+            super(size);
+        }
+
+        public void addFrame(int lat, int lon, short[][] posts)
+                throws IOException {
+            File file = File.createTempFile("dted", ".dt0");
+            writeFrame(file, lat, lon, 300, posts);
+            frames.put(lat + "," + lon, file);
+        }
+
+        public String findFileName(double lat, double lon, int level) {
+            File file = frames.get((int) Math.floor(lat) + "," + (int) Math.floor(lon));
+            return level == 0 && file != null ? file.getPath() : null;
+        }
+
+        public void delete() {
+            for (File file : frames.values()) {
+                file.delete();
+            }
+        }
+    }
+
+    static short[][] createPosts(int cellLon) {
+        short[][] posts = new short[121][121];
+        for (int x = 0; x < posts.length; x++) {
+            for (int y = 0; y < posts[x].length; y++) {
+                posts[x][y] = (short) (cellLon * 10 + x * 3 - y);
+            }
+        }
+        return posts;
+    }
+
+    public void testGetElevations()
+            throws Exception {
+        // Room for one frame at a time.
+        TestFrameCache cache = new TestFrameCache(1);
+        try {
+            cache.addFrame(10, 20, createPosts(20));
+            cache.addFrame(10, 21, createPosts(21));
+
+            DTEDFrame frame = cache.get(10.5, 20.5, 0);
+            assertNotNull(frame);
+            assertEquals(10f, frame.dsi.sw_lat);
+            assertEquals(200 + 3 * 60 - 30, frame.elevationAt(10.25f, 20.5f));
+
+            Random random = new Random(1);
+            int count = 2000;
+            double[] lats = new double[count];
+            double[] lons = new double[count];
+            for (int i = 0; i < count; i++) {
+                // Back and forth across both frames, and off them.
+                lats[i] = 9.8 + random.nextDouble() * 1.1;
+                lons[i] = 19.9 + random.nextDouble() * 2.2;
+            }
+            lats[0] = Double.NaN;
+
+            int[] elevations = cache.getElevations(lats, lons, null, false);
+            assertEquals(DTEDFrameCache.NO_DATA, elevations[0]);
+            int found = 0;
+            for (int i = 1; i < count; i++) {
+                int expected = cache.getElevation((float) lats[i], (float) lons[i]);
+                assertEquals("point " + i, expected, elevations[i]);
+                if (expected != DTEDFrameCache.NO_DATA) {
+                    found++;
+                }
+            }
+            assertTrue(found > count / 2);
+
+            int[] interpolated = cache.getElevations(lats, lons, new int[count], 0, true);
+            for (int i = 1; i < count; i++) {
+                DTEDFrame f = cache.get(lats[i], lons[i], 0);
+                int expected = f == null ? DTEDFrameCache.NO_DATA : f.interpElevationAt((float) lats[i], (float) lons[i]);
+                assertEquals("point " + i, expected, interpolated[i]);
+            }
+
+            // Only level 0 frames.
+            elevations = cache.getElevations(lats, lons, elevations, 1, false);
+            assertEquals(DTEDFrameCache.NO_DATA, elevations[1]);
+        } finally {
+            cache.delete();
+        }
+    }
+}
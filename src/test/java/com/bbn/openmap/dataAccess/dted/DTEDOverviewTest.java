@@ -0,0 +1,136 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.dataAccess.dted;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class DTEDOverviewTest extends TestCase {
+
+    static final int POSTS = 121;
+    static final float INTERVAL = 1f / (POSTS - 1);
+
+    /**
+     * Level 0 sized posts for a frame, with the elevation going up to the
+     * east, plus the cell longitude * 1000.
+     */
+    static short[][] createPosts(int cellLon) {
+        short[][] posts = new short[POSTS][POSTS];
+        for (int x = 0; x < POSTS; x++) {
+            for (int y = 0; y < POSTS; y++) {
+                posts[x][y] = (short) (cellLon * 1000 + x);
+            }
+        }
+        return posts;
+    }
+
+    public void testLevels()
+            throws Exception {
+        short[][] posts = createPosts(0);
+        posts[0][0] = DTEDFrameCache.NO_DATA;
+        posts[1][1] = 500;
+        DTEDOverview overview = DTEDOverview.create(posts, 10f, 20f, INTERVAL, INTERVAL);
+
+        // 2x2 up to 64x64 blocks.
+        assertEquals(6, overview.getNumLevels());
+        DTEDOverview.Level level = overview.getLevel(0);
+        assertEquals(61, level.width);
+        assertEquals(0, level.get(DTEDOverview.MIN, 0, 0));
+        assertEquals(500, level.get(DTEDOverview.MAX, 0, 0));
+        // (0 + 1 + 500) / 3, leaving out the missing post.
+        assertEquals(167, level.get(DTEDOverview.MEAN, 0, 0));
+        // The last column only has one post.
+        assertEquals(120, level.get(DTEDOverview.MEAN, 60, 5));
+
+        level = overview.getLevel(5);
+        assertEquals(2, level.width);
+        assertEquals(500, level.get(DTEDOverview.MAX, 0, 0));
+        assertEquals(64, level.get(DTEDOverview.MIN, 1, 1));
+        assertEquals(120, level.get(DTEDOverview.MAX, 1, 1));
+
+        assertEquals(-1, overview.getLevelIndex(INTERVAL, INTERVAL));
+        assertEquals(0, overview.getLevelIndex(INTERVAL * 3, INTERVAL * 3));
+        assertEquals(2, overview.getLevelIndex(INTERVAL * 8, INTERVAL * 20));
+        assertEquals(5, overview.getLevelIndex(1, 1));
+
+        File file = File.createTempFile("dted", DTEDOverview.SUFFIX);
+        try {
+            overview.write(file.getPath());
+            DTEDOverview read = DTEDOverview.read(file.getPath());
+            assertEquals(overview.getNumLevels(), read.getNumLevels());
+            assertEquals(20f, read.getSWLon());
+            assertFalse(read.getLevel(2).isLoaded());
+            for (int l = 0; l < read.getNumLevels(); l++) {
+                DTEDOverview.Level expected = overview.getLevel(l);
+                DTEDOverview.Level found = read.loadLevel(l);
+                for (int stat = DTEDOverview.MIN; stat <= DTEDOverview.MEAN; stat++) {
+                    assertTrue(java.util.Arrays.equals(expected.get(stat), found.get(stat)));
+                }
+            }
+            read.unloadLevel(1);
+            assertFalse(read.getLevel(1).isLoaded());
+            assertEquals(167, read.loadLevel(0).get(DTEDOverview.MEAN, 0, 0));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * A frame cache with two frames side by side, 10N 20E and 10N 21E, that
+     * only exist as overviews.
+     */
+    static class TestFrameCache extends DTEDFrameCache {
+        Map<String, DTEDOverview> frames = new HashMap<String, DTEDOverview>();
+
+        TestFrameCache() {
+            frames.put("20", DTEDOverview.create(createPosts(20), 10f, 20f, INTERVAL, INTERVAL));
+            frames.put("21", DTEDOverview.create(createPosts(21), 10f, 21f, INTERVAL, INTERVAL));
+        }
+
+        public String findFileName(double lat, double lon, int level) {
+            String name = Integer.toString((int) Math.floor(lon));
+            return Math.floor(lat) == 10 && frames.containsKey(name) ? name : null;
+        }
+
+        public DTEDOverview getOverview(String framePath) {
+            return frames.get(framePath);
+        }
+    }
+
+    public void testRegion()
+            throws Exception {
+        TestFrameCache cache = new TestFrameCache();
+
+        // 2 degrees across, 1 down, with samples 1/15 degree apart, from the
+        // 8x8 level.
+        DTEDRegion region = cache.getRegion(11, 20, 10, 22, 31, 16, 0, DTEDOverview.MEAN);
+        assertEquals(31 * 16, region.values.length);
+        assertEquals(1.0 / 15, region.latSpacing, 1e-9);
+
+        // The top edge of the west frame, 8x8 block at the northwest corner,
+        // posts 0-7.
+        assertEquals(20000 + 4, region.get(0, 0));
+        // Post 56 of the west frame, in block 56-63.
+        assertEquals(20000 + 60, region.get(7, 8));
+        // The east frame, post 8 is in block 8-15.
+        assertEquals(21000 + 12, region.get(16, 15));
+        // The east edge, only post 120 in the last block.
+        assertEquals(21000 + 120, region.get(30, 15));
+
+        DTEDRegion max = cache.getRegion(11, 20, 10, 22, 31, 16, 0, DTEDOverview.MAX);
+        assertEquals(20000 + 63, max.get(7, 8));
+
+        // Off the frames to the north and south.
+        region = cache.getRegion(12, 20, 9, 21, 4, 4, 0, DTEDOverview.MEAN);
+        assertEquals(DTEDFrameCache.NO_DATA, region.get(0, 0));
+        // 32x32 blocks.
+        assertEquals(20000 + 16, region.get(0, 1));
+        assertEquals(DTEDFrameCache.NO_DATA, region.get(0, 3));
+    }
+}
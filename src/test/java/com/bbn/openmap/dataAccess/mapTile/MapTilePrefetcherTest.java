@@ -0,0 +1,270 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.dataAccess.mapTile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.omGraphics.OMRect;
+import com.bbn.openmap.proj.Mercator;
+import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+import com.bbn.openmap.util.TaskService;
+import com.bbn.openmap.util.cacheHandler.CacheObject;
+
+public class MapTilePrefetcherTest extends TestCase {
+
+    /**
+     * Makes tiles out of thin air, counting the ones loaded on the thread
+     * asking for the map.
+     */
+    static class TestFactory extends StandardMapTileFactory {
+        final Thread mapThread = Thread.currentThread();
+        final AtomicInteger foregroundLoads = new AtomicInteger();
+        final List<String> wrongZoomLevel = new ArrayList<String>();
+        volatile int expectedZoomLevel = -1;
+        volatile CountDownLatch gate;
+        volatile CountDownLatch started;
+
+        TestFactory() {
+            setRootDir("memory");
+            setFileExt("png");
+            resetCache(1000);
+        }
+
+        public CacheObject load(Object key, int x, int y, int zoomLevel, Projection proj) {
+            if (Thread.currentThread() == mapThread) {
+                foregroundLoads.incrementAndGet();
+                if (expectedZoomLevel >= 0
+                        && (zoomLevel != expectedZoomLevel || !key.toString().startsWith("memory/" + expectedZoomLevel + "/"))) {
+                    wrongZoomLevel.add(key + " at " + zoomLevel);
+                }
+            } else if (gate != null) {
+                if (started != null) {
+                    started.countDown();
+                }
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                }
+            }
+            return new CacheObject(key, new OMRect(0, 0, 1, 1));
+        }
+    }
+
+    void waitForPrefetch(MapTilePrefetcher mtp)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while ((mtp.getQueueDepth() > 0 || mtp.getInFlight() > 0) && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, mtp.getQueueDepth());
+        assertEquals(0, mtp.getInFlight());
+    }
+
+    public void testPanUsesPrefetchedTiles()
+            throws Exception {
+        TestFactory factory = new TestFactory();
+        factory.setPrefetchRing(1);
+        factory.setPrefetchZoomLevels(true);
+        MapTilePrefetcher mtp = factory.getPrefetcher();
+        assertNotNull(mtp);
+
+        Mercator proj = new Mercator(new LatLonPoint.Double(20, 20), 20000000f, 640, 480);
+        OMGraphicList list = factory.getTiles(proj, 5);
+        int visible = list.size();
+        assertTrue(visible > 0);
+        assertEquals(visible, factory.foregroundLoads.get());
+
+        waitForPrefetch(mtp);
+        assertTrue(mtp.getLoadedCount() > 0);
+        assertEquals(mtp.getRequestedCount(), mtp.getLoadedCount());
+
+        // A tile one zoom level in from the middle of the map is ready.
+        Projection in = new Mercator(new LatLonPoint.Double(20, 20), 10000000f, 640, 480);
+        java.awt.geom.Point2D uv = factory.getMtcTransform().latLonToTileUV(in.getCenter(), 6);
+        int x = (int) uv.getX();
+        int y = (int) uv.getY();
+        assertNotNull(factory.getFromCache(factory.formatImageFilePath("memory", x, y, 6) + ".png", x, y, 6));
+
+        // Pan a tile width (11.25 degrees at zoom 5), the new edge should
+        // have been prefetched.
+        factory.foregroundLoads.set(0);
+        proj.setCenter(20, 31.25);
+        list = factory.getTiles(proj, 5);
+        assertEquals(0, factory.foregroundLoads.get());
+        assertTrue(mtp.getHitCount() > 0);
+        assertTrue(mtp.getHitRate() > 0);
+    }
+
+    public void testCancelWhenViewMoves()
+            throws Exception {
+        TestFactory factory = new TestFactory();
+        factory.setPrefetchRing(2);
+        MapTilePrefetcher mtp = factory.getPrefetcher();
+        mtp.setMaxInFlight(1);
+        factory.gate = new CountDownLatch(1);
+
+        Mercator proj = new Mercator(new LatLonPoint.Double(20, 20), 20000000f, 640, 480);
+        factory.getTiles(proj, 5);
+        assertEquals(1, mtp.getInFlight());
+        int queued = mtp.getQueueDepth();
+        assertTrue(queued > 0);
+
+        // Jump somewhere else, the old ring is dropped.
+        proj.setCenter(-40, -120);
+        factory.getTiles(proj, 5);
+        assertTrue(mtp.getCancelledCount() >= queued - 1);
+
+        factory.gate.countDown();
+        waitForPrefetch(mtp);
+
+        // Turning prefetching off drops the prefetcher.
+        factory.setPrefetchRing(0);
+        assertNull(factory.getPrefetcher());
+    }
+
+    public void testClaimWaitsForRunningLoad()
+            throws Exception {
+        final TestFactory factory = new TestFactory();
+        factory.setPrefetchRing(1);
+        MapTilePrefetcher mtp = factory.getPrefetcher();
+        mtp.setMaxInFlight(1);
+        factory.gate = new CountDownLatch(1);
+        factory.started = new CountDownLatch(1);
+
+        Mercator proj = new Mercator(new LatLonPoint.Double(0, 0), 20000000f, 640, 480);
+        List<MapTilePrefetcher.Request> requests = new ArrayList<MapTilePrefetcher.Request>();
+        requests.add(new MapTilePrefetcher.Request("a", 1, 1, 5, proj));
+        requests.add(new MapTilePrefetcher.Request("b", 2, 1, 5, proj));
+        mtp.prefetch(requests);
+
+        // claim() only waits for loads that are running, so make sure the
+        // task for "a" has started before asking for it.
+        assertTrue(factory.started.await(5, TimeUnit.SECONDS));
+
+        // "b" hasn't started, so the caller gets to load it.
+        assertNull(mtp.claim("b"));
+        assertEquals(0, mtp.getQueueDepth());
+
+        final CountDownLatch released = new CountDownLatch(1);
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                }
+                factory.gate.countDown();
+                released.countDown();
+            }
+        }.start();
+
+        // "a" is loading, wait for it.
+        CacheObject co = mtp.claim("a");
+        assertTrue(released.await(5, TimeUnit.SECONDS));
+        assertNotNull(co);
+        assertNotNull(factory.searchCache("a"));
+        assertEquals(1, mtp.getWaitCount());
+    }
+
+    public void testClaimDoesNotWaitForQueuedTask()
+            throws Exception {
+        TestFactory factory = new TestFactory();
+        factory.setPrefetchRing(1);
+        final MapTilePrefetcher mtp = factory.getPrefetcher();
+
+        // Keep the only TaskService thread busy, so the prefetch task for "a"
+        // is handed off but can't start.
+        TaskService ts = TaskService.singleton();
+        int maxThreads = ts.getMaxThreads();
+        ts.setMaxThreads(1);
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            ts.spawn(new Runnable() {
+                public void run() {
+                    busy.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }, TaskService.MAX_PRIORITY);
+            assertTrue(busy.await(5, TimeUnit.SECONDS));
+
+            Mercator proj = new Mercator(new LatLonPoint.Double(0, 0), 20000000f, 640, 480);
+            List<MapTilePrefetcher.Request> requests = new ArrayList<MapTilePrefetcher.Request>();
+            requests.add(new MapTilePrefetcher.Request("a", 1, 1, 5, proj));
+            mtp.prefetch(requests);
+            assertEquals(1, mtp.getInFlight());
+
+            final CountDownLatch claimed = new CountDownLatch(1);
+            new Thread() {
+                public void run() {
+                    if (mtp.claim("a") == null) {
+                        claimed.countDown();
+                    }
+                }
+            }.start();
+            assertTrue(claimed.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            ts.setMaxThreads(maxThreads);
+        }
+
+        // The task doesn't load the claimed tile when it finally runs.
+        waitForPrefetch(mtp);
+        assertEquals(0, mtp.getLoadedCount());
+        assertEquals(0, mtp.getWaitCount());
+        assertNull(factory.searchCache("a"));
+    }
+
+    public void testPathsForOtherZoomLevels()
+            throws Exception {
+        final TestFactory factory = new TestFactory();
+        factory.expectedZoomLevel = 5;
+
+        // Whenever the map sets the zoom level, a path for the next zoom
+        // level is made on another thread, the way a prefetch still loading
+        // from the last view does. That doesn't change the zoom level of the
+        // tiles loaded for the map.
+        factory.setZoomLevelInfo(new ZoomLevelInfo() {
+            public void setZoomLevel(final int zoomLevel) {
+                super.setZoomLevel(zoomLevel);
+                if (Thread.holdsLock(this)) {
+                    return;
+                }
+                Thread prefetch = new Thread() {
+                    public void run() {
+                        factory.formatImageFilePath("memory", 1, 1, zoomLevel + 1);
+                    }
+                };
+                prefetch.start();
+                try {
+                    prefetch.join(5000);
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+
+        Mercator proj = new Mercator(new LatLonPoint.Double(20, 20), 20000000f, 640, 480);
+        assertTrue(factory.getTiles(proj, 5).size() > 0);
+        assertTrue(factory.foregroundLoads.get() > 0);
+        assertEquals(factory.wrongZoomLevel.toString(), 0, factory.wrongZoomLevel.size());
+
+        ZoomLevelInfo zli = new ZoomLevelInfo();
+        zli.setZoomLevel(3);
+        assertEquals("root/7/1/2", zli.formatImageFilePath("root", 1, 2, 7));
+        assertEquals("root/3/1/2", zli.formatImageFilePath("root", 1, 2));
+        assertEquals(3, zli.getZoomLevel());
+    }
+}
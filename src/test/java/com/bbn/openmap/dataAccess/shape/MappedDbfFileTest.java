@@ -0,0 +1,141 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.dataAccess.shape;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.dataAccess.shape.output.DbfOutputStream;
+import com.bbn.openmap.io.BinaryBufferedFile;
+
+public class MappedDbfFileTest extends TestCase {
+
+    static final String[] NAMES = new String[] { "Boston", "Albany", "Concord", "Hartford", "Providence" };
+
+    File dbfFile;
+
+    protected void setUp()
+            throws Exception {
+        dbfFile = File.createTempFile("mapped", ".dbf");
+        DbfTableModel model = new DbfTableModel(3);
+        model.setColumnName(0, "NAME");
+        model.setType(0, DbfTableModel.TYPE_CHARACTER);
+        model.setLength(0, 20);
+        model.setColumnName(1, "POP");
+        model.setType(1, DbfTableModel.TYPE_NUMERIC);
+        model.setLength(1, 12);
+        model.setDecimalCount(1, (byte) 3);
+        model.setColumnName(2, "RANK");
+        model.setType(2, DbfTableModel.TYPE_NUMERIC);
+        model.setLength(2, 4);
+
+        for (int i = 0; i < 100; i++) {
+            List<Object> record = new ArrayList<Object>();
+            record.add(NAMES[i % NAMES.length]);
+            record.add(i % 10 == 3 ? null : new Double(i * 1.125 - 20));
+            record.add(new Double(i % 7));
+            model.addRecord(record);
+        }
+        new DbfOutputStream(new FileOutputStream(dbfFile)).writeModel(model);
+    }
+
+    protected void tearDown() {
+        File dir = dbfFile.getParentFile();
+        String base = dbfFile.getName().substring(0, dbfFile.getName().length() - 4);
+        for (File f : dir.listFiles()) {
+            if (f.getName().startsWith(base)) {
+                f.delete();
+            }
+        }
+    }
+
+    public void testMatchesDbfFile()
+            throws Exception {
+        DbfFile plain = new DbfFile(new BinaryBufferedFile(dbfFile.getPath()));
+        MappedDbfFile mapped = new MappedDbfFile(dbfFile);
+
+        assertEquals(plain.getRowCount(), mapped.getRowCount());
+        assertEquals(plain.getColumnCount(), mapped.getColumnCount());
+        for (int r = 0; r < plain.getRowCount(); r++) {
+            assertEquals("row " + r, plain.getRecordData(r), mapped.getRecordData(r));
+            assertEquals("row " + r, plain.getRecordData(r), new ArrayList<Object>(mapped.getRecordView(r)));
+        }
+        plain.close();
+
+        double[] pop = mapped.getDoubleColumn(1);
+        assertSame(pop, mapped.getDoubleColumn(1));
+        assertTrue(Double.isNaN(pop[3]));
+        assertEquals(4 * 1.125 - 20, pop[4], 0);
+
+        mapped.setColumnMask(new String[] { "RANK" });
+        assertEquals(1, mapped.getColumnCount());
+        assertEquals(new Double(5), mapped.getRecordData(12).get(0));
+    }
+
+    public void testSelect()
+            throws Exception {
+        MappedDbfFile mapped = new MappedDbfFile(dbfFile);
+        DbfHandler.Op[] ops = new DbfHandler.Op[] { DbfHandler.Op.EQUALS, DbfHandler.Op.LESS_THAN,
+                DbfHandler.Op.LESS_THAN_EQUALS, DbfHandler.Op.GREATER_THAN, DbfHandler.Op.GREATER_THAN_EQUALS,
+                DbfHandler.Op.NOT_EQUALS, DbfHandler.Op.STARTS_WITH };
+        Object[][] keys = new Object[][] { { "Concord", "Boston", "Zzz" }, { "10", "2.5", "-20" }, { "3", "0", "6" } };
+
+        for (int pass = 0; pass < 3; pass++) {
+            if (pass == 1) {
+                for (int c = 0; c < 3; c++) {
+                    mapped.createIndex(c, true);
+                    assertTrue(mapped.getIndexFile(c).isFile());
+                }
+            } else if (pass == 2) {
+                // Loaded from the sidecar files this time.
+                mapped = new MappedDbfFile(dbfFile);
+                for (int c = 0; c < 3; c++) {
+                    mapped.createIndex(c, false);
+                }
+            }
+
+            for (int c = 0; c < 3; c++) {
+                for (Object key : keys[c]) {
+                    for (DbfHandler.Op op : ops) {
+                        int[] expected = scan(mapped, c, op, key);
+                        int[] rows = mapped.select(c, op, key);
+                        assertTrue(pass + " " + c + " " + op.getPropertyNotation() + " " + key,
+                                Arrays.equals(expected, rows));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testStaleSidecarIgnored()
+            throws Exception {
+        MappedDbfFile mapped = new MappedDbfFile(dbfFile);
+        mapped.createIndex(2, true);
+        File indexFile = mapped.getIndexFile(2);
+        assertNotNull(DbfColumnIndex.read(indexFile, dbfFile, "RANK"));
+        assertNull(DbfColumnIndex.read(indexFile, dbfFile, "POP"));
+
+        dbfFile.setLastModified(dbfFile.lastModified() - 10000);
+        assertNull(DbfColumnIndex.read(indexFile, dbfFile, "RANK"));
+    }
+
+    int[] scan(MappedDbfFile dbf, int column, DbfHandler.Op op, Object key)
+            throws Exception {
+        int[] rows = new int[dbf.getRowCount()];
+        int count = 0;
+        for (int r = 0; r < rows.length; r++) {
+            if (op.evaluate(key, dbf.getRecordData(r).get(column))) {
+                rows[count++] = r;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+}
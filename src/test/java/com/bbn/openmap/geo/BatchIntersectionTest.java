@@ -0,0 +1,126 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.geo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.proj.Length;
+
+public class BatchIntersectionTest extends TestCase {
+
+    static List<GeoPath> createTracks(Random random, int count) {
+        List<GeoPath> tracks = new ArrayList<GeoPath>();
+        for (int i = 0; i < count; i++) {
+            double lat = random.nextDouble() * 160 - 80;
+            double lon = random.nextDouble() * 360 - 180;
+            double heading = random.nextDouble() * 2 * Math.PI;
+            double[] lls = new double[2 * (2 + random.nextInt(30))];
+            for (int j = 0; j < lls.length; j += 2) {
+                lls[j] = Math.max(-89, Math.min(89, lat));
+                lls[j + 1] = lon;
+                heading += random.nextGaussian() * .3;
+                lat += Math.cos(heading) * 2;
+                lon += Math.sin(heading) * 2;
+            }
+            tracks.add(new GeoPath.Impl(lls));
+        }
+        // Over the pole and across the dateline.
+        tracks.add(new GeoPath.Impl(new double[] { 75, 10, 85, 60, 80, -150 }));
+        tracks.add(new GeoPath.Impl(new double[] { 10, 175, 10.2, -178, 12, -170 }));
+        return tracks;
+    }
+
+    /**
+     * The regions each path matches, path by path with Intersection.
+     */
+    static Map<GeoPath, Set<Object>> expected(List<GeoPath> tracks, Collection regions, double hrange) {
+        Map<GeoPath, Set<Object>> expected = new HashMap<GeoPath, Set<Object>>();
+        for (GeoPath track : tracks) {
+            MatchCollector.SetMatchCollector c = new MatchCollector.SetMatchCollector();
+            new Intersection(new MatchFilter.MatchParametersMF(new MatchParameters.Standard(hrange)), c).consider(track,
+                                                                                                             regions);
+            Set<Object> found = new HashSet<Object>();
+            for (Iterator it = c.iterator(); it.hasNext();) {
+                found.add(it.next());
+            }
+            expected.put(track, found);
+        }
+        return expected;
+    }
+
+    static Map<GeoPath, Set<Object>> batch(List<GeoPath> tracks, Collection regions, double hrange, ForkJoinPool pool) {
+        MatchCollector.PairArrayMatchCollector c = new MatchCollector.PairArrayMatchCollector();
+        BatchIntersection bi = new BatchIntersection(new MatchFilter.MatchParametersMF(new MatchParameters.Standard(hrange)),
+                                                     c, pool);
+        bi.setThreshold(2);
+        bi.consider(tracks, regions);
+
+        Map<GeoPath, Set<Object>> found = new HashMap<GeoPath, Set<Object>>();
+        for (GeoPath track : tracks) {
+            found.put(track, new HashSet<Object>());
+        }
+        for (Iterator it = c.iterator(); it.hasNext();) {
+            MatchCollector.Pair pair = (MatchCollector.Pair) it.next();
+            BatchIntersection.PathSegment seg = (BatchIntersection.PathSegment) pair.getA();
+            assertTrue(seg.getIndex() < seg.getPath().length() - 1);
+            found.get(seg.getPath()).add(pair.getB());
+        }
+        return found;
+    }
+
+    public void testMatchesIntersection() {
+        Random random = new Random(22);
+        List<GeoExtent> regions = new ArrayList<GeoExtent>(SphericalCellExtentIndexTest.createRegions(random, 500));
+        // Open paths as regions, and an unclosed region.
+        regions.add(new GeoPath.Impl(new double[] { 40, -80, 42, -60, 38, -40 }));
+        regions.add(new GeoPath.Impl(new double[] { -10, 100, -12, 130 }));
+        regions.add(new GeoRegion.Impl(new double[] { 20, 20, 30, 20, 30, 30, 20, 30, 20, 20 }));
+        List<GeoPath> tracks = createTracks(random, 150);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SphericalCellExtentIndex index = new SphericalCellExtentIndex(60);
+            index.addAll(regions);
+
+            for (double hrange : new double[] { 0, Length.NM.toRadians(30) }) {
+                Map<GeoPath, Set<Object>> expected = expected(tracks, regions, hrange);
+                assertEquals(expected, batch(tracks, regions, hrange, pool));
+                assertEquals(expected, batch(tracks, index, hrange, pool));
+            }
+
+            int matched = 0;
+            for (Set<Object> found : expected(tracks, regions, 0).values()) {
+                matched += found.isEmpty() ? 0 : 1;
+            }
+            assertTrue(matched > 20);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testPlainRegion() {
+        BatchIntersection bi = new BatchIntersection(new MatchFilter.MatchParametersMF(new MatchParameters.Standard(0)),
+                                                     new MatchCollector.PairArrayMatchCollector());
+        double[] lls = new double[] { 20, 20, 30, 20, 30, 30, 20, 20 };
+        assertTrue(bi.isPlainRegion(new GeoRegion.Impl(lls)));
+        assertFalse(bi.isPlainRegion(new GeoRegion.Impl(lls) {
+            public boolean isSegmentNear(GeoSegment s, double epsilon) {
+                return true;
+            }
+        }));
+    }
+}
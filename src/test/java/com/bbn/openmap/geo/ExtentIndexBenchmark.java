@@ -0,0 +1,120 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.geo;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the longitude bucket ExtentIndexImpl with the
+ * SphericalCellExtentIndex, for regions packed into Europe and tracks across
+ * it:
+ *
+ * <pre>
+ * java -Xmx4g com.bbn.openmap.geo.ExtentIndexBenchmark [-sizes 10000,100000,1000000] [-queries 50]
+ * </pre>
+ *
+ * For each number of regions, the time to build each index is printed, then
+ * the number of candidates the index returns for a track, the time to get
+ * them, the time for Intersection.intersect(track, index), and the time per
+ * track for BatchIntersection.intersect(tracks, index). The lookups are run
+ * twice and the second time is printed, so the JIT has compiled them.
+ */
+public class ExtentIndexBenchmark {
+
+    protected int[] sizes = new int[] { 10000, 100000, 1000000 };
+    protected int queries = 50;
+
+    public static void main(String[] args) {
+        ExtentIndexBenchmark bench = new ExtentIndexBenchmark();
+        for (int i = 0; i < args.length - 1; i += 2) {
+            if (args[i].equals("-sizes")) {
+                String[] s = args[i + 1].split(",");
+                bench.sizes = new int[s.length];
+                for (int j = 0; j < s.length; j++) {
+                    bench.sizes[j] = Integer.parseInt(s[j].trim());
+                }
+            } else if (args[i].equals("-queries")) {
+                bench.queries = Math.max(1, Integer.parseInt(args[i + 1]));
+            }
+        }
+        bench.runAll();
+    }
+
+    protected void runAll() {
+        Random random = new Random(42);
+        List<GeoPath> tracks = new ArrayList<GeoPath>();
+        for (int q = 0; q < queries; q++) {
+            double[] lls = new double[100];
+            double lat = 36 + random.nextDouble() * 30;
+            double lon = -10;
+            for (int p = 0; p < lls.length; p += 2) {
+                lat = Math.max(35, Math.min(70, lat + random.nextGaussian()));
+                lon += 1;
+                lls[p] = lat;
+                lls[p + 1] = lon;
+            }
+            tracks.add(new GeoPath.Impl(lls));
+        }
+
+        for (int size : sizes) {
+            List<GeoRegion> regions = new ArrayList<GeoRegion>(size);
+            for (int i = 0; i < size; i++) {
+                double lat = 35 + random.nextDouble() * 35;
+                double lon = -10 + random.nextDouble() * 50;
+                double d = .01 + random.nextDouble() * .1;
+                regions.add(new GeoRegion.Impl(new double[] { lat, lon, lat + d, lon, lat + d, lon + d, lat, lon + d }));
+            }
+
+            System.out.println(size + " regions, " + queries + " tracks of 49 segments");
+            System.out.println(String.format("  %-26s %10s %12s %14s %14s %14s", "", "build ms", "candidates",
+                                             "lookup us", "intersect us", "batch us"));
+            run("ExtentIndexImpl", new ExtentIndexImpl(), regions, tracks);
+            run("SphericalCellExtentIndex", new SphericalCellExtentIndex(), regions, tracks);
+        }
+    }
+
+    protected void run(String name, ExtentIndex index, List<GeoRegion> regions, List<GeoPath> tracks) {
+        long start = System.nanoTime();
+        for (GeoRegion region : regions) {
+            index.addExtent(region);
+        }
+        long build = System.nanoTime() - start;
+
+        long candidates = 0;
+        long lookup = 0;
+        long intersect = 0;
+        long batch = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            candidates = 0;
+            start = System.nanoTime();
+            for (GeoPath track : tracks) {
+                for (Iterator it = index.iterator(track); it.hasNext(); it.next()) {
+                    candidates++;
+                }
+            }
+            lookup = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (GeoPath track : tracks) {
+                for (Iterator it = Intersection.intersect(track, index); it.hasNext(); it.next()) {
+                }
+            }
+            intersect = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Iterator it = BatchIntersection.intersect(tracks, index); it.hasNext(); it.next()) {
+            }
+            batch = System.nanoTime() - start;
+        }
+
+        System.out.println(String.format("  %-26s %10d %12d %14.1f %14.1f %14.1f", name, build / 1000000,
+                                         candidates / tracks.size(), lookup / 1000.0 / tracks.size(),
+                                         intersect / 1000.0 / tracks.size(), batch / 1000.0 / tracks.size()));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.geo;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class SphericalCellExtentIndexTest extends TestCase {
+
+    /**
+     * A square-ish region around a point, size in degrees of latitude.
+     */
+    static GeoRegion box(double lat, double lon, double size) {
+        double dlon = size / Math.max(.05, Math.cos(Math.toRadians(lat)));
+        double lat0 = Math.max(-89.9, lat - size / 2);
+        double lat1 = Math.min(89.9, lat + size / 2);
+        return new GeoRegion.Impl(new double[] { lat0, lon - dlon / 2, lat1, lon - dlon / 2, lat1, lon + dlon / 2, lat0,
+                lon + dlon / 2 });
+    }
+
+    static List<GeoRegion> createRegions(Random random, int count) {
+        List<GeoRegion> regions = new ArrayList<GeoRegion>();
+        for (int i = 0; i < count; i++) {
+            double lat = Math.toDegrees(Math.asin(random.nextDouble() * 2 - 1));
+            double lon = random.nextDouble() * 360 - 180;
+            double size = (i % 10 == 0) ? random.nextDouble() * 40 : random.nextDouble() * 2;
+            regions.add(box(lat, lon, size));
+        }
+        // Around the poles and across the dateline.
+        regions.add(new GeoRegion.Impl(new double[] { 80, 0, 80, 90, 80, 180, 80, -90 }));
+        regions.add(new GeoRegion.Impl(new double[] { -85, 10, -85, 130, -85, -110 }));
+        regions.add(box(10, 179.8, 1));
+        regions.add(box(-30, -179.9, .5));
+        return regions;
+    }
+
+    static Set<Object> intersect(Object query, Object regions) {
+        Set<Object> found = new HashSet<Object>();
+        for (Iterator it = Intersection.intersect(query, regions); it.hasNext();) {
+            found.add(it.next());
+        }
+        return found;
+    }
+
+    public void testMatchesLinearScan() {
+        Random random = new Random(2014);
+        List<GeoRegion> regions = createRegions(random, 3000);
+        SphericalCellExtentIndex index = new SphericalCellExtentIndex();
+        index.addAll(regions);
+        assertEquals(regions.size(), index.size());
+
+        List<Object> queries = new ArrayList<Object>();
+        for (int q = 0; q < 200; q++) {
+            double lat = Math.toDegrees(Math.asin(random.nextDouble() * 2 - 1));
+            double lon = random.nextDouble() * 360 - 180;
+            if (q % 3 == 0) {
+                queries.add(new GeoPoint.Impl(lat, lon));
+            } else {
+                double[] lls = new double[10];
+                for (int p = 0; p < lls.length; p += 2) {
+                    lls[p] = Math.max(-89, Math.min(89, lat + p * random.nextGaussian()));
+                    lls[p + 1] = lon + p * random.nextGaussian() * 3;
+                }
+                queries.add(q % 3 == 1 ? new GeoPath.Impl(lls) : new GeoRegion.Impl(lls));
+            }
+        }
+        // Over the pole, and across the dateline.
+        queries.add(new GeoPath.Impl(new double[] { 75, -30, 80, 150 }));
+        queries.add(new GeoPath.Impl(new double[] { 10, 179, 10, -179, -30, -179.5 }));
+        queries.add(new GeoPoint.Impl(89.5, 45));
+
+        int hits = 0;
+        for (Object query : queries) {
+            Set<Object> expected = intersect(query, regions);
+            assertEquals(expected, intersect(query, index));
+            hits += expected.size();
+        }
+        assertTrue(hits > 0);
+
+        // Take half out, the rest should still be found.
+        for (int i = 0; i < regions.size(); i += 2) {
+            assertTrue(index.removeExtent(regions.get(i)));
+        }
+        List<GeoRegion> rest = new ArrayList<GeoRegion>();
+        for (int i = 1; i < regions.size(); i += 2) {
+            rest.add(regions.get(i));
+        }
+        assertEquals(rest.size(), index.size());
+        for (Object query : queries) {
+            assertEquals(intersect(query, rest), intersect(query, index));
+        }
+    }
+
+    public void testCellIds() {
+        long id = SphericalCellExtentIndex.cellId(3, 5, 17, 9);
+        long lsb = id & -id;
+        for (int level = 0; level < 5; level++) {
+            long parent = SphericalCellExtentIndex.parentId(id, 5, level);
+            assertEquals(SphericalCellExtentIndex.cellId(3, level, 17 >> (5 - level), 9 >> (5 - level)), parent);
+        }
+        long child = SphericalCellExtentIndex.cellId(3, 7, 17 * 4 + 3, 9 * 4);
+        assertTrue(child > id - lsb && child < id + lsb);
+        long other = SphericalCellExtentIndex.cellId(3, 7, 18 * 4, 9 * 4);
+        assertFalse(other > id - lsb && other < id + lsb);
+    }
+}
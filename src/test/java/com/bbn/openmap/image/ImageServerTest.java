@@ -0,0 +1,153 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.image;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.Layer;
+import com.bbn.openmap.event.ProjectionEvent;
+import com.bbn.openmap.omGraphics.OMCircle;
+import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.omGraphics.OMLine;
+import com.bbn.openmap.omGraphics.OMPoly;
+import com.bbn.openmap.omGraphics.OMRect;
+import com.bbn.openmap.proj.Length;
+import com.bbn.openmap.proj.Mercator;
+import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+public class ImageServerTest extends TestCase {
+
+    /**
+     * Renders its OMGraphics for whatever projection it's given.
+     */
+    static class ListLayer extends Layer {
+        final OMGraphicList list = new OMGraphicList();
+
+        public void renderDataForProjection(Projection proj, Graphics g) {
+            list.generate(proj);
+            list.render(g);
+        }
+
+        public void projectionChanged(ProjectionEvent pe) {
+        }
+    }
+
+    /**
+     * Returns the layers, top first. Only the top layer has translucent
+     * OMGraphics that overlap each other.
+     */
+    static Layer[] layers() {
+        ListLayer rects = new ListLayer();
+        OMRect rect = new OMRect(50, -20, 10, 40, OMGraphic.LINETYPE_GREATCIRCLE);
+        rect.setFillPaint(new Color(0, 0, 255, 200));
+        rect.setLinePaint(Color.black);
+        rects.list.add(rect);
+
+        ListLayer polys = new ListLayer();
+        OMPoly poly = new OMPoly(new double[] { 0, 0, 40, 10, 20, 60, -10, 30 }, OMGraphic.DECIMAL_DEGREES,
+                                 OMGraphic.LINETYPE_RHUMB);
+        poly.setFillPaint(new Color(0, 200, 0, 128));
+        poly.setLinePaint(Color.darkGray);
+        poly.setStroke(new BasicStroke(3f));
+        polys.list.add(poly);
+
+        ListLayer circles = new ListLayer();
+        OMCircle circle = new OMCircle(30, 15, 1500, Length.KM);
+        circle.setFillPaint(new Color(255, 0, 0, 100));
+        circle.setLinePaint(Color.red);
+        circle.setStroke(new BasicStroke(5f));
+        circles.list.add(circle);
+
+        ListLayer lines = new ListLayer();
+        for (int i = 0; i < 10; i++) {
+            OMLine line = new OMLine(-20 + i * 6, -40, 60 - i * 4, 70, OMGraphic.LINETYPE_GREATCIRCLE);
+            line.setLinePaint(new Color(i * 25, 100, 255 - i * 25, 180));
+            line.setStroke(new BasicStroke(1f + i / 2f));
+            lines.list.add(line);
+        }
+
+        return new Layer[] { lines, circles, polys, rects };
+    }
+
+    static BufferedImage render(ImageServer server, boolean parallel, int layerMask)
+            throws IOException {
+        server.setParallelRendering(parallel);
+        Mercator proj = new Mercator(new LatLonPoint.Double(25, 15), 40000000f, 400, 300);
+        byte[] png = server.createImage(proj, -1, -1, layerMask, Color.white);
+        assertTrue(png.length > 0);
+        return ImageIO.read(new ByteArrayInputStream(png));
+    }
+
+    /**
+     * Returns the largest difference in any color channel of any pixel.
+     */
+    static int maxDifference(BufferedImage serial, BufferedImage parallel) {
+        assertEquals(serial.getWidth(), parallel.getWidth());
+        assertEquals(serial.getHeight(), parallel.getHeight());
+        int max = 0;
+        for (int y = 0; y < serial.getHeight(); y++) {
+            for (int x = 0; x < serial.getWidth(); x++) {
+                int s = serial.getRGB(x, y);
+                int p = parallel.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    max = Math.max(max, Math.abs(((s >> shift) & 0xff) - ((p >> shift) & 0xff)));
+                }
+            }
+        }
+        return max;
+    }
+
+    public void testParallelMatchesSerial()
+            throws Exception {
+        ImageServer server = new ImageServer(layers(), new PNG32ImageFormatter());
+        server.setRenderThreads(3);
+
+        // Without the top layer, every pixel is the same.
+        BufferedImage serial = render(server, false, 0xe);
+        assertEquals(0, maxDifference(serial, render(server, true, 0xe)));
+        assertTrue(maxDifference(serial, render(server, false, 0x0)) > 0);
+
+        // Translucent pixels in the same layer, overlapping OMGraphics or the
+        // antialiased edges of a fill and its outline, are blended with each
+        // other before they are blended with the layers below, which can round
+        // a color a step differently.
+        assertTrue(maxDifference(render(server, false, 0xf), render(server, true, 0xf)) <= 1);
+        server.setDoAntiAliasing(true);
+        assertTrue(maxDifference(render(server, false, 0xe), render(server, true, 0xe)) <= 1);
+        assertTrue(maxDifference(render(server, false, 0xf), render(server, true, 0xf)) <= 1);
+    }
+
+    public void testFailingLayer()
+            throws Exception {
+        Layer[] layers = layers();
+        layers[1] = new ListLayer() {
+            public void renderDataForProjection(Projection proj, Graphics g) {
+                throw new IllegalStateException("no data");
+            }
+        };
+        ImageServer server = new ImageServer(layers, new PNG32ImageFormatter());
+
+        for (boolean parallel : new boolean[] { false, true }) {
+            try {
+                render(server, parallel, 0xf);
+                fail("failing layer, parallel " + parallel);
+            } catch (IllegalStateException ise) {
+                assertEquals("no data", ise.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.bbn.openmap.dataAccess.dted.DTEDFrame;
+import com.bbn.openmap.layer.rpf.RpfFrame;
+
+/**
+ * Reads real RPF and DTED frames through each of the BinaryFile
+ * implementations, and prints how long it takes. The RPF frames and DTED files
+ * are found by walking the directories given on the command line:
+ *
+ * <pre>
+ * java com.bbn.openmap.io.BinaryFileBenchmark -rpf /data/RPF -dted /data/dted [-iterations 5]
+ * </pre>
+ *
+ * Each data set is run through the RpfFrame and DTEDFrame readers with
+ * BinaryFile.setMapFiles off and on, and every file is also decoded as raw
+ * big-endian shorts through a BinaryFile, a BinaryBufferedFile and a
+ * MappedBinaryFile. The first iteration of each run is a warm-up and isn't
+ * counted, so the files are coming out of the page cache for every
+ * implementation.
+ */
+public class BinaryFileBenchmark {
+
+    protected int iterations = 5;
+    protected List<File> rpfFiles = new ArrayList<File>();
+    protected List<File> dtedFiles = new ArrayList<File>();
+
+    interface Run {
+        /** @return the number of bytes read. */
+        long run(File file) throws IOException, FormatException;
+    }
+
+    public static void main(String[] args) throws IOException, FormatException {
+        BinaryFileBenchmark bench = new BinaryFileBenchmark();
+        for (int i = 0; i < args.length - 1; i += 2) {
+            if (args[i].equals("-rpf")) {
+                bench.find(new File(args[i + 1]), bench.rpfFiles, true);
+            } else if (args[i].equals("-dted")) {
+                bench.find(new File(args[i + 1]), bench.dtedFiles, false);
+            } else if (args[i].equals("-iterations")) {
+                bench.iterations = Math.max(1, Integer.parseInt(args[i + 1]));
+            }
+        }
+
+        if (bench.rpfFiles.isEmpty() && bench.dtedFiles.isEmpty()) {
+            System.out.println("Usage: java com.bbn.openmap.io.BinaryFileBenchmark -rpf <RPF dir> -dted <DTED dir> [-iterations n]");
+            System.exit(1);
+        }
+
+        bench.runAll();
+    }
+
+    protected void find(File file, List<File> files, boolean rpf) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    find(child, files, rpf);
+                }
+            }
+            return;
+        }
+
+        String name = file.getName().toLowerCase();
+        if (rpf) {
+            // RPF frames have three character extensions, skip the
+            // table of contents.
+            int dot = name.lastIndexOf('.');
+            if (!name.equals("a.toc") && dot == name.length() - 4) {
+                files.add(file);
+            }
+        } else if (name.endsWith(".dt0") || name.endsWith(".dt1") || name.endsWith(".dt2")) {
+            files.add(file);
+        }
+    }
+
+    protected void runAll() throws IOException, FormatException {
+        if (!rpfFiles.isEmpty()) {
+            System.out.println(rpfFiles.size() + " RPF frames");
+            time("RpfFrame, unmapped", rpfFiles, false, new Run() {
+                public long run(File file) {
+                    return readRpf(file);
+                }
+            });
+            time("RpfFrame, mapped", rpfFiles, true, new Run() {
+                public long run(File file) {
+                    return readRpf(file);
+                }
+            });
+            timeRaw(rpfFiles);
+        }
+
+        if (!dtedFiles.isEmpty()) {
+            System.out.println(dtedFiles.size() + " DTED frames");
+            time("DTEDFrame, unmapped", dtedFiles, false, new Run() {
+                public long run(File file) {
+                    return readDted(file);
+                }
+            });
+            time("DTEDFrame, mapped", dtedFiles, true, new Run() {
+                public long run(File file) {
+                    return readDted(file);
+                }
+            });
+            timeRaw(dtedFiles);
+        }
+    }
+
+    protected void timeRaw(List<File> files) throws IOException, FormatException {
+        time("  raw BinaryFile", files, false, new Run() {
+            public long run(File file) throws IOException, FormatException {
+                return readShorts(new BinaryFile(file));
+            }
+        });
+        time("  raw BinaryBufferedFile", files, false, new Run() {
+            public long run(File file) throws IOException, FormatException {
+                return readShorts(new BinaryBufferedFile(file));
+            }
+        });
+        time("  raw MappedBinaryFile", files, false, new Run() {
+            public long run(File file) throws IOException, FormatException {
+                return readShorts(new MappedBinaryFile(file));
+            }
+        });
+    }
+
+    protected long readRpf(File file) {
+        RpfFrame frame = new RpfFrame(file.getAbsolutePath());
+        if (!frame.isValid()) {
+            return 0;
+        }
+        // Decode all 36 subframes, which is what the layer does with a
+        // frame on the screen.
+        for (int x = 0; x < 6; x++) {
+            for (int y = 0; y < 6; y++) {
+                frame.decompressSubframe(x, y);
+            }
+        }
+        return file.length();
+    }
+
+    protected long readDted(File file) {
+        DTEDFrame frame = new DTEDFrame(file.getAbsolutePath(), true);
+        return frame.frame_is_valid ? file.length() : 0;
+    }
+
+    protected long readShorts(BinaryFile bf) throws IOException, FormatException {
+        try {
+            bf.byteOrder(true);
+            long length = bf.length();
+            short[] shorts = new short[4096];
+            long read = 0;
+            while (length - read >= 2) {
+                int len = (int) Math.min(shorts.length, (length - read) / 2);
+                if (bf instanceof BinaryBufferedFile) {
+                    ((BinaryBufferedFile) bf).readShortArray(shorts, 0, len);
+                } else if (bf instanceof MappedBinaryFile) {
+                    ((MappedBinaryFile) bf).readShortArray(shorts, 0, len);
+                } else {
+                    for (int i = 0; i < len; i++) {
+                        shorts[i] = bf.readShort();
+                    }
+                }
+                read += len * 2;
+            }
+            return read;
+        } finally {
+            bf.close();
+        }
+    }
+
+    protected void time(String label, List<File> files, boolean map, Run run) throws IOException, FormatException {
+        boolean oldMap = BinaryFile.isMapFiles();
+        BinaryFile.setMapFiles(map);
+        try {
+            long best = Long.MAX_VALUE;
+            long total = 0;
+            long bytes = 0;
+            for (int i = 0; i <= iterations; i++) {
+                long start = System.nanoTime();
+                bytes = 0;
+                for (File file : files) {
+                    bytes += run.run(file);
+                }
+                long elapsed = System.nanoTime() - start;
+                if (i > 0) {
+                    total += elapsed;
+                    best = Math.min(best, elapsed);
+                }
+            }
+            double avgMillis = total / 1e6 / iterations;
+            double mbPerSec = bytes / (1024.0 * 1024.0) / (best / 1e9);
+            System.out.println(String.format("%-28s avg %10.2f ms  best %10.2f ms  %8.1f MB/s", label, avgMillis, best / 1e6, mbPerSec));
+        } finally {
+            BinaryFile.setMapFiles(oldMap);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.io;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class MappedFileInputReaderTest extends TestCase {
+
+    File file;
+
+    protected void setUp() throws IOException {
+        file = File.createTempFile("mapped", ".bin");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        for (int i = 0; i < 1001; i++) {
+            out.writeInt(i * 7919 - 500000);
+        }
+        out.writeByte(42);
+        out.close();
+    }
+
+    protected void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Use a chunk size that isn't a multiple of 4, so values straddle the
+     * chunk boundaries.
+     */
+    protected BinaryFile mapped(boolean msbFirst) throws IOException {
+        BinaryFile bf = new MappedBinaryFile(new MappedFileInputReader(file, 101));
+        bf.byteOrder(msbFirst);
+        return bf;
+    }
+
+    protected BinaryFile unmapped(boolean msbFirst) throws IOException {
+        BinaryFile bf = new BinaryFile(file);
+        bf.byteOrder(msbFirst);
+        return bf;
+    }
+
+    public void testArraysMatchFileInputReader() throws Exception {
+        for (boolean msbFirst : new boolean[] { true, false }) {
+            BinaryFile expected = unmapped(msbFirst);
+            BinaryFile actual = mapped(msbFirst);
+
+            int[] ints = new int[500];
+            int[] mappedInts = new int[500];
+            expected.readIntegerArray(ints, 0, 500);
+            actual.readIntegerArray(mappedInts, 0, 500);
+            assertTrue(Arrays.equals(ints, mappedInts));
+
+            float[] floats = new float[300];
+            float[] mappedFloats = new float[300];
+            expected.readFloatArray(floats, 0, 300);
+            actual.readFloatArray(mappedFloats, 0, 300);
+            assertTrue(Arrays.equals(floats, mappedFloats));
+
+            assertEquals(expected.readShort(), actual.readShort());
+            assertEquals(expected.readLong(), actual.readLong());
+            assertEquals(expected.getFilePointer(), actual.getFilePointer());
+
+            expected.seek(397);
+            actual.seek(397);
+            assertEquals(expected.readInteger(), actual.readInteger());
+            assertTrue(Arrays.equals(expected.readBytes(250, false), actual.readBytes(250, false)));
+
+            expected.close();
+            actual.close();
+        }
+    }
+
+    public void testShortArrayAndEOF() throws Exception {
+        MappedBinaryFile bf = (MappedBinaryFile) mapped(true);
+        short[] shorts = new short[2002];
+        bf.readShortArray(shorts, 0, 2002);
+        assertEquals((short) ((-500000) >> 16), shorts[0]);
+        assertEquals(1, bf.available());
+        assertEquals(42, bf.read());
+        assertEquals(-1, bf.read());
+
+        try {
+            bf.readInteger();
+            fail("read past the end of the file");
+        } catch (EOFException e) {
+        }
+
+        bf.seek(file.length() - 2);
+        try {
+            bf.readIntegerArray(new int[1], 0, 1);
+            fail("read past the end of the file");
+        } catch (FormatException e) {
+        }
+        bf.close();
+    }
+
+    public void testBufferedFileOverMapping() throws Exception {
+        BinaryFile.setMapFiles(true);
+        try {
+            BinaryBufferedFile bf = new BinaryBufferedFile(file.getAbsolutePath());
+            assertTrue(bf.getInputReader() instanceof MappedFileInputReader);
+            bf.byteOrder(true);
+            bf.seek(8);
+            assertEquals(2 * 7919 - 500000, bf.readInteger());
+            assertEquals(12, bf.getFilePointer());
+            bf.close();
+            // Reopens the mapping after close.
+            assertEquals(3 * 7919 - 500000, bf.readInteger());
+            bf.close();
+        } finally {
+            BinaryFile.setMapFiles(false);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.link;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.omGraphics.OMPoly;
+
+public class LinkGraphicCacheTest extends TestCase implements LinkPropertiesConstants {
+
+    static OMPoly track(String id, double lat, double lon) {
+        double[] coords = new double[20];
+        for (int i = 0; i < coords.length; i += 2) {
+            coords[i] = lat + i * .001;
+            coords[i + 1] = lon - i * .002;
+        }
+        OMPoly poly = new OMPoly(coords, OMPoly.DECIMAL_DEGREES, OMPoly.LINETYPE_STRAIGHT);
+        poly.setAppObject(new LinkProperties(LPC_GRAPHICID, id));
+        return poly;
+    }
+
+    static LinkMapRequest request(String options, String state)
+            throws IOException {
+        LinkProperties args = new LinkProperties();
+        if (options != null) {
+            args.setProperty(LPC_LINK_OPTIONS, options);
+        }
+        if (state != null) {
+            args.setProperty(LPC_GRAPHICS_STATE, state);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Link writer = new Link(new ByteArrayInputStream(new byte[0]), bytes);
+        LinkMapRequest.write(0f, 0f, 1000000f, 480, 640, new LinkBoundingPoly[] {
+            new LinkBoundingPoly(-180.0f, -90f, 180f, 90f)
+        }, args, writer);
+
+        Link reader = new Link(new ByteArrayInputStream(bytes.toByteArray()), new ByteArrayOutputStream());
+        reader.readAndParse();
+        return reader.getMapRequest();
+    }
+
+    /**
+     * Write the response, and read it back like a client.
+     */
+    static LinkGraphicList respond(LinkGraphicCache cache, LinkMapRequest request, OMGraphicList graphics, int[] size)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Link writer = new Link(new ByteArrayInputStream(new byte[0]), bytes);
+        cache.write(request, graphics, new LinkProperties(), writer, Link.END_TOTAL);
+        writer.dos.flush();
+        size[0] = bytes.size();
+
+        Link reader = new Link(new ByteArrayInputStream(bytes.toByteArray()), new ByteArrayOutputStream());
+        reader.readAndParse();
+        return reader.getGraphicList();
+    }
+
+    public void testDeltas()
+            throws Exception {
+        OMGraphicList graphics = new OMGraphicList();
+        for (int i = 0; i < 50; i++) {
+            graphics.add(track("t" + i, 40 + i * .1, -70 - i * .1));
+        }
+        int[] size = new int[1];
+
+        // An old client gets the plain protocol.
+        LinkGraphicList plain = respond(new LinkGraphicCache(), request(null, null), graphics, size);
+        int plainSize = size[0];
+        assertFalse(plain.isDelta());
+        assertEquals(50, plain.getGraphics().size());
+
+        LinkGraphicCache cache = new LinkGraphicCache();
+        String options = LPC_DELTA_OPTION + " " + LPC_COMPACT_OPTION;
+        LinkGraphicList full = respond(cache, request(options, null), graphics, size);
+        assertFalse(full.isDelta());
+        assertEquals("1", full.getGraphicsState());
+        assertTrue(size[0] < plainSize);
+        LinkOMGraphicList client = full.getGraphics();
+        assertEquals(50, client.size());
+        OMPoly poly = (OMPoly) client.getOMGraphicWithId("t7");
+        double[] expected = ((OMPoly) graphics.get(7)).getLatLonArray();
+        double[] coords = poly.getLatLonArray();
+        assertEquals(expected.length, coords.length);
+        for (int i = 0; i < coords.length; i++) {
+            assertEquals(expected[i], coords[i], 1e-8);
+        }
+
+        // Move one, drop one and add one.
+        graphics.set(3, track("t3", 10, 10));
+        graphics.remove(10);
+        graphics.add(track("new", 20, 20));
+        LinkGraphicList delta = respond(cache, request(options, "1"), graphics, size);
+        assertTrue(delta.isDelta());
+        assertEquals("1", delta.getDeltaBase());
+        assertEquals("2", delta.getGraphicsState());
+        assertEquals(2, delta.getGraphics().size());
+        assertEquals(1, delta.getDeletedIds().size());
+        assertEquals("t10", delta.getDeletedIds().get(0));
+
+        client.update(delta.getGraphics(), delta.getDeletedIds());
+        assertEquals(50, client.size());
+        assertNull(client.getOMGraphicWithId("t10"));
+        assertNotNull(client.getOMGraphicWithId("new"));
+        assertEquals(3, client.getOMGraphicIndexWithId("t3"));
+        assertEquals(10 * Math.PI / 180, ((OMPoly) client.getOMGraphicWithId("t3")).getLatLonArray()[0], 1e-8);
+
+        // Nothing changed.
+        delta = respond(cache, request(options, "2"), graphics, size);
+        assertTrue(delta.isDelta());
+        assertEquals(0, delta.getGraphics().size());
+        assertEquals(0, delta.getDeletedIds().size());
+
+        // A client that lost track gets everything.
+        full = respond(cache, request(options, "1"), graphics, size);
+        assertFalse(full.isDelta());
+        assertEquals(50, full.getGraphics().size());
+        assertEquals("4", full.getGraphicsState());
+    }
+
+    public void testDeflate()
+            throws Exception {
+        OMGraphicList graphics = new OMGraphicList();
+        for (int i = 0; i < 20; i++) {
+            graphics.add(track("t" + i, 40, -70));
+        }
+        int[] size = new int[1];
+        LinkGraphicCache cache = new LinkGraphicCache();
+        respond(cache, request(LPC_COMPACT_OPTION, null), graphics, size);
+        int compactSize = size[0];
+
+        cache.setDeflate(true);
+        LinkGraphicList deflated = respond(cache, request(LPC_COMPACT_OPTION + " " + LPC_DEFLATE_OPTION, null),
+                                           graphics, size);
+        assertTrue(size[0] < compactSize);
+        assertEquals(20, deflated.getGraphics().size());
+        assertNotNull(deflated.getGraphics().getOMGraphicWithId("t19"));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.link;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import junit.framework.TestCase;
+
+public class LinkServerSelectorTest extends TestCase {
+
+    LinkServerSelector selector;
+
+    protected void setUp()
+            throws Exception {
+        selector = new LinkServerSelector(0, new TestServerStarter(0));
+        selector.open();
+        new Thread(selector).start();
+    }
+
+    protected void tearDown()
+            throws Exception {
+        selector.close();
+    }
+
+    public void testPooledClients()
+            throws Exception {
+        LinkManager linkManager = new LinkManager("localhost", selector.getLocalPort());
+        linkManager.setMaxLinks(3);
+        LinkLoadTest test = new LinkLoadTest(linkManager, 6, 10);
+        test.run();
+        linkManager.resetLink();
+
+        assertEquals(0, test.getFailed());
+        assertEquals(60, test.getCompleted());
+        assertTrue(test.getGraphicsCount() > 0);
+    }
+
+    public void testSplitRequests()
+            throws Exception {
+        // A ping and a map request, sent a few bytes at a time.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Link writer = new Link(new ByteArrayInputStream(new byte[0]), bytes);
+        writer.start(Link.PING_REQUEST_HEADER);
+        writer.end(Link.END_TOTAL);
+        LinkMapRequest.write(0f, 0f, 5.0E7f, 480, 640, new LinkBoundingPoly[] {
+            new LinkBoundingPoly(-180.0f, -90f, 180f, 90f)
+        }, new LinkProperties(), writer);
+        byte[] request = bytes.toByteArray();
+
+        Socket socket = new Socket("localhost", selector.getLocalPort());
+        try {
+            socket.setTcpNoDelay(true);
+            ClientLink link = new ClientLink(socket);
+            OutputStream out = socket.getOutputStream();
+            for (int i = 0; i < request.length; i += 7) {
+                out.write(request, i, Math.min(7, request.length - i));
+                out.flush();
+                Thread.sleep(2);
+            }
+
+            // The ping response, then huh because the TestLinkServer
+            // doesn't answer pings itself, then the graphics.
+            link.readAndParse();
+            assertNull(link.getGraphicList());
+            link.readAndParse();
+            assertNull(link.getGraphicList());
+            link.readAndParse();
+            assertNotNull(link.getGraphicList());
+            assertTrue(link.getGraphicList().getGraphics().size() > 0);
+        } finally {
+            socket.close();
+        }
+    }
+}
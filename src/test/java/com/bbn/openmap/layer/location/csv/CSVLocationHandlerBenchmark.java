@@ -0,0 +1,97 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.location.csv;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.Properties;
+import java.util.Random;
+
+import com.bbn.openmap.omGraphics.OMGraphicList;
+
+/**
+ * Times how long a CSVLocationHandler takes to be ready, loading a generated
+ * gazetteer into the QuadTree, reading it into a packed index and writing the
+ * index file, and mapping the index file:
+ *
+ * <pre>
+ * java -Xmx4g com.bbn.openmap.layer.location.csv.CSVLocationHandlerBenchmark [-rows 2000000]
+ * </pre>
+ *
+ * Each time includes a first query over a small area.
+ */
+public class CSVLocationHandlerBenchmark {
+
+    protected int rows = 2000000;
+
+    public static void main(String[] args)
+            throws Exception {
+        CSVLocationHandlerBenchmark bench = new CSVLocationHandlerBenchmark();
+        for (int i = 0; i < args.length - 1; i += 2) {
+            if (args[i].equals("-rows")) {
+                bench.rows = Integer.parseInt(args[i + 1]);
+            }
+        }
+        bench.run();
+    }
+
+    /**
+     * Uses the QuadTree, the way every CSVLocationHandler used to.
+     */
+    static class QuadTreeHandler
+            extends CSVLocationHandler {
+        protected boolean usePackedIndex() {
+            return false;
+        }
+    }
+
+    protected void run()
+            throws Exception {
+        File csvFile = File.createTempFile("gazetteer", ".csv");
+        File indexFile = new File(csvFile.getPath() + ".idx");
+        try {
+            Random random = new Random(24);
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(csvFile)));
+            out.println("name,country,lat,lon,population");
+            for (int i = 0; i < rows; i++) {
+                double lat = Math.max(-90, Math.min(90, random.nextGaussian() * 30));
+                double lon = random.nextDouble() * 360 - 180;
+                out.println("Place " + i + ",XX," + (float) lat + "," + (float) lon + "," + random.nextInt(100000));
+            }
+            out.close();
+            System.out.println(rows + " rows, " + csvFile.length() / (1024 * 1024) + " MB");
+
+            time("QuadTree", csvFile, null, new QuadTreeHandler());
+            time("packed, write index", csvFile, indexFile, new CSVLocationHandler());
+            System.out.println("  index file " + indexFile.length() / (1024 * 1024) + " MB");
+            time("map index file", csvFile, indexFile, new CSVLocationHandler());
+        } finally {
+            csvFile.delete();
+            indexFile.delete();
+        }
+    }
+
+    protected void time(String label, File csvFile, File indexFile, CSVLocationHandler handler) {
+        Properties props = new Properties();
+        props.setProperty("csv.locationFile", csvFile.getPath());
+        if (indexFile != null) {
+            props.setProperty("csv.indexFile", indexFile.getPath());
+        }
+        props.setProperty("csv.csvFileHasHeader", "true");
+        props.setProperty("csv.nameIndex", "0");
+        props.setProperty("csv.latIndex", "2");
+        props.setProperty("csv.lonIndex", "3");
+        handler.setProperties("csv", props);
+
+        System.gc();
+        long start = System.nanoTime();
+        OMGraphicList list = handler.get(43f, -72f, 41f, -70f, null);
+        long ready = System.nanoTime() - start;
+        System.out.println(String.format("  %-22s %10d ms, %d locations in view", label, ready / 1000000, list.size()));
+    }
+}
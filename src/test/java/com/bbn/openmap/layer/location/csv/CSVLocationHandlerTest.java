@@ -0,0 +1,201 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.location.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.layer.location.Location;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+
+public class CSVLocationHandlerTest extends TestCase {
+
+    File csvFile;
+    File indexFile;
+
+    protected void setUp()
+            throws Exception {
+        csvFile = File.createTempFile("locations", ".csv");
+        indexFile = new File(csvFile.getPath() + ".idx");
+
+        Random random = new Random(24);
+        PrintWriter out = new PrintWriter(new FileWriter(csvFile));
+        out.println("name,type,lat,lon");
+        for (int i = 0; i < 2000; i++) {
+            double lat = random.nextDouble() * 180 - 90;
+            double lon = random.nextDouble() * 360 - 180;
+            String name = i % 10 == 0 ? "\"Place " + i + ", \"\"quoted\"\"\"" : "Place " + i;
+            out.println(name + ",town," + lat + "," + lon);
+        }
+        out.println("Bad,town,north,west");
+        out.close();
+    }
+
+    protected void tearDown() {
+        csvFile.delete();
+        indexFile.delete();
+    }
+
+    static Set<Integer> search(PackedPointIndex index, float north, float west, float south, float east) {
+        final Set<Integer> found = new HashSet<Integer>();
+        index.search(north, west, south, east, new PackedPointIndex.Visitor() {
+            public void visit(int position) {
+                assertTrue(found.add(position));
+            }
+        });
+        return found;
+    }
+
+    static Set<Integer> scan(PackedPointIndex index, float north, float west, float south, float east) {
+        Set<Integer> found = new HashSet<Integer>();
+        for (int i = 0; i < index.size(); i++) {
+            float lat = index.getLat(i);
+            float lon = index.getLon(i);
+            boolean inLon = west > east ? lon >= west || lon <= east : lon >= west && lon <= east;
+            if (lat >= south && lat <= north && inLon) {
+                found.add(i);
+            }
+        }
+        return found;
+    }
+
+    public void testPackedPointIndex()
+            throws Exception {
+        Random random = new Random(3);
+        int count = 20000;
+        float[] lats = new float[count];
+        float[] lons = new float[count];
+        for (int i = 0; i < count; i++) {
+            // Clustered, with some duplicates.
+            lats[i] = i % 100 == 0 ? 10f : (float) (random.nextGaussian() * 20);
+            lons[i] = i % 100 == 0 ? 20f : (float) (random.nextDouble() * 360 - 180);
+        }
+
+        PackedPointIndex index = PackedPointIndex.pack(lats, lons, count, 8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.write(new DataOutputStream(bytes));
+        PackedPointIndex read = PackedPointIndex.read(ByteBuffer.wrap(bytes.toByteArray()));
+
+        Set<Integer> items = new HashSet<Integer>();
+        for (int i = 0; i < count; i++) {
+            int item = index.getItem(i);
+            assertTrue(items.add(item));
+            assertEquals(lats[item], index.getLat(i));
+            assertEquals(lons[item], read.getLon(i));
+        }
+
+        for (int q = 0; q < 200; q++) {
+            float south = (float) (random.nextDouble() * 180 - 90);
+            float north = Math.min(90, south + (float) (random.nextDouble() * 40));
+            float west = (float) (random.nextDouble() * 360 - 180);
+            float east = (float) (random.nextDouble() * 360 - 180);
+            if (q % 2 == 0) {
+                east = Math.min(180, west + (float) (random.nextDouble() * 40));
+            }
+            Set<Integer> expected = scan(index, north, west, south, east);
+            assertEquals(expected, search(index, north, west, south, east));
+            assertEquals(expected, search(read, north, west, south, east));
+        }
+
+        assertEquals(count, search(index, 90, -180, -90, -180).size());
+        assertEquals(count / 100, search(read, 10, 20, 10, 20).size());
+        assertEquals(0, search(PackedPointIndex.pack(lats, lons, 0, 8), 90, -180, -90, 180).size());
+        assertEquals(1, search(PackedPointIndex.pack(lats, lons, 1, 8), 90, -180, -90, 180).size());
+    }
+
+    CSVLocationHandler createHandler() {
+        Properties props = new Properties();
+        props.setProperty("csv.locationFile", csvFile.getPath());
+        props.setProperty("csv.indexFile", indexFile.getPath());
+        props.setProperty("csv.csvFileHasHeader", "true");
+        props.setProperty("csv.nameIndex", "0");
+        props.setProperty("csv.latIndex", "2");
+        props.setProperty("csv.lonIndex", "3");
+        CSVLocationHandler handler = new CSVLocationHandler();
+        handler.setProperties("csv", props);
+        return handler;
+    }
+
+    Set<String> names(OMGraphicList list) {
+        Set<String> names = new HashSet<String>();
+        for (Iterator it = list.iterator(); it.hasNext();) {
+            names.add(((Location) it.next()).getName());
+        }
+        return names;
+    }
+
+    public void testHandlerIndexFile() {
+        CSVLocationHandler handler = createHandler();
+        OMGraphicList all = handler.get(90f, -180f, -90f, 180f, null);
+        assertEquals(2000, all.size());
+        Set<String> names = names(all);
+        assertTrue(names.contains("Place 5"));
+        assertTrue(names.contains("Place 10, \"quoted\""));
+        assertTrue(indexFile.isFile());
+        assertFalse(handler.locationIndex.strings.isDirect());
+
+        // The same Location objects come back.
+        OMGraphicList some = handler.get(40f, -20f, 10f, 30f, null);
+        assertTrue(some.size() > 0 && some.size() < 2000);
+        for (Iterator it = some.iterator(); it.hasNext();) {
+            Location loc = (Location) it.next();
+            assertTrue(all.contains(loc));
+            assertTrue(loc.lat <= 40f && loc.lat >= 10f && loc.lon >= -20f && loc.lon <= 30f);
+        }
+
+        // A new handler maps the index file.
+        CSVLocationHandler mapped = createHandler();
+        OMGraphicList mappedSome = mapped.get(40f, -20f, 10f, 30f, null);
+        assertTrue(mapped.locationIndex.strings.isDirect());
+        assertEquals(names(some), names(mappedSome));
+
+        // Changing the settings makes the index file out of date.
+        mapped.latIndex = 3;
+        mapped.lonIndex = 2;
+        mapped.reloadData();
+        assertFalse(mapped.locationIndex.strings.isDirect());
+    }
+
+    public void testSourceKeyForJarResource()
+            throws Exception {
+        File jar = File.createTempFile("locations", ".jar");
+        try {
+            ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+            out.putNextEntry(new ZipEntry("locations.csv"));
+            out.write(Files.readAllBytes(csvFile.toPath()));
+            out.close();
+            jar.setLastModified(1000000000000L);
+
+            CSVLocationHandler handler = createHandler();
+            URL url = new URL("jar:" + jar.toURI() + "!/locations.csv");
+            String key = handler.getSourceKey(url);
+            assertNotNull(key);
+            assertEquals(key, handler.getSourceKey(url));
+
+            // Replacing the jar makes the index file out of date.
+            jar.setLastModified(1100000000000L);
+            assertFalse(key.equals(handler.getSourceKey(url)));
+        } finally {
+            jar.delete();
+        }
+    }
+}
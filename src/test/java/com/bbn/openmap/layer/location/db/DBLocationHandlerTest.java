@@ -0,0 +1,395 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.location.db;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.layer.location.Location;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.util.ConnectionPool;
+
+public class DBLocationHandlerTest extends TestCase {
+
+    static final String VIEW_QUERY = "select CITY, STATE, GRAPHIC, LATITUDE, LONGITUDE from LOCATIONS"
+            + " where LATITUDE between ? and ? and LONGITUDE between ? and ?";
+    static final String ALL_QUERY = "select CITY, STATE, GRAPHIC, LATITUDE, LONGITUDE from LOCATIONS";
+
+    /**
+     * A database in memory, with a LOCATIONS table and an IMAGES table, that
+     * understands the queries above and the image lookup. Enough of JDBC is
+     * faked with proxies to watch what the handler does with it.
+     */
+    static class FakeDriver
+            implements Driver {
+
+        static final String URL = "jdbc:openmapfake:";
+        static final FakeDriver driver = new FakeDriver();
+        static {
+            try {
+                DriverManager.registerDriver(driver);
+            } catch (SQLException sqle) {
+                throw new RuntimeException(sqle);
+            }
+        }
+
+        List<Object[]> rows = new ArrayList<Object[]>();
+        byte[] image;
+        AtomicInteger connects = new AtomicInteger();
+        AtomicInteger queries = new AtomicInteger();
+        AtomicInteger imageQueries = new AtomicInteger();
+        List<Object[]> boundParameters = new ArrayList<Object[]>();
+        int fetchSize;
+        /** Whether autocommit was on when each view query was prepared. */
+        List<Boolean> viewAutoCommit = new ArrayList<Boolean>();
+        AtomicInteger rollbacks = new AtomicInteger();
+        volatile CountDownLatch executing;
+        volatile CountDownLatch cancelled;
+
+        public Connection connect(String url, Properties info) {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            connects.incrementAndGet();
+            return (Connection) proxy(Connection.class, new InvocationHandler() {
+                boolean closed;
+                boolean autoCommit = true;
+
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if (name.equals("prepareStatement")) {
+                        if (((String) args[0]).contains("between")) {
+                            viewAutoCommit.add(autoCommit);
+                        }
+                        return statement((String) args[0]);
+                    } else if (name.equals("close")) {
+                        closed = true;
+                    } else if (name.equals("isClosed")) {
+                        return closed;
+                    } else if (name.equals("isValid")) {
+                        return !closed;
+                    } else if (name.equals("getAutoCommit")) {
+                        return autoCommit;
+                    } else if (name.equals("setAutoCommit")) {
+                        autoCommit = (Boolean) args[0];
+                    } else if (name.equals("rollback")) {
+                        rollbacks.incrementAndGet();
+                    }
+                    return null;
+                }
+            });
+        }
+
+        PreparedStatement statement(final String sql) {
+            final Object[] parameters = new Object[4];
+            return (PreparedStatement) proxy(PreparedStatement.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                        throws SQLException {
+                    String name = method.getName();
+                    if (name.equals("setObject") || name.equals("setString")) {
+                        parameters[(Integer) args[0] - 1] = args[1];
+                    } else if (name.equals("setFetchSize")) {
+                        fetchSize = (Integer) args[0];
+                    } else if (name.equals("cancel")) {
+                        if (cancelled != null) {
+                            cancelled.countDown();
+                        }
+                    } else if (name.equals("executeQuery")) {
+                        return execute(sql, parameters.clone());
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ResultSet execute(String sql, Object[] parameters)
+                throws SQLException {
+            final List<Object[]> result = new ArrayList<Object[]>();
+            if (sql.contains("IMAGES")) {
+                imageQueries.incrementAndGet();
+                if ("image".equals(parameters[0])) {
+                    result.add(new Object[] { image });
+                }
+            } else {
+                queries.incrementAndGet();
+                boolean view = sql.contains("between");
+                if (view) {
+                    boundParameters.add(parameters);
+                }
+                for (Object[] row : rows) {
+                    float lat = (Float) row[3];
+                    float lon = (Float) row[4];
+                    if (!view
+                            || (lat >= (Float) parameters[0] && lat <= (Float) parameters[1] && lon >= (Float) parameters[2] && lon <= (Float) parameters[3])) {
+                        result.add(row);
+                    }
+                }
+            }
+
+            final CountDownLatch block = cancelled;
+            if (executing != null) {
+                executing.countDown();
+            }
+            if (block != null) {
+                // Work on the query until it's cancelled, the way a server
+                // filtering a big table or buffering the result does.
+                try {
+                    if (block.await(10, TimeUnit.SECONDS)) {
+                        throw new SQLException("Query cancelled");
+                    }
+                } catch (InterruptedException e) {
+                    throw new SQLException("Query interrupted");
+                }
+            }
+
+            return (ResultSet) proxy(ResultSet.class, new InvocationHandler() {
+                int row = -1;
+
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if (name.equals("next")) {
+                        return ++row < result.size();
+                    } else if (name.equals("getString")) {
+                        return (String) result.get(row)[(Integer) args[0] - 1];
+                    } else if (name.equals("getFloat")) {
+                        return result.get(row)[(Integer) args[0] - 1];
+                    } else if (name.equals("getBinaryStream")) {
+                        return new ByteArrayInputStream((byte[]) result.get(row)[(Integer) args[0] - 1]);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        static Object proxy(Class<?> c, InvocationHandler handler) {
+            return Proxy.newProxyInstance(DBLocationHandlerTest.class.getClassLoader(), new Class[] { c }, handler);
+        }
+
+        public boolean acceptsURL(String url) {
+            return url.startsWith(URL);
+        }
+
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        public java.util.logging.Logger getParentLogger() {
+            return null;
+        }
+    }
+
+    static AtomicInteger databases = new AtomicInteger();
+
+    FakeDriver db;
+    String url;
+
+    protected void setUp()
+            throws Exception {
+        db = FakeDriver.driver;
+        db.rows.clear();
+        db.boundParameters.clear();
+        db.viewAutoCommit.clear();
+        db.rollbacks.set(0);
+        db.connects.set(0);
+        db.queries.set(0);
+        db.imageQueries.set(0);
+        db.executing = null;
+        db.cancelled = null;
+        // A new URL for each test, so each gets its own pool.
+        url = FakeDriver.URL + databases.incrementAndGet();
+
+        Random random = new Random(25);
+        BufferedImage bi = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < 64 * 64; i++) {
+            bi.setRGB(i % 64, i / 64, random.nextInt());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(bi, "png", bytes);
+        db.image = bytes.toByteArray();
+
+        for (int i = 0; i < 1000; i++) {
+            db.rows.add(new Object[] { "City " + i, "ST", i % 2 == 0 ? "image" : null,
+                    (float) (random.nextDouble() * 180 - 90), (float) (random.nextDouble() * 360 - 180) });
+        }
+    }
+
+    DBLocationHandler createHandler(String viewQuery) {
+        Properties props = new Properties();
+        props.setProperty("db.jdbcString", url);
+        props.setProperty("db.userName", "user");
+        props.setProperty("db.userPassword", "secret");
+        props.setProperty("db.locationQueryString", ALL_QUERY);
+        if (viewQuery != null) {
+            props.setProperty("db.locationViewQueryString", viewQuery);
+        }
+        props.setProperty("db.fetchSize", "100");
+        props.setProperty("db." + RawDataRecordSet.tableNameProperty, "IMAGES");
+        props.setProperty("db." + RawDataRecordSet.rawDataColumnNameProperty, "IMG");
+        props.setProperty("db." + RawDataRecordSet.rawDataKeyColumnNameProperty, "NAME");
+        DBLocationHandler handler = new DBLocationHandler();
+        handler.setProperties("db", props);
+        return handler;
+    }
+
+    Set<String> names(OMGraphicList list) {
+        Set<String> names = new HashSet<String>();
+        for (Iterator it = list.iterator(); it.hasNext();) {
+            names.add(((Location) it.next()).getName());
+        }
+        return names;
+    }
+
+    Set<String> expected(float north, float west, float south, float east) {
+        Set<String> names = new HashSet<String>();
+        for (Object[] row : db.rows) {
+            float lat = (Float) row[3];
+            float lon = (Float) row[4];
+            boolean inLon = west > east ? lon >= west || lon <= east : lon >= west && lon <= east;
+            if (lat >= south && lat <= north && inLon) {
+                names.add((String) row[0]);
+            }
+        }
+        return names;
+    }
+
+    public void testViewQuery()
+            throws Exception {
+        DBLocationHandler handler = createHandler(VIEW_QUERY);
+
+        OMGraphicList list = handler.get(40f, -20f, 10f, 30f, null);
+        assertEquals(expected(40f, -20f, 10f, 30f), names(list));
+        assertEquals(1, db.boundParameters.size());
+        Object[] parameters = db.boundParameters.get(0);
+        assertEquals(10f, parameters[0]);
+        assertEquals(40f, parameters[1]);
+        assertEquals(-20f, parameters[2]);
+        assertEquals(30f, parameters[3]);
+        assertEquals(100, db.fetchSize);
+        // Autocommit is off for the query, so PostgreSQL uses the fetch
+        // size, and it's rolled back when the connection goes back.
+        assertEquals(Boolean.FALSE, db.viewAutoCommit.get(0));
+        assertEquals(1, db.rollbacks.get());
+
+        // Across the dateline, both sides are asked for.
+        list = handler.get(20f, 150f, -20f, -150f, null);
+        assertEquals(expected(20f, 150f, -20f, -150f), names(list));
+        assertEquals(3, db.boundParameters.size());
+
+        // One connection, from the pool, and each image only fetched once.
+        assertEquals(1, db.connects.get());
+        assertEquals(1, db.imageQueries.get());
+        assertEquals(1, ConnectionPool.get(null, url, "user", "secret").getIdleCount());
+    }
+
+    public void testQuadTreeWithoutViewQuery() {
+        DBLocationHandler handler = createHandler(null);
+        assertEquals(expected(40f, -20f, 10f, 30f), names(handler.get(40f, -20f, 10f, 30f, null)));
+        assertEquals(expected(60f, 0f, -10f, 90f), names(handler.get(60f, 0f, -10f, 90f, null)));
+        assertEquals(1, db.queries.get());
+        assertEquals(0, db.boundParameters.size());
+    }
+
+    public void testRawData()
+            throws Exception {
+        assertTrue(db.image.length > 4096);
+        Connection connection = ConnectionPool.get(null, url, null, null).getConnection();
+        RawDataRecordSet rawData = new RawDataRecordSet(connection);
+        rawData.setTableName("IMAGES");
+        rawData.setRawDataColumnName("IMG");
+        rawData.setRawDataKeyColumnName("NAME");
+        byte[] bytes = rawData.getRawData("Image");
+        assertTrue(java.util.Arrays.equals(db.image, bytes));
+        assertSame(bytes, rawData.getRawData("image"));
+        assertNull(rawData.getRawData("missing"));
+        assertEquals(2, db.imageQueries.get());
+        rawData.close();
+        connection.close();
+    }
+
+    public void testCancel()
+            throws Exception {
+        final DBLocationHandler handler = createHandler(VIEW_QUERY);
+        db.executing = new CountDownLatch(1);
+        db.cancelled = new CountDownLatch(1);
+
+        final OMGraphicList[] result = new OMGraphicList[1];
+        Thread thread = new Thread() {
+            public void run() {
+                result[0] = handler.get(90f, -180f, -90f, 180f, null);
+            }
+        };
+        thread.start();
+
+        // Cancel while the database is still running the query.
+        assertTrue(db.executing.await(10, TimeUnit.SECONDS));
+        long start = System.currentTimeMillis();
+        handler.cancel();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(0, result[0].size());
+        assertNull(handler.activeQuery);
+
+        // The connection went back to the pool, and still works.
+        db.executing = null;
+        db.cancelled = null;
+        assertEquals(expected(40f, -20f, 10f, 30f), names(handler.get(40f, -20f, 10f, 30f, null)));
+        assertEquals(1, db.connects.get());
+
+        // A cancel before the query runs keeps it from running.
+        Connection connection = ConnectionPool.get(null, url, null, null).getConnection();
+        RecordSet recordSet = new RecordSet(connection);
+        recordSet.setQueryString(VIEW_QUERY);
+        recordSet.setParameters(new Object[] { 0f, 1f, 0f, 1f });
+        recordSet.cancel();
+        int queries = db.queries.get();
+        try {
+            recordSet.getAllQuery();
+            fail("cancelled query ran");
+        } catch (SQLException expected) {
+        }
+        assertEquals(queries, db.queries.get());
+        recordSet.close();
+        connection.close();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.mysql;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class MysqlWKBGeometryFactoryTest extends TestCase {
+
+    /**
+     * Writes WKB, switching byte order for every geometry so nested ones get
+     * tested both ways. Each header sets the order for the rest of its
+     * geometry.
+     */
+    static class WKBWriter {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        boolean little;
+
+        WKBWriter(boolean little) {
+            this.little = little;
+        }
+
+        WKBWriter header(int type) {
+            buffer.order(little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+            buffer.put((byte) (little ? 1 : 0));
+            buffer.putInt(type);
+            little = !little;
+            return this;
+        }
+
+        WKBWriter count(int count) {
+            buffer.putInt(count);
+            return this;
+        }
+
+        WKBWriter points(double... xy) {
+            buffer.putInt(xy.length / 2);
+            for (double d : xy) {
+                buffer.putDouble(d);
+            }
+            return this;
+        }
+
+        WKBWriter point(double x, double y) {
+            header(MysqlWKBGeometryFactory.WKB_POINT);
+            buffer.putDouble(x);
+            buffer.putDouble(y);
+            return this;
+        }
+
+        WKBWriter line(double... xy) {
+            header(MysqlWKBGeometryFactory.WKB_LINESTRING);
+            return points(xy);
+        }
+
+        byte[] bytes() {
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    static void assertSameGeometry(MysqlGeometry expected, MysqlGeometry actual) {
+        assertEquals(expected.getType(), actual.getType());
+        if (expected instanceof MysqlPoint) {
+            assertEquals(((MysqlPoint) expected).getNorthings(), ((MysqlPoint) actual).getNorthings(), 0);
+            assertEquals(((MysqlPoint) expected).getEastings(), ((MysqlPoint) actual).getEastings(), 0);
+        } else if (expected instanceof MysqlLine) {
+            assertTrue(Arrays.equals(((MysqlLine) expected).getCoordinateArray(), ((MysqlLine) actual).getCoordinateArray()));
+        } else if (expected instanceof MysqlPolygon) {
+            assertEquals(((MysqlPolygon) expected).getRings().size(), ((MysqlPolygon) actual).getRings().size());
+            for (int i = 0; i < ((MysqlPolygon) expected).getRings().size(); i++) {
+                assertTrue(Arrays.equals((double[]) ((MysqlPolygon) expected).getRings().get(i),
+                                         (double[]) ((MysqlPolygon) actual).getRings().get(i)));
+            }
+        } else {
+            MysqlMulti e = (MysqlMulti) expected;
+            MysqlMulti a = (MysqlMulti) actual;
+            assertEquals(e.countElements(), a.countElements());
+            for (int i = 0; i < e.countElements(); i++) {
+                assertSameGeometry(e.getElementByIndex(i), a.getElementByIndex(i));
+            }
+        }
+    }
+
+    void check(String wkt, WKBWriter wkb) {
+        MysqlGeometry expected = MysqlWKTGeometryFactory.createGeometry(wkt);
+        assertSameGeometry(expected, MysqlWKBGeometryFactory.createGeometry(wkb.bytes()));
+    }
+
+    public void testMatchesWKT() {
+        for (boolean little : new boolean[] { true, false }) {
+            check("POINT(-71.5 42.25)", new WKBWriter(little).point(-71.5, 42.25));
+            check("LINESTRING(0 0,10.5 20,-30 40.125)", new WKBWriter(little).line(0, 0, 10.5, 20, -30, 40.125));
+
+            WKBWriter polygon = new WKBWriter(little).header(MysqlWKBGeometryFactory.WKB_POLYGON);
+            polygon.count(2).points(0, 0, 10, 0, 10, 10, 0, 10, 0, 0).points(2, 2, 4, 2, 4, 4, 2, 2);
+            check("POLYGON((0 0,10 0,10 10,0 10,0 0),(2 2,4 2,4 4,2 2))", polygon);
+
+            WKBWriter multiPoint = new WKBWriter(little).header(MysqlWKBGeometryFactory.WKB_MULTIPOINT);
+            multiPoint.count(2).point(1, 2).point(3, 4);
+            check("MULTIPOINT(1 2,3 4)", multiPoint);
+
+            WKBWriter multiLine = new WKBWriter(little).header(MysqlWKBGeometryFactory.WKB_MULTILINESTRING);
+            multiLine.count(2).line(0, 0, 1, 1).line(5, 5, 6, 7, 8, 9);
+            check("MULTILINESTRING((0 0,1 1),(5 5,6 7,8 9))", multiLine);
+
+            WKBWriter multiPolygon = new WKBWriter(little).header(MysqlWKBGeometryFactory.WKB_MULTIPOLYGON);
+            multiPolygon.count(2);
+            multiPolygon.header(MysqlWKBGeometryFactory.WKB_POLYGON);
+            multiPolygon.count(1).points(0, 0, 1, 0, 1, 1, 0, 0);
+            multiPolygon.header(MysqlWKBGeometryFactory.WKB_POLYGON);
+            multiPolygon.count(1).points(5, 5, 6, 5, 6, 6, 5, 5);
+            check("MULTIPOLYGON(((0 0,1 0,1 1,0 0)),((5 5,6 5,6 6,5 5)))", multiPolygon);
+        }
+    }
+
+    public void testCollection() {
+        WKBWriter wkb = new WKBWriter(true).header(MysqlWKBGeometryFactory.WKB_GEOMETRYCOLLECTION);
+        wkb.count(2).point(3, 4).line(0, 0, 1, 1);
+
+        MysqlCollection collection = (MysqlCollection) MysqlWKBGeometryFactory.createGeometry(wkb.bytes());
+        assertEquals(2, collection.countElements());
+        MysqlPoint point = (MysqlPoint) collection.getElementByIndex(0);
+        assertEquals(3.0, point.getEastings(), 0);
+        assertEquals(4.0, point.getNorthings(), 0);
+        assertTrue(Arrays.equals(new double[] { 0, 0, 1, 1 },
+                                 ((MysqlLine) collection.getElementByIndex(1)).getCoordinateArray()));
+    }
+
+    public void testBadBytes() {
+        assertNull(MysqlWKBGeometryFactory.createGeometry((byte[]) null));
+        byte[] point = new WKBWriter(false).point(1, 2).bytes();
+        try {
+            MysqlWKBGeometryFactory.createGeometry(Arrays.copyOf(point, point.length - 3));
+            fail("short geometry");
+        } catch (IllegalArgumentException iae) {
+        }
+        WKBWriter line = new WKBWriter(false).header(MysqlWKBGeometryFactory.WKB_LINESTRING);
+        line.count(1000000).buffer.putDouble(1).putDouble(2);
+        try {
+            MysqlWKBGeometryFactory.createGeometry(line.bytes());
+            fail("bad point count");
+        } catch (IllegalArgumentException iae) {
+        }
+        WKBWriter polygon = new WKBWriter(true).header(MysqlWKBGeometryFactory.WKB_POLYGON);
+        polygon.count(Integer.MAX_VALUE).points(0, 0, 1, 0, 0, 1, 0, 0);
+        try {
+            MysqlWKBGeometryFactory.createGeometry(polygon.bytes());
+            fail("bad ring count");
+        } catch (IllegalArgumentException iae) {
+        }
+        WKBWriter multi = new WKBWriter(true).header(MysqlWKBGeometryFactory.WKB_MULTIPOINT);
+        multi.count(Integer.MAX_VALUE).point(1, 2);
+        try {
+            MysqlWKBGeometryFactory.createGeometry(multi.bytes());
+            fail("bad element count");
+        } catch (IllegalArgumentException iae) {
+        }
+        try {
+            MysqlWKBGeometryFactory.createGeometry(new WKBWriter(true).header(99).bytes());
+            fail("unknown type");
+        } catch (IllegalArgumentException iae) {
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.rpf;
+
+import java.awt.Point;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.proj.LLXY;
+import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+import com.bbn.openmap.util.TaskService;
+
+public class RpfCacheHandlerTest extends TestCase {
+
+    static final double INTERVAL = .25;
+
+    /**
+     * One coverage box from 0, 0 to 10N, 10E, 40x40 subframes, one of them
+     * missing.
+     */
+    static class TestProvider implements RpfFrameProvider {
+        final AtomicInteger decodes = new AtomicInteger();
+        final Point missing = new Point(5, 25);
+
+        public boolean needViewAttributeUpdates() {
+            return false;
+        }
+
+        public void setViewAttributes(RpfViewAttributes rva) {
+        }
+
+        public Vector<RpfCoverageBox> getCoverage(float ullat, float ullon, float lrlat, float lrlon, Projection p) {
+            RpfCoverageBox box = new RpfCoverageBox();
+            box.nw_lat = 10;
+            box.nw_lon = 0;
+            box.se_lat = 0;
+            box.se_lon = 10;
+            box.subframeLatInterval = INTERVAL;
+            box.subframeLonInterval = INTERVAL;
+            box.startIndexes = new Point((int) (ullon / INTERVAL), (int) ((10 - ullat) / INTERVAL));
+            box.endIndexes = new Point((int) (lrlon / INTERVAL), (int) ((10 - lrlat) / INTERVAL));
+            Vector<RpfCoverageBox> ret = new Vector<RpfCoverageBox>();
+            ret.add(box);
+            return ret;
+        }
+
+        public Vector<RpfCoverageBox> getCatalogCoverage(float ullat, float ullon, float lrlat, float lrlon,
+                                                         Projection p, String chartSeries) {
+            return getCoverage(ullat, ullon, lrlat, lrlon, p);
+        }
+
+        public float getCalculatedCoverage(float ullat, float ullon, float lrlat, float lrlon, Projection p,
+                                           String chartSeries) {
+            return 1f;
+        }
+
+        public int[] getSubframeData(int tocNumber, int entryNumber, int x, int y) {
+            decodes.incrementAndGet();
+            if (missing.x == x && missing.y == y) {
+                return null;
+            }
+            return new int[RpfSubframe.PIXEL_EDGE_SIZE * RpfSubframe.PIXEL_EDGE_SIZE];
+        }
+
+        public RpfIndexedImageData getRawSubframeData(int tocNumber, int entryNumber, int x, int y) {
+            return null;
+        }
+
+        public String getSubframeAttributes(int tocNumber, int entryNumber, int x, int y) {
+            return "";
+        }
+    }
+
+    Projection proj = new LLXY(new LatLonPoint.Double(5, 5), 10000000f, 640, 480);
+
+    OMGraphicList getSubframes(RpfCacheHandler rch, float west) {
+        return rch.getSubframes(4f, west, 3f, west + 1f, proj, null);
+    }
+
+    void waitForLoads(RpfCacheHandler rch)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (rch.getPendingLoads() > 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, rch.getPendingLoads());
+    }
+
+    public void testWaitsWithoutListener()
+            throws Exception {
+        TestProvider provider = new TestProvider();
+        RpfCacheHandler rch = new RpfCacheHandler(provider, new RpfViewAttributes());
+        rch.setPrefetchDepth(0);
+        rch.setMaxDecodeThreads(4);
+
+        // 1 degree square, 5x5 subframes with one missing.
+        OMGraphicList list = rch.getSubframes(4f, 1f, 3f, 2f, proj, null);
+        assertEquals(24, list.size());
+        assertEquals(25, provider.decodes.get());
+
+        // All cached, including the missing one.
+        list = rch.getSubframes(4f, 1f, 3f, 2f, proj, null);
+        assertEquals(24, list.size());
+        assertEquals(25, provider.decodes.get());
+
+        rch.clearCache();
+        list = rch.getSubframes(4f, 1f, 3f, 2f, proj, null);
+        assertEquals(24, list.size());
+        assertEquals(50, provider.decodes.get());
+    }
+
+    public void testListenerAndPrefetch()
+            throws Exception {
+        TestProvider provider = new TestProvider();
+        provider.missing.setLocation(-1, -1);
+        RpfCacheHandler rch = new RpfCacheHandler(provider, new RpfViewAttributes());
+        rch.setPrefetchDepth(2);
+        final CountDownLatch added = new CountDownLatch(25);
+        rch.setSubframeListener(new RpfCacheHandler.SubframeListener() {
+            public void subframeAdded(OMGraphicList list, OMGraphic image) {
+                added.countDown();
+            }
+        });
+
+        OMGraphicList list = getSubframes(rch, 1f);
+        assertTrue(added.await(10, TimeUnit.SECONDS));
+        assertEquals(25, list.size());
+        waitForLoads(rch);
+
+        // Pan east a subframe, the next two columns get loaded.
+        list = getSubframes(rch, 1.25f);
+        waitForLoads(rch);
+        assertEquals(25 + 5 + 10, provider.decodes.get());
+
+        // Pan again, everything comes from the cache right away.
+        list = getSubframes(rch, 1.5f);
+        assertEquals(25, list.size());
+
+        // A small cache doesn't get more than it can hold.
+        rch.setCacheBytes(10 * RpfCacheHandler.SUBFRAME_BYTES);
+        assertTrue(rch.cache.getBytes() <= rch.cache.getMaxBytes());
+        assertTrue(rch.cache.size() > 0);
+    }
+
+    public void testWaitingOnEveryTaskServiceThread()
+            throws Exception {
+        TaskService ts = TaskService.singleton();
+        int maxThreads = ts.getMaxThreads();
+        ts.setMaxThreads(2);
+        try {
+            // Both TaskService threads ask for subframes at the same time, so
+            // none are left for decoding.
+            final CountDownLatch arrived = new CountDownLatch(2);
+            final CountDownLatch done = new CountDownLatch(2);
+            final AtomicInteger sizes = new AtomicInteger();
+            for (int i = 0; i < 2; i++) {
+                final RpfCacheHandler rch = new RpfCacheHandler(new TestProvider() {
+                    public Vector<RpfCoverageBox> getCoverage(float ullat, float ullon, float lrlat, float lrlon,
+                                                              Projection p) {
+                        arrived.countDown();
+                        try {
+                            arrived.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                        }
+                        return super.getCoverage(ullat, ullon, lrlat, lrlon, p);
+                    }
+                }, new RpfViewAttributes());
+                rch.setPrefetchDepth(0);
+                ts.spawn(new Runnable() {
+                    public void run() {
+                        sizes.addAndGet(rch.getSubframes(4f, 1f, 3f, 2f, proj, null).size());
+                        done.countDown();
+                    }
+                });
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(48, sizes.get());
+        } finally {
+            ts.setMaxThreads(maxThreads);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.rpf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.proj.CADRG;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+public class RpfTileStoreTest extends TestCase {
+
+    static final int SIZE = 12;
+    static final int EDGE = RpfSubframe.PIXEL_EDGE_SIZE;
+
+    File file;
+
+    protected void setUp()
+            throws Exception {
+        file = File.createTempFile("rpftiles", ".tiles");
+    }
+
+    protected void tearDown()
+            throws Exception {
+        file.delete();
+    }
+
+    static int color(int x, int y) {
+        return 0xff000000 | (x * 16) << 16 | (y * 16) << 8 | 0x40;
+    }
+
+    /**
+     * 12x12 subframes of 1:500K, from 10N, 0E to 7N, 3E, with the southeast
+     * one missing.
+     */
+    void createStore()
+            throws Exception {
+        MakeRpfTileStore mrts = new MakeRpfTileStore(file.getPath());
+        int toc = mrts.addToc("test");
+        RpfTileStore.Entry entry = new RpfTileStore.Entry();
+        entry.scale = 500000f;
+        entry.scaleString = "1:500K";
+        entry.seriesCode = "TP";
+        entry.zone = '1';
+        entry.nwLat = 10;
+        entry.nwLon = 0;
+        entry.seLat = 7;
+        entry.seLon = 3;
+        entry.vertInterval = .25 / EDGE;
+        entry.horizInterval = .25 / EDGE;
+        entry.vertResolution = 100;
+        entry.horizResolution = 100;
+        entry.width = SIZE;
+        entry.height = SIZE;
+        mrts.addEntry(toc, entry);
+
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                if (x == SIZE - 1 && y == SIZE - 1) {
+                    continue;
+                }
+                mrts.writeTile(entry, x, y, new RpfTileStore.Tile(new int[] { color(x, y) }, new byte[EDGE * EDGE], "subframe "
+                        + x + ", " + y));
+            }
+        }
+        mrts.addOverviews(toc);
+        mrts.close();
+    }
+
+    public void testStore()
+            throws Exception {
+        createStore();
+        RpfTileStore store = new RpfTileStore(file.getPath());
+        try {
+            assertEquals(1, store.getNumTocs());
+            assertEquals("test", store.getSource(0));
+
+            // 12, 6, 3, 2, 1 subframes across.
+            RpfTileStore.Entry[] entries = store.getEntries(0);
+            assertEquals(5, entries.length);
+            assertEquals(6, entries[1].width);
+            assertEquals(1, entries[4].height);
+            assertEquals(4, entries[4].level);
+            assertEquals(0, entries[4].baseEntry);
+            assertEquals(2000000f, entries[2].scale);
+            assertEquals(7.0, entries[2].seLat, .0001);
+
+            RpfTileStore.Tile tile = store.getTile(0, 0, 3, 4);
+            assertEquals("subframe 3, 4", tile.attributes);
+            assertEquals(color(3, 4), tile.getRGB(1000));
+            assertNull(store.getTile(0, 0, SIZE - 1, SIZE - 1));
+            assertNull(store.getTile(0, 0, SIZE, 0));
+
+            tile = store.getTile(0, 1, 0, 0);
+            assertEquals(color(0, 0), tile.getRGB(10 * EDGE + 10));
+            assertEquals(color(1, 0), tile.getRGB(10 * EDGE + 200));
+            assertEquals(color(1, 1), tile.getRGB(200 * EDGE + 200));
+
+            // The missing subframe leaves a clear corner.
+            tile = store.getTile(0, 1, 5, 5);
+            assertEquals(color(10, 10), tile.getRGB(0));
+            assertEquals(0, tile.getRGB(EDGE * EDGE - 1) >>> 24);
+        } finally {
+            store.close();
+        }
+
+        try {
+            store.getTile(0, 0, 3, 4);
+            fail("read from a closed store");
+        } catch (IOException ioe) {
+            // Expected.
+        }
+    }
+
+    public void testFrameProvider()
+            throws Exception {
+        createStore();
+        RpfTileStoreFrameProvider provider = new RpfTileStoreFrameProvider(file.getPath());
+        try {
+            RpfViewAttributes rva = new RpfViewAttributes();
+            provider.setViewAttributes(rva);
+
+            CADRG proj = new CADRG(new LatLonPoint.Double(8.5, 1.5), 2000000f, 200, 200);
+            LatLonPoint ul = proj.getUpperLeft();
+            LatLonPoint lr = proj.getLowerRight();
+            Vector<RpfCoverageBox> boxes =
+                    provider.getCoverage(ul.getLatitude(), ul.getLongitude(), lr.getLatitude(), lr.getLongitude(), proj);
+            assertTrue(boxes.size() > 0);
+            RpfCoverageBox box = boxes.get(0);
+            assertEquals(2, box.entryNumber);
+            assertEquals(1.0, box.subframeLatInterval, .0001);
+
+            int[] pixels = provider.getSubframeData(0, 2, 0, 0);
+            assertEquals(EDGE * EDGE, pixels.length);
+            assertEquals(color(0, 0), pixels[0]);
+            assertEquals("subframe 3, 4", provider.getSubframeAttributes(0, 0, 3, 4));
+            assertNull(provider.getSubframeData(0, 0, SIZE - 1, SIZE - 1));
+
+            rva.opaqueness = 128;
+            RpfIndexedImageData riid = provider.getRawSubframeData(0, 0, 2, 2);
+            assertEquals(128, riid.colortable[riid.imageData[0]].getAlpha());
+        } finally {
+            provider.close();
+        }
+    }
+}
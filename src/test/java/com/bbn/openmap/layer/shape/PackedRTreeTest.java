@@ -0,0 +1,75 @@
+/* 
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.shape;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class PackedRTreeTest extends TestCase {
+
+    public void testEmptyTree() {
+        PackedRTree tree = new PackedRTree(0);
+        tree.finish();
+        assertEquals(0, tree.search(-180, -90, 180, 90).length);
+    }
+
+    public void testMatchesLinearScan() {
+        Random random = new Random(1234);
+        int[] sizes = new int[] { 1, 15, 16, 17, 257, 10000 };
+
+        for (int size : sizes) {
+            double[] boxes = new double[size * 4];
+            PackedRTree tree = new PackedRTree(size);
+            for (int i = 0; i < size; i++) {
+                double x = random.nextDouble() * 360 - 180;
+                double y = random.nextDouble() * 180 - 90;
+                // Mix points in with boxes, like point shape files.
+                double w = (i % 3 == 0) ? 0 : random.nextDouble() * 5;
+                double h = (i % 3 == 0) ? 0 : random.nextDouble() * 5;
+                boxes[i * 4] = x;
+                boxes[i * 4 + 1] = y;
+                boxes[i * 4 + 2] = x + w;
+                boxes[i * 4 + 3] = y + h;
+                assertEquals(i, tree.add(x, y, x + w, y + h));
+            }
+            tree.finish();
+
+            for (int q = 0; q < 50; q++) {
+                double xmin = random.nextDouble() * 360 - 180;
+                double ymin = random.nextDouble() * 180 - 90;
+                double xmax = xmin + random.nextDouble() * 60;
+                double ymax = ymin + random.nextDouble() * 30;
+
+                int[] expected = new int[size];
+                int count = 0;
+                for (int i = 0; i < size; i++) {
+                    if (SpatialIndex.intersects(xmin, ymin, xmax, ymax, boxes[i * 4], boxes[i * 4 + 1], boxes[i * 4 + 2],
+                                                boxes[i * 4 + 3])) {
+                        expected[count++] = i;
+                    }
+                }
+                expected = Arrays.copyOf(expected, count);
+
+                int[] found = tree.search(xmin, ymin, xmax, ymax);
+                Arrays.sort(found);
+                assertTrue("size " + size + ", query " + q, Arrays.equals(expected, found));
+            }
+        }
+    }
+
+    public void testAddAfterFinish() {
+        PackedRTree tree = new PackedRTree(1);
+        tree.add(0, 0, 1, 1);
+        tree.finish();
+        try {
+            tree.add(0, 0, 1, 1);
+            fail("should not be able to add to a finished tree");
+        } catch (IllegalStateException ise) {
+        }
+    }
+}
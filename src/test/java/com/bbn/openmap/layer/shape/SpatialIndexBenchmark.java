@@ -0,0 +1,135 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.shape;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import com.bbn.openmap.omGraphics.DrawingAttributes;
+
+/**
+ * Compares finding the SpatialIndex entries in a map view by checking every
+ * entry with finding them in the packed R-tree:
+ *
+ * <pre>
+ * java -Xmx4g com.bbn.openmap.layer.shape.SpatialIndexBenchmark [-sizes 10000,100000,1000000] [-queries 200] [-shp file.shp]
+ * </pre>
+ *
+ * For each number of entries, made up of small boxes spread over the world,
+ * the time to build the tree and the time per query for views of a few
+ * degrees are printed. With -shp, the time per getOMGraphics call for the same
+ * views of a real shape file is printed too, with and without the tree. Each
+ * lookup is run twice and the second time is printed, so the JIT has compiled
+ * it.
+ */
+public class SpatialIndexBenchmark {
+
+    protected int[] sizes = new int[] { 10000, 100000, 1000000 };
+    protected int queries = 200;
+    protected String shp = null;
+
+    public static void main(String[] args)
+            throws Exception {
+        SpatialIndexBenchmark bench = new SpatialIndexBenchmark();
+        for (int i = 0; i < args.length - 1; i += 2) {
+            if (args[i].equals("-sizes")) {
+                String[] s = args[i + 1].split(",");
+                bench.sizes = new int[s.length];
+                for (int j = 0; j < s.length; j++) {
+                    bench.sizes[j] = Integer.parseInt(s[j].trim());
+                }
+            } else if (args[i].equals("-queries")) {
+                bench.queries = Math.max(1, Integer.parseInt(args[i + 1]));
+            } else if (args[i].equals("-shp")) {
+                bench.shp = args[i + 1];
+            }
+        }
+        bench.runAll();
+    }
+
+    protected void runAll()
+            throws Exception {
+        Random random = new Random(42);
+        double[][] views = new double[queries][];
+        for (int q = 0; q < queries; q++) {
+            double x = -180 + random.nextDouble() * 350;
+            double y = -80 + random.nextDouble() * 150;
+            double d = 2 + random.nextDouble() * 8;
+            views[q] = new double[] { x, y, x + d, y + d };
+        }
+
+        System.out.println(String.format("  %-12s %10s %12s %14s %14s", "entries", "build ms", "found",
+                                         "linear us", "tree us"));
+        for (int size : sizes) {
+            List<SpatialIndex.Entry> entries = new ArrayList<SpatialIndex.Entry>(size);
+            for (int i = 0; i < size; i++) {
+                double x = -180 + random.nextDouble() * 359;
+                double y = -90 + random.nextDouble() * 179;
+                double d = random.nextDouble() * .5;
+                entries.add(new SpatialIndex.Entry(x, y, x + d, y + d, i));
+            }
+
+            SpatialIndex si = new SpatialIndex(null);
+            si.entries = entries;
+
+            si.setUseTree(true);
+            long start = System.nanoTime();
+            si.getTree();
+            long build = System.nanoTime() - start;
+            long tree = time(si, views);
+
+            si.setUseTree(false);
+            long found = count(si, views);
+            long linear = time(si, views);
+
+            System.out.println(String.format("  %-12d %10d %12d %14.1f %14.1f", size, build / 1000000,
+                                             found / queries, linear / 1000.0 / queries, tree / 1000.0 / queries));
+        }
+
+        if (shp != null) {
+            DrawingAttributes da = DrawingAttributes.getDefaultClone();
+            System.out.println(shp + ", getOMGraphics");
+            for (boolean useTree : new boolean[] { false, true }) {
+                SpatialIndex si = SpatialIndex.locateAndSetShapeData(shp);
+                si.setUseTree(useTree);
+                long elapsed = 0;
+                for (int pass = 0; pass < 2; pass++) {
+                    long start = System.nanoTime();
+                    for (double[] view : views) {
+                        si.getOMGraphics(view[0], view[1], view[2], view[3], null, da, null, null);
+                    }
+                    elapsed = System.nanoTime() - start;
+                }
+                System.out.println(String.format("  %-12s %14.1f us", useTree ? "tree" : "linear", elapsed / 1000.0
+                        / queries));
+            }
+        }
+    }
+
+    protected long count(SpatialIndex si, double[][] views)
+            throws Exception {
+        long found = 0;
+        for (double[] view : views) {
+            for (Iterator<SpatialIndex.Entry> it = si.entryIterator(view[0], view[1], view[2], view[3], null); it.hasNext(); it.next()) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    protected long time(SpatialIndex si, double[][] views)
+            throws Exception {
+        long elapsed = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            count(si, views);
+            elapsed = System.nanoTime() - start;
+        }
+        return elapsed;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.shape;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.omGraphics.DrawingAttributes;
+import com.bbn.openmap.proj.coords.AbstractGCT;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+public class SpatialIndexTest extends TestCase {
+
+    static final String SHP = "share/data/shape/cntry02/cntry02.shp";
+
+    /**
+     * Pretends the lat/lon shape file is projected, at twice the size.
+     */
+    static class DoubledGCT extends AbstractGCT {
+        public Point2D forward(double lat, double lon, Point2D ret) {
+            ret.setLocation(lon * 2, lat * 2);
+            return ret;
+        }
+
+        public LatLonPoint inverse(double x, double y, LatLonPoint ret) {
+            ret.setLatLon(y / 2, x / 2);
+            return ret;
+        }
+    }
+
+    public void testTreeGathersBounds()
+            throws Exception {
+        if (!new File(SHP).exists()) {
+            return;
+        }
+
+        SpatialIndex linear = SpatialIndex.locateAndSetShapeData(SHP);
+        SpatialIndex tree = SpatialIndex.locateAndSetShapeData(SHP);
+        tree.setUseTree(true);
+        assertEquals(linear.locateRecords(-100, 30, -90, 40).length, tree.locateRecords(-100, 30, -90, 40).length);
+
+        ESRIBoundingBox expected = linear.getBounds();
+        ESRIBoundingBox bounds = tree.getBounds();
+        assertNotNull(bounds.min);
+        assertEquals(expected.min.x, bounds.min.x, 0);
+        assertEquals(expected.min.y, bounds.min.y, 0);
+        assertEquals(expected.max.x, bounds.max.x, 0);
+        assertEquals(expected.max.y, bounds.max.y, 0);
+    }
+
+    public void testTreeUsesDataTransform()
+            throws Exception {
+        if (!new File(SHP).exists()) {
+            return;
+        }
+
+        DoubledGCT gct = new DoubledGCT();
+        DrawingAttributes da = DrawingAttributes.getDefaultClone();
+        SpatialIndex linear = SpatialIndex.locateAndSetShapeData(SHP);
+        SpatialIndex tree = SpatialIndex.locateAndSetShapeData(SHP);
+        tree.setUseTree(true);
+
+        // locateRecords uses the shape file coordinates, getOMGraphics the
+        // transformed ones, in either order.
+        int expected = linear.locateRecords(-100, 30, -90, 40).length;
+        assertTrue(expected > 0);
+        assertEquals(expected, tree.locateRecords(-100, 30, -90, 40).length);
+        PackedRTree untransformed = tree.tree;
+        assertNotNull(untransformed);
+
+        int expectedGraphics = linear.getOMGraphics(-50, 15, -45, 20, null, da, null, gct).size();
+        assertTrue(expectedGraphics > 1);
+        assertEquals(expectedGraphics, tree.getOMGraphics(-50, 15, -45, 20, null, da, null, gct).size());
+        PackedRTree transformed = tree.tree;
+        assertNotSame(untransformed, transformed);
+
+        // Going back and forth doesn't build the trees again.
+        assertEquals(expected, tree.locateRecords(-100, 30, -90, 40).length);
+        assertSame(untransformed, tree.tree);
+        assertEquals(expectedGraphics, tree.getOMGraphics(-50, 15, -45, 20, null, da, null, gct).size());
+        assertSame(transformed, tree.tree);
+    }
+}
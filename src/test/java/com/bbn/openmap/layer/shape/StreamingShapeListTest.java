@@ -0,0 +1,140 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.shape;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.geom.Path2D;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.dataAccess.shape.ShapeConstants;
+import com.bbn.openmap.layer.policy.BufferedImageRenderPolicy;
+import com.bbn.openmap.layer.policy.StandardRenderPolicy;
+import com.bbn.openmap.omGraphics.DrawingAttributes;
+import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.proj.Mercator;
+import com.bbn.openmap.proj.Orthographic;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+public class StreamingShapeListTest extends TestCase {
+
+    static final String SHP = "share/data/shape/cntry02/cntry02.shp";
+
+    public void testMatchesOMGraphics()
+            throws Exception {
+        if (!new File(SHP).exists()) {
+            return;
+        }
+
+        SpatialIndex si = SpatialIndex.locateAndSetShapeData(SHP);
+        DrawingAttributes da = DrawingAttributes.getDefaultClone();
+        da.setFillPaint(Color.green);
+        Mercator proj = new Mercator(new LatLonPoint.Double(40, -100), 2.0E7f, 640, 480);
+        Point2D ul = proj.getUpperLeft();
+        Point2D lr = proj.getLowerRight();
+
+        OMGraphicList graphics = si.getOMGraphics(ul.getX(), lr.getY(), lr.getX(), ul.getY(), null, da, proj, null);
+        // The labels list is added first.
+        int expected = graphics.size() - 1;
+        assertTrue(expected > 0);
+
+        StreamingShapeList list = new StreamingShapeList(si, da, null, ul.getX(), lr.getY(), lr.getX(), ul.getY());
+        list.setBatchSize(7);
+        list.generate(proj);
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        list.render(g);
+        g.dispose();
+
+        assertEquals(expected, list.getRenderedCount());
+        // Middle of Kansas should be filled in.
+        Point2D pnt = proj.forward(38.5, -98.5);
+        int x = (int) pnt.getX();
+        int y = (int) pnt.getY();
+        assertEquals(Color.green.getRGB(), image.getRGB(x, y));
+
+        OMGraphic picked = list.findClosest(x, y, 4f);
+        assertNotNull(picked);
+        OMGraphic closest = graphics.findClosest(x, y, 4f);
+        assertEquals(closest.getAttribute(ShapeConstants.SHAPE_INDEX_ATTRIBUTE),
+                     picked.getAttribute(ShapeConstants.SHAPE_INDEX_ATTRIBUTE));
+
+        // Nothing in the middle of the Atlantic.
+        pnt = proj.forward(35, -50);
+        assertNull(list.findClosest(pnt.getX(), pnt.getY(), 4f));
+    }
+
+    /**
+     * Returns a polygon record positioned after the shape type, the way
+     * stream() hands it to appendPoly().
+     */
+    static ByteBuffer polygonRecord(double[] lonlats) {
+        int numPoints = lonlats.length / 2;
+        ByteBuffer record = ByteBuffer.allocate(48 + numPoints * 16).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(ShapeConstants.SHAPE_TYPE_POLYGON);
+        record.position(36);
+        record.putInt(1);
+        record.putInt(numPoints);
+        record.putInt(0);
+        for (double d : lonlats) {
+            record.putDouble(d);
+        }
+        record.position(4);
+        return record;
+    }
+
+    public void testPartlyVisiblePolygonNotFilled()
+            throws Exception {
+        SpatialIndex si = new SpatialIndex(null);
+        StreamingShapeList list = new StreamingShapeList(si, null, null, -180, -90, 180, 90);
+        Orthographic proj = new Orthographic(new LatLonPoint.Double(0, 0), 1.0E8f, 640, 480);
+        Path2D.Float polygons = new Path2D.Float();
+        Path2D.Float lines = new Path2D.Float();
+
+        // All on the visible side of the globe, filled and closed.
+        double[] visible = new double[] { -10, -10, 10, -10, 10, 10, -10, 10, -10, -10 };
+        assertNotNull(list.appendPoly(polygonRecord(visible), ShapeConstants.SHAPE_TYPE_POLYGON, proj, polygons,
+                                      lines));
+        assertNotNull(polygons.getCurrentPoint());
+        assertNull(lines.getCurrentPoint());
+        assertTrue(polygons.contains(proj.forward(0, 0)));
+
+        // Going around the back of the globe, only the edges are drawn, a
+        // fill would close the visible pieces with a chord.
+        polygons.reset();
+        double[] partly = new double[] { -60, -10, 120, -10, 120, 10, -60, 10, -60, -10 };
+        assertNotNull(list.appendPoly(polygonRecord(partly), ShapeConstants.SHAPE_TYPE_POLYGON, proj, polygons,
+                                      lines));
+        assertNull(polygons.getCurrentPoint());
+        assertNotNull(lines.getCurrentPoint());
+    }
+
+    public void testStreamingLayerKeepsImageBuffer() {
+        Properties props = new Properties();
+        props.put("shape.renderPolicy", "srp");
+        props.put("shape.srp.class", StandardRenderPolicy.class.getName());
+
+        ShapeLayer layer = new ShapeLayer();
+        layer.setProperties("shape", props);
+        assertTrue(layer.getRenderPolicy() instanceof StandardRenderPolicy);
+
+        // Streaming reads the shape file when it renders, so it has to
+        // render into the buffer rather than on every paint.
+        props.put("shape." + ShapeLayer.streamingProperty, "true");
+        layer = new ShapeLayer();
+        layer.setProperties("shape", props);
+        assertTrue(layer.isStreaming());
+        assertTrue(layer.getRenderPolicy() instanceof BufferedImageRenderPolicy);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.vpf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class DcwRecordCursorTest extends TestCase {
+
+    File dir;
+
+    protected void setUp()
+            throws Exception {
+        dir = File.createTempFile("vpf", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    protected void tearDown()
+            throws Exception {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    static ByteBuffer buffer() {
+        return ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static void write(File file, ByteBuffer buffer)
+            throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(buffer.array(), 0, buffer.position());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write a little-endian table, and its variable length index if offsets
+     * isn't null.
+     */
+    static void writeTable(File file, String columns, ByteBuffer records, List<Integer> offsets)
+            throws IOException {
+        String header = "L;test table;-;" + columns + ";";
+        ByteBuffer out = buffer();
+        out.putInt(header.length());
+        out.put(header.getBytes("US-ASCII"));
+        int headerLength = out.position();
+        out.put(records.array(), 0, records.position());
+        write(file, out);
+
+        if (offsets != null) {
+            ByteBuffer vli = buffer();
+            vli.putInt(offsets.size());
+            vli.putInt(8);
+            for (int i = 0; i < offsets.size(); i++) {
+                int end = i + 1 < offsets.size() ? offsets.get(i + 1) : records.position();
+                vli.putInt(headerLength + offsets.get(i));
+                vli.putInt(end - offsets.get(i));
+            }
+            String name = file.getPath();
+            write(new File(name.substring(0, name.length() - 1) + "x"), vli);
+        }
+    }
+
+    public void testVariableLength()
+            throws Exception {
+        ByteBuffer records = buffer();
+        List<Integer> offsets = new ArrayList<Integer>();
+        for (int id = 1; id <= 3; id++) {
+            offsets.add(records.position());
+            records.putInt(id);
+            String name = "edge " + id;
+            records.putInt(name.length());
+            records.put(name.getBytes("US-ASCII"));
+            records.putShort((short) (-id));
+            records.putInt(id);
+            for (int i = 0; i < id; i++) {
+                records.putFloat(10 + i);
+                records.putFloat(-20 - i);
+            }
+            // cross tile id: 1 byte key, short tile, no next key
+            records.put((byte) (1 << 6 | 2 << 4));
+            records.put((byte) (200 + id));
+            records.putShort((short) 40000);
+            records.putFloat(id / 2f);
+            records.putDouble(id / 4d);
+            records.put("ab   ".getBytes("US-ASCII"));
+        }
+
+        File file = new File(dir, "edg");
+        writeTable(file, "id=I,1,P,Row ID,:name=T,*,N,Name,:code=S,1,N,Code,:coords=C,*,N,Coordinates,:"
+                + "cross=K,1,N,Cross tile,:val=F,1,N,Value,:dbl=R,1,N,Double,:fixed=T,5,N,Fixed text,:", records, offsets);
+
+        DcwRecordFile table = new DcwRecordFile(file.getPath());
+        try {
+            assertEquals(-1, table.getRecordLength());
+            DcwRecordCursor cursor = table.openCursor();
+            assertEquals(3, cursor.getRecordCount());
+
+            List<Object> row = new ArrayList<Object>();
+            double[] coords = null;
+            for (int id = 1; id <= 3; id++) {
+                assertTrue(cursor.next());
+                assertEquals(id, cursor.getRowNumber());
+                assertTrue(table.parseRow(row));
+
+                // Out of order, so later columns are found first.
+                assertEquals("ab", cursor.getString(7));
+                assertEquals(id, cursor.getInt(0));
+                assertEquals("edge " + id, cursor.getString(1));
+                assertEquals(-id, cursor.getInt(2));
+                assertEquals(id, cursor.getTupleCount(3));
+                assertEquals(2, cursor.getTupleSize(3));
+                coords = cursor.getCoordinates(3, coords);
+                assertEquals(10.0, coords[0]);
+                assertEquals(-20.0 - (id - 1), coords[2 * id - 1]);
+                assertEquals(200 + id, cursor.getCurrentTileKey(4));
+                assertEquals(40000, cursor.getNextTileID(4));
+                assertEquals(-1, cursor.getNextTileKey(4));
+                assertEquals(id / 2.0, cursor.getDouble(5));
+                assertEquals(id / 4.0, cursor.getDouble(6));
+
+                assertEquals(row.size(), cursor.getRow().size());
+                for (int col = 0; col < row.size(); col++) {
+                    assertEquals("column " + col, row.get(col).toString(), cursor.getRow().get(col).toString());
+                }
+            }
+            assertFalse(cursor.next());
+
+            TilingAdapter adapter = new TilingAdapter.CrossTileAdapter(4);
+            assertTrue(cursor.seek(2));
+            assertTrue(table.getRow(row, 2));
+            assertEquals(adapter.getPrimId(row), adapter.getPrimId(cursor));
+            assertEquals(adapter.getTileId(row), adapter.getTileId(cursor));
+            assertEquals(adapter.getTilePrimId(row), adapter.getTilePrimId(cursor));
+        } finally {
+            table.close();
+        }
+    }
+
+    public void testFixedLength()
+            throws Exception {
+        ByteBuffer records = buffer();
+        for (int id = 1; id <= 4; id++) {
+            records.putInt(id);
+            records.putShort((short) (id * 100));
+            records.put(("t" + id + "  ").getBytes("US-ASCII"));
+            records.putDouble(id);
+            records.putDouble(-id);
+        }
+
+        File file = new File(dir, "txt");
+        writeTable(file, "id=I,1,P,Row ID,:code=S,1,N,Code,:text=T,4,N,Text,:pt=B,1,N,Point,:", records, null);
+
+        DcwRecordFile table = new DcwRecordFile(file.getPath());
+        try {
+            assertEquals(26, table.getRecordLength());
+            DcwRecordCursor cursor = table.openCursor();
+            assertEquals(4, cursor.getRecordCount());
+
+            assertTrue(cursor.seek(3));
+            assertEquals("t3", cursor.getString(2));
+            assertEquals(300, cursor.getInt(1));
+            double[] pt = cursor.getCoordinates(3, null);
+            assertEquals(2, pt.length);
+            assertEquals(3.0, pt[0]);
+            assertEquals(-3.0, pt[1]);
+
+            List<Object> row = new ArrayList<Object>();
+            assertTrue(table.getRow(row, 4));
+            assertTrue(cursor.next());
+            for (int col = 0; col < row.size(); col++) {
+                assertEquals("column " + col, row.get(col).toString(), cursor.getRow().get(col).toString());
+            }
+            assertFalse(cursor.next());
+
+            try {
+                cursor.getInt(0);
+                fail("no current row");
+            } catch (IllegalStateException expected) {
+            }
+            try {
+                cursor.seek(1);
+                cursor.getInt(2);
+                fail("text column");
+            } catch (IllegalArgumentException expected) {
+            }
+        } finally {
+            table.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.layer.vpf;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.omGraphics.OMPoint;
+
+public class VPFFeatureCacheTest extends TestCase {
+
+    public void testConcurrentFill()
+            throws Exception {
+        final VPFFeatureCache cache = new VPFFeatureCache(10);
+        final TileDirectory tile = new TileDirectory("e/f", 12, 10f, 5f, 10f, 5f);
+
+        OMGraphicList requestor = new OMGraphicList();
+        final FeatureCacheGraphicList list = cache.fetchTileContents("lib", "roadl", tile, requestor);
+        assertNotNull(list);
+        assertTrue(list instanceof FeatureCacheGraphicList.EDGE);
+        assertEquals(1, requestor.size());
+        // The loading thread doesn't wait for itself.
+        assertTrue(cache.waitUntilLoaded(list));
+
+        final OMGraphicList otherRequestor = new OMGraphicList();
+        final CountDownLatch fetched = new CountDownLatch(1);
+        final int[] seen = new int[] { -1 };
+        Thread other = new Thread() {
+            public void run() {
+                // Cached, so there's nothing to fill.
+                if (cache.fetchTileContents("lib", "roadl", tile, otherRequestor) == null) {
+                    fetched.countDown();
+                    FeatureCacheGraphicList cached = (FeatureCacheGraphicList) otherRequestor.get(0);
+                    cache.waitUntilLoaded(cached);
+                    seen[0] = cached.size();
+                }
+            }
+        };
+        other.start();
+        assertTrue(fetched.await(10, TimeUnit.SECONDS));
+
+        list.add(new OMPoint(1f, 2f));
+        list.add(new OMPoint(3f, 4f));
+        Thread.sleep(50);
+        assertTrue(other.isAlive());
+        cache.listLoaded(list);
+
+        other.join(10000);
+        assertFalse(other.isAlive());
+        assertEquals(2, seen[0]);
+    }
+
+    public void testInterruptedWait()
+            throws Exception {
+        final VPFFeatureCache cache = new VPFFeatureCache(10);
+        final TileDirectory tile = new TileDirectory("e/f", 12, 10f, 5f, 10f, 5f);
+        final FeatureCacheGraphicList list = cache.fetchTileContents("lib", "roadl", tile, new OMGraphicList());
+        assertNotNull(list);
+
+        final boolean[] loaded = new boolean[] { true, false };
+        Thread other = new Thread() {
+            public void run() {
+                interrupt();
+                loaded[0] = cache.waitUntilLoaded(list);
+                loaded[1] = isInterrupted();
+            }
+        };
+        other.start();
+        other.join(10000);
+        assertFalse(other.isAlive());
+        // Still loading, so the list mustn't be used.
+        assertFalse(loaded[0]);
+        assertTrue(loaded[1]);
+
+        cache.listLoaded(list);
+        other = new Thread() {
+            public void run() {
+                interrupt();
+                loaded[0] = cache.waitUntilLoaded(list);
+            }
+        };
+        other.start();
+        other.join(10000);
+        assertTrue(loaded[0]);
+    }
+}
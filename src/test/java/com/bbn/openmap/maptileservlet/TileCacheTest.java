@@ -0,0 +1,135 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.maptileservlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class TileCacheTest extends TestCase {
+
+    public void testKeys() {
+        assertEquals("osm/3/4/5.png", TileCache.keyFor("osm", "/osm/03/4/5.png"));
+        assertEquals("osm/3/4/5.png", TileCache.keyFor("osm", "osm/3/4/5.png"));
+        assertNull(TileCache.keyFor("osm", "/other/3/4/5.png"));
+        assertNull(TileCache.keyFor("osm", "/osm/../4/5.png"));
+        assertNull(TileCache.keyFor("osm", "/osm/3/4/5"));
+        assertEquals("%2E%2E/3/4/5.png", TileCache.keyFor("..", "/../3/4/5.png"));
+
+        // Names that only differ in characters that need escaping don't share
+        // tiles.
+        String[] names = new String[] { "a_b", "a b", "a.b", "a+b", "a%2Eb", "a*b", "a-b" };
+        Set<String> keys = new HashSet<String>();
+        for (String name : names) {
+            assertTrue(name, keys.add(TileCache.keyFor(name, name + "/3/4/5.png")));
+        }
+    }
+
+    public void testETag() {
+        byte[] data = new byte[] { 1, 2, 3 };
+        TileCache.Tile a = new TileCache.Tile("a", data, 1234567L);
+        TileCache.Tile b = new TileCache.Tile("b", data.clone(), 1234567L);
+        assertEquals(a.getETag(), b.getETag());
+        assertEquals(1234000L, a.getLastModified());
+        assertFalse(a.getETag().equals(new TileCache.Tile("a", new byte[] { 1, 2, 4 }, 0).getETag()));
+    }
+
+    public void testSpillToDisk() throws IOException {
+        File dir = File.createTempFile("tilecachetest", "");
+        dir.delete();
+        dir.mkdir();
+
+        // Room for a couple of tiles in memory.
+        TileCache cache = new TileCache(2500, dir, 1024 * 1024);
+        try {
+            for (int i = 0; i < 20; i++) {
+                byte[] data = new byte[1000];
+                Arrays.fill(data, (byte) i);
+                cache.put(TileCache.keyFor("set", "/set/1/1/" + i + ".png"), data, 5000L);
+            }
+            assertTrue(cache.getDiskSize() > 0);
+
+            TileCache.Tile tile = cache.get(TileCache.keyFor("set", "/set/1/1/0.png"));
+            assertNotNull(tile);
+            assertEquals(1000, tile.getData().length);
+            assertEquals(0, tile.getData()[999]);
+            assertEquals(5000L, tile.getLastModified());
+            assertEquals(1, cache.getDiskHitCount());
+        } finally {
+            cache.clear();
+            cache.delete(dir, true);
+        }
+    }
+
+    public void testStale() throws IOException {
+        File dir = File.createTempFile("tilecachetest", "");
+        dir.delete();
+        dir.mkdir();
+
+        TileCache cache = new TileCache(2500, dir, 1024 * 1024);
+        try {
+            String key = TileCache.keyFor("set", "/set/1/1/0.png");
+            cache.put(key, new byte[1000], 5000L);
+            assertNotNull(cache.get(key, 5999L));
+            assertNotNull(cache.get(key, -1L));
+            assertNull(cache.get(key, 7000L));
+            assertNull(cache.get(key));
+
+            TileCache.Tile tile = cache.put(key, new byte[1000], 7000L);
+            assertSame(tile, cache.get(key, 7000L));
+
+            // Stale tiles in the spill directory are dropped too.
+            for (int i = 1; i < 20; i++) {
+                cache.put(TileCache.keyFor("set", "/set/1/1/" + i + ".png"), new byte[1000], 5000L);
+            }
+            String spilled = null;
+            for (int i = 1; i < 20 && spilled == null; i++) {
+                String k = TileCache.keyFor("set", "/set/1/1/" + i + ".png");
+                if (cache.spillFile(k).isFile()) {
+                    spilled = k;
+                }
+            }
+            assertNotNull(spilled);
+            assertNull(cache.get(spilled, 9000L));
+            assertFalse(cache.spillFile(spilled).exists());
+            assertNull(cache.get(spilled));
+        } finally {
+            cache.clear();
+            cache.delete(dir, true);
+        }
+    }
+
+    public void testCloseDeletesSpillDir() throws IOException {
+        File dir = File.createTempFile("tilecachetest", "");
+        dir.delete();
+        dir.mkdir();
+
+        TileCache cache = new TileCache(2500, dir, 1024 * 1024);
+        try {
+            for (int i = 0; i < 20; i++) {
+                cache.put(TileCache.keyFor("set", "/set/1/1/" + i + ".png"), new byte[1000], 5000L);
+            }
+            assertEquals(1, dir.listFiles().length);
+            assertTrue(cache.getDiskSize() > 0);
+
+            cache.close();
+            assertEquals(0, dir.listFiles().length);
+            assertEquals(0, cache.getDiskSize());
+
+            // Nothing is written after it's closed.
+            for (int i = 20; i < 40; i++) {
+                cache.put(TileCache.keyFor("set", "/set/1/1/" + i + ".png"), new byte[1000], 5000L);
+            }
+            assertEquals(0, dir.listFiles().length);
+        } finally {
+            cache.delete(dir, true);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.omGraphics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.bbn.openmap.proj.Mercator;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+/**
+ * Measures how long it takes to find the OMGraphic under the mouse, the way
+ * the StandardMapMouseInterpreter does on every mouse movement, for lists of
+ * different sizes with and without the screen-space index:
+ *
+ * <pre>
+ * java com.bbn.openmap.omGraphics.OMGraphicListHoverBenchmark [-counts 1000,10000,100000,200000] [-moves 2000]
+ * </pre>
+ *
+ * Each list is half points and half small polygons scattered over the map.
+ * The median and 99th percentile time for a findClosest() call at random
+ * mouse locations are printed, along with the time of the first call after
+ * the list is generated, which includes building the index.
+ */
+public class OMGraphicListHoverBenchmark {
+
+    protected int[] counts = new int[] { 1000, 10000, 100000, 200000 };
+    protected int moves = 2000;
+
+    public static void main(String[] args) {
+        OMGraphicListHoverBenchmark bench = new OMGraphicListHoverBenchmark();
+        for (int i = 0; i < args.length - 1; i += 2) {
+            if (args[i].equals("-counts")) {
+                String[] values = args[i + 1].split(",");
+                bench.counts = new int[values.length];
+                for (int j = 0; j < values.length; j++) {
+                    bench.counts[j] = Math.max(1, Integer.parseInt(values[j].trim()));
+                }
+            } else if (args[i].equals("-moves")) {
+                bench.moves = Math.max(1, Integer.parseInt(args[i + 1]));
+            }
+        }
+
+        System.out.println(String.format("%8s %-8s %12s %12s %12s", "count", "index", "first ms", "median ms",
+                "p99 ms"));
+        for (int count : bench.counts) {
+            bench.run(count, false);
+            bench.run(count, true);
+        }
+    }
+
+    protected OMGraphicList createList(int count) {
+        Random random = new Random(42);
+        OMGraphicList list = new OMGraphicList(count);
+        for (int i = 0; i < count; i++) {
+            double lat = random.nextDouble() * 120 - 60;
+            double lon = random.nextDouble() * 340 - 170;
+            if (i % 2 == 0) {
+                list.add(new OMPoint(lat, lon, 2));
+            } else {
+                list.add(new OMPoly(new double[] { lat, lon, lat + .2, lon + .1, lat + .1, lon + .3, lat, lon },
+                        OMGraphic.DECIMAL_DEGREES, OMGraphic.LINETYPE_STRAIGHT));
+            }
+        }
+        return list;
+    }
+
+    protected void run(int count, boolean indexed) {
+        OMGraphicList list = createList(count);
+        list.setIndexed(indexed);
+        Mercator proj = new Mercator(new LatLonPoint.Double(0, 0), 100000000f, 1024, 768);
+        list.generate(proj);
+
+        Random random = new Random(7);
+        long start = System.nanoTime();
+        list.findClosest(random.nextInt(1024), random.nextInt(768), 4);
+        long first = System.nanoTime() - start;
+
+        // Warm up before timing.
+        for (int i = 0; i < Math.min(moves, 200); i++) {
+            list.findClosest(random.nextInt(1024), random.nextInt(768), 4);
+        }
+
+        long[] times = new long[moves];
+        for (int i = 0; i < moves; i++) {
+            int x = random.nextInt(1024);
+            int y = random.nextInt(768);
+            start = System.nanoTime();
+            list.findClosest(x, y, 4);
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+
+        System.out.println(String.format("%8d %-8s %12.3f %12.4f %12.4f", count, indexed ? "grid" : "none",
+                first / 1e6, times[moves / 2] / 1e6, times[Math.min(moves - 1, moves * 99 / 100)] / 1e6));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.omGraphics;
+
+import java.awt.BasicStroke;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.proj.Mercator;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+public class OMGraphicListIndexTest extends TestCase {
+
+    Mercator proj = new Mercator(new LatLonPoint.Double(0, 0), 50000000f, 800, 600);
+
+    OMGraphicList createList(long seed) {
+        Random random = new Random(seed);
+        OMGraphicList list = new OMGraphicList();
+        for (int i = 0; i < 3000; i++) {
+            int x = random.nextInt(800);
+            int y = random.nextInt(600);
+            OMGraphic omg;
+            switch (i % 7) {
+            case 0:
+                omg = new OMRect(x, y, x + random.nextInt(30), y + random.nextInt(30));
+                if (random.nextBoolean()) {
+                    omg.setFillPaint(OMColor.red);
+                }
+                break;
+            case 1:
+                omg = new OMLine(x, y, x + random.nextInt(60) - 30, y + random.nextInt(60) - 30);
+                break;
+            case 2:
+                double lat = random.nextDouble() * 40 - 20;
+                double lon = random.nextDouble() * 40 - 20;
+                omg = new OMPoly(new double[] { lat, lon, lat + 1, lon + .5, lat + .5, lon + 1.5, lat, lon },
+                        OMGraphic.DECIMAL_DEGREES, OMGraphic.LINETYPE_STRAIGHT);
+                break;
+            case 3:
+                omg = new OMText(x, y, "text " + i, OMText.JUSTIFY_LEFT);
+                break;
+            case 4:
+                omg = new OMPoint(x, y, 2);
+                omg.putAttribute(OMGraphicConstants.LABEL, new OMTextLabeler("label " + i));
+                break;
+            case 5:
+                OMGraphicList sub = new OMGraphicList();
+                sub.add(new OMPoint(x, y, 1));
+                sub.add(new OMRect(x + 5, y + 5, x + 8, y + 8));
+                omg = sub;
+                break;
+            default:
+                omg = new OMPoint(x, y, 3);
+                omg.setStroke(new BasicStroke(random.nextInt(8) + 1));
+                omg.setVisible(random.nextInt(5) > 0);
+            }
+            list.add(omg);
+        }
+        // One that covers everything.
+        list.add(new OMRect(-10, -10, 900, 700));
+        return list;
+    }
+
+    void compare(OMGraphicList plain, OMGraphicList indexed, long seed) {
+        Random random = new Random(seed);
+        float[] limits = new float[] { 0, 1, 4, 20, Float.MAX_VALUE };
+        for (int i = 0; i < 2000; i++) {
+            int x = random.nextInt(900) - 50;
+            int y = random.nextInt(700) - 50;
+            float limit = limits[i % limits.length];
+
+            OMList.OMDist<OMGraphic> expected = plain.findClosest(x, y, limit, false);
+            OMList.OMDist<OMGraphic> found = indexed.findClosest(x, y, limit, false);
+            String msg = x + ", " + y + " limit " + limit;
+            assertEquals(msg, plain.indexOf(expected.omg), indexed.indexOf(found.omg));
+            assertEquals(msg, expected.d, found.d);
+            assertEquals(msg, expected.index, found.index);
+
+            assertEquals(msg, plain.indexOf(plain.getContains(x, y)), indexed.indexOf(indexed.getContains(x, y)));
+        }
+    }
+
+    public void testSameAnswersAsScan()
+            throws Exception {
+        for (int mode = 0; mode < 2; mode++) {
+            OMGraphicList plain = createList(7);
+            OMGraphicList indexed = createList(7);
+            plain.setTraverseMode(mode == 0 ? OMList.FIRST_ADDED_ON_TOP : OMList.LAST_ADDED_ON_TOP);
+            indexed.setTraverseMode(plain.getTraverseMode());
+            indexed.setIndexed(true);
+
+            plain.generate(proj);
+            indexed.generate(proj);
+            compare(plain, indexed, 11);
+            assertNotNull(indexed.index);
+            assertTrue(indexed.index.getAlwaysTestedCount() < indexed.size() / 2);
+
+            // Graphics generated one at a time at a new projection.
+            proj.setCenter(5, 5);
+            proj.setScale(30000000f);
+            for (OMGraphic omg : plain) {
+                omg.generate(proj);
+            }
+            for (OMGraphic omg : indexed) {
+                omg.generate(proj);
+            }
+            indexed.invalidateIndex();
+            compare(plain, indexed, 13);
+
+            // One graphic regenerated where it was, picked up without
+            // rebuilding the index by hand.
+            OMGraphicListIndex idx = indexed.index;
+            indexed.get(0).generate(proj);
+            plain.get(0).generate(proj);
+            java.awt.geom.Rectangle2D bounds = indexed.get(0).getShape().getBounds2D();
+            assertSame(indexed.get(0), indexed.findClosest(bounds.getCenterX(), bounds.getCenterY(), 4));
+            assertTrue(idx != indexed.index);
+            compare(plain, indexed, 19);
+
+            // Replaced graphic.
+            plain.set(1, new OMRect(300, 300, 320, 320));
+            indexed.set(1, new OMRect(300, 300, 320, 320));
+            plain.get(1).generate(proj);
+            indexed.get(1).generate(proj);
+            compare(plain, indexed, 23);
+
+            // Changes to the list.
+            plain.remove(10);
+            indexed.remove(10);
+            plain.add(0, new OMRect(100, 100, 120, 120));
+            indexed.add(0, new OMRect(100, 100, 120, 120));
+            plain.generate(proj);
+            indexed.generate(proj);
+            compare(plain, indexed, 17);
+
+            proj.setCenter(0, 0);
+            proj.setScale(50000000f);
+        }
+    }
+
+    public void testVagueList()
+            throws Exception {
+        OMGraphicList list = createList(3);
+        list.setVague(true);
+        list.setIndexed(true);
+        list.generate(proj);
+        OMGraphic omg = list.getContains(400, 300);
+        assertSame(list, omg);
+        assertSame(list, list.findClosest(400, 300, 4));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.omGraphics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import com.bbn.openmap.dataAccess.shape.EsriPolygon;
+import com.bbn.openmap.proj.GeoProj;
+import com.bbn.openmap.proj.Mercator;
+import com.bbn.openmap.proj.Orthographic;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+/**
+ * Measures the garbage created by regenerating a layer's worth of polygons
+ * over and over at new projections, with OMPoly reusing its projected
+ * coordinate arrays and without:
+ *
+ * <pre>
+ * java com.bbn.openmap.omGraphics.OMPolyAllocationBenchmark [-polys 20000] [-points 100] [-iterations 20]
+ * </pre>
+ *
+ * The polygons are random rings, and each iteration zooms and pans a Mercator
+ * and an Orthographic projection and generates every polygon for each. The
+ * bytes allocated by the thread (if the JVM can measure them), the number of
+ * collections and the time spent are printed for each mode. The first
+ * iteration of each run is a warm-up and isn't counted.
+ */
+public class OMPolyAllocationBenchmark {
+
+    protected int numPolys = 20000;
+    protected int numPoints = 100;
+    protected int iterations = 20;
+
+    public static void main(String[] args) {
+        OMPolyAllocationBenchmark bench = new OMPolyAllocationBenchmark();
+        for (int i = 0; i < args.length - 1; i += 2) {
+            if (args[i].equals("-polys")) {
+                bench.numPolys = Math.max(1, Integer.parseInt(args[i + 1]));
+            } else if (args[i].equals("-points")) {
+                bench.numPoints = Math.max(3, Integer.parseInt(args[i + 1]));
+            } else if (args[i].equals("-iterations")) {
+                bench.iterations = Math.max(1, Integer.parseInt(args[i + 1]));
+            }
+        }
+
+        System.out.println(bench.numPolys + " polygons, " + bench.numPoints + " points each, " + bench.iterations
+                + " iterations");
+        bench.run("new arrays", false);
+        bench.run("reused arrays", true);
+    }
+
+    protected OMGraphicList createPolys(boolean reuse) {
+        Random random = new Random(42);
+        OMGraphicList list = new OMGraphicList();
+        for (int i = 0; i < numPolys; i++) {
+            double lat = random.nextDouble() * 120 - 60;
+            double lon = random.nextDouble() * 340 - 170;
+            double radius = random.nextDouble() * 2 + .1;
+            double[] pts = new double[numPoints * 2];
+            for (int j = 0; j < numPoints - 1; j++) {
+                double angle = 2 * Math.PI * j / (numPoints - 1);
+                double r = radius * (.8 + random.nextDouble() * .4);
+                pts[j * 2] = lat + r * Math.sin(angle);
+                pts[j * 2 + 1] = lon + r * Math.cos(angle);
+            }
+            // close the ring
+            pts[pts.length - 2] = pts[0];
+            pts[pts.length - 1] = pts[1];
+
+            EsriPolygon poly = new EsriPolygon(pts, OMGraphic.DECIMAL_DEGREES, OMGraphic.LINETYPE_STRAIGHT);
+            poly.setReuseProjectedPoints(reuse);
+            list.add(poly);
+        }
+        return list;
+    }
+
+    protected void run(String label, boolean reuse) {
+        OMGraphicList list = createPolys(reuse);
+        GeoProj[] projs = new GeoProj[] { new Mercator(new LatLonPoint.Double(0, 0), 100000000f, 1024, 768),
+                new Orthographic(new LatLonPoint.Double(0, 0), 100000000f, 1024, 768) };
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long bytes = 0;
+        long collections = 0;
+        long nanos = 0;
+        for (int i = 0; i <= iterations; i++) {
+            long startBytes = allocatedBytes(threads);
+            long startCollections = collectionCount();
+            long start = System.nanoTime();
+
+            for (GeoProj proj : projs) {
+                // Zoom in and pan around, like a user would.
+                proj.setScale(100000000f / (1 + i % 10));
+                proj.setCenter(i * 3 % 60 - 30, i * 17 % 340 - 170);
+                list.generate(proj);
+            }
+
+            if (i > 0) {
+                nanos += System.nanoTime() - start;
+                bytes += allocatedBytes(threads) - startBytes;
+                collections += collectionCount() - startCollections;
+            }
+        }
+
+        System.out.println(String.format("%-16s %10.2f ms/iteration  %10.1f MB/iteration  %5d collections", label, nanos
+                / 1e6 / iterations, bytes < 0 ? Double.NaN : bytes / (1024.0 * 1024.0) / iterations, collections));
+    }
+
+    /**
+     * @return the number of bytes allocated by this thread, or a negative
+     *         number if the JVM can't tell.
+     */
+    protected long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    protected long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.omGraphics;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.proj.GeoProj;
+import com.bbn.openmap.proj.Mercator;
+import com.bbn.openmap.proj.Orthographic;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+public class OMPolyTest extends TestCase {
+
+    double[] points = new double[] { 10, 10, 20, 15, 15, 30, 5, 20, 10, 10 };
+
+    public void testReuseProjectedPoints() {
+        OMPoly reusing = new OMPoly(points.clone(), OMGraphic.DECIMAL_DEGREES, OMGraphic.LINETYPE_STRAIGHT);
+        reusing.setReuseProjectedPoints(true);
+        OMPoly plain = new OMPoly(points.clone(), OMGraphic.DECIMAL_DEGREES, OMGraphic.LINETYPE_STRAIGHT);
+
+        GeoProj[] projs = new GeoProj[] { new Mercator(new LatLonPoint.Double(10, 10), 50000000f, 800, 600),
+                new Orthographic(new LatLonPoint.Double(10, 10), 50000000f, 800, 600) };
+
+        for (GeoProj proj : projs) {
+            assertTrue(reusing.generate(proj));
+            float[] xs = reusing.xpoints[0];
+
+            proj.setScale(20000000f);
+            proj.setCenter(15, 20);
+            assertTrue(reusing.generate(proj));
+            assertTrue(plain.generate(proj));
+
+            // Same array, new coordinates.
+            assertSame(xs, reusing.xpoints[0]);
+            assertTrue(Arrays.equals(plain.xpoints[0], reusing.xpoints[0]));
+            assertTrue(Arrays.equals(plain.ypoints[0], reusing.ypoints[0]));
+        }
+
+        OMPoly clone = (OMPoly) reusing.clone();
+        assertTrue(clone.getReuseProjectedPoints());
+        assertTrue(clone.generate(projs[0]));
+        assertTrue(clone.xpoints[0] != reusing.xpoints[0]);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.proj;
+
+import java.awt.geom.Point2D;
+
+/**
+ * Compares the ways of projecting a lot of points, for each projection with
+ * its own forwardBatch():
+ *
+ * <pre>
+ * java -Xmx1g com.bbn.openmap.proj.ForwardBatchBenchmark [-sizes 1000,100000,10000000] [-iterations 10]
+ * </pre>
+ *
+ * For each number of points, the points are projected one at a time through
+ * forward(), through forwardRaw(), and through forwardBatch(), and the best
+ * time per point is printed. Every run is repeated a few times first so the
+ * JIT has compiled the loops before anything is measured.
+ */
+public class ForwardBatchBenchmark {
+
+    protected int[] sizes = new int[] { 1000, 100000, 10000000 };
+    protected int iterations = 10;
+
+    /** Keeps the JIT from throwing the results away. */
+    protected double sink;
+
+    public static void main(String[] args) {
+        ForwardBatchBenchmark bench = new ForwardBatchBenchmark();
+        for (int i = 0; i < args.length - 1; i += 2) {
+            if (args[i].equals("-sizes")) {
+                String[] s = args[i + 1].split(",");
+                bench.sizes = new int[s.length];
+                for (int j = 0; j < s.length; j++) {
+                    bench.sizes[j] = Integer.parseInt(s[j].trim());
+                }
+            } else if (args[i].equals("-iterations")) {
+                bench.iterations = Math.max(1, Integer.parseInt(args[i + 1]));
+            }
+        }
+        bench.runAll();
+    }
+
+    protected void runAll() {
+        for (int size : sizes) {
+            double[] pts = ForwardBatchTest.createPoints(size);
+            float[] xs = new float[size];
+            float[] ys = new float[size];
+            boolean[] vis = new boolean[size];
+            long[] visible = new long[(size + 63) / 64];
+
+            System.out.println(size + " points, ns/point");
+            System.out.println(String.format("  %-20s %10s %10s %10s", "", "forward", "forwardRaw", "batch"));
+            for (GeoProj proj : ForwardBatchTest.createProjections()) {
+                // At least a few million points before timing, for the JIT.
+                int reps = Math.max(iterations, 5000000 / size);
+                double single = time(proj, pts, xs, ys, vis, visible, 0, reps);
+                double raw = time(proj, pts, xs, ys, vis, visible, 1, reps);
+                double batch = time(proj, pts, xs, ys, vis, visible, 2, reps);
+                System.out.println(String.format("  %-20s %10.2f %10.2f %10.2f", proj.getName(), single, raw, batch));
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    protected double time(GeoProj proj, double[] pts, float[] xs, float[] ys, boolean[] vis, long[] visible, int mode,
+                          int reps) {
+        int size = xs.length;
+        long best = Long.MAX_VALUE;
+        Point2D pt = new Point2D.Double();
+        // The first half of the repetitions are warm-up.
+        for (int r = 0; r < reps * 2; r++) {
+            long start = System.nanoTime();
+            switch (mode) {
+            case 0:
+                for (int i = 0, j = 0; i < size; i++, j += 2) {
+                    proj.forward(pts[j], pts[j + 1], pt, true);
+                    xs[i] = (float) pt.getX();
+                    ys[i] = (float) pt.getY();
+                }
+                break;
+            case 1:
+                proj.forwardRaw(pts, 0, xs, ys, vis, 0, size);
+                break;
+            default:
+                proj.forwardBatch(pts, 0, xs, ys, visible, 0, size);
+            }
+            long elapsed = System.nanoTime() - start;
+            sink += xs[r % size];
+            if (r >= reps) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        return best / (double) size;
+    }
+}
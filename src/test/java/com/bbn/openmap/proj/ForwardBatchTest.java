@@ -0,0 +1,104 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.proj;
+
+import java.awt.geom.Point2D;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+public class ForwardBatchTest extends TestCase {
+
+    static GeoProj[] createProjections() {
+        LatLonPoint center = new LatLonPoint.Double(42, -71);
+        return new GeoProj[] { new Mercator(center, 20000000f, 800, 600), new LLXY(center, 20000000f, 800, 600),
+                new CADRG(center, 20000000f, 800, 600), new Orthographic(center, 50000000f, 800, 600),
+                new LambertConformal(center, 20000000f, 800, 600, -71, 33, 45, 0, 0, 0, Ellipsoid.WGS_84),
+                new Gnomonic(center, 20000000f, 800, 600) };
+    }
+
+    static double[] createPoints(int count) {
+        Random random = new Random(7);
+        double[] pts = new double[count * 2];
+        for (int i = 0; i < pts.length; i += 2) {
+            pts[i] = Math.toRadians(random.nextDouble() * 160 - 80);
+            pts[i + 1] = Math.toRadians(random.nextDouble() * 360 - 180);
+        }
+        return pts;
+    }
+
+    public void testMatchesForward() {
+        int count = 500;
+        int off = 3;
+        double[] pts = createPoints(count);
+        Point2D pt = new Point2D.Double();
+        float[] rawX = new float[1];
+        float[] rawY = new float[1];
+        boolean[] rawVisible = new boolean[1];
+
+        for (GeoProj proj : createProjections()) {
+            float[] xs = new float[count + off];
+            float[] ys = new float[count + off];
+            long[] visible = new long[(count + off + 63) / 64];
+            int numVisible = proj.forwardBatch(pts, 0, xs, ys, visible, off, count);
+
+            int expectedVisible = 0;
+            for (int i = 0; i < count; i++) {
+                proj.forward(pts[i * 2], pts[i * 2 + 1], pt, true);
+                String msg = proj.getName() + " point " + i;
+                // CADRG rounds to whole pixels, so a coordinate right on
+                // the half can round the other way.
+                double tolerance = Math.max(1.01, Math.abs(pt.getX()) * 1e-5);
+                assertEquals(msg, pt.getX(), xs[i + off], tolerance);
+                assertEquals(msg, pt.getY(), ys[i + off], Math.max(1.01, Math.abs(pt.getY()) * 1e-5));
+
+                // The visibility forwardRaw() gives the point on its own,
+                // except that LambertConformal's checks the map window, and
+                // no point is on the far side of its cone.
+                boolean expected = true;
+                if (!(proj instanceof LambertConformal)) {
+                    proj.forwardRaw(pts, i * 2, rawX, rawY, rawVisible, 0, 1);
+                    expected = rawVisible[0];
+                }
+                assertEquals(msg, expected, GeoProj.isVisible(visible, i + off));
+                if (expected) {
+                    expectedVisible++;
+                }
+            }
+            assertTrue(proj.getName(), expectedVisible > 0);
+            assertEquals(proj.getName(), expectedVisible, numVisible);
+            for (int i = 0; i < off; i++) {
+                assertFalse(GeoProj.isVisible(visible, i));
+            }
+        }
+    }
+
+    public void testOrthographicVisibility() {
+        GeoProj proj = new Orthographic(new LatLonPoint.Double(0, 0), 50000000f, 800, 600);
+        double[] pts = new double[] { 0, 0, 0, Math.toRadians(170), Math.toRadians(45), Math.toRadians(-45) };
+        float[] xs = new float[3];
+        float[] ys = new float[3];
+        long[] visible = new long[] { -1L };
+        assertEquals(2, proj.forwardBatch(pts, 0, xs, ys, visible, 0, 3));
+        assertTrue(GeoProj.isVisible(visible, 0));
+        assertFalse(GeoProj.isVisible(visible, 1));
+        assertTrue(GeoProj.isVisible(visible, 2));
+    }
+
+    public void testVisibleRange() {
+        long[] visible = new long[4];
+        GeoProj.setVisible(visible, 60, 70);
+        for (int i = 0; i < 256; i++) {
+            assertEquals("bit " + i, i >= 60 && i < 130, GeoProj.isVisible(visible, i));
+        }
+        visible = new long[2];
+        GeoProj.setVisible(visible, 64, 64);
+        assertEquals(0L, visible[0]);
+        assertEquals(-1L, visible[1]);
+    }
+}
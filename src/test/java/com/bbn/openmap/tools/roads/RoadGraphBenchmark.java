@@ -0,0 +1,99 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.tools.roads;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares Route.getBestRoute() with RoadGraph A* and RoadGraph with
+ * shortcuts, on a grid of roads. The default grid has about half a million
+ * roads, a million edges in the graph:
+ *
+ * <pre>
+ * java -Xmx4g com.bbn.openmap.tools.roads.RoadGraphBenchmark [-size 520] [-queries 50] [-oldQueries 5]
+ * </pre>
+ *
+ * Prints the time to build and contract the graph, and the average time for
+ * a route between random intersections with each method. Route.getBestRoute()
+ * is slow on big grids, so it gets fewer queries.
+ */
+public class RoadGraphBenchmark {
+
+    protected int size = 520;
+    protected int queries = 50;
+    protected int oldQueries = 5;
+
+    public static void main(String[] args) {
+        RoadGraphBenchmark bench = new RoadGraphBenchmark();
+        for (int i = 0; i < args.length - 1; i += 2) {
+            if (args[i].equals("-size")) {
+                bench.size = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("-queries")) {
+                bench.queries = Math.max(1, Integer.parseInt(args[i + 1]));
+            } else if (args[i].equals("-oldQueries")) {
+                bench.oldQueries = Math.max(0, Integer.parseInt(args[i + 1]));
+            }
+        }
+        bench.run();
+    }
+
+    protected void run() {
+        Random random = new Random(7);
+        List<Road> roads = RoadGraphTest.createGrid(random, size, size);
+
+        long start = System.nanoTime();
+        RoadGraph graph = new RoadGraph(Collections.enumeration(roads));
+        long build = System.nanoTime() - start;
+        System.out.println(graph.getIntersectionCount() + " intersections, " + roads.size() + " roads, graph built in "
+                + build / 1000000 + " ms");
+
+        Intersection[][] pairs = new Intersection[queries][2];
+        for (int q = 0; q < queries; q++) {
+            pairs[q][0] = graph.getIntersection(random.nextInt(graph.getIntersectionCount()));
+            pairs[q][1] = graph.getIntersection(random.nextInt(graph.getIntersectionCount()));
+        }
+
+        // Warm up, then time.
+        time(graph, pairs, Math.min(5, queries));
+        double aStar = time(graph, pairs, queries);
+
+        double old = 0;
+        if (oldQueries > 0) {
+            start = System.nanoTime();
+            int count = Math.min(oldQueries, queries);
+            for (int q = 0; q < count; q++) {
+                Route.getBestRoute(pairs[q][0], pairs[q][1], 60f, 25f);
+            }
+            old = (System.nanoTime() - start) / 1000000.0 / count;
+        }
+
+        start = System.nanoTime();
+        graph.contract();
+        long contract = System.nanoTime() - start;
+        System.out.println("contracted in " + contract / 1000000 + " ms, " + graph.getHierarchy().getShortcutCount()
+                + " shortcuts");
+
+        time(graph, pairs, Math.min(5, queries));
+        double shortcuts = time(graph, pairs, queries);
+
+        System.out.println(String.format("  %-22s %12s", "", "ms per route"));
+        if (oldQueries > 0) {
+            System.out.println(String.format("  %-22s %12.2f", "Route.getBestRoute", old));
+        }
+        System.out.println(String.format("  %-22s %12.2f", "RoadGraph A*", aStar));
+        System.out.println(String.format("  %-22s %12.2f", "RoadGraph shortcuts", shortcuts));
+    }
+
+    protected double time(RoadGraph graph, Intersection[][] pairs, int count) {
+        long start = System.nanoTime();
+        for (int q = 0; q < count; q++) {
+            graph.getBestRoute(pairs[q][0], pairs[q][1]);
+        }
+        return (System.nanoTime() - start) / 1000000.0 / count;
+    }
+}
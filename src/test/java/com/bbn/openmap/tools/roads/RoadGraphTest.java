@@ -0,0 +1,131 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.tools.roads;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+public class RoadGraphTest extends TestCase {
+
+    static final RoadClass[] CLASSES = new RoadClass[] { new RoadClass("1", Color.magenta, 2, 25.0f),
+            new RoadClass("2", Color.red, 3, 40.0f), new RoadClass("3", Color.blue, 4, 60.0f) };
+
+    /**
+     * A grid of intersections, with a few roads missing and a few diagonals.
+     * Every tenth row and column is a faster road.
+     */
+    static List<Road> createGrid(Random random, int rows, int cols) {
+        Intersection[][] grid = new Intersection[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                double lat = 30 + r * .01 + random.nextDouble() * .003;
+                double lon = -80 + c * .01 + random.nextDouble() * .003;
+                grid[r][c] = new Intersection(new LatLonPoint.Double(lat, lon), null);
+            }
+        }
+
+        List<Road> roads = new ArrayList<Road>();
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (c + 1 < cols && random.nextInt(10) != 0) {
+                    roads.add(road(roads.size(), grid[r][c], grid[r][c + 1], CLASSES[r % 10 == 0 ? 2 : random.nextInt(2)]));
+                }
+                if (r + 1 < rows && random.nextInt(10) != 0) {
+                    roads.add(road(roads.size(), grid[r][c], grid[r + 1][c], CLASSES[c % 10 == 0 ? 2 : random.nextInt(2)]));
+                }
+                if (r + 1 < rows && c + 1 < cols && random.nextInt(20) == 0) {
+                    roads.add(road(roads.size(), grid[r][c], grid[r + 1][c + 1], CLASSES[0]));
+                }
+            }
+        }
+        return roads;
+    }
+
+    static Road road(int id, Intersection from, Intersection to, RoadClass roadClass) {
+        Road road = new Road(id, "Road_" + id, from, to, roadClass, null);
+        from.addRoad(road);
+        to.addRoad(road);
+        return road;
+    }
+
+    static double hours(Route route) {
+        double hours = 0;
+        for (Road road : route.getRoads()) {
+            hours += road.getTraverseHours();
+        }
+        return hours;
+    }
+
+    static void checkRoute(Route route, Intersection from, Intersection to) {
+        assertSame(from, route.getOriginIntersection());
+        assertSame(to, route.getDestinationIntersection());
+    }
+
+    public void testMatchesBestRoute() {
+        Random random = new Random(23);
+        List<Road> roads = createGrid(random, 30, 30);
+        RoadGraph graph = new RoadGraph(Collections.enumeration(roads));
+        assertEquals(roads.size() * 2, graph.getEdgeCount());
+        RoadGraph contracted = new RoadGraph(Collections.enumeration(roads));
+        contracted.contract();
+        assertTrue(contracted.getHierarchy().getShortcutCount() > 0);
+
+        for (int q = 0; q < 100; q++) {
+            Intersection from = graph.getIntersection(random.nextInt(graph.getIntersectionCount()));
+            Intersection to = graph.getIntersection(random.nextInt(graph.getIntersectionCount()));
+            if (from == to) {
+                continue;
+            }
+
+            Route aStar = graph.getBestRoute(from, to);
+            Route shortcuts = contracted.getBestRoute(from, to);
+            Route old = Route.getBestRoute(from, to, 60f, 25f);
+            assertEquals(old == null, aStar == null);
+            assertEquals(aStar == null, shortcuts == null);
+            if (aStar == null) {
+                continue;
+            }
+            checkRoute(aStar, from, to);
+            checkRoute(shortcuts, from, to);
+            assertEquals(hours(aStar), hours(shortcuts), hours(aStar) * 1e-5);
+            assertTrue(hours(aStar) <= hours(old) * (1 + 1e-5));
+        }
+    }
+
+    public void testBlockedRoads() {
+        Random random = new Random(5);
+        List<Road> roads = createGrid(random, 20, 20);
+        RoadGraph graph = new RoadGraph(Collections.enumeration(roads));
+        graph.contract();
+
+        Intersection from = graph.getIntersection(0);
+        Intersection to = graph.getIntersection(graph.getIntersectionCount() - 1);
+        Route route = graph.getBestRoute(from, to);
+        assertNotNull(route);
+        double before = hours(route);
+
+        Road blocked = route.getRoads()[route.getRoads().length / 2];
+        blocked.block();
+        Route detour = graph.getBestRoute(from, to);
+        assertNotNull(detour);
+        checkRoute(detour, from, to);
+        for (Road road : detour.getRoads()) {
+            assertTrue(road != blocked);
+        }
+        assertTrue(hours(detour) >= before);
+        assertEquals(hours(graph.getBestRouteAStar(from, to)), hours(detour), 1e-9);
+
+        blocked.unblock();
+        assertEquals(before, hours(graph.getBestRoute(from, to)), before * 1e-5);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.tools.terrain;
+
+import junit.framework.TestCase;
+
+import com.bbn.openmap.dataAccess.dted.DTEDFrameCacheTest;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+public class ViewshedGeneratorTest extends TestCase {
+
+    DTEDFrameCacheTest.TestFrameCache cache;
+
+    protected void setUp()
+            throws Exception {
+        // Flat, with a 1000m ridge running north-south at 20.55E.
+        short[][] posts = new short[121][121];
+        for (int y = 0; y < 121; y++) {
+            posts[66][y] = 1000;
+        }
+        cache = new DTEDFrameCacheTest.TestFrameCache(4);
+        cache.addFrame(10, 20, posts);
+    }
+
+    protected void tearDown()
+            throws Exception {
+        cache.delete();
+    }
+
+    public void testViewshed() {
+        ViewshedGenerator generator = new ViewshedGenerator(cache);
+        LatLonPoint center = new LatLonPoint.Double(10.5, 20.5);
+        double radius = Math.toRadians(.1);
+        Viewshed viewshed = generator.createViewshed(center, 100, 0, radius, 24);
+
+        assertEquals(49, viewshed.width);
+        assertEquals(10.6, viewshed.north, 1e-9);
+        assertEquals(10.5, viewshed.getLatitude(24), 1e-9);
+        assertEquals(20.5, viewshed.getLongitude(24), 1e-9);
+        assertEquals(Viewshed.VISIBLE, viewshed.get(24, 24));
+
+        // The corners are too far away.
+        assertEquals(Viewshed.OUT_OF_RANGE, viewshed.get(0, 0));
+        assertEquals(Viewshed.OUT_OF_RANGE, viewshed.get(48, 48));
+
+        // Everything to the west can be seen, up to the edge.
+        for (int col = 0; col < 24; col++) {
+            assertTrue("col " + col, viewshed.isVisible(col, 24));
+        }
+        assertTrue(viewshed.isVisible(24, 0));
+        assertTrue(viewshed.isVisible(24, 48));
+
+        // The near side of the ridge can be seen, but not past it.
+        int ridge = 24;
+        while (viewshed.elevations[24 * 49 + ridge] != 1000) {
+            ridge++;
+        }
+        assertEquals(24 + (int) Math.floor(.05 / viewshed.lonSpacing), ridge);
+        assertTrue(viewshed.isVisible(ridge, 24));
+        for (int col = ridge + 1; col < 48; col++) {
+            assertEquals("col " + col, Viewshed.INVISIBLE, viewshed.get(col, 24));
+            assertEquals("col " + col, Viewshed.INVISIBLE, viewshed.get(col, 20));
+        }
+        assertEquals(Viewshed.INVISIBLE, viewshed.get(48, 24));
+        assertTrue(viewshed.getVisibleCount() < 49 * 49 * 3 / 4);
+    }
+
+    public void testLOS() {
+        LOSGenerator generator = new LOSGenerator(cache);
+        LatLonPoint west = new LatLonPoint.Double(10.5, 20.45);
+        assertTrue(generator.isLOS(west, 10, new LatLonPoint.Double(10.52, 20.52), 10, 50));
+        assertFalse(generator.isLOS(west, 10, new LatLonPoint.Double(10.52, 20.6), 10, 50));
+    }
+}
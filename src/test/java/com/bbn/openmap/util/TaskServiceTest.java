@@ -0,0 +1,125 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.util;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class TaskServiceTest extends TestCase {
+
+    TaskService service = TaskService.singleton();
+    int oldThreads;
+
+    protected void setUp() {
+        oldThreads = service.getMaxThreads();
+        service.setMaxThreads(1);
+    }
+
+    protected void tearDown() {
+        service.setMaxThreads(oldThreads);
+    }
+
+    public void testPriorityAndCancel() throws Exception {
+        // A service of its own, so work left queued on the singleton by
+        // other tests doesn't change the queue depth.
+        TaskService service = new TaskService();
+        service.setMaxThreads(1);
+
+        final CountDownLatch block = new CountDownLatch(1);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+
+        try {
+            Future<?> blocker = service.spawn(new Runnable() {
+                public void run() {
+                    try {
+                        block.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }, TaskService.NORM_PRIORITY);
+
+            // Wait for the blocker to take the only thread.
+            while (service.getActiveCount() == 0) {
+                Thread.sleep(5);
+            }
+
+            Future<?> low = service.spawn(record(order, "low"), TaskService.MIN_PRIORITY);
+            Future<?> cancelled = service.spawn(record(order, "cancelled"), TaskService.NORM_PRIORITY);
+            Future<?> high = service.spawn(record(order, "high"), TaskService.MAX_PRIORITY);
+            assertEquals(3, service.getQueueDepth());
+
+            long cancelCount = service.getCancelledCount();
+            assertTrue(cancelled.cancel(true));
+            assertEquals(2, service.getQueueDepth());
+            assertEquals(cancelCount + 1, service.getCancelledCount());
+
+            block.countDown();
+            blocker.get(5, TimeUnit.SECONDS);
+            high.get(5, TimeUnit.SECONDS);
+            low.get(5, TimeUnit.SECONDS);
+
+            assertEquals(2, order.size());
+            assertEquals("high", order.get(0));
+            assertEquals("low", order.get(1));
+            assertTrue(service.getAverageQueueLatency() > 0);
+        } finally {
+            // Let the worker go even if an assertion failed, or it keeps
+            // the JVM from exiting.
+            block.countDown();
+        }
+    }
+
+    public void testWorkerInterruptedBeforeRunning() throws Exception {
+        final CountDownLatch block = new CountDownLatch(1);
+        service.spawn(new Runnable() {
+            public void run() {
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        while (service.getActiveCount() == 0) {
+            Thread.sleep(5);
+        }
+
+        final int[] constructed = new int[1];
+        final int[] finished = new int[1];
+        PooledSwingWorker<String> worker = new PooledSwingWorker<String>() {
+            public String construct() {
+                constructed[0]++;
+                return "done";
+            }
+
+            public void finished() {
+                finished[0]++;
+            }
+        };
+        try {
+            worker.start();
+            worker.interrupt();
+        } finally {
+            block.countDown();
+        }
+
+        assertNull(worker.get());
+        assertEquals(0, constructed[0]);
+        assertEquals(1, finished[0]);
+    }
+
+    Runnable record(final List<String> order, final String name) {
+        return new Runnable() {
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+}
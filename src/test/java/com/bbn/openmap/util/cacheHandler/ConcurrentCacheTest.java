@@ -0,0 +1,142 @@
+/*
+ * <copyright>
+ *  Copyright 2014 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.util.cacheHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ConcurrentCacheTest extends TestCase {
+
+    public void testWeightBoundedLRU() {
+        ConcurrentCache cache = new ConcurrentCache(4000, 1, false);
+        for (int i = 0; i < 4; i++) {
+            cache.put(new CacheObject("k" + i, new byte[1000]));
+        }
+        assertEquals(4, cache.size());
+        assertEquals(4000, cache.getWeight());
+
+        // Touch k0 so k1 is the least recently used.
+        assertNotNull(cache.get("k0"));
+        cache.put(new CacheObject("k4", new byte[1000]));
+
+        assertEquals(4, cache.size());
+        assertNull(cache.get("k1"));
+        assertNotNull(cache.get("k0"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testCacheHandlerOptIn() {
+        final int[] loads = new int[1];
+        CacheHandler handler = new CacheHandler() {
+            public CacheObject load(Object key) {
+                loads[0]++;
+                return new CacheObject(key, new int[256]);
+            }
+        };
+        handler.setConcurrentCache(new ConcurrentCache(10 * 1024, 4, false));
+
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(handler.get("tile"));
+        }
+        assertEquals(1, loads[0]);
+        assertEquals(2, handler.getConcurrentCache().getHitCount());
+        assertNotNull(handler.searchCache("tile"));
+    }
+
+    public void testAdmissionKeepsPopularEntries() {
+        ConcurrentCache cache = new ConcurrentCache(100 * 1000, 1, true);
+        for (int i = 0; i < 90; i++) {
+            cache.put(new CacheObject("hot" + i, new byte[1000]));
+        }
+        for (int r = 0; r < 5; r++) {
+            for (int i = 0; i < 90; i++) {
+                cache.get("hot" + i);
+            }
+        }
+
+        // A scan of one-time keys shouldn't push out the popular ones.
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new CacheObject("scan" + i, new byte[1000]));
+        }
+
+        int hot = 0;
+        for (int i = 0; i < 90; i++) {
+            if (cache.get("hot" + i) != null) {
+                hot++;
+            }
+        }
+        assertTrue("only " + hot + " popular entries left", hot > 80);
+        assertTrue(cache.getRejectionCount() > 0);
+        assertTrue(cache.getWeight() <= cache.getMaxWeight());
+    }
+
+    public void testWeightLimitIsForWholeCache() {
+        // Much more than one segment's share, like a DTED level 2 frame in a
+        // 64MB cache.
+        ConcurrentCache cache = new ConcurrentCache(64 * 1000, 16, false);
+        for (int i = 0; i < 30; i++) {
+            cache.put(new CacheObject("small" + i, new byte[1000]));
+        }
+        CacheObject big = new CacheObject("big", new short[13 * 1000]);
+        assertSame(big, cache.put(big));
+        assertSame(big, cache.get("big"));
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(56 * 1000, cache.getWeight());
+
+        // Filling up evicts the least recently used, from any segment.
+        cache.get("small0");
+        for (int i = 30; i < 40; i++) {
+            cache.put(new CacheObject("small" + i, new byte[1000]));
+        }
+        assertTrue(cache.getWeight() <= cache.getMaxWeight());
+        assertEquals(2, cache.getEvictionCount());
+        assertNull(cache.get("small1"));
+        assertNull(cache.get("small2"));
+        assertNotNull(cache.get("small0"));
+        assertNotNull(cache.get("small3"));
+
+        // A new big entry pushes out everything it has to, but not itself.
+        CacheObject bigger = new CacheObject("bigger", new byte[60 * 1000]);
+        cache.put(bigger);
+        assertSame(bigger, cache.get("bigger"));
+        assertTrue(cache.getWeight() <= cache.getMaxWeight());
+
+        // Too big for the whole cache.
+        final List<Object> evicted = new ArrayList<Object>();
+        cache = new ConcurrentCache(64 * 1000, 16, false) {
+            protected void evicted(CacheObject co) {
+                evicted.add(co.id);
+            }
+        };
+        cache.put(new CacheObject("small", new byte[1000]));
+        cache.put(new CacheObject("huge", new byte[65 * 1000]));
+        assertNull(cache.get("huge"));
+        assertNotNull(cache.get("small"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(Collections.singletonList("huge"), evicted);
+        assertEquals(1000, cache.getWeight());
+    }
+
+    public void testAdmissionWithLargeEntry() {
+        ConcurrentCache cache = new ConcurrentCache(64 * 1000, 16, true);
+        for (int i = 0; i < 30; i++) {
+            cache.put(new CacheObject("small" + i, new byte[1000]));
+        }
+        cache.put(new CacheObject("big", new short[13 * 1000]));
+        assertNotNull(cache.get("big"));
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(56 * 1000, cache.getWeight());
+        assertEquals(31, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.getWeight());
+    }
+}